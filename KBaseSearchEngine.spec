@@ -80,18 +80,24 @@ module KBaseSearchEngine {
 
     /*
       Input parameters for search_types method.
+      profile - profile the search query in the search storage system and return the results
+          in the profile field of the output. Only available to administrators. Default false.
     */
     typedef structure {
         MatchFilter match_filter;
         AccessFilter access_filter;
+        boolean profile;
     } SearchTypesInput;
 
     /*
       Output results of search_types method.
+      profile - a condensed per shard and per query clause timing breakdown of the query,
+          along with the query itself. Only present if profiling was requested.
     */
     typedef structure {
         mapping<string, int> type_to_count;
         int search_time;
+        UnspecifiedObject profile;
     } SearchTypesOutput;
 
     /*
@@ -157,6 +163,8 @@ module KBaseSearchEngine {
       access_filter - see AccessFilter (optional).
       pagination - see Pagination (optional).
       post_processing - see PostProcessing (optional).
+      profile - profile the search query in the search storage system and return the results
+          in the profile field of the output. Only available to administrators. Default false.
     */
     typedef structure {
         list<string> object_types;
@@ -165,6 +173,7 @@ module KBaseSearchEngine {
         AccessFilter access_filter;
         Pagination pagination;
         PostProcessing post_processing;
+        boolean profile;
     } SearchObjectsInput;
 
     /*
@@ -225,6 +234,8 @@ module KBaseSearchEngine {
       mapping<access_group_id, narrative_info> access_group_narrative_info - information about
          the workspaces in which the objects in the results reside. This data only applies to
          workspace objects.
+      profile - a condensed per shard and per query clause timing breakdown of the query,
+          along with the query itself. Only present if profiling was requested.
     */
     typedef structure {
         Pagination pagination;
@@ -233,6 +244,7 @@ module KBaseSearchEngine {
         int total;
         int search_time;
         mapping<access_group_id, narrative_info> access_group_narrative_info;
+        UnspecifiedObject profile;
     } SearchObjectsOutput;
 
     /*
@@ -11,19 +11,30 @@ import us.kbase.common.service.RpcContext;
 
 //BEGIN_HEADER
 
+import java.io.IOException;
 import java.io.PrintWriter;
 import java.net.URL;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.Set;
 import java.util.stream.Collectors;
 
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
 import org.apache.http.HttpHost;
 import org.slf4j.LoggerFactory;
 
 import com.google.common.collect.ImmutableMap;
+import com.mongodb.MongoClient;
+import com.mongodb.MongoCredential;
+import com.mongodb.ServerAddress;
 
 import ch.qos.logback.classic.Level;
 import ch.qos.logback.classic.Logger;
@@ -32,8 +43,12 @@ import kbasesearchengine.authorization.AccessGroupProvider;
 import kbasesearchengine.authorization.TemporaryAuth2Client;
 import kbasesearchengine.authorization.WorkspaceAccessGroupProvider;
 import kbasesearchengine.common.GUID;
+import kbasesearchengine.events.exceptions.FatalRetriableIndexingException;
 import kbasesearchengine.events.handler.CloneableWorkspaceClientImpl;
 import kbasesearchengine.events.handler.WorkspaceEventHandler;
+import kbasesearchengine.events.handler.WorkspaceInfoCache;
+import kbasesearchengine.events.storage.MongoDBStatusEventStorage;
+import kbasesearchengine.main.EventMetrics;
 import kbasesearchengine.main.GitInfo;
 import kbasesearchengine.main.LineLogger;
 import kbasesearchengine.main.SearchInterface;
@@ -42,6 +57,8 @@ import kbasesearchengine.main.SearchVersion;
 import kbasesearchengine.main.TemporaryNarrativePruner;
 import kbasesearchengine.main.NarrativeInfoDecorator;
 import kbasesearchengine.search.ElasticIndexingStorage;
+import kbasesearchengine.search.ElasticIndexingStorage.RequestType;
+import kbasesearchengine.search.ElasticIndexingStorage.WarmUpQuery;
 import kbasesearchengine.system.FileLister;
 import kbasesearchengine.system.ObjectTypeParsingRulesFileParser;
 import kbasesearchengine.system.TypeFileStorage;
@@ -51,6 +68,7 @@ import kbasesearchengine.system.YAMLTypeMappingParser;
 import us.kbase.auth.AuthConfig;
 import us.kbase.auth.ConfigurableAuthService;
 import us.kbase.workspace.WorkspaceClient;
+import kbasesearchengine.common.CircuitBreaker;
 import kbasesearchengine.common.FileUtil;
 //END_HEADER
 
@@ -71,11 +89,144 @@ public class KBaseSearchEngineServer extends JsonServerServlet {
     private static final GitInfo GIT = new GitInfo();
     
     private final SearchInterface search;
+    private final ElasticIndexingStorage esStorage;
+    // null if the search event database is not configured
+    private final EventMetrics eventMetrics;
+    
+    private static List<WarmUpQuery> getWarmUpQueries(final String queries) {
+        if (queries == null) {
+            return Arrays.asList(WarmUpQuery.values());
+        }
+        final List<WarmUpQuery> ret = new LinkedList<>();
+        for (final String q: queries.split(",")) {
+            if (!q.trim().isEmpty()) {
+                ret.add(WarmUpQuery.fromName(q.trim()));
+            }
+        }
+        return ret;
+    }
+    
+    /* sets the ElasticSearch request timeouts and permits from the config. Blank or missing
+     * values leave the defaults in place.
+     */
+    private static void configureElasticRequests(
+            final Map<String, String> config,
+            final ElasticIndexingStorage esStorage) {
+        for (final RequestType type: RequestType.values()) {
+            final String key = "elastic-timeout-" +
+                    type.name().toLowerCase().replace('_', '-') + "-ms";
+            final Long timeout = getConfigLong(config, key);
+            if (timeout != null) {
+                esStorage.setRequestTimeout(type, timeout);
+            }
+        }
+        final Long reads = getConfigLong(config, "elastic-max-concurrent-reads");
+        final Long writes = getConfigLong(config, "elastic-max-concurrent-writes");
+        final Long wait = getConfigLong(config, "elastic-permit-wait-ms");
+        if (reads != null || writes != null || wait != null) {
+            esStorage.setMaxConcurrentRequests(
+                    Math.toIntExact(reads == null ?
+                            ElasticIndexingStorage.DEFAULT_MAX_CONCURRENT_READS : reads),
+                    Math.toIntExact(writes == null ?
+                            ElasticIndexingStorage.DEFAULT_MAX_CONCURRENT_WRITES : writes),
+                    wait == null ? ElasticIndexingStorage.DEFAULT_PERMIT_WAIT_MS : wait);
+        }
+    }
+    
+    private static Long getConfigLong(final Map<String, String> config, final String key) {
+        final String value = config.get(key);
+        if (value == null || value.trim().isEmpty()) {
+            return null;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(String.format(
+                    "The %s param in config must be an integer: %s", key, value), e);
+        }
+    }
+    
+    // warm up in the background so the server can start responding to status requests
+    private void startWarmUp(
+            final TypeStorage typeStorage,
+            final List<WarmUpQuery> queries,
+            final LineLogger logger) {
+        final Thread t = new Thread(() -> {
+            try {
+                esStorage.warmUp(typeStorage.listObjectTypeParsingRules(), queries);
+                logger.logInfo("ElasticSearch warm up complete: " +
+                        esStorage.getWarmUpStatus());
+            } catch (Exception e) {
+                logger.logError("ElasticSearch warm up failed: " + e.getMessage());
+                logger.logError(e);
+            }
+        }, "ElasticSearchWarmUp");
+        t.setDaemon(true);
+        t.start();
+    }
     
     private void quietLoggers() {
         ((Logger) LoggerFactory.getLogger(Logger.ROOT_LOGGER_NAME))
                 .setLevel(Level.INFO);
     }
+    
+    private static EventMetrics getEventMetrics(final Map<String, String> config)
+            throws Exception {
+        final String host = config.get("search-mongo-host");
+        if (host == null || host.trim().isEmpty()) {
+            return null;
+        }
+        final String db = config.get("search-mongo-db");
+        if (db == null || db.trim().isEmpty()) {
+            throw new IllegalArgumentException(
+                    "Must provide the search-mongo-db param in config if search-mongo-host is " +
+                    "provided");
+        }
+        final String user = config.get("search-mongo-user");
+        final String pwd = config.get("search-mongo-pwd");
+        final boolean hasUser = user != null && !user.trim().isEmpty();
+        if (hasUser ^ (pwd != null && !pwd.isEmpty())) { // xor
+            throw new IllegalArgumentException(
+                    "Must provide both search-mongo-user and search-mongo-pwd params in " +
+                    "config if MongoDB authentication is to be used");
+        }
+        final List<MongoCredential> creds = new LinkedList<>();
+        if (hasUser) {
+            creds.add(MongoCredential.createCredential(
+                    user.trim(), db.trim(), pwd.toCharArray()));
+        }
+        // the client lives as long as the server
+        final MongoClient mc = new MongoClient(new ServerAddress(host.trim()), creds);
+        /* the workers own the event database, so only read from it. Rates are averaged over
+         * the rate window anyway, so cache the results rather than querying the database on
+         * every status request and metrics scrape.
+         */
+        return new EventMetrics(
+                MongoDBStatusEventStorage.getStatistics(mc.getDatabase(db.trim())),
+                EventMetrics.DEFAULT_RATE_WINDOW);
+    }
+    
+    /* Serves the event metrics as plain text for metrics scrapers at any path ending in
+     * /metrics. All other GET requests are handled as usual.
+     */
+    @Override
+    protected void doGet(final HttpServletRequest request, final HttpServletResponse response)
+            throws ServletException, IOException {
+        if (eventMetrics == null || !request.getRequestURI().endsWith("/metrics")) {
+            super.doGet(request, response);
+            return;
+        }
+        final String text;
+        try {
+            text = eventMetrics.getText();
+        } catch (FatalRetriableIndexingException e) {
+            response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, e.getMessage());
+            return;
+        }
+        response.setContentType("text/plain; version=0.0.4; charset=utf-8");
+        response.getWriter().print(text);
+        response.getWriter().flush();
+    }
     //END_CLASS_HEADER
 
     public KBaseSearchEngineServer() throws Exception {
@@ -131,6 +282,9 @@ public class KBaseSearchEngineServer extends JsonServerServlet {
             @Override
             public void timeStat(GUID guid, long loadMs, long parseMs, long indexMs) {
             }
+            @Override
+            public void skipStat(GUID guid, boolean skipped) {
+            }
         };
         
         final Map<String, TypeMappingParser> parsers = ImmutableMap.of(
@@ -146,22 +300,30 @@ public class KBaseSearchEngineServer extends JsonServerServlet {
         final AccessGroupProvider accessGroupProvider = new AccessGroupCache(
                 new WorkspaceAccessGroupProvider(wsClient), 30, 50000 * 1000);
         
-        final ElasticIndexingStorage esStorage = new ElasticIndexingStorage(esHostPort,
+        esStorage = new ElasticIndexingStorage(esHostPort,
                 FileUtil.getOrCreateSubDir(tempDir, "esbulk"));
         if (esUser != null) {
             esStorage.setEsUser(esUser);
             esStorage.setEsPassword(esPassword);
         }
         esStorage.setIndexNamePrefix(esIndexPrefix);
+        configureElasticRequests(config, esStorage);
+        startWarmUp(ss, getWarmUpQueries(config.get("warm-up-queries")), logger);
+        eventMetrics = getEventMetrics(config);
         
         // this is a dirty hack so we don't have to provide 2 auth urls in the config
         // update if we ever update the SDK to use the non-legacy endpoints
         final String auth2URL = authURL.split("api")[0];
         
+        final CloneableWorkspaceClientImpl wsCli = new CloneableWorkspaceClientImpl(wsClient);
+        // narrative names change more often than search tags, so keep the lifetime short
+        final WorkspaceInfoCache wsInfoCache = new WorkspaceInfoCache(
+                new WorkspaceEventHandler(wsCli), 60, 10000);
+        
         search = new TemporaryNarrativePruner(
                 new NarrativeInfoDecorator(
                         new SearchMethods(accessGroupProvider, esStorage, ss, admins),
-                        new WorkspaceEventHandler(new CloneableWorkspaceClientImpl(wsClient)),
+                        new WorkspaceEventHandler(wsCli, wsInfoCache),
                         new TemporaryAuth2Client(new URL(auth2URL)),
                         kbaseIndexerToken.getToken()));
         //END_CONSTRUCTOR
@@ -239,11 +401,25 @@ public class KBaseSearchEngineServer extends JsonServerServlet {
         Map<String, Object> returnVal = null;
         //BEGIN_STATUS
         returnVal = new LinkedHashMap<String, Object>();
-        returnVal.put("state", "OK");
-        returnVal.put("message", "");
+        final boolean esUp = !esStorage.getCircuitBreaker().getState()
+                .equals(CircuitBreaker.State.OPEN);
+        final boolean ready = esStorage.isReady();
+        returnVal.put("state", esUp ? "OK" : "FAIL");
+        returnVal.put("message", !esUp ? "ElasticSearch circuit breaker is open" :
+                ready ? "" : "Warming up ElasticSearch");
+        returnVal.put("ready", ready);
         returnVal.put("version", SearchVersion.VERSION);
         returnVal.put("git_url", GIT.getGitUrl());
         returnVal.put("git_commit_hash", GIT.getGitCommit());
+        returnVal.put("elasticsearch", esStorage.getRequestStatistics());
+        returnVal.put("warm_up", esStorage.getWarmUpStatus());
+        if (eventMetrics != null) {
+            try {
+                returnVal.put("events", eventMetrics.getStatus());
+            } catch (FatalRetriableIndexingException e) {
+                returnVal.put("events", Collections.singletonMap("error", e.getMessage()));
+            }
+        }
         // get eclipse to shut up about the unused constants
         @SuppressWarnings("unused")
         final String v = version;
@@ -24,6 +24,8 @@ import com.fasterxml.jackson.annotation.JsonPropertyOrder;
  * access_filter - see AccessFilter (optional).
  * pagination - see Pagination (optional).
  * post_processing - see PostProcessing (optional).
+ * profile - profile the search query in the search storage system and return the results
+ *     in the profile field of the output. Only available to administrators. Default false.
  * </pre>
  * 
  */
@@ -35,7 +37,8 @@ import com.fasterxml.jackson.annotation.JsonPropertyOrder;
     "sorting_rules",
     "access_filter",
     "pagination",
-    "post_processing"
+    "post_processing",
+    "profile"
 })
 public class SearchObjectsInput {
 
@@ -110,6 +113,8 @@ public class SearchObjectsInput {
      */
     @JsonProperty("post_processing")
     private PostProcessing postProcessing;
+    @JsonProperty("profile")
+    private Long profile;
     private Map<java.lang.String, Object> additionalProperties = new HashMap<java.lang.String, Object>();
 
     @JsonProperty("object_types")
@@ -320,6 +325,21 @@ public class SearchObjectsInput {
         return this;
     }
 
+    @JsonProperty("profile")
+    public Long getProfile() {
+        return profile;
+    }
+
+    @JsonProperty("profile")
+    public void setProfile(Long profile) {
+        this.profile = profile;
+    }
+
+    public SearchObjectsInput withProfile(Long profile) {
+        this.profile = profile;
+        return this;
+    }
+
     @JsonAnyGetter
     public Map<java.lang.String, Object> getAdditionalProperties() {
         return this.additionalProperties;
@@ -332,7 +352,7 @@ public class SearchObjectsInput {
 
     @Override
     public java.lang.String toString() {
-        return ((((((((((((((("SearchObjectsInput"+" [objectTypes=")+ objectTypes)+", matchFilter=")+ matchFilter)+", sortingRules=")+ sortingRules)+", accessFilter=")+ accessFilter)+", pagination=")+ pagination)+", postProcessing=")+ postProcessing)+", additionalProperties=")+ additionalProperties)+"]");
+        return ((((((((((((((((("SearchObjectsInput"+" [objectTypes=")+ objectTypes)+", matchFilter=")+ matchFilter)+", sortingRules=")+ sortingRules)+", accessFilter=")+ accessFilter)+", pagination=")+ pagination)+", postProcessing=")+ postProcessing)+", profile=")+ profile)+", additionalProperties=")+ additionalProperties)+"]");
     }
 
 }
@@ -11,6 +11,7 @@ import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.annotation.JsonPropertyOrder;
 import us.kbase.common.service.Tuple5;
+import us.kbase.common.service.UObject;
 
 
 /**
@@ -24,6 +25,8 @@ import us.kbase.common.service.Tuple5;
  * mapping<access_group_id, narrative_info> access_group_narrative_info - information about
  *    the workspaces in which the objects in the results reside. This data only applies to
  *    workspace objects.
+ * profile - a condensed per shard and per query clause timing breakdown of the query,
+ *     along with the query itself. Only present if profiling was requested.
  * </pre>
  * 
  */
@@ -35,7 +38,8 @@ import us.kbase.common.service.Tuple5;
     "objects",
     "total",
     "search_time",
-    "access_group_narrative_info"
+    "access_group_narrative_info",
+    "profile"
 })
 public class SearchObjectsOutput {
 
@@ -58,6 +62,8 @@ public class SearchObjectsOutput {
     private java.lang.Long searchTime;
     @JsonProperty("access_group_narrative_info")
     private Map<Long, Tuple5 <String, Long, Long, String, String>> accessGroupNarrativeInfo;
+    @JsonProperty("profile")
+    private UObject profile;
     private Map<java.lang.String, Object> additionalProperties = new HashMap<java.lang.String, Object>();
 
     /**
@@ -164,6 +170,21 @@ public class SearchObjectsOutput {
         return this;
     }
 
+    @JsonProperty("profile")
+    public UObject getProfile() {
+        return profile;
+    }
+
+    @JsonProperty("profile")
+    public void setProfile(UObject profile) {
+        this.profile = profile;
+    }
+
+    public SearchObjectsOutput withProfile(UObject profile) {
+        this.profile = profile;
+        return this;
+    }
+
     @JsonAnyGetter
     public Map<java.lang.String, Object> getAdditionalProperties() {
         return this.additionalProperties;
@@ -176,7 +197,7 @@ public class SearchObjectsOutput {
 
     @Override
     public java.lang.String toString() {
-        return ((((((((((((((("SearchObjectsOutput"+" [pagination=")+ pagination)+", sortingRules=")+ sortingRules)+", objects=")+ objects)+", total=")+ total)+", searchTime=")+ searchTime)+", accessGroupNarrativeInfo=")+ accessGroupNarrativeInfo)+", additionalProperties=")+ additionalProperties)+"]");
+        return ((((((((((((((((("SearchObjectsOutput"+" [pagination=")+ pagination)+", sortingRules=")+ sortingRules)+", objects=")+ objects)+", total=")+ total)+", searchTime=")+ searchTime)+", accessGroupNarrativeInfo=")+ accessGroupNarrativeInfo)+", profile=")+ profile)+", additionalProperties=")+ additionalProperties)+"]");
     }
 
 }
@@ -15,6 +15,8 @@ import com.fasterxml.jackson.annotation.JsonPropertyOrder;
  * <p>Original spec-file type: SearchTypesInput</p>
  * <pre>
  * Input parameters for search_types method.
+ * profile - profile the search query in the search storage system and return the results
+ *     in the profile field of the output. Only available to administrators. Default false.
  * </pre>
  * 
  */
@@ -22,7 +24,8 @@ import com.fasterxml.jackson.annotation.JsonPropertyOrder;
 @Generated("com.googlecode.jsonschema2pojo")
 @JsonPropertyOrder({
     "match_filter",
-    "access_filter"
+    "access_filter",
+    "profile"
 })
 public class SearchTypesInput {
 
@@ -64,6 +67,8 @@ public class SearchTypesInput {
      */
     @JsonProperty("access_filter")
     private AccessFilter accessFilter;
+    @JsonProperty("profile")
+    private Long profile;
     private Map<String, Object> additionalProperties = new HashMap<String, Object>();
 
     /**
@@ -164,6 +169,21 @@ public class SearchTypesInput {
         return this;
     }
 
+    @JsonProperty("profile")
+    public Long getProfile() {
+        return profile;
+    }
+
+    @JsonProperty("profile")
+    public void setProfile(Long profile) {
+        this.profile = profile;
+    }
+
+    public SearchTypesInput withProfile(Long profile) {
+        this.profile = profile;
+        return this;
+    }
+
     @JsonAnyGetter
     public Map<String, Object> getAdditionalProperties() {
         return this.additionalProperties;
@@ -176,7 +196,7 @@ public class SearchTypesInput {
 
     @Override
     public String toString() {
-        return ((((((("SearchTypesInput"+" [matchFilter=")+ matchFilter)+", accessFilter=")+ accessFilter)+", additionalProperties=")+ additionalProperties)+"]");
+        return ((((((((("SearchTypesInput"+" [matchFilter=")+ matchFilter)+", accessFilter=")+ accessFilter)+", profile=")+ profile)+", additionalProperties=")+ additionalProperties)+"]");
     }
 
 }
@@ -9,12 +9,15 @@ import com.fasterxml.jackson.annotation.JsonAnySetter;
 import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+import us.kbase.common.service.UObject;
 
 
 /**
  * <p>Original spec-file type: SearchTypesOutput</p>
  * <pre>
  * Output results of search_types method.
+ * profile - a condensed per shard and per query clause timing breakdown of the query,
+ *     along with the query itself. Only present if profiling was requested.
  * </pre>
  * 
  */
@@ -22,7 +25,8 @@ import com.fasterxml.jackson.annotation.JsonPropertyOrder;
 @Generated("com.googlecode.jsonschema2pojo")
 @JsonPropertyOrder({
     "type_to_count",
-    "search_time"
+    "search_time",
+    "profile"
 })
 public class SearchTypesOutput {
 
@@ -30,6 +34,8 @@ public class SearchTypesOutput {
     private Map<String, Long> typeToCount;
     @JsonProperty("search_time")
     private java.lang.Long searchTime;
+    @JsonProperty("profile")
+    private UObject profile;
     private Map<java.lang.String, Object> additionalProperties = new HashMap<java.lang.String, Object>();
 
     @JsonProperty("type_to_count")
@@ -62,6 +68,21 @@ public class SearchTypesOutput {
         return this;
     }
 
+    @JsonProperty("profile")
+    public UObject getProfile() {
+        return profile;
+    }
+
+    @JsonProperty("profile")
+    public void setProfile(UObject profile) {
+        this.profile = profile;
+    }
+
+    public SearchTypesOutput withProfile(UObject profile) {
+        this.profile = profile;
+        return this;
+    }
+
     @JsonAnyGetter
     public Map<java.lang.String, Object> getAdditionalProperties() {
         return this.additionalProperties;
@@ -74,7 +95,7 @@ public class SearchTypesOutput {
 
     @Override
     public java.lang.String toString() {
-        return ((((((("SearchTypesOutput"+" [typeToCount=")+ typeToCount)+", searchTime=")+ searchTime)+", additionalProperties=")+ additionalProperties)+"]");
+        return ((((((((("SearchTypesOutput"+" [typeToCount=")+ typeToCount)+", searchTime=")+ searchTime)+", profile=")+ profile)+", additionalProperties=")+ additionalProperties)+"]");
     }
 
 }
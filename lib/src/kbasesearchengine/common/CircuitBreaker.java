@@ -0,0 +1,266 @@
+package kbasesearchengine.common;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+
+import kbasesearchengine.tools.Utils;
+
+/** A simple circuit breaker for calls to a remote service.
+ *
+ * While the breaker is closed, all calls are allowed. After a number of consecutive failures,
+ * or when the proportion of failures among the most recent calls reaches a threshold,
+ * the breaker opens and all calls are rejected without contacting the remote service. Once the
+ * open period has passed, the breaker moves to half open and allows a single probe call
+ * through. If the probe succeeds the breaker closes, and if it fails the breaker opens again.
+ *
+ * Callers must call {@link #tryAcquire()} before each call and, if the call was allowed,
+ * exactly one of {@link #recordSuccess()}, {@link #recordFailure()}, or {@link #release()}
+ * afterwards.
+ *
+ * This class is thread safe.
+ */
+public class CircuitBreaker {
+
+    /** The state of a circuit breaker. */
+    public enum State {
+        /** All calls are allowed. */
+        CLOSED,
+        /** All calls are rejected. */
+        OPEN,
+        /** A single probe call is allowed to determine whether the breaker should close. */
+        HALF_OPEN;
+    }
+
+    private final String name;
+    private final int failureThreshold;
+    private final double failureRateThreshold;
+    // the outcomes of the most recent calls, true for a failure. Null if the rate is not used.
+    private final boolean[] window;
+    private final Duration openDuration;
+    private final Clock clock;
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures = 0;
+    private Instant openedAt = null;
+    private boolean probeInFlight = false;
+    private long shortCircuited = 0;
+    private long timesOpened = 0;
+    private int windowCount = 0;
+    private int windowNext = 0;
+    private int windowFailures = 0;
+
+    /** Create a circuit breaker.
+     * @param name the name of the breaker, usually the name of the remote service.
+     * @param failureThreshold the number of consecutive failures after which the breaker opens.
+     * @param openDuration the amount of time the breaker stays open before allowing a probe
+     * call.
+     */
+    public CircuitBreaker(
+            final String name,
+            final int failureThreshold,
+            final Duration openDuration) {
+        this(name, failureThreshold, openDuration, Clock.systemDefaultZone());
+    }
+
+    /** Create a circuit breaker with an alternate clock. Used for testing.
+     * @param name the name of the breaker, usually the name of the remote service.
+     * @param failureThreshold the number of consecutive failures after which the breaker opens.
+     * @param openDuration the amount of time the breaker stays open before allowing a probe
+     * call.
+     * @param clock the clock to use to determine when the open period has passed.
+     */
+    public CircuitBreaker(
+            final String name,
+            final int failureThreshold,
+            final Duration openDuration,
+            final Clock clock) {
+        if (failureThreshold < 1) {
+            throw new IllegalArgumentException("failureThreshold must be at least 1");
+        }
+        checkCommon(name, openDuration, clock);
+        this.name = name;
+        this.failureThreshold = failureThreshold;
+        this.failureRateThreshold = 1;
+        this.window = null;
+        this.openDuration = openDuration;
+        this.clock = clock;
+    }
+
+    /** Create a circuit breaker that opens based on the proportion of failed calls.
+     * @param name the name of the breaker, usually the name of the remote service.
+     * @param failureRateThreshold the proportion of failed calls, from greater than 0 to 1,
+     * at which the breaker opens.
+     * @param windowSize the number of most recent calls from which the proportion of failed
+     * calls is calculated. The breaker will not open until at least this many calls have been
+     * recorded since it last closed.
+     * @param openDuration the amount of time the breaker stays open before allowing a probe
+     * call.
+     * @param clock the clock to use to determine when the open period has passed.
+     */
+    public CircuitBreaker(
+            final String name,
+            final double failureRateThreshold,
+            final int windowSize,
+            final Duration openDuration,
+            final Clock clock) {
+        if (!(failureRateThreshold > 0 && failureRateThreshold <= 1)) {
+            throw new IllegalArgumentException(
+                    "failureRateThreshold must be greater than 0 and at most 1");
+        }
+        if (windowSize < 1) {
+            throw new IllegalArgumentException("windowSize must be at least 1");
+        }
+        checkCommon(name, openDuration, clock);
+        this.name = name;
+        this.failureThreshold = Integer.MAX_VALUE;
+        this.failureRateThreshold = failureRateThreshold;
+        this.window = new boolean[windowSize];
+        this.openDuration = openDuration;
+        this.clock = clock;
+    }
+
+    private static void checkCommon(
+            final String name,
+            final Duration openDuration,
+            final Clock clock) {
+        Utils.notNullOrEmpty(name, "name cannot be null or whitespace only");
+        Utils.nonNull(openDuration, "openDuration");
+        if (openDuration.isNegative() || openDuration.isZero()) {
+            throw new IllegalArgumentException("openDuration must be positive");
+        }
+        Utils.nonNull(clock, "clock");
+    }
+
+    /** Get the name of the breaker.
+     * @return the name.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /** Get the state of the breaker. If the breaker is open and the open period has passed,
+     * the breaker is reported as half open.
+     * @return the state.
+     */
+    public synchronized State getState() {
+        updateState();
+        return state;
+    }
+
+    /** Get the number of calls that have been rejected because the breaker was open.
+     * @return the number of rejected calls.
+     */
+    public synchronized long getShortCircuitedCount() {
+        return shortCircuited;
+    }
+
+    /** Get the number of times the breaker has transitioned to the open state.
+     * @return the number of times the breaker opened.
+     */
+    public synchronized long getOpenedCount() {
+        return timesOpened;
+    }
+
+    /** Get the proportion of failed calls among the most recent calls recorded since the
+     * breaker last opened. Always 0 for a breaker that opens based on consecutive failures.
+     * @return the failure rate.
+     */
+    public synchronized double getFailureRate() {
+        return windowCount == 0 ? 0 : windowFailures / (double) windowCount;
+    }
+
+    /** Get the amount of time until an open breaker will allow a probe call.
+     * @return the remaining open time, or zero if the breaker is not open.
+     */
+    public synchronized Duration getOpenTimeRemaining() {
+        updateState();
+        if (!state.equals(State.OPEN)) {
+            return Duration.ZERO;
+        }
+        return Duration.between(clock.instant(), openedAt.plus(openDuration));
+    }
+
+    /** Request permission to make a call.
+     * @return true if the call may proceed, false if the breaker is open.
+     */
+    public synchronized boolean tryAcquire() {
+        updateState();
+        if (state.equals(State.CLOSED)) {
+            return true;
+        }
+        if (state.equals(State.HALF_OPEN) && !probeInFlight) {
+            probeInFlight = true;
+            return true;
+        }
+        shortCircuited++;
+        return false;
+    }
+
+    /** Record that an allowed call succeeded. Closes the breaker if it was half open. */
+    public synchronized void recordSuccess() {
+        recordOutcome(false);
+        consecutiveFailures = 0;
+        probeInFlight = false;
+        state = State.CLOSED;
+        openedAt = null;
+    }
+
+    /** Record that an allowed call failed. Opens the breaker if the failure threshold has been
+     * reached or the call was a probe.
+     */
+    public synchronized void recordFailure() {
+        recordOutcome(true);
+        consecutiveFailures++;
+        if (state.equals(State.HALF_OPEN) || consecutiveFailures >= failureThreshold ||
+                isFailureRateExceeded()) {
+            if (!state.equals(State.OPEN)) {
+                timesOpened++;
+            }
+            state = State.OPEN;
+            openedAt = clock.instant();
+            // start afresh when the breaker closes again
+            windowCount = 0;
+            windowNext = 0;
+            windowFailures = 0;
+        }
+        probeInFlight = false;
+    }
+
+    private void recordOutcome(final boolean failure) {
+        if (window == null) {
+            return;
+        }
+        if (windowCount == window.length) {
+            if (window[windowNext]) {
+                windowFailures--;
+            }
+        } else {
+            windowCount++;
+        }
+        window[windowNext] = failure;
+        if (failure) {
+            windowFailures++;
+        }
+        windowNext = (windowNext + 1) % window.length;
+    }
+
+    private boolean isFailureRateExceeded() {
+        return window != null && windowCount == window.length &&
+                windowFailures >= failureRateThreshold * window.length;
+    }
+
+    /** Record that an allowed call was not made, or that its result says nothing about the
+     * health of the remote service.
+     */
+    public synchronized void release() {
+        probeInFlight = false;
+    }
+
+    private void updateState() {
+        if (state.equals(State.OPEN) &&
+                !clock.instant().isBefore(openedAt.plus(openDuration))) {
+            state = State.HALF_OPEN;
+        }
+    }
+}
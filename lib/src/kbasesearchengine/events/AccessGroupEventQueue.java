@@ -7,6 +7,9 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 import java.util.PriorityQueue;
 import java.util.Set;
@@ -19,7 +22,9 @@ import kbasesearchengine.tools.Utils;
 
 /** An event queue on the level of an access group. Any access group level event blocks the 
  * entire queue once it is in the ready or processing state, while object level events can
- * run independently subject to the {@link ObjectEventQueue} rules.
+ * run independently subject to the {@link ObjectEventQueue} rules. Object level events without
+ * an object ID, such as child events that apply to a range of object IDs, are treated as access
+ * group level events.
  * 
  * The queue never changes the state of the {@link StoredStatusEvent}s submitted to it.
  * 
@@ -27,6 +32,13 @@ import kbasesearchengine.tools.Utils;
  * are unique.
  * If events with duplicate IDs are added to the queue unexpected behavior may result.
  * 
+ * Object level events that are superseded by later events are coalesced as described in
+ * {@link ObjectEventQueue} and held until removed with {@link #removeCoalesced()}.
+ * 
+ * The queue tracks which object queues have waiting, ready, and processing events, so that
+ * state transitions only visit the object queues that can change rather than every object
+ * queue in the access group.
+ * 
  * This class is not thread safe.
  * @author gaprice@lbl.gov
  *
@@ -59,6 +71,14 @@ public class AccessGroupEventQueue {
     // this contains only access group level events. Object level events are handled by their
     // respective queues.
     private Set<StatusEventID> containedEvents = new HashSet<>();
+    // object IDs of object queues with loaded events but no ready or processing event
+    private final Set<String> waitingObjects = new HashSet<>();
+    // object IDs of object queues with an event in the ready state
+    private final Set<String> readyObjects = new HashSet<>();
+    // object IDs of object queues with an event in the processing state
+    private final Set<String> processingObjects = new HashSet<>();
+    // object IDs of object queues holding coalesced events
+    private final Set<String> coalescedObjects = new HashSet<>();
     
     /* should maybe initialize with an access group id and reject events that don't match */
     
@@ -86,7 +106,7 @@ public class AccessGroupEventQueue {
                     !e.getState().equals(StatusEventProcessingState.PROC)) {
                 throw new IllegalArgumentException("Illegal initial event state: " + e.getState());
             }
-            if (ACCESS_GROUP_EVENTS.contains(e.getEvent().getEventType())) {
+            if (isAccessGroupEvent(e)) {
                 initAccessGroupEvent(e);
             } else {
                 initObjectEvent(objects, e);
@@ -100,11 +120,18 @@ public class AccessGroupEventQueue {
         }
         
         for (final String objID: objects.keySet()) {
-            objectQueues.put(objID, new ObjectEventQueue(objects.get(objID)));
+            final ObjectEventQueue oq = new ObjectEventQueue(objects.get(objID));
+            objectQueues.put(objID, oq);
+            updateIndexes(objID, oq);
         }
         this.size = initialLoad.size();
     }
 
+    private static boolean isAccessGroupEvent(final StoredStatusEvent e) {
+        return ACCESS_GROUP_EVENTS.contains(e.getEvent().getEventType()) ||
+                !e.getEvent().getAccessGroupObjectId().isPresent();
+    }
+
     private void initObjectEvent(
             final Map<String, StoredStatusEvent> objectMap,
             final StoredStatusEvent e) {
@@ -146,7 +173,7 @@ public class AccessGroupEventQueue {
                     event.getState());
         }
         boolean loaded = false;
-        if (ACCESS_GROUP_EVENTS.contains(event.getEvent().getEventType())) {
+        if (isAccessGroupEvent(event)) {
             if (!containedEvents.contains(event.getID())) {
                 accessGroupQueue.add(event);
                 containedEvents.add(event.getID());
@@ -156,9 +183,15 @@ public class AccessGroupEventQueue {
             //TODO CODE add checks to StatusEvent to ensure object event types always have object IDs
             final String objID = event.getEvent().getAccessGroupObjectId().get();
             if (!objectQueues.containsKey(objID)) {
-                objectQueues.put(objID, new ObjectEventQueue());
+                final ObjectEventQueue oq = new ObjectEventQueue();
+                if (drain != null) {
+                    oq.drainAndBlockAt(drain.getEvent().getTimestamp());
+                }
+                objectQueues.put(objID, oq);
             }
-            loaded = objectQueues.get(objID).load(event);
+            final ObjectEventQueue oq = objectQueues.get(objID);
+            loaded = oq.load(event);
+            updateIndexes(objID, oq);
         }
         size += loaded ? 1 : 0;
         return loaded;
@@ -176,16 +209,29 @@ public class AccessGroupEventQueue {
         }
         if (drain == null) {
             drain = accessGroupQueue.poll();
-        }
-        final Instant drainTime = drain == null ? null : drain.getEvent().getTimestamp();
-        boolean drained = true;
-        for (final ObjectEventQueue oq: objectQueues.values()) {
-            if (drainTime != null) {
-                oq.drainAndBlockAt(drainTime);
+            if (drain != null) {
+                // new object queues are blocked on load
+                final Instant drainTime = drain.getEvent().getTimestamp();
+                for (final ObjectEventQueue oq: objectQueues.values()) {
+                    oq.drainAndBlockAt(drainTime);
+                }
             }
+        }
+        // only object queues with waiting events can move an event into the ready state
+        final Iterator<String> waiting = waitingObjects.iterator();
+        while (waiting.hasNext()) {
+            final String objID = waiting.next();
+            final ObjectEventQueue oq = objectQueues.get(objID);
             addMoveToReady(oq, ret);
-            drained = drained && !oq.isProcessingOrReady();
+            if (oq.hasCoalesced()) {
+                coalescedObjects.add(objID);
+            }
+            if (oq.hasReady()) {
+                waiting.remove();
+                readyObjects.add(objID);
+            }
         }
+        final boolean drained = readyObjects.isEmpty() && processingObjects.isEmpty();
         if (drained && drain != null) {
             ready = drain;
             drain = null;
@@ -194,6 +240,22 @@ public class AccessGroupEventQueue {
         return Collections.unmodifiableSet(ret);
     }
     
+    /* Put an object queue into the correct index set for its state, or remove it from all
+     * the index sets if it's empty.
+     */
+    private void updateIndexes(final String objID, final ObjectEventQueue oq) {
+        waitingObjects.remove(objID);
+        readyObjects.remove(objID);
+        processingObjects.remove(objID);
+        if (oq.isProcessing()) {
+            processingObjects.add(objID);
+        } else if (oq.hasReady()) {
+            readyObjects.add(objID);
+        } else if (!oq.isEmpty()) {
+            waitingObjects.add(objID);
+        }
+    }
+    
     private void addMoveToReady(final ObjectEventQueue oq, final Set<StoredStatusEvent> ret) {
         add(q -> q.moveToReady(), oq, ret);
     }
@@ -228,9 +290,11 @@ public class AccessGroupEventQueue {
         final Set<StoredStatusEvent> ret = new HashSet<>();
         if (ready == null) {
             if (processing == null) {
-                for (final ObjectEventQueue oq: objectQueues.values()) {
-                    addMoveToProcessing(oq, ret);
+                for (final String objID: readyObjects) {
+                    addMoveToProcessing(objectQueues.get(objID), ret);
                 }
+                processingObjects.addAll(readyObjects);
+                readyObjects.clear();
             }
             // if processing != null do nothing
         } else {
@@ -268,6 +332,10 @@ public class AccessGroupEventQueue {
             }
             final ObjectEventQueue q = objectQueues.get(objID);
             q.setProcessingComplete(event);
+            if (q.hasCoalesced()) {
+                coalescedObjects.add(objID);
+            }
+            updateIndexes(objID, q);
             if (q.isEmpty()) {
                 objectQueues.remove(objID);
             }
@@ -276,6 +344,32 @@ public class AccessGroupEventQueue {
         }
     }
     
+    /** Returns true if the queue is holding coalesced events.
+     * @return true if the queue has coalesced events.
+     */
+    public boolean hasCoalesced() {
+        return !coalescedObjects.isEmpty();
+    }
+    
+    /** Remove and return any events that were coalesced when moving events into the ready
+     * state. The events will not be processed.
+     * @return the coalesced events.
+     */
+    public List<StoredStatusEvent> removeCoalesced() {
+        final List<StoredStatusEvent> ret = new LinkedList<>();
+        for (final String objID: coalescedObjects) {
+            final ObjectEventQueue q = objectQueues.get(objID);
+            ret.addAll(q.removeCoalesced());
+            updateIndexes(objID, q);
+            if (q.isEmpty()) {
+                objectQueues.remove(objID);
+            }
+        }
+        coalescedObjects.clear();
+        size -= ret.size();
+        return Collections.unmodifiableList(ret);
+    }
+    
     /** Get the number of events in the queue.
      * @return the queue size.
      */
@@ -290,6 +384,20 @@ public class AccessGroupEventQueue {
         return size == 0;
     }
     
+    /** Returns true if an event is in the ready state.
+     * @return true if the queue has an event in the ready state.
+     */
+    public boolean hasReady() {
+        return ready != null || (processing == null && !readyObjects.isEmpty());
+    }
+    
+    /** Returns true if an event is in the processing state.
+     * @return true if the queue has an event in the processing state.
+     */
+    public boolean isProcessing() {
+        return processing != null || (ready == null && !processingObjects.isEmpty());
+    }
+    
     /** Get the set of events in the ready state.
      * @return the events that are ready for processing.
      */
@@ -298,7 +406,7 @@ public class AccessGroupEventQueue {
         if (ready != null) {
             ret.add(ready);
         } else if (processing == null) {
-            objectQueues.values().stream().forEach(q -> addGetReady(q, ret));
+            readyObjects.stream().forEach(id -> addGetReady(objectQueues.get(id), ret));
         }
         return Collections.unmodifiableSet(ret);
     }
@@ -311,7 +419,8 @@ public class AccessGroupEventQueue {
         if (processing != null) {
             ret.add(processing);
         } else if (ready == null) {
-            objectQueues.values().stream().forEach(q -> addGetProcessing(q, ret));
+            processingObjects.stream().forEach(
+                    id -> addGetProcessing(objectQueues.get(id), ret));
         }
         return Collections.unmodifiableSet(ret);
     }
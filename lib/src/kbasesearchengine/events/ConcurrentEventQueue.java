@@ -0,0 +1,276 @@
+package kbasesearchengine.events;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import kbasesearchengine.events.exceptions.NoSuchEventException;
+import kbasesearchengine.tools.Utils;
+
+/** A thread safe search status event queue. The queue follows the same rules as
+ * {@link EventQueue}: object level events are processed one at a time per object, and
+ * access group level events wait for the access group to drain and block the access group
+ * while ready or processing.
+ *
+ * The queue is striped by access group ID. Each stripe is an {@link EventQueue} guarded by its
+ * own lock, and all the events for an access group live in the same stripe, so the ordering
+ * guarantees for an access group are exactly those of {@link EventQueue}. Operations on a single
+ * event, such as {@link #load(StoredStatusEvent)} and
+ * {@link #setProcessingComplete(StoredStatusEvent)}, only lock the event's stripe, so many
+ * threads may load and complete events concurrently.
+ *
+ * Operations that act on the entire queue, such as {@link #moveToReady()}, lock each affected
+ * stripe in turn rather than the whole queue. The queue tracks which stripes have loaded events
+ * and ready events, so {@link #moveToReady()}, {@link #getReadyForProcessing()}, and
+ * {@link #moveReadyToProcessing()} skip stripes with nothing to do. Each stripe's state change
+ * is atomic, but the queue as a whole may be modified by other threads while the operation
+ * runs. Similarly, {@link #size()} may not reflect operations that are in progress.
+ *
+ * Object level events that are superseded by later events are coalesced as described in
+ * {@link ObjectEventQueue} and held until removed with {@link #removeCoalesced()}.
+ *
+ * Note that the calling code is responsible for ensuring that IDs for events added to this queue
+ * are unique.
+ * If events with duplicate IDs are added to the queue unexpected behavior may result.
+ *
+ * Currently the queue can only process events with an access group id. Attempting to process
+ * an event without an ID is an error.
+ *
+ * This class is thread safe.
+ */
+public class ConcurrentEventQueue {
+
+    /** The default number of stripes. */
+    public static final int DEFAULT_STRIPES = 64;
+
+    private final EventQueue[] stripes;
+    private final AtomicInteger size = new AtomicInteger();
+    // indexes of stripes with events loaded since the last call to moveToReady()
+    private final Set<Integer> loadedStripes = ConcurrentHashMap.newKeySet();
+    // indexes of stripes that may have ready events
+    private final Set<Integer> readyStripes = ConcurrentHashMap.newKeySet();
+    // indexes of stripes that may hold coalesced events
+    private final Set<Integer> coalescedStripes = ConcurrentHashMap.newKeySet();
+
+    /** Create an empty queue with the default number of stripes. */
+    public ConcurrentEventQueue() {
+        this(DEFAULT_STRIPES);
+    }
+
+    /** Create an empty queue.
+     * @param stripes the number of stripes, and therefore the maximum number of threads that
+     * can modify the queue concurrently.
+     */
+    public ConcurrentEventQueue(final int stripes) {
+        this(Collections.emptyList(), stripes);
+    }
+
+    /** Create a new queue with the default number of stripes and initialize it with events in
+     * the {@link StatusEventProcessingState.READY} and {@link StatusEventProcessingState.PROC}
+     * states.
+     *
+     * The events must abide by the rules set out in {@link AccessGroupEventQueue}.
+     * @param initialLoad the events to load into the queue.
+     */
+    public ConcurrentEventQueue(final List<StoredStatusEvent> initialLoad) {
+        this(initialLoad, DEFAULT_STRIPES);
+    }
+
+    /** Create a new queue and initialize it with events in the
+     * {@link StatusEventProcessingState.READY} and {@link StatusEventProcessingState.PROC}
+     * states.
+     *
+     * The events must abide by the rules set out in {@link AccessGroupEventQueue}.
+     * @param initialLoad the events to load into the queue.
+     * @param stripes the number of stripes, and therefore the maximum number of threads that
+     * can modify the queue concurrently.
+     */
+    public ConcurrentEventQueue(final List<StoredStatusEvent> initialLoad, final int stripes) {
+        Utils.nonNull(initialLoad, "initialLoad");
+        Utils.noNulls(initialLoad, "initialLoad has null entries");
+        if (stripes < 1) {
+            throw new IllegalArgumentException("stripes must be at least 1");
+        }
+        final List<List<StoredStatusEvent>> events = new ArrayList<>(stripes);
+        for (int i = 0; i < stripes; i++) {
+            events.add(new ArrayList<>());
+        }
+        for (final StoredStatusEvent e: initialLoad) {
+            events.get(getStripeIndex(e, stripes)).add(e);
+        }
+        this.stripes = new EventQueue[stripes];
+        for (int i = 0; i < stripes; i++) {
+            this.stripes[i] = new EventQueue(events.get(i));
+            if (this.stripes[i].hasReady()) {
+                readyStripes.add(i);
+            }
+        }
+        size.set(initialLoad.size());
+    }
+
+    private static int getStripeIndex(final StoredStatusEvent event, final int stripes) {
+        Utils.nonNull(event, "event");
+        final int accgrpID = event.getEvent().getAccessGroupId().get();
+        // spread the bits so sequential access group IDs don't cluster
+        final int hash = accgrpID ^ (accgrpID >>> 16);
+        return Math.floorMod(hash * 0x9E3779B9, stripes);
+    }
+
+
+    /** Get the number of stripes in the queue.
+     * @return the number of stripes.
+     */
+    public int getStripeCount() {
+        return stripes.length;
+    }
+
+    /** Get the number of events in the queue.
+     * @return the queue size.
+     */
+    public int size() {
+        return size.get();
+    }
+
+    /** Return true if the queue is empty, false otherwise.
+     * @return true if the queue is empty.
+     */
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /** Add a new {@link StatusEventProcessingState#UNPROC} event to the queue.
+     * Events that already exist in the queue as determined by the event id are ignored.
+     * Before any loaded events are added to the ready or processing states,
+     * {@link #moveToReady()} must be called.
+     * @param event the event to add.
+     */
+    public void load(final StoredStatusEvent event) {
+        final int index = getStripeIndex(event, stripes.length);
+        final EventQueue q = stripes[index];
+        synchronized (q) {
+            final int oldSize = q.size();
+            q.load(event);
+            size.addAndGet(q.size() - oldSize);
+            loadedStripes.add(index);
+        }
+    }
+
+    /** Remove a processed event from the queue and update the queue state, potentially moving
+     * events into the ready state.
+     * This function implicitly calls {@link #moveToReady()} for the event's access group.
+     * @param event the event to remove from the queue.
+     * @throws NoSuchEventException if there is no event with the given ID in processing state.
+     */
+    public void setProcessingComplete(final StoredStatusEvent event) {
+        final int index = getStripeIndex(event, stripes.length);
+        final EventQueue q = stripes[index];
+        synchronized (q) {
+            q.setProcessingComplete(event);
+            size.decrementAndGet();
+            if (q.hasReady()) {
+                readyStripes.add(index);
+            }
+            if (q.hasCoalesced()) {
+                coalescedStripes.add(index);
+            }
+        }
+    }
+
+    /** Moves any events that are ready for processing based on the queue rules into the ready
+     * state and returns them. Usually called after calling {@link #load(StoredStatusEvent)}
+     * one or more times.
+     * @return the events that were moved to the ready state.
+     */
+    public Set<StoredStatusEvent> moveToReady() {
+        final Set<StoredStatusEvent> ret = new HashSet<>();
+        for (final Integer index: loadedStripes) {
+            /* Remove the index before taking the lock. If another thread loads an event
+             * after the removal, it either gets moved here or the index is re-added.
+             */
+            if (loadedStripes.remove(index)) {
+                final EventQueue q = stripes[index];
+                synchronized (q) {
+                    ret.addAll(q.moveToReady());
+                    if (q.hasReady()) {
+                        readyStripes.add(index);
+                    }
+                    if (q.hasCoalesced()) {
+                        coalescedStripes.add(index);
+                    }
+                }
+            }
+        }
+        return Collections.unmodifiableSet(ret);
+    }
+
+    /** Remove and return any events that were coalesced when moving events into the ready
+     * state. The events will not be processed, and the caller is responsible for recording
+     * that in the storage system.
+     * @return the coalesced events.
+     */
+    public List<StoredStatusEvent> removeCoalesced() {
+        final List<StoredStatusEvent> ret = new LinkedList<>();
+        for (final Integer index: coalescedStripes) {
+            if (coalescedStripes.remove(index)) {
+                final EventQueue q = stripes[index];
+                synchronized (q) {
+                    final List<StoredStatusEvent> events = q.removeCoalesced();
+                    size.addAndGet(-events.size());
+                    ret.addAll(events);
+                }
+            }
+        }
+        return Collections.unmodifiableList(ret);
+    }
+
+    /** Get the set of events in the ready state.
+     * @return the events that are ready for processing.
+     */
+    public Set<StoredStatusEvent> getReadyForProcessing() {
+        final Set<StoredStatusEvent> ret = new HashSet<>();
+        for (final Integer index: readyStripes) {
+            final EventQueue q = stripes[index];
+            synchronized (q) {
+                ret.addAll(q.getReadyForProcessing());
+            }
+        }
+        return Collections.unmodifiableSet(ret);
+    }
+
+    /** Move any events in the ready state to the processing state and return the modified
+     * events. Each event is returned to exactly one caller, so multiple threads may call this
+     * method concurrently to take events for processing.
+     * @return the events that were moved to the processing state.
+     */
+    public Set<StoredStatusEvent> moveReadyToProcessing() {
+        final Set<StoredStatusEvent> ret = new HashSet<>();
+        for (final Integer index: readyStripes) {
+            // as for moveToReady(), events made ready after the removal are never missed
+            if (readyStripes.remove(index)) {
+                final EventQueue q = stripes[index];
+                synchronized (q) {
+                    ret.addAll(q.moveReadyToProcessing());
+                }
+            }
+        }
+        return Collections.unmodifiableSet(ret);
+    }
+
+    /** Get the set of events in the processing state. This method visits every stripe.
+     * @return the events that are in the processing state.
+     */
+    public Set<StoredStatusEvent> getProcessing() {
+        final Set<StoredStatusEvent> ret = new HashSet<>();
+        for (final EventQueue q: stripes) {
+            synchronized (q) {
+                ret.addAll(q.getProcessing());
+            }
+        }
+        return Collections.unmodifiableSet(ret);
+    }
+}
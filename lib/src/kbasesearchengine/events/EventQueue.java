@@ -2,6 +2,7 @@ package kbasesearchengine.events;
 
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -26,6 +27,16 @@ import kbasesearchengine.tools.Utils;
  * Currently the queue can only process events with an access group id. Attempting to process
  * an event without an ID is an error.
  * 
+ * Object level events that are superseded by later events are coalesced as described in
+ * {@link ObjectEventQueue}. Coalesced events are still counted in the queue size until removed
+ * with {@link #removeCoalesced()}, which the caller should do after each call to
+ * {@link #moveToReady()} or {@link #setProcessingComplete(StoredStatusEvent)}.
+ * 
+ * The queue keeps indexes of the access group queues that have been loaded since the last call
+ * to {@link #moveToReady()} and of those with ready and processing events, so the cost of each
+ * operation is proportional to the number of access groups that changed or that have events in
+ * the requested state, rather than the total number of queued access groups.
+ * 
  * This class is not thread safe.
  * @author gaprice@lbl.gov
  *
@@ -35,6 +46,14 @@ public class EventQueue {
     private final Map<Integer, AccessGroupEventQueue> queues = new HashMap<>();
     
     private int size = 0; // record size rather than checking all queues
+    // access groups that have been loaded since the last call to moveToReady()
+    private final Set<Integer> loaded = new HashSet<>();
+    // access groups with events in the ready state
+    private final Set<Integer> ready = new HashSet<>();
+    // access groups with events in the processing state
+    private final Set<Integer> processing = new HashSet<>();
+    // access groups holding coalesced events
+    private final Set<Integer> coalesced = new HashSet<>();
     
     /** Create an empty queue. */
     public EventQueue() {}
@@ -59,7 +78,9 @@ public class EventQueue {
             events.get(accgrpID).add(e);
         }
         for (final int accgrpID: events.keySet()) {
-            queues.put(accgrpID, new AccessGroupEventQueue(events.get(accgrpID)));
+            final AccessGroupEventQueue q = new AccessGroupEventQueue(events.get(accgrpID));
+            queues.put(accgrpID, q);
+            updateIndexes(accgrpID, q);
         }
         this.size = initialLoad.size();
     }
@@ -78,6 +99,42 @@ public class EventQueue {
         return size() == 0;
     }
     
+    /** Return true if the queue is holding coalesced events.
+     * @return true if the queue has coalesced events.
+     */
+    public boolean hasCoalesced() {
+        return !coalesced.isEmpty();
+    }
+    
+    /** Remove and return any events that were coalesced when moving events into the ready
+     * state. The events will not be processed, and the caller is responsible for recording
+     * that in the storage system.
+     * @return the coalesced events.
+     */
+    public List<StoredStatusEvent> removeCoalesced() {
+        final List<StoredStatusEvent> ret = new LinkedList<>();
+        for (final int accgrpID: coalesced) {
+            final AccessGroupEventQueue q = queues.get(accgrpID);
+            ret.addAll(q.removeCoalesced());
+            if (q.isEmpty()) {
+                queues.remove(accgrpID);
+                loaded.remove(accgrpID);
+                ready.remove(accgrpID);
+                processing.remove(accgrpID);
+            }
+        }
+        coalesced.clear();
+        size -= ret.size();
+        return Collections.unmodifiableList(ret);
+    }
+    
+    /** Return true if any events are in the ready state.
+     * @return true if the queue has events in the ready state.
+     */
+    public boolean hasReady() {
+        return !ready.isEmpty();
+    }
+    
     private int getAGID(final StoredStatusEvent event) {
         Utils.nonNull(event, "event");
         return event.getEvent().getAccessGroupId().get();
@@ -94,8 +151,27 @@ public class EventQueue {
         if (!queues.containsKey(accgrpID)) {
             queues.put(accgrpID, new AccessGroupEventQueue());
         }
-        final boolean loaded = queues.get(accgrpID).load(event);
-        size += loaded ? 1: 0;
+        final boolean wasLoaded = queues.get(accgrpID).load(event);
+        if (wasLoaded) {
+            size++;
+            loaded.add(accgrpID);
+        }
+    }
+    
+    private void updateIndexes(final int accgrpID, final AccessGroupEventQueue q) {
+        if (q.hasCoalesced()) {
+            coalesced.add(accgrpID);
+        }
+        if (q.hasReady()) {
+            ready.add(accgrpID);
+        } else {
+            ready.remove(accgrpID);
+        }
+        if (q.isProcessing()) {
+            processing.add(accgrpID);
+        } else {
+            processing.remove(accgrpID);
+        }
     }
     
     /** Remove a processed event from the queue and update the queue state, potentially moving
@@ -112,8 +188,10 @@ public class EventQueue {
         final AccessGroupEventQueue q = queues.get(id);
         q.setProcessingComplete(event);
         size--;
+        updateIndexes(id, q);
         if (q.isEmpty()) {
             queues.remove(id);
+            loaded.remove(id);
         }
     }
     
@@ -123,14 +201,23 @@ public class EventQueue {
      * @return the events that were moved to the ready state.
      */
     public Set<StoredStatusEvent> moveToReady() {
-        return gather(q -> q.moveToReady().stream());
+        // access groups that haven't been loaded have already moved everything they can to
+        // ready, either here or when processing completed on an event.
+        final Set<StoredStatusEvent> ret = new HashSet<>();
+        for (final int accgrpID: loaded) {
+            final AccessGroupEventQueue q = queues.get(accgrpID);
+            ret.addAll(q.moveToReady());
+            updateIndexes(accgrpID, q);
+        }
+        loaded.clear();
+        return Collections.unmodifiableSet(ret);
     }
     
     /** Get the set of events in the ready state.
      * @return the events that are ready for processing.
      */
     public Set<StoredStatusEvent> getReadyForProcessing() {
-        return gather(q -> q.getReadyForProcessing().stream());
+        return gather(ready, q -> q.getReadyForProcessing().stream());
     }
     
     /** Move any events in the ready state to the processing state and return the modified
@@ -138,19 +225,24 @@ public class EventQueue {
      * @return the events that were moved to the processing state.
      */
     public Set<StoredStatusEvent> moveReadyToProcessing() {
-        return gather(q -> q.moveReadyToProcessing().stream());
+        final Set<StoredStatusEvent> ret = gather(
+                ready, q -> q.moveReadyToProcessing().stream());
+        processing.addAll(ready);
+        ready.clear();
+        return ret;
     }
     
     /** Get the set of events in the processing state.
      * @return the events that are in the processing state.
      */
     public Set<StoredStatusEvent> getProcessing() {
-        return gather(q -> q.getProcessing().stream());
+        return gather(processing, q -> q.getProcessing().stream());
     }
     
     private Set<StoredStatusEvent> gather(
+            final Set<Integer> accessGroupIDs,
             final Function<AccessGroupEventQueue, Stream<StoredStatusEvent>> func) {
-        return Collections.unmodifiableSet(queues.values().stream()
+        return Collections.unmodifiableSet(accessGroupIDs.stream().map(id -> queues.get(id))
                 .flatMap(func).collect(Collectors.toSet()));
     }
 }
@@ -0,0 +1,98 @@
+package kbasesearchengine.events;
+
+import kbasesearchengine.tools.Utils;
+
+/** A child event that failed processing, along with the error that caused the failure.
+ * Used to store child events in bulk.
+ */
+public class FailedChildStatusEvent {
+
+    private final ChildStatusEvent event;
+    private final String errorCode;
+    private final Throwable error;
+
+    /** Create a failed child event.
+     * @param event the child event.
+     * @param errorCode a string identifying the error type.
+     * @param error the error.
+     */
+    public FailedChildStatusEvent(
+            final ChildStatusEvent event,
+            final String errorCode,
+            final Throwable error) {
+        Utils.nonNull(event, "event");
+        Utils.notNullOrEmpty(errorCode, "errorCode cannot be null or whitespace only");
+        Utils.nonNull(error, "error");
+        this.event = event;
+        this.errorCode = errorCode;
+        this.error = error;
+    }
+
+    /** Get the child event.
+     * @return the event.
+     */
+    public ChildStatusEvent getEvent() {
+        return event;
+    }
+
+    /** Get the error code.
+     * @return the error code.
+     */
+    public String getErrorCode() {
+        return errorCode;
+    }
+
+    /** Get the error.
+     * @return the error.
+     */
+    public Throwable getError() {
+        return error;
+    }
+
+    @Override
+    public int hashCode() {
+        final int prime = 31;
+        int result = 1;
+        result = prime * result + ((error == null) ? 0 : error.hashCode());
+        result = prime * result
+                + ((errorCode == null) ? 0 : errorCode.hashCode());
+        result = prime * result + ((event == null) ? 0 : event.hashCode());
+        return result;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (obj == null) {
+            return false;
+        }
+        if (getClass() != obj.getClass()) {
+            return false;
+        }
+        FailedChildStatusEvent other = (FailedChildStatusEvent) obj;
+        if (error == null) {
+            if (other.error != null) {
+                return false;
+            }
+        } else if (!error.equals(other.error)) {
+            return false;
+        }
+        if (errorCode == null) {
+            if (other.errorCode != null) {
+                return false;
+            }
+        } else if (!errorCode.equals(other.errorCode)) {
+            return false;
+        }
+        if (event == null) {
+            if (other.event != null) {
+                return false;
+            }
+        } else if (!event.equals(other.event)) {
+            return false;
+        }
+        return true;
+    }
+}
@@ -2,8 +2,13 @@ package kbasesearchengine.events;
 
 import java.time.Instant;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
 import java.util.PriorityQueue;
 import java.util.Set;
 
@@ -16,6 +21,15 @@ import kbasesearchengine.tools.Utils;
  * 
  * The queue never changes the state of the {@link StoredStatusEvent}s submitted to it.
  * 
+ * The queue coalesces unprocessed events that are made redundant by later events for the same
+ * object. Events that set a value on all versions of an object, like
+ * {@link StatusEventType#RENAME_ALL_VERSIONS}, are superseded by any later event that sets the
+ * same value, so only the last rename, and the last of any publish or unpublish events, is
+ * moved to the ready state. Other events are never coalesced, since, for example, each
+ * {@link StatusEventType#NEW_VERSION} event indexes a distinct version and deleting all versions
+ * can be reversed.
+ * Coalesced events are held in the queue until removed with {@link #removeCoalesced()}.
+ * 
  * Note that the calling code is responsible for ensuring that IDs for events added to this queue
  * are unique.
  * If events with duplicate IDs are added to the queue unexpected behavior may result.
@@ -36,6 +50,17 @@ public class ObjectEventQueue {
             StatusEventType.UNDELETE_ALL_VERSIONS, StatusEventType.UNPUBLISH_ALL_VERSIONS,
             StatusEventType.NEW_VERSION));
     
+    /* Events that set the same value on all versions of an object. Within a group, a later
+     * event always overwrites the effect of an earlier event regardless of any events
+     * between them, so the earlier event can be skipped.
+     */
+    private static final Map<StatusEventType, String> COALESCING_GROUPS = new HashMap<>();
+    static {
+        COALESCING_GROUPS.put(StatusEventType.RENAME_ALL_VERSIONS, "name");
+        COALESCING_GROUPS.put(StatusEventType.PUBLISH_ALL_VERSIONS, "public");
+        COALESCING_GROUPS.put(StatusEventType.UNPUBLISH_ALL_VERSIONS, "public");
+    }
+    
     private final PriorityQueue<StoredStatusEvent> queue = new PriorityQueue<StoredStatusEvent>(
             new Comparator<StoredStatusEvent>() {
                 
@@ -49,6 +74,9 @@ public class ObjectEventQueue {
     private StoredStatusEvent processing = null;
     private Instant blockTime = null;
     private Set<StatusEventID> containedEvents = new HashSet<>();
+    // the number of events in the queue in each coalescing group
+    private final Map<String, Integer> coalescingGroupCounts = new HashMap<>();
+    private final List<StoredStatusEvent> coalesced = new LinkedList<>();
     
     // could require an access group id and object id and reject any events that don't match
     
@@ -102,6 +130,10 @@ public class ObjectEventQueue {
         if (!containedEvents.contains(event.getID())) {
             queue.add(event);
             containedEvents.add(event.getID());
+            final String group = COALESCING_GROUPS.get(event.getEvent().getEventType());
+            if (group != null) {
+                coalescingGroupCounts.put(group, coalescingGroupCounts.getOrDefault(group, 0) + 1);
+            }
             return true;
         }
         return false;
@@ -180,7 +212,8 @@ public class ObjectEventQueue {
      * @return the queue size.
      */
     public int size() {
-        return queue.size() + (ready == null ? 0 : 1) + (processing == null ? 0 : 1);
+        return queue.size() + coalesced.size() + (ready == null ? 0 : 1) +
+                (processing == null ? 0 : 1);
     }
     
     /** Check if the queue is empty.
@@ -190,8 +223,33 @@ public class ObjectEventQueue {
         return size() == 0;
     }
     
+    /** Returns true if the queue is holding coalesced events.
+     * @return true if the queue has coalesced events.
+     */
+    public boolean hasCoalesced() {
+        return !coalesced.isEmpty();
+    }
+    
+    /** Remove and return any events that were coalesced when moving events into the ready
+     * state. The events will not be processed.
+     * @return the coalesced events, ordered by timestamp.
+     */
+    public List<StoredStatusEvent> removeCoalesced() {
+        if (coalesced.isEmpty()) {
+            return Collections.emptyList();
+        }
+        final List<StoredStatusEvent> ret = new LinkedList<>(coalesced);
+        coalesced.clear();
+        for (final StoredStatusEvent e: ret) {
+            containedEvents.remove(e.getID());
+        }
+        return Collections.unmodifiableList(ret);
+    }
+    
     /** Move an event into the ready state if possible, or absent if not.
      * Usually called after loading ({@link #load(StoredStatusEvent)}) one or more events.
+     * Events that are superseded by later events in the queue are coalesced rather than moved
+     * into the ready state, unless a block is set by {@link #drainAndBlockAt(Instant)}.
      * @return the event that has been moved into the ready state.
      */
     public Optional<StoredStatusEvent> moveToReady() {
@@ -200,10 +258,22 @@ public class ObjectEventQueue {
         if (ready != null || processing != null) {
             return Optional.absent();
         }
-        final StoredStatusEvent next = queue.peek();
-        if (next != null && !isBlockActive(next)) {
-            ready = next;
+        StoredStatusEvent next = queue.peek();
+        while (next != null && !isBlockActive(next)) {
             queue.remove();
+            final String group = COALESCING_GROUPS.get(next.getEvent().getEventType());
+            if (group != null) {
+                final int count = coalescingGroupCounts.get(group) - 1;
+                coalescingGroupCounts.put(group, count);
+                // don't coalesce while draining, since the superseding event may be blocked
+                if (count > 0 && blockTime == null) {
+                    coalesced.add(next);
+                    next = queue.peek();
+                    continue;
+                }
+            }
+            ready = next;
+            break;
         }
         return Optional.fromNullable(ready);
     }
@@ -0,0 +1,88 @@
+package kbasesearchengine.events;
+
+/** An inclusive range of numeric object IDs within an access group. Used by events that apply
+ * to many objects at once, such as the child events of an access group wide event, so that
+ * the range can be processed as a single operation rather than one operation per object.
+ */
+public class ObjectIDRange {
+
+    private final long first;
+    private final long last;
+
+    /** Create a range.
+     * @param first the first object ID in the range. Must be at least 1.
+     * @param last the last object ID in the range. Must be at least the first ID.
+     */
+    public ObjectIDRange(final long first, final long last) {
+        if (first < 1) {
+            throw new IllegalArgumentException("first must be at least 1");
+        }
+        if (last < first) {
+            throw new IllegalArgumentException("last must be at least first");
+        }
+        this.first = first;
+        this.last = last;
+    }
+
+    /** Get the first object ID in the range.
+     * @return the first ID.
+     */
+    public long getFirst() {
+        return first;
+    }
+
+    /** Get the last object ID in the range.
+     * @return the last ID.
+     */
+    public long getLast() {
+        return last;
+    }
+
+    /** Get the number of object IDs in the range.
+     * @return the size of the range.
+     */
+    public long size() {
+        return last - first + 1;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("ObjectIDRange [first=");
+        builder.append(first);
+        builder.append(", last=");
+        builder.append(last);
+        builder.append("]");
+        return builder.toString();
+    }
+
+    @Override
+    public int hashCode() {
+        final int prime = 31;
+        int result = 1;
+        result = prime * result + (int) (first ^ (first >>> 32));
+        result = prime * result + (int) (last ^ (last >>> 32));
+        return result;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (obj == null) {
+            return false;
+        }
+        if (getClass() != obj.getClass()) {
+            return false;
+        }
+        ObjectIDRange other = (ObjectIDRange) obj;
+        if (first != other.first) {
+            return false;
+        }
+        if (last != other.last) {
+            return false;
+        }
+        return true;
+    }
+}
@@ -25,6 +25,7 @@ public class StatusEvent {
     private final Optional<Integer> version;
     private final Optional<Boolean> isPublic;
     private final Optional<String> newName;
+    private final Optional<ObjectIDRange> objectIDRange;
     
     private StatusEvent(
             final StatusEventType eventType,
@@ -35,7 +36,8 @@ public class StatusEvent {
             final Optional<StorageObjectType> storageObjectType,
             final Instant time,
             final Optional<Boolean> isPublic,
-            final Optional<String> newName) {
+            final Optional<String> newName,
+            final Optional<ObjectIDRange> objectIDRange) {
         this.eventType = eventType;
         this.storageCode = storageCode;
         this.accessGroupID = accessGroupID;
@@ -45,6 +47,7 @@ public class StatusEvent {
         this.time = time;
         this.isPublic = isPublic;
         this.newName = newName;
+        this.objectIDRange = objectIDRange;
     }
 
     /** The GUID of the data involved in the event. All fields except the storage code may be null.
@@ -123,6 +126,14 @@ public class StatusEvent {
     public Optional<String> getNewName() {
         return newName;
     }
+
+    /** Get the range of object IDs to which the event applies. An event with a range applies
+     * to all the objects in the access group with IDs in the range, and has no object ID.
+     * @return the object ID range if available.
+     */
+    public Optional<ObjectIDRange> getObjectIDRange() {
+        return objectIDRange;
+    }
     
     @Override
     public String toString() {
@@ -145,6 +156,8 @@ public class StatusEvent {
         builder2.append(isPublic);
         builder2.append(", newName=");
         builder2.append(newName);
+        builder2.append(", objectIDRange=");
+        builder2.append(objectIDRange);
         builder2.append("]");
         return builder2.toString();
     }
@@ -162,6 +175,8 @@ public class StatusEvent {
         result = prime * result + ((newName == null) ? 0 : newName.hashCode());
         result = prime * result
                 + ((objectID == null) ? 0 : objectID.hashCode());
+        result = prime * result
+                + ((objectIDRange == null) ? 0 : objectIDRange.hashCode());
         result = prime * result
                 + ((storageCode == null) ? 0 : storageCode.hashCode());
         result = prime * result + ((storageObjectType == null) ? 0
@@ -214,6 +229,13 @@ public class StatusEvent {
         } else if (!objectID.equals(other.objectID)) {
             return false;
         }
+        if (objectIDRange == null) {
+            if (other.objectIDRange != null) {
+                return false;
+            }
+        } else if (!objectIDRange.equals(other.objectIDRange)) {
+            return false;
+        }
         if (storageCode == null) {
             if (other.storageCode != null) {
                 return false;
@@ -286,6 +308,7 @@ public class StatusEvent {
         private Optional<Integer> version = Optional.absent();
         private Optional<Boolean> isPublic = Optional.absent();
         private Optional<String> newName = Optional.absent();
+        private Optional<ObjectIDRange> objectIDRange = Optional.absent();
         
         private Builder(
                 final String storageCode,
@@ -371,12 +394,22 @@ public class StatusEvent {
             return this;
         }
         
+        /** Add an object ID range to the event. Null values will remove any previously set
+         * range in the builder.
+         * @param objectIDRange the range to add to the builder.
+         * @return this builder.
+         */
+        public Builder withNullableObjectIDRange(final ObjectIDRange objectIDRange) {
+            this.objectIDRange = Optional.fromNullable(objectIDRange);
+            return this;
+        }
+        
         /** Build the status event.
          * @return the new event.
          */
         public StatusEvent build() {
             return new StatusEvent(eventType, storageCode, accessGroupID, objectID,
-                    version, storageObjectType, time, isPublic, newName);
+                    version, storageObjectType, time, isPublic, newName, objectIDRange);
         }
     }
 }
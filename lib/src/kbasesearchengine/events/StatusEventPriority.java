@@ -0,0 +1,30 @@
+package kbasesearchengine.events;
+
+/** The priority lane of a status event. Events in each lane are processed oldest first, and
+ * claims serve a weighted mix of the lanes so that a large backlog in one lane does not starve
+ * the other.
+ */
+public enum StatusEventPriority {
+
+    /** Events triggered by user actions, such as saving an object. These events should be
+     * indexed quickly. This is the default priority.
+     */
+    INTERACTIVE (4),
+
+    /** Events generated in bulk, such as by a backfill of existing data. */
+    BULK (1);
+
+    private final int weight;
+
+    private StatusEventPriority(final int weight) {
+        this.weight = weight;
+    }
+
+    /** Get the relative share of claimed events that the lane receives when events are waiting
+     * in all lanes.
+     * @return the weight of the lane.
+     */
+    public int getWeight() {
+        return weight;
+    }
+}
@@ -22,5 +22,8 @@ public enum StatusEventProcessingState {
     UNINDX,
     
     /** indexed */
-    INDX;
+    INDX,
+    
+    /** Not processed because a later event for the same object made the event redundant */
+    COALESCED;
 }
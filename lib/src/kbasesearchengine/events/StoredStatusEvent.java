@@ -27,6 +27,9 @@ public class StoredStatusEvent implements StatusEventWithId {
     private final Optional<String> errorCode;
     private final Optional<String> errorMessage;
     private final Optional<String> errorStackTrace;
+    private final Optional<String> leaseOwner;
+    private final Optional<Instant> leaseExpiry;
+    private final StatusEventPriority priority;
     
     private StoredStatusEvent(
             final StatusEvent event,
@@ -39,7 +42,10 @@ public class StoredStatusEvent implements StatusEventWithId {
             final Optional<Instant> storeTime,
             final String errorCode,
             final String errorMessage,
-            final String errorStackTrace) {
+            final String errorStackTrace,
+            final Optional<String> leaseOwner,
+            final Optional<Instant> leaseExpiry,
+            final StatusEventPriority priority) {
         this.event = event;
         this.id = id;
         this.state = state;
@@ -51,6 +57,9 @@ public class StoredStatusEvent implements StatusEventWithId {
         this.errorCode = Optional.fromNullable(errorCode);
         this.errorMessage = Optional.fromNullable(errorMessage);
         this.errorStackTrace = Optional.fromNullable(errorStackTrace);
+        this.leaseOwner = leaseOwner;
+        this.leaseExpiry = leaseExpiry;
+        this.priority = priority;
     }
 
     @Override
@@ -132,6 +141,29 @@ public class StoredStatusEvent implements StatusEventWithId {
         return errorStackTrace;
     }
     
+    /** Get the owner of the lease on this event, if any. A lease is taken when a worker claims
+     * an event for processing.
+     * @return the lease owner.
+     */
+    public Optional<String> getLeaseOwner() {
+        return leaseOwner;
+    }
+    
+    /** Get the time the lease on this event expires, if any. After this time the event may be
+     * considered abandoned by the lease owner.
+     * @return the lease expiration time.
+     */
+    public Optional<Instant> getLeaseExpiry() {
+        return leaseExpiry;
+    }
+    
+    /** Get the priority lane of this event.
+     * @return the event priority.
+     */
+    public StatusEventPriority getPriority() {
+        return priority;
+    }
+    
     @Override
     public String toString() {
         StringBuilder builder2 = new StringBuilder();
@@ -157,6 +189,12 @@ public class StoredStatusEvent implements StatusEventWithId {
         builder2.append(errorMessage);
         builder2.append(", errorStackTrace=");
         builder2.append(errorStackTrace);
+        builder2.append(", leaseOwner=");
+        builder2.append(leaseOwner);
+        builder2.append(", leaseExpiry=");
+        builder2.append(leaseExpiry);
+        builder2.append(", priority=");
+        builder2.append(priority);
         builder2.append("]");
         return builder2.toString();
     }
@@ -173,6 +211,12 @@ public class StoredStatusEvent implements StatusEventWithId {
                 + ((errorStackTrace == null) ? 0 : errorStackTrace.hashCode());
         result = prime * result + ((event == null) ? 0 : event.hashCode());
         result = prime * result + ((id == null) ? 0 : id.hashCode());
+        result = prime * result
+                + ((leaseExpiry == null) ? 0 : leaseExpiry.hashCode());
+        result = prime * result
+                + ((leaseOwner == null) ? 0 : leaseOwner.hashCode());
+        result = prime * result
+                + ((priority == null) ? 0 : priority.hashCode());
         result = prime * result + ((state == null) ? 0 : state.hashCode());
         result = prime * result
                 + ((storeTime == null) ? 0 : storeTime.hashCode());
@@ -233,6 +277,23 @@ public class StoredStatusEvent implements StatusEventWithId {
         } else if (!id.equals(other.id)) {
             return false;
         }
+        if (leaseExpiry == null) {
+            if (other.leaseExpiry != null) {
+                return false;
+            }
+        } else if (!leaseExpiry.equals(other.leaseExpiry)) {
+            return false;
+        }
+        if (leaseOwner == null) {
+            if (other.leaseOwner != null) {
+                return false;
+            }
+        } else if (!leaseOwner.equals(other.leaseOwner)) {
+            return false;
+        }
+        if (priority != other.priority) {
+            return false;
+        }
         if (state != other.state) {
             return false;
         }
@@ -304,6 +365,9 @@ public class StoredStatusEvent implements StatusEventWithId {
         private String errorCode = null;
         private String errorMessage = null;
         private String errorStackTrace = null;
+        private Optional<String> leaseOwner = Optional.absent();
+        private Optional<Instant> leaseExpiry = Optional.absent();
+        private StatusEventPriority priority = StatusEventPriority.INTERACTIVE;
         
         private Builder(
                 final StatusEvent event,
@@ -390,12 +454,39 @@ public class StoredStatusEvent implements StatusEventWithId {
             return this;
         }
         
+        /** Add a lease on the event to the builder.
+         * @param leaseOwner the owner of the lease.
+         * @param leaseExpiry the time the lease expires. If null, the lease is wholly ignored.
+         * @return this builder.
+         */
+        public Builder withNullableLease(final String leaseOwner, final Instant leaseExpiry) {
+            if (leaseExpiry == null) {
+                return this;
+            }
+            Utils.notNullOrEmpty(leaseOwner, "leaseOwner cannot be null or whitespace only");
+            this.leaseOwner = Optional.of(leaseOwner);
+            this.leaseExpiry = Optional.of(leaseExpiry);
+            return this;
+        }
+        
+        /** Set the priority lane of the event. The default is
+         * {@link StatusEventPriority#INTERACTIVE}.
+         * @param priority the event priority.
+         * @return this builder.
+         */
+        public Builder withPriority(final StatusEventPriority priority) {
+            Utils.nonNull(priority, "priority");
+            this.priority = priority;
+            return this;
+        }
+        
         /** Build the {@link StoredStatusEvent}.
          * @return the event.
          */
         public StoredStatusEvent build() {
             return new StoredStatusEvent(event, id, state, updateTime, updater, workerCodes,
-                    storedBy, storeTime, errorCode, errorMessage, errorStackTrace);
+                    storedBy, storeTime, errorCode, errorMessage, errorStackTrace, leaseOwner,
+                    leaseExpiry, priority);
         }
     }
 }
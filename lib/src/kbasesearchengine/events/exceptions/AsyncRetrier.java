@@ -0,0 +1,555 @@
+package kbasesearchengine.events.exceptions;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.base.Optional;
+
+import kbasesearchengine.events.StatusEventWithId;
+import kbasesearchengine.events.exceptions.DownstreamCircuitBreakers.Permit;
+import kbasesearchengine.tools.Utils;
+
+/** Generic code for retrying functions without blocking the calling thread. Like
+ * {@link Retrier}, expects the code to throw {@link RetriableIndexingException} or a subclass
+ * when a retry should occur, but rather than sleeping between attempts each retry is
+ * scheduled on a {@link ScheduledExecutorService} and the result is delivered via a
+ * {@link CompletableFuture}.
+ *
+ * The first attempt runs on the calling thread unless a circuit breaker delays it. Retries run
+ * on the scheduler's threads after an exponentially increasing, randomly jittered delay. The
+ * number of retries allowed for a unit of work is determined by the {@link ErrorType} of the
+ * most recent exception, or by the fatal retry budget for
+ * {@link FatalRetriableIndexingException}s.
+ *
+ * Circuit breakers are handled as for the {@link Retrier}: each attempt, including the first,
+ * is delayed until the breakers for the remote services it contacts allow it, so while a
+ * breaker is half open only one attempt probes the remote service. Retries delayed by an open
+ * breaker are not counted against the retry budget, and a successful attempt is recorded
+ * against the breakers for the remote service the function is declared to contact, if any, and
+ * for the remote services that caused the exceptions thrown by earlier attempts of the same
+ * function.
+ *
+ * This class is thread safe.
+ */
+public class AsyncRetrier {
+
+    /** The default number of retries for non-fatal exceptions. */
+    public static final int DEFAULT_RETRY_BUDGET = 5;
+    /** The default number of retries for fatal exceptions. */
+    public static final int DEFAULT_FATAL_RETRY_BUDGET = 5;
+    /** The default delay before the first retry. */
+    public static final Duration DEFAULT_INITIAL_BACKOFF = Duration.ofSeconds(1);
+    /** The default maximum delay between retries. */
+    public static final Duration DEFAULT_MAX_BACKOFF = Duration.ofMinutes(1);
+    /** The default fraction of each delay that is randomized. */
+    public static final double DEFAULT_JITTER = 0.5;
+
+    private final ScheduledExecutorService scheduler;
+    private final RetryLogger logger;
+    private final int defaultRetryBudget;
+    private final Map<ErrorType, Integer> retryBudgets;
+    private final int fatalRetryBudget;
+    private final Duration initialBackoff;
+    private final Duration maxBackoff;
+    private final double jitter;
+    private final Random random;
+    private final Optional<DownstreamCircuitBreakers> circuitBreakers;
+    private final Map<ErrorType, AtomicLong> scheduled = newCounters();
+    private final Map<ErrorType, AtomicLong> succeeded = newCounters();
+    private final Map<ErrorType, AtomicLong> exhausted = newCounters();
+
+    private AsyncRetrier(
+            final ScheduledExecutorService scheduler,
+            final RetryLogger logger,
+            final int defaultRetryBudget,
+            final Map<ErrorType, Integer> retryBudgets,
+            final int fatalRetryBudget,
+            final Duration initialBackoff,
+            final Duration maxBackoff,
+            final double jitter,
+            final Random random,
+            final Optional<DownstreamCircuitBreakers> circuitBreakers) {
+        this.scheduler = scheduler;
+        this.logger = logger;
+        this.defaultRetryBudget = defaultRetryBudget;
+        this.retryBudgets = Collections.unmodifiableMap(new EnumMap<>(retryBudgets));
+        this.fatalRetryBudget = fatalRetryBudget;
+        this.initialBackoff = initialBackoff;
+        this.maxBackoff = maxBackoff;
+        this.jitter = jitter;
+        this.random = random;
+        this.circuitBreakers = circuitBreakers;
+    }
+
+    private static Map<ErrorType, AtomicLong> newCounters() {
+        final Map<ErrorType, AtomicLong> counters = new EnumMap<>(ErrorType.class);
+        for (final ErrorType t: ErrorType.values()) {
+            counters.put(t, new AtomicLong());
+        }
+        return Collections.unmodifiableMap(counters);
+    }
+
+    /** Get the scheduler on which retries are run.
+     * @return the scheduler.
+     */
+    public ScheduledExecutorService getScheduler() {
+        return scheduler;
+    }
+
+    /** Get the logger for logging retries.
+     * @return the logger.
+     */
+    public RetryLogger getLogger() {
+        return logger;
+    }
+
+    /** Get the maximum number of retries for non-fatal exceptions of a particular type.
+     * @param errorType the type of the error.
+     * @return the retry budget.
+     */
+    public int getRetryBudget(final ErrorType errorType) {
+        Utils.nonNull(errorType, "errorType");
+        return retryBudgets.containsKey(errorType) ?
+                retryBudgets.get(errorType) : defaultRetryBudget;
+    }
+
+    /** Get the maximum number of retries for fatal exceptions.
+     * @return the fatal retry budget.
+     */
+    public int getFatalRetryBudget() {
+        return fatalRetryBudget;
+    }
+
+    /** Get the delay before the first retry.
+     * @return the initial backoff.
+     */
+    public Duration getInitialBackoff() {
+        return initialBackoff;
+    }
+
+    /** Get the maximum delay between retries.
+     * @return the maximum backoff.
+     */
+    public Duration getMaxBackoff() {
+        return maxBackoff;
+    }
+
+    /** Get the fraction of each delay that is randomized.
+     * @return the jitter.
+     */
+    public double getJitter() {
+        return jitter;
+    }
+
+    /** Get the circuit breakers with which attempts are recorded.
+     * @return the circuit breakers, or absent if circuit breakers are not used.
+     */
+    public Optional<DownstreamCircuitBreakers> getCircuitBreakers() {
+        return circuitBreakers;
+    }
+
+    /** Get the number of retries that have been scheduled, by the type of the error that
+     * caused the retry. Error types with no retries are omitted.
+     * @return the number of scheduled retries.
+     */
+    public Map<ErrorType, Long> getRetriesScheduled() {
+        return snapshot(scheduled);
+    }
+
+    /** Get the number of units of work that succeeded after one or more retries, by the type
+     * of the error that caused the last retry. Error types with no successes are omitted.
+     * @return the number of successful retries.
+     */
+    public Map<ErrorType, Long> getRetriesSucceeded() {
+        return snapshot(succeeded);
+    }
+
+    /** Get the number of units of work that failed because their retry budget was used up,
+     * by the type of the final error. Error types with no exhausted budgets are omitted.
+     * @return the number of exhausted retry budgets.
+     */
+    public Map<ErrorType, Long> getRetriesExhausted() {
+        return snapshot(exhausted);
+    }
+
+    private Map<ErrorType, Long> snapshot(final Map<ErrorType, AtomicLong> counters) {
+        final Map<ErrorType, Long> ret = new EnumMap<>(ErrorType.class);
+        for (final ErrorType t: counters.keySet()) {
+            final long count = counters.get(t).get();
+            if (count > 0) {
+                ret.put(t, count);
+            }
+        }
+        return ret;
+    }
+
+    /** Get the delay before a retry, prior to adding jitter.
+     * @param retry the retry number, starting at 1.
+     * @return the delay.
+     */
+    public Duration getBackoff(final int retry) {
+        if (retry < 1) {
+            throw new IllegalArgumentException("retry must be at least 1");
+        }
+        Duration backoff = initialBackoff;
+        for (int i = 1; i < retry && backoff.compareTo(maxBackoff) < 0; i++) {
+            backoff = backoff.multipliedBy(2);
+        }
+        return backoff.compareTo(maxBackoff) > 0 ? maxBackoff : backoff;
+    }
+
+    private long getJitteredBackoffMS(final int retry) {
+        final long backoff = getBackoff(retry).toMillis();
+        return backoff - (long) (backoff * jitter * random.nextDouble());
+    }
+
+    /** Retry a "function" that only takes one input.
+     * @param consumer the consumer function.
+     * @param input the input to the function.
+     * @param event the event associated with the function or null if none.
+     * @return a future that completes when the consumer succeeds, or completes exceptionally
+     * with an {@link IndexingException} if an exception that cannot be retried occurs or the
+     * retry budget is expended. If the thread running the consumer is interrupted, the
+     * future completes with an {@link InterruptedException}.
+     */
+    public <T> CompletableFuture<Void> retryCons(
+            final RetryConsumer<T> consumer,
+            final T input,
+            final StatusEventWithId event) {
+        return retryCons(consumer, input, event, null);
+    }
+
+    /** Retry a "function" that only takes one input and contacts a remote service.
+     * @param consumer the consumer function.
+     * @param input the input to the function.
+     * @param event the event associated with the function or null if none.
+     * @param downstream the remote service contacted by the function, or null if unknown.
+     * @return a future that completes when the consumer succeeds, or completes exceptionally
+     * with an {@link IndexingException} if an exception that cannot be retried occurs or the
+     * retry budget is expended. If the thread running the consumer is interrupted, the
+     * future completes with an {@link InterruptedException}.
+     */
+    public <T> CompletableFuture<Void> retryCons(
+            final RetryConsumer<T> consumer,
+            final T input,
+            final StatusEventWithId event,
+            final Downstream downstream) {
+        Utils.nonNull(consumer, "consumer");
+        return retryFunc(i -> {
+            consumer.accept(i);
+            return null;
+        }, input, event, downstream);
+    }
+
+    /** Retry a function that only takes one input.
+     * @param function the function.
+     * @param input the input to the function.
+     * @param event the event associated with the function or null if none.
+     * @return a future that completes with the result of the function, or completes
+     * exceptionally with an {@link IndexingException} if an exception that cannot be retried
+     * occurs or the retry budget is expended. If the thread running the function is
+     * interrupted, the future completes with an {@link InterruptedException}.
+     */
+    public <T, R> CompletableFuture<R> retryFunc(
+            final RetryFunction<T, R> function,
+            final T input,
+            final StatusEventWithId event) {
+        return retryFunc(function, input, event, null);
+    }
+
+    /** Retry a function that only takes one input and contacts a remote service.
+     * @param function the function.
+     * @param input the input to the function.
+     * @param event the event associated with the function or null if none.
+     * @param downstream the remote service contacted by the function, or null if unknown.
+     * @return a future that completes with the result of the function, or completes
+     * exceptionally with an {@link IndexingException} if an exception that cannot be retried
+     * occurs or the retry budget is expended. If the thread running the function is
+     * interrupted, the future completes with an {@link InterruptedException}.
+     */
+    public <T, R> CompletableFuture<R> retryFunc(
+            final RetryFunction<T, R> function,
+            final T input,
+            final StatusEventWithId event,
+            final Downstream downstream) {
+        Utils.nonNull(function, "function");
+        final CompletableFuture<R> future = new CompletableFuture<>();
+        /* the remote services contacted by the function. Only one attempt runs at a time and
+         * each retry is scheduled by the previous attempt, so no synchronization is needed.
+         */
+        final Set<Downstream> called = EnumSet.noneOf(Downstream.class);
+        if (downstream != null) {
+            called.add(downstream);
+        }
+        attempt(function, input, event, called, future, 1, 1, null);
+        return future;
+    }
+
+    private <T, R> void attempt(
+            final RetryFunction<T, R> function,
+            final T input,
+            final StatusEventWithId event,
+            final Set<Downstream> called,
+            final CompletableFuture<R> future,
+            final int retries,
+            final int fatalRetries,
+            final ErrorType lastError) {
+        final Optional<Permit> permit = circuitBreakers.isPresent() ?
+                Optional.of(circuitBreakers.get().tryAcquire(called)) : Optional.absent();
+        if (permit.isPresent() && !permit.get().isGranted()) {
+            // wait for the breaker without using up the budget
+            schedule(() -> attempt(function, input, event, called, future, retries,
+                    fatalRetries, lastError), getBreakerWaitMS(permit.get().getWait()), future);
+            return;
+        }
+        final R result;
+        try {
+            result = function.apply(input);
+            if (circuitBreakers.isPresent()) {
+                for (final Downstream d: called) {
+                    circuitBreakers.get().recordSuccess(d);
+                }
+            }
+        } catch (RetriableIndexingException e) {
+            called.addAll(e.getDownstream().asSet());
+            handleException(function, input, event, called, future, retries, fatalRetries, e,
+                    permit);
+            return;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            future.completeExceptionally(e);
+            return;
+        } catch (IndexingException | RuntimeException e) {
+            future.completeExceptionally(e);
+            return;
+        } finally {
+            if (permit.isPresent()) {
+                permit.get().release();
+            }
+        }
+        if (lastError != null) {
+            succeeded.get(lastError).incrementAndGet();
+        }
+        future.complete(result);
+    }
+
+    /* round up so the breaker is no longer open when the attempt occurs, and spread the wake ups
+     * over the jittered part of the initial backoff so that the units of work waiting for a
+     * breaker don't all try to probe it at once.
+     */
+    private long getBreakerWaitMS(final Duration wait) {
+        final long initial = initialBackoff.toMillis();
+        final long base = wait.isZero() ? initial : wait.toMillis() + 1;
+        return base + (long) (initial * jitter * random.nextDouble());
+    }
+
+    private <T, R> void handleException(
+            final RetryFunction<T, R> function,
+            final T input,
+            final StatusEventWithId event,
+            final Set<Downstream> called,
+            final CompletableFuture<R> future,
+            final int retries,
+            final int fatalRetries,
+            final RetriableIndexingException e,
+            final Optional<Permit> permit) {
+        final ErrorType type = e.getErrorType();
+        final boolean fatal = e instanceof FatalRetriableIndexingException;
+        final int retry = fatal ? fatalRetries : retries;
+        final Duration breakerWait = circuitBreakers.isPresent() ?
+                circuitBreakers.get().recordFailure(e) : Duration.ZERO;
+        if (permit.isPresent()) {
+            permit.get().release();
+        }
+        if (!breakerWait.isZero()) {
+            logger.log(retry, Optional.fromNullable(event), e);
+            // the breaker is open, so wait for it without using up the budget
+            schedule(() -> attempt(
+                    function, input, event, called, future, retries, fatalRetries, type),
+                    getBreakerWaitMS(breakerWait), future);
+            return;
+        }
+        if (fatal && retry > fatalRetryBudget) {
+            exhausted.get(type).incrementAndGet();
+            future.completeExceptionally(new FatalIndexingException(type, e.getMessage(), e));
+            return;
+        }
+        if (!fatal && retry > getRetryBudget(type)) {
+            exhausted.get(type).incrementAndGet();
+            future.completeExceptionally(
+                    new RetriesExceededIndexingException(type, e.getMessage(), e));
+            return;
+        }
+        logger.log(retry, Optional.fromNullable(event), e);
+        if (schedule(() -> attempt(function, input, event, called, future,
+                fatal ? retries : retries + 1, fatal ? fatalRetries + 1 : fatalRetries, type),
+                getJitteredBackoffMS(retry), future)) {
+            scheduled.get(type).incrementAndGet();
+        }
+    }
+
+    private boolean schedule(
+            final Runnable attempt,
+            final long delayMS,
+            final CompletableFuture<?> future) {
+        try {
+            scheduler.schedule(attempt, delayMS, TimeUnit.MILLISECONDS);
+            return true;
+        } catch (RejectedExecutionException ree) {
+            // the scheduler is shut down
+            future.completeExceptionally(ree);
+            return false;
+        }
+    }
+
+    /** Get a builder for an {@link AsyncRetrier}.
+     * @param scheduler the scheduler on which retries will be run.
+     * @param logger a logger to which retries will be logged.
+     * @return a new builder.
+     */
+    public static Builder getBuilder(
+            final ScheduledExecutorService scheduler,
+            final RetryLogger logger) {
+        return new Builder(scheduler, logger);
+    }
+
+    /** A builder for an {@link AsyncRetrier}.
+     */
+    public static class Builder {
+
+        private final ScheduledExecutorService scheduler;
+        private final RetryLogger logger;
+        private int defaultRetryBudget = DEFAULT_RETRY_BUDGET;
+        private final Map<ErrorType, Integer> retryBudgets = new EnumMap<>(ErrorType.class);
+        private int fatalRetryBudget = DEFAULT_FATAL_RETRY_BUDGET;
+        private Duration initialBackoff = DEFAULT_INITIAL_BACKOFF;
+        private Duration maxBackoff = DEFAULT_MAX_BACKOFF;
+        private double jitter = DEFAULT_JITTER;
+        private Random random = new Random();
+        private DownstreamCircuitBreakers circuitBreakers = null;
+
+        private Builder(final ScheduledExecutorService scheduler, final RetryLogger logger) {
+            Utils.nonNull(scheduler, "scheduler");
+            Utils.nonNull(logger, "logger");
+            this.scheduler = scheduler;
+            this.logger = logger;
+        }
+
+        /** Set the maximum number of retries for non-fatal exceptions with error types that
+         * have no specific budget. The default is {@link AsyncRetrier#DEFAULT_RETRY_BUDGET}.
+         * @param retryBudget the number of retries. 0 means no retries.
+         * @return this builder.
+         */
+        public Builder withDefaultRetryBudget(final int retryBudget) {
+            this.defaultRetryBudget = checkBudget(retryBudget);
+            return this;
+        }
+
+        /** Set the maximum number of retries for non-fatal exceptions with a particular
+         * error type.
+         * @param errorType the type of the error.
+         * @param retryBudget the number of retries. 0 means no retries.
+         * @return this builder.
+         */
+        public Builder withRetryBudget(final ErrorType errorType, final int retryBudget) {
+            Utils.nonNull(errorType, "errorType");
+            retryBudgets.put(errorType, checkBudget(retryBudget));
+            return this;
+        }
+
+        /** Set the maximum number of retries for fatal exceptions. The default is
+         * {@link AsyncRetrier#DEFAULT_FATAL_RETRY_BUDGET}.
+         * @param retryBudget the number of retries. 0 means no retries.
+         * @return this builder.
+         */
+        public Builder withFatalRetryBudget(final int retryBudget) {
+            this.fatalRetryBudget = checkBudget(retryBudget);
+            return this;
+        }
+
+        private int checkBudget(final int retryBudget) {
+            if (retryBudget < 0) {
+                throw new IllegalArgumentException("retryBudget must be at least 0");
+            }
+            return retryBudget;
+        }
+
+        /** Set the delay before the first retry and the maximum delay between retries. The
+         * delay doubles with each retry until the maximum is reached. The defaults are
+         * {@link AsyncRetrier#DEFAULT_INITIAL_BACKOFF} and
+         * {@link AsyncRetrier#DEFAULT_MAX_BACKOFF}.
+         * @param initialBackoff the initial delay.
+         * @param maxBackoff the maximum delay.
+         * @return this builder.
+         */
+        public Builder withBackoff(final Duration initialBackoff, final Duration maxBackoff) {
+            Utils.nonNull(initialBackoff, "initialBackoff");
+            Utils.nonNull(maxBackoff, "maxBackoff");
+            if (initialBackoff.toMillis() < 1) {
+                throw new IllegalArgumentException("initialBackoff must be at least 1 ms");
+            }
+            if (maxBackoff.compareTo(initialBackoff) < 0) {
+                throw new IllegalArgumentException(
+                        "maxBackoff must be at least initialBackoff");
+            }
+            this.initialBackoff = initialBackoff;
+            this.maxBackoff = maxBackoff;
+            return this;
+        }
+
+        /** Set the fraction of each delay that is randomized so that retries of many units
+         * of work that failed at the same time are spread out. A delay d is reduced by a
+         * random amount between 0 and d * jitter. The default is
+         * {@link AsyncRetrier#DEFAULT_JITTER}.
+         * @param jitter the jitter, from 0 to 1 inclusive.
+         * @return this builder.
+         */
+        public Builder withJitter(final double jitter) {
+            if (jitter < 0 || jitter > 1) {
+                throw new IllegalArgumentException("jitter must be between 0 and 1");
+            }
+            this.jitter = jitter;
+            return this;
+        }
+
+        /** Set the random number generator used for jitter. Usually only used for testing.
+         * @param random the random number generator.
+         * @return this builder.
+         */
+        public Builder withRandom(final Random random) {
+            Utils.nonNull(random, "random");
+            this.random = random;
+            return this;
+        }
+
+        /** Set circuit breakers with which to record attempts. By default circuit breakers
+         * are not used.
+         * @param circuitBreakers the circuit breakers.
+         * @return this builder.
+         */
+        public Builder withCircuitBreakers(final DownstreamCircuitBreakers circuitBreakers) {
+            Utils.nonNull(circuitBreakers, "circuitBreakers");
+            this.circuitBreakers = circuitBreakers;
+            return this;
+        }
+
+        /** Build the {@link AsyncRetrier}.
+         * @return the retrier.
+         */
+        public AsyncRetrier build() {
+            return new AsyncRetrier(scheduler, logger, defaultRetryBudget, retryBudgets,
+                    fatalRetryBudget, initialBackoff, maxBackoff, jitter, random,
+                    Optional.fromNullable(circuitBreakers));
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package kbasesearchengine.events.exceptions;
+
+/** An enum representing the remote service that caused a retriable error.
+ * @see RetriableIndexingException#getDownstream()
+ * @see DownstreamCircuitBreakers
+ */
+public enum Downstream {
+
+    /** The workspace service, or another data source for events. */
+    WORKSPACE,
+    /** The ElasticSearch instance containing the search indexes. */
+    ELASTICSEARCH,
+    /** The MongoDB instance containing the search events. */
+    MONGO;
+}
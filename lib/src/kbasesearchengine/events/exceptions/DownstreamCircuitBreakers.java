@@ -0,0 +1,279 @@
+package kbasesearchengine.events.exceptions;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeMap;
+
+import com.google.common.base.Optional;
+
+import kbasesearchengine.common.CircuitBreaker;
+import kbasesearchengine.common.CircuitBreaker.State;
+import kbasesearchengine.tools.Utils;
+
+/** A set of {@link CircuitBreaker}s shared by the retriers in a process, one for each
+ * combination of {@link Downstream} and {@link ErrorType} that has caused a
+ * {@link RetriableIndexingException}. Breakers open based on the proportion of failed attempts,
+ * so that when a remote service is down the retriers wait for it to recover rather than each
+ * unit of work retrying independently.
+ *
+ * Each attempt must acquire a {@link Permit} from the breakers for the downstreams it contacts
+ * before it is made, so that while a breaker is half open only a single probe attempt reaches
+ * the remote service.
+ *
+ * A successful attempt is only recorded against the breakers, other than open breakers, for
+ * the downstreams the attempt contacted, so that a success of one remote service neither
+ * closes a half open breaker for another nor dilutes its failure rate. A failed attempt is only
+ * recorded against the breaker for the downstream and error type of the exception.
+ * Exceptions with no downstream are not recorded.
+ *
+ * This class is thread safe.
+ * @see Retrier
+ * @see AsyncRetrier
+ */
+public class DownstreamCircuitBreakers {
+
+    /** The default proportion of failed attempts at which a breaker opens. */
+    public static final double DEFAULT_FAILURE_RATE_THRESHOLD = 0.5;
+    /** The default number of recent attempts used to calculate the failure rate. */
+    public static final int DEFAULT_WINDOW_SIZE = 20;
+    /** The default amount of time a breaker stays open. */
+    public static final Duration DEFAULT_OPEN_DURATION = Duration.ofSeconds(30);
+
+    private final double failureRateThreshold;
+    private final int windowSize;
+    private final Duration openDuration;
+    private final Clock clock;
+    private final Map<String, CircuitBreaker> breakers = new TreeMap<>();
+
+    /** Create the breakers with the default settings. */
+    public DownstreamCircuitBreakers() {
+        this(DEFAULT_FAILURE_RATE_THRESHOLD, DEFAULT_WINDOW_SIZE, DEFAULT_OPEN_DURATION,
+                Clock.systemDefaultZone());
+    }
+
+    /** Create the breakers.
+     * @param failureRateThreshold the proportion of failed attempts, from greater than 0 to 1,
+     * at which a breaker opens.
+     * @param windowSize the number of most recent attempts from which the proportion of failed
+     * attempts is calculated.
+     * @param openDuration the amount of time a breaker stays open before allowing a probe.
+     * @param clock the clock to use to determine when the open period has passed. Usually a
+     * mock for testing.
+     */
+    public DownstreamCircuitBreakers(
+            final double failureRateThreshold,
+            final int windowSize,
+            final Duration openDuration,
+            final Clock clock) {
+        if (!(failureRateThreshold > 0 && failureRateThreshold <= 1)) {
+            throw new IllegalArgumentException(
+                    "failureRateThreshold must be greater than 0 and at most 1");
+        }
+        if (windowSize < 1) {
+            throw new IllegalArgumentException("windowSize must be at least 1");
+        }
+        Utils.nonNull(openDuration, "openDuration");
+        if (openDuration.isNegative() || openDuration.isZero()) {
+            throw new IllegalArgumentException("openDuration must be positive");
+        }
+        Utils.nonNull(clock, "clock");
+        this.failureRateThreshold = failureRateThreshold;
+        this.windowSize = windowSize;
+        this.openDuration = openDuration;
+        this.clock = clock;
+    }
+
+    private static String getPrefix(final Downstream downstream) {
+        return downstream.toString().toLowerCase() + "/";
+    }
+
+    private static String getName(final Downstream downstream, final ErrorType errorType) {
+        return getPrefix(downstream) + errorType;
+    }
+
+    /** Get the breaker for a downstream and error type.
+     * @param downstream the remote service.
+     * @param errorType the type of the error.
+     * @return the breaker, or absent if no errors of this type have been recorded for the
+     * remote service.
+     */
+    public synchronized Optional<CircuitBreaker> getBreaker(
+            final Downstream downstream,
+            final ErrorType errorType) {
+        Utils.nonNull(downstream, "downstream");
+        Utils.nonNull(errorType, "errorType");
+        return Optional.fromNullable(breakers.get(getName(downstream, errorType)));
+    }
+
+    private synchronized Optional<CircuitBreaker> getOrCreateBreaker(
+            final RetriableIndexingException e) {
+        if (!e.getDownstream().isPresent()) {
+            return Optional.absent();
+        }
+        final String name = getName(e.getDownstream().get(), e.getErrorType());
+        if (!breakers.containsKey(name)) {
+            breakers.put(name, new CircuitBreaker(
+                    name, failureRateThreshold, windowSize, openDuration, clock));
+        }
+        return Optional.of(breakers.get(name));
+    }
+
+    private synchronized Map<String, CircuitBreaker> getBreakers() {
+        return new LinkedHashMap<>(breakers);
+    }
+
+    /** Request permission to make an attempt that contacts a set of remote services.
+     * Permission is requested from the breakers for all the error types of each remote
+     * service, and is refused if any breaker is open or is half open with a probe in flight.
+     * The permit must be released once the outcome of the attempt has been recorded.
+     * @param downstreams the remote services the attempt contacts.
+     * @return the permit.
+     */
+    public Permit tryAcquire(final Set<Downstream> downstreams) {
+        Utils.nonNull(downstreams, "downstreams");
+        Utils.noNulls(downstreams, "null item in downstreams");
+        final List<CircuitBreaker> probes = new LinkedList<>();
+        for (final Entry<String, CircuitBreaker> e: getBreakers().entrySet()) {
+            final CircuitBreaker cb = e.getValue();
+            if (!isFor(e.getKey(), downstreams)) {
+                continue;
+            }
+            // hold the breaker's lock so the state can't change between the check and acquire
+            synchronized (cb) {
+                final boolean halfOpen = cb.getState().equals(State.HALF_OPEN);
+                if (!cb.tryAcquire()) {
+                    for (final CircuitBreaker probe: probes) {
+                        probe.release();
+                    }
+                    return new Permit(Optional.of(cb.getOpenTimeRemaining()),
+                            Collections.emptyList());
+                }
+                if (halfOpen) {
+                    probes.add(cb);
+                }
+            }
+        }
+        return new Permit(Optional.absent(), probes);
+    }
+
+    private static boolean isFor(final String name, final Set<Downstream> downstreams) {
+        for (final Downstream d: downstreams) {
+            if (name.startsWith(getPrefix(d))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Record that an attempt that contacted a remote service succeeded. The success is
+     * recorded against the breakers for all the error types of the remote service.
+     * @param downstream the remote service.
+     */
+    public void recordSuccess(final Downstream downstream) {
+        Utils.nonNull(downstream, "downstream");
+        final String prefix = getPrefix(downstream);
+        for (final Entry<String, CircuitBreaker> e: getBreakers().entrySet()) {
+            final CircuitBreaker cb = e.getValue();
+            // an open breaker only closes via a probe after the open period
+            if (e.getKey().startsWith(prefix) && !cb.getState().equals(State.OPEN)) {
+                cb.recordSuccess();
+            }
+        }
+    }
+
+    /** Record that an attempt failed.
+     * @param e the exception thrown by the attempt.
+     * @return the amount of time until the breaker for the downstream and error type of the
+     * exception allows a probe, or zero if the breaker is not open or the exception has no
+     * downstream.
+     */
+    public Duration recordFailure(final RetriableIndexingException e) {
+        Utils.nonNull(e, "e");
+        final Optional<CircuitBreaker> cb = getOrCreateBreaker(e);
+        if (!cb.isPresent()) {
+            return Duration.ZERO;
+        }
+        // failures of calls that started before the breaker opened say nothing new
+        if (!cb.get().getState().equals(State.OPEN)) {
+            cb.get().recordFailure();
+        }
+        return cb.get().getOpenTimeRemaining();
+    }
+
+    /** Check whether any breaker is open. Event processors should not start processing new
+     * events while a breaker is open.
+     * @return true if a breaker is open.
+     */
+    public boolean isOpen() {
+        for (final CircuitBreaker cb: getBreakers().values()) {
+            if (cb.getState().equals(State.OPEN)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Get the state of the breakers as a structure suitable for the service status method.
+     * @return the state of each breaker, by the breaker name.
+     */
+    public Map<String, Object> getStatus() {
+        final Map<String, Object> ret = new LinkedHashMap<>();
+        for (final Entry<String, CircuitBreaker> e: getBreakers().entrySet()) {
+            final CircuitBreaker cb = e.getValue();
+            final Map<String, Object> status = new LinkedHashMap<>();
+            status.put("state", cb.getState().toString());
+            status.put("failure_rate", cb.getFailureRate());
+            status.put("opened", cb.getOpenedCount());
+            ret.put(e.getKey(), status);
+        }
+        return Collections.unmodifiableMap(ret);
+    }
+
+    /** Permission, or the refusal of permission, to make an attempt. */
+    public static class Permit {
+
+        private final Optional<Duration> refusedWait;
+        private final List<CircuitBreaker> probes;
+        private boolean released = false;
+
+        private Permit(final Optional<Duration> refusedWait, final List<CircuitBreaker> probes) {
+            this.refusedWait = refusedWait;
+            this.probes = probes;
+        }
+
+        /** Check whether the attempt may be made.
+         * @return true if permission was granted.
+         */
+        public boolean isGranted() {
+            return !refusedWait.isPresent();
+        }
+
+        /** Get the amount of time until the breaker that refused permission allows a probe.
+         * @return the remaining open time, or zero if permission was granted or the breaker is
+         * half open with a probe in flight.
+         */
+        public Duration getWait() {
+            return refusedWait.or(Duration.ZERO);
+        }
+
+        /** Release the probes held by the permit, if any, so that another attempt may probe
+         * breakers whose state was not changed by the outcome of this attempt. Releasing a
+         * permit more than once has no effect.
+         */
+        public synchronized void release() {
+            if (!released) {
+                released = true;
+                for (final CircuitBreaker cb: probes) {
+                    cb.release();
+                }
+            }
+        }
+    }
+}
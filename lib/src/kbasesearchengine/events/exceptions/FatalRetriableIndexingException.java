@@ -19,5 +19,13 @@ public class FatalRetriableIndexingException extends RetriableIndexingException
             final Throwable cause) {
         super(errorType, message, cause);
     }
-    
+
+    public FatalRetriableIndexingException(
+            final ErrorType errorType,
+            final Downstream downstream,
+            final String message,
+            final Throwable cause) {
+        super(errorType, downstream, message, cause);
+    }
+
 }
@@ -1,5 +1,7 @@
 package kbasesearchengine.events.exceptions;
 
+import com.google.common.base.Optional;
+
 import kbasesearchengine.tools.Utils;
 
 /** An exception thrown when a particular event could not be processed, but a retry is possible.
@@ -10,15 +12,17 @@ import kbasesearchengine.tools.Utils;
  */
 @SuppressWarnings("serial")
 public class RetriableIndexingException extends Exception {
-    
+
     private final ErrorType errorType;
+    private final Optional<Downstream> downstream;
 
     public RetriableIndexingException(final ErrorType errorType, final String message) {
         super(message);
         Utils.nonNull(errorType, "errorType");
         this.errorType = errorType;
+        this.downstream = Optional.absent();
     }
-    
+
     public RetriableIndexingException(
             final ErrorType errorType,
             final String message,
@@ -26,6 +30,19 @@ public class RetriableIndexingException extends Exception {
         super(message, cause);
         Utils.nonNull(errorType, "errorType");
         this.errorType = errorType;
+        this.downstream = Optional.absent();
+    }
+
+    public RetriableIndexingException(
+            final ErrorType errorType,
+            final Downstream downstream,
+            final String message,
+            final Throwable cause) {
+        super(message, cause);
+        Utils.nonNull(errorType, "errorType");
+        Utils.nonNull(downstream, "downstream");
+        this.errorType = errorType;
+        this.downstream = Optional.of(downstream);
     }
 
     /** Get the type of this error.
@@ -34,4 +51,11 @@ public class RetriableIndexingException extends Exception {
     public ErrorType getErrorType() {
         return errorType;
     }
+
+    /** Get the remote service that caused this error, if known.
+     * @return the remote service.
+     */
+    public Optional<Downstream> getDownstream() {
+        return downstream;
+    }
 }
@@ -1,17 +1,31 @@
 package kbasesearchengine.events.exceptions;
 
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.EnumSet;
 import java.util.List;
+import java.util.Random;
+import java.util.Set;
 import java.util.concurrent.TimeUnit;
 
 import com.google.common.base.Optional;
 
 import kbasesearchengine.events.StatusEventWithId;
+import kbasesearchengine.events.exceptions.DownstreamCircuitBreakers.Permit;
 import kbasesearchengine.tools.Utils;
 
 /** Generic code for retrying functions. Expects the code to throw
  * {@link RetriableIndexingException} or a subclass when a retry should occur.
+ *
+ * If the retrier is given a set of {@link DownstreamCircuitBreakers}, the outcome of each
+ * attempt is recorded with the breakers. Each attempt first waits until the breakers for the
+ * remote services it contacts allow it, so while a breaker is half open only one attempt probes
+ * the remote service. When the breaker for an exception is open, the retry is not counted
+ * against the retry count. Hence an outage of a remote service delays units of work rather than
+ * failing them. A successful attempt is recorded against the breakers for the remote service
+ * the function is declared to contact, if any, and for the remote services that caused the
+ * exceptions thrown by earlier attempts of the same function.
  * @author gaprice@lbl.gov
  *
  */
@@ -21,6 +35,8 @@ public class Retrier {
     private final int delayMS;
     private final RetryLogger logger;
     private final List<Integer> fatalRetryBackoffsMS;
+    private final Optional<DownstreamCircuitBreakers> circuitBreakers;
+    private final Random random = new Random();
     
     /** Create a retrier.
      * @param retryCount the maximum number of retries for non-fatal exceptions.
@@ -35,6 +51,25 @@ public class Retrier {
             final int delayMS,
             final List<Integer> fatalRetryBackoffsMS,
             final RetryLogger logger) {
+        this(retryCount, delayMS, fatalRetryBackoffsMS, logger, null);
+    }
+
+    /** Create a retrier that records attempts with circuit breakers.
+     * @param retryCount the maximum number of retries for non-fatal exceptions.
+     * @param delayMS the millisecond delay between retries for non-fatal exceptions.
+     * @param fatalRetryBackoffsMS the number of milliseconds to wait between each retry for
+     * fatal exceptions, in order. The number of entries in the list determine the number of
+     * retries. If it is empty, no retries will occur.
+     * @param logger a logger to which retries will be logged.
+     * @param circuitBreakers the circuit breakers with which to record attempts, or null to
+     * not use circuit breakers.
+     */
+    public Retrier(
+            final int retryCount,
+            final int delayMS,
+            final List<Integer> fatalRetryBackoffsMS,
+            final RetryLogger logger,
+            final DownstreamCircuitBreakers circuitBreakers) {
         if (retryCount < 1) {
             throw new IllegalArgumentException("retryCount must be at least 1");
         }
@@ -53,6 +88,7 @@ public class Retrier {
         this.fatalRetryBackoffsMS = Collections.unmodifiableList(
                 new ArrayList<>(fatalRetryBackoffsMS));
         this.logger = logger;
+        this.circuitBreakers = Optional.fromNullable(circuitBreakers);
     }
 
     /** Get the maximum number of retries for non-fatal exceptions.
@@ -83,6 +119,13 @@ public class Retrier {
         return logger;
     }
     
+    /** Get the circuit breakers with which attempts are recorded.
+     * @return the circuit breakers, or absent if circuit breakers are not used.
+     */
+    public Optional<DownstreamCircuitBreakers> getCircuitBreakers() {
+        return circuitBreakers;
+    }
+    
     /** Retry a "function" that only takes one input.
      * @param consumer the consumer function.
      * @param input the input to the function.
@@ -96,22 +139,29 @@ public class Retrier {
             final T input,
             final StatusEventWithId event)
             throws InterruptedException, IndexingException {
+        retryCons(consumer, input, event, null);
+    }
+    
+    /** Retry a "function" that only takes one input and contacts a remote service.
+     * @param consumer the consumer function.
+     * @param input the input to the function.
+     * @param event the event associated with the function or null if none.
+     * @param downstream the remote service contacted by the function, or null if unknown.
+     * @throws InterruptedException if the retry is interrupted.
+     * @throws IndexingException if an exception that cannot be retried occurs or retries are
+     * expended.
+     */
+    public <T> void retryCons(
+            final RetryConsumer<T> consumer,
+            final T input,
+            final StatusEventWithId event,
+            final Downstream downstream)
+            throws InterruptedException, IndexingException {
         Utils.nonNull(consumer, "consumer");
-        int retries = 1;
-        int fatalRetries = 1;
-        while (true) {
-            try {
-                consumer.accept(input);
-                return;
-            } catch (RetriableIndexingException e) {
-                final boolean fatal = handleException(event, e, retries, fatalRetries);
-                if (fatal) {
-                    fatalRetries++;
-                } else {
-                    retries++;
-                }
-            }
-        }
+        retryFunc(i -> {
+            consumer.accept(i);
+            return null;
+        }, input, event, downstream);
     }
     
     /** Retry a function that only takes one input.
@@ -127,23 +177,112 @@ public class Retrier {
             final T input,
             final StatusEventWithId event)
             throws InterruptedException, IndexingException {
+        return retryFunc(function, input, event, null);
+    }
+    
+    /** Retry a function that only takes one input and contacts a remote service.
+     * @param function the function.
+     * @param input the input to the function.
+     * @param event the event associated with the function or null if none.
+     * @param downstream the remote service contacted by the function, or null if unknown.
+     * @throws InterruptedException if the retry is interrupted.
+     * @throws IndexingException if an exception that cannot be retried occurs or retries are
+     * expended.
+     */
+    public <T, R> R retryFunc(
+            final RetryFunction<T, R> function,
+            final T input,
+            final StatusEventWithId event,
+            final Downstream downstream)
+            throws InterruptedException, IndexingException {
         Utils.nonNull(function, "function");
+        final Set<Downstream> called = getCalled(downstream);
         int retries = 1;
         int fatalRetries = 1;
         while (true) {
+            final Optional<Permit> permit = acquire(called);
             try {
-                return function.apply(input);
+                final R ret = function.apply(input);
+                recordSuccess(called);
+                return ret;
             } catch (RetriableIndexingException e) {
+                called.addAll(e.getDownstream().asSet());
+                final boolean breakerOpen = recordFailure(event, e, retries, fatalRetries);
+                release(permit);
+                if (breakerOpen) {
+                    // the next acquire waits for the breaker
+                    continue;
+                }
                 final boolean fatal = handleException(event, e, retries, fatalRetries);
                 if (fatal) {
                     fatalRetries++;
                 } else {
                     retries++;
                 }
+            } finally {
+                release(permit);
             }
         }
     }
     
+    private static Set<Downstream> getCalled(final Downstream downstream) {
+        final Set<Downstream> called = EnumSet.noneOf(Downstream.class);
+        if (downstream != null) {
+            called.add(downstream);
+        }
+        return called;
+    }
+    
+    private void recordSuccess(final Set<Downstream> called) {
+        if (circuitBreakers.isPresent()) {
+            for (final Downstream d: called) {
+                circuitBreakers.get().recordSuccess(d);
+            }
+        }
+    }
+    
+    /* waits until the breakers for the called downstreams allow an attempt. Wake ups are
+     * spread over the non-fatal retry delay so that the units of work waiting for a breaker
+     * don't all try to probe it at once.
+     */
+    private Optional<Permit> acquire(final Set<Downstream> called) throws InterruptedException {
+        if (!circuitBreakers.isPresent()) {
+            return Optional.absent();
+        }
+        while (true) {
+            final Permit permit = circuitBreakers.get().tryAcquire(called);
+            if (permit.isGranted()) {
+                return Optional.of(permit);
+            }
+            // round up so the breaker is no longer open when the attempt occurs
+            final long wait = permit.getWait().isZero() ? delayMS : permit.getWait().toMillis() + 1;
+            TimeUnit.MILLISECONDS.sleep(wait + random.nextInt(delayMS));
+        }
+    }
+    
+    private static void release(final Optional<Permit> permit) {
+        if (permit.isPresent()) {
+            permit.get().release();
+        }
+    }
+    
+    // returns true if the breaker for the exception is open
+    private boolean recordFailure(
+            final StatusEventWithId event,
+            final RetriableIndexingException e,
+            final int retries,
+            final int fatalRetries) {
+        if (!circuitBreakers.isPresent()) {
+            return false;
+        }
+        if (circuitBreakers.get().recordFailure(e).isZero()) {
+            return false;
+        }
+        logger.log(e instanceof FatalRetriableIndexingException ? fatalRetries : retries,
+                Optional.fromNullable(event), e);
+        return true;
+    }
+    
     private boolean handleException(
             final StatusEventWithId event,
             final RetriableIndexingException e,
@@ -64,6 +64,31 @@ public interface EventHandler {
     SourceData load(List<GUID> guids, Path file)
             throws IndexingException, RetriableIndexingException;
 
+    /** Load the data for multiple small objects into memory, fetching many objects per call to
+     * the remote source where possible. Objects that are too large to hold in memory are not
+     * loaded and are omitted from the results, and should be loaded one at a time via
+     * {@link #load(List, Path)}.
+     * @param guids the objects to load. Each entry is a path to an object as for
+     * {@link #load(List, Path)}.
+     * @return the source data for each loaded object, keyed by the GUID of the object, which is
+     * the last GUID in the object's path.
+     * @throws IndexingException if an error occurred loading the data.
+     * @throws RetriableIndexingException if a retriable error occurred loading the data.
+     */
+    Map<GUID, SourceData> loadBatch(List<List<GUID>> guids)
+            throws IndexingException, RetriableIndexingException;
+
+    /** Get the MD5 checksum of an object's data without loading the data. The target object
+     * may need to be specified as a path from an accessible object, as for
+     * {@link #load(List, Path)}.
+     * @param guids the path to the object from an accessible object, or only the object's guid
+     * if it is accessible.
+     * @return the MD5 checksum of the object's data.
+     * @throws IndexingException if an error occurred retrieving the checksum.
+     * @throws RetriableIndexingException if a retriable error occurred retrieving the checksum.
+     */
+    String getMD5(List<GUID> guids) throws IndexingException, RetriableIndexingException;
+
     /** Build a set of reference paths from a path to the current object and the references found
      * in the current object.
      * @param refpath a reference path to the current object.
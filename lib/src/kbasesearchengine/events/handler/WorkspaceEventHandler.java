@@ -21,12 +21,15 @@ import org.joda.time.format.DateTimeFormatter;
 import org.joda.time.format.DateTimeFormatterBuilder;
 
 import com.fasterxml.jackson.core.type.TypeReference;
+import com.google.common.base.Optional;
 
 import kbasesearchengine.common.GUID;
 import kbasesearchengine.events.ChildStatusEvent;
+import kbasesearchengine.events.ObjectIDRange;
 import kbasesearchengine.events.StatusEvent;
 import kbasesearchengine.events.StatusEventType;
 import kbasesearchengine.events.StoredStatusEvent;
+import kbasesearchengine.events.exceptions.Downstream;
 import kbasesearchengine.events.exceptions.ErrorType;
 import kbasesearchengine.events.exceptions.FatalIndexingException;
 import kbasesearchengine.events.exceptions.FatalRetriableIndexingException;
@@ -75,6 +78,25 @@ public class WorkspaceEventHandler implements EventHandler {
     
     private static final int WS_BATCH_SIZE = 10_000;
     
+    /** The maximum size, as reported by the workspace, of an object that is loaded into memory
+     * as part of a batch by {@link #loadBatch(List)}. Larger objects are not loaded by the
+     * batch and must be streamed to disk one at a time via {@link #load(List, Path)}.
+     */
+    public static final long BATCH_IN_MEMORY_MAX_BYTES = 1_000_000;
+    
+    /** The maximum total size, as reported by the workspace, of the objects fetched in one call
+     * by {@link #loadBatch(List)}.
+     */
+    public static final long BATCH_MAX_BYTES = 50_000_000;
+    
+    /** The maximum number of objects fetched in one call by {@link #loadBatch(List)}. */
+    public static final int BATCH_MAX_OBJECTS = 1_000;
+    
+    /** The maximum number of objects covered by a child event when an access group wide event,
+     * such as deleting or publishing a workspace, is expanded into object ID ranges.
+     */
+    public static final int OBJECT_ID_RANGE_SIZE = 10_000;
+    
     private static final String META_SEARCH_TAGS = "searchtags";
     
     private static final TypeReference<List<Tuple11<Long, String, String, String,
@@ -88,6 +110,7 @@ public class WorkspaceEventHandler implements EventHandler {
                             String,Map<String,String>>>() {};
     
     private final CloneableWorkspaceClient ws;
+    private final Optional<WorkspaceInfoCache> wsInfoCache;
     
     /** Create a handler.
      * @param clonableWorkspaceClient a workspace client to use when contacting the workspace
@@ -96,6 +119,24 @@ public class WorkspaceEventHandler implements EventHandler {
     public WorkspaceEventHandler(final CloneableWorkspaceClient clonableWorkspaceClient) {
         Utils.nonNull(clonableWorkspaceClient, "clonableWorkspaceClient");
         ws = clonableWorkspaceClient;
+        wsInfoCache = Optional.absent();
+    }
+    
+    /** Create a handler that retrieves workspace information from a cache. Access group
+     * level events, such as publishing or deleting a workspace, processed by this handler
+     * remove the workspace from the cache.
+     * @param clonableWorkspaceClient a workspace client to use when contacting the workspace
+     * service.
+     * @param workspaceInfoCache a cache of workspace information for the same workspace
+     * service. The cache may be shared between handlers.
+     */
+    public WorkspaceEventHandler(
+            final CloneableWorkspaceClient clonableWorkspaceClient,
+            final WorkspaceInfoCache workspaceInfoCache) {
+        Utils.nonNull(clonableWorkspaceClient, "clonableWorkspaceClient");
+        Utils.nonNull(workspaceInfoCache, "workspaceInfoCache");
+        ws = clonableWorkspaceClient;
+        wsInfoCache = Optional.of(workspaceInfoCache);
     }
     
     @Override
@@ -116,7 +157,117 @@ public class WorkspaceEventHandler implements EventHandler {
         Utils.nonNull(guids, "guids");
         Utils.noNulls(guids, "null item in guids");
         Utils.nonNull(file, "file");
-        final ObjectData ret = getObjectData(guids, file);
+        return toSourceData(getObjectData(guids, file));
+    }
+
+    @Override
+    public Map<GUID, SourceData> loadBatch(final List<List<GUID>> guids)
+            throws IndexingException, RetriableIndexingException {
+        Utils.nonNull(guids, "guids");
+        Utils.noNulls(guids, "null item in guids");
+        for (final List<GUID> path: guids) {
+            if (path.isEmpty()) {
+                throw new IllegalArgumentException("empty path in guids");
+            }
+            Utils.noNulls(path, "null item in guids path");
+        }
+        final List<String> refs = guids.stream().map(g -> toWSRefPath(g))
+                .collect(Collectors.toList());
+        final List<Long> sizes = getObjectSizes(refs);
+        final Map<GUID, SourceData> ret = new HashMap<>();
+        final List<Integer> batch = new LinkedList<>();
+        long batchBytes = 0;
+        for (int i = 0; i < guids.size(); i++) {
+            final long size = sizes.get(i);
+            if (size > BATCH_IN_MEMORY_MAX_BYTES) {
+                continue; // left for the caller to stream to disk
+            }
+            if (!batch.isEmpty() && (batch.size() >= BATCH_MAX_OBJECTS ||
+                    batchBytes + size > BATCH_MAX_BYTES)) {
+                loadBatchInMemory(guids, refs, batch, ret);
+                batch.clear();
+                batchBytes = 0;
+            }
+            batch.add(i);
+            batchBytes += size;
+        }
+        if (!batch.isEmpty()) {
+            loadBatchInMemory(guids, refs, batch, ret);
+        }
+        return ret;
+    }
+
+    // returns the object sizes in the same order as the refs
+    private List<Long> getObjectSizes(final List<String> refs)
+            throws RetriableIndexingException, IndexingException {
+        final List<Long> ret = new ArrayList<>();
+        for (int i = 0; i < refs.size(); i += BATCH_MAX_OBJECTS) {
+            final List<ObjectSpecification> specs = refs.subList(
+                    i, Math.min(i + BATCH_MAX_OBJECTS, refs.size())).stream()
+                    .map(r -> new ObjectSpecification().withRef(r))
+                    .collect(Collectors.toList());
+            final Map<String, Object> command = new HashMap<>();
+            command.put("command", "getObjectInfo");
+            command.put("params", new GetObjectInfo3Params().withObjects(specs));
+            final List<Tuple11<Long, String, String, String, Long, String, Long, String,
+                    String, Long, Map<String, String>>> infos;
+            try {
+                infos = ws.getClient().administer(new UObject(command))
+                        .asClassInstance(GetObjectInfo3Results.class).getInfos();
+            } catch (IOException e) {
+                throw handleException(e);
+            } catch (JsonClientException e) {
+                throw handleException(e);
+            }
+            checkResultCount(specs.size(), infos.size(), "object info");
+            infos.stream().forEach(info -> ret.add(info.getE10()));
+        }
+        return ret;
+    }
+
+    private void loadBatchInMemory(
+            final List<List<GUID>> guids,
+            final List<String> refs,
+            final List<Integer> batch,
+            final Map<GUID, SourceData> ret)
+            throws RetriableIndexingException, IndexingException {
+        final Map<String, Object> command = new HashMap<>();
+        command.put("command", "getObjects");
+        command.put("params", new GetObjects2Params().withObjects(batch.stream()
+                .map(i -> new ObjectSpecification().withRef(refs.get(i)))
+                .collect(Collectors.toList())));
+        final List<ObjectData> data;
+        try {
+            data = ws.getClient().administer(new UObject(command))
+                    .asClassInstance(GetObjects2Results.class).getData();
+        } catch (IOException e) {
+            throw handleException(e);
+        } catch (JsonClientException e) {
+            throw handleException(e);
+        }
+        checkResultCount(batch.size(), data.size(), "object data");
+        final Iterator<Integer> batchIter = batch.iterator();
+        for (final ObjectData od: data) {
+            final List<GUID> path = guids.get(batchIter.next());
+            ret.put(path.get(path.size() - 1), toSourceData(od));
+        }
+    }
+
+    // the batch methods match results to refs by position, so a short result can't be used
+    private static void checkResultCount(
+            final int expected,
+            final int got,
+            final String resultType)
+            throws UnprocessableEventIndexingException {
+        if (expected != got) {
+            throw new UnprocessableEventIndexingException(ErrorType.OTHER, String.format(
+                    "Workspace returned %s %s entries for %s objects",
+                    got, resultType, expected));
+        }
+    }
+
+    private SourceData toSourceData(final ObjectData ret)
+            throws RetriableIndexingException, IndexingException {
         final List<String> tags = getTags(ret);
         // we'll assume here that there's only one provenance action. This may need more thought
         // if that's not true.
@@ -194,7 +345,8 @@ public class WorkspaceEventHandler implements EventHandler {
     }
 
     /** Get the workspace information for a workspace from the workspace service to which this
-     * handler is communicating.
+     * handler is communicating, or from the cache if the handler has one. The returned
+     * information must not be modified.
      * @param workspaceID the integer ID of the workspace.
      * @return the workspace info as returned from the workspace.
      * @throws IOException if an IO exception occurs.
@@ -204,7 +356,9 @@ public class WorkspaceEventHandler implements EventHandler {
                 String, String, Map<String, String>> getWorkspaceInfo(
             final long workspaceID)
             throws IOException, JsonClientException {
-
+        if (wsInfoCache.isPresent()) {
+            return wsInfoCache.get().getWorkspaceInfo(workspaceID);
+        }
         final Map<String, Object> command = new HashMap<>();
         command.put("command", "getWorkspaceInfo");
         command.put("params", new WorkspaceIdentity().withId(workspaceID));
@@ -236,6 +390,26 @@ public class WorkspaceEventHandler implements EventHandler {
         }
     }
 
+    @Override
+    public String getMD5(final List<GUID> guids)
+            throws IndexingException, RetriableIndexingException {
+        Utils.nonNull(guids, "guids");
+        Utils.noNulls(guids, "null item in guids");
+        final Map<String, Object> command = new HashMap<>();
+        command.put("command", "getObjectInfo");
+        command.put("params", new GetObjectInfo3Params().withObjects(
+                Arrays.asList(new ObjectSpecification().withRef(toWSRefPath(guids)))));
+        try {
+            return ws.getClient().administer(new UObject(command))
+                    .asClassInstance(GetObjectInfo3Results.class)
+                    .getInfos().get(0).getE9();
+        } catch (IOException e) {
+            throw handleException(e);
+        } catch (JsonClientException e) {
+            throw handleException(e);
+        }
+    }
+
     private static IndexingException handleException(final JsonClientException e) {
         if (e instanceof UnauthorizedException) {
             return new FatalIndexingException(ErrorType.OTHER, e.getMessage(), e);
@@ -263,9 +437,11 @@ public class WorkspaceEventHandler implements EventHandler {
 
     private static RetriableIndexingException handleException(final IOException e) {
         if (e instanceof ConnectException) {
-            return new FatalRetriableIndexingException(ErrorType.OTHER, e.getMessage(), e);
+            return new FatalRetriableIndexingException(
+                    ErrorType.OTHER, Downstream.WORKSPACE, e.getMessage(), e);
         }
-        return new RetriableIndexingException(ErrorType.OTHER, e.getMessage(), e);
+        return new RetriableIndexingException(
+                ErrorType.OTHER, Downstream.WORKSPACE, e.getMessage(), e);
     }
     
     @Override
@@ -347,6 +523,10 @@ public class WorkspaceEventHandler implements EventHandler {
             throws IndexingException, RetriableIndexingException {
         checkStorageCode(eventWID);
         final StatusEvent event = eventWID.getEvent();
+        if (wsInfoCache.isPresent() && event.getAccessGroupId().isPresent()) {
+            // the workspace has been changed, so don't serve stale tags or narrative info
+            wsInfoCache.get().invalidate(event.getAccessGroupId().get());
+        }
         if (StatusEventType.NEW_ALL_VERSIONS.equals(event.getEventType())) {
             return handleNewAllVersions(eventWID);
         } else if (StatusEventType.COPY_ACCESS_GROUP.equals(event.getEventType())) {
@@ -396,7 +576,7 @@ public class WorkspaceEventHandler implements EventHandler {
             
             @Override
             public Iterator<ChildStatusEvent> iterator() {
-                return new StupidWorkspaceObjectIterator(event, objcount, newType);
+                return new ObjectIDRangeIterator(event, objcount, newType);
             }
         };
     }
@@ -407,7 +587,7 @@ public class WorkspaceEventHandler implements EventHandler {
 
             @Override
             public Iterator<ChildStatusEvent> iterator() {
-                return new StupidWorkspaceObjectIterator(
+                return new ObjectIDRangeIterator(
                         event, Long.parseLong(event.getEvent().getAccessGroupObjectId().get()),
                         StatusEventType.DELETE_ALL_VERSIONS);
             }
@@ -415,17 +595,19 @@ public class WorkspaceEventHandler implements EventHandler {
         };
     }
     
-    /* This is not efficient, but allows parallelizing events by decomposing the event
-     * to per object events. That means the parallelization can run on a per object basis.
+    /* Decomposes an access group wide event into events covering ranges of object IDs. Each
+     * range can be applied to the indexing storage in a single operation, which is much faster
+     * than one operation per object, while still allowing the ranges to be processed in
+     * parallel.
      */
-    private static class StupidWorkspaceObjectIterator implements Iterator<ChildStatusEvent> {
+    private static class ObjectIDRangeIterator implements Iterator<ChildStatusEvent> {
 
         private final StoredStatusEvent event;
         private final StatusEventType newType;
         private final long maxObjectID;
         private long counter = 0;
         
-        public StupidWorkspaceObjectIterator(
+        public ObjectIDRangeIterator(
                 final StoredStatusEvent event,
                 final long maxObjectID,
                 final StatusEventType newType) {
@@ -444,10 +626,12 @@ public class WorkspaceEventHandler implements EventHandler {
             if (counter >= maxObjectID) {
                 throw new NoSuchElementException();
             }
+            final long first = counter + 1;
+            counter = Math.min(maxObjectID, counter + OBJECT_ID_RANGE_SIZE);
             return new ChildStatusEvent(
                     StatusEvent.getBuilder(STORAGE_CODE, event.getEvent().getTimestamp(), newType)
                             .withNullableAccessGroupID(event.getEvent().getAccessGroupId().get())
-                            .withNullableObjectID(++counter + "")
+                            .withNullableObjectIDRange(new ObjectIDRange(first, counter))
                             .build(),
                     event.getID());
         }
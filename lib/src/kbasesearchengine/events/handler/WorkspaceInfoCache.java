@@ -0,0 +1,122 @@
+package kbasesearchengine.events.handler;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Ticker;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+
+import us.kbase.common.service.JsonClientException;
+import us.kbase.common.service.Tuple9;
+
+/** A caching layer for workspace information. Caches the results of
+ * {@link WorkspaceEventHandler#getWorkspaceInfo(long)} from the wrapped handler in memory so
+ * that, for example, loading all the objects in a workspace or decorating a page of search
+ * results only requires one call to the workspace per workspace.
+ *
+ * Concurrent requests for the same uncached workspace result in a single call to the
+ * workspace, and the other requests wait for the result.
+ *
+ * This class is thread safe and is intended to be shared between handlers.
+ */
+public class WorkspaceInfoCache {
+
+    private final LoadingCache<Long, Tuple9<Long, String, String, String, Long, String,
+            String, String, Map<String, String>>> cache;
+
+    /** Create a cache.
+     * @param handler the handler whose results will be cached. This handler should not itself
+     * use a cache.
+     * @param cacheLifeTimeInSec the number of seconds the information for a workspace should
+     * remain in the cache.
+     * @param cacheSizeInWorkspaces the maximum number of workspaces to store in the cache.
+     */
+    public WorkspaceInfoCache(
+            final WorkspaceEventHandler handler,
+            final int cacheLifeTimeInSec,
+            final int cacheSizeInWorkspaces) {
+        this(handler, cacheLifeTimeInSec, cacheSizeInWorkspaces, Ticker.systemTicker());
+    }
+
+    /** Create a cache for testing purposes.
+     * @param handler the handler whose results will be cached. This handler should not itself
+     * use a cache.
+     * @param cacheLifeTimeInSec the number of seconds the information for a workspace should
+     * remain in the cache.
+     * @param cacheSizeInWorkspaces the maximum number of workspaces to store in the cache.
+     * @param ticker a ticker implementation that allows controlling cache expiration with the
+     * provided ticker rather than waiting for the system clock. This is exposed for testing
+     * purposes.
+     */
+    public WorkspaceInfoCache(
+            final WorkspaceEventHandler handler,
+            final int cacheLifeTimeInSec,
+            final int cacheSizeInWorkspaces,
+            final Ticker ticker) {
+        if (handler == null) {
+            throw new NullPointerException("handler");
+        }
+        if (cacheLifeTimeInSec < 1) {
+            throw new IllegalArgumentException("cache lifetime must be at least one second");
+        }
+        if (cacheSizeInWorkspaces < 1) {
+            throw new IllegalArgumentException("cache size must be at least one");
+        }
+        cache = CacheBuilder.newBuilder()
+                .ticker(ticker)
+                .expireAfterWrite(cacheLifeTimeInSec, TimeUnit.SECONDS)
+                .maximumSize(cacheSizeInWorkspaces)
+                .build(new CacheLoader<Long, Tuple9<Long, String, String, String, Long, String,
+                        String, String, Map<String, String>>>() {
+
+                    @Override
+                    public Tuple9<Long, String, String, String, Long, String,
+                            String, String, Map<String, String>> load(final Long workspaceID)
+                            throws Exception {
+                        return handler.getWorkspaceInfo(workspaceID);
+                    }
+
+                });
+    }
+
+    /** Get information about a workspace, contacting the workspace only if the information is
+     * not cached. The returned information must not be modified.
+     * @param workspaceID the integer ID of the workspace.
+     * @return the workspace info as returned from the workspace.
+     * @throws IOException if an IO exception occurs.
+     * @throws JsonClientException if an error retrieving the data occurs.
+     */
+    public Tuple9<Long, String, String, String, Long, String,
+                String, String, Map<String, String>> getWorkspaceInfo(
+            final long workspaceID)
+            throws IOException, JsonClientException {
+        try {
+            return cache.get(workspaceID);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            // IOE and JCE are the only checked exceptions
+            // unchecked exceptions are wrapped in UncheckedExcecutionException
+            throw (JsonClientException) e.getCause();
+        }
+    }
+
+    /** Remove the information for a workspace from the cache, usually because an event
+     * indicates that the workspace has changed.
+     * @param workspaceID the integer ID of the workspace.
+     */
+    public void invalidate(final long workspaceID) {
+        cache.invalidate(workspaceID);
+    }
+
+    /** Remove the information for all workspaces from the cache. */
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+}
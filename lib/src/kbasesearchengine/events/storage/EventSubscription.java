@@ -0,0 +1,28 @@
+package kbasesearchengine.events.storage;
+
+import java.util.concurrent.TimeUnit;
+
+/** A subscription to notifications of newly stored events in a particular processing state.
+ * See {@link StatusEventStorage#subscribe(kbasesearchengine.events.StatusEventProcessingState)}.
+ *
+ * Notifications are hints that new events may be available and carry no event data. Callers
+ * must still fetch the events from the storage system, and should continue to poll the storage
+ * system at a long interval in case a notification is lost.
+ */
+public interface EventSubscription extends AutoCloseable {
+
+    /** Wait for a notification that new events have been stored. Notifications that arrived
+     * since the last call to this method, or since the subscription was created, cause the
+     * method to return immediately. Multiple notifications are collapsed into one.
+     * @param timeout the maximum time to wait.
+     * @param unit the unit of the timeout.
+     * @return true if new events were stored, false if the timeout elapsed or the subscription
+     * is closed.
+     * @throws InterruptedException if the thread is interrupted while waiting.
+     */
+    boolean await(long timeout, TimeUnit unit) throws InterruptedException;
+
+    /** Close the subscription and release any resources it holds. */
+    @Override
+    void close();
+}
@@ -0,0 +1,311 @@
+package kbasesearchengine.events.storage;
+
+import java.time.Instant;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import com.google.common.base.Optional;
+
+import kbasesearchengine.events.StatusEventProcessingState;
+import kbasesearchengine.events.StatusEventType;
+import kbasesearchengine.tools.Utils;
+
+/** A query for events and child events in the {@link StatusEventProcessingState#FAIL} state,
+ * usually so they can be inspected or replayed once the cause of the failure is fixed.
+ * An event must match all the filters that are set in the query. An empty query matches all
+ * failed events.
+ */
+public class FailedEventQuery {
+
+    private final Set<String> errorCodes;
+    private final Set<StatusEventType> eventTypes;
+    private final Optional<Instant> timestampFrom;
+    private final Optional<Instant> timestampTo;
+    private final Optional<String> storageCode;
+    private final Optional<Integer> accessGroupID;
+    private final Optional<Instant> failedBefore;
+
+    private FailedEventQuery(
+            final Set<String> errorCodes,
+            final Set<StatusEventType> eventTypes,
+            final Optional<Instant> timestampFrom,
+            final Optional<Instant> timestampTo,
+            final Optional<String> storageCode,
+            final Optional<Integer> accessGroupID,
+            final Optional<Instant> failedBefore) {
+        this.errorCodes = Collections.unmodifiableSet(errorCodes);
+        this.eventTypes = Collections.unmodifiableSet(eventTypes);
+        this.timestampFrom = timestampFrom;
+        this.timestampTo = timestampTo;
+        this.storageCode = storageCode;
+        this.accessGroupID = accessGroupID;
+        this.failedBefore = failedBefore;
+    }
+
+    /** Get the error codes of the events to match. If empty, any error code matches.
+     * @return the error codes.
+     */
+    public Set<String> getErrorCodes() {
+        return errorCodes;
+    }
+
+    /** Get the types of the events to match. If empty, any event type matches.
+     * @return the event types.
+     */
+    public Set<StatusEventType> getEventTypes() {
+        return eventTypes;
+    }
+
+    /** Get the earliest event timestamp, inclusive, of the events to match.
+     * @return the earliest timestamp or absent if there is no lower bound.
+     */
+    public Optional<Instant> getTimestampFrom() {
+        return timestampFrom;
+    }
+
+    /** Get the latest event timestamp, exclusive, of the events to match.
+     * @return the latest timestamp or absent if there is no upper bound.
+     */
+    public Optional<Instant> getTimestampTo() {
+        return timestampTo;
+    }
+
+    /** Get the storage code of the access group of the events to match.
+     * @return the storage code or absent if events from any access group match.
+     */
+    public Optional<String> getStorageCode() {
+        return storageCode;
+    }
+
+    /** Get the ID of the access group of the events to match.
+     * @return the access group ID or absent if events from any access group match.
+     */
+    public Optional<Integer> getAccessGroupID() {
+        return accessGroupID;
+    }
+
+    /** Get the time before which the events to match failed. For events, this is the time the
+     * processing state was last updated, or the time the event was stored if the state has
+     * never been updated. For child events, it is the time the event was stored.
+     * @return the failure time or absent if events that failed at any time match.
+     */
+    public Optional<Instant> getFailedBefore() {
+        return failedBefore;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("FailedEventQuery [errorCodes=");
+        builder.append(errorCodes);
+        builder.append(", eventTypes=");
+        builder.append(eventTypes);
+        builder.append(", timestampFrom=");
+        builder.append(timestampFrom);
+        builder.append(", timestampTo=");
+        builder.append(timestampTo);
+        builder.append(", storageCode=");
+        builder.append(storageCode);
+        builder.append(", accessGroupID=");
+        builder.append(accessGroupID);
+        builder.append(", failedBefore=");
+        builder.append(failedBefore);
+        builder.append("]");
+        return builder.toString();
+    }
+
+    @Override
+    public int hashCode() {
+        final int prime = 31;
+        int result = 1;
+        result = prime * result + ((accessGroupID == null) ? 0 : accessGroupID.hashCode());
+        result = prime * result + ((errorCodes == null) ? 0 : errorCodes.hashCode());
+        result = prime * result + ((eventTypes == null) ? 0 : eventTypes.hashCode());
+        result = prime * result + ((failedBefore == null) ? 0 : failedBefore.hashCode());
+        result = prime * result + ((storageCode == null) ? 0 : storageCode.hashCode());
+        result = prime * result + ((timestampFrom == null) ? 0 : timestampFrom.hashCode());
+        result = prime * result + ((timestampTo == null) ? 0 : timestampTo.hashCode());
+        return result;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (obj == null) {
+            return false;
+        }
+        if (getClass() != obj.getClass()) {
+            return false;
+        }
+        FailedEventQuery other = (FailedEventQuery) obj;
+        if (accessGroupID == null) {
+            if (other.accessGroupID != null) {
+                return false;
+            }
+        } else if (!accessGroupID.equals(other.accessGroupID)) {
+            return false;
+        }
+        if (errorCodes == null) {
+            if (other.errorCodes != null) {
+                return false;
+            }
+        } else if (!errorCodes.equals(other.errorCodes)) {
+            return false;
+        }
+        if (eventTypes == null) {
+            if (other.eventTypes != null) {
+                return false;
+            }
+        } else if (!eventTypes.equals(other.eventTypes)) {
+            return false;
+        }
+        if (failedBefore == null) {
+            if (other.failedBefore != null) {
+                return false;
+            }
+        } else if (!failedBefore.equals(other.failedBefore)) {
+            return false;
+        }
+        if (storageCode == null) {
+            if (other.storageCode != null) {
+                return false;
+            }
+        } else if (!storageCode.equals(other.storageCode)) {
+            return false;
+        }
+        if (timestampFrom == null) {
+            if (other.timestampFrom != null) {
+                return false;
+            }
+        } else if (!timestampFrom.equals(other.timestampFrom)) {
+            return false;
+        }
+        if (timestampTo == null) {
+            if (other.timestampTo != null) {
+                return false;
+            }
+        } else if (!timestampTo.equals(other.timestampTo)) {
+            return false;
+        }
+        return true;
+    }
+
+    /** Get a builder for a {@link FailedEventQuery} that matches all failed events.
+     * @return a new builder.
+     */
+    public static Builder getBuilder() {
+        return new Builder();
+    }
+
+    /** Get a builder for a {@link FailedEventQuery} initialized with the filters of an
+     * existing query.
+     * @param query the query to copy.
+     * @return a new builder.
+     */
+    public static Builder getBuilder(final FailedEventQuery query) {
+        Utils.nonNull(query, "query");
+        final Builder b = new Builder();
+        b.errorCodes.addAll(query.errorCodes);
+        b.eventTypes.addAll(query.eventTypes);
+        b.timestampFrom = query.timestampFrom;
+        b.timestampTo = query.timestampTo;
+        b.storageCode = query.storageCode;
+        b.accessGroupID = query.accessGroupID;
+        b.failedBefore = query.failedBefore;
+        return b;
+    }
+
+    /** A builder for {@link FailedEventQuery}s.
+     */
+    public static class Builder {
+
+        private final Set<String> errorCodes = new HashSet<>();
+        private final Set<StatusEventType> eventTypes = new HashSet<>();
+        private Optional<Instant> timestampFrom = Optional.absent();
+        private Optional<Instant> timestampTo = Optional.absent();
+        private Optional<String> storageCode = Optional.absent();
+        private Optional<Integer> accessGroupID = Optional.absent();
+        private Optional<Instant> failedBefore = Optional.absent();
+
+        private Builder() {}
+
+        /** Add an error code to the set of error codes to match.
+         * @param errorCode the error code.
+         * @return this builder.
+         */
+        public Builder withErrorCode(final String errorCode) {
+            Utils.notNullOrEmpty(errorCode, "errorCode cannot be null or whitespace only");
+            errorCodes.add(errorCode);
+            return this;
+        }
+
+        /** Add an event type to the set of event types to match.
+         * @param eventType the event type.
+         * @return this builder.
+         */
+        public Builder withEventType(final StatusEventType eventType) {
+            Utils.nonNull(eventType, "eventType");
+            eventTypes.add(eventType);
+            return this;
+        }
+
+        /** Only match events with a timestamp at or after the given time.
+         * @param timestampFrom the earliest timestamp, inclusive.
+         * @return this builder.
+         */
+        public Builder withTimestampFrom(final Instant timestampFrom) {
+            Utils.nonNull(timestampFrom, "timestampFrom");
+            this.timestampFrom = Optional.of(timestampFrom);
+            return this;
+        }
+
+        /** Only match events with a timestamp before the given time.
+         * @param timestampTo the latest timestamp, exclusive.
+         * @return this builder.
+         */
+        public Builder withTimestampTo(final Instant timestampTo) {
+            Utils.nonNull(timestampTo, "timestampTo");
+            this.timestampTo = Optional.of(timestampTo);
+            return this;
+        }
+
+        /** Only match events from an access group. Access group IDs are only unique within a
+         * storage system, and so the storage code is required.
+         * @param storageCode the storage code of the access group, e.g. WS.
+         * @param accessGroupID the ID of the access group.
+         * @return this builder.
+         */
+        public Builder withAccessGroup(final String storageCode, final int accessGroupID) {
+            Utils.notNullOrEmpty(storageCode, "storageCode cannot be null or whitespace only");
+            this.storageCode = Optional.of(storageCode);
+            this.accessGroupID = Optional.of(accessGroupID);
+            return this;
+        }
+
+        /** Only match events that failed before the given time. See
+         * {@link FailedEventQuery#getFailedBefore()}.
+         * @param failedBefore the failure time, exclusive.
+         * @return this builder.
+         */
+        public Builder withFailedBefore(final Instant failedBefore) {
+            Utils.nonNull(failedBefore, "failedBefore");
+            this.failedBefore = Optional.of(failedBefore);
+            return this;
+        }
+
+        /** Build the query.
+         * @return the query.
+         */
+        public FailedEventQuery build() {
+            if (timestampFrom.isPresent() && timestampTo.isPresent() &&
+                    !timestampFrom.get().isBefore(timestampTo.get())) {
+                throw new IllegalArgumentException("timestampFrom must be before timestampTo");
+            }
+            return new FailedEventQuery(new HashSet<>(errorCodes), new HashSet<>(eventTypes),
+                    timestampFrom, timestampTo, storageCode, accessGroupID, failedBefore);
+        }
+    }
+}
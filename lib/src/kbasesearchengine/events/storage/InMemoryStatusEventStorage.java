@@ -0,0 +1,990 @@
+package kbasesearchengine.events.storage;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Optional;
+
+import kbasesearchengine.events.ChildStatusEvent;
+import kbasesearchengine.events.FailedChildStatusEvent;
+import kbasesearchengine.events.StatusEvent;
+import kbasesearchengine.events.StatusEventID;
+import kbasesearchengine.events.StatusEventPriority;
+import kbasesearchengine.events.StatusEventProcessingState;
+import kbasesearchengine.events.StatusEventType;
+import kbasesearchengine.events.StoredChildStatusEvent;
+import kbasesearchengine.events.StoredStatusEvent;
+import kbasesearchengine.tools.Utils;
+
+/** An implementation of {@link StatusEventStorage} that keeps events in memory, with the same
+ * semantics as {@link MongoDBStatusEventStorage}. Events are lost when the storage system is
+ * garbage collected, so this implementation is only suitable for benchmarks, tests, and local
+ * runs.
+ *
+ * This class is thread safe.
+ */
+public class InMemoryStatusEventStorage implements StatusEventStorage {
+
+    /* All operations take a single lock, which makes every operation atomic, including batch
+     * claims. Events are indexed by state and priority lane in timestamp order, so finding the
+     * oldest event runs down the events in the target state until it finds one with an
+     * appropriate worker code, just as the mongo query does.
+     */
+
+    private static final Set<String> DEFAULT_WORKER_CODES_SET = Collections.unmodifiableSet(
+            new HashSet<>(Arrays.asList(StatusEventStorage.DEFAULT_WORKER_CODE)));
+
+    private static final int MAX_RETURNED_EVENTS = 10000;
+    private static final int MAX_ERR_CODE_LEN = 20;
+    private static final int TRUNC_ERR_MSG_LEN = 1000;
+    private static final int TRUNC_ERR_TRACE_LEN = 100_000;
+
+    // FIFO by event timestamp, and then by storage order for identical timestamps
+    private static final Comparator<Record> FIFO = Comparator
+            .comparing((final Record r) -> r.event.getTimestamp())
+            .thenComparingLong(r -> r.sequence);
+
+    private final Clock clock;
+    private final Object lock = new Object();
+    private final Map<String, Record> events = new HashMap<>();
+    private final Map<StatusEventProcessingState, Map<StatusEventPriority, NavigableSet<Record>>>
+            index = new EnumMap<>(StatusEventProcessingState.class);
+    private final Map<String, StoredStatusEvent> archive = new HashMap<>();
+    // keys are retained when events are archived
+    private final Set<String> eventKeys = new HashSet<>();
+    private final Map<String, StoredChildStatusEvent> children = new HashMap<>();
+    private final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+    private long sequence = 0;
+    // rotates the priority lane shares between claims, see claimEvents()
+    private long claimCursor = 0;
+    // rotates the priority lane shares between gets, see getByPriority()
+    private long getCursor = 0;
+
+    /** Create the storage system. */
+    public InMemoryStatusEventStorage() {
+        this(Clock.systemDefaultZone());
+    }
+
+    /** A test constructor that allows setting the storage clock. Do not use this constructor for
+     * anything except tests.
+     * @param clock a clock to use for generating timestamps when updating event states.
+     * Usually a mock.
+     */
+    public InMemoryStatusEventStorage(final Clock clock) {
+        Utils.nonNull(clock, "clock");
+        this.clock = clock;
+        for (final StatusEventProcessingState state: StatusEventProcessingState.values()) {
+            final Map<StatusEventPriority, NavigableSet<Record>> lanes =
+                    new EnumMap<>(StatusEventPriority.class);
+            for (final StatusEventPriority priority: StatusEventPriority.values()) {
+                lanes.put(priority, new TreeSet<>(FIFO));
+            }
+            index.put(state, lanes);
+        }
+    }
+
+    // the mutable state of a stored event
+    private static class Record {
+
+        private final String id;
+        private final long sequence;
+        private final StatusEvent event;
+        private final Set<String> workerCodes;
+        private final String storedBy;
+        private final Instant storeTime;
+        private final StatusEventPriority priority;
+        private StatusEventProcessingState state;
+        private Instant updateTime = null;
+        private String updater = null;
+        private String errorCode = null;
+        private String errorMessage = null;
+        private String errorTrace = null;
+        private String leaseOwner = null;
+        private Instant leaseExpiry = null;
+
+        private Record(
+                final String id,
+                final long sequence,
+                final StatusEvent event,
+                final StatusEventProcessingState state,
+                final Set<String> workerCodes,
+                final String storedBy,
+                final Instant storeTime,
+                final StatusEventPriority priority) {
+            this.id = id;
+            this.sequence = sequence;
+            this.event = event;
+            this.state = state;
+            this.workerCodes = workerCodes;
+            this.storedBy = storedBy;
+            this.storeTime = storeTime;
+            this.priority = priority;
+        }
+
+        private StoredStatusEvent toStoredStatusEvent() {
+            final StoredStatusEvent.Builder b = StoredStatusEvent.getBuilder(
+                    event, new StatusEventID(id), state)
+                    .withNullableUpdate(updateTime, updater)
+                    .withNullableStoredBy(storedBy)
+                    .withNullableStoreTime(storeTime)
+                    .withNullableError(errorCode, errorMessage, errorTrace)
+                    .withNullableLease(leaseOwner, leaseExpiry)
+                    .withPriority(priority);
+            for (final String code: workerCodes) {
+                b.withWorkerCode(code);
+            }
+            return b.build();
+        }
+    }
+
+    // a subscription that is signaled directly by the storage system when events are stored
+    private class Subscription implements EventSubscription {
+
+        private final StatusEventProcessingState state;
+        private final Object sublock = new Object();
+        private boolean notified = false;
+        private boolean closed = false;
+
+        private Subscription(final StatusEventProcessingState state) {
+            this.state = state;
+        }
+
+        private void signal() {
+            synchronized (sublock) {
+                notified = true;
+                sublock.notifyAll();
+            }
+        }
+
+        @Override
+        public boolean await(final long timeout, final TimeUnit unit)
+                throws InterruptedException {
+            final long deadline = System.nanoTime() + unit.toNanos(timeout);
+            synchronized (sublock) {
+                while (!notified && !closed) {
+                    final long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        return false;
+                    }
+                    TimeUnit.NANOSECONDS.timedWait(sublock, remaining);
+                }
+                final boolean ret = notified;
+                notified = false;
+                return ret && !closed;
+            }
+        }
+
+        @Override
+        public void close() {
+            subscriptions.remove(this);
+            synchronized (sublock) {
+                closed = true;
+                sublock.notifyAll();
+            }
+        }
+    }
+
+    private String nextID() {
+        // same format as a mongo object ID, so IDs are interchangeable in tools and tests
+        return String.format("%024x", ++sequence);
+    }
+
+    private NavigableSet<Record> getLane(
+            final StatusEventProcessingState state,
+            final StatusEventPriority priority) {
+        return index.get(state).get(priority);
+    }
+
+    private void setState(final Record r, final StatusEventProcessingState state) {
+        getLane(r.state, r.priority).remove(r);
+        r.state = state;
+        getLane(r.state, r.priority).add(r);
+    }
+
+    private Record getRecord(final StatusEventID id) {
+        Utils.nonNull(id, "id");
+        return events.get(id.getId());
+    }
+
+    @Override
+    public StoredStatusEvent store(
+            final StatusEvent newEvent,
+            final StatusEventProcessingState state,
+            final Set<String> workerCodes,
+            final String storedBy) {
+        return store(newEvent, state, workerCodes, storedBy, StatusEventPriority.INTERACTIVE);
+    }
+
+    @Override
+    public StoredStatusEvent store(
+            final StatusEvent newEvent,
+            final StatusEventProcessingState state,
+            Set<String> workerCodes,
+            final String storedBy,
+            final StatusEventPriority priority) {
+        Utils.nonNull(newEvent, "newEvent");
+        return storeAll(Arrays.asList(newEvent), state, workerCodes, storedBy, priority).get(0);
+    }
+
+    private Set<String> checkWorkerCodes(final Set<String> workerCodes) {
+        if (workerCodes == null || workerCodes.isEmpty()) {
+            return DEFAULT_WORKER_CODES_SET;
+        }
+        for (final String code: workerCodes) {
+            if (Utils.isNullOrEmpty(code)) {
+                throw new IllegalArgumentException("null or whitespace only item in workerCodes");
+            }
+        }
+        return Collections.unmodifiableSet(new HashSet<>(workerCodes));
+    }
+
+    @Override
+    public List<StoredStatusEvent> storeAll(
+            final List<StatusEvent> newEvents,
+            final StatusEventProcessingState state,
+            final Set<String> workerCodes,
+            final String storedBy) {
+        return storeAll(newEvents, state, workerCodes, storedBy,
+                StatusEventPriority.INTERACTIVE);
+    }
+
+    @Override
+    public List<StoredStatusEvent> storeAll(
+            final List<StatusEvent> newEvents,
+            final StatusEventProcessingState state,
+            Set<String> workerCodes,
+            final String storedBy,
+            final StatusEventPriority priority) {
+        Utils.nonNull(newEvents, "newEvents");
+        Utils.noNulls(newEvents, "null item in newEvents");
+        Utils.nonNull(state, "state");
+        Utils.notNullOrEmpty(storedBy, "storedBy cannot be null or whitespace only");
+        Utils.nonNull(priority, "priority");
+        workerCodes = checkWorkerCodes(workerCodes);
+        final List<StoredStatusEvent> ret;
+        synchronized (lock) {
+            ret = addRecords(newEvents, state, workerCodes, storedBy, priority);
+        }
+        signalStored(state, ret);
+        return ret;
+    }
+    
+    @Override
+    public List<StoredStatusEvent> storeAllUnique(
+            final Map<String, StatusEvent> newEvents,
+            final StatusEventProcessingState state,
+            Set<String> workerCodes,
+            final String storedBy,
+            final StatusEventPriority priority) {
+        StatusEventStorageUtils.checkKeys(newEvents);
+        Utils.nonNull(state, "state");
+        Utils.notNullOrEmpty(storedBy, "storedBy cannot be null or whitespace only");
+        Utils.nonNull(priority, "priority");
+        workerCodes = checkWorkerCodes(workerCodes);
+        final List<StoredStatusEvent> ret;
+        synchronized (lock) {
+            final List<StatusEvent> toStore = new ArrayList<>(newEvents.size());
+            for (final String key: newEvents.keySet()) {
+                if (eventKeys.add(key)) {
+                    toStore.add(newEvents.get(key));
+                }
+            }
+            ret = addRecords(toStore, state, workerCodes, storedBy, priority);
+        }
+        signalStored(state, ret);
+        return ret;
+    }
+    
+    // expects to be called while holding the lock
+    private List<StoredStatusEvent> addRecords(
+            final List<StatusEvent> newEvents,
+            final StatusEventProcessingState state,
+            final Set<String> workerCodes,
+            final String storedBy,
+            final StatusEventPriority priority) {
+        final Instant now = clock.instant();
+        final List<StoredStatusEvent> ret = new ArrayList<>(newEvents.size());
+        for (final StatusEvent newEvent: newEvents) {
+            final String id = nextID();
+            final Record r = new Record(id, sequence, newEvent, state, workerCodes,
+                    storedBy, now, priority);
+            events.put(r.id, r);
+            getLane(state, priority).add(r);
+            ret.add(r.toStoredStatusEvent());
+        }
+        return ret;
+    }
+    
+    private void signalStored(
+            final StatusEventProcessingState state,
+            final List<StoredStatusEvent> stored) {
+        if (!stored.isEmpty()) {
+            for (final Subscription s: subscriptions) {
+                if (s.state.equals(state)) {
+                    s.signal();
+                }
+            }
+        }
+    }
+
+    @Override
+    public StoredChildStatusEvent store(
+            final ChildStatusEvent newEvent,
+            final String errorCode,
+            final Throwable error) {
+        Utils.nonNull(newEvent, "newEvent");
+        final String[] err = getError(errorCode, error);
+        return storeChildren(Arrays.asList(newEvent), Arrays.<String[]>asList(err)).get(0);
+    }
+
+    @Override
+    public List<StoredChildStatusEvent> storeAllChildren(
+            final List<FailedChildStatusEvent> newEvents) {
+        Utils.nonNull(newEvents, "newEvents");
+        Utils.noNulls(newEvents, "null item in newEvents");
+        final List<ChildStatusEvent> childEvents = new ArrayList<>(newEvents.size());
+        final List<String[]> errors = new ArrayList<>(newEvents.size());
+        for (final FailedChildStatusEvent e: newEvents) {
+            childEvents.add(e.getEvent());
+            errors.add(getError(e.getErrorCode(), e.getError()));
+        }
+        return storeChildren(childEvents, errors);
+    }
+
+    private List<StoredChildStatusEvent> storeChildren(
+            final List<ChildStatusEvent> newEvents,
+            final List<String[]> errors) {
+        final Instant now = clock.instant();
+        final List<StoredChildStatusEvent> ret = new ArrayList<>(newEvents.size());
+        synchronized (lock) {
+            for (int i = 0; i < newEvents.size(); i++) {
+                final String[] err = errors.get(i);
+                final StoredChildStatusEvent stored = StoredChildStatusEvent.getBuilder(
+                        newEvents.get(i), new StatusEventID(nextID()), now)
+                        .withNullableError(err[0], err[1], err[2])
+                        .build();
+                children.put(stored.getID().getId(), stored);
+                ret.add(stored);
+            }
+        }
+        return ret;
+    }
+
+    // returns the error code, truncated message, and truncated stack trace
+    private String[] getError(final String errorCode, final Throwable error) {
+        checkErrorCode(errorCode);
+        Utils.nonNull(error, "error");
+        final StringWriter sw = new StringWriter();
+        error.printStackTrace(new PrintWriter(sw));
+        return new String[] {errorCode, truncate(error.getMessage(), TRUNC_ERR_MSG_LEN),
+                truncate(sw.toString(), TRUNC_ERR_TRACE_LEN)};
+    }
+
+    // assumes length > 3
+    private String truncate(final String string, final int length) {
+        if (string.length() > length) {
+            return string.substring(0, length - 3) + "...";
+        }
+        return string;
+    }
+
+    private void checkErrorCode(final String errorCode) {
+        Utils.notNullOrEmpty(errorCode, "errorCode cannot be null or whitespace only");
+        if (errorCode.length() > MAX_ERR_CODE_LEN) {
+            throw new IllegalArgumentException("errorCode exceeds max length of " +
+                    MAX_ERR_CODE_LEN);
+        }
+    }
+
+    @Override
+    public EventSubscription subscribe(final StatusEventProcessingState state) {
+        Utils.nonNull(state, "state");
+        final Subscription s = new Subscription(state);
+        subscriptions.add(s);
+        return s;
+    }
+
+    @Override
+    public Optional<StoredStatusEvent> get(final StatusEventID id) {
+        synchronized (lock) {
+            final Record r = getRecord(id);
+            if (r != null) {
+                return Optional.of(r.toStoredStatusEvent());
+            }
+            return Optional.fromNullable(archive.get(id.getId()));
+        }
+    }
+
+    @Override
+    public Optional<StoredChildStatusEvent> getChild(final StatusEventID id) {
+        Utils.nonNull(id, "id");
+        synchronized (lock) {
+            return Optional.fromNullable(children.get(id.getId()));
+        }
+    }
+
+    // note returns in order of time stamp, oldest first (e.g FIFO)
+    @Override
+    public List<StoredStatusEvent> get(final StatusEventProcessingState state, int limit) {
+        Utils.nonNull(state, "state");
+        if (limit < 1 || limit > MAX_RETURNED_EVENTS) {
+            limit = MAX_RETURNED_EVENTS;
+        }
+        final List<Record> records = new ArrayList<>();
+        synchronized (lock) {
+            // the oldest events overall are among the oldest events in each lane
+            for (final NavigableSet<Record> lane: index.get(state).values()) {
+                final Iterator<Record> iter = lane.iterator();
+                for (int i = 0; i < limit && iter.hasNext(); i++) {
+                    records.add(iter.next());
+                }
+            }
+            records.sort(FIFO);
+            final List<StoredStatusEvent> ret = new LinkedList<>();
+            for (final Record r: records.subList(0, Math.min(limit, records.size()))) {
+                ret.add(r.toStoredStatusEvent());
+            }
+            return ret;
+        }
+    }
+
+    @Override
+    public List<StoredStatusEvent> getByPriority(
+            final StatusEventProcessingState state,
+            int limit) {
+        Utils.nonNull(state, "state");
+        if (limit < 1 || limit > MAX_RETURNED_EVENTS) {
+            limit = MAX_RETURNED_EVENTS;
+        }
+        synchronized (lock) {
+            final List<Record> records = findByLane(state, null, getCursor, limit);
+            getCursor += limit;
+            records.sort(FIFO);
+            final List<StoredStatusEvent> ret = new LinkedList<>();
+            for (final Record r: records) {
+                ret.add(r.toStoredStatusEvent());
+            }
+            return ret;
+        }
+    }
+
+    @Override
+    public Map<StatusEventPriority, LaneStatistics> getLaneStatistics(
+            final StatusEventProcessingState state) {
+        Utils.nonNull(state, "state");
+        final Map<StatusEventPriority, LaneStatistics> ret =
+                new EnumMap<>(StatusEventPriority.class);
+        synchronized (lock) {
+            for (final StatusEventPriority priority: StatusEventPriority.values()) {
+                final NavigableSet<Record> lane = getLane(state, priority);
+                ret.put(priority, new LaneStatistics(priority, lane.size(),
+                        lane.isEmpty() ? null : lane.first().event.getTimestamp()));
+            }
+        }
+        return Collections.unmodifiableMap(ret);
+    }
+
+    @Override
+    public Map<String, Long> getWorkerCodeCounts(final StatusEventProcessingState state) {
+        Utils.nonNull(state, "state");
+        final Map<String, Long> ret = new HashMap<>();
+        synchronized (lock) {
+            for (final NavigableSet<Record> lane: index.get(state).values()) {
+                for (final Record r: lane) {
+                    for (final String code: r.workerCodes) {
+                        ret.merge(code, 1L, Long::sum);
+                    }
+                }
+            }
+        }
+        return Collections.unmodifiableMap(ret);
+    }
+
+    @Override
+    public Map<StatusEventType, Long> getEventTypeCounts(
+            final Set<StatusEventProcessingState> states,
+            final Instant updatedSince) {
+        Utils.nonNull(states, "states");
+        Utils.noNulls(states, "null item in states");
+        Utils.nonNull(updatedSince, "updatedSince");
+        final Map<StatusEventType, Long> ret = new EnumMap<>(StatusEventType.class);
+        synchronized (lock) {
+            for (final StatusEventProcessingState state: states) {
+                for (final NavigableSet<Record> lane: index.get(state).values()) {
+                    for (final Record r: lane) {
+                        if (r.updateTime != null && !r.updateTime.isBefore(updatedSince)) {
+                            ret.merge(r.event.getEventType(), 1L, Long::sum);
+                        }
+                    }
+                }
+            }
+        }
+        return Collections.unmodifiableMap(ret);
+    }
+
+    @Override
+    public boolean setProcessingState(
+            final StatusEventID id,
+            final StatusEventProcessingState oldState,
+            final StatusEventProcessingState newState) {
+        return setProcessingState(id, oldState, newState, null, null);
+    }
+
+    @Override
+    public boolean setProcessingState(
+            final StatusEventID id,
+            final StatusEventProcessingState oldState,
+            final String errorCode,
+            final Throwable error) {
+        Utils.nonNull(error, "error");
+        return setProcessingState(id, oldState, StatusEventProcessingState.FAIL, errorCode, error);
+    }
+
+    private boolean setProcessingState(
+            final StatusEventID id,
+            final StatusEventProcessingState oldState,
+            final StatusEventProcessingState newState,
+            final String errorCode,
+            final Throwable error) {
+        Utils.nonNull(id, "id");
+        Utils.nonNull(newState, "newState");
+        final String[] err = error == null ? null : getError(errorCode, error);
+        synchronized (lock) {
+            final Record r = getRecord(id);
+            if (r == null || (oldState != null && !oldState.equals(r.state))) {
+                return false;
+            }
+            setState(r, newState);
+            r.updateTime = clock.instant();
+            if (err != null) {
+                r.errorCode = err[0];
+                r.errorMessage = err[1];
+                r.errorTrace = err[2];
+            }
+            // changing the state releases any lease on the event
+            r.leaseOwner = null;
+            r.leaseExpiry = null;
+            return true;
+        }
+    }
+
+    @Override
+    public Optional<StoredStatusEvent> setAndGetProcessingState(
+            final StatusEventProcessingState oldState,
+            final Set<String> workerCodes,
+            final StatusEventProcessingState newState,
+            final String updater) {
+        Utils.nonNull(oldState, "oldState");
+        Utils.nonNull(newState, "newState");
+        Utils.notNullOrEmpty(updater, "updater cannot be null or whitespace");
+        final Set<String> codes = getWorkerCodeQuery(workerCodes);
+        synchronized (lock) {
+            Record oldest = null;
+            for (final NavigableSet<Record> lane: index.get(oldState).values()) {
+                for (final Record r: lane) {
+                    if (matches(r, codes)) {
+                        if (oldest == null || FIFO.compare(r, oldest) < 0) {
+                            oldest = r;
+                        }
+                        break;
+                    }
+                }
+            }
+            if (oldest == null) {
+                return Optional.absent();
+            }
+            setState(oldest, newState);
+            oldest.updateTime = clock.instant();
+            oldest.updater = updater;
+            return Optional.of(oldest.toStoredStatusEvent());
+        }
+    }
+
+    // returns the worker codes an event must have at least one of to match the query codes
+    private Set<String> getWorkerCodeQuery(final Set<String> workerCodes) {
+        final Set<String> codeSet = new HashSet<>();
+        if (workerCodes == null || workerCodes.isEmpty() ||
+                workerCodes.contains(StatusEventStorage.DEFAULT_WORKER_CODE)) {
+            codeSet.add(StatusEventStorage.DEFAULT_WORKER_CODE);
+        }
+        if (workerCodes != null) {
+            Utils.noNulls(workerCodes, "null item in workerCodes");
+            codeSet.addAll(workerCodes);
+        }
+        return codeSet;
+    }
+
+    private boolean matches(final Record r, final Set<String> codes) {
+        for (final String code: r.workerCodes) {
+            if (codes.contains(code)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public List<StoredStatusEvent> claimEvents(
+            final StatusEventProcessingState oldState,
+            final Set<String> workerCodes,
+            final StatusEventProcessingState newState,
+            final String leaseOwner,
+            int limit,
+            final Duration leaseDuration) {
+        Utils.nonNull(oldState, "oldState");
+        Utils.nonNull(newState, "newState");
+        Utils.notNullOrEmpty(leaseOwner, "leaseOwner cannot be null or whitespace");
+        checkLeaseDuration(leaseDuration);
+        if (limit < 1 || limit > MAX_RETURNED_EVENTS) {
+            limit = MAX_RETURNED_EVENTS;
+        }
+        final Set<String> codes = getWorkerCodeQuery(workerCodes);
+        final Instant now = clock.instant();
+        synchronized (lock) {
+            final List<Record> candidates = findByLane(oldState, codes, claimCursor, limit);
+            claimCursor += limit;
+            candidates.sort(FIFO);
+            final List<StoredStatusEvent> ret = new ArrayList<>(candidates.size());
+            for (final Record r: candidates) {
+                setState(r, newState);
+                r.updateTime = now;
+                r.updater = leaseOwner;
+                r.leaseOwner = leaseOwner;
+                r.leaseExpiry = now.plus(leaseDuration);
+                ret.add(r.toStoredStatusEvent());
+            }
+            return ret;
+        }
+    }
+
+    /* finds the oldest events in the state with the worker codes, splitting the limit between
+     * the priority lanes by weighted round robin starting at the cursor. A lane's unused share
+     * goes to the other lanes. Null codes match any event.
+     */
+    private List<Record> findByLane(
+            final StatusEventProcessingState state,
+            final Set<String> codes,
+            final long cursor,
+            final int limit) {
+        final Map<StatusEventPriority, Integer> shares = PriorityLanes.getShares(cursor, limit);
+        final List<Record> found = new ArrayList<>();
+        final Set<StatusEventPriority> exhausted = new HashSet<>();
+        for (final StatusEventPriority priority: shares.keySet()) {
+            final int share = shares.get(priority);
+            if (findInLane(getLane(state, priority), codes, 0, share, found) < share) {
+                exhausted.add(priority);
+            }
+        }
+        // give any share a lane couldn't use to the other lanes
+        for (final StatusEventPriority priority: shares.keySet()) {
+            final int spare = limit - found.size();
+            if (spare > 0 && !exhausted.contains(priority)) {
+                findInLane(getLane(state, priority), codes, shares.get(priority), spare, found);
+            }
+        }
+        return found;
+    }
+
+    // adds the oldest matching events in the lane to found and returns the count added
+    private int findInLane(
+            final NavigableSet<Record> lane,
+            final Set<String> codes,
+            int skip,
+            final int limit,
+            final List<Record> found) {
+        int count = 0;
+        final Iterator<Record> iter = lane.iterator();
+        while (count < limit && iter.hasNext()) {
+            final Record r = iter.next();
+            if (codes == null || matches(r, codes)) {
+                if (skip > 0) {
+                    skip--;
+                } else {
+                    found.add(r);
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public boolean renewLease(
+            final StatusEventID id,
+            final String leaseOwner,
+            final Duration leaseDuration) {
+        Utils.nonNull(id, "id");
+        Utils.notNullOrEmpty(leaseOwner, "leaseOwner cannot be null or whitespace");
+        checkLeaseDuration(leaseDuration);
+        synchronized (lock) {
+            final Record r = getRecord(id);
+            if (r == null || !leaseOwner.equals(r.leaseOwner)) {
+                return false;
+            }
+            r.leaseExpiry = clock.instant().plus(leaseDuration);
+            return true;
+        }
+    }
+
+    @Override
+    public long reclaimExpiredLeases(
+            final StatusEventProcessingState leasedState,
+            final StatusEventProcessingState newState,
+            final String updater) {
+        Utils.nonNull(leasedState, "leasedState");
+        Utils.nonNull(newState, "newState");
+        Utils.notNullOrEmpty(updater, "updater cannot be null or whitespace");
+        final Instant now = clock.instant();
+        synchronized (lock) {
+            final List<Record> expired = new LinkedList<>();
+            for (final NavigableSet<Record> lane: index.get(leasedState).values()) {
+                for (final Record r: lane) {
+                    // events without a lease have no expiry and so don't match
+                    if (r.leaseExpiry != null && r.leaseExpiry.isBefore(now)) {
+                        expired.add(r);
+                    }
+                }
+            }
+            for (final Record r: expired) {
+                setState(r, newState);
+                r.updateTime = now;
+                r.updater = updater;
+                r.leaseOwner = null;
+                r.leaseExpiry = null;
+            }
+            return expired.size();
+        }
+    }
+
+    @Override
+    public long archiveEvents(
+            final Set<StatusEventProcessingState> states,
+            final Instant updatedBefore,
+            int limit) {
+        Utils.nonNull(states, "states");
+        Utils.noNulls(states, "null item in states");
+        Utils.nonNull(updatedBefore, "updatedBefore");
+        if (limit < 1 || limit > MAX_RETURNED_EVENTS) {
+            limit = MAX_RETURNED_EVENTS;
+        }
+        synchronized (lock) {
+            final List<Record> archived = new LinkedList<>();
+            for (final StatusEventProcessingState state: states) {
+                for (final NavigableSet<Record> lane: index.get(state).values()) {
+                    final Iterator<Record> iter = lane.iterator();
+                    while (archived.size() < limit && iter.hasNext()) {
+                        final Record r = iter.next();
+                        // events stored in their final state have never been updated
+                        final Instant updated = r.updateTime == null ?
+                                r.storeTime : r.updateTime;
+                        if (updated.isBefore(updatedBefore)) {
+                            iter.remove();
+                            archived.add(r);
+                        }
+                    }
+                }
+            }
+            for (final Record r: archived) {
+                events.remove(r.id);
+                archive.put(r.id, r.toStoredStatusEvent());
+            }
+            return archived.size();
+        }
+    }
+
+    private boolean matches(
+            final FailedEventQuery query,
+            final StatusEvent event,
+            final String errorCode,
+            final Instant failTime) {
+        final Instant ts = event.getTimestamp();
+        if (!query.getErrorCodes().isEmpty() && !query.getErrorCodes().contains(errorCode)) {
+            return false;
+        }
+        if (!query.getEventTypes().isEmpty() &&
+                !query.getEventTypes().contains(event.getEventType())) {
+            return false;
+        }
+        if (query.getTimestampFrom().isPresent() && ts.isBefore(query.getTimestampFrom().get())) {
+            return false;
+        }
+        if (query.getTimestampTo().isPresent() && !ts.isBefore(query.getTimestampTo().get())) {
+            return false;
+        }
+        if (query.getAccessGroupID().isPresent() && (
+                !query.getStorageCode().get().equals(event.getStorageCode()) ||
+                !query.getAccessGroupID().equals(event.getAccessGroupId()))) {
+            return false;
+        }
+        return !query.getFailedBefore().isPresent() ||
+                failTime.isBefore(query.getFailedBefore().get());
+    }
+
+    private List<Record> getFailedRecords(final FailedEventQuery query) {
+        Utils.nonNull(query, "query");
+        final List<Record> ret = new ArrayList<>();
+        for (final NavigableSet<Record> lane:
+                index.get(StatusEventProcessingState.FAIL).values()) {
+            for (final Record r: lane) {
+                // events stored in the failed state have never been updated
+                final Instant failTime = r.updateTime == null ? r.storeTime : r.updateTime;
+                if (matches(query, r.event, r.errorCode, failTime)) {
+                    ret.add(r);
+                }
+            }
+        }
+        ret.sort(FIFO);
+        return ret;
+    }
+
+    private List<StoredChildStatusEvent> getFailedChildRecords(final FailedEventQuery query) {
+        Utils.nonNull(query, "query");
+        final List<StoredChildStatusEvent> ret = new ArrayList<>();
+        for (final StoredChildStatusEvent c: children.values()) {
+            if (matches(query, c.getChildEvent().getEvent(), c.getErrorCode().orNull(),
+                    c.getStoreTime())) {
+                ret.add(c);
+            }
+        }
+        // IDs are assigned in storage order
+        ret.sort(Comparator
+                .comparing((final StoredChildStatusEvent c) ->
+                        c.getChildEvent().getEvent().getTimestamp())
+                .thenComparing(c -> c.getID().getId()));
+        return ret;
+    }
+
+    // note returns in order of time stamp, oldest first (e.g FIFO)
+    @Override
+    public List<StoredStatusEvent> getFailed(final FailedEventQuery query, int limit) {
+        if (limit < 1 || limit > MAX_RETURNED_EVENTS) {
+            limit = MAX_RETURNED_EVENTS;
+        }
+        final List<StoredStatusEvent> ret = new LinkedList<>();
+        synchronized (lock) {
+            final List<Record> records = getFailedRecords(query);
+            for (final Record r: records.subList(0, Math.min(limit, records.size()))) {
+                ret.add(r.toStoredStatusEvent());
+            }
+        }
+        return ret;
+    }
+
+    // note returns in order of time stamp, oldest first (e.g FIFO)
+    @Override
+    public List<StoredChildStatusEvent> getFailedChildren(
+            final FailedEventQuery query,
+            int limit) {
+        if (limit < 1 || limit > MAX_RETURNED_EVENTS) {
+            limit = MAX_RETURNED_EVENTS;
+        }
+        synchronized (lock) {
+            final List<StoredChildStatusEvent> ret = getFailedChildRecords(query);
+            return new LinkedList<>(ret.subList(0, Math.min(limit, ret.size())));
+        }
+    }
+
+    @Override
+    public Map<String, Map<StatusEventType, Long>> getFailedCounts(
+            final FailedEventQuery query) {
+        final Map<String, Map<StatusEventType, Long>> ret = new TreeMap<>();
+        synchronized (lock) {
+            for (final Record r: getFailedRecords(query)) {
+                countFailed(ret, r.errorCode, r.event.getEventType());
+            }
+        }
+        ret.replaceAll((code, counts) -> Collections.unmodifiableMap(counts));
+        return Collections.unmodifiableMap(ret);
+    }
+
+    @Override
+    public Map<String, Map<StatusEventType, Long>> getFailedChildCounts(
+            final FailedEventQuery query) {
+        final Map<String, Map<StatusEventType, Long>> ret = new TreeMap<>();
+        synchronized (lock) {
+            for (final StoredChildStatusEvent c: getFailedChildRecords(query)) {
+                countFailed(ret, c.getErrorCode().orNull(),
+                        c.getChildEvent().getEvent().getEventType());
+            }
+        }
+        ret.replaceAll((code, counts) -> Collections.unmodifiableMap(counts));
+        return Collections.unmodifiableMap(ret);
+    }
+
+    private void countFailed(
+            final Map<String, Map<StatusEventType, Long>> counts,
+            final String errorCode,
+            final StatusEventType type) {
+        counts.computeIfAbsent(errorCode == null ? StatusEventStorage.NO_ERROR_CODE : errorCode,
+                k -> new EnumMap<>(StatusEventType.class))
+                .merge(type, 1L, Long::sum);
+    }
+
+    @Override
+    public long resetFailed(
+            final FailedEventQuery query,
+            final StatusEventProcessingState newState,
+            final String updater) {
+        Utils.nonNull(query, "query");
+        Utils.nonNull(newState, "newState");
+        Utils.notNullOrEmpty(updater, "updater cannot be null or whitespace");
+        final Instant now = clock.instant();
+        synchronized (lock) {
+            final List<Record> failed = getFailedRecords(query);
+            for (final Record r: failed) {
+                setState(r, newState);
+                r.updateTime = now;
+                r.updater = updater;
+                r.errorCode = null;
+                r.errorMessage = null;
+                r.errorTrace = null;
+                r.leaseOwner = null;
+                r.leaseExpiry = null;
+            }
+            return failed.size();
+        }
+    }
+
+    @Override
+    public long deleteChildren(final Collection<StatusEventID> ids) {
+        Utils.nonNull(ids, "ids");
+        Utils.noNulls(ids, "null item in ids");
+        long count = 0;
+        synchronized (lock) {
+            for (final StatusEventID id: ids) {
+                if (children.remove(id.getId()) != null) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    private void checkLeaseDuration(final Duration leaseDuration) {
+        Utils.nonNull(leaseDuration, "leaseDuration");
+        if (leaseDuration.isNegative() || leaseDuration.isZero()) {
+            throw new IllegalArgumentException("leaseDuration must be positive");
+        }
+    }
+}
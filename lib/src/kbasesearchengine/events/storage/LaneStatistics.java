@@ -0,0 +1,124 @@
+package kbasesearchengine.events.storage;
+
+import java.time.Duration;
+import java.time.Instant;
+
+import com.google.common.base.Optional;
+
+import kbasesearchengine.events.StatusEventPriority;
+import kbasesearchengine.tools.Utils;
+
+/** Statistics about the events waiting in a {@link StatusEventPriority} lane in a particular
+ * processing state.
+ */
+public class LaneStatistics {
+
+    private final StatusEventPriority priority;
+    private final long count;
+    private final Optional<Instant> oldestEventTime;
+
+    /** Create the statistics.
+     * @param priority the priority lane.
+     * @param count the number of events in the lane.
+     * @param oldestEventTime the timestamp of the oldest event in the lane, or null if the lane
+     * is empty.
+     */
+    public LaneStatistics(
+            final StatusEventPriority priority,
+            final long count,
+            final Instant oldestEventTime) {
+        Utils.nonNull(priority, "priority");
+        if (count < 0) {
+            throw new IllegalArgumentException("count must be at least 0");
+        }
+        this.priority = priority;
+        this.count = count;
+        this.oldestEventTime = Optional.fromNullable(oldestEventTime);
+    }
+
+    /** Get the priority lane.
+     * @return the priority.
+     */
+    public StatusEventPriority getPriority() {
+        return priority;
+    }
+
+    /** Get the number of events in the lane, e.g. the queue depth.
+     * @return the number of events.
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /** Get the timestamp of the oldest event in the lane.
+     * @return the timestamp, or absent if the lane is empty.
+     */
+    public Optional<Instant> getOldestEventTime() {
+        return oldestEventTime;
+    }
+
+    /** Get the age of the oldest event in the lane, e.g. how far behind processing is for the
+     * lane.
+     * @param now the current time.
+     * @return the age of the oldest event, or absent if the lane is empty.
+     */
+    public Optional<Duration> getAge(final Instant now) {
+        Utils.nonNull(now, "now");
+        if (!oldestEventTime.isPresent()) {
+            return Optional.absent();
+        }
+        return Optional.of(Duration.between(oldestEventTime.get(), now));
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("LaneStatistics [priority=");
+        builder.append(priority);
+        builder.append(", count=");
+        builder.append(count);
+        builder.append(", oldestEventTime=");
+        builder.append(oldestEventTime);
+        builder.append("]");
+        return builder.toString();
+    }
+
+    @Override
+    public int hashCode() {
+        final int prime = 31;
+        int result = 1;
+        result = prime * result + (int) (count ^ (count >>> 32));
+        result = prime * result
+                + ((oldestEventTime == null) ? 0 : oldestEventTime.hashCode());
+        result = prime * result + ((priority == null) ? 0 : priority.hashCode());
+        return result;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (obj == null) {
+            return false;
+        }
+        if (getClass() != obj.getClass()) {
+            return false;
+        }
+        LaneStatistics other = (LaneStatistics) obj;
+        if (count != other.count) {
+            return false;
+        }
+        if (oldestEventTime == null) {
+            if (other.oldestEventTime != null) {
+                return false;
+            }
+        } else if (!oldestEventTime.equals(other.oldestEventTime)) {
+            return false;
+        }
+        if (priority != other.priority) {
+            return false;
+        }
+        return true;
+    }
+}
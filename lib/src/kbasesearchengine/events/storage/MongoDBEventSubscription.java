@@ -0,0 +1,144 @@
+package kbasesearchengine.events.storage;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.bson.Document;
+
+import com.mongodb.CursorType;
+import com.mongodb.MongoException;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+
+/** An event subscription that tails a capped MongoDB collection, either a collection of event
+ * notifications or the oplog.
+ *
+ * Mongo change streams are not available in the driver version in use, so the capped collection
+ * is read with a tailable, await data cursor. Each document in the collection that matches a
+ * filter triggers the subscription. If the cursor dies, for example because the collection is
+ * empty or was dropped, the cursor is reopened with an exponential backoff, which degrades to
+ * polling the collection.
+ *
+ * This class is thread safe.
+ */
+class MongoDBEventSubscription implements EventSubscription {
+
+    private static final long MAX_AWAIT_MS = 500;
+    private static final long MAX_BACKOFF_MS = 1000;
+
+    private final MongoCollection<Document> source;
+    private final Document filter;
+    private final String positionField;
+    private final boolean oplog;
+    private final Object lock = new Object();
+    private boolean notified = false;
+    private volatile boolean closed = false;
+    private Object lastSeen;
+
+    /** Create the subscription and start tailing the collection.
+     * @param source the capped collection to tail.
+     * @param filter a filter selecting the documents in the collection that trigger the
+     * subscription.
+     * @param positionField a field that increases with each document inserted into the
+     * collection, used to restart the cursor where it left off.
+     * @param lastSeen the value of the position field in the most recent document at the time
+     * of subscription, or null if the collection is empty. Only documents after this position
+     * trigger the subscription.
+     * @param oplog true if the collection is the oplog, which the server can scan to the
+     * starting position more efficiently than other collections.
+     * @param name a name for the subscription, used to name the tailing thread.
+     */
+    MongoDBEventSubscription(
+            final MongoCollection<Document> source,
+            final Document filter,
+            final String positionField,
+            final Object lastSeen,
+            final boolean oplog,
+            final String name) {
+        this.source = source;
+        this.filter = filter;
+        this.positionField = positionField;
+        this.lastSeen = lastSeen;
+        this.oplog = oplog;
+        final Thread tailer = new Thread(() -> tail(), "EventSubscription-" + name);
+        tailer.setDaemon(true);
+        tailer.start();
+    }
+
+    private void tail() {
+        long backoff = 1;
+        while (!closed) {
+            final Document query;
+            if (lastSeen == null) {
+                query = filter;
+            } else {
+                // match the last seen document as well, since a tailable cursor for a query
+                // with no matches is dead on creation
+                query = new Document(positionField, new Document("$gte", lastSeen))
+                        .append("$or", Arrays.asList(
+                                filter, new Document(positionField, lastSeen)));
+            }
+            try (final MongoCursor<Document> cur = source.find(query)
+                    .cursorType(CursorType.TailableAwait)
+                    .oplogReplay(oplog)
+                    .maxAwaitTime(MAX_AWAIT_MS, TimeUnit.MILLISECONDS)
+                    .iterator()) {
+                while (!closed) {
+                    final Document d = cur.tryNext();
+                    if (d != null) {
+                        backoff = 1;
+                        final Object position = d.get(positionField);
+                        if (!position.equals(lastSeen)) {
+                            lastSeen = position;
+                            signal();
+                        }
+                    } else if (cur.getServerCursor() == null) {
+                        break; // dead cursor, reopen
+                    }
+                }
+            } catch (MongoException e) {
+                // fall through and retry after the backoff
+            }
+            if (!closed) {
+                try {
+                    Thread.sleep(backoff);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                backoff = Math.min(backoff * 2, MAX_BACKOFF_MS);
+            }
+        }
+    }
+
+    private void signal() {
+        synchronized (lock) {
+            notified = true;
+            lock.notifyAll();
+        }
+    }
+
+    @Override
+    public boolean await(final long timeout, final TimeUnit unit) throws InterruptedException {
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        synchronized (lock) {
+            while (!notified && !closed) {
+                final long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return false;
+                }
+                TimeUnit.NANOSECONDS.timedWait(lock, remaining);
+            }
+            final boolean ret = notified;
+            notified = false;
+            return ret && !closed;
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        synchronized (lock) {
+            lock.notifyAll();
+        }
+    }
+}
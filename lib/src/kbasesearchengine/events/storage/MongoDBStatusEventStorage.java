@@ -3,44 +3,78 @@ package kbasesearchengine.events.storage;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.time.Clock;
+import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
+import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.bson.Document;
 import org.bson.types.ObjectId;
 
 import com.google.common.base.Optional;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.MongoCommandException;
 import com.mongodb.MongoException;
+import com.mongodb.bulk.BulkWriteError;
 import com.mongodb.client.FindIterable;
 import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.CreateCollectionOptions;
 import com.mongodb.client.model.FindOneAndUpdateOptions;
 import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.InsertManyOptions;
+import com.mongodb.client.model.ReplaceOneModel;
 import com.mongodb.client.model.ReturnDocument;
+import com.mongodb.client.model.UpdateOptions;
 import com.mongodb.client.result.UpdateResult;
 
 import kbasesearchengine.events.ChildStatusEvent;
+import kbasesearchengine.events.FailedChildStatusEvent;
+import kbasesearchengine.events.ObjectIDRange;
 import kbasesearchengine.events.StatusEvent;
 import kbasesearchengine.events.StatusEventID;
+import kbasesearchengine.events.StatusEventPriority;
 import kbasesearchengine.events.StatusEventProcessingState;
 import kbasesearchengine.events.StatusEventType;
 import kbasesearchengine.events.StoredChildStatusEvent;
 import kbasesearchengine.events.StoredStatusEvent;
 import kbasesearchengine.events.StatusEvent.Builder;
+import kbasesearchengine.events.exceptions.Downstream;
 import kbasesearchengine.events.exceptions.ErrorType;
 import kbasesearchengine.events.exceptions.FatalRetriableIndexingException;
 import kbasesearchengine.system.StorageObjectType;
 import kbasesearchengine.tools.Utils;
 
 /** An implementation of {@link StatusEventStorage} with MongoDB as the backend.
+ * 
+ * Subscriptions (see {@link #subscribe(StatusEventProcessingState)}) are notified in one of two
+ * ways:
+ * <ul>
+ * <li>If the storage system is created with the oplog database, subscriptions tail the MongoDB
+ * oplog for inserts into the searchEvents collection, and so are notified of events inserted by
+ * any process. This requires MongoDB to run as a replica set.</li>
+ * <li>Otherwise subscriptions tail the capped searchEventsNotify collection, to which this class
+ * writes a notification document whenever events are stored. Other processes that insert
+ * events directly into the searchEvents collection, such as the workspace search listener, must
+ * also insert a notification document into searchEventsNotify after inserting events, or
+ * subscribers will not see the events until their next poll. The notification document has the
+ * fields <code>status</code>, the processing state of the events as a string,
+ * <code>count</code>, the number of events inserted, and <code>sttime</code>, the date the
+ * events were stored.</li>
+ * </ul>
  * @author gaprice@lbl.gov
  *
  */
@@ -62,6 +96,12 @@ public class MongoDBStatusEventStorage implements StatusEventStorage {
             new HashSet<>(DEFAULT_WORKER_CODES_LIST));
     
     private static final int MAX_RETURNED_EVENTS = 10000;
+    private static final int ERR_NAMESPACE_EXISTS = 48;
+    private static final int DUPLICATE_KEY_CODE = 11000;
+    /** The default maximum number of events written to the database in one request when
+     * storing events in bulk.
+     */
+    public static final int DEFAULT_INSERT_BATCH_SIZE = 1000;
     private static final int MAX_ERR_CODE_LEN = 20;
     private static final int TRUNC_ERR_MSG_LEN = 1000;
     private static final int TRUNC_ERR_TRACE_LEN = 100_000;
@@ -77,6 +117,9 @@ public class MongoDBStatusEventStorage implements StatusEventStorage {
     private static final String FLD_OBJECT_TYPE_VER = "objtypever";
     private static final String FLD_PUBLIC = "public";
     private static final String FLD_NEW_NAME = "newname";
+    // the first and last object IDs for events that apply to a range of objects
+    private static final String FLD_OBJECT_ID_FIRST = "objidfirst";
+    private static final String FLD_OBJECT_ID_LAST = "objidlast";
     private static final String FLD_WORKER_CODES = "wrkcde";
     private static final String FLD_UPDATE_TIME = "updte";
     // the ID, if any, of the operator that last changed the event status. Arbitrary string.
@@ -84,15 +127,43 @@ public class MongoDBStatusEventStorage implements StatusEventStorage {
     // the ID, if any, of the entity that stored the event. Arbitrary string.
     private static final String FLD_STORED_BY = "stby";
     private static final String FLD_STORED_TIME = "sttime";
+    // the owner and expiration time of the lease taken when the event was last claimed
+    private static final String FLD_LEASE_OWNER = "lsown";
+    private static final String FLD_LEASE_EXPIRY = "lsexp";
+    // a unique ID for the batch claim that last claimed the event
+    private static final String FLD_CLAIM_ID = "clmid";
+    /* the priority lane of the event. Events stored by other systems, like the workspace
+     * listener, don't have the field and are in the interactive lane.
+     */
+    private static final String FLD_PRIORITY = "prio";
+    private static final Document UNSET_LEASE = new Document(FLD_LEASE_OWNER, "")
+            .append(FLD_LEASE_EXPIRY, "").append(FLD_CLAIM_ID, "");
     
     private static final String FLD_PARENT_ID = "parid";
     
     private static final String FLD_ERR_CODE = "errcde";
     private static final String FLD_ERR_MSG = "errmsg";
     private static final String FLD_ERR_TRACE = "errtrce";
+    // an optional unique key for the event, see storeAllUnique()
+    private static final String FLD_EVENT_KEY = "evkey";
     
     private static final String COL_EVENT = "searchEvents";
     private static final String COL_CHILD = "childEvents";
+    // events that have finished processing, see archiveEvents()
+    private static final String COL_ARCHIVE = "searchEventsArchive";
+    // a capped collection of notifications that events were stored, see subscribe()
+    private static final String COL_NOTIFY = "searchEventsNotify";
+    // the MongoDB replica set oplog collection and fields, see subscribe()
+    private static final String COL_OPLOG = "oplog.rs";
+    private static final String FLD_OPLOG_TIMESTAMP = "ts";
+    private static final String FLD_OPLOG_NAMESPACE = "ns";
+    private static final String FLD_OPLOG_OPERATION = "op";
+    private static final String FLD_OPLOG_OBJECT = "o";
+    private static final String OPLOG_INSERT = "i";
+    private static final long NOTIFY_COL_SIZE_BYTES = 1024 * 1024;
+    private static final String FLD_NOTIFY_COUNT = "count";
+    // the count field in aggregation results
+    private static final String FLD_COUNT = "count";
     
     private Map<String, List<IndexSpecification>> getIndexSpecs() {
         // should probably rework this and the index spec class
@@ -105,8 +176,22 @@ public class MongoDBStatusEventStorage implements StatusEventStorage {
         event.add(idxSpec(FLD_STATUS, 1, FLD_TIMESTAMP, 1, null));
         // find events by status and store time
         event.add(idxSpec(FLD_STORED_TIME, 1, FLD_STATUS, 1, null));
+        // find events with expired leases
+        event.add(idxSpec(FLD_STATUS, 1, FLD_LEASE_EXPIRY, 1, null));
+        // find events by status and time stamp in a priority lane
+        event.add(idxSpec(FLD_STATUS, 1, FLD_PRIORITY, 1, FLD_TIMESTAMP, 1, null));
+        // find events to archive
+        event.add(idxSpec(FLD_STATUS, 1, FLD_UPDATE_TIME, 1, null));
+        // ensure event keys are unique. Most events have no key
+        event.add(idxSpec(FLD_EVENT_KEY, 1, new IndexOptions().unique(true).sparse(true)));
         indexes.put(COL_EVENT, event);
         
+        // archive indexes
+        final LinkedList<IndexSpecification> archive = new LinkedList<>();
+        // find archived events by key
+        archive.add(idxSpec(FLD_EVENT_KEY, 1, new IndexOptions().sparse(true)));
+        indexes.put(COL_ARCHIVE, archive);
+        
         // child event indexes
         final LinkedList<IndexSpecification> child = new LinkedList<>();
         // find events by status and store time
@@ -127,7 +212,6 @@ public class MongoDBStatusEventStorage implements StatusEventStorage {
     }
     
     // 1 for ascending sort, -1 for descending
-    @SuppressWarnings("unused")
     private static IndexSpecification idxSpec(
             final String field, final int ascendingSort,
             final IndexOptions options) {
@@ -143,7 +227,6 @@ public class MongoDBStatusEventStorage implements StatusEventStorage {
                 new Document(field1, ascendingSort1).append(field2, ascendingSort2), options);
     }
 
-    @SuppressWarnings("unused")
     private static IndexSpecification idxSpec(
             final String field1, final int ascendingSort1,
             final String field2, final int ascendingSort2,
@@ -178,14 +261,53 @@ public class MongoDBStatusEventStorage implements StatusEventStorage {
     }
 
     private final MongoDatabase db;
+    // the database containing the oplog, or null to use the notification collection
+    private final MongoDatabase oplogDB;
     private final Clock clock;
+    private final int insertBatchSize;
+    // rotates the priority lane shares between claims, see claimEvents()
+    private final AtomicLong claimCursor = new AtomicLong();
+    // rotates the priority lane shares between gets, see getByPriority()
+    private final AtomicLong getCursor = new AtomicLong();
     
     /** Create the storage system.
      * @param db the mongo database in which to store events.
      * @throws StorageInitException if the storage system could not be initialized.
      */
     public MongoDBStatusEventStorage(final MongoDatabase db) throws StorageInitException {
-        this(db, Clock.systemDefaultZone());
+        this(db, DEFAULT_INSERT_BATCH_SIZE);
+    }
+    
+    /** Create the storage system with subscriptions that watch the MongoDB oplog, and so are
+     * notified of events inserted into the database by any process. MongoDB must be running as
+     * a replica set.
+     * @param db the mongo database in which to store events.
+     * @param oplogDB the mongo database containing the oplog, normally the <code>local</code>
+     * database.
+     * @throws StorageInitException if the storage system could not be initialized or the
+     * oplog database does not contain the oplog.
+     */
+    public MongoDBStatusEventStorage(final MongoDatabase db, final MongoDatabase oplogDB)
+            throws StorageInitException {
+        this(db, requireOplogDB(oplogDB), DEFAULT_INSERT_BATCH_SIZE, Clock.systemDefaultZone(),
+                true);
+    }
+    
+    // a null oplog database means no oplog, so check before initializing the storage system
+    private static MongoDatabase requireOplogDB(final MongoDatabase oplogDB) {
+        Utils.nonNull(oplogDB, "oplogDB");
+        return oplogDB;
+    }
+    
+    /** Create the storage system.
+     * @param db the mongo database in which to store events.
+     * @param insertBatchSize the maximum number of events written to the database in one
+     * request when storing events in bulk.
+     * @throws StorageInitException if the storage system could not be initialized.
+     */
+    public MongoDBStatusEventStorage(final MongoDatabase db, final int insertBatchSize)
+            throws StorageInitException {
+        this(db, insertBatchSize, Clock.systemDefaultZone());
     }
     
     /** A test constructor that allows setting the storage clock. Do not use this constructor for
@@ -197,44 +319,265 @@ public class MongoDBStatusEventStorage implements StatusEventStorage {
      */
     public MongoDBStatusEventStorage(final MongoDatabase db, final Clock clock)
             throws StorageInitException {
+        this(db, DEFAULT_INSERT_BATCH_SIZE, clock);
+    }
+    
+    /** A test constructor that allows setting the storage clock. Do not use this constructor for
+     * anything except tests.
+     * @param db the mongo database in which to store events.
+     * @param insertBatchSize the maximum number of events written to the database in one
+     * request when storing events in bulk.
+     * @param clock a clock to use for generating timestamps when updating event states.
+     * Usually a mock.
+     * @throws StorageInitException if the storage system could not be initialized.
+     */
+    public MongoDBStatusEventStorage(
+            final MongoDatabase db,
+            final int insertBatchSize,
+            final Clock clock)
+            throws StorageInitException {
+        this(db, null, insertBatchSize, clock, true);
+    }
+    
+    private MongoDBStatusEventStorage(
+            final MongoDatabase db,
+            final MongoDatabase oplogDB,
+            final int insertBatchSize,
+            final Clock clock,
+            final boolean initialize)
+            throws StorageInitException {
         Utils.nonNull(db, "db");
+        if (insertBatchSize < 1) {
+            throw new IllegalArgumentException("insertBatchSize must be at least 1");
+        }
         this.db = db;
-        ensureIndexes();
+        this.oplogDB = oplogDB;
+        this.insertBatchSize = insertBatchSize;
+        if (initialize) {
+            ensureIndexes();
+            ensureNotificationCollection();
+            if (oplogDB != null) {
+                checkOplog();
+            }
+        }
         this.clock = clock;
     }
     
+    /** Get read only statistics about the events in a database. Unlike the storage system
+     * constructors, no indexes or collections are created, so this is suitable for processes
+     * that only report on events stored by other processes.
+     * @param db the mongo database containing the events.
+     * @return the statistics.
+     */
+    public static StatusEventStatistics getStatistics(final MongoDatabase db) {
+        final MongoDBStatusEventStorage storage;
+        try {
+            storage = new MongoDBStatusEventStorage(
+                    db, null, DEFAULT_INSERT_BATCH_SIZE, Clock.systemDefaultZone(), false);
+        } catch (StorageInitException e) {
+            throw new RuntimeException("this should never happen", e);
+        }
+        // don't expose the storage methods that modify the database
+        return new StatusEventStatistics() {
+            
+            @Override
+            public Map<StatusEventPriority, LaneStatistics> getLaneStatistics(
+                    final StatusEventProcessingState state)
+                    throws FatalRetriableIndexingException {
+                return storage.getLaneStatistics(state);
+            }
+            
+            @Override
+            public Map<String, Long> getWorkerCodeCounts(final StatusEventProcessingState state)
+                    throws FatalRetriableIndexingException {
+                return storage.getWorkerCodeCounts(state);
+            }
+            
+            @Override
+            public Map<StatusEventType, Long> getEventTypeCounts(
+                    final Set<StatusEventProcessingState> states,
+                    final Instant updatedSince)
+                    throws FatalRetriableIndexingException {
+                return storage.getEventTypeCounts(states, updatedSince);
+            }
+        };
+    }
+    
     @Override
     public StoredStatusEvent store(
             final StatusEvent newEvent,
             final StatusEventProcessingState state,
-            Set<String> workerCodes,
+            final Set<String> workerCodes,
             final String storedBy)
             throws FatalRetriableIndexingException {
+        return store(newEvent, state, workerCodes, storedBy, StatusEventPriority.INTERACTIVE);
+    }
+    
+    @Override
+    public StoredStatusEvent store(
+            final StatusEvent newEvent,
+            final StatusEventProcessingState state,
+            Set<String> workerCodes,
+            final String storedBy,
+            final StatusEventPriority priority)
+            throws FatalRetriableIndexingException {
         Utils.nonNull(newEvent, "newEvent");
         Utils.nonNull(state, "state");
         Utils.notNullOrEmpty(storedBy, "storedBy cannot be null or whitespace only");
+        Utils.nonNull(priority, "priority");
+        workerCodes = checkWorkerCodes(workerCodes);
+        final Instant now = clock.instant();
+        final Document doc = toStorageDocument(newEvent, state, now)
+                .append(FLD_WORKER_CODES, workerCodes)
+                .append(FLD_STORED_BY, storedBy)
+                .append(FLD_PRIORITY, priority.toString());
+        final StatusEventID newID = insertOne(COL_EVENT, doc);
+        notifyStored(state, 1, now);
+        return toNewStoredStatusEvent(
+                newEvent, newID, state, workerCodes, storedBy, priority, now);
+    }
+    
+    private Set<String> checkWorkerCodes(final Set<String> workerCodes) {
         if (workerCodes == null || workerCodes.isEmpty()) {
-            workerCodes = DEFAULT_WORKER_CODES_SET;
+            return DEFAULT_WORKER_CODES_SET;
         }
         for (final String code: workerCodes) {
             if (Utils.isNullOrEmpty(code)) {
                 throw new IllegalArgumentException("null or whitespace only item in workerCodes");
             }
         }
-        final Instant now = clock.instant();
-        final Document doc = toStorageDocument(newEvent, state, now)
-                .append(FLD_WORKER_CODES, workerCodes)
-                .append(FLD_STORED_BY, storedBy);
-        final StatusEventID newID = insertOne(COL_EVENT, doc);
+        return workerCodes;
+    }
+    
+    private StoredStatusEvent toNewStoredStatusEvent(
+            final StatusEvent newEvent,
+            final StatusEventID newID,
+            final StatusEventProcessingState state,
+            final Set<String> workerCodes,
+            final String storedBy,
+            final StatusEventPriority priority,
+            final Instant now) {
         final StoredStatusEvent.Builder b = StoredStatusEvent.getBuilder(newEvent, newID, state)
                 .withNullableStoredBy(storedBy)
-                .withNullableStoreTime(now);
+                .withNullableStoreTime(now)
+                .withPriority(priority);
         for (final String code: workerCodes) {
             b.withWorkerCode(code);
         }
         return b.build();
     }
     
+    @Override
+    public List<StoredStatusEvent> storeAll(
+            final List<StatusEvent> newEvents,
+            final StatusEventProcessingState state,
+            final Set<String> workerCodes,
+            final String storedBy)
+            throws FatalRetriableIndexingException {
+        return storeAll(newEvents, state, workerCodes, storedBy,
+                StatusEventPriority.INTERACTIVE);
+    }
+    
+    @Override
+    public List<StoredStatusEvent> storeAll(
+            final List<StatusEvent> newEvents,
+            final StatusEventProcessingState state,
+            Set<String> workerCodes,
+            final String storedBy,
+            final StatusEventPriority priority)
+            throws FatalRetriableIndexingException {
+        Utils.nonNull(newEvents, "newEvents");
+        Utils.noNulls(newEvents, "null item in newEvents");
+        Utils.nonNull(state, "state");
+        Utils.notNullOrEmpty(storedBy, "storedBy cannot be null or whitespace only");
+        Utils.nonNull(priority, "priority");
+        workerCodes = checkWorkerCodes(workerCodes);
+        final Instant now = clock.instant();
+        final List<Document> docs = new ArrayList<>(newEvents.size());
+        for (final StatusEvent newEvent: newEvents) {
+            docs.add(toStorageDocument(newEvent, state, now)
+                    .append(FLD_WORKER_CODES, workerCodes)
+                    .append(FLD_STORED_BY, storedBy)
+                    .append(FLD_PRIORITY, priority.toString()));
+        }
+        final List<StatusEventID> newIDs = insertMany(COL_EVENT, docs);
+        if (!newIDs.isEmpty()) {
+            notifyStored(state, newIDs.size(), now);
+        }
+        final List<StoredStatusEvent> ret = new ArrayList<>(newEvents.size());
+        for (int i = 0; i < newEvents.size(); i++) {
+            ret.add(toNewStoredStatusEvent(newEvents.get(i), newIDs.get(i), state, workerCodes,
+                    storedBy, priority, now));
+        }
+        return ret;
+    }
+    
+    @Override
+    public List<StoredStatusEvent> storeAllUnique(
+            final Map<String, StatusEvent> newEvents,
+            final StatusEventProcessingState state,
+            Set<String> workerCodes,
+            final String storedBy,
+            final StatusEventPriority priority)
+            throws FatalRetriableIndexingException {
+        StatusEventStorageUtils.checkKeys(newEvents);
+        Utils.nonNull(state, "state");
+        Utils.notNullOrEmpty(storedBy, "storedBy cannot be null or whitespace only");
+        Utils.nonNull(priority, "priority");
+        workerCodes = checkWorkerCodes(workerCodes);
+        final Set<String> existing = getExistingKeys(newEvents.keySet());
+        final Instant now = clock.instant();
+        final List<StatusEvent> toStore = new ArrayList<>(newEvents.size());
+        final List<Document> docs = new ArrayList<>(newEvents.size());
+        for (final String key: newEvents.keySet()) {
+            if (!existing.contains(key)) {
+                final StatusEvent newEvent = newEvents.get(key);
+                toStore.add(newEvent);
+                docs.add(toStorageDocument(newEvent, state, now)
+                        .append(FLD_WORKER_CODES, workerCodes)
+                        .append(FLD_STORED_BY, storedBy)
+                        .append(FLD_PRIORITY, priority.toString())
+                        .append(FLD_EVENT_KEY, key));
+            }
+        }
+        // the unique index catches events stored by another process since the check above
+        final List<StatusEventID> newIDs = insertManySkipDuplicates(COL_EVENT, docs);
+        final int stored = (int) newIDs.stream().filter(id -> id != null).count();
+        if (stored > 0) {
+            notifyStored(state, stored, now);
+        }
+        final List<StoredStatusEvent> ret = new ArrayList<>(toStore.size());
+        for (int i = 0; i < toStore.size(); i++) {
+            if (newIDs.get(i) != null) {
+                ret.add(toNewStoredStatusEvent(toStore.get(i), newIDs.get(i), state,
+                        workerCodes, storedBy, priority, now));
+            }
+        }
+        return ret;
+    }
+    
+    private Set<String> getExistingKeys(final Set<String> keys)
+            throws FatalRetriableIndexingException {
+        final Set<String> ret = new HashSet<>();
+        if (keys.isEmpty()) {
+            return ret;
+        }
+        final Document query = new Document(FLD_EVENT_KEY, new Document("$in", keys));
+        try {
+            for (final String col: Arrays.asList(COL_EVENT, COL_ARCHIVE)) {
+                for (final Document d: db.getCollection(col).find(query)
+                        .projection(new Document(FLD_EVENT_KEY, 1))) {
+                    ret.add(d.getString(FLD_EVENT_KEY));
+                }
+            }
+        } catch (MongoException e) {
+            throw new FatalRetriableIndexingException(
+                    ErrorType.OTHER, Downstream.MONGO,
+                    "Failed event storage: " + e.getMessage(), e);
+        }
+        return ret;
+    }
+    
     @Override
     public StoredChildStatusEvent store(
             final ChildStatusEvent newEvent,
@@ -243,12 +586,52 @@ public class MongoDBStatusEventStorage implements StatusEventStorage {
             throws FatalRetriableIndexingException {
         Utils.nonNull(newEvent, "newEvent");
         final Instant now = clock.instant();
+        final Document doc = toChildStorageDocument(newEvent, errorCode, error, now);
+        final StatusEventID newID = insertOne(COL_CHILD, doc);
+        return toNewStoredChildStatusEvent(newEvent, newID, errorCode, doc, now);
+    }
+    
+    @Override
+    public List<StoredChildStatusEvent> storeAllChildren(
+            final List<FailedChildStatusEvent> newEvents)
+            throws FatalRetriableIndexingException {
+        Utils.nonNull(newEvents, "newEvents");
+        Utils.noNulls(newEvents, "null item in newEvents");
+        final Instant now = clock.instant();
+        final List<Document> docs = new ArrayList<>(newEvents.size());
+        for (final FailedChildStatusEvent newEvent: newEvents) {
+            docs.add(toChildStorageDocument(newEvent.getEvent(), newEvent.getErrorCode(),
+                    newEvent.getError(), now));
+        }
+        final List<StatusEventID> newIDs = insertMany(COL_CHILD, docs);
+        final List<StoredChildStatusEvent> ret = new ArrayList<>(newEvents.size());
+        for (int i = 0; i < newEvents.size(); i++) {
+            final FailedChildStatusEvent e = newEvents.get(i);
+            ret.add(toNewStoredChildStatusEvent(
+                    e.getEvent(), newIDs.get(i), e.getErrorCode(), docs.get(i), now));
+        }
+        return ret;
+    }
+    
+    private Document toChildStorageDocument(
+            final ChildStatusEvent newEvent,
+            final String errorCode,
+            final Throwable error,
+            final Instant now) {
         final Document doc = toStorageDocument(
                 // TODO NNOW store exception
                 newEvent.getEvent(), StatusEventProcessingState.FAIL, now)
                 .append(FLD_PARENT_ID, newEvent.getID().getId());
         addError(doc, errorCode, error);
-        final StatusEventID newID = insertOne(COL_CHILD, doc);
+        return doc;
+    }
+    
+    private StoredChildStatusEvent toNewStoredChildStatusEvent(
+            final ChildStatusEvent newEvent,
+            final StatusEventID newID,
+            final String errorCode,
+            final Document doc,
+            final Instant now) {
         return StoredChildStatusEvent.getBuilder(newEvent, newID, now)
                 .withNullableError(errorCode, doc.getString(FLD_ERR_MSG),
                         doc.getString(FLD_ERR_TRACE))
@@ -282,22 +665,166 @@ public class MongoDBStatusEventStorage implements StatusEventStorage {
         }
     }
 
+    private void ensureNotificationCollection() throws StorageInitException {
+        try {
+            for (final String name: db.listCollectionNames()) {
+                if (name.equals(COL_NOTIFY)) {
+                    return;
+                }
+            }
+            db.createCollection(COL_NOTIFY, new CreateCollectionOptions()
+                    .capped(true).sizeInBytes(NOTIFY_COL_SIZE_BYTES));
+        } catch (MongoCommandException e) {
+            // another storage instance created the collection concurrently
+            if (e.getErrorCode() != ERR_NAMESPACE_EXISTS) {
+                throw new StorageInitException(
+                        "Failed to create notification collection: " + e.getMessage(), e);
+            }
+        } catch (MongoException e) {
+            throw new StorageInitException(
+                    "Failed to create notification collection: " + e.getMessage(), e);
+        }
+    }
+    
+    private void checkOplog() throws StorageInitException {
+        try {
+            for (final String name: oplogDB.listCollectionNames()) {
+                if (name.equals(COL_OPLOG)) {
+                    return;
+                }
+            }
+        } catch (MongoException e) {
+            throw new StorageInitException("Failed to read oplog: " + e.getMessage(), e);
+        }
+        throw new StorageInitException(String.format(
+                "No oplog found in database %s. MongoDB must run as a replica set for " +
+                "subscriptions to watch the oplog", oplogDB.getName()));
+    }
+    
+    private void notifyStored(
+            final StatusEventProcessingState state,
+            final int count,
+            final Instant now) {
+        try {
+            db.getCollection(COL_NOTIFY).insertOne(new Document(FLD_STATUS, state.toString())
+                    .append(FLD_NOTIFY_COUNT, count)
+                    .append(FLD_STORED_TIME, Date.from(now)));
+        } catch (MongoException e) {
+            // notifications are only hints and the events are already stored, so don't throw.
+            // Subscribers fall back to polling.
+        }
+    }
+    
+    @Override
+    public EventSubscription subscribe(final StatusEventProcessingState state)
+            throws FatalRetriableIndexingException {
+        Utils.nonNull(state, "state");
+        final MongoCollection<Document> col;
+        final Document filter;
+        final String positionField;
+        if (oplogDB == null) {
+            col = db.getCollection(COL_NOTIFY);
+            filter = new Document(FLD_STATUS, state.toString());
+            positionField = "_id";
+        } else {
+            // sees events inserted by any process, not just this class
+            col = oplogDB.getCollection(COL_OPLOG);
+            filter = new Document(FLD_OPLOG_NAMESPACE, db.getName() + "." + COL_EVENT)
+                    .append(FLD_OPLOG_OPERATION, OPLOG_INSERT)
+                    .append(FLD_OPLOG_OBJECT + "." + FLD_STATUS, state.toString());
+            positionField = FLD_OPLOG_TIMESTAMP;
+        }
+        final Document last;
+        try {
+            last = col.find().sort(new Document("$natural", -1))
+                    .projection(new Document(positionField, 1)).first();
+        } catch (MongoException e) {
+            throw new FatalRetriableIndexingException(
+                    ErrorType.OTHER, Downstream.MONGO,
+                    "Failed subscribing to events: " + e.getMessage(), e);
+        }
+        return new MongoDBEventSubscription(col, filter, positionField,
+                last == null ? null : last.get(positionField), oplogDB != null,
+                state.toString());
+    }
+
     private StatusEventID insertOne(final String colEvent, final Document doc)
             throws FatalRetriableIndexingException {
         try {
             db.getCollection(colEvent).insertOne(doc);
         } catch (MongoException e) {
             throw new FatalRetriableIndexingException(
-                    ErrorType.OTHER, "Failed event storage: " + e.getMessage(), e);
+                    ErrorType.OTHER, Downstream.MONGO,
+                    "Failed event storage: " + e.getMessage(), e);
         }
         return new StatusEventID(doc.getObjectId("_id").toString());
     }
     
+    private List<StatusEventID> insertMany(final String colEvent, final List<Document> docs)
+            throws FatalRetriableIndexingException {
+        final MongoCollection<Document> col = db.getCollection(colEvent);
+        // unordered inserts let the server continue past a failed document, which is faster
+        final InsertManyOptions opts = new InsertManyOptions().ordered(false);
+        try {
+            for (int i = 0; i < docs.size(); i += insertBatchSize) {
+                col.insertMany(docs.subList(i, Math.min(i + insertBatchSize, docs.size())), opts);
+            }
+        } catch (MongoException e) {
+            throw new FatalRetriableIndexingException(
+                    ErrorType.OTHER, Downstream.MONGO,
+                    "Failed event storage: " + e.getMessage(), e);
+        }
+        final List<StatusEventID> ret = new ArrayList<>(docs.size());
+        for (final Document doc: docs) {
+            // the driver adds the ID to the document
+            ret.add(new StatusEventID(doc.getObjectId("_id").toString()));
+        }
+        return ret;
+    }
+    
+    /* Returns null in place of the ID of any document that was not stored because it duplicates
+     * a unique key.
+     */
+    private List<StatusEventID> insertManySkipDuplicates(
+            final String colEvent,
+            final List<Document> docs)
+            throws FatalRetriableIndexingException {
+        final MongoCollection<Document> col = db.getCollection(colEvent);
+        final InsertManyOptions opts = new InsertManyOptions().ordered(false);
+        final Set<Integer> duplicates = new HashSet<>();
+        try {
+            for (int i = 0; i < docs.size(); i += insertBatchSize) {
+                try {
+                    col.insertMany(docs.subList(i, Math.min(i + insertBatchSize, docs.size())),
+                            opts);
+                } catch (MongoBulkWriteException e) {
+                    for (final BulkWriteError err: e.getWriteErrors()) {
+                        if (err.getCode() != DUPLICATE_KEY_CODE) {
+                            throw e;
+                        }
+                        duplicates.add(i + err.getIndex());
+                    }
+                }
+            }
+        } catch (MongoException e) {
+            throw new FatalRetriableIndexingException(
+                    ErrorType.OTHER, Downstream.MONGO,
+                    "Failed event storage: " + e.getMessage(), e);
+        }
+        final List<StatusEventID> ret = new ArrayList<>(docs.size());
+        for (int i = 0; i < docs.size(); i++) {
+            ret.add(duplicates.contains(i) ? null :
+                    new StatusEventID(docs.get(i).getObjectId("_id").toString()));
+        }
+        return ret;
+    }
+    
     private Document toStorageDocument(
             final StatusEvent newEvent,
             final StatusEventProcessingState state,
             final Instant now) {
         final Optional<StorageObjectType> sot = newEvent.getStorageObjectType();
+        final Optional<ObjectIDRange> range = newEvent.getObjectIDRange();
         return new Document()
                 .append(FLD_ACCESS_GROUP_ID, newEvent.getAccessGroupId().orNull())
                 .append(FLD_OBJECT_ID, newEvent.getAccessGroupObjectId().orNull())
@@ -310,6 +837,8 @@ public class MongoDBStatusEventStorage implements StatusEventStorage {
                 .append(FLD_EVENT_TYPE, newEvent.getEventType().toString())
                 .append(FLD_NEW_NAME, newEvent.getNewName().orNull())
                 .append(FLD_PUBLIC, newEvent.isPublic().orNull())
+                .append(FLD_OBJECT_ID_FIRST, range.isPresent() ? range.get().getFirst() : null)
+                .append(FLD_OBJECT_ID_LAST, range.isPresent() ? range.get().getLast() : null)
                 .append(FLD_TIMESTAMP, Date.from(newEvent.getTimestamp()))
                 .append(FLD_STATUS, state.toString())
                 .append(FLD_STORED_TIME, Date.from(now));
@@ -318,7 +847,10 @@ public class MongoDBStatusEventStorage implements StatusEventStorage {
     @Override
     public Optional<StoredStatusEvent> get(final StatusEventID id)
             throws FatalRetriableIndexingException {
-        final Document event = getEventDoc(id, COL_EVENT);
+        Document event = getEventDoc(id, COL_EVENT);
+        if (event == null) {
+            event = getEventDoc(id, COL_ARCHIVE);
+        }
         if (event == null) {
             return Optional.absent();
         }
@@ -332,7 +864,11 @@ public class MongoDBStatusEventStorage implements StatusEventStorage {
         if (event == null) {
             return Optional.absent();
         }
-        return Optional.of(StoredChildStatusEvent.getBuilder(
+        return Optional.of(toStoredChildStatusEvent(event));
+    }
+
+    private StoredChildStatusEvent toStoredChildStatusEvent(final Document event) {
+        return StoredChildStatusEvent.getBuilder(
                 new ChildStatusEvent(
                         toStatusEvent(event),
                         new StatusEventID(event.getString(FLD_PARENT_ID))),
@@ -343,7 +879,7 @@ public class MongoDBStatusEventStorage implements StatusEventStorage {
                         event.getString(FLD_ERR_CODE),
                         event.getString(FLD_ERR_MSG),
                         event.getString(FLD_ERR_TRACE))
-                .build());
+                .build();
     }
 
     private Document getEventDoc(final StatusEventID id, final String colEvent)
@@ -354,7 +890,8 @@ public class MongoDBStatusEventStorage implements StatusEventStorage {
                     new Document("_id", new ObjectId(id.getId()))).first();
         } catch (MongoException e) {
             throw new FatalRetriableIndexingException(
-                    ErrorType.OTHER, "Failed getting event: " + e.getMessage(), e);
+                    ErrorType.OTHER, Downstream.MONGO,
+                    "Failed getting event: " + e.getMessage(), e);
         }
     }
 
@@ -378,6 +915,14 @@ public class MongoDBStatusEventStorage implements StatusEventStorage {
                         event.getString(FLD_ERR_CODE),
                         event.getString(FLD_ERR_MSG),
                         event.getString(FLD_ERR_TRACE));
+        final Date leaseExpiry = event.getDate(FLD_LEASE_EXPIRY);
+        if (leaseExpiry != null) {
+            b2.withNullableLease(event.getString(FLD_LEASE_OWNER), leaseExpiry.toInstant());
+        }
+        final String priority = event.getString(FLD_PRIORITY);
+        if (priority != null) {
+            b2.withPriority(StatusEventPriority.valueOf(priority));
+        }
         for (final String code: workerCodes) {
             b2.withWorkerCode(code);
         }
@@ -398,12 +943,16 @@ public class MongoDBStatusEventStorage implements StatusEventStorage {
         } else {
             b = StatusEvent.getBuilder(sot, time, eventType);
         }
+        final Long first = event.getLong(FLD_OBJECT_ID_FIRST);
+        final ObjectIDRange range = first == null ? null :
+            new ObjectIDRange(first, event.getLong(FLD_OBJECT_ID_LAST));
         return b
                 .withNullableAccessGroupID(event.getInteger(FLD_ACCESS_GROUP_ID))
                 .withNullableObjectID(event.getString(FLD_OBJECT_ID))
                 .withNullableVersion(event.getInteger(FLD_VERSION))
                 .withNullableNewName(event.getString(FLD_NEW_NAME))
                 .withNullableisPublic(event.getBoolean(FLD_PUBLIC))
+                .withNullableObjectIDRange(range)
                 .build();
     }
     
@@ -427,11 +976,138 @@ public class MongoDBStatusEventStorage implements StatusEventStorage {
             }
         } catch (MongoException e) {
             throw new FatalRetriableIndexingException(
-                    ErrorType.OTHER, "Failed getting events: " + e.getMessage(), e);
+                    ErrorType.OTHER, Downstream.MONGO,
+                    "Failed getting events: " + e.getMessage(), e);
         }
         return ret;
     }
     
+    @Override
+    public List<StoredStatusEvent> getByPriority(
+            final StatusEventProcessingState state,
+            int limit)
+            throws FatalRetriableIndexingException {
+        Utils.nonNull(state, "state");
+        if (limit < 1 || limit > MAX_RETURNED_EVENTS) {
+            limit = MAX_RETURNED_EVENTS;
+        }
+        final List<StoredStatusEvent> ret = new ArrayList<>();
+        try {
+            for (final Document event: findByLane(db.getCollection(COL_EVENT),
+                    new Document(FLD_STATUS, state.toString()), null,
+                    getCursor.getAndAdd(limit), limit)) {
+                ret.add(toStoredStatusEvent(event));
+            }
+        } catch (MongoException e) {
+            throw new FatalRetriableIndexingException(
+                    ErrorType.OTHER, Downstream.MONGO,
+                    "Failed getting events: " + e.getMessage(), e);
+        }
+        // sort in memory rather than in mongo, the lanes are queried separately
+        ret.sort((e1, e2) -> e1.getEvent().getTimestamp().compareTo(
+                e2.getEvent().getTimestamp()));
+        return ret;
+    }
+    
+    // the query condition for the priority field for events in a priority lane
+    private Object getPriorityCondition(final StatusEventPriority priority) {
+        if (priority.equals(StatusEventPriority.INTERACTIVE)) {
+            // null matches missing & null fields
+            return new Document("$in", Arrays.asList(null, priority.toString()));
+        }
+        return priority.toString();
+    }
+    
+    @Override
+    public Map<StatusEventPriority, LaneStatistics> getLaneStatistics(
+            final StatusEventProcessingState state)
+            throws FatalRetriableIndexingException {
+        Utils.nonNull(state, "state");
+        final Map<StatusEventPriority, LaneStatistics> ret =
+                new EnumMap<>(StatusEventPriority.class);
+        try {
+            final MongoCollection<Document> col = db.getCollection(COL_EVENT);
+            for (final StatusEventPriority priority: StatusEventPriority.values()) {
+                final Document query = new Document(FLD_STATUS, state.toString())
+                        .append(FLD_PRIORITY, getPriorityCondition(priority));
+                // both queries are covered by the status / priority / timestamp index
+                final Document oldest = col.find(query)
+                        .projection(new Document(FLD_TIMESTAMP, 1))
+                        .sort(new Document(FLD_TIMESTAMP, 1))
+                        .first();
+                final long count = oldest == null ? 0 : col.count(query);
+                ret.put(priority, new LaneStatistics(priority, count,
+                        oldest == null ? null : oldest.getDate(FLD_TIMESTAMP).toInstant()));
+            }
+        } catch (MongoException e) {
+            throw new FatalRetriableIndexingException(
+                    ErrorType.OTHER, Downstream.MONGO,
+                    "Failed getting lane statistics: " + e.getMessage(), e);
+        }
+        return Collections.unmodifiableMap(ret);
+    }
+
+    @Override
+    public Map<String, Long> getWorkerCodeCounts(final StatusEventProcessingState state)
+            throws FatalRetriableIndexingException {
+        Utils.nonNull(state, "state");
+        final Map<String, Long> ret = new HashMap<>();
+        try {
+            for (final Document d: db.getCollection(COL_EVENT).aggregate(Arrays.asList(
+                    new Document("$match", new Document(FLD_STATUS, state.toString())),
+                    // events with missing, null, or empty worker codes have no code after this
+                    new Document("$unwind", new Document("path", "$" + FLD_WORKER_CODES)
+                            .append("preserveNullAndEmptyArrays", true)),
+                    new Document("$group", new Document("_id", "$" + FLD_WORKER_CODES)
+                            .append(FLD_COUNT, new Document("$sum", 1)))))) {
+                final String code = d.get("_id") == null ?
+                        StatusEventStorage.DEFAULT_WORKER_CODE : d.getString("_id");
+                ret.merge(code, ((Number) d.get(FLD_COUNT)).longValue(), Long::sum);
+            }
+        } catch (MongoException e) {
+            throw new FatalRetriableIndexingException(
+                    ErrorType.OTHER, Downstream.MONGO,
+                    "Failed counting events: " + e.getMessage(), e);
+        }
+        return Collections.unmodifiableMap(ret);
+    }
+
+    @Override
+    public Map<StatusEventType, Long> getEventTypeCounts(
+            final Set<StatusEventProcessingState> states,
+            final Instant updatedSince)
+            throws FatalRetriableIndexingException {
+        Utils.nonNull(states, "states");
+        Utils.noNulls(states, "null item in states");
+        Utils.nonNull(updatedSince, "updatedSince");
+        final Map<StatusEventType, Long> ret = new EnumMap<>(StatusEventType.class);
+        if (states.isEmpty()) {
+            return Collections.unmodifiableMap(ret);
+        }
+        final List<String> stateStrings = new LinkedList<>();
+        for (final StatusEventProcessingState state: states) {
+            stateStrings.add(state.toString());
+        }
+        try {
+            // the match is covered by the status / update time index
+            for (final Document d: db.getCollection(COL_EVENT).aggregate(Arrays.asList(
+                    new Document("$match", new Document(FLD_STATUS,
+                            new Document("$in", stateStrings))
+                            .append(FLD_UPDATE_TIME,
+                                    new Document("$gte", Date.from(updatedSince)))),
+                    new Document("$group", new Document("_id", "$" + FLD_EVENT_TYPE)
+                            .append(FLD_COUNT, new Document("$sum", 1)))))) {
+                ret.put(StatusEventType.valueOf(d.getString("_id")),
+                        ((Number) d.get(FLD_COUNT)).longValue());
+            }
+        } catch (MongoException e) {
+            throw new FatalRetriableIndexingException(
+                    ErrorType.OTHER, Downstream.MONGO,
+                    "Failed counting events: " + e.getMessage(), e);
+        }
+        return Collections.unmodifiableMap(ret);
+    }
+
     @Override
     public boolean setProcessingState(
             final StatusEventID id,
@@ -471,12 +1147,14 @@ public class MongoDBStatusEventStorage implements StatusEventStorage {
             query.append(FLD_STATUS, oldState.toString());
         }
         try {
+            // changing the state releases any lease on the event
             final UpdateResult res = db.getCollection(COL_EVENT).updateOne(query, 
-                    new Document("$set", update));
+                    new Document("$set", update).append("$unset", UNSET_LEASE));
             return res.getMatchedCount() == 1;
         } catch (MongoException e) {
             throw new FatalRetriableIndexingException(
-                    ErrorType.OTHER, "Failed setting event state: " + e.getMessage(), e);
+                    ErrorType.OTHER, Downstream.MONGO,
+                    "Failed setting event state: " + e.getMessage(), e);
         }
     }
 
@@ -490,21 +1168,7 @@ public class MongoDBStatusEventStorage implements StatusEventStorage {
         Utils.nonNull(oldState, "oldState");
         Utils.nonNull(newState, "newState");
         Utils.notNullOrEmpty(updater, "updater cannot be null or whitespace");
-        final List<Document> codeQuery = new LinkedList<>();
-        final Set<String> codeSet = new HashSet<>();
-        if (workerCodes == null || workerCodes.isEmpty() ||
-                workerCodes.contains(StatusEventStorage.DEFAULT_WORKER_CODE)) {
-            // next line matches missing field & null fields
-            codeQuery.add(new Document(FLD_WORKER_CODES, null));
-            codeQuery.add(new Document(FLD_WORKER_CODES, Collections.emptyList()));
-            codeSet.add(StatusEventStorage.DEFAULT_WORKER_CODE);
-        }
-        if (workerCodes != null) {
-            Utils.noNulls(workerCodes, "null item in workerCodes");
-            codeSet.addAll(workerCodes);
-        }
-        codeQuery.add(new Document(FLD_WORKER_CODES, new Document("$in", codeSet)));
-        
+        final List<Document> codeQuery = getWorkerCodeQuery(workerCodes);
         final Document innerUpdate = new Document(FLD_STATUS, newState.toString())
                 .append(FLD_UPDATE_TIME, Date.from(clock.instant()))
                 .append(FLD_UPDATER, updater);
@@ -518,7 +1182,8 @@ public class MongoDBStatusEventStorage implements StatusEventStorage {
                              .returnDocument(ReturnDocument.AFTER));
         } catch (MongoException e) {
             throw new FatalRetriableIndexingException(
-                    ErrorType.OTHER, "Failed setting event state: " + e.getMessage(), e);
+                    ErrorType.OTHER, Downstream.MONGO,
+                    "Failed setting event state: " + e.getMessage(), e);
         }
         if (ret == null) {
             return Optional.absent();
@@ -526,4 +1191,428 @@ public class MongoDBStatusEventStorage implements StatusEventStorage {
         return Optional.of(toStoredStatusEvent(ret));
     }
 
+    private List<Document> getWorkerCodeQuery(final Set<String> workerCodes) {
+        final List<Document> codeQuery = new LinkedList<>();
+        final Set<String> codeSet = new HashSet<>();
+        if (workerCodes == null || workerCodes.isEmpty() ||
+                workerCodes.contains(StatusEventStorage.DEFAULT_WORKER_CODE)) {
+            // next line matches missing field & null fields
+            codeQuery.add(new Document(FLD_WORKER_CODES, null));
+            codeQuery.add(new Document(FLD_WORKER_CODES, Collections.emptyList()));
+            codeSet.add(StatusEventStorage.DEFAULT_WORKER_CODE);
+        }
+        if (workerCodes != null) {
+            Utils.noNulls(workerCodes, "null item in workerCodes");
+            codeSet.addAll(workerCodes);
+        }
+        codeQuery.add(new Document(FLD_WORKER_CODES, new Document("$in", codeSet)));
+        return codeQuery;
+    }
+    
+    /* Claims take a fixed number of round trips no matter the batch size: find the candidate
+     * IDs in each priority lane via the status / priority / timestamp index, update them all
+     * with a unique claim ID, and then pull back the events that carry that claim ID.
+     * Rechecking the state in the update means events claimed by another worker between the
+     * find and the update are skipped rather than stolen.
+     */
+    @Override
+    public List<StoredStatusEvent> claimEvents(
+            final StatusEventProcessingState oldState,
+            final Set<String> workerCodes,
+            final StatusEventProcessingState newState,
+            final String leaseOwner,
+            int limit,
+            final Duration leaseDuration)
+            throws FatalRetriableIndexingException {
+        Utils.nonNull(oldState, "oldState");
+        Utils.nonNull(newState, "newState");
+        Utils.notNullOrEmpty(leaseOwner, "leaseOwner cannot be null or whitespace");
+        checkLeaseDuration(leaseDuration);
+        if (limit < 1 || limit > MAX_RETURNED_EVENTS) {
+            limit = MAX_RETURNED_EVENTS;
+        }
+        final Document query = new Document(FLD_STATUS, oldState.toString())
+                .append("$or", getWorkerCodeQuery(workerCodes));
+        final Instant now = clock.instant();
+        final String claimID = new ObjectId().toString();
+        final List<StoredStatusEvent> ret = new ArrayList<>();
+        try {
+            final MongoCollection<Document> col = db.getCollection(COL_EVENT);
+            final List<ObjectId> candidates = new ArrayList<>();
+            for (final Document event: findByLane(col, query, new Document("_id", 1),
+                    claimCursor.getAndAdd(limit), limit)) {
+                candidates.add(event.getObjectId("_id"));
+            }
+            if (candidates.isEmpty()) {
+                return ret;
+            }
+            col.updateMany(
+                    new Document(query).append("_id", new Document("$in", candidates)),
+                    new Document("$set", new Document(FLD_STATUS, newState.toString())
+                            .append(FLD_UPDATE_TIME, Date.from(now))
+                            .append(FLD_UPDATER, leaseOwner)
+                            .append(FLD_LEASE_OWNER, leaseOwner)
+                            .append(FLD_LEASE_EXPIRY, Date.from(now.plus(leaseDuration)))
+                            .append(FLD_CLAIM_ID, claimID)));
+            for (final Document event: col.find(new Document("_id",
+                    new Document("$in", candidates)).append(FLD_CLAIM_ID, claimID))) {
+                ret.add(toStoredStatusEvent(event));
+            }
+        } catch (MongoException e) {
+            throw new FatalRetriableIndexingException(
+                    ErrorType.OTHER, Downstream.MONGO,
+                    "Failed claiming events: " + e.getMessage(), e);
+        }
+        // sort in memory rather than in mongo, the batch is small and already loaded
+        ret.sort((e1, e2) -> e1.getEvent().getTimestamp().compareTo(
+                e2.getEvent().getTimestamp()));
+        return ret;
+    }
+    
+    /* finds the oldest events matching the query, splitting the limit between the priority
+     * lanes by weighted round robin starting at the cursor. A lane's unused share goes to the
+     * other lanes. The projection may be null to return the entire event.
+     */
+    private List<Document> findByLane(
+            final MongoCollection<Document> col,
+            final Document query,
+            final Document projection,
+            final long cursor,
+            final int limit) {
+        final Map<StatusEventPriority, Integer> shares = PriorityLanes.getShares(cursor, limit);
+        final List<Document> found = new ArrayList<>();
+        final Set<StatusEventPriority> exhausted = new HashSet<>();
+        for (final StatusEventPriority priority: shares.keySet()) {
+            final int share = shares.get(priority);
+            if (findInLane(col, query, projection, priority, 0, share, found) < share) {
+                exhausted.add(priority);
+            }
+        }
+        // give any share a lane couldn't use to the other lanes
+        for (final StatusEventPriority priority: shares.keySet()) {
+            final int spare = limit - found.size();
+            if (spare > 0 && !exhausted.contains(priority)) {
+                findInLane(col, query, projection, priority, shares.get(priority), spare, found);
+            }
+        }
+        return found;
+    }
+    
+    // adds the oldest events in the lane to found and returns the count added
+    private int findInLane(
+            final MongoCollection<Document> col,
+            final Document query,
+            final Document projection,
+            final StatusEventPriority priority,
+            final int skip,
+            final int limit,
+            final List<Document> found) {
+        if (limit < 1) {
+            return 0; // a limit of 0 means no limit to mongo
+        }
+        final FindIterable<Document> iter = col.find(new Document(query)
+                        .append(FLD_PRIORITY, getPriorityCondition(priority)))
+                .sort(new Document(FLD_TIMESTAMP, 1))
+                .skip(skip)
+                .limit(limit);
+        if (projection != null) {
+            iter.projection(projection);
+        }
+        int count = 0;
+        for (final Document event: iter) {
+            found.add(event);
+            count++;
+        }
+        return count;
+    }
+    
+    @Override
+    public boolean renewLease(
+            final StatusEventID id,
+            final String leaseOwner,
+            final Duration leaseDuration)
+            throws FatalRetriableIndexingException {
+        Utils.nonNull(id, "id");
+        Utils.notNullOrEmpty(leaseOwner, "leaseOwner cannot be null or whitespace");
+        checkLeaseDuration(leaseDuration);
+        final Date expiry = Date.from(clock.instant().plus(leaseDuration));
+        try {
+            final UpdateResult res = db.getCollection(COL_EVENT).updateOne(
+                    new Document("_id", new ObjectId(id.getId()))
+                            .append(FLD_LEASE_OWNER, leaseOwner),
+                    new Document("$set", new Document(FLD_LEASE_EXPIRY, expiry)));
+            return res.getMatchedCount() == 1;
+        } catch (MongoException e) {
+            throw new FatalRetriableIndexingException(
+                    ErrorType.OTHER, Downstream.MONGO,
+                    "Failed renewing lease: " + e.getMessage(), e);
+        }
+    }
+    
+    @Override
+    public long reclaimExpiredLeases(
+            final StatusEventProcessingState leasedState,
+            final StatusEventProcessingState newState,
+            final String updater)
+            throws FatalRetriableIndexingException {
+        Utils.nonNull(leasedState, "leasedState");
+        Utils.nonNull(newState, "newState");
+        Utils.notNullOrEmpty(updater, "updater cannot be null or whitespace");
+        final Instant now = clock.instant();
+        try {
+            // events without a lease have no expiry field and so don't match
+            final UpdateResult res = db.getCollection(COL_EVENT).updateMany(
+                    new Document(FLD_STATUS, leasedState.toString())
+                            .append(FLD_LEASE_EXPIRY, new Document("$lt", Date.from(now))),
+                    new Document("$set", new Document(FLD_STATUS, newState.toString())
+                            .append(FLD_UPDATE_TIME, Date.from(now))
+                            .append(FLD_UPDATER, updater))
+                            .append("$unset", UNSET_LEASE));
+            return res.getModifiedCount();
+        } catch (MongoException e) {
+            throw new FatalRetriableIndexingException(
+                    ErrorType.OTHER, Downstream.MONGO,
+                    "Failed reclaiming leases: " + e.getMessage(), e);
+        }
+    }
+    
+    /* Archiving takes 3 round trips per batch: read the events, upsert them into the archive,
+     * and delete them from the event collection. The upsert makes the copy idempotent, so a
+     * batch interrupted after the copy is simply copied again on the next run. The delete
+     * rechecks the state so an event modified after it was read stays in the event collection,
+     * which takes precedence over the archive in get().
+     */
+    @Override
+    public long archiveEvents(
+            final Set<StatusEventProcessingState> states,
+            final Instant updatedBefore,
+            int limit)
+            throws FatalRetriableIndexingException {
+        Utils.nonNull(states, "states");
+        Utils.noNulls(states, "null item in states");
+        Utils.nonNull(updatedBefore, "updatedBefore");
+        if (limit < 1 || limit > MAX_RETURNED_EVENTS) {
+            limit = MAX_RETURNED_EVENTS;
+        }
+        if (states.isEmpty()) {
+            return 0;
+        }
+        final List<String> stateStrings = new LinkedList<>();
+        for (final StatusEventProcessingState state: states) {
+            stateStrings.add(state.toString());
+        }
+        final Date before = Date.from(updatedBefore);
+        final Document query = new Document(FLD_STATUS, new Document("$in", stateStrings))
+                .append("$or", Arrays.asList(
+                        new Document(FLD_UPDATE_TIME, new Document("$lt", before)),
+                        // events stored in their final state have never been updated
+                        new Document(FLD_UPDATE_TIME, null)
+                                .append(FLD_STORED_TIME, new Document("$lt", before))));
+        try {
+            final MongoCollection<Document> col = db.getCollection(COL_EVENT);
+            final List<ReplaceOneModel<Document>> copies = new ArrayList<>();
+            final List<ObjectId> ids = new ArrayList<>();
+            for (final Document event: col.find(query).limit(limit)) {
+                final ObjectId id = event.getObjectId("_id");
+                ids.add(id);
+                copies.add(new ReplaceOneModel<>(new Document("_id", id), event,
+                        new UpdateOptions().upsert(true)));
+            }
+            if (ids.isEmpty()) {
+                return 0;
+            }
+            db.getCollection(COL_ARCHIVE).bulkWrite(copies, new BulkWriteOptions().ordered(false));
+            return col.deleteMany(new Document(query).append("_id", new Document("$in", ids)))
+                    .getDeletedCount();
+        } catch (MongoException e) {
+            throw new FatalRetriableIndexingException(
+                    ErrorType.OTHER, Downstream.MONGO,
+                    "Failed archiving events: " + e.getMessage(), e);
+        }
+    }
+    
+    // the failure time is the update time for events and the store time for child events
+    private Document toFailedQuery(final FailedEventQuery query, final boolean children) {
+        Utils.nonNull(query, "query");
+        final Document ret = new Document(FLD_STATUS, StatusEventProcessingState.FAIL.toString());
+        if (!query.getErrorCodes().isEmpty()) {
+            ret.append(FLD_ERR_CODE, new Document("$in", new ArrayList<>(query.getErrorCodes())));
+        }
+        if (!query.getEventTypes().isEmpty()) {
+            final List<String> types = new LinkedList<>();
+            for (final StatusEventType type: query.getEventTypes()) {
+                types.add(type.toString());
+            }
+            ret.append(FLD_EVENT_TYPE, new Document("$in", types));
+        }
+        final Document timestamp = new Document();
+        if (query.getTimestampFrom().isPresent()) {
+            timestamp.append("$gte", Date.from(query.getTimestampFrom().get()));
+        }
+        if (query.getTimestampTo().isPresent()) {
+            timestamp.append("$lt", Date.from(query.getTimestampTo().get()));
+        }
+        if (!timestamp.isEmpty()) {
+            ret.append(FLD_TIMESTAMP, timestamp);
+        }
+        if (query.getAccessGroupID().isPresent()) {
+            ret.append(FLD_STORAGE_CODE, query.getStorageCode().get())
+                    .append(FLD_ACCESS_GROUP_ID, query.getAccessGroupID().get());
+        }
+        if (query.getFailedBefore().isPresent()) {
+            final Date before = Date.from(query.getFailedBefore().get());
+            if (children) {
+                ret.append(FLD_STORED_TIME, new Document("$lt", before));
+            } else {
+                ret.append("$or", Arrays.asList(
+                        new Document(FLD_UPDATE_TIME, new Document("$lt", before)),
+                        // events stored in the failed state have never been updated
+                        new Document(FLD_UPDATE_TIME, null)
+                                .append(FLD_STORED_TIME, new Document("$lt", before))));
+            }
+        }
+        return ret;
+    }
+    
+    // note returns in order of time stamp, oldest first (e.g FIFO)
+    @Override
+    public List<StoredStatusEvent> getFailed(final FailedEventQuery query, int limit)
+            throws FatalRetriableIndexingException {
+        final Document q = toFailedQuery(query, false);
+        if (limit < 1 || limit > MAX_RETURNED_EVENTS) {
+            limit = MAX_RETURNED_EVENTS;
+        }
+        final List<StoredStatusEvent> ret = new LinkedList<>();
+        try {
+            // the status / timestamp index narrows the query to failed events
+            for (final Document event: db.getCollection(COL_EVENT).find(q)
+                    .sort(new Document(FLD_TIMESTAMP, 1)).limit(limit)) {
+                ret.add(toStoredStatusEvent(event));
+            }
+        } catch (MongoException e) {
+            throw new FatalRetriableIndexingException(
+                    ErrorType.OTHER, Downstream.MONGO,
+                    "Failed getting events: " + e.getMessage(), e);
+        }
+        return ret;
+    }
+    
+    // note returns in order of time stamp, oldest first (e.g FIFO)
+    @Override
+    public List<StoredChildStatusEvent> getFailedChildren(
+            final FailedEventQuery query,
+            int limit)
+            throws FatalRetriableIndexingException {
+        final Document q = toFailedQuery(query, true);
+        if (limit < 1 || limit > MAX_RETURNED_EVENTS) {
+            limit = MAX_RETURNED_EVENTS;
+        }
+        final List<StoredChildStatusEvent> ret = new LinkedList<>();
+        try {
+            for (final Document event: db.getCollection(COL_CHILD).find(q)
+                    .sort(new Document(FLD_TIMESTAMP, 1)).limit(limit)) {
+                ret.add(toStoredChildStatusEvent(event));
+            }
+        } catch (MongoException e) {
+            throw new FatalRetriableIndexingException(
+                    ErrorType.OTHER, Downstream.MONGO,
+                    "Failed getting child events: " + e.getMessage(), e);
+        }
+        return ret;
+    }
+    
+    @Override
+    public Map<String, Map<StatusEventType, Long>> getFailedCounts(final FailedEventQuery query)
+            throws FatalRetriableIndexingException {
+        return getFailedCounts(COL_EVENT, toFailedQuery(query, false));
+    }
+    
+    @Override
+    public Map<String, Map<StatusEventType, Long>> getFailedChildCounts(
+            final FailedEventQuery query)
+            throws FatalRetriableIndexingException {
+        return getFailedCounts(COL_CHILD, toFailedQuery(query, true));
+    }
+    
+    private Map<String, Map<StatusEventType, Long>> getFailedCounts(
+            final String collection,
+            final Document query)
+            throws FatalRetriableIndexingException {
+        final Map<String, Map<StatusEventType, Long>> ret = new TreeMap<>();
+        try {
+            for (final Document d: db.getCollection(collection).aggregate(Arrays.asList(
+                    new Document("$match", query),
+                    new Document("$group", new Document("_id",
+                            new Document(FLD_ERR_CODE, "$" + FLD_ERR_CODE)
+                                    .append(FLD_EVENT_TYPE, "$" + FLD_EVENT_TYPE))
+                            .append(FLD_COUNT, new Document("$sum", 1)))))) {
+                final Document id = (Document) d.get("_id");
+                final String code = id.getString(FLD_ERR_CODE) == null ?
+                        StatusEventStorage.NO_ERROR_CODE : id.getString(FLD_ERR_CODE);
+                ret.computeIfAbsent(code, k -> new EnumMap<>(StatusEventType.class)).merge(
+                        StatusEventType.valueOf(id.getString(FLD_EVENT_TYPE)),
+                        ((Number) d.get(FLD_COUNT)).longValue(), Long::sum);
+            }
+        } catch (MongoException e) {
+            throw new FatalRetriableIndexingException(
+                    ErrorType.OTHER, Downstream.MONGO,
+                    "Failed counting events: " + e.getMessage(), e);
+        }
+        ret.replaceAll((code, counts) -> Collections.unmodifiableMap(counts));
+        return Collections.unmodifiableMap(ret);
+    }
+    
+    @Override
+    public long resetFailed(
+            final FailedEventQuery query,
+            final StatusEventProcessingState newState,
+            final String updater)
+            throws FatalRetriableIndexingException {
+        final Document q = toFailedQuery(query, false);
+        Utils.nonNull(newState, "newState");
+        Utils.notNullOrEmpty(updater, "updater cannot be null or whitespace");
+        final Document unset = new Document(UNSET_LEASE)
+                .append(FLD_ERR_CODE, "").append(FLD_ERR_MSG, "").append(FLD_ERR_TRACE, "");
+        try {
+            final UpdateResult res = db.getCollection(COL_EVENT).updateMany(q,
+                    new Document("$set", new Document(FLD_STATUS, newState.toString())
+                            .append(FLD_UPDATE_TIME, Date.from(clock.instant()))
+                            .append(FLD_UPDATER, updater))
+                            .append("$unset", unset));
+            return res.getModifiedCount();
+        } catch (MongoException e) {
+            throw new FatalRetriableIndexingException(
+                    ErrorType.OTHER, Downstream.MONGO,
+                    "Failed resetting events: " + e.getMessage(), e);
+        }
+    }
+    
+    @Override
+    public long deleteChildren(final Collection<StatusEventID> ids)
+            throws FatalRetriableIndexingException {
+        Utils.nonNull(ids, "ids");
+        Utils.noNulls(ids, "null item in ids");
+        if (ids.isEmpty()) {
+            return 0;
+        }
+        final List<ObjectId> oids = new ArrayList<>(ids.size());
+        for (final StatusEventID id: ids) {
+            oids.add(new ObjectId(id.getId()));
+        }
+        try {
+            return db.getCollection(COL_CHILD).deleteMany(
+                    new Document("_id", new Document("$in", oids))).getDeletedCount();
+        } catch (MongoException e) {
+            throw new FatalRetriableIndexingException(
+                    ErrorType.OTHER, Downstream.MONGO,
+                    "Failed deleting child events: " + e.getMessage(), e);
+        }
+    }
+    
+    private void checkLeaseDuration(final Duration leaseDuration) {
+        Utils.nonNull(leaseDuration, "leaseDuration");
+        if (leaseDuration.isNegative() || leaseDuration.isZero()) {
+            throw new IllegalArgumentException("leaseDuration must be positive");
+        }
+    }
 }
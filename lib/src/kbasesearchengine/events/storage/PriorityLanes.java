@@ -0,0 +1,40 @@
+package kbasesearchengine.events.storage;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+import kbasesearchengine.events.StatusEventPriority;
+
+/** Splits event claims between the {@link StatusEventPriority} lanes. Shared by the
+ * {@link StatusEventStorage} implementations so that all of them serve the lanes identically.
+ */
+final class PriorityLanes {
+
+    private PriorityLanes() {}
+
+    /** Distribute a claim limit between the priority lanes by weighted round robin.
+     * @param cursor the position in the round robin at which the claim starts. Advance the
+     * cursor by the limit for each claim so the shares rotate between claims.
+     * @param limit the number of events to claim.
+     * @return the share of the limit for each lane, in lane order. Every lane is included.
+     */
+    static Map<StatusEventPriority, Integer> getShares(final long cursor, final int limit) {
+        final Map<StatusEventPriority, Integer> shares = new EnumMap<>(StatusEventPriority.class);
+        int totalWeight = 0;
+        for (final StatusEventPriority priority: StatusEventPriority.values()) {
+            shares.put(priority, 0);
+            totalWeight += priority.getWeight();
+        }
+        for (int i = 0; i < limit; i++) {
+            long slot = (cursor + i) % totalWeight;
+            for (final StatusEventPriority priority: StatusEventPriority.values()) {
+                slot -= priority.getWeight();
+                if (slot < 0) {
+                    shares.put(priority, shares.get(priority) + 1);
+                    break;
+                }
+            }
+        }
+        return shares;
+    }
+}
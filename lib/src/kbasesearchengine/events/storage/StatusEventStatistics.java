@@ -0,0 +1,50 @@
+package kbasesearchengine.events.storage;
+
+import java.time.Instant;
+import java.util.Map;
+import java.util.Set;
+
+import kbasesearchengine.events.StatusEventPriority;
+import kbasesearchengine.events.StatusEventProcessingState;
+import kbasesearchengine.events.StatusEventType;
+import kbasesearchengine.events.exceptions.FatalRetriableIndexingException;
+
+/** Read only statistics about the events in a {@link StatusEventStorage}. Used for reporting on
+ * the state of the event processing pipeline, without the ability to modify the events.
+ */
+public interface StatusEventStatistics {
+
+    /** Get the depth and age of each priority lane for events in a processing state.
+     * Events stored without a priority are in the {@link StatusEventPriority#INTERACTIVE} lane.
+     * @param state the processing state of the events to count.
+     * @return the statistics for every priority lane, including empty lanes.
+     * @throws FatalRetriableIndexingException if an error occurs while getting the statistics.
+     */
+    Map<StatusEventPriority, LaneStatistics> getLaneStatistics(StatusEventProcessingState state)
+            throws FatalRetriableIndexingException;
+
+    /** Count the events in a processing state by worker code. An event with more than one
+     * worker code is counted once for each code. Events stored without worker codes are counted
+     * under the {@link StatusEventStorage#DEFAULT_WORKER_CODE}.
+     * @param state the processing state of the events to count.
+     * @return the number of events for each worker code. Worker codes with no events are
+     * omitted.
+     * @throws FatalRetriableIndexingException if an error occurs while counting the events.
+     */
+    Map<String, Long> getWorkerCodeCounts(StatusEventProcessingState state)
+            throws FatalRetriableIndexingException;
+
+    /** Count the events in a set of processing states by event type, including only events
+     * whose processing state was last updated at or after a given time. This is usually used
+     * to determine how many events have been processed recently. Archived events are not
+     * counted, see {@link StatusEventStorage#archiveEvents(Set, Instant, int)}.
+     * @param states the processing states of the events to count.
+     * @param updatedSince only events last updated at or after this time are counted.
+     * @return the number of events for each event type. Event types with no events are omitted.
+     * @throws FatalRetriableIndexingException if an error occurs while counting the events.
+     */
+    Map<StatusEventType, Long> getEventTypeCounts(
+            Set<StatusEventProcessingState> states,
+            Instant updatedSince)
+            throws FatalRetriableIndexingException;
+}
@@ -1,14 +1,21 @@
 package kbasesearchengine.events.storage;
 
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import com.google.common.base.Optional;
 
 import kbasesearchengine.events.ChildStatusEvent;
+import kbasesearchengine.events.FailedChildStatusEvent;
 import kbasesearchengine.events.StatusEvent;
 import kbasesearchengine.events.StatusEventID;
+import kbasesearchengine.events.StatusEventPriority;
 import kbasesearchengine.events.StatusEventProcessingState;
+import kbasesearchengine.events.StatusEventType;
 import kbasesearchengine.events.StoredChildStatusEvent;
 import kbasesearchengine.events.StoredStatusEvent;
 import kbasesearchengine.events.exceptions.FatalRetriableIndexingException;
@@ -17,7 +24,7 @@ import kbasesearchengine.events.exceptions.FatalRetriableIndexingException;
  * @author gaprice@lbl.gov
  *
  */
-public interface StatusEventStorage {
+public interface StatusEventStorage extends StatusEventStatistics {
     
     /** The name for a default worker code that is applied to an event if it has no other worker
      * codes, or can be applied to events manually if the event should run on a worker that
@@ -25,6 +32,28 @@ public interface StatusEventStorage {
      */
     public static final String DEFAULT_WORKER_CODE = "default";
 
+    /** The error code under which failed events without error information are counted, see
+     * {@link #getFailedCounts(FailedEventQuery)}.
+     */
+    public static final String NO_ERROR_CODE = "none";
+
+    /** Store a new event in the {@link StatusEventPriority#INTERACTIVE} priority lane.
+     * @param newEvent the event.
+     * @param state the current processing state of the event.
+     * @param workerCodes a set of codes for the event that designate the workers that may process
+     * the event. If the list is null or empty the event will get the {@link #DEFAULT_WORKER_CODE}
+     * code.
+     * @param storedBy an arbitrary string indicating the entity that stored the event.
+     * @return a stored status event.
+     * @throws FatalRetriableIndexingException if an error occurs while storing the event.
+     */
+    StoredStatusEvent store(
+            StatusEvent newEvent,
+            StatusEventProcessingState state,
+            Set<String> workerCodes,
+            String storedBy)
+            throws FatalRetriableIndexingException;
+    
     /** Store a new event.
      * @param newEvent the event.
      * @param state the current processing state of the event.
@@ -32,6 +61,7 @@ public interface StatusEventStorage {
      * the event. If the list is null or empty the event will get the {@link #DEFAULT_WORKER_CODE}
      * code.
      * @param storedBy an arbitrary string indicating the entity that stored the event.
+     * @param priority the priority lane of the event.
      * @return a stored status event.
      * @throws FatalRetriableIndexingException if an error occurs while storing the event.
      */
@@ -39,9 +69,79 @@ public interface StatusEventStorage {
             StatusEvent newEvent,
             StatusEventProcessingState state,
             Set<String> workerCodes,
+            String storedBy,
+            StatusEventPriority priority)
+            throws FatalRetriableIndexingException;
+
+    /** Store many new events at once in the {@link StatusEventPriority#INTERACTIVE} priority
+     * lane. All the events receive the same processing state, worker
+     * codes, and storing entity. The events are written to the storage system in batches,
+     * which is much faster than calling {@link #store(StatusEvent, StatusEventProcessingState,
+     * Set, String)} for each event.
+     * If an error occurs, some of the events may have been stored.
+     * @param newEvents the events.
+     * @param state the current processing state of the events.
+     * @param workerCodes a set of codes for the events that designate the workers that may
+     * process the events. If the list is null or empty the events will get the
+     * {@link #DEFAULT_WORKER_CODE} code.
+     * @param storedBy an arbitrary string indicating the entity that stored the events.
+     * @return the stored status events, in the same order as the input events.
+     * @throws FatalRetriableIndexingException if an error occurs while storing the events.
+     */
+    List<StoredStatusEvent> storeAll(
+            List<StatusEvent> newEvents,
+            StatusEventProcessingState state,
+            Set<String> workerCodes,
             String storedBy)
             throws FatalRetriableIndexingException;
     
+    /** Store many new events at once. All the events receive the same processing state, worker
+     * codes, storing entity, and priority. Bulk loads, such as backfills, should use the
+     * {@link StatusEventPriority#BULK} priority so they do not delay interactive events.
+     * If an error occurs, some of the events may have been stored.
+     * @param newEvents the events.
+     * @param state the current processing state of the events.
+     * @param workerCodes a set of codes for the events that designate the workers that may
+     * process the events. If the list is null or empty the events will get the
+     * {@link #DEFAULT_WORKER_CODE} code.
+     * @param storedBy an arbitrary string indicating the entity that stored the events.
+     * @param priority the priority lane of the events.
+     * @return the stored status events, in the same order as the input events.
+     * @throws FatalRetriableIndexingException if an error occurs while storing the events.
+     * @see #storeAll(List, StatusEventProcessingState, Set, String)
+     */
+    List<StoredStatusEvent> storeAll(
+            List<StatusEvent> newEvents,
+            StatusEventProcessingState state,
+            Set<String> workerCodes,
+            String storedBy,
+            StatusEventPriority priority)
+            throws FatalRetriableIndexingException;
+    
+    /** Store many new events at once, skipping any event with a key that matches the key of an
+     * event already stored, including events that have been archived. Storing events with
+     * deterministic keys makes storing the events idempotent, and so bulk loads can be
+     * restarted without creating duplicate events. Otherwise acts like
+     * {@link #storeAll(List, StatusEventProcessingState, Set, String, StatusEventPriority)}.
+     * @param newEvents the events, mapped from the unique key for each event.
+     * @param state the current processing state of the events.
+     * @param workerCodes a set of codes for the events that designate the workers that may
+     * process the events. If the list is null or empty the events will get the
+     * {@link #DEFAULT_WORKER_CODE} code.
+     * @param storedBy an arbitrary string indicating the entity that stored the events.
+     * @param priority the priority lane of the events.
+     * @return the stored status events, in the iteration order of the input map. Events that
+     * were skipped are not included.
+     * @throws FatalRetriableIndexingException if an error occurs while storing the events.
+     */
+    List<StoredStatusEvent> storeAllUnique(
+            Map<String, StatusEvent> newEvents,
+            StatusEventProcessingState state,
+            Set<String> workerCodes,
+            String storedBy,
+            StatusEventPriority priority)
+            throws FatalRetriableIndexingException;
+
     /** Store a status event that resulted in an error and that is a child of another status event.
      * Child status events are immutable once stored. Note that no checking is done on the
      * validity of the parent event's ID.
@@ -57,7 +157,30 @@ public interface StatusEventStorage {
             final Throwable error)
             throws FatalRetriableIndexingException;
 
-    /** Get an event by its ID.
+    /** Store many child status events that resulted in errors at once. The events are written to
+     * the storage system in batches.
+     * If an error occurs, some of the events may have been stored.
+     * @param newEvents the failed child events to store.
+     * @return the stored child events, in the same order as the input events.
+     * @throws FatalRetriableIndexingException if an error occurs while storing the events.
+     * @see #store(ChildStatusEvent, String, Throwable)
+     */
+    List<StoredChildStatusEvent> storeAllChildren(List<FailedChildStatusEvent> newEvents)
+            throws FatalRetriableIndexingException;
+
+    /** Subscribe to notifications of newly stored events, so that consumers of events can
+     * react to new events quickly without polling the storage system at a short interval.
+     * Only events stored after the subscription is created trigger notifications.
+     * The subscription must be closed when no longer needed.
+     * @param state the processing state of the stored events that trigger notifications.
+     * @return the subscription.
+     * @throws FatalRetriableIndexingException if an error occurs while creating the subscription.
+     */
+    EventSubscription subscribe(StatusEventProcessingState state)
+            throws FatalRetriableIndexingException;
+
+    /** Get an event by its ID. Archived events are included, see
+     * {@link #archiveEvents(Set, Instant, int)}.
      * @param id the id.
      * @return the event or absent if the id does not exist in the storage system.
      * @throws FatalRetriableIndexingException if an error occurs while getting the event.
@@ -81,7 +204,24 @@ public interface StatusEventStorage {
      */
     List<StoredStatusEvent> get(StatusEventProcessingState state, int limit)
             throws FatalRetriableIndexingException;
-
+    
+    /** Get a list of events, by processing state, split between the priority lanes in the
+     * same way as {@link #claimEvents(StatusEventProcessingState, Set,
+     * StatusEventProcessingState, String, int, Duration)}. The oldest events by timestamp are
+     * taken from each lane in proportion to {@link StatusEventPriority#getWeight()}, and if a
+     * lane has fewer events than its share, the remainder is taken from the other lanes.
+     * Shares are rotated between calls.
+     * 
+     * Unlike {@link #get(StatusEventProcessingState, int)}, a large backlog in one lane cannot
+     * prevent the events in the other lanes from being returned.
+     * @param state the processing state of the events to be returned.
+     * @param limit the maximum number of events to return. If < 1 or > 10000 is set to 10000.
+     * @return the events, ordered by timestamp with the earliest first.
+     * @throws FatalRetriableIndexingException if an error occurs while getting the events.
+     */
+    List<StoredStatusEvent> getByPriority(StatusEventProcessingState state, int limit)
+            throws FatalRetriableIndexingException;
+    
     /** Simultaneously find an event with a particular processing state and set a new state.
      * This is often used to switch an event from {@link StatusEventProcessingState#READY} to
      * {@link StatusEventProcessingState#PROC}.
@@ -103,6 +243,150 @@ public interface StatusEventStorage {
             String updater)
             throws FatalRetriableIndexingException;
     
+    /** Claim a batch of events for processing. Up to limit events that match the processing
+     * state and worker codes are switched to the new state and leased to the lease owner.
+     * The batch is split between the priority lanes in proportion to
+     * {@link StatusEventPriority#getWeight()}, taking the oldest events by timestamp from each
+     * lane. If a lane has fewer events than its share, the remainder is taken from the other
+     * lanes. Shares are rotated between claims, so even a claim of a single event serves each
+     * lane in turn.
+     * Each event is claimed atomically, but the batch as a whole is not - if another worker
+     * claims some of the selected events concurrently, fewer than limit events will be
+     * returned even though more matching events may exist.
+     * @param oldState the state of the events to find.
+     * @param workerCodes the permissible worker codes for the events. A null or empty list
+     * implies the default code.
+     * @param newState the state to which the events will be updated.
+     * @param leaseOwner an id or name for the claimant. This is also recorded as the updater.
+     * @param limit the maximum number of events to claim. If < 1 or > 10000 is set to 10000.
+     * @param leaseDuration how long the lease on the events lasts.
+     * @return the claimed events, ordered by timestamp with the earliest first.
+     * @throws FatalRetriableIndexingException if an error occurs while claiming the events.
+     */
+    List<StoredStatusEvent> claimEvents(
+            StatusEventProcessingState oldState,
+            Set<String> workerCodes,
+            StatusEventProcessingState newState,
+            String leaseOwner,
+            int limit,
+            Duration leaseDuration)
+            throws FatalRetriableIndexingException;
+    
+    /** Extend the lease on an event. The lease is only extended if the event is currently
+     * leased by the lease owner. Changing the processing state of an event releases any lease.
+     * @param id the id of the event.
+     * @param leaseOwner the owner of the lease.
+     * @param leaseDuration the new duration of the lease, starting from the current time.
+     * @return true if the lease was extended, false if the event does not exist or is not
+     * leased by the lease owner.
+     * @throws FatalRetriableIndexingException if an error occurs while renewing the lease.
+     */
+    boolean renewLease(StatusEventID id, String leaseOwner, Duration leaseDuration)
+            throws FatalRetriableIndexingException;
+    
+    /** Return events with expired leases to another processing state, usually so they can be
+     * claimed by another worker. Most commonly used to move abandoned
+     * {@link StatusEventProcessingState#PROC} events back to
+     * {@link StatusEventProcessingState#READY}. The leases on the events are released.
+     * Events in the leased state without a lease are not affected.
+     * @param leasedState the state of the leased events.
+     * @param newState the state to which events with expired leases will be moved.
+     * @param updater an id or name to associate with the state change.
+     * @return the number of events that were moved.
+     * @throws FatalRetriableIndexingException if an error occurs while reclaiming the events.
+     */
+    long reclaimExpiredLeases(
+            StatusEventProcessingState leasedState,
+            StatusEventProcessingState newState,
+            String updater)
+            throws FatalRetriableIndexingException;
+    
+    /** Move events that have finished processing out of the working set of events into archival
+     * storage, so that queries for events to process are not slowed by the history of
+     * processed events. Archived events can only be retrieved with {@link #get(StatusEventID)}
+     * and cannot be modified.
+     * An event is archived if it is in one of the given states and its processing state was
+     * last updated before the given time. Events that have never been updated are archived if
+     * they were stored before the given time. An event whose state changes while it is being
+     * archived is left in the working set.
+     * @param states the processing states of the events to archive. These should be states
+     * from which events are not expected to be processed further, such as
+     * {@link StatusEventProcessingState#INDX}.
+     * @param updatedBefore only events last updated before this time are archived.
+     * @param limit the maximum number of events to archive. If < 1 or > 10000 is set to 10000.
+     * @return the number of events that were archived.
+     * @throws FatalRetriableIndexingException if an error occurs while archiving the events.
+     */
+    long archiveEvents(
+            Set<StatusEventProcessingState> states,
+            Instant updatedBefore,
+            int limit)
+            throws FatalRetriableIndexingException;
+
+    /** Get events in the {@link StatusEventProcessingState#FAIL} state, ordered by the event
+     * timestamp such that the events with the earliest timestamp are first in the list.
+     * Archived events are not included.
+     * @param query the query the events must match.
+     * @param limit the maximum number of events to return. If < 1 or > 10000 is set to 10000.
+     * @return the list of events.
+     * @throws FatalRetriableIndexingException if an error occurs while getting the events.
+     */
+    List<StoredStatusEvent> getFailed(FailedEventQuery query, int limit)
+            throws FatalRetriableIndexingException;
+
+    /** Get child events, which are always in the {@link StatusEventProcessingState#FAIL}
+     * state, ordered by the event timestamp such that the events with the earliest timestamp
+     * are first in the list.
+     * @param query the query the child events must match.
+     * @param limit the maximum number of events to return. If < 1 or > 10000 is set to 10000.
+     * @return the list of child events.
+     * @throws FatalRetriableIndexingException if an error occurs while getting the events.
+     */
+    List<StoredChildStatusEvent> getFailedChildren(FailedEventQuery query, int limit)
+            throws FatalRetriableIndexingException;
+
+    /** Count the events in the {@link StatusEventProcessingState#FAIL} state by error code and
+     * event type. Archived events are not counted.
+     * @param query the query the events must match.
+     * @return the number of events for each event type, by error code. Error codes and event
+     * types with no events are omitted.
+     * @throws FatalRetriableIndexingException if an error occurs while counting the events.
+     */
+    Map<String, Map<StatusEventType, Long>> getFailedCounts(FailedEventQuery query)
+            throws FatalRetriableIndexingException;
+
+    /** Count child events by error code and event type.
+     * @param query the query the child events must match.
+     * @return the number of child events for each event type, by error code. Error codes and
+     * event types with no events are omitted.
+     * @throws FatalRetriableIndexingException if an error occurs while counting the events.
+     */
+    Map<String, Map<StatusEventType, Long>> getFailedChildCounts(FailedEventQuery query)
+            throws FatalRetriableIndexingException;
+
+    /** Move all the events in the {@link StatusEventProcessingState#FAIL} state that match a
+     * query to another processing state in bulk, usually
+     * {@link StatusEventProcessingState#UNPROC} so that they are processed again. The error
+     * information and any lease on the events is removed.
+     * @param query the query the events must match.
+     * @param newState the state to which the events will be moved.
+     * @param updater an id or name to associate with the state change.
+     * @return the number of events that were moved.
+     * @throws FatalRetriableIndexingException if an error occurs while moving the events.
+     */
+    long resetFailed(
+            FailedEventQuery query,
+            StatusEventProcessingState newState,
+            String updater)
+            throws FatalRetriableIndexingException;
+
+    /** Delete child events, usually after they have been replayed.
+     * @param ids the IDs of the child events.
+     * @return the number of child events that were deleted.
+     * @throws FatalRetriableIndexingException if an error occurs while deleting the events.
+     */
+    long deleteChildren(Collection<StatusEventID> ids) throws FatalRetriableIndexingException;
+
     /** Mark an event with a processing state.
      * @param id the id of the event to modify.
      * @param oldState the expected state of the event. If non-null, an event is only modified
@@ -0,0 +1,23 @@
+package kbasesearchengine.events.storage;
+
+import java.util.Map;
+
+import kbasesearchengine.events.StatusEvent;
+import kbasesearchengine.tools.Utils;
+
+/** Argument checks shared by the {@link StatusEventStorage} implementations. */
+final class StatusEventStorageUtils {
+
+    private StatusEventStorageUtils() {}
+
+    /** Check the events passed to {@link StatusEventStorage#storeAllUnique}.
+     * @param newEvents the events, mapped from the unique key for each event.
+     */
+    static void checkKeys(final Map<String, StatusEvent> newEvents) {
+        Utils.nonNull(newEvents, "newEvents");
+        for (final String key: newEvents.keySet()) {
+            Utils.notNullOrEmpty(key, "null or whitespace only key in newEvents");
+            Utils.nonNull(newEvents.get(key), "null event in newEvents");
+        }
+    }
+}
@@ -0,0 +1,227 @@
+package kbasesearchengine.main;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import kbasesearchengine.common.GUID;
+import kbasesearchengine.events.ChildStatusEvent;
+import kbasesearchengine.events.StatusEvent;
+import kbasesearchengine.events.StatusEventType;
+import kbasesearchengine.events.StatusEventWithId;
+import kbasesearchengine.events.exceptions.Downstream;
+import kbasesearchengine.events.exceptions.ErrorType;
+import kbasesearchengine.events.exceptions.FatalIndexingException;
+import kbasesearchengine.events.exceptions.IndexingException;
+import kbasesearchengine.events.exceptions.IndexingExceptionUncheckedWrapper;
+import kbasesearchengine.events.exceptions.RetriableIndexingException;
+import kbasesearchengine.events.exceptions.RetriableIndexingExceptionUncheckedWrapper;
+import kbasesearchengine.events.exceptions.Retrier;
+import kbasesearchengine.events.handler.EventHandler;
+import kbasesearchengine.events.handler.SourceData;
+import kbasesearchengine.search.IndexingStorage;
+import kbasesearchengine.system.TypeStorage;
+import kbasesearchengine.tools.Utils;
+
+/** Splits the child events of an expanded parent event into chunks and loads the objects for
+ * each chunk in batches, so that workspaces full of small objects don't need one call to the
+ * data source per object.
+ *
+ * Only the objects for {@link StatusEventType#NEW_VERSION} events with a supported storage type
+ * that are not already indexed are prefetched. Any object that is not prefetched, for example
+ * because it is too large to hold in memory or because the batch load failed, is loaded
+ * individually by {@link #load(EventHandler, List, Path)}, which also surfaces errors for
+ * individual objects.
+ *
+ * The prefetched objects are held in memory until they are loaded or the chunk is
+ * {@link #clear()}ed, so only one chunk should be prefetched at a time.
+ *
+ * This class is thread safe.
+ */
+public class ChildEventPrefetcher {
+
+    /** The maximum number of child events in a chunk. */
+    public static final int CHUNK_SIZE = 100;
+
+    private final Map<String, EventHandler> eventHandlers = new HashMap<>();
+    private final IndexingStorage indexingStorage;
+    private final TypeStorage typeStorage;
+    private final Retrier retrier;
+    private final LineLogger logger;
+    private final Map<GUID, SourceData> prefetched = new ConcurrentHashMap<>();
+
+    /** Create the prefetcher.
+     * @param eventHandlers the handlers for the data sources from which objects are loaded.
+     * @param indexingStorage the indexing storage, used to check which objects are indexed.
+     * @param typeStorage the type storage, used to check which storage types are supported.
+     * @param retrier the retrier for calls to the data sources and indexing storage.
+     * @param logger a logger.
+     */
+    public ChildEventPrefetcher(
+            final List<EventHandler> eventHandlers,
+            final IndexingStorage indexingStorage,
+            final TypeStorage typeStorage,
+            final Retrier retrier,
+            final LineLogger logger) {
+        Utils.nonNull(eventHandlers, "eventHandlers");
+        Utils.noNulls(eventHandlers, "null item in eventHandlers");
+        Utils.nonNull(indexingStorage, "indexingStorage");
+        Utils.nonNull(typeStorage, "typeStorage");
+        Utils.nonNull(retrier, "retrier");
+        Utils.nonNull(logger, "logger");
+        eventHandlers.stream().forEach(eh -> this.eventHandlers.put(eh.getStorageCode(), eh));
+        this.indexingStorage = indexingStorage;
+        this.typeStorage = typeStorage;
+        this.retrier = retrier;
+        this.logger = logger;
+    }
+
+    /** Get the next chunk of child events. Errors getting individual child events are added to
+     * the error list, and the chunk is returned immediately if a fatal error occurs.
+     * @param children the child events.
+     * @param parentEvent the event from which the child events were expanded.
+     * @param errors a list to which errors getting child events are added.
+     * @return up to {@link #CHUNK_SIZE} child events.
+     * @throws InterruptedException if the thread is interrupted.
+     */
+    public List<ChildStatusEvent> nextChunk(
+            final Iterator<ChildStatusEvent> children,
+            final StatusEventWithId parentEvent,
+            final List<IndexingException> errors)
+            throws InterruptedException {
+        Utils.nonNull(children, "children");
+        Utils.nonNull(parentEvent, "parentEvent");
+        Utils.nonNull(errors, "errors");
+        final List<ChildStatusEvent> chunk = new ArrayList<>();
+        while (children.hasNext() && chunk.size() < CHUNK_SIZE) {
+            try {
+                chunk.add(retrier.retryFunc(i -> getNext(i), children, parentEvent,
+                        Downstream.WORKSPACE));
+            } catch (FatalIndexingException e) {
+                errors.add(e);
+                return chunk;
+            } catch (IndexingException e) {
+                errors.add(e);
+            }
+        }
+        return chunk;
+    }
+
+    private ChildStatusEvent getNext(final Iterator<ChildStatusEvent> iter)
+            throws IndexingException, RetriableIndexingException {
+        try {
+            return iter.next();
+        } catch (IndexingExceptionUncheckedWrapper e) {
+            throw e.getIndexingException();
+        } catch (RetriableIndexingExceptionUncheckedWrapper e) {
+            throw e.getIndexingException();
+        }
+    }
+
+    /** Load the objects for a chunk of child events, replacing the objects from the previous
+     * chunk. If the batch load fails, the error is logged and the objects are left to be
+     * loaded individually.
+     * @param chunk the chunk of child events.
+     * @throws InterruptedException if the thread is interrupted.
+     */
+    public void prefetch(final List<ChildStatusEvent> chunk) throws InterruptedException {
+        Utils.nonNull(chunk, "chunk");
+        Utils.noNulls(chunk, "null item in chunk");
+        prefetched.clear();
+        final Set<GUID> guids = new LinkedHashSet<>();
+        for (final ChildStatusEvent child: chunk) {
+            final StatusEvent ev = child.getEvent();
+            if (StatusEventType.NEW_VERSION.equals(ev.getEventType()) &&
+                    ev.getStorageObjectType().isPresent() &&
+                    eventHandlers.containsKey(ev.getStorageCode()) &&
+                    !typeStorage.listObjectTypeParsingRules(
+                            ev.getStorageObjectType().get()).isEmpty()) {
+                guids.add(ev.toGUID());
+            }
+        }
+        // a single object is no cheaper to load in a batch
+        if (guids.size() < 2) {
+            return;
+        }
+        try {
+            final Map<GUID, Boolean> indexed = retrier.retryFunc(
+                    g -> checkParentGuidsExist(g), guids, null, Downstream.ELASTICSEARCH);
+            final Map<String, List<List<GUID>>> toLoad = new HashMap<>();
+            for (final GUID guid: guids) {
+                if (!Boolean.TRUE.equals(indexed.get(guid))) {
+                    toLoad.putIfAbsent(guid.getStorageCode(), new ArrayList<>());
+                    toLoad.get(guid.getStorageCode()).add(Arrays.asList(guid));
+                }
+            }
+            for (final String storageCode: toLoad.keySet()) {
+                final EventHandler handler = eventHandlers.get(storageCode);
+                final long start = System.currentTimeMillis();
+                final Map<GUID, SourceData> loaded = retrier.retryFunc(
+                        p -> handler.loadBatch(p), toLoad.get(storageCode), null,
+                        Downstream.WORKSPACE);
+                prefetched.putAll(loaded);
+                logger.logInfo(String.format("[Indexer] Loaded %s of %s %s objects in %s ms",
+                        loaded.size(), toLoad.get(storageCode).size(), storageCode,
+                        System.currentTimeMillis() - start));
+            }
+        } catch (IndexingException e) {
+            logger.logError("[Indexer] Batch loading objects failed, loading objects " +
+                    "individually: " + e.getMessage());
+            prefetched.clear();
+        }
+    }
+
+    private Map<GUID, Boolean> checkParentGuidsExist(final Set<GUID> guids)
+            throws RetriableIndexingException {
+        try {
+            return indexingStorage.checkParentGuidsExist(guids);
+        } catch (IOException e) {
+            throw new RetriableIndexingException(
+                    ErrorType.OTHER, Downstream.ELASTICSEARCH, e.getMessage(), e);
+        }
+    }
+
+    /** Get the GUIDs of the objects that are currently prefetched.
+     * @return the GUIDs.
+     */
+    public Set<GUID> getPrefetched() {
+        return Collections.unmodifiableSet(new LinkedHashSet<>(prefetched.keySet()));
+    }
+
+    /** Load an object, using the prefetched object if the object is prefetched and is
+     * accessed directly rather than via a reference path. A prefetched object is removed from
+     * the prefetcher when it is loaded.
+     * @param handler the handler for the object's data source.
+     * @param refPath the path to the object from an accessible object, or only the object's guid
+     * if it is accessible.
+     * @param file a file in which the object's data can be stored if it is not prefetched.
+     * @return the object's data.
+     * @throws IndexingException if an error occurs loading the object.
+     * @throws RetriableIndexingException if a retriable error occurs loading the object.
+     */
+    public SourceData load(final EventHandler handler, final List<GUID> refPath, final Path file)
+            throws IndexingException, RetriableIndexingException {
+        Utils.nonNull(handler, "handler");
+        Utils.nonNull(refPath, "refPath");
+        Utils.noNulls(refPath, "null item in refPath");
+        if (refPath.isEmpty()) {
+            throw new IllegalArgumentException("refPath cannot be empty");
+        }
+        final SourceData obj = refPath.size() == 1 ? prefetched.remove(refPath.get(0)) : null;
+        return obj == null ? handler.load(refPath, file) : obj;
+    }
+
+    /** Drop all prefetched objects. */
+    public void clear() {
+        prefetched.clear();
+    }
+}
@@ -0,0 +1,172 @@
+package kbasesearchengine.main;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import kbasesearchengine.events.StatusEventProcessingState;
+import kbasesearchengine.events.exceptions.FatalRetriableIndexingException;
+import kbasesearchengine.events.storage.StatusEventStorage;
+import kbasesearchengine.tools.Utils;
+
+/** Periodically moves events that have finished processing into archival storage, keeping the
+ * set of events that the indexer queries small. See
+ * {@link StatusEventStorage#archiveEvents(Set, Instant, int)}.
+ *
+ * {@link StatusEventProcessingState#FAIL} events are not archived so that they can be
+ * inspected and reprocessed.
+ *
+ * Only one archiver needs to run at one time, usually alongside the indexer coordinator.
+ *
+ * This class is thread safe.
+ */
+public class EventArchiver implements Stoppable {
+
+    /** The processing states of the events that are archived. */
+    public static final Set<StatusEventProcessingState> ARCHIVED_STATES =
+            Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+                    StatusEventProcessingState.INDX,
+                    StatusEventProcessingState.UNINDX,
+                    StatusEventProcessingState.COALESCED)));
+
+    /** The maximum number of events archived in one request to the storage system. */
+    public static final int BATCH_SIZE = 1000;
+
+    private final StatusEventStorage storage;
+    private final Duration interval;
+    private final Duration retention;
+    private final LineLogger logger;
+    private final ScheduledExecutorService executor;
+    private final Clock clock;
+    private final SignalMonitor signalMonitor = new SignalMonitor();
+    private final AtomicLong archived = new AtomicLong();
+    private final AtomicLong runs = new AtomicLong();
+
+    /** Create the archiver.
+     * @param storage the storage system containing the events.
+     * @param interval the time between checks for events to archive.
+     * @param retention how long finished events remain in the working set before they're
+     * archived.
+     * @param logger a logger.
+     */
+    public EventArchiver(
+            final StatusEventStorage storage,
+            final Duration interval,
+            final Duration retention,
+            final LineLogger logger) {
+        this(storage, interval, retention, logger, Executors.newSingleThreadScheduledExecutor(),
+                Clock.systemDefaultZone());
+    }
+
+    /** Create the archiver with an alternate executor and clock. Used for testing.
+     * @param storage the storage system containing the events.
+     * @param interval the time between checks for events to archive.
+     * @param retention how long finished events remain in the working set before they're
+     * archived.
+     * @param logger a logger.
+     * @param testExecutor a single thread executor, usually a mock.
+     * @param clock a clock, usually a mock.
+     */
+    public EventArchiver(
+            final StatusEventStorage storage,
+            final Duration interval,
+            final Duration retention,
+            final LineLogger logger,
+            final ScheduledExecutorService testExecutor,
+            final Clock clock) {
+        Utils.nonNull(storage, "storage");
+        checkPositive(interval, "interval");
+        Utils.nonNull(retention, "retention");
+        if (retention.isNegative()) {
+            throw new IllegalArgumentException("retention cannot be negative");
+        }
+        Utils.nonNull(logger, "logger");
+        Utils.nonNull(testExecutor, "testExecutor");
+        Utils.nonNull(clock, "clock");
+        this.storage = storage;
+        this.interval = interval;
+        this.retention = retention;
+        this.logger = logger;
+        this.executor = testExecutor;
+        this.clock = clock;
+    }
+
+    private static void checkPositive(final Duration d, final String name) {
+        Utils.nonNull(d, name);
+        if (d.isNegative() || d.isZero()) {
+            throw new IllegalArgumentException(name + " must be positive");
+        }
+    }
+
+    /** Get the total number of events that have been archived.
+     * @return the number of archived events.
+     */
+    public long getArchivedCount() {
+        return archived.get();
+    }
+
+    /** Get the number of times the archiver has checked for events to archive.
+     * @return the number of runs.
+     */
+    public long getRunCount() {
+        return runs.get();
+    }
+
+    /** Start archiving events. */
+    public void start() {
+        executor.scheduleAtFixedRate(() -> {
+            try {
+                archive();
+            } catch (FatalRetriableIndexingException e) {
+                logger.logError("Failed archiving events: " + e.getMessage());
+            } catch (Throwable e) {
+                logger.logError("Unexpected error archiving events: " + e);
+                logger.logError(e);
+            }
+        }, 0, interval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /** Archive all the events that are due for archiving, in batches of {@link #BATCH_SIZE}.
+     * @return the number of events that were archived.
+     * @throws FatalRetriableIndexingException if the storage system could not be contacted.
+     */
+    public long archive() throws FatalRetriableIndexingException {
+        final Instant cutoff = clock.instant().minus(retention);
+        long count = 0;
+        long batch;
+        do {
+            batch = storage.archiveEvents(ARCHIVED_STATES, cutoff, BATCH_SIZE);
+            count += batch;
+            archived.addAndGet(batch);
+        } while (batch >= BATCH_SIZE);
+        runs.incrementAndGet();
+        if (count > 0) {
+            logger.logInfo(String.format("Archived %s events last updated before %s",
+                    count, cutoff));
+        }
+        return count;
+    }
+
+    @Override
+    public void stop(long millisToWait) throws InterruptedException {
+        if (millisToWait < 0) {
+            millisToWait = 0;
+        }
+        executor.shutdown();
+        executor.awaitTermination(millisToWait, TimeUnit.MILLISECONDS);
+        signalMonitor.signal();
+    }
+
+    @Override
+    public void awaitShutdown() throws InterruptedException {
+        signalMonitor.awaitSignal();
+    }
+}
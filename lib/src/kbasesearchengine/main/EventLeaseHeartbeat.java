@@ -0,0 +1,190 @@
+package kbasesearchengine.main;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import kbasesearchengine.events.StatusEventID;
+import kbasesearchengine.events.exceptions.FatalRetriableIndexingException;
+import kbasesearchengine.events.storage.StatusEventStorage;
+import kbasesearchengine.tools.Utils;
+
+/** Periodically renews the leases on the events an indexer worker is processing, so that
+ * the {@link EventLeaseReaper} doesn't return them to the ready state while the worker is still
+ * alive. Leases are renewed three times per lease period, so a single failed renewal does not
+ * cause a lease to expire.
+ *
+ * This class is thread safe.
+ */
+public class EventLeaseHeartbeat implements Stoppable {
+
+    private final StatusEventStorage storage;
+    private final String leaseOwner;
+    private final Duration leaseDuration;
+    private final LineLogger logger;
+    private final ScheduledExecutorService executor;
+    private final SignalMonitor signalMonitor = new SignalMonitor();
+    private final Set<StatusEventID> held = ConcurrentHashMap.newKeySet();
+    private final AtomicLong renewed = new AtomicLong();
+    private final AtomicLong lost = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    /** Create the heartbeat.
+     * @param storage the storage system containing the leased events.
+     * @param leaseOwner the owner of the leases, usually the worker ID.
+     * @param leaseDuration the duration of the leases.
+     * @param logger a logger.
+     */
+    public EventLeaseHeartbeat(
+            final StatusEventStorage storage,
+            final String leaseOwner,
+            final Duration leaseDuration,
+            final LineLogger logger) {
+        this(storage, leaseOwner, leaseDuration, logger,
+                Executors.newSingleThreadScheduledExecutor());
+    }
+
+    /** Create the heartbeat with an alternate executor. Used for testing.
+     * @param storage the storage system containing the leased events.
+     * @param leaseOwner the owner of the leases, usually the worker ID.
+     * @param leaseDuration the duration of the leases.
+     * @param logger a logger.
+     * @param testExecutor a single thread executor, usually a mock.
+     */
+    public EventLeaseHeartbeat(
+            final StatusEventStorage storage,
+            final String leaseOwner,
+            final Duration leaseDuration,
+            final LineLogger logger,
+            final ScheduledExecutorService testExecutor) {
+        Utils.nonNull(storage, "storage");
+        Utils.notNullOrEmpty(leaseOwner, "leaseOwner cannot be null or whitespace only");
+        Utils.nonNull(leaseDuration, "leaseDuration");
+        if (leaseDuration.isNegative() || leaseDuration.isZero()) {
+            throw new IllegalArgumentException("leaseDuration must be positive");
+        }
+        Utils.nonNull(logger, "logger");
+        Utils.nonNull(testExecutor, "testExecutor");
+        this.storage = storage;
+        this.leaseOwner = leaseOwner;
+        this.leaseDuration = leaseDuration;
+        this.logger = logger;
+        this.executor = testExecutor;
+    }
+
+    /** Get the lease owner.
+     * @return the lease owner.
+     */
+    public String getLeaseOwner() {
+        return leaseOwner;
+    }
+
+    /** Get the lease duration.
+     * @return the lease duration.
+     */
+    public Duration getLeaseDuration() {
+        return leaseDuration;
+    }
+
+    /** Start renewing the lease on an event.
+     * @param id the ID of the leased event.
+     */
+    public void hold(final StatusEventID id) {
+        Utils.nonNull(id, "id");
+        held.add(id);
+    }
+
+    /** Stop renewing the lease on an event, usually because processing is complete.
+     * @param id the ID of the leased event.
+     */
+    public void release(final StatusEventID id) {
+        Utils.nonNull(id, "id");
+        held.remove(id);
+    }
+
+    /** Get the IDs of the events whose leases are being renewed.
+     * @return the event IDs.
+     */
+    public Set<StatusEventID> getHeldEvents() {
+        return Collections.unmodifiableSet(new HashSet<>(held));
+    }
+
+    /** Get the number of successful lease renewals.
+     * @return the number of renewals.
+     */
+    public long getRenewedCount() {
+        return renewed.get();
+    }
+
+    /** Get the number of leases that were lost, meaning that the event was no longer leased to
+     * the lease owner when a renewal was attempted.
+     * @return the number of lost leases.
+     */
+    public long getLostCount() {
+        return lost.get();
+    }
+
+    /** Get the number of renewals that failed due to a storage error.
+     * @return the number of failed renewals.
+     */
+    public long getFailedCount() {
+        return failed.get();
+    }
+
+    /** Start renewing leases. */
+    public void start() {
+        final long period = Math.max(1, leaseDuration.toMillis() / 3);
+        executor.scheduleAtFixedRate(() -> {
+            try {
+                renewLeases();
+            } catch (Throwable e) {
+                logger.logError("Unexpected error renewing event leases: " + e);
+                logger.logError(e);
+            }
+        }, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /** Renew the leases on all the held events once. Events whose leases have been lost are no
+     * longer held.
+     */
+    public void renewLeases() {
+        for (final StatusEventID id: held) {
+            try {
+                if (storage.renewLease(id, leaseOwner, leaseDuration)) {
+                    renewed.incrementAndGet();
+                } else {
+                    held.remove(id);
+                    lost.incrementAndGet();
+                    logger.logError(String.format("Lost lease on event %s for owner %s",
+                            id.getId(), leaseOwner));
+                }
+            } catch (FatalRetriableIndexingException e) {
+                // try again next time, there's still 2/3 of the lease left
+                failed.incrementAndGet();
+                logger.logError(String.format("Failed renewing lease on event %s: %s",
+                        id.getId(), e.getMessage()));
+            }
+        }
+    }
+
+    @Override
+    public void stop(long millisToWait) throws InterruptedException {
+        if (millisToWait < 0) {
+            millisToWait = 0;
+        }
+        executor.shutdown();
+        executor.awaitTermination(millisToWait, TimeUnit.MILLISECONDS);
+        signalMonitor.signal();
+    }
+
+    @Override
+    public void awaitShutdown() throws InterruptedException {
+        signalMonitor.awaitSignal();
+    }
+}
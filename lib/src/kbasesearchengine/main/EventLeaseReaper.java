@@ -0,0 +1,131 @@
+package kbasesearchengine.main;
+
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import kbasesearchengine.events.StatusEventProcessingState;
+import kbasesearchengine.events.exceptions.FatalRetriableIndexingException;
+import kbasesearchengine.events.storage.StatusEventStorage;
+import kbasesearchengine.tools.Utils;
+
+/** Periodically returns {@link StatusEventProcessingState#PROC} events whose leases have
+ * expired to {@link StatusEventProcessingState#READY}, so events held by a crashed
+ * indexer worker are picked up by another worker rather than blocking their access group
+ * forever.
+ *
+ * Only one reaper needs to run at one time, usually alongside the indexer coordinator.
+ *
+ * This class is thread safe.
+ */
+public class EventLeaseReaper implements Stoppable {
+
+    /** The updater ID recorded on reclaimed events. */
+    public static final String UPDATER = "LeaseReaper";
+
+    private final StatusEventStorage storage;
+    private final Duration interval;
+    private final LineLogger logger;
+    private final ScheduledExecutorService executor;
+    private final SignalMonitor signalMonitor = new SignalMonitor();
+    private final AtomicLong reclaimed = new AtomicLong();
+    private final AtomicLong runs = new AtomicLong();
+
+    /** Create the reaper.
+     * @param storage the storage system containing the leased events.
+     * @param interval the time between checks for expired leases.
+     * @param logger a logger.
+     */
+    public EventLeaseReaper(
+            final StatusEventStorage storage,
+            final Duration interval,
+            final LineLogger logger) {
+        this(storage, interval, logger, Executors.newSingleThreadScheduledExecutor());
+    }
+
+    /** Create the reaper with an alternate executor. Used for testing.
+     * @param storage the storage system containing the leased events.
+     * @param interval the time between checks for expired leases.
+     * @param logger a logger.
+     * @param testExecutor a single thread executor, usually a mock.
+     */
+    public EventLeaseReaper(
+            final StatusEventStorage storage,
+            final Duration interval,
+            final LineLogger logger,
+            final ScheduledExecutorService testExecutor) {
+        Utils.nonNull(storage, "storage");
+        Utils.nonNull(interval, "interval");
+        if (interval.isNegative() || interval.isZero()) {
+            throw new IllegalArgumentException("interval must be positive");
+        }
+        Utils.nonNull(logger, "logger");
+        Utils.nonNull(testExecutor, "testExecutor");
+        this.storage = storage;
+        this.interval = interval;
+        this.logger = logger;
+        this.executor = testExecutor;
+    }
+
+    /** Get the total number of events that have been returned to the ready state.
+     * @return the number of reclaimed events.
+     */
+    public long getReclaimedCount() {
+        return reclaimed.get();
+    }
+
+    /** Get the number of times the reaper has checked for expired leases.
+     * @return the number of runs.
+     */
+    public long getRunCount() {
+        return runs.get();
+    }
+
+    /** Start checking for expired leases. */
+    public void start() {
+        executor.scheduleAtFixedRate(() -> {
+            try {
+                reap();
+            } catch (FatalRetriableIndexingException e) {
+                logger.logError("Failed reclaiming expired event leases: " + e.getMessage());
+            } catch (Throwable e) {
+                logger.logError("Unexpected error reclaiming expired event leases: " + e);
+                logger.logError(e);
+            }
+        }, 0, interval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /** Check for expired leases once.
+     * @return the number of events that were returned to the ready state.
+     * @throws FatalRetriableIndexingException if the storage system could not be contacted.
+     */
+    public long reap() throws FatalRetriableIndexingException {
+        final long count = storage.reclaimExpiredLeases(StatusEventProcessingState.PROC,
+                StatusEventProcessingState.READY, UPDATER);
+        runs.incrementAndGet();
+        if (count > 0) {
+            reclaimed.addAndGet(count);
+            logger.logInfo(String.format(
+                    "Returned %s events with expired leases from %s to %s", count,
+                    StatusEventProcessingState.PROC, StatusEventProcessingState.READY));
+        }
+        return count;
+    }
+
+    @Override
+    public void stop(long millisToWait) throws InterruptedException {
+        if (millisToWait < 0) {
+            millisToWait = 0;
+        }
+        executor.shutdown();
+        executor.awaitTermination(millisToWait, TimeUnit.MILLISECONDS);
+        signalMonitor.signal();
+    }
+
+    @Override
+    public void awaitShutdown() throws InterruptedException {
+        signalMonitor.awaitSignal();
+    }
+}
@@ -0,0 +1,460 @@
+package kbasesearchengine.main;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.base.Optional;
+
+import kbasesearchengine.common.GUID;
+import kbasesearchengine.events.StatusEventPriority;
+import kbasesearchengine.events.StatusEventProcessingState;
+import kbasesearchengine.events.StatusEventType;
+import kbasesearchengine.events.exceptions.DownstreamCircuitBreakers;
+import kbasesearchengine.events.exceptions.FatalRetriableIndexingException;
+import kbasesearchengine.events.storage.LaneStatistics;
+import kbasesearchengine.events.storage.StatusEventStatistics;
+import kbasesearchengine.tools.Utils;
+
+/** Metrics for the event processing pipeline. Event counts, the age of the oldest unprocessed
+ * event, the depth and age of each priority lane, and event processing rates are read from the
+ * {@link StatusEventStatistics} of the event storage system, and so are consistent across all
+ * the workers. These values may be
+ * cached for a period of time to limit the load on the storage system from frequent requests.
+ *
+ * Load, parse, and index timings are recorded via {@link #timeStat(GUID, long, long, long)},
+ * usually from a {@link LineLogger#timeStat(GUID, long, long, long)} implementation, and so
+ * only cover the indexing in the current process. The same applies to the counts of already
+ * indexed objects that were checked for changes and skipped, recorded via
+ * {@link #skipStat(GUID, boolean)}. Likewise, the state of the circuit breakers is reported if
+ * the process provides its {@link DownstreamCircuitBreakers}, and the lease renewal and
+ * reclamation counts are reported if the process registers its {@link EventLeaseHeartbeat} or
+ * {@link EventLeaseReaper}.
+ *
+ * This class is thread safe.
+ */
+public class EventMetrics {
+
+    /** The default time window over which event processing rates are calculated. */
+    public static final Duration DEFAULT_RATE_WINDOW = Duration.ofMinutes(5);
+
+    // the states for which per worker code counts are reported, by metric label
+    private static final Map<String, StatusEventProcessingState> COUNTED_STATES;
+    static {
+        final Map<String, StatusEventProcessingState> states = new LinkedHashMap<>();
+        states.put("queued", StatusEventProcessingState.UNPROC);
+        states.put("ready", StatusEventProcessingState.READY);
+        states.put("processing", StatusEventProcessingState.PROC);
+        states.put("failed", StatusEventProcessingState.FAIL);
+        COUNTED_STATES = Collections.unmodifiableMap(states);
+    }
+
+    // events in these states have not yet been claimed by a worker
+    private static final Set<StatusEventProcessingState> UNPROCESSED_STATES =
+            Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+                    StatusEventProcessingState.UNPROC, StatusEventProcessingState.READY)));
+
+    // events in these states have been processed by a worker
+    private static final Set<StatusEventProcessingState> PROCESSED_STATES =
+            Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+                    StatusEventProcessingState.INDX,
+                    StatusEventProcessingState.UNINDX,
+                    StatusEventProcessingState.FAIL)));
+
+    private final StatusEventStatistics storage;
+    private final Duration rateWindow;
+    private final Duration cacheTime;
+    private final Clock clock;
+    private final Optional<DownstreamCircuitBreakers> circuitBreakers;
+    private final AtomicLong loads = new AtomicLong();
+    private final AtomicLong loadMs = new AtomicLong();
+    private final AtomicLong indexes = new AtomicLong();
+    private final AtomicLong parseMs = new AtomicLong();
+    private final AtomicLong indexMs = new AtomicLong();
+    private final AtomicLong checks = new AtomicLong();
+    private final AtomicLong skips = new AtomicLong();
+    // set after construction since the worker creates its heartbeat internally
+    private volatile Optional<EventLeaseHeartbeat> heartbeat = Optional.absent();
+    private volatile Optional<EventLeaseReaper> reaper = Optional.absent();
+    // guarded by this
+    private Snapshot snapshot = null;
+
+    /** Create the metrics with the {@link #DEFAULT_RATE_WINDOW}.
+     * @param storage the storage system containing the events.
+     */
+    public EventMetrics(final StatusEventStatistics storage) {
+        this(storage, DEFAULT_RATE_WINDOW, Clock.systemDefaultZone());
+    }
+
+    /** Create the metrics with the {@link #DEFAULT_RATE_WINDOW}, caching the values read from
+     * the storage system.
+     * @param storage the storage system containing the events.
+     * @param cacheTime the length of time the values read from the storage system are reused
+     * before the storage system is queried again.
+     */
+    public EventMetrics(final StatusEventStatistics storage, final Duration cacheTime) {
+        this(storage, DEFAULT_RATE_WINDOW, cacheTime, Clock.systemDefaultZone(),
+                Optional.absent());
+    }
+
+    /** Create the metrics with the {@link #DEFAULT_RATE_WINDOW}, including the state of a set
+     * of circuit breakers.
+     * @param storage the storage system containing the events.
+     * @param circuitBreakers the circuit breakers used by the current process.
+     */
+    public EventMetrics(
+            final StatusEventStatistics storage,
+            final DownstreamCircuitBreakers circuitBreakers) {
+        this(storage, DEFAULT_RATE_WINDOW, Clock.systemDefaultZone(),
+                checkBreakers(circuitBreakers));
+    }
+
+    private static Optional<DownstreamCircuitBreakers> checkBreakers(
+            final DownstreamCircuitBreakers circuitBreakers) {
+        Utils.nonNull(circuitBreakers, "circuitBreakers");
+        return Optional.of(circuitBreakers);
+    }
+
+    /** Create the metrics.
+     * @param storage the storage system containing the events.
+     * @param rateWindow the time window over which event processing rates are calculated.
+     * @param clock a clock. Usually a mock for testing.
+     */
+    public EventMetrics(
+            final StatusEventStatistics storage,
+            final Duration rateWindow,
+            final Clock clock) {
+        this(storage, rateWindow, clock, Optional.absent());
+    }
+
+    /** Create the metrics, including the state of a set of circuit breakers.
+     * @param storage the storage system containing the events.
+     * @param rateWindow the time window over which event processing rates are calculated.
+     * @param clock a clock. Usually a mock for testing.
+     * @param circuitBreakers the circuit breakers used by the current process, if any.
+     */
+    public EventMetrics(
+            final StatusEventStatistics storage,
+            final Duration rateWindow,
+            final Clock clock,
+            final Optional<DownstreamCircuitBreakers> circuitBreakers) {
+        this(storage, rateWindow, Duration.ZERO, clock, circuitBreakers);
+    }
+
+    /** Create the metrics, including the state of a set of circuit breakers and caching the
+     * values read from the storage system.
+     * @param storage the storage system containing the events.
+     * @param rateWindow the time window over which event processing rates are calculated.
+     * @param cacheTime the length of time the values read from the storage system are reused
+     * before the storage system is queried again. Zero disables caching.
+     * @param clock a clock. Usually a mock for testing.
+     * @param circuitBreakers the circuit breakers used by the current process, if any.
+     */
+    public EventMetrics(
+            final StatusEventStatistics storage,
+            final Duration rateWindow,
+            final Duration cacheTime,
+            final Clock clock,
+            final Optional<DownstreamCircuitBreakers> circuitBreakers) {
+        Utils.nonNull(storage, "storage");
+        Utils.nonNull(rateWindow, "rateWindow");
+        if (rateWindow.getSeconds() < 1) {
+            throw new IllegalArgumentException("rateWindow must be at least 1 second");
+        }
+        Utils.nonNull(cacheTime, "cacheTime");
+        if (cacheTime.isNegative()) {
+            throw new IllegalArgumentException("cacheTime cannot be negative");
+        }
+        Utils.nonNull(clock, "clock");
+        Utils.nonNull(circuitBreakers, "circuitBreakers");
+        this.storage = storage;
+        this.rateWindow = rateWindow;
+        this.cacheTime = cacheTime;
+        this.clock = clock;
+        this.circuitBreakers = circuitBreakers;
+    }
+
+    /** Record the time taken to process an object. The indexer reports the load time and the
+     * parse and index times separately, so a call with a zero parse and index time is counted
+     * as a load and any other call is counted as a parse and index.
+     * @param guid the object that was processed.
+     * @param loadMs the time taken to load the object from the data source in milliseconds.
+     * @param parseMs the time taken to parse the object in milliseconds.
+     * @param indexMs the time taken to index the object in milliseconds.
+     */
+    public void timeStat(
+            final GUID guid,
+            final long loadMs,
+            final long parseMs,
+            final long indexMs) {
+        if (parseMs == 0 && indexMs == 0) {
+            loads.incrementAndGet();
+        } else {
+            indexes.incrementAndGet();
+        }
+        this.loadMs.addAndGet(loadMs);
+        this.parseMs.addAndGet(parseMs);
+        this.indexMs.addAndGet(indexMs);
+    }
+
+    /** Record the result of checking whether an already indexed object has changed in the
+     * data source since it was indexed.
+     * @param guid the object that was checked.
+     * @param skipped true if the object was unchanged and reindexing was skipped, false if the
+     * object was reindexed.
+     */
+    public void skipStat(final GUID guid, final boolean skipped) {
+        checks.incrementAndGet();
+        if (skipped) {
+            skips.incrementAndGet();
+        }
+    }
+
+    /** Report the lease renewal counts of a heartbeat with the metrics.
+     * @param heartbeat the heartbeat used by the current process.
+     */
+    public void setLeaseHeartbeat(final EventLeaseHeartbeat heartbeat) {
+        Utils.nonNull(heartbeat, "heartbeat");
+        this.heartbeat = Optional.of(heartbeat);
+    }
+
+    /** Report the lease reclamation counts of a reaper with the metrics.
+     * @param reaper the reaper used by the current process.
+     */
+    public void setLeaseReaper(final EventLeaseReaper reaper) {
+        Utils.nonNull(reaper, "reaper");
+        this.reaper = Optional.of(reaper);
+    }
+
+    /** Get the metrics as a structure suitable for the service status method.
+     * @return the metrics.
+     * @throws FatalRetriableIndexingException if the storage system could not be contacted.
+     */
+    public Map<String, Object> getStatus() throws FatalRetriableIndexingException {
+        final Snapshot s = getSnapshot();
+        final Map<String, Object> ret = new LinkedHashMap<>();
+        for (final Entry<String, Map<String, Long>> e: s.counts.entrySet()) {
+            ret.put(e.getKey(), e.getValue());
+        }
+        ret.put("oldest_unprocessed_age_ms", s.oldestAge == null ? null : s.oldestAge.toMillis());
+        final Map<String, Object> lanes = new LinkedHashMap<>();
+        for (final Entry<String, Map<StatusEventPriority, LaneStatistics>> e:
+                s.lanes.entrySet()) {
+            final Map<String, Object> states = new LinkedHashMap<>();
+            for (final LaneStatistics l: e.getValue().values()) {
+                final Duration age = getAge(l, s.time);
+                final Map<String, Object> lane = new LinkedHashMap<>();
+                lane.put("depth", l.getCount());
+                lane.put("oldest_age_ms", age == null ? null : age.toMillis());
+                states.put(l.getPriority().toString(), lane);
+            }
+            lanes.put(e.getKey(), states);
+        }
+        ret.put("lanes", lanes);
+        ret.put("rate_window_sec", rateWindow.getSeconds());
+        final Map<String, Double> rates = new TreeMap<>();
+        for (final Entry<StatusEventType, Double> e: s.rates.entrySet()) {
+            rates.put(e.getKey().toString(), e.getValue());
+        }
+        ret.put("events_per_sec", rates);
+        final Map<String, Long> timing = new LinkedHashMap<>();
+        timing.put("loads", loads.get());
+        timing.put("indexes", indexes.get());
+        timing.put("load_ms", loadMs.get());
+        timing.put("parse_ms", parseMs.get());
+        timing.put("index_ms", indexMs.get());
+        ret.put("timing", timing);
+        final Map<String, Long> skip = new LinkedHashMap<>();
+        skip.put("checks", checks.get());
+        skip.put("skips", skips.get());
+        ret.put("skip", skip);
+        if (circuitBreakers.isPresent()) {
+            ret.put("circuit_breakers", circuitBreakers.get().getStatus());
+        }
+        final Optional<EventLeaseHeartbeat> hb = heartbeat;
+        final Optional<EventLeaseReaper> rp = reaper;
+        if (hb.isPresent() || rp.isPresent()) {
+            final Map<String, Long> leases = new LinkedHashMap<>();
+            if (hb.isPresent()) {
+                leases.put("renewed", hb.get().getRenewedCount());
+                leases.put("lost", hb.get().getLostCount());
+                leases.put("renew_failed", hb.get().getFailedCount());
+            }
+            if (rp.isPresent()) {
+                leases.put("reclaimed", rp.get().getReclaimedCount());
+                leases.put("reaper_runs", rp.get().getRunCount());
+            }
+            ret.put("leases", leases);
+        }
+        return ret;
+    }
+
+    /** Get the metrics in the plain text exposition format used by Prometheus and compatible
+     * scrapers.
+     * @return the metrics.
+     * @throws FatalRetriableIndexingException if the storage system could not be contacted.
+     */
+    public String getText() throws FatalRetriableIndexingException {
+        final Snapshot s = getSnapshot();
+        final StringBuilder sb = new StringBuilder();
+        sb.append("# TYPE search_events gauge\n");
+        for (final Entry<String, Map<String, Long>> e: s.counts.entrySet()) {
+            for (final Entry<String, Long> code: e.getValue().entrySet()) {
+                sb.append(String.format("search_events{state=\"%s\",worker_code=\"%s\"} %s\n",
+                        e.getKey(), escape(code.getKey()), code.getValue()));
+            }
+        }
+        sb.append("# TYPE search_oldest_unprocessed_event_age_seconds gauge\n");
+        sb.append("search_oldest_unprocessed_event_age_seconds ")
+                .append(s.oldestAge == null ? 0.0 : s.oldestAge.toMillis() / 1000.0).append("\n");
+        sb.append("# TYPE search_event_lane_depth gauge\n");
+        for (final Entry<String, Map<StatusEventPriority, LaneStatistics>> e:
+                s.lanes.entrySet()) {
+            for (final LaneStatistics l: e.getValue().values()) {
+                sb.append(String.format("search_event_lane_depth{state=\"%s\",lane=\"%s\"} %s\n",
+                        e.getKey(), l.getPriority(), l.getCount()));
+            }
+        }
+        sb.append("# TYPE search_event_lane_oldest_age_seconds gauge\n");
+        for (final Entry<String, Map<StatusEventPriority, LaneStatistics>> e:
+                s.lanes.entrySet()) {
+            for (final LaneStatistics l: e.getValue().values()) {
+                final Duration age = getAge(l, s.time);
+                sb.append(String.format(
+                        "search_event_lane_oldest_age_seconds{state=\"%s\",lane=\"%s\"} %s\n",
+                        e.getKey(), l.getPriority(), age == null ? 0.0 : age.toMillis() / 1000.0));
+            }
+        }
+        sb.append("# TYPE search_events_per_second gauge\n");
+        for (final Entry<StatusEventType, Double> e: s.rates.entrySet()) {
+            sb.append(String.format("search_events_per_second{type=\"%s\"} %s\n",
+                    e.getKey(), e.getValue()));
+        }
+        sb.append("# TYPE search_objects_loaded_total counter\n");
+        sb.append("search_objects_loaded_total ").append(loads.get()).append("\n");
+        sb.append("# TYPE search_objects_indexed_total counter\n");
+        sb.append("search_objects_indexed_total ").append(indexes.get()).append("\n");
+        sb.append("# TYPE search_objects_checked_total counter\n");
+        sb.append("search_objects_checked_total ").append(checks.get()).append("\n");
+        sb.append("# TYPE search_objects_skipped_total counter\n");
+        sb.append("search_objects_skipped_total ").append(skips.get()).append("\n");
+        sb.append("# TYPE search_indexer_time_seconds_total counter\n");
+        appendTime(sb, "load", loadMs);
+        appendTime(sb, "parse", parseMs);
+        appendTime(sb, "index", indexMs);
+        if (circuitBreakers.isPresent()) {
+            appendCircuitBreakers(sb, circuitBreakers.get().getStatus());
+        }
+        final Optional<EventLeaseHeartbeat> hb = heartbeat;
+        if (hb.isPresent()) {
+            sb.append("# TYPE search_event_lease_renewals_total counter\n");
+            appendRenewals(sb, "renewed", hb.get().getRenewedCount());
+            appendRenewals(sb, "lost", hb.get().getLostCount());
+            appendRenewals(sb, "failed", hb.get().getFailedCount());
+        }
+        final Optional<EventLeaseReaper> rp = reaper;
+        if (rp.isPresent()) {
+            sb.append("# TYPE search_event_leases_reclaimed_total counter\n");
+            sb.append("search_event_leases_reclaimed_total ")
+                    .append(rp.get().getReclaimedCount()).append("\n");
+        }
+        return sb.toString();
+    }
+
+    private void appendCircuitBreakers(final StringBuilder sb, final Map<String, Object> status) {
+        sb.append("# TYPE search_circuit_breaker_open gauge\n");
+        for (final Entry<String, Object> e: status.entrySet()) {
+            final Map<?, ?> breaker = (Map<?, ?>) e.getValue();
+            sb.append(String.format("search_circuit_breaker_open{breaker=\"%s\"} %s\n",
+                    escape(e.getKey()), "CLOSED".equals(breaker.get("state")) ? 0 : 1));
+        }
+        sb.append("# TYPE search_circuit_breaker_failure_rate gauge\n");
+        for (final Entry<String, Object> e: status.entrySet()) {
+            sb.append(String.format("search_circuit_breaker_failure_rate{breaker=\"%s\"} %s\n",
+                    escape(e.getKey()), ((Map<?, ?>) e.getValue()).get("failure_rate")));
+        }
+    }
+
+    private void appendRenewals(final StringBuilder sb, final String result, final long count) {
+        sb.append(String.format("search_event_lease_renewals_total{result=\"%s\"} %s\n",
+                result, count));
+    }
+
+    private void appendTime(final StringBuilder sb, final String step, final AtomicLong ms) {
+        sb.append(String.format("search_indexer_time_seconds_total{step=\"%s\"} %s\n",
+                step, ms.get() / 1000.0));
+    }
+
+    // event timestamps come from the data source and may be a little ahead of this clock
+    private static Duration getAge(final LaneStatistics lane, final Instant now) {
+        final Duration age = lane.getAge(now).orNull();
+        return age == null || !age.isNegative() ? age : Duration.ZERO;
+    }
+
+    private static String escape(final String label) {
+        return label.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    private static class Snapshot {
+
+        private final Instant time;
+        private final Map<String, Map<String, Long>> counts = new LinkedHashMap<>();
+        private Duration oldestAge = null;
+        // lane statistics for the unprocessed states, by metric label
+        private final Map<String, Map<StatusEventPriority, LaneStatistics>> lanes =
+                new LinkedHashMap<>();
+        private final Map<StatusEventType, Double> rates = new TreeMap<>();
+
+        private Snapshot(final Instant time) {
+            this.time = time;
+        }
+    }
+
+    private synchronized Snapshot getSnapshot() throws FatalRetriableIndexingException {
+        final Instant now = clock.instant();
+        if (snapshot != null && now.isBefore(snapshot.time.plus(cacheTime))) {
+            return snapshot;
+        }
+        snapshot = readSnapshot(now);
+        return snapshot;
+    }
+
+    private Snapshot readSnapshot(final Instant now) throws FatalRetriableIndexingException {
+        final Snapshot s = new Snapshot(now);
+        Instant oldest = null;
+        for (final Entry<String, StatusEventProcessingState> e: COUNTED_STATES.entrySet()) {
+            s.counts.put(e.getKey(), new TreeMap<>(storage.getWorkerCodeCounts(e.getValue())));
+            if (!UNPROCESSED_STATES.contains(e.getValue())) {
+                continue;
+            }
+            final Map<StatusEventPriority, LaneStatistics> lanes = new TreeMap<>(
+                    storage.getLaneStatistics(e.getValue()));
+            s.lanes.put(e.getKey(), lanes);
+            for (final LaneStatistics l: lanes.values()) {
+                final Instant t = l.getOldestEventTime().orNull();
+                if (t != null && (oldest == null || t.isBefore(oldest))) {
+                    oldest = t;
+                }
+            }
+        }
+        if (oldest != null) {
+            // event timestamps come from the data source and may be a little ahead of this clock
+            s.oldestAge = oldest.isAfter(now) ? Duration.ZERO : Duration.between(oldest, now);
+        }
+        final double windowSec = rateWindow.getSeconds();
+        for (final Entry<StatusEventType, Long> e: storage.getEventTypeCounts(
+                PROCESSED_STATES, now.minus(rateWindow)).entrySet()) {
+            s.rates.put(e.getKey(), e.getValue() / windowSec);
+        }
+        return s;
+    }
+}
@@ -0,0 +1,542 @@
+package kbasesearchengine.main;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+
+import com.google.common.base.Optional;
+
+import kbasesearchengine.events.ChildStatusEvent;
+import kbasesearchengine.events.StatusEvent;
+import kbasesearchengine.events.StatusEventID;
+import kbasesearchengine.events.StatusEventPriority;
+import kbasesearchengine.events.StatusEventProcessingState;
+import kbasesearchengine.events.StatusEventType;
+import kbasesearchengine.events.StoredChildStatusEvent;
+import kbasesearchengine.events.StoredStatusEvent;
+import kbasesearchengine.events.exceptions.FatalIndexingException;
+import kbasesearchengine.events.exceptions.FatalRetriableIndexingException;
+import kbasesearchengine.events.storage.FailedEventQuery;
+import kbasesearchengine.events.storage.StatusEventStorage;
+import kbasesearchengine.tools.Utils;
+
+/** Replays events and child events that are in the {@link StatusEventProcessingState#FAIL}
+ * state, usually once the cause of the failures has been fixed. The events to replay are
+ * selected with a {@link FailedEventQuery}. Events can be replayed in one of two ways:
+ *
+ * <ul>
+ * <li>{@link #reset(FailedEventQuery)} moves the events back to
+ * {@link StatusEventProcessingState#UNPROC} in bulk, so that they are processed by the
+ * running indexers. Child events are stored as new events in the
+ * {@link StatusEventPriority#BULK} priority lane and deleted.</li>
+ * <li>{@link #reprocess(FailedEventQuery, List, long)} processes the events inline with a
+ * set of {@link Reprocessor}s running in parallel.</li>
+ * </ul>
+ *
+ * Only events that failed before the replay started are replayed, so events that fail again
+ * are not retried in a loop.
+ *
+ * This class is not thread safe.
+ */
+public class FailedEventReplayer {
+
+    /** The maximum number of events read from the storage system in one request. */
+    public static final int BATCH_SIZE = 1000;
+
+    /** The updater recorded for, and the storing entity of, replayed events. */
+    public static final String UPDATER = "replay";
+
+    private final StatusEventStorage storage;
+    private final LineLogger logger;
+    private final Clock clock;
+
+    /** Processes failed events. A reprocessor is only ever used by one thread at a time and so
+     * need not be thread safe.
+     */
+    public interface Reprocessor {
+
+        /** Process an event. The event has been moved to the
+         * {@link StatusEventProcessingState#PROC} state, and the reprocessor is responsible for
+         * moving it to its final state, including recording error information if processing
+         * fails.
+         * @param event the event.
+         * @return the final state of the event.
+         * @throws InterruptedException if the thread is interrupted.
+         * @throws FatalIndexingException if an unrecoverable error occurs. The replay is
+         * halted.
+         */
+        StatusEventProcessingState reprocess(StoredStatusEvent event)
+                throws InterruptedException, FatalIndexingException;
+
+        /** Process a child event. If processing fails the reprocessor must store a new failed
+         * child event, as the replayer deletes the original child event.
+         * @param event the child event.
+         * @return the final state of the event.
+         * @throws InterruptedException if the thread is interrupted.
+         * @throws FatalIndexingException if an unrecoverable error occurs. The replay is
+         * halted and the child event is not deleted.
+         */
+        StatusEventProcessingState reprocess(ChildStatusEvent event)
+                throws InterruptedException, FatalIndexingException;
+    }
+
+    /** Create the replayer.
+     * @param storage the storage system containing the events.
+     * @param logger a logger.
+     */
+    public FailedEventReplayer(final StatusEventStorage storage, final LineLogger logger) {
+        this(storage, logger, Clock.systemDefaultZone());
+    }
+
+    /** Create the replayer with an alternate clock. Used for testing.
+     * @param storage the storage system containing the events.
+     * @param logger a logger.
+     * @param clock a clock, usually a mock.
+     */
+    public FailedEventReplayer(
+            final StatusEventStorage storage,
+            final LineLogger logger,
+            final Clock clock) {
+        Utils.nonNull(storage, "storage");
+        Utils.nonNull(logger, "logger");
+        Utils.nonNull(clock, "clock");
+        this.storage = storage;
+        this.logger = logger;
+        this.clock = clock;
+    }
+
+    /** Count the events that a replay would replay, without changing any events.
+     * @param query the query selecting the events.
+     * @return the counts of the selected events and child events.
+     * @throws FatalRetriableIndexingException if the storage system could not be contacted.
+     */
+    public Summary getSummary(final FailedEventQuery query)
+            throws FatalRetriableIndexingException {
+        Utils.nonNull(query, "query");
+        return new Summary(storage.getFailedCounts(query), storage.getFailedChildCounts(query));
+    }
+
+    private FailedEventQuery failedBefore(final FailedEventQuery query, final Instant start) {
+        Utils.nonNull(query, "query");
+        if (query.getFailedBefore().isPresent() &&
+                query.getFailedBefore().get().isBefore(start)) {
+            return query;
+        }
+        return FailedEventQuery.getBuilder(query).withFailedBefore(start).build();
+    }
+
+    /** Move the selected events to the {@link StatusEventProcessingState#UNPROC} state so they
+     * are processed by the running indexers. Child events have no processing state, and so
+     * are stored as new events, with the worker codes of their parent event if it exists, and
+     * deleted. Each child event is stored at most once, so a reset that fails part way through
+     * can be rerun.
+     * @param query the query selecting the events.
+     * @return a report of the replay. All events are counted in the
+     * {@link StatusEventProcessingState#UNPROC} state.
+     * @throws FatalRetriableIndexingException if the storage system could not be contacted.
+     */
+    public Report reset(final FailedEventQuery query) throws FatalRetriableIndexingException {
+        final Instant start = clock.instant();
+        final FailedEventQuery q = failedBefore(query, start);
+        final Report.Builder report = new Report.Builder(start);
+        final StatusEventProcessingState unproc = StatusEventProcessingState.UNPROC;
+        report.addEvents(unproc, storage.resetFailed(q, unproc, UPDATER));
+        List<StoredChildStatusEvent> children;
+        do {
+            children = storage.getFailedChildren(q, BATCH_SIZE);
+            final Map<StatusEventID, Map<String, StatusEvent>> byParent =
+                    new LinkedHashMap<>();
+            final List<StatusEventID> ids = new LinkedList<>();
+            for (final StoredChildStatusEvent c: children) {
+                byParent.computeIfAbsent(c.getChildEvent().getID(), k -> new LinkedHashMap<>())
+                        .put(getResetKey(c), c.getChildEvent().getEvent());
+                ids.add(c.getID());
+            }
+            for (final StatusEventID parentID: byParent.keySet()) {
+                final Optional<StoredStatusEvent> parent = storage.get(parentID);
+                storage.storeAllUnique(byParent.get(parentID), unproc,
+                        parent.isPresent() ? parent.get().getWorkerCodes() : null, UPDATER,
+                        StatusEventPriority.BULK);
+            }
+            storage.deleteChildren(ids);
+            report.addChildren(unproc, ids.size());
+        } while (!children.isEmpty());
+        final Report ret = report.build(clock.instant());
+        logger.logInfo("Reset failed events: " + ret);
+        return ret;
+    }
+
+    /* Child events are stored with a key derived from the child event ID, so if the reset
+     * fails before the child events are deleted, rerunning it doesn't store them again.
+     */
+    private static String getResetKey(final StoredChildStatusEvent child) {
+        return "replay:" + child.getID().getId();
+    }
+
+    /** Process the selected events inline. Events are processed first, followed by child
+     * events, in batches of {@link #BATCH_SIZE}. Within a batch, the events are grouped by
+     * access group, and the groups are processed in parallel with one thread per reprocessor.
+     * The events in a group are processed one at a time in timestamp order, so events for the
+     * same object or access group are never replayed concurrently or out of order.
+     *
+     * Each event is moved from the {@link StatusEventProcessingState#FAIL} state to
+     * {@link StatusEventProcessingState#PROC} just before it is processed, so events that are
+     * modified concurrently by another process are skipped.
+     * @param query the query selecting the events.
+     * @param reprocessors the reprocessors that process the events. The number of reprocessors
+     * determines the parallelism of the replay.
+     * @param limit the maximum number of events and child events to process. If < 1 all
+     * selected events are processed.
+     * @return a report of the replay.
+     * @throws InterruptedException if the thread is interrupted.
+     * @throws FatalIndexingException if a reprocessor throws a fatal exception.
+     * @throws FatalRetriableIndexingException if the storage system could not be contacted.
+     */
+    public Report reprocess(
+            final FailedEventQuery query,
+            final List<Reprocessor> reprocessors,
+            long limit)
+            throws InterruptedException, FatalIndexingException,
+                FatalRetriableIndexingException {
+        Utils.nonNull(reprocessors, "reprocessors");
+        Utils.noNulls(reprocessors, "null item in reprocessors");
+        if (reprocessors.isEmpty()) {
+            throw new IllegalArgumentException("At least one reprocessor is required");
+        }
+        if (limit < 1) {
+            limit = Long.MAX_VALUE;
+        }
+        final Instant start = clock.instant();
+        final FailedEventQuery q = failedBefore(query, start);
+        final Report.Builder report = new Report.Builder(start);
+        final BlockingQueue<Reprocessor> pool = new ArrayBlockingQueue<>(reprocessors.size());
+        pool.addAll(reprocessors);
+        final ExecutorService executor = Executors.newFixedThreadPool(reprocessors.size());
+        try {
+            long remaining = limit;
+            List<StoredStatusEvent> events;
+            do {
+                events = storage.getFailed(q, (int) Math.min(BATCH_SIZE, remaining));
+                final List<Callable<List<Optional<StatusEventProcessingState>>>> tasks =
+                        new LinkedList<>();
+                for (final List<StoredStatusEvent> group: group(events, e -> e.getEvent())) {
+                    tasks.add(() -> withReprocessor(pool, r -> {
+                        final List<Optional<StatusEventProcessingState>> ret =
+                                new LinkedList<>();
+                        for (final StoredStatusEvent ev: group) {
+                            if (storage.setProcessingState(ev.getID(),
+                                    StatusEventProcessingState.FAIL,
+                                    StatusEventProcessingState.PROC)) {
+                                ret.add(Optional.of(r.reprocess(ev)));
+                            } else {
+                                ret.add(Optional.absent());
+                            }
+                        }
+                        return ret;
+                    }));
+                }
+                for (final Optional<StatusEventProcessingState> state: run(executor, tasks)) {
+                    if (state.isPresent()) {
+                        report.addEvents(state.get(), 1);
+                    } else {
+                        report.addSkipped();
+                    }
+                }
+                remaining -= events.size();
+                logProgress(report);
+            } while (!events.isEmpty() && remaining > 0);
+            while (remaining > 0) {
+                final List<StoredChildStatusEvent> children = storage.getFailedChildren(
+                        q, (int) Math.min(BATCH_SIZE, remaining));
+                if (children.isEmpty()) {
+                    break;
+                }
+                final List<Callable<List<Optional<StatusEventProcessingState>>>> tasks =
+                        new LinkedList<>();
+                for (final List<StoredChildStatusEvent> group: group(
+                        children, c -> c.getChildEvent().getEvent())) {
+                    tasks.add(() -> withReprocessor(pool, r -> {
+                        final List<Optional<StatusEventProcessingState>> ret =
+                                new LinkedList<>();
+                        for (final StoredChildStatusEvent c: group) {
+                            ret.add(Optional.of(r.reprocess(c.getChildEvent())));
+                            storage.deleteChildren(Arrays.asList(c.getID()));
+                        }
+                        return ret;
+                    }));
+                }
+                for (final Optional<StatusEventProcessingState> state: run(executor, tasks)) {
+                    report.addChildren(state.get(), 1);
+                }
+                remaining -= children.size();
+                logProgress(report);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        final Report ret = report.build(clock.instant());
+        logger.logInfo("Reprocessed failed events: " + ret);
+        return ret;
+    }
+
+    /* groups events by access group, with each group sorted by timestamp. Groups are in the
+     * order their first event appears in the input.
+     */
+    private static <T> List<List<T>> group(
+            final List<T> events,
+            final Function<T, StatusEvent> getEvent) {
+        final Map<String, List<T>> groups = new LinkedHashMap<>();
+        for (final T e: events) {
+            final StatusEvent ev = getEvent.apply(e);
+            groups.computeIfAbsent(ev.getStorageCode() + ":" + ev.getAccessGroupId().orNull(),
+                    k -> new LinkedList<>()).add(e);
+        }
+        final List<List<T>> ret = new LinkedList<>();
+        for (final List<T> g: groups.values()) {
+            g.sort((e1, e2) -> getEvent.apply(e1).getTimestamp().compareTo(
+                    getEvent.apply(e2).getTimestamp()));
+            ret.add(g);
+        }
+        return ret;
+    }
+
+    private interface ReprocessorCall<T> {
+        T call(Reprocessor reprocessor)
+                throws InterruptedException, FatalIndexingException,
+                    FatalRetriableIndexingException;
+    }
+
+    private <T> T withReprocessor(
+            final BlockingQueue<Reprocessor> pool,
+            final ReprocessorCall<T> call)
+            throws InterruptedException, FatalIndexingException,
+                FatalRetriableIndexingException {
+        final Reprocessor r = pool.take();
+        try {
+            return call.call(r);
+        } finally {
+            pool.put(r);
+        }
+    }
+
+    // waits for all the tasks to complete, and then throws the first exception, if any
+    private <T> List<T> run(
+            final ExecutorService executor,
+            final List<Callable<List<T>>> tasks)
+            throws InterruptedException, FatalIndexingException,
+                FatalRetriableIndexingException {
+        final List<T> ret = new LinkedList<>();
+        Throwable error = null;
+        for (final Future<List<T>> f: executor.invokeAll(tasks)) {
+            try {
+                ret.addAll(f.get());
+            } catch (ExecutionException e) {
+                if (error == null) {
+                    error = e.getCause();
+                }
+            }
+        }
+        if (error instanceof InterruptedException) {
+            throw (InterruptedException) error;
+        } else if (error instanceof FatalIndexingException) {
+            throw (FatalIndexingException) error;
+        } else if (error instanceof FatalRetriableIndexingException) {
+            throw (FatalRetriableIndexingException) error;
+        } else if (error != null) {
+            throw new RuntimeException(error.getMessage(), error);
+        }
+        return ret;
+    }
+
+    private void logProgress(final Report.Builder report) {
+        final Report r = report.build(clock.instant());
+        logger.logInfo(String.format("Reprocessed %s events at %.1f events/s",
+                r.getTotal(), r.getEventsPerSecond()));
+    }
+
+    /** A summary of the failed events selected by a query.
+     */
+    public static class Summary {
+
+        private final Map<String, Map<StatusEventType, Long>> eventCounts;
+        private final Map<String, Map<StatusEventType, Long>> childCounts;
+
+        private Summary(
+                final Map<String, Map<StatusEventType, Long>> eventCounts,
+                final Map<String, Map<StatusEventType, Long>> childCounts) {
+            this.eventCounts = eventCounts;
+            this.childCounts = childCounts;
+        }
+
+        /** Get the number of selected events.
+         * @return the number of events for each event type, by error code.
+         */
+        public Map<String, Map<StatusEventType, Long>> getEventCounts() {
+            return eventCounts;
+        }
+
+        /** Get the number of selected child events.
+         * @return the number of child events for each event type, by error code.
+         */
+        public Map<String, Map<StatusEventType, Long>> getChildCounts() {
+            return childCounts;
+        }
+
+        private static long sum(final Map<String, Map<StatusEventType, Long>> counts) {
+            long ret = 0;
+            for (final Map<StatusEventType, Long> c: counts.values()) {
+                for (final long count: c.values()) {
+                    ret += count;
+                }
+            }
+            return ret;
+        }
+
+        /** Get the total number of selected events.
+         * @return the number of events.
+         */
+        public long getEventTotal() {
+            return sum(eventCounts);
+        }
+
+        /** Get the total number of selected child events.
+         * @return the number of child events.
+         */
+        public long getChildTotal() {
+            return sum(childCounts);
+        }
+    }
+
+    /** A report of the results of a replay.
+     */
+    public static class Report {
+
+        private final Map<StatusEventProcessingState, Long> eventStates;
+        private final Map<StatusEventProcessingState, Long> childStates;
+        private final long skipped;
+        private final Duration elapsed;
+
+        private Report(
+                final Map<StatusEventProcessingState, Long> eventStates,
+                final Map<StatusEventProcessingState, Long> childStates,
+                final long skipped,
+                final Duration elapsed) {
+            this.eventStates = Collections.unmodifiableMap(new EnumMap<>(eventStates));
+            this.childStates = Collections.unmodifiableMap(new EnumMap<>(childStates));
+            this.skipped = skipped;
+            this.elapsed = elapsed;
+        }
+
+        /** Get the number of replayed events by the state of the events after the replay.
+         * @return the event counts.
+         */
+        public Map<StatusEventProcessingState, Long> getEventStates() {
+            return eventStates;
+        }
+
+        /** Get the number of replayed child events by the state of the events after the
+         * replay.
+         * @return the child event counts.
+         */
+        public Map<StatusEventProcessingState, Long> getChildStates() {
+            return childStates;
+        }
+
+        /** Get the number of events that were not replayed because they were modified
+         * by another process during the replay.
+         * @return the number of skipped events.
+         */
+        public long getSkipped() {
+            return skipped;
+        }
+
+        /** Get the total number of replayed events and child events.
+         * @return the number of events.
+         */
+        public long getTotal() {
+            return sum(eventStates) + sum(childStates);
+        }
+
+        /** Get the time the replay took.
+         * @return the elapsed time.
+         */
+        public Duration getElapsed() {
+            return elapsed;
+        }
+
+        /** Get the throughput of the replay.
+         * @return the number of events and child events replayed per second.
+         */
+        public double getEventsPerSecond() {
+            if (elapsed.isZero()) {
+                return 0;
+            }
+            return getTotal() * 1000.0 / elapsed.toMillis();
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s events %s, %s child events %s, %s skipped in %s ms " +
+                    "(%.1f events/s)", sum(eventStates), eventStates, sum(childStates),
+                    childStates, skipped, elapsed.toMillis(), getEventsPerSecond());
+        }
+
+        private static long sum(final Map<StatusEventProcessingState, Long> counts) {
+            long ret = 0;
+            for (final long count: counts.values()) {
+                ret += count;
+            }
+            return ret;
+        }
+
+        private static class Builder {
+
+            private final Instant start;
+            private final Map<StatusEventProcessingState, Long> eventStates =
+                    new EnumMap<>(StatusEventProcessingState.class);
+            private final Map<StatusEventProcessingState, Long> childStates =
+                    new EnumMap<>(StatusEventProcessingState.class);
+            private long skipped = 0;
+
+            private Builder(final Instant start) {
+                this.start = start;
+            }
+
+            private void addEvents(final StatusEventProcessingState state, final long count) {
+                if (count > 0) {
+                    eventStates.merge(state, count, Long::sum);
+                }
+            }
+
+            private void addChildren(final StatusEventProcessingState state, final long count) {
+                if (count > 0) {
+                    childStates.merge(state, count, Long::sum);
+                }
+            }
+
+            private void addSkipped() {
+                skipped++;
+            }
+
+            private Report build(final Instant end) {
+                return new Report(eventStates, childStates, skipped,
+                        Duration.between(start, end));
+            }
+        }
+    }
+}
@@ -7,4 +7,5 @@ public interface LineLogger {
     public void logError(Throwable error);
     public void logError(String line);
     public void timeStat(GUID guid, long loadMs, long parseMs, long indexMs);
+    public void skipStat(GUID guid, boolean skipped);
 }
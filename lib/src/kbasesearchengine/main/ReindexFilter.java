@@ -0,0 +1,90 @@
+package kbasesearchengine.main;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+import kbasesearchengine.common.GUID;
+import kbasesearchengine.search.ObjectData;
+import kbasesearchengine.system.ObjectTypeParsingRules;
+import kbasesearchengine.system.SearchObjectType;
+import kbasesearchengine.tools.Utils;
+
+/** Decides whether an object that is already indexed can skip reindexing when a new version
+ * event arrives for it.
+ *
+ * An indexed object is unchanged if the indexed documents were built with the current
+ * versions of the search types for the object's storage type from data with the same MD5 as
+ * the data in the source. Object versions are immutable in the source, so a mismatch usually
+ * means the search type specifications have been updated since the object was indexed, or the
+ * object was only partially indexed.
+ *
+ * Only the documents for the object itself are checked, so if all the search types for the
+ * storage type are sub object types the object is assumed to be unchanged.
+ *
+ * Each decision is reported to the logger via {@link LineLogger#skipStat(GUID, boolean)}.
+ *
+ * This class is thread safe if the logger is thread safe.
+ */
+public class ReindexFilter {
+
+    private final LineLogger logger;
+
+    /** Create the filter.
+     * @param logger the logger to which decisions are reported.
+     */
+    public ReindexFilter(final LineLogger logger) {
+        Utils.nonNull(logger, "logger");
+        this.logger = logger;
+    }
+
+    /** Check whether an indexed object is unchanged and therefore does not need reindexing.
+     * @param guid the object's GUID.
+     * @param rules the parsing rules for the object's storage type.
+     * @param indexed the documents indexed for the object. Documents for old versions of the
+     * search types may be included, as they are not removed on reindexing.
+     * @param sourceMD5 the MD5 of the object's data in the source, or null if unknown.
+     * @return true if the object is unchanged.
+     */
+    public boolean isUnchanged(
+            final GUID guid,
+            final Collection<ObjectTypeParsingRules> rules,
+            final Collection<ObjectData> indexed,
+            final String sourceMD5) {
+        Utils.nonNull(guid, "guid");
+        Utils.nonNull(rules, "rules");
+        Utils.noNulls(rules, "null item in rules");
+        Utils.nonNull(indexed, "indexed");
+        Utils.noNulls(indexed, "null item in indexed");
+        final boolean unchanged = checkUnchanged(rules, indexed, sourceMD5);
+        logger.skipStat(guid, unchanged);
+        return unchanged;
+    }
+
+    private static boolean checkUnchanged(
+            final Collection<ObjectTypeParsingRules> rules,
+            final Collection<ObjectData> indexed,
+            final String sourceMD5) {
+        final Set<SearchObjectType> expected = new HashSet<>();
+        for (final ObjectTypeParsingRules rule: rules) {
+            if (!rule.getSubObjectType().isPresent()) {
+                expected.add(rule.getGlobalObjectType());
+            }
+        }
+        if (expected.isEmpty()) {
+            return true;
+        }
+        final Set<SearchObjectType> found = new HashSet<>();
+        final Set<String> md5s = new HashSet<>();
+        for (final ObjectData od: indexed) {
+            if (od.getType().isPresent() && expected.contains(od.getType().get())) {
+                found.add(od.getType().get());
+                md5s.add(od.getMd5().orNull());
+            }
+        }
+        if (!found.equals(expected) || md5s.size() != 1 || md5s.contains(null)) {
+            return false;
+        }
+        return md5s.contains(sourceMD5);
+    }
+}
@@ -33,13 +33,16 @@ import kbasesearchengine.TypeDescriptor;
 import kbasesearchengine.authorization.AccessGroupProvider;
 import kbasesearchengine.common.GUID;
 import kbasesearchengine.search.FoundHits;
+import kbasesearchengine.search.FoundTypes;
 import kbasesearchengine.search.IndexingStorage;
 import kbasesearchengine.search.MatchFilter.Builder;
+import kbasesearchengine.search.QueryProfile;
 import kbasesearchengine.system.IndexingRules;
 import kbasesearchengine.system.ObjectTypeParsingRules;
 import kbasesearchengine.system.SearchObjectType;
 import kbasesearchengine.system.TypeStorage;
 import us.kbase.common.service.UObject;
+import us.kbase.common.service.UnauthorizedException;
 
 public class SearchMethods implements SearchInterface {
     
@@ -241,16 +244,46 @@ public class SearchMethods implements SearchInterface {
         }
     }
 
+    /* Profiling exposes the generated query, including the user's access groups, and
+     * the profile API is expensive, so it's restricted to admins.
+     */
+    private boolean toProfile(final Long profile, final String user)
+            throws UnauthorizedException {
+        if (!toBool(profile)) {
+            return false;
+        }
+        if (!admins.contains(user)) {
+            throw new UnauthorizedException("Only search administrators may profile queries");
+        }
+        return true;
+    }
+    
+    private UObject fromSearch(final QueryProfile profile) {
+        return profile == null ? null : new UObject(profile.toMap());
+    }
+
     @Override
     public SearchTypesOutput searchTypes(SearchTypesInput params, String user) throws Exception {
         long t1 = System.currentTimeMillis();
+        final boolean profile = toProfile(params.getProfile(), user);
         kbasesearchengine.search.MatchFilter matchFilter = toSearch(params.getMatchFilter());
         kbasesearchengine.search.AccessFilter accessFilter = toSearch(params.getAccessFilter(),
                 user);
-        Map<String, Integer> ret = indexingStorage.searchTypes(matchFilter, accessFilter);
+        final Map<String, Integer> ret;
+        final QueryProfile qp;
+        if (profile) {
+            final FoundTypes found = indexingStorage.searchTypes(
+                    matchFilter, accessFilter, true);
+            ret = found.typeToCount;
+            qp = found.profile;
+        } else {
+            ret = indexingStorage.searchTypes(matchFilter, accessFilter);
+            qp = null;
+        }
         return new SearchTypesOutput().withTypeToCount(ret.keySet().stream().collect(
                 Collectors.toMap(Function.identity(), c -> (long)(int)ret.get(c))))
-                .withSearchTime(System.currentTimeMillis() - t1);
+                .withSearchTime(System.currentTimeMillis() - t1)
+                .withProfile(fromSearch(qp));
     }
     
     @Override
@@ -263,6 +296,7 @@ public class SearchMethods implements SearchInterface {
         if (params.getObjectTypes() == null) {
             params.setObjectTypes(ImmutableList.of());
         }
+        final boolean profile = toProfile(params.getProfile(), user);
 
         kbasesearchengine.search.MatchFilter matchFilter = toSearch(params.getMatchFilter());
         List<kbasesearchengine.search.SortingRule> sorting = null;
@@ -275,8 +309,14 @@ public class SearchMethods implements SearchInterface {
         kbasesearchengine.search.Pagination pagination = toSearch(params.getPagination());
         kbasesearchengine.search.PostProcessing postProcessing = 
                 toSearch(params.getPostProcessing());
-        FoundHits hits = indexingStorage.searchObjects(params.getObjectTypes(),
-                matchFilter, sorting, accessFilter, pagination, postProcessing);
+        final FoundHits hits;
+        if (profile) {
+            hits = indexingStorage.searchObjects(params.getObjectTypes(),
+                    matchFilter, sorting, accessFilter, pagination, postProcessing, true);
+        } else {
+            hits = indexingStorage.searchObjects(params.getObjectTypes(),
+                    matchFilter, sorting, accessFilter, pagination, postProcessing);
+        }
         SearchObjectsOutput ret = new SearchObjectsOutput();
         ret.withPagination(fromSearch(hits.pagination));
         ret.withSortingRules(hits.sortingRules.stream().map(this::fromSearch).collect(
@@ -289,6 +329,7 @@ public class SearchMethods implements SearchInterface {
                     Collectors.toList()));
         }
         ret.withTotal((long)hits.total);
+        ret.withProfile(fromSearch(hits.profile));
         ret.withSearchTime(System.currentTimeMillis() - t1);
         return ret;
     }
@@ -4,12 +4,16 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.PrintWriter;
 import java.io.UnsupportedEncodingException;
+import java.time.Duration;
 import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
@@ -20,6 +24,15 @@ import java.util.TreeMap;
 import java.util.TreeSet;
 import java.util.LinkedList;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 
@@ -27,17 +40,24 @@ import org.apache.http.Header;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpHeaders;
 import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpRequestInterceptor;
 import org.apache.http.auth.AuthScope;
 import org.apache.http.auth.UsernamePasswordCredentials;
 import org.apache.http.client.CredentialsProvider;
 import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpRequestWrapper;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.protocol.HttpClientContext;
 import org.apache.http.entity.InputStreamEntity;
 import org.apache.http.entity.StringEntity;
 import org.apache.http.impl.client.BasicCredentialsProvider;
 import org.apache.http.impl.nio.client.HttpAsyncClientBuilder;
 import org.apache.http.message.BasicHeader;
+import org.apache.http.protocol.HttpContext;
 import org.elasticsearch.client.Response;
 import org.elasticsearch.client.ResponseException;
+import org.elasticsearch.client.ResponseListener;
 import org.elasticsearch.client.RestClient;
 import org.elasticsearch.client.RestClientBuilder;
 
@@ -45,7 +65,9 @@ import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableBiMap;
 import com.google.common.collect.ImmutableMap;
 
+import kbasesearchengine.common.CircuitBreaker;
 import kbasesearchengine.common.GUID;
+import kbasesearchengine.events.ObjectIDRange;
 import kbasesearchengine.events.handler.SourceData;
 import kbasesearchengine.parse.ParsedObject;
 import kbasesearchengine.system.IndexingRules;
@@ -137,11 +159,52 @@ public class ElasticIndexingStorage implements IndexingStorage {
     private String esUser;
     private String esPassword;
     private String indexNamePrefix;
-    private Map<ObjectTypeParsingRules, String> ruleToIndex = new LinkedHashMap<>();
-    private Map<String, String> typeToIndex = new LinkedHashMap<>();
+    /* Index metadata caches. Reads are lock free; index creation is single flight per index
+     * name so concurrent indexing threads don't race to create the same index.
+     */
+    private final ConcurrentMap<ObjectTypeParsingRules, String> ruleToIndex =
+            new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, String> typeToIndex = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, FutureTask<String>> indexCreation =
+            new ConcurrentHashMap<>();
+    /* Index names found to be missing when checking without creating, mapped to the time the
+     * entry expires. Another process may create the index, so the entries are short lived, but
+     * they save listing all the indexes on every call for a type that is never indexed.
+     */
+    private final ConcurrentMap<String, Long> missingIndexes = new ConcurrentHashMap<>();
+    private static final long MISSING_INDEX_CACHE_MS = 10 * 1000;
+    /* A single client, created on the first request, so its connection pool can be sized to
+     * match the request permits.
+     */
     private RestClient restClient = null;
     private File tempDir;
     
+    /* Bulkhead and circuit breaker for ElasticSearch requests. Read and write requests get
+     * separate permit pools so a backed up indexer can't starve searches and vice versa.
+     */
+    private final Map<RequestType, Long> requestTimeoutsMS = new EnumMap<>(RequestType.class);
+    private volatile Semaphore readPermits = new Semaphore(DEFAULT_MAX_CONCURRENT_READS, true);
+    private volatile Semaphore writePermits = new Semaphore(DEFAULT_MAX_CONCURRENT_WRITES, true);
+    private volatile int maxConnections =
+            DEFAULT_MAX_CONCURRENT_READS + DEFAULT_MAX_CONCURRENT_WRITES;
+    private volatile long permitWaitMS = DEFAULT_PERMIT_WAIT_MS;
+    private final CircuitBreaker circuitBreaker;
+    private final AtomicLong rejectedReads = new AtomicLong();
+    private final AtomicLong rejectedWrites = new AtomicLong();
+    private final AtomicLong timedOut = new AtomicLong();
+    private final AtomicLong requestCounter = new AtomicLong();
+    private final ConcurrentMap<String, InFlightRequest> inFlight = new ConcurrentHashMap<>();
+    
+    // warm up state, written by the warm up thread and read by status requests
+    private volatile boolean ready = false;
+    private volatile int warmUpIndexes = 0;
+    private volatile int warmUpQueries = 0;
+    private volatile long warmUpTimeMS = -1;
+    private volatile String warmUpError = null;
+    
+    // identifies requests to the client's request interceptor. Never sent to ElasticSearch.
+    private static final String REQUEST_ID_HEADER = "X-KBase-Search-Request-ID";
+    
     public static final int PUBLIC_ACCESS_GROUP = -1;
     public static final int ADMIN_ACCESS_GROUP = -2;
 
@@ -155,11 +218,116 @@ public class ElasticIndexingStorage implements IndexingStorage {
      *
      */
     public static final int MAX_OBJECT_TYPES_SIZE = 50;
+    
+    /** The default maximum number of simultaneous read (search and get) requests. */
+    public static final int DEFAULT_MAX_CONCURRENT_READS = 50;
+    /** The default maximum number of simultaneous write (bulk, update and admin) requests. */
+    public static final int DEFAULT_MAX_CONCURRENT_WRITES = 10;
+    /** The default time to wait for a request permit before rejecting the request. */
+    public static final long DEFAULT_PERMIT_WAIT_MS = 1000;
+    /** The default number of consecutive failures before the circuit breaker opens. */
+    public static final int DEFAULT_BREAKER_FAILURE_THRESHOLD = 5;
+    /** The default amount of time the circuit breaker stays open. */
+    public static final Duration DEFAULT_BREAKER_OPEN_DURATION = Duration.ofSeconds(30);
+    
+    /** The types of requests made to ElasticSearch. Each type has its own timeout. */
+    public enum RequestType {
+        /** A search request. */
+        SEARCH  (true,  60 * 1000),
+        /** Any other request that only reads data. */
+        GET     (true,  30 * 1000),
+        /** A bulk load of documents. These can be very large. */
+        BULK    (false, 10 * 60 * 1000),
+        /** An update by query request. */
+        UPDATE_BY_QUERY (false, 5 * 60 * 1000),
+        /** Any other request that writes data or modifies indexes. */
+        OTHER   (false, 2 * 60 * 1000);
+        
+        private final boolean read;
+        private final long defaultTimeoutMS;
+        
+        private RequestType(final boolean read, final long defaultTimeoutMS) {
+            this.read = read;
+            this.defaultTimeoutMS = defaultTimeoutMS;
+        }
+        
+        /** Returns true if the request type only reads data.
+         * @return true for read requests.
+         */
+        public boolean isRead() {
+            return read;
+        }
+        
+        /** Get the default timeout for the request type.
+         * @return the default timeout in milliseconds.
+         */
+        public long getDefaultTimeoutMS() {
+            return defaultTimeoutMS;
+        }
+    }
+
+    /** Queries that may be run against ElasticSearch at startup to warm up the ElasticSearch
+     * caches before the service reports itself as ready.
+     */
+    public enum WarmUpQuery {
+        /** The first page of public objects, most recent first. This is the query the UI
+         * runs when a user first opens the search page.
+         */
+        PUBLIC_TIMESTAMP_SORTED ("public_timestamp_sorted"),
+        /** A count of all public objects per type. */
+        SEARCH_TYPES            ("search_types");
+        
+        private final String name;
+        
+        private WarmUpQuery(final String name) {
+            this.name = name;
+        }
+        
+        /** Get the name of the query as used in configuration files.
+         * @return the query name.
+         */
+        public String getName() {
+            return name;
+        }
+        
+        /** Get a query from its name.
+         * @param name the name of the query.
+         * @return the query.
+         */
+        public static WarmUpQuery fromName(final String name) {
+            for (final WarmUpQuery q: values()) {
+                if (q.name.equals(name)) {
+                    return q;
+                }
+            }
+            throw new IllegalArgumentException("Invalid warm up query: " + name);
+        }
+    }
 
     public ElasticIndexingStorage(HttpHost esHost, File tempDir) throws IOException {
+        this(esHost, tempDir, new CircuitBreaker("ElasticSearch",
+                DEFAULT_BREAKER_FAILURE_THRESHOLD, DEFAULT_BREAKER_OPEN_DURATION));
+    }
+    
+    /** Create the indexing storage with a custom circuit breaker.
+     * @param esHost the ElasticSearch host.
+     * @param tempDir a temporary directory for bulk load files.
+     * @param circuitBreaker the breaker that guards all requests to ElasticSearch.
+     * @throws IOException if an IO error occurs.
+     */
+    public ElasticIndexingStorage(
+            final HttpHost esHost,
+            final File tempDir,
+            final CircuitBreaker circuitBreaker)
+            throws IOException {
+        Utils.nonNull(circuitBreaker, "circuitBreaker");
         this.esHost = esHost;
         this.indexNamePrefix = "";
         this.tempDir = tempDir;
+        this.circuitBreaker = circuitBreaker;
+        for (final RequestType t: RequestType.values()) {
+            requestTimeoutsMS.put(t, t.getDefaultTimeoutMS());
+        }
     }
     
     public HttpHost getEsHost() {
@@ -189,6 +357,154 @@ public class ElasticIndexingStorage implements IndexingStorage {
     public void setIndexNamePrefix(String indexNamePrefix) {
         this.indexNamePrefix = indexNamePrefix;
     }
+    
+    /** Set the client side timeout for a type of request. Must be called before any requests
+     * are made.
+     * @param type the request type.
+     * @param timeoutMS the timeout in milliseconds.
+     */
+    public void setRequestTimeout(final RequestType type, final long timeoutMS) {
+        Utils.nonNull(type, "type");
+        if (timeoutMS < 1) {
+            throw new IllegalArgumentException("timeoutMS must be at least 1");
+        }
+        requestTimeoutsMS.put(type, timeoutMS);
+    }
+    
+    /** Get the client side timeout for a type of request.
+     * @param type the request type.
+     * @return the timeout in milliseconds.
+     */
+    public long getRequestTimeout(final RequestType type) {
+        Utils.nonNull(type, "type");
+        return requestTimeoutsMS.get(type);
+    }
+    
+    /** Set the maximum number of simultaneous read and write requests. Requests beyond these
+     * limits wait for up to the permit wait time and are then rejected. Must be called before
+     * any requests are made.
+     * @param maxReads the maximum number of simultaneous read requests.
+     * @param maxWrites the maximum number of simultaneous write requests.
+     * @param permitWaitMS the amount of time to wait for a permit before rejecting a request.
+     */
+    public void setMaxConcurrentRequests(
+            final int maxReads,
+            final int maxWrites,
+            final long permitWaitMS) {
+        if (maxReads < 1 || maxWrites < 1) {
+            throw new IllegalArgumentException("maximum concurrent requests must be at least 1");
+        }
+        if (permitWaitMS < 0) {
+            throw new IllegalArgumentException("permitWaitMS cannot be negative");
+        }
+        this.readPermits = new Semaphore(maxReads, true);
+        this.writePermits = new Semaphore(maxWrites, true);
+        this.maxConnections = maxReads + maxWrites;
+        this.permitWaitMS = permitWaitMS;
+    }
+    
+    /** Get the circuit breaker that guards requests to ElasticSearch.
+     * @return the circuit breaker.
+     */
+    public CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+    
+    /** Get statistics about the requests made to ElasticSearch, suitable for inclusion in
+     * a service status report.
+     * @return the request statistics.
+     */
+    public Map<String, Object> getRequestStatistics() {
+        final Map<String, Object> ret = new LinkedHashMap<>();
+        ret.put("circuit_breaker", circuitBreaker.getState().toString());
+        ret.put("circuit_breaker_opened", circuitBreaker.getOpenedCount());
+        ret.put("short_circuited_requests", circuitBreaker.getShortCircuitedCount());
+        ret.put("rejected_read_requests", rejectedReads.get());
+        ret.put("rejected_write_requests", rejectedWrites.get());
+        ret.put("timed_out_requests", timedOut.get());
+        ret.put("available_read_permits", readPermits.availablePermits());
+        ret.put("available_write_permits", writePermits.availablePermits());
+        return ret;
+    }
+
+    /** Warm up the storage system. Opens the connection pool, resolves and caches the index
+     * names for the given type rules, and runs the warm up queries so the ElasticSearch caches
+     * are loaded before the first user search. Indexes are not created if they do not exist, and
+     * the names of missing indexes are not cached, so the index is created on the first write.
+     * 
+     * The storage is marked as ready when this method returns, whether or not the warm up
+     * succeeded - a failed warm up only means the first searches will be slow.
+     * @param rules the type rules for which index names should be resolved.
+     * @param queries the warm up queries to run.
+     * @throws IOException if an IO error occurs.
+     */
+    public void warmUp(
+            final Collection<ObjectTypeParsingRules> rules,
+            final Collection<WarmUpQuery> queries)
+            throws IOException {
+        Utils.nonNull(rules, "rules");
+        Utils.nonNull(queries, "queries");
+        final long start = System.currentTimeMillis();
+        try {
+            // also opens the connection pool
+            final Set<String> indexes = listIndeces();
+            for (final ObjectTypeParsingRules rule: rules) {
+                final String type = rule.getGlobalObjectType().getType();
+                final String prefix = (indexNamePrefix + type + "_").toLowerCase();
+                if (indexes.stream().anyMatch(i -> i.startsWith(prefix))) {
+                    typeToIndex.putIfAbsent(type, getAnyTypePattern(type));
+                }
+                final String indexName = toIndexString(rule);
+                if (indexes.contains(indexName)) {
+                    ruleToIndex.putIfAbsent(rule, indexName);
+                    warmUpIndexes++;
+                }
+            }
+            final AccessFilter pub = AccessFilter.create().withPublic(true);
+            final MatchFilter all = MatchFilter.getBuilder().build();
+            for (final WarmUpQuery q: queries) {
+                if (q.equals(WarmUpQuery.PUBLIC_TIMESTAMP_SORTED)) {
+                    final PostProcessing pp = new PostProcessing();
+                    pp.objectInfo = true;
+                    pp.objectKeys = true;
+                    searchObjects(Collections.emptyList(), all, Arrays.asList(
+                            SortingRule.getStandardPropertyBuilder(R_OBJ_TIMESTAMP)
+                                    .withNullableIsAscending(false).build()),
+                            pub, new Pagination(0, 10), pp);
+                } else {
+                    searchTypes(all, pub);
+                }
+                warmUpQueries++;
+            }
+        } catch (IOException | RuntimeException e) {
+            warmUpError = e.getMessage();
+            throw e;
+        } finally {
+            warmUpTimeMS = System.currentTimeMillis() - start;
+            ready = true;
+        }
+    }
+    
+    /** Returns true if {@link #warmUp(Collection, Collection)} has completed.
+     * @return true if the storage system is ready.
+     */
+    public boolean isReady() {
+        return ready;
+    }
+    
+    /** Get the status of the warm up process, suitable for inclusion in a service status
+     * report.
+     * @return the warm up status.
+     */
+    public Map<String, Object> getWarmUpStatus() {
+        final Map<String, Object> ret = new LinkedHashMap<>();
+        ret.put("ready", ready);
+        ret.put("indexes_resolved", warmUpIndexes);
+        ret.put("queries_run", warmUpQueries);
+        ret.put("warm_up_time_ms", warmUpTimeMS);
+        ret.put("error", warmUpError);
+        return ret;
+    }
 
     private String getAnyIndexPattern() {
         return indexNamePrefix + "*";
@@ -202,6 +518,7 @@ public class ElasticIndexingStorage implements IndexingStorage {
         }
         typeToIndex.clear();
         ruleToIndex.clear();
+        missingIndexes.clear();
     }
 
 
@@ -271,7 +588,9 @@ public class ElasticIndexingStorage implements IndexingStorage {
     }
 
     /* checks that an index exists for a specific version of a type. If the index
-     * does not exist and noCreate is false, creates the index.
+     * does not exist and noCreate is false, creates the index. If noCreate is true, the index name
+     * is only cached if the index exists, so a later call with noCreate false will create it.
+     * A missing index is remembered for a short time, or until this instance creates it.
      *
      * Returns the elastic search index name.
      */ 
@@ -280,18 +599,82 @@ public class ElasticIndexingStorage implements IndexingStorage {
             final boolean noCreate)
             throws IOException {
         Utils.nonNull(rule, "rule");
-        String ret = ruleToIndex.get(rule);
-        if (ret == null) {
-            ret = toIndexString(rule);
-            if (!listIndeces().contains(ret)) {
-                if (!noCreate) {
-                    System.out.println("Creating Elasticsearch index: " + ret);
-                    createTables(ret, rule.getIndexingRules());
-                }
+        final String cached = ruleToIndex.get(rule);
+        if (cached != null) {
+            return cached;
+        }
+        final String indexName = toIndexString(rule);
+        if (noCreate) {
+            final Long expires = missingIndexes.get(indexName);
+            if (expires != null && expires > System.currentTimeMillis()) {
+                return indexName;
+            }
+            if (listIndeces().contains(indexName)) {
+                missingIndexes.remove(indexName);
+                ruleToIndex.put(rule, indexName);
+            } else {
+                missingIndexes.put(indexName, System.currentTimeMillis() + MISSING_INDEX_CACHE_MS);
+            }
+            return indexName;
+        }
+        // only one thread creates a particular index, any others wait for it to finish
+        final FutureTask<String> task = new FutureTask<>(() -> {
+            createIndexIfMissing(indexName, rule.getIndexingRules());
+            return indexName;
+        });
+        final FutureTask<String> existing = indexCreation.putIfAbsent(indexName, task);
+        final FutureTask<String> creator = existing == null ? task : existing;
+        try {
+            if (existing == null) {
+                task.run();
             }
+            final String ret = getIndexCreationResult(creator, indexName);
+            missingIndexes.remove(ret);
             ruleToIndex.put(rule, ret);
+            return ret;
+        } finally {
+            if (existing == null) {
+                indexCreation.remove(indexName, task);
+            }
+        }
+    }
+    
+    private void createIndexIfMissing(
+            final String indexName,
+            final List<IndexingRules> indexingRules)
+            throws IOException {
+        if (!listIndeces().contains(indexName)) {
+            System.out.println("Creating Elasticsearch index: " + indexName);
+            try {
+                createTables(indexName, indexingRules);
+            } catch (IOException e) {
+                // another process may have created the index in the meantime
+                if (!listIndeces().contains(indexName)) {
+                    throw e;
+                }
+            }
+        }
+    }
+    
+    private String getIndexCreationResult(
+            final FutureTask<String> creator,
+            final String indexName)
+            throws IOException {
+        try {
+            return creator.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for creation of index " +
+                    indexName);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IOException(e.getCause().getMessage(), e.getCause());
         }
-        return ret;
     }
 
     private String toIndexString(final ObjectTypeParsingRules rule) {
@@ -1010,6 +1393,96 @@ public class ElasticIndexingStorage implements IndexingStorage {
         setFieldOnObject(guid, "public", false, true);
     }
 
+    //IO exception thrown for deserialization & elasticsearch contact errors
+    @Override
+    public void deleteAllVersions(
+            final String storageCode,
+            final int accessGroupId,
+            final ObjectIDRange range)
+            throws IOException, IndexingConflictException {
+        final List<String> prefixes = toGUIDPrefixes(storageCode, accessGroupId, range);
+        final String indexName = getAnyIndexPattern();
+        // unlike the single object method this also clears the flag on the subobjects, which
+        // is correct since they are deleted along with the parent
+        updateByQuery(indexName, getDataTableName(), ImmutableMap.of("bool", ImmutableMap.of(
+                "must", Arrays.asList(
+                        createFilter("terms", "prefix", prefixes),
+                        createFilter("term", "islast", true)))),
+                "ctx._source.islast = false;", Collections.emptyMap());
+        // -3 is a hack to always remove access groups
+        updateByQuery(indexName, getAccessTableName(), createFilter("terms", "prefix", prefixes),
+                String.format(UPDATE_ACC_GRP_VERS_TEMPLATE, "accgrp"),
+                ImmutableMap.of("lastver", -3, "accgrp", accessGroupId));
+    }
+    
+    //IO exception thrown for deserialization & elasticsearch contact errors
+    @Override
+    public void publishAllVersions(
+            final String storageCode,
+            final int accessGroupId,
+            final ObjectIDRange range)
+            throws IOException, IndexingConflictException {
+        setFieldOnObjectRange(storageCode, accessGroupId, range, "public", true);
+    }
+    
+    //IO exception thrown for deserialization & elasticsearch contact errors
+    @Override
+    public void unpublishAllVersions(
+            final String storageCode,
+            final int accessGroupId,
+            final ObjectIDRange range)
+            throws IOException, IndexingConflictException {
+        setFieldOnObjectRange(storageCode, accessGroupId, range, "public", false);
+    }
+    
+    private int setFieldOnObjectRange(
+            final String storageCode,
+            final int accessGroupId,
+            final ObjectIDRange range,
+            final String field,
+            final Object value)
+            throws IOException, IndexingConflictException {
+        return updateByQuery(getAnyIndexPattern(), getDataTableName(),
+                createFilter("terms", "prefix", toGUIDPrefixes(storageCode, accessGroupId, range)),
+                "ctx._source[params.field] = params.value",
+                ImmutableMap.of("field", field, "value", value));
+    }
+    
+    /* The prefix field is a keyword, so a range of objects is matched with a terms query listing
+     * every object prefix in the range. The object ID is not indexed as a number, so a range
+     * query isn't possible.
+     */
+    private List<String> toGUIDPrefixes(
+            final String storageCode,
+            final int accessGroupId,
+            final ObjectIDRange range) {
+        Utils.notNullOrEmpty(storageCode, "storageCode");
+        Utils.nonNull(range, "range");
+        final List<String> prefixes = new ArrayList<>();
+        for (long id = range.getFirst(); id <= range.getLast(); id++) {
+            prefixes.add(new GUID(storageCode, accessGroupId, id + "", null, null, null)
+                    .toString());
+        }
+        return prefixes;
+    }
+    
+    private int updateByQuery(
+            final String indexName,
+            final String table,
+            final Map<String, Object> query,
+            final String inline,
+            final Map<String, Object> params)
+            throws IOException, IndexingConflictException {
+        final Map<String, Object> script = ImmutableMap.of("inline", inline, "params", params);
+        final Map<String, Object> doc = ImmutableMap.of("query", query, "script", script);
+        final String urlPath = "/" + indexName + "/" + table + "/_update_by_query";
+        final Response resp = makeRequest("POST", urlPath, doc);
+        @SuppressWarnings("unchecked")
+        final Map<String, Object> data = UObject.getMapper().readValue(
+                resp.getEntity().getContent(), Map.class);
+        return (int) data.get("updated");
+    }
+
     private boolean addExtPubForVersion(String indexName, GUID guid, 
             int accessGroupId) throws IOException, IndexingConflictException {
         // Check that we work with other than physical access group this object exists in.
@@ -1298,27 +1771,44 @@ public class ElasticIndexingStorage implements IndexingStorage {
             final MatchFilter matchFilter,
             final AccessFilter accessFilter)
             throws IOException {
+        return searchTypes(matchFilter, accessFilter, false).typeToCount;
+    }
+
+    @Override
+    public FoundTypes searchTypes(
+            final MatchFilter matchFilter,
+            final AccessFilter accessFilter,
+            final boolean profile)
+            throws IOException {
+        final FoundTypes found = new FoundTypes();
         Map<String, Object> mustForShared = createAccessMustBlock(accessFilter);
         if (mustForShared == null) {
-            return Collections.emptyMap();
+            found.typeToCount = Collections.emptyMap();
+            return found;
         }
         //TODO VERS if this aggregates by type version, need to add the version field to the terms
         Map<String, Object> aggs = ImmutableMap.of("types",
                                       ImmutableMap.of("terms",
                                          ImmutableMap.of("field", SEARCH_OBJ_TYPE)));
 
-        Map<String, Object> doc = ImmutableMap.of(
-                "query", createObjectQuery(matchFilter, accessFilter),
-                "aggregations", aggs,
-                "size", 0);
+        Map<String, Object> doc = new LinkedHashMap<>();
+        doc.put("query", createObjectQuery(matchFilter, accessFilter));
+        doc.put("aggregations", aggs);
+        doc.put("size", 0);
+        if (profile) {
+            doc.put("profile", true);
+        }
 
         String urlPath = "/" + indexNamePrefix + "*" +
                 (matchFilter.isExcludeSubObjects() ? EXCLUDE_SUB_OJBS_URL_SUFFIX : "") +
                 "/" + getDataTableName() + "/_search";
-        Response resp = makeRequestNoConflict("GET", urlPath, doc);
+        Response resp = makeRequestNoConflict("GET", urlPath, ImmutableMap.copyOf(doc));
         @SuppressWarnings("unchecked")
         Map<String, Object> data = UObject.getMapper().readValue(
                 resp.getEntity().getContent(), Map.class);
+        if (profile) {
+            found.profile = QueryProfile.fromResponse(urlPath, doc, data);
+        }
         @SuppressWarnings("unchecked")
         Map<String, Object> aggMap = (Map<String, Object>) data.get("aggregations");
         @SuppressWarnings("unchecked")
@@ -1331,7 +1821,8 @@ public class ElasticIndexingStorage implements IndexingStorage {
             Integer count = (Integer)bucket.get("doc_count");
             ret.put(objType, count);
         }
-        return ImmutableMap.copyOf(ret);
+        found.typeToCount = ImmutableMap.copyOf(ret);
+        return found;
     }
 
     private Map<String, Object> createObjectQuery(
@@ -1366,7 +1857,8 @@ public class ElasticIndexingStorage implements IndexingStorage {
             final AccessFilter accessFilter,
             final Pagination pagination)
             throws IOException {
-        return queryHits(objectTypes, matchFilter, sorting, accessFilter, pagination, null);
+        return queryHits(objectTypes, matchFilter, sorting, accessFilter, pagination, null,
+                false);
     }
 
     @Override
@@ -1378,8 +1870,22 @@ public class ElasticIndexingStorage implements IndexingStorage {
             final Pagination pagination,
             final PostProcessing postProcessing)
             throws IOException {
+        return searchObjects(objectTypes, matchFilter, sorting, accessFilter, pagination,
+                postProcessing, false);
+    }
+
+    @Override
+    public FoundHits searchObjects(
+            final List<String> objectTypes,
+            final MatchFilter matchFilter,
+            final List<SortingRule> sorting,
+            final AccessFilter accessFilter,
+            final Pagination pagination,
+            final PostProcessing postProcessing,
+            final boolean profile)
+            throws IOException {
         return queryHits(objectTypes, matchFilter, sorting, accessFilter, pagination,
-                postProcessing);
+                postProcessing, profile);
     }
     
  // this is only used for tests
@@ -1523,7 +2029,8 @@ public class ElasticIndexingStorage implements IndexingStorage {
             List<SortingRule> sorting,
             final AccessFilter accessFilter,
             final Pagination pg,
-            final PostProcessing pp)
+            final PostProcessing pp,
+            final boolean profile)
             throws IOException {
         // initialize args
         int pgStart = pg == null || pg.start == null ? 0 : pg.start;
@@ -1558,6 +2065,9 @@ public class ElasticIndexingStorage implements IndexingStorage {
             doc.put("_source", Arrays.asList("guid"));
         }
         doc.put("sort", createSortQuery(sorting));
+        if (profile) {
+            doc.put("profile", true);
+        }
 
         validateObjectTypes(objectTypes);
 
@@ -1586,6 +2096,9 @@ public class ElasticIndexingStorage implements IndexingStorage {
         @SuppressWarnings("unchecked")
         final Map<String, Object> data = UObject.getMapper().readValue(
                 resp.getEntity().getContent(), Map.class);
+        if (profile) {
+            ret.profile = QueryProfile.fromResponse(urlPath, doc, data);
+        }
         ret.guids = new LinkedHashSet<>();
         @SuppressWarnings("unchecked")
         final Map<String, Object> hitMap = (Map<String, Object>) data.get("hits");
@@ -1663,33 +2176,126 @@ public class ElasticIndexingStorage implements IndexingStorage {
         return refreshIndex(toIndexString(rule));
     }
 
-    private RestClient getRestClient() {
+    /** Run a previously generated search query with profiling enabled. Primarily used to
+     * replay queries saved from a {@link QueryProfile} when investigating slow searches.
+     * @param urlPath the url path of the query, e.g. /index_name/data/_search.
+     * @param query the query document. The profile flag will be added if missing.
+     * @return the profile of the query.
+     * @throws IOException if an IO error occurs.
+     */
+    public QueryProfile profileQuery(final String urlPath, final Map<String, Object> query)
+            throws IOException {
+        Utils.notNullOrEmpty(urlPath, "urlPath cannot be null or whitespace only");
+        Utils.nonNull(query, "query");
+        if (!urlPath.endsWith("/_search")) {
+            throw new IllegalArgumentException("Only search queries may be profiled: " +
+                    urlPath);
+        }
+        final Map<String, Object> doc = new LinkedHashMap<>(query);
+        doc.put("profile", true);
+        final Response resp = makeRequestNoConflict("GET", urlPath, doc);
+        @SuppressWarnings("unchecked")
+        final Map<String, Object> data = UObject.getMapper().readValue(
+                resp.getEntity().getContent(), Map.class);
+        return QueryProfile.fromResponse(urlPath, doc, data);
+    }
+
+    private synchronized RestClient getRestClient() {
         if (restClient == null) {
-            RestClientBuilder restClientBld = RestClient.builder(esHost);
-            restClientBld.setRequestConfigCallback(new RestClientBuilder.RequestConfigCallback() {
-                @Override
-                public RequestConfig.Builder customizeRequestConfig(RequestConfig.Builder requestConfigBuilder) {
-                    return requestConfigBuilder.setConnectTimeout(10000)
-                            .setSocketTimeout(10 * 60 * 1000);
+            restClient = buildRestClient();
+        }
+        return restClient;
+    }
+    
+    private RestClient buildRestClient() {
+        RestClientBuilder restClientBld = RestClient.builder(esHost);
+        // the deadline for each request is enforced in performRequest
+        final int maxTimeout = Math.toIntExact(Collections.max(requestTimeoutsMS.values()));
+        restClientBld.setRequestConfigCallback(new RestClientBuilder.RequestConfigCallback() {
+            @Override
+            public RequestConfig.Builder customizeRequestConfig(RequestConfig.Builder requestConfigBuilder) {
+                return requestConfigBuilder.setConnectTimeout(10000)
+                        .setSocketTimeout(maxTimeout);
+            }
+        }).setMaxRetryTimeoutMillis(maxTimeout);
+        List<Header> headers = new ArrayList<>();
+        headers.add(new BasicHeader(HttpHeaders.CONTENT_TYPE, "application/json"));
+        //headers.add(new BasicHeader("Role", "Read"));
+        restClientBld.setDefaultHeaders(headers.toArray(new Header[headers.size()]));
+        final CredentialsProvider credentialsProvider;
+        if (esUser != null) {
+            credentialsProvider = new BasicCredentialsProvider();
+            credentialsProvider.setCredentials(AuthScope.ANY, 
+                    new UsernamePasswordCredentials(esUser, esPassword));
+        } else {
+            credentialsProvider = null;
+        }
+        restClientBld.setHttpClientConfigCallback(new RestClientBuilder.HttpClientConfigCallback() {
+            public HttpAsyncClientBuilder customizeHttpClient(HttpAsyncClientBuilder hacb) {
+                if (credentialsProvider != null) {
+                    hacb.setDefaultCredentialsProvider(credentialsProvider);
                 }
-            }).setMaxRetryTimeoutMillis(10 * 60 * 1000);
-            List<Header> headers = new ArrayList<>();
-            headers.add(new BasicHeader(HttpHeaders.CONTENT_TYPE, "application/json"));
-            //headers.add(new BasicHeader("Role", "Read"));
-            restClientBld.setDefaultHeaders(headers.toArray(new Header[headers.size()]));
-            if (esUser != null) {
-                CredentialsProvider credentialsProvider = new BasicCredentialsProvider();
-                credentialsProvider.setCredentials(AuthScope.ANY, 
-                        new UsernamePasswordCredentials(esUser, esPassword));
-                restClientBld.setHttpClientConfigCallback(new RestClientBuilder.HttpClientConfigCallback() {
-                    public HttpAsyncClientBuilder customizeHttpClient(HttpAsyncClientBuilder hacb) {
-                        return hacb.setDefaultCredentialsProvider(credentialsProvider);
-                    }
-                });
+                // one connection per request permit, so the permits are the only queue
+                return hacb.setMaxConnPerRoute(maxConnections)
+                        .setMaxConnTotal(maxConnections)
+                        .addInterceptorLast((HttpRequestInterceptor) (request, context) ->
+                                registerRequest(request, context));
+            }
+        });
+        return restClientBld.build();
+    }
+    
+    /* Called by the http client on the thread that starts the request, after the request has
+     * been bound to its exchange but before a connection is leased. Records the request so it
+     * can be aborted if it exceeds its deadline, and sets the socket timeout for the request
+     * type.
+     */
+    private void registerRequest(final HttpRequest request, final HttpContext context) {
+        final Header id = request.getFirstHeader(REQUEST_ID_HEADER);
+        if (id == null) {
+            return;
+        }
+        request.removeHeaders(REQUEST_ID_HEADER);
+        final InFlightRequest ifr = inFlight.get(id.getValue());
+        if (ifr == null) {
+            return;
+        }
+        final HttpClientContext hcc = HttpClientContext.adapt(context);
+        hcc.setRequestConfig(RequestConfig.copy(hcc.getRequestConfig())
+                .setSocketTimeout(Math.toIntExact(ifr.timeoutMS)).build());
+        if (request instanceof HttpRequestWrapper) {
+            final HttpRequest original = ((HttpRequestWrapper) request).getOriginal();
+            if (original instanceof HttpUriRequest) {
+                ifr.setRequest((HttpUriRequest) original);
+            }
+        }
+    }
+    
+    // a request that may be aborted, from any thread, once it has been started by the client
+    private static class InFlightRequest {
+        
+        private final long timeoutMS;
+        private HttpUriRequest request = null;
+        private boolean aborted = false;
+        
+        private InFlightRequest(final long timeoutMS) {
+            this.timeoutMS = timeoutMS;
+        }
+        
+        private synchronized void setRequest(final HttpUriRequest request) {
+            this.request = request;
+            if (aborted) {
+                request.abort();
+            }
+        }
+        
+        private synchronized void abort() {
+            aborted = true;
+            if (request != null) {
+                // cancels the exchange and releases its connection
+                request.abort();
             }
-            restClient = restClientBld.build();
         }
-        return restClient;
     }
 
     public Response makeRequestNoConflict(
@@ -1742,15 +2348,117 @@ public class ElasticIndexingStorage implements IndexingStorage {
             final Map<String, String> attributes,
             final HttpEntity body)
             throws IOException, IndexingConflictException {
+        final RequestType type = getRequestType(reqType, urlPath);
+        final Semaphore permits = type.isRead() ? readPermits : writePermits;
         try {
-            return getRestClient().performRequest(reqType, urlPath, attributes, body);
-        } catch (ResponseException re) {
-            if (re.getResponse().getStatusLine().getStatusCode() == 409) {
-                // this is really difficult to test, and so is not tested
-                throw new IndexingConflictException(re.getMessage(), re);
+            if (!permits.tryAcquire(permitWaitMS, TimeUnit.MILLISECONDS)) {
+                (type.isRead() ? rejectedReads : rejectedWrites).incrementAndGet();
+                throw new IOException(String.format(
+                        "Too many concurrent ElasticSearch %s requests, rejecting %s request",
+                        type.isRead() ? "read" : "write", type));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for an ElasticSearch " +
+                    "request permit");
+        }
+        try {
+            if (!circuitBreaker.tryAcquire()) {
+                throw new IOException("ElasticSearch circuit breaker is open, failing fast");
+            }
+            try {
+                final Response resp = performRequest(type, reqType, urlPath, attributes, body);
+                circuitBreaker.recordSuccess();
+                return resp;
+            } catch (ResponseException re) {
+                // client errors mean the cluster is up
+                if (re.getResponse().getStatusLine().getStatusCode() >= 500) {
+                    circuitBreaker.recordFailure();
+                } else {
+                    circuitBreaker.recordSuccess();
+                }
+                if (re.getResponse().getStatusLine().getStatusCode() == 409) {
+                    // this is really difficult to test, and so is not tested
+                    throw new IndexingConflictException(re.getMessage(), re);
+                }
+                throw new IOException(re.getMessage(), re);
+            } catch (InterruptedIOException e) {
+                circuitBreaker.release();
+                throw e;
+            } catch (IOException | RuntimeException e) {
+                circuitBreaker.recordFailure();
+                throw e;
             }
-            throw new IOException(re.getMessage(), re);
+        } finally {
+            permits.release();
+        }
+    }
+    
+    private Response performRequest(
+            final RequestType type,
+            final String reqType,
+            final String urlPath,
+            final Map<String, String> attributes,
+            final HttpEntity body)
+            throws IOException {
+        final long timeout = requestTimeoutsMS.get(type);
+        final CompletableFuture<Response> future = new CompletableFuture<>();
+        final String id = Long.toString(requestCounter.incrementAndGet());
+        final InFlightRequest ifr = new InFlightRequest(timeout);
+        inFlight.put(id, ifr);
+        try {
+            getRestClient().performRequestAsync(reqType, urlPath, attributes, body,
+                    new ResponseListener() {
+                        
+                        @Override
+                        public void onSuccess(final Response response) {
+                            future.complete(response);
+                        }
+                        
+                        @Override
+                        public void onFailure(final Exception exception) {
+                            future.completeExceptionally(exception);
+                        }
+                    }, new BasicHeader(REQUEST_ID_HEADER, id));
+            return future.get(timeout, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            ifr.abort();
+            timedOut.incrementAndGet();
+            throw new IOException(String.format(
+                    "ElasticSearch %s request to %s timed out after %s ms",
+                    type, urlPath, timeout), e);
+        } catch (InterruptedException e) {
+            ifr.abort();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for ElasticSearch " + type +
+                    " request to " + urlPath);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IOException(e.getCause().getMessage(), e.getCause());
+        } finally {
+            inFlight.remove(id);
+        }
+    }
+    
+    private RequestType getRequestType(final String reqType, final String urlPath) {
+        if (urlPath.endsWith("/_search")) {
+            return RequestType.SEARCH;
+        }
+        if (urlPath.endsWith("/_bulk")) {
+            return RequestType.BULK;
+        }
+        if (urlPath.endsWith("/_update_by_query")) {
+            return RequestType.UPDATE_BY_QUERY;
+        }
+        if ("GET".equals(reqType)) {
+            return RequestType.GET;
         }
+        return RequestType.OTHER;
     }
     
     private StringEntity stringEntity(final String string) {
@@ -1907,7 +2615,7 @@ public class ElasticIndexingStorage implements IndexingStorage {
         makeRequestNoConflict("PUT", "/" + indexName, doc);
     }
     
-    public void close() throws IOException {
+    public synchronized void close() throws IOException {
         if (restClient != null) {
             restClient.close();
             restClient = null;
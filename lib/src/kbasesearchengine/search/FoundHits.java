@@ -14,4 +14,6 @@ public class FoundHits {
     public Set<GUID> guids;
     public List<ObjectData> objects;
     public int total;
+    // only present if profiling was requested
+    public QueryProfile profile;
 }
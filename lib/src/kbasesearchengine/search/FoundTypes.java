@@ -0,0 +1,10 @@
+package kbasesearchengine.search;
+
+import java.util.Map;
+
+public class FoundTypes {
+    
+    public Map<String, Integer> typeToCount;
+    // only present if profiling was requested
+    public QueryProfile profile;
+}
@@ -7,6 +7,7 @@ import java.util.Map;
 import java.util.Set;
 
 import kbasesearchengine.common.GUID;
+import kbasesearchengine.events.ObjectIDRange;
 import kbasesearchengine.events.handler.SourceData;
 import kbasesearchengine.parse.ParsedObject;
 import kbasesearchengine.system.ObjectTypeParsingRules;
@@ -84,6 +85,18 @@ public interface IndexingStorage {
     public Map<String, Integer> searchTypes(MatchFilter matchFilter,
             AccessFilter accessFilter) throws IOException;
 
+    /** Search for the number of objects of each type matching the filters, optionally
+     * profiling the query in the storage system.
+     * @param matchFilter the match filter.
+     * @param accessFilter the access filter.
+     * @param profile true to profile the query. The profile will be available in
+     * {@link FoundTypes#profile}.
+     * @return the type counts and the query profile, if requested.
+     * @throws IOException if an IO error occurs contacting the storage system.
+     */
+    public FoundTypes searchTypes(MatchFilter matchFilter,
+            AccessFilter accessFilter, boolean profile) throws IOException;
+
     /**
     *
     * @param objectType a non-null list of object types to constrain the search to.
@@ -124,6 +137,31 @@ public interface IndexingStorage {
             PostProcessing postProcessing)
             throws IOException;
 
+    /** Equivalent to
+     * {@link #searchObjects(List, MatchFilter, List, AccessFilter, Pagination, PostProcessing)},
+     * but optionally profiles the query in the storage system.
+     * @param objectType a non-null list of object types to constrain the search to.
+     *                   An empty list indicates a search that is unconstrained by object type.
+     * @param matchFilter the match filter.
+     * @param sorting the sorting rules.
+     * @param accessFilter the access filter.
+     * @param pagination the pagination settings.
+     * @param postProcessing the post processing settings.
+     * @param profile true to profile the query. The profile will be available in
+     * {@link FoundHits#profile}.
+     * @return the search hits and the query profile, if requested.
+     * @throws IOException if an IO error occurs contacting the storage system.
+     */
+    public FoundHits searchObjects(
+            List<String> objectType,
+            MatchFilter matchFilter,
+            List<SortingRule> sorting,
+            AccessFilter accessFilter,
+            Pagination pagination,
+            PostProcessing postProcessing,
+            boolean profile)
+            throws IOException;
+
     /** Change the name of all the versions of an object.
      * @param object the GUID of the object. The version field is ignored.
      * @param newName the new name of the object.
@@ -162,4 +200,40 @@ public interface IndexingStorage {
      * @throws IndexingConflictException if a conflict occurs while modifying the index. 
      */
     void unpublishAllVersions(GUID guid) throws IOException, IndexingConflictException;
+
+    /** Delete all versions of a range of objects from their access group, as
+     * {@link #deleteAllVersions(GUID)} but for every object in the range at once. Objects in the
+     * range that have not been indexed are ignored.
+     * @param storageCode the storage code of the objects.
+     * @param accessGroupId the access group containing the objects.
+     * @param range the range of object IDs to delete.
+     * @throws IOException if an IO error occurs when contacting the indexing storage.
+     * @throws IndexingConflictException if a conflict occurs while modifying the index.
+     */
+    void deleteAllVersions(String storageCode, int accessGroupId, ObjectIDRange range)
+            throws IOException, IndexingConflictException;
+
+    /** Set all versions of a range of objects to public, as {@link #publishAllVersions(GUID)}
+     * but for every object in the range at once. Objects in the range that have not been indexed
+     * are ignored.
+     * @param storageCode the storage code of the objects.
+     * @param accessGroupId the access group containing the objects.
+     * @param range the range of object IDs to publish.
+     * @throws IOException if an IO error occurs when contacting the indexing storage.
+     * @throws IndexingConflictException if a conflict occurs while modifying the index.
+     */
+    void publishAllVersions(String storageCode, int accessGroupId, ObjectIDRange range)
+            throws IOException, IndexingConflictException;
+
+    /** Make all versions of a range of objects private, as {@link #unpublishAllVersions(GUID)}
+     * but for every object in the range at once. Objects in the range that have not been indexed
+     * are ignored.
+     * @param storageCode the storage code of the objects.
+     * @param accessGroupId the access group containing the objects.
+     * @param range the range of object IDs to make private.
+     * @throws IOException if an IO error occurs when contacting the indexing storage.
+     * @throws IndexingConflictException if a conflict occurs while modifying the index.
+     */
+    void unpublishAllVersions(String storageCode, int accessGroupId, ObjectIDRange range)
+            throws IOException, IndexingConflictException;
 }
@@ -0,0 +1,320 @@
+package kbasesearchengine.search;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import kbasesearchengine.tools.Utils;
+
+/** A condensed version of the ElasticSearch profile API output for a single search request.
+ *
+ * ElasticSearch returns a deeply nested breakdown of the low level Lucene timings per query
+ * node. This class flattens that breakdown into a per shard list of query clauses, each with
+ * its nesting depth and total time, which is usually enough to determine which part of a search
+ * (e.g. the access group has_parent block, the _all match, sorting, or highlighting) is
+ * responsible for a slow query.
+ *
+ * The request path and body that were sent to ElasticSearch are kept along with the profile so
+ * that the query can be saved and replayed later.
+ */
+public class QueryProfile {
+
+    // lucene query descriptions can be enormous, especially for the access blocks
+    private static final int MAX_DESCRIPTION_LENGTH = 200;
+
+    private final String urlPath;
+    private final Map<String, Object> query;
+    private final List<ShardProfile> shards;
+
+    private QueryProfile(
+            final String urlPath,
+            final Map<String, Object> query,
+            final List<ShardProfile> shards) {
+        this.urlPath = urlPath;
+        this.query = query;
+        this.shards = Collections.unmodifiableList(shards);
+    }
+
+    /** Get the url path to which the query was sent.
+     * @return the url path.
+     */
+    public String getURLPath() {
+        return urlPath;
+    }
+
+    /** Get the query document that was sent to ElasticSearch.
+     * @return the query.
+     */
+    public Map<String, Object> getQuery() {
+        return query;
+    }
+
+    /** Get the per shard profiles.
+     * @return the shard profiles.
+     */
+    public List<ShardProfile> getShards() {
+        return shards;
+    }
+
+    /** Get the total time spent in all the query, rewrite, collector and aggregation phases
+     * across all shards.
+     * @return the total time in nanoseconds.
+     */
+    public long getTotalTimeNanos() {
+        long total = 0;
+        for (final ShardProfile s: shards) {
+            total += s.getTotalTimeNanos();
+        }
+        return total;
+    }
+
+    /** Convert this profile to a structure of maps and lists suitable for serializing to JSON.
+     * @return the profile as a map.
+     */
+    public Map<String, Object> toMap() {
+        final Map<String, Object> ret = new LinkedHashMap<>();
+        ret.put("path", urlPath);
+        ret.put("query", query);
+        ret.put("total_time_nanos", getTotalTimeNanos());
+        final List<Object> shardList = new ArrayList<>();
+        for (final ShardProfile s: shards) {
+            final Map<String, Object> shard = new LinkedHashMap<>();
+            shard.put("id", s.getShardID());
+            shard.put("query_time_nanos", s.getQueryTimeNanos());
+            shard.put("rewrite_time_nanos", s.getRewriteTimeNanos());
+            shard.put("collector_time_nanos", s.getCollectorTimeNanos());
+            shard.put("aggregation_time_nanos", s.getAggregationTimeNanos());
+            shard.put("clauses", toList(s.getClauses()));
+            shard.put("aggregations", toList(s.getAggregations()));
+            shardList.add(shard);
+        }
+        ret.put("shards", shardList);
+        return ret;
+    }
+
+    private List<Object> toList(final List<ClauseTiming> timings) {
+        final List<Object> ret = new ArrayList<>();
+        for (final ClauseTiming t: timings) {
+            final Map<String, Object> clause = new LinkedHashMap<>();
+            clause.put("depth", t.getDepth());
+            clause.put("type", t.getType());
+            clause.put("description", t.getDescription());
+            clause.put("time_nanos", t.getTimeNanos());
+            ret.add(clause);
+        }
+        return ret;
+    }
+
+    /** Build a condensed profile from an ElasticSearch search response.
+     * @param urlPath the url path to which the search request was sent.
+     * @param query the search request body, which must have included the profile flag.
+     * @param searchResponse the deserialized response from ElasticSearch.
+     * @return the profile.
+     */
+    public static QueryProfile fromResponse(
+            final String urlPath,
+            final Map<String, Object> query,
+            final Map<String, Object> searchResponse) {
+        Utils.notNullOrEmpty(urlPath, "urlPath cannot be null or whitespace only");
+        Utils.nonNull(query, "query");
+        Utils.nonNull(searchResponse, "searchResponse");
+        final List<ShardProfile> shards = new ArrayList<>();
+        final Map<String, Object> profile = getMap(searchResponse, "profile");
+        for (final Map<String, Object> shard: getList(profile, "shards")) {
+            final List<ClauseTiming> clauses = new ArrayList<>();
+            long rewrite = 0;
+            long collector = 0;
+            for (final Map<String, Object> search: getList(shard, "searches")) {
+                flatten(getList(search, "query"), 0, clauses);
+                rewrite += getLong(search, "rewrite_time");
+                for (final Map<String, Object> col: getList(search, "collector")) {
+                    collector += getLong(col, "time_in_nanos");
+                }
+            }
+            final List<ClauseTiming> aggs = new ArrayList<>();
+            flatten(getList(shard, "aggregations"), 0, aggs);
+            shards.add(new ShardProfile((String) shard.get("id"), clauses, aggs, rewrite,
+                    collector));
+        }
+        return new QueryProfile(urlPath, query, shards);
+    }
+
+    private static void flatten(
+            final List<Map<String, Object>> nodes,
+            final int depth,
+            final List<ClauseTiming> target) {
+        for (final Map<String, Object> node: nodes) {
+            target.add(new ClauseTiming(depth, (String) node.get("type"),
+                    truncate((String) node.get("description")), getLong(node, "time_in_nanos")));
+            flatten(getList(node, "children"), depth + 1, target);
+        }
+    }
+
+    private static String truncate(final String description) {
+        if (description == null || description.length() <= MAX_DESCRIPTION_LENGTH) {
+            return description;
+        }
+        return description.substring(0, MAX_DESCRIPTION_LENGTH - 3) + "...";
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> getMap(final Map<String, Object> m, final String key) {
+        final Object o = m == null ? null : m.get(key);
+        return o == null ? Collections.emptyMap() : (Map<String, Object>) o;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Map<String, Object>> getList(
+            final Map<String, Object> m,
+            final String key) {
+        final Object o = m.get(key);
+        return o == null ? Collections.emptyList() : (List<Map<String, Object>>) o;
+    }
+
+    private static long getLong(final Map<String, Object> m, final String key) {
+        final Object o = m.get(key);
+        return o == null ? 0 : ((Number) o).longValue();
+    }
+
+    /** The profile of a query on a single ElasticSearch shard.
+     */
+    public static class ShardProfile {
+
+        private final String shardID;
+        private final List<ClauseTiming> clauses;
+        private final List<ClauseTiming> aggregations;
+        private final long rewriteTimeNanos;
+        private final long collectorTimeNanos;
+
+        private ShardProfile(
+                final String shardID,
+                final List<ClauseTiming> clauses,
+                final List<ClauseTiming> aggregations,
+                final long rewriteTimeNanos,
+                final long collectorTimeNanos) {
+            this.shardID = shardID;
+            this.clauses = Collections.unmodifiableList(clauses);
+            this.aggregations = Collections.unmodifiableList(aggregations);
+            this.rewriteTimeNanos = rewriteTimeNanos;
+            this.collectorTimeNanos = collectorTimeNanos;
+        }
+
+        /** Get the shard ID, which is of the form [node ID][index name][shard number].
+         * @return the shard ID.
+         */
+        public String getShardID() {
+            return shardID;
+        }
+
+        /** Get the query clauses, flattened in depth first order.
+         * @return the query clauses.
+         */
+        public List<ClauseTiming> getClauses() {
+            return clauses;
+        }
+
+        /** Get the aggregations, flattened in depth first order.
+         * @return the aggregations.
+         */
+        public List<ClauseTiming> getAggregations() {
+            return aggregations;
+        }
+
+        /** Get the time spent rewriting the query.
+         * @return the rewrite time in nanoseconds.
+         */
+        public long getRewriteTimeNanos() {
+            return rewriteTimeNanos;
+        }
+
+        /** Get the time spent in the hit collectors, which includes sorting.
+         * @return the collector time in nanoseconds.
+         */
+        public long getCollectorTimeNanos() {
+            return collectorTimeNanos;
+        }
+
+        /** Get the total time spent in the top level query clauses.
+         * @return the query time in nanoseconds.
+         */
+        public long getQueryTimeNanos() {
+            return sumTopLevel(clauses);
+        }
+
+        /** Get the total time spent in the top level aggregations.
+         * @return the aggregation time in nanoseconds.
+         */
+        public long getAggregationTimeNanos() {
+            return sumTopLevel(aggregations);
+        }
+
+        /** Get the total time spent on this shard.
+         * @return the total time in nanoseconds.
+         */
+        public long getTotalTimeNanos() {
+            return getQueryTimeNanos() + rewriteTimeNanos + collectorTimeNanos +
+                    getAggregationTimeNanos();
+        }
+
+        private long sumTopLevel(final List<ClauseTiming> timings) {
+            long total = 0;
+            for (final ClauseTiming t: timings) {
+                if (t.getDepth() == 0) {
+                    total += t.getTimeNanos();
+                }
+            }
+            return total;
+        }
+    }
+
+    /** The time spent in a single query clause or aggregation.
+     */
+    public static class ClauseTiming {
+
+        private final int depth;
+        private final String type;
+        private final String description;
+        private final long timeNanos;
+
+        private ClauseTiming(
+                final int depth,
+                final String type,
+                final String description,
+                final long timeNanos) {
+            this.depth = depth;
+            this.type = type;
+            this.description = description;
+            this.timeNanos = timeNanos;
+        }
+
+        /** Get the depth of the clause in the query tree, where 0 is the top level.
+         * @return the depth.
+         */
+        public int getDepth() {
+            return depth;
+        }
+
+        /** Get the Lucene query or aggregator type, e.g. BooleanQuery.
+         * @return the type.
+         */
+        public String getType() {
+            return type;
+        }
+
+        /** Get the description of the clause, possibly truncated.
+         * @return the description.
+         */
+        public String getDescription() {
+            return description;
+        }
+
+        /** Get the time spent in the clause, including any child clauses.
+         * @return the time in nanoseconds.
+         */
+        public long getTimeNanos() {
+            return timeNanos;
+        }
+    }
+}
@@ -8,13 +8,17 @@ import java.io.InputStream;
 import java.io.PrintStream;
 import java.io.StringReader;
 import java.io.StringWriter;
+import java.net.InetSocketAddress;
 import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.AccessDeniedException;
 import java.nio.file.Files;
 import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.Duration;
 import java.time.Instant;
+import java.time.format.DateTimeParseException;
 import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
@@ -40,17 +44,29 @@ import com.mongodb.MongoCredential;
 import com.mongodb.MongoException;
 import com.mongodb.ServerAddress;
 import com.mongodb.client.MongoDatabase;
+import com.sun.net.httpserver.HttpServer;
 
 import ch.qos.logback.classic.Level;
 import ch.qos.logback.classic.Logger;
 import kbasesearchengine.common.GUID;
+import kbasesearchengine.events.StatusEventType;
+import kbasesearchengine.events.exceptions.DownstreamCircuitBreakers;
+import kbasesearchengine.events.exceptions.FatalRetriableIndexingException;
 import kbasesearchengine.events.exceptions.IndexingException;
 import kbasesearchengine.events.handler.CloneableWorkspaceClientImpl;
 import kbasesearchengine.events.handler.EventHandler;
 import kbasesearchengine.events.handler.WorkspaceEventHandler;
+import kbasesearchengine.events.handler.WorkspaceInfoCache;
+import kbasesearchengine.events.storage.FailedEventQuery;
 import kbasesearchengine.events.storage.MongoDBStatusEventStorage;
 import kbasesearchengine.events.storage.StatusEventStorage;
 import kbasesearchengine.events.storage.StorageInitException;
+import kbasesearchengine.main.EventArchiver;
+import kbasesearchengine.main.EventLeaseReaper;
+import kbasesearchengine.main.EventMetrics;
+import kbasesearchengine.main.FailedEventReplayer;
+import kbasesearchengine.main.FailedEventReplayer.Reprocessor;
+import kbasesearchengine.main.FailedEventReplayer.Summary;
 import kbasesearchengine.main.LineLogger;
 import kbasesearchengine.main.SearchVersion;
 import kbasesearchengine.main.Stoppable;
@@ -59,7 +75,9 @@ import kbasesearchengine.main.IndexerCoordinator;
 import kbasesearchengine.main.IndexerWorker;
 import kbasesearchengine.parse.ObjectParseException;
 import kbasesearchengine.search.ElasticIndexingStorage;
-import kbasesearchengine.search.IndexingStorage;
+import kbasesearchengine.search.QueryProfile;
+import kbasesearchengine.search.QueryProfile.ClauseTiming;
+import kbasesearchengine.search.QueryProfile.ShardProfile;
 import kbasesearchengine.system.FileLister;
 import kbasesearchengine.system.ObjectTypeParsingRulesFileParser;
 import kbasesearchengine.system.TypeFileStorage;
@@ -74,6 +92,7 @@ import us.kbase.auth.AuthConfig;
 import us.kbase.auth.AuthException;
 import us.kbase.auth.AuthToken;
 import us.kbase.auth.ConfigurableAuthService;
+import us.kbase.common.service.UObject;
 import us.kbase.common.service.UnauthorizedException;
 import us.kbase.workspace.WorkspaceClient;
 
@@ -89,6 +108,11 @@ public class SearchTools {
     
     private static final String NAME = "search_tools";
     private static final int MAX_Q_SIZE = 10000;
+    private static final Duration LEASE_REAPER_INTERVAL = Duration.ofMinutes(1);
+    private static final Duration ARCHIVER_INTERVAL = Duration.ofMinutes(10);
+    private static final Duration ARCHIVER_RETENTION = Duration.ofDays(1);
+    // the MongoDB database containing the replica set oplog
+    private static final String OPLOG_DB = "local";
     private static final GitInfo GIT = new GitInfo();
     
     /* The maximum number of objects to index in the search system at once. With the 18/2/23
@@ -100,6 +124,10 @@ public class SearchTools {
      * the ElasticSearch load isn't even attempted.
      */
     private static final int MAX_OBJECTS_PER_LOAD = 100_000;
+    
+    // workspace metadata rarely changes, and access group level events clear the cache
+    private static final int WS_INFO_CACHE_LIFETIME_SEC = 300;
+    private static final int WS_INFO_CACHE_SIZE = 10_000;
 
     /** Runs the CLI.
      * @param args the program arguments.
@@ -114,7 +142,9 @@ public class SearchTools {
     
     private MongoDatabase workspaceDB = null;
     private MongoDatabase searchDB = null;
-    private IndexingStorage indexStore = null;
+    // the database containing the search MongoDB oplog, if the oplog is to be watched
+    private MongoDatabase searchOplogDB = null;
+    private ElasticIndexingStorage indexStore = null;
 
     /** Create a new CLI instance.
      * @param args the program arguments.
@@ -166,10 +196,13 @@ public class SearchTools {
         final boolean startWorker = a.startWorker != null;
         if ((a.startCoordinator ? 1 : 0) + 
                 (a.genWSEvents ? 1 : 0) +
-                (startWorker ? 1 : 0) > 1) {
-            printError("Can only run one of the coordinator, event generator, or a worker.");
+                (startWorker ? 1 : 0) +
+                (a.replayFailed ? 1 : 0) > 1) {
+            printError("Can only run one of the coordinator, event generator, a worker, or " +
+                    "the failed event replay.");
             return 1;
         }
+        final boolean replayReprocess = a.replayFailed && !a.replayDryRun && !a.replayReset;
         final SearchToolsConfig cfg;
         try {
             cfg = getConfig(a.configPath);
@@ -199,8 +232,10 @@ public class SearchTools {
             }
         }
         try {
-            setUpMongoDBs(cfg, a.genWSEvents, a.dropDB || a.startCoordinator || startWorker);
-            setUpElasticSearch(cfg, a.dropDB || startWorker);
+            setUpMongoDBs(cfg, a.genWSEvents,
+                    a.dropDB || a.startCoordinator || startWorker || a.replayFailed);
+            setUpElasticSearch(cfg, a.dropDB || startWorker || replayReprocess ||
+                    a.profileQueryPath != null);
         } catch (MongoException | IOException e) {
             printError(e, a.verbose);
             return 1;
@@ -216,13 +251,23 @@ public class SearchTools {
                 return 1;
             }
         }
+        if (a.profileQueryPath != null) {
+            try {
+                profileQuery(Paths.get(a.profileQueryPath));
+                noCommand = false;
+            } catch (IllegalArgumentException | IOException e) {
+                printError(e, a.verbose);
+                return 1;
+            }
+        }
         if (a.startCoordinator) {
             try {
                 printVer();
-                final IndexerCoordinator coord = runCoordinator(cfg, out, err);
+                final IndexerCoordinator coord = runCoordinator(cfg, a.metricsPort, out, err);
                 noCommand = false; 
                 waitForReturn(coord);
-            } catch (StorageInitException | IndexingException | InterruptedException e) {
+            } catch (StorageInitException | IndexingException | InterruptedException |
+                    IOException e) {
                 printError(e, a.verbose);
                 return 1;
             }
@@ -230,7 +275,8 @@ public class SearchTools {
         if (startWorker) {
             try {
                 printVer();
-                final IndexerWorker work = runWorker(cfg, a.startWorker, out, err);
+                final IndexerWorker work = runWorker(
+                        cfg, a.startWorker, a.metricsPort, out, err);
                 noCommand = false;
                 waitForReturn(work);
             } catch (IOException | AuthException | ObjectParseException | TypeParseException |
@@ -247,11 +293,29 @@ public class SearchTools {
                         out,
                         a.ref,
                         a.lastVersionOnly,
+                        a.storeBatchSize,
+                        a.eventGenParallelism,
+                        a.resume,
+                        a.incremental,
+                        a.since == null ? null : parseInstant(a.since),
                         getWsBlackList(a.wsBlacklist, cfg.getWorkspaceBlackList()),
                         getWsTypes(a.wsTypes, cfg.getWorkspaceTypes()),
                         cfg.getWorkerCodes());
                 noCommand = false;
-            } catch (EventGeneratorException | StorageInitException e) {
+            } catch (EventGeneratorException | StorageInitException |
+                    IllegalArgumentException | InterruptedException e) {
+                printError(e, a.verbose);
+                return 1;
+            }
+        }
+        if (a.replayFailed) {
+            try {
+                printVer();
+                replayFailed(cfg, a);
+                noCommand = false;
+            } catch (IOException | AuthException | ObjectParseException | TypeParseException |
+                    UnauthorizedException | IllegalArgumentException | InterruptedException |
+                    IndexingException e) {
                 printError(e, a.verbose);
                 return 1;
             }
@@ -328,14 +392,40 @@ public class SearchTools {
     
     private IndexerCoordinator runCoordinator(
             final SearchToolsConfig cfg,
+            final Integer metricsPort,
             final PrintStream logTarget,
             final PrintStream errTarget)
-            throws StorageInitException, InterruptedException, IndexingException {
-        final LineLogger logger = buildLogger(logTarget, errTarget);
-        
-        final StatusEventStorage storage = new MongoDBStatusEventStorage(searchDB);
+            throws StorageInitException, InterruptedException, IndexingException, IOException {
+        // watching the oplog wakes the coordinator for events from the workspace listener
+        final StatusEventStorage storage = searchOplogDB == null ?
+                new MongoDBStatusEventStorage(searchDB) :
+                new MongoDBStatusEventStorage(searchDB, searchOplogDB);
+        final EventMetrics metrics = new EventMetrics(storage);
+        final LineLogger logger = buildLogger(logTarget, errTarget, metrics);
+        startMetricsServer(metricsPort, metrics, logger);
         
         final IndexerCoordinator coord = new IndexerCoordinator(storage, logger, MAX_Q_SIZE);
+        // return events held by dead workers to the queue
+        final EventLeaseReaper reaper = new EventLeaseReaper(
+                storage, LEASE_REAPER_INTERVAL, logger);
+        metrics.setLeaseReaper(reaper);
+        reaper.start();
+        // keep finished events out of the working set
+        final EventArchiver archiver = new EventArchiver(
+                storage, ARCHIVER_INTERVAL, ARCHIVER_RETENTION, logger);
+        archiver.start();
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+            
+            @Override
+            public void run() {
+                try {
+                    reaper.stop(0);
+                    archiver.stop(0);
+                } catch (InterruptedException e) {
+                    // do nothing, things are going down anyway
+                }
+            }
+        });
         coord.startIndexer();
         return coord;
     }
@@ -343,6 +433,7 @@ public class SearchTools {
     private IndexerWorker runWorker(
             final SearchToolsConfig cfg,
             final String id,
+            final Integer metricsPort,
             final PrintStream logTarget,
             final PrintStream errTarget)
             throws IOException, AuthException, ObjectParseException, TypeParseException,
@@ -352,8 +443,30 @@ public class SearchTools {
         if (!tempDir.exists()) {
             tempDir.mkdirs();
         }
-        final LineLogger logger = buildLogger(logTarget, errTarget);
+        final StatusEventStorage storage = new MongoDBStatusEventStorage(searchDB);
+        final DownstreamCircuitBreakers circuitBreakers = new DownstreamCircuitBreakers();
+        final EventMetrics metrics = new EventMetrics(storage, circuitBreakers);
+        final LineLogger logger = buildLogger(logTarget, errTarget, metrics);
+        startMetricsServer(metricsPort, metrics, logger);
         
+        final IndexerWorker wrk = buildWorker(cfg, getID(id), kbaseIndexerToken, tempDir,
+                storage, logger, circuitBreakers,
+                buildWorkspaceInfoCache(cfg, kbaseIndexerToken));
+        metrics.setLeaseHeartbeat(wrk.getLeaseHeartbeat());
+        wrk.startIndexer();
+        return wrk;
+    }
+    
+    private IndexerWorker buildWorker(
+            final SearchToolsConfig cfg,
+            final String id,
+            final AuthToken kbaseIndexerToken,
+            final File tempDir,
+            final StatusEventStorage storage,
+            final LineLogger logger,
+            final DownstreamCircuitBreakers circuitBreakers,
+            final WorkspaceInfoCache wsInfoCache)
+            throws IOException, ObjectParseException, TypeParseException {
         final Map<String, TypeMappingParser> parsers = ImmutableMap.of(
                 "yaml", new YAMLTypeMappingParser());
         final Path typesDir = Paths.get(cfg.getTypesDirectory());
@@ -361,19 +474,128 @@ public class SearchTools {
         final TypeStorage ss = new TypeFileStorage(typesDir, mappingsDir,
                 new ObjectTypeParsingRulesFileParser(), parsers, new FileLister(), logger);
         
-        final StatusEventStorage storage = new MongoDBStatusEventStorage(searchDB);
+        final EventHandler weh = new WorkspaceEventHandler(
+                new CloneableWorkspaceClientImpl(buildWorkspaceClient(cfg, kbaseIndexerToken)),
+                wsInfoCache);
         
+        return new IndexerWorker(
+                id, Arrays.asList(weh), storage, indexStore, ss, tempDir, logger,
+                cfg.getWorkerCodes(), MAX_OBJECTS_PER_LOAD, circuitBreakers);
+    }
+    
+    private WorkspaceClient buildWorkspaceClient(
+            final SearchToolsConfig cfg,
+            final AuthToken kbaseIndexerToken)
+            throws IOException {
         final WorkspaceClient wsClient = new WorkspaceClient(
                 cfg.getWorkspaceURL(), kbaseIndexerToken);
         wsClient.setIsInsecureHttpConnectionAllowed(true); //TODO SEC only do if http
-        final EventHandler weh = new WorkspaceEventHandler(
-                new CloneableWorkspaceClientImpl(wsClient));
+        return wsClient;
+    }
+    
+    // the cache is shared between all the workers in the process so that a workspace's info is
+    // fetched once rather than once per object
+    private WorkspaceInfoCache buildWorkspaceInfoCache(
+            final SearchToolsConfig cfg,
+            final AuthToken kbaseIndexerToken)
+            throws IOException {
+        return new WorkspaceInfoCache(new WorkspaceEventHandler(new CloneableWorkspaceClientImpl(
+                buildWorkspaceClient(cfg, kbaseIndexerToken))),
+                WS_INFO_CACHE_LIFETIME_SEC, WS_INFO_CACHE_SIZE);
+    }
+    
+    private void replayFailed(final SearchToolsConfig cfg, final Args a)
+            throws IOException, AuthException, ObjectParseException, TypeParseException,
+                UnauthorizedException, InterruptedException, IndexingException {
+        final FailedEventQuery query = getFailedEventQuery(a);
+        final StatusEventStorage storage = new MongoDBStatusEventStorage(searchDB);
+        final LineLogger logger = buildLogger(out, err, new EventMetrics(storage));
+        final FailedEventReplayer replayer = new FailedEventReplayer(storage, logger);
         
-        final IndexerWorker wrk = new IndexerWorker(
-                getID(id), Arrays.asList(weh), storage, indexStore, ss, tempDir, logger,
-                cfg.getWorkerCodes(), MAX_OBJECTS_PER_LOAD);
-        wrk.startIndexer();
-        return wrk;
+        final Summary summary = replayer.getSummary(query);
+        out.println(String.format("Selected %s failed events and %s failed child events",
+                summary.getEventTotal(), summary.getChildTotal()));
+        printFailedCounts("Events", summary.getEventCounts());
+        printFailedCounts("Child events", summary.getChildCounts());
+        if (a.replayDryRun) {
+            return;
+        }
+        if (a.replayReset) {
+            out.println("Returning failed events to the queue");
+            out.println(replayer.reset(query));
+            return;
+        }
+        if (a.replayParallelism < 1) {
+            throw new IllegalArgumentException("Replay parallelism must be at least 1");
+        }
+        final AuthToken kbaseIndexerToken = getIndexerToken(cfg);
+        final File tempDir = new File(cfg.getTempDir());
+        if (!tempDir.exists()) {
+            tempDir.mkdirs();
+        }
+        final DownstreamCircuitBreakers circuitBreakers = new DownstreamCircuitBreakers();
+        final WorkspaceInfoCache wsInfoCache = buildWorkspaceInfoCache(cfg, kbaseIndexerToken);
+        final List<Reprocessor> workers = new LinkedList<>();
+        for (int i = 0; i < a.replayParallelism; i++) {
+            // workers are not thread safe, so each replay thread gets its own
+            workers.add(buildWorker(cfg, FailedEventReplayer.UPDATER + "-" + i,
+                    kbaseIndexerToken, tempDir, storage, logger, circuitBreakers, wsInfoCache));
+        }
+        out.println(String.format("Reprocessing failed events with %s workers",
+                workers.size()));
+        out.println(replayer.reprocess(query, workers, a.replayLimit));
+    }
+    
+    private void printFailedCounts(
+            final String name,
+            final Map<String, Map<StatusEventType, Long>> counts) {
+        for (final String code: counts.keySet()) {
+            out.println(String.format("  %s with error code %s: %s",
+                    name, code, counts.get(code)));
+        }
+    }
+    
+    private FailedEventQuery getFailedEventQuery(final Args a) {
+        final FailedEventQuery.Builder b = FailedEventQuery.getBuilder();
+        if (a.replayErrorCodes != null) {
+            a.replayErrorCodes.stream().forEach(c -> b.withErrorCode(c.trim()));
+        }
+        if (a.replayEventTypes != null) {
+            for (final String t: a.replayEventTypes) {
+                try {
+                    b.withEventType(StatusEventType.valueOf(t.trim()));
+                } catch (IllegalArgumentException e) {
+                    throw new IllegalArgumentException("Illegal event type: " + t);
+                }
+            }
+        }
+        if (a.replayFrom != null) {
+            b.withTimestampFrom(parseInstant(a.replayFrom));
+        }
+        if (a.replayTo != null) {
+            b.withTimestampTo(parseInstant(a.replayTo));
+        }
+        if (a.replayAccessGroup != null) {
+            final String[] ag = a.replayAccessGroup.split(":");
+            try {
+                if (ag.length != 2) {
+                    throw new NumberFormatException();
+                }
+                b.withAccessGroup(ag[0].trim(), Integer.parseInt(ag[1].trim()));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException(
+                        "Access group must be of the form <storage code>:<id>, e.g. WS:6");
+            }
+        }
+        return b.build();
+    }
+    
+    private Instant parseInstant(final String instant) {
+        try {
+            return Instant.parse(instant.trim());
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("Illegal timestamp: " + instant);
+        }
     }
 
     private String getID(String id) {
@@ -386,7 +608,45 @@ public class SearchTools {
         }
     }
 
-    private LineLogger buildLogger(final PrintStream logTarget, final PrintStream errTarget) {
+    // serves the metrics as plain text at /metrics if a port is provided
+    private void startMetricsServer(
+            final Integer port,
+            final EventMetrics metrics,
+            final LineLogger logger)
+            throws IOException {
+        if (port == null) {
+            return;
+        }
+        final HttpServer server = HttpServer.create(new InetSocketAddress(port), 0);
+        server.createContext("/metrics", exchange -> {
+            try {
+                int code = 200;
+                String text;
+                try {
+                    text = metrics.getText();
+                } catch (FatalRetriableIndexingException e) {
+                    logger.logError("Failed getting metrics: " + e.getMessage());
+                    code = 503;
+                    text = e.getMessage() + "\n";
+                }
+                final byte[] body = text.getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set(
+                        "Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+                exchange.sendResponseHeaders(code, body.length);
+                exchange.getResponseBody().write(body);
+            } finally {
+                exchange.close();
+            }
+        });
+        // the server threads are non-daemon but the process exits via System.exit()
+        server.start();
+        logger.logInfo("Serving metrics at port " + port + " /metrics");
+    }
+    
+    private LineLogger buildLogger(
+            final PrintStream logTarget,
+            final PrintStream errTarget,
+            final EventMetrics metrics) {
         
         final LineLogger logger = new LineLogger() {
             
@@ -410,6 +670,11 @@ public class SearchTools {
             }
             @Override
             public void timeStat(GUID guid, long loadMs, long parseMs, long indexMs) {
+                metrics.timeStat(guid, loadMs, parseMs, indexMs);
+            }
+            @Override
+            public void skipStat(GUID guid, boolean skipped) {
+                metrics.skipStat(guid, skipped);
             }
         };
         return logger;
@@ -470,6 +735,9 @@ public class SearchTools {
         final MongoClient searchClient = getMongoClient(cfg.getSearchMongoHost(), cfg.getSearchMongoDB(),
                 cfg.getSearchMongoUser(), cfg.getSearchMongoPwd());
         searchDB = searchClient.getDatabase(cfg.getSearchMongoDB());
+        if (cfg.isSearchMongoOplog()) {
+            searchOplogDB = searchClient.getDatabase(OPLOG_DB);
+        }
     }
 
     private void setUpBothMongoDatabases(final SearchToolsConfig cfg) {
@@ -492,6 +760,9 @@ public class SearchTools {
             
         }
         searchDB = searchClient.getDatabase(cfg.getSearchMongoDB());
+        if (cfg.isSearchMongoOplog()) {
+            searchOplogDB = searchClient.getDatabase(OPLOG_DB);
+        }
         workspaceDB = wsClient.getDatabase(cfg.getWorkspaceMongoDB());
     }
 
@@ -554,20 +825,71 @@ public class SearchTools {
             final PrintStream logtarget,
             final String ref,
             final boolean lastVersionOnly,
+            final int storeBatchSize,
+            final int parallelism,
+            final boolean resume,
+            final boolean incremental,
+            final Instant since,
             final List<WorkspaceIdentifier> wsBlackList,
             final List<String> wsTypes,
             final Set<String> workerCodes)
-            throws EventGeneratorException, StorageInitException {
+            throws EventGeneratorException, StorageInitException, InterruptedException {
         final Builder gen = new WorkspaceEventGenerator.Builder(
                 new MongoDBStatusEventStorage(searchDB), workspaceDB, logtarget)
                 .withNullableRef(ref)
                 .withWorkspaceBlacklist(wsBlackList)
                 .withWorkerCodes(workerCodes)
                 .withLastVersionOnly(lastVersionOnly)
+                .withStoreBatchSize(storeBatchSize)
+                .withParallelism(parallelism)
+                .withCheckpointDatabase(searchDB)
+                .withResume(resume)
+                .withIncremental(incremental)
+                .withNullableSince(since)
                 .withWorkspaceTypes(wsTypes);
         gen.build().generateEvents();
     }
 
+    private void profileQuery(final Path queryPath) throws IOException {
+        final Map<String, Object> saved;
+        try (final InputStream is = Files.newInputStream(queryPath)) {
+            @SuppressWarnings("unchecked")
+            final Map<String, Object> m = UObject.getMapper().readValue(is, Map.class);
+            saved = m;
+        }
+        if (!(saved.get("path") instanceof String) || !(saved.get("query") instanceof Map)) {
+            throw new IllegalArgumentException(
+                    "Saved query must contain a string 'path' and a map 'query'");
+        }
+        @SuppressWarnings("unchecked")
+        final Map<String, Object> query = (Map<String, Object>) saved.get("query");
+        final QueryProfile qp = indexStore.profileQuery((String) saved.get("path"), query);
+        out.println(String.format("Query %s total time %s ms", qp.getURLPath(),
+                toMillis(qp.getTotalTimeNanos())));
+        for (final ShardProfile sp: qp.getShards()) {
+            out.println(String.format(
+                    "Shard %s: query %s ms, rewrite %s ms, collect %s ms, aggregations %s ms",
+                    sp.getShardID(), toMillis(sp.getQueryTimeNanos()),
+                    toMillis(sp.getRewriteTimeNanos()), toMillis(sp.getCollectorTimeNanos()),
+                    toMillis(sp.getAggregationTimeNanos())));
+            printClauses(sp.getClauses());
+            printClauses(sp.getAggregations());
+        }
+    }
+
+    private void printClauses(final List<ClauseTiming> clauses) {
+        for (final ClauseTiming ct: clauses) {
+            final char[] indent = new char[(ct.getDepth() + 1) * 2];
+            Arrays.fill(indent, ' ');
+            out.println(String.format("%s%s ms %s %s", new String(indent),
+                    toMillis(ct.getTimeNanos()), ct.getType(), ct.getDescription()));
+        }
+    }
+
+    private String toMillis(final long nanos) {
+        return String.format("%.3f", nanos / 1000000.0);
+    }
+
     private SearchToolsConfig getConfig(final String configPath)
             throws IOException, SearchToolsConfigException {
         final Path path = Paths.get(configPath);
@@ -691,7 +1013,100 @@ public class SearchTools {
                 "object. This parameter is ignored if a full ref including a version is " +
                 "provided in the ref argument.")
         private boolean lastVersionOnly;
+        
+        @Parameter(names = {"--event-batch-size"}, description =
+                "When generating events, the number of events to store in the search " +
+                "database in one request.")
+        private int storeBatchSize = WorkspaceEventGenerator.DEFAULT_STORE_BATCH_SIZE;
+        
+        @Parameter(names = {"--event-gen-parallelism"}, description =
+                "When generating events, the number of workspaces to process in parallel.")
+        private int eventGenParallelism = WorkspaceEventGenerator.DEFAULT_PARALLELISM;
+        
+        @Parameter(names = {"--resume"}, description =
+                "When generating events, resume the last event generation run from its " +
+                "checkpoint in the search database rather than starting a new run. The other " +
+                "event generation arguments must be the same as those of the last run. " +
+                "Events stored by the last run are not stored again.")
+        private boolean resume;
+        
+        @Parameter(names = {"--incremental"}, description =
+                "When generating events, only generate events for object versions saved since " +
+                "the last successful incremental run, and record the start of this run for the " +
+                "next incremental run. Intended for periodic runs that catch events missed by " +
+                "the workspace event listener.")
+        private boolean incremental;
+        
+        @Parameter(names = {"--since"}, description =
+                "When generating events, only generate events for object versions saved at or " +
+                "after the provided ISO8601 instant, e.g. 2018-03-01T00:00:00Z. Overrides the " +
+                "starting point of an incremental run.")
+        private String since;
                         
+        @Parameter(names = {"--profile-query"}, description =
+                "Replay a saved search query with ElasticSearch profiling enabled and print " +
+                "the per shard and per clause timings. The file must contain a JSON map " +
+                "with the 'path' and 'query' keys, as returned in the profile field of the " +
+                "search_objects and search_types methods.")
+        private String profileQueryPath;
+        
+        @Parameter(names = {"--metrics-port"}, description =
+                "When running the coordinator or a worker, serve event processing metrics as " +
+                "plain text for metrics scrapers at /metrics on the provided port.")
+        private Integer metricsPort;
+        
+        @Parameter(names = {"--replay-failed"}, description =
+                "Replay failed events and child events once the cause of the failure has been " +
+                "fixed. By default the events are reprocessed in this process with the " +
+                "workers' ElasticSearch and workspace configuration. Use the --replay-* " +
+                "arguments to select events and change the replay mode.")
+        private boolean replayFailed;
+        
+        @Parameter(names = {"--replay-dry-run"}, description =
+                "Print the counts of the failed events that would be replayed by error code " +
+                "and event type, and exit without replaying the events.")
+        private boolean replayDryRun;
+        
+        @Parameter(names = {"--replay-reset"}, description =
+                "Rather than reprocessing failed events in this process, return them to the " +
+                "queue to be processed by the running workers. Child events are requeued as " +
+                "new events.")
+        private boolean replayReset;
+        
+        @Parameter(names = {"--replay-error-codes"}, description =
+                "A comma delimited list of error codes of the failed events to replay, " +
+                "e.g. 'OTHER,LOCATION_ERROR'. Use 'none' for events without an error code.")
+        private List<String> replayErrorCodes;
+        
+        @Parameter(names = {"--replay-event-types"}, description =
+                "A comma delimited list of types of the failed events to replay, " +
+                "e.g. 'NEW_VERSION,NEW_ALL_VERSIONS'.")
+        private List<String> replayEventTypes;
+        
+        @Parameter(names = {"--replay-from"}, description =
+                "Only replay failed events with a timestamp at or after the provided ISO8601 " +
+                "instant, e.g. 2018-03-01T00:00:00Z.")
+        private String replayFrom;
+        
+        @Parameter(names = {"--replay-to"}, description =
+                "Only replay failed events with a timestamp before the provided ISO8601 " +
+                "instant.")
+        private String replayTo;
+        
+        @Parameter(names = {"--replay-access-group"}, description =
+                "Only replay failed events from the provided access group, given as " +
+                "<storage code>:<id>, e.g. WS:6.")
+        private String replayAccessGroup;
+        
+        @Parameter(names = {"--replay-parallelism"}, description =
+                "The number of workers to reprocess failed events with in parallel.")
+        private int replayParallelism = 1;
+        
+        @Parameter(names = {"--replay-limit"}, description =
+                "The maximum number of failed events and child events to reprocess. If less " +
+                "than 1, all selected events are reprocessed.")
+        private long replayLimit = 0;
+        
         @Parameter(names = {"--version"}, description = "Print the software version and exit")
         private boolean version;
     }
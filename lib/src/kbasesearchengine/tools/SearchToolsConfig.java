@@ -25,6 +25,7 @@ public class SearchToolsConfig {
     private static final String SEARCH_MONGO_DB = "search-mongo-db";
     private static final String SEARCH_MONGO_USER = "search-mongo-user";
     private static final String SEARCH_MONGO_PWD = "search-mongo-pwd";
+    private static final String SEARCH_MONGO_OPLOG = "search-mongo-oplog";
     private static final String WORKER_CODES = "worker-codes";
 
     private static final String ELASTIC_HOST = "elastic-host";
@@ -54,6 +55,7 @@ public class SearchToolsConfig {
     private final String searchMongoDB;
     private final Optional<String> searchMongoUser;
     private final Optional<char[]> searchMongoPwd;
+    private final boolean searchMongoOplog;
     private final Set<String> workerCodes;
     
     private final String elasticHost;
@@ -83,6 +85,7 @@ public class SearchToolsConfig {
             final String searchMongoDB,
             final String searchMongoUser,
             String searchMongoPwd,
+            final boolean searchMongoOplog,
             final List<String> workerCodes,
             final String elasticHost,
             final int elasticPort,
@@ -119,6 +122,7 @@ public class SearchToolsConfig {
         this.searchMongoPwd = Optional.fromNullable(searchMongoPwd == null ?
                 null :searchMongoPwd.toCharArray());
         searchMongoPwd = null;
+        this.searchMongoOplog = searchMongoOplog;
         
         this.workerCodes = Collections.unmodifiableSet(new HashSet<>(workerCodes));
         
@@ -177,6 +181,10 @@ public class SearchToolsConfig {
         return searchMongoPwd;
     }
     
+    public boolean isSearchMongoOplog() {
+        return searchMongoOplog;
+    }
+    
     public Set<String> getWorkerCodes() {
         return workerCodes;
     }
@@ -277,6 +285,7 @@ public class SearchToolsConfig {
                 getString(SEARCH_MONGO_DB, cfg, true),
                 getString(SEARCH_MONGO_USER, cfg),
                 getString(SEARCH_MONGO_PWD, cfg),
+                "true".equals(getString(SEARCH_MONGO_OPLOG, cfg)),
                 getStringList(WORKER_CODES, cfg),
                 getString(ELASTIC_HOST, cfg, true),
                 esPort,
@@ -394,6 +403,8 @@ public class SearchToolsConfig {
         builder.append(searchMongoUser);
         builder.append(", searchMongoPwd=");
         builder.append(searchMongoPwd);
+        builder.append(", searchMongoOplog=");
+        builder.append(searchMongoOplog);
         builder.append(", elasticHost=");
         builder.append(elasticHost);
         builder.append(", elasticPort=");
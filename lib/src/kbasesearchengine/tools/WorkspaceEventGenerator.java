@@ -4,26 +4,41 @@ import static kbasesearchengine.tools.Utils.noNulls;
 import static kbasesearchengine.tools.Utils.nonNull;
 
 import java.io.PrintStream;
+import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.regex.Pattern;
 
 import org.bson.Document;
 
+import com.google.common.base.Optional;
 import com.mongodb.DBObject;
 import com.mongodb.MongoException;
 import com.mongodb.client.FindIterable;
 import com.mongodb.client.MongoCursor;
 import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.UpdateOptions;
 
 import kbasesearchengine.events.StatusEvent;
+import kbasesearchengine.events.StatusEventPriority;
 import kbasesearchengine.events.StatusEventProcessingState;
 import kbasesearchengine.events.StatusEventType;
 import kbasesearchengine.events.exceptions.RetriableIndexingException;
@@ -63,6 +78,7 @@ public class WorkspaceEventGenerator {
     private static final String WS_KEY_META = "meta";
     private static final String WS_KEY_TYPE = "type";
     private static final String WS_KEY_SAVEDATE = "savedate";
+    private static final String WS_KEY_MODDATE = "moddate";
     private static final String WS_KEY_WS_ACL_ID = "id";
     private static final String WS_KEY_WS_ACL_PERM = "perm";
     private static final String WS_KEY_WS_USER = "user";
@@ -73,7 +89,43 @@ public class WorkspaceEventGenerator {
     
     private static final String WS_EVENT_GEN = "WSEG";
     
-    //TODO EVENTGEN optimize by not pulling unneeded fields from db
+    private static final String COL_CHECKPOINT = "wsEventGenCheckpoint";
+    private static final String CP_KEY_PARAMS = "params";
+    private static final String CP_KEY_RUN = "run";
+    // all workspaces with ids less than this workspace id have been processed
+    private static final String CP_KEY_WS = "ws";
+    private static final String CP_KEY_COMPLETE = "complete";
+    private static final String CP_KEY_UPDATED = "updated";
+    private static final Duration CHECKPOINT_INTERVAL = Duration.ofSeconds(10);
+    
+    private static final String INCREMENTAL_ID = WS_EVENT_GEN + "_incremental";
+    private static final String INC_KEY_WATERMARK = "watermark";
+    /* Incremental runs start this long before the watermark to allow for clock skew between
+     * the workspace servers and the generator. Event keys prevent duplicate events for
+     * versions in the overlap.
+     */
+    private static final Duration INCREMENTAL_OVERLAP = Duration.ofMinutes(5);
+    
+    /** The default number of events to store in one call to the event storage system. */
+    public static final int DEFAULT_STORE_BATCH_SIZE = 1000;
+    
+    /** The default number of workspaces to process in parallel. */
+    public static final int DEFAULT_PARALLELISM = 4;
+    
+    // only pull the fields needed to generate events from the workspace DB
+    private static final Document WS_PROJECTION = new Document(WS_KEY_WS_ID, 1)
+            .append(WS_KEY_WS_NAME, 1)
+            .append(WS_KEY_META, 1)
+            .append(WS_KEY_WS_DEL, 1);
+    private static final Document VER_PROJECTION = new Document(WS_KEY_WS_ID, 1)
+            .append(WS_KEY_OBJ_ID, 1)
+            .append(WS_KEY_VER, 1)
+            .append(WS_KEY_TYPE, 1)
+            .append(WS_KEY_SAVEDATE, 1)
+            .append(WS_KEY_META, 1);
+    private static final Document OBJ_PROJECTION = new Document(WS_KEY_OBJ_ID, 1)
+            .append(WS_KEY_OBJ_DEL, 1);
+    private static final Document ACL_PROJECTION = new Document(WS_KEY_WS_ACL_PERM, 1);
 
     //TODO EVENTGEN handle data palettes: 1) remove all sharing for ws 2) pull DP 3) add share events for all DP objects. RC still possible.
     //TODO TEST
@@ -90,6 +142,29 @@ public class WorkspaceEventGenerator {
     private final List<Pattern> wsTypes;
     private final Set<String> workerCodes;
     private final boolean lastVersionOnly;
+    private final int storeBatchSize;
+    private final int parallelism;
+    private final MongoDatabase checkpointDB;
+    private final boolean resume;
+    private final boolean incremental;
+    // only process versions saved at or after this time, if present
+    private Optional<Instant> since;
+    // guarded by this. Shared by all the workspace processing threads so batches stay full.
+    // Maps the event key to the event.
+    private Map<String, StatusEvent> pendingEvents = new LinkedHashMap<>();
+    // held while storing events so a checkpoint can wait for in progress stores
+    private final Object storeLock = new Object();
+    // set if a batch of events failed to store, after which no checkpoint may be saved
+    private volatile boolean storeFailed = false;
+    private final Progress progress = new Progress();
+    
+    // identifies the run for event keys. Resumed runs use the id of the original run.
+    private String runID = UUID.randomUUID().toString();
+    // the ids of the workspaces being processed, guarded by checkpointLock
+    private final TreeSet<Integer> inFlight = new TreeSet<>();
+    private final Object checkpointLock = new Object();
+    private int lastStarted = 0;
+    private Instant lastCheckpoint = Instant.now();
     
     private WorkspaceEventGenerator(
             final StatusEventStorage storage,
@@ -101,7 +176,13 @@ public class WorkspaceEventGenerator {
             final Collection<WorkspaceIdentifier> wsBlackList,
             final Collection<String> wsTypes,
             final Collection<String> workerCodes,
-            final boolean lastVersionOnly)
+            final boolean lastVersionOnly,
+            final int storeBatchSize,
+            final int parallelism,
+            final MongoDatabase checkpointDatabase,
+            final boolean resume,
+            final boolean incremental,
+            final Optional<Instant> since)
             throws EventGeneratorException {
         this.ws = ws;
         this.obj = obj;
@@ -113,6 +194,12 @@ public class WorkspaceEventGenerator {
         this.wsTypes = processTypes(wsTypes);
         this.workerCodes = Collections.unmodifiableSet(new HashSet<>(workerCodes));
         this.lastVersionOnly = lastVersionOnly;
+        this.storeBatchSize = storeBatchSize;
+        this.parallelism = parallelism;
+        this.checkpointDB = checkpointDatabase;
+        this.resume = resume;
+        this.incremental = incremental;
+        this.since = since;
         checkWorkspaceSchema();
     }
     
@@ -150,12 +237,34 @@ public class WorkspaceEventGenerator {
         }
     }
 
-    public void generateEvents() throws EventGeneratorException {
+    /** Generate events for the workspaces, objects, or versions selected when building the
+     * generator and store them in the search event queue. Workspaces are processed in parallel.
+     * 
+     * If a checkpoint database is provided, progress is periodically saved so that a failed
+     * run can be resumed. Each event is stored with a key deterministically derived from the
+     * run and the object version, and so resuming a run never creates duplicate events.
+     * 
+     * In incremental mode, only versions saved since the watermark stored by the last
+     * successful incremental run are processed, and the watermark is advanced to the start of
+     * this run on success.
+     * @throws EventGeneratorException if the events could not be generated or stored.
+     * @throws InterruptedException if the thread is interrupted.
+     */
+    public void generateEvents() throws EventGeneratorException, InterruptedException {
+        progress.start();
+        final Instant runStart = Instant.now();
+        if (incremental) {
+            startIncremental();
+        }
+        final Optional<Integer> startWS = startCheckpoint();
+        if (!startWS.isPresent()) {
+            return;
+        }
         if (ws > 0) {
             final boolean tempNarr;
             try {
                 final Document wsdoc = wsDB.getCollection(WS_COL_WORKSPACES).find(
-                        new Document(WS_KEY_WS_ID, ws)).first();
+                        new Document(WS_KEY_WS_ID, ws)).projection(WS_PROJECTION).first();
                 if (wsdoc == null) {
                     return;
                 }
@@ -163,31 +272,244 @@ public class WorkspaceEventGenerator {
             } catch (MongoException e) {
                 throw convert(e, "workspace");
             }
+            progress.setWorkspaceCount(1);
+            workspaceStarted(ws);
             processWorkspace(ws, tempNarr);
         } else {
-            try {
-                // don't pull all workspaces at once to try and avoid race conditions
-                final FindIterable<Document> cur = wsDB.getCollection(WS_COL_WORKSPACES)
-                        .find().sort(new Document(WS_KEY_WS_ID, 1));
-                for (final Document ws: cur) {
-                    final int id = Math.toIntExact(ws.getLong(WS_KEY_WS_ID));
-                    final String wsname = ws.getString(WS_KEY_WS_NAME);
-                    final boolean tempNarr = isTemporaryNarrative(ws);
-                    if (wsBlackList.contains(new WorkspaceIdentifier(id)) ||
-                            wsBlackList.contains(new WorkspaceIdentifier(wsname))) {
-                        log(String.format("Skipping blacklisted workspace %s (%s)",
-                                wsname, id));
-                    } else if (ws.getBoolean(WS_KEY_WS_DEL)) {
-                        log(String.format("Skipping deleted workspace %s (%s)", id, wsname));
-                    } else {
-                        processWorkspace(id, tempNarr);
-                    }
+            processAllWorkspaces(startWS.get());
+        }
+        storePendingEvents(true);
+        saveCheckpoint(getWatermark(), true);
+        if (incremental) {
+            saveIncrementalWatermark(runStart);
+        }
+        log("Finished processing. " + progress.getProgress());
+    }
+    
+    private void processAllWorkspaces(final int startWS)
+            throws EventGeneratorException, InterruptedException {
+        final ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+        // bounds the number of workspaces queued for processing
+        final Semaphore slots = new Semaphore(parallelism * 2);
+        final AtomicReference<EventGeneratorException> error = new AtomicReference<>();
+        try {
+            final Document query = new Document(WS_KEY_WS_ID, new Document("$gte", startWS));
+            if (since.isPresent()) {
+                // saving an object updates the workspace modification date
+                query.append(WS_KEY_MODDATE, new Document("$gte", Date.from(since.get())));
+            }
+            progress.setWorkspaceCount(wsDB.getCollection(WS_COL_WORKSPACES).count(query));
+            // don't pull all workspaces at once to try and avoid race conditions
+            final FindIterable<Document> cur = wsDB.getCollection(WS_COL_WORKSPACES)
+                    .find(query).projection(WS_PROJECTION).sort(new Document(WS_KEY_WS_ID, 1));
+            for (final Document ws: cur) {
+                if (error.get() != null) {
+                    break;
                 }
-            } catch (MongoException e) {
-                throw convert(e, "workspace");
+                final int id = Math.toIntExact(ws.getLong(WS_KEY_WS_ID));
+                final String wsname = ws.getString(WS_KEY_WS_NAME);
+                final boolean tempNarr = isTemporaryNarrative(ws);
+                workspaceStarted(id);
+                if (wsBlackList.contains(new WorkspaceIdentifier(id)) ||
+                        wsBlackList.contains(new WorkspaceIdentifier(wsname))) {
+                    log(String.format("Skipping blacklisted workspace %s (%s)",
+                            wsname, id));
+                    progress.workspaceComplete();
+                    workspaceFinished(id);
+                } else if (ws.getBoolean(WS_KEY_WS_DEL)) {
+                    log(String.format("Skipping deleted workspace %s (%s)", id, wsname));
+                    progress.workspaceComplete();
+                    workspaceFinished(id);
+                } else {
+                    slots.acquire();
+                    executor.execute(() -> {
+                        try {
+                            processWorkspace(id, tempNarr);
+                        } catch (EventGeneratorException e) {
+                            error.compareAndSet(null, e);
+                        } catch (MongoException e) {
+                            error.compareAndSet(null, convert(e, "workspace"));
+                        } catch (RuntimeException e) {
+                            error.compareAndSet(null, new EventGeneratorException(String.format(
+                                    "Error processing workspace %s: %s", id, e.getMessage()),
+                                    e));
+                        } finally {
+                            slots.release();
+                        }
+                    });
+                }
+            }
+            executor.shutdown();
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (MongoException e) {
+            error.compareAndSet(null, convert(e, "workspace"));
+        } finally {
+            // no-op unless the loop threw or the thread was interrupted
+            executor.shutdownNow();
+        }
+        if (error.get() != null) {
+            throw error.get();
+        }
+    }
+    
+    private Document getRunParameters() {
+        final List<String> blacklist = new ArrayList<>();
+        for (final WorkspaceIdentifier wsi: wsBlackList) {
+            blacklist.add(wsi.getId().isPresent() ?
+                    wsi.getId().get() + "" : wsi.getName().get());
+        }
+        final List<String> types = new ArrayList<>();
+        for (final Pattern p: wsTypes) {
+            types.add(p.pattern());
+        }
+        Collections.sort(blacklist);
+        Collections.sort(types);
+        final List<String> workers = new ArrayList<>(workerCodes);
+        Collections.sort(workers);
+        return new Document("ws", ws)
+                .append("obj", obj)
+                .append("ver", ver)
+                .append("lastver", lastVersionOnly)
+                .append("blacklist", blacklist)
+                .append("types", types)
+                .append("workers", workers)
+                .append("since", since.isPresent() ? Date.from(since.get()) : null);
+    }
+    
+    /* Returns the workspace id from which to start processing, or absent if there is nothing
+     * to do.
+     */
+    private Optional<Integer> startCheckpoint() throws EventGeneratorException {
+        if (checkpointDB == null) {
+            return Optional.of(0);
+        }
+        final Document params = getRunParameters();
+        final Document cp;
+        try {
+            cp = checkpointDB.getCollection(COL_CHECKPOINT)
+                    .find(new Document("_id", WS_EVENT_GEN)).first();
+        } catch (MongoException e) {
+            throw convert(e, "search");
+        }
+        if (!resume || cp == null) {
+            if (resume) {
+                log("No checkpoint found, starting from the beginning");
             }
+            saveCheckpoint(1, false);
+            return Optional.of(0);
+        }
+        if (!params.equals(cp.get(CP_KEY_PARAMS))) {
+            throw new EventGeneratorException(String.format(
+                    "The parameters of the checkpointed run, %s, do not match the parameters " +
+                    "of this run, %s", cp.get(CP_KEY_PARAMS), params));
+        }
+        if (cp.getBoolean(CP_KEY_COMPLETE)) {
+            log("The checkpointed run is complete, nothing to resume");
+            return Optional.absent();
+        }
+        runID = cp.getString(CP_KEY_RUN);
+        final int startWS = cp.getInteger(CP_KEY_WS);
+        synchronized (checkpointLock) {
+            lastStarted = startWS - 1;
+        }
+        log(String.format("Resuming run %s from workspace %s", runID, startWS));
+        return Optional.of(startWS);
+    }
+    
+    /* Sets the time from which to process versions from the watermark, unless the time was
+     * provided explicitly. Incremental runs use a fixed event key prefix so that the versions
+     * in the overlap between runs don't produce duplicate events.
+     */
+    private void startIncremental() throws EventGeneratorException {
+        runID = INCREMENTAL_ID;
+        if (since.isPresent()) {
+            log("Processing versions saved since " + since.get());
+            return;
+        }
+        final Document wm;
+        try {
+            wm = checkpointDB.getCollection(COL_CHECKPOINT)
+                    .find(new Document("_id", INCREMENTAL_ID)).first();
+        } catch (MongoException e) {
+            throw convert(e, "search");
+        }
+        if (wm == null) {
+            log("No incremental watermark found, processing all versions");
+        } else {
+            since = Optional.of(wm.getDate(INC_KEY_WATERMARK).toInstant()
+                    .minus(INCREMENTAL_OVERLAP));
+            log("Processing versions saved since " + since.get());
+        }
+    }
+    
+    private void saveIncrementalWatermark(final Instant watermark)
+            throws EventGeneratorException {
+        try {
+            checkpointDB.getCollection(COL_CHECKPOINT).replaceOne(
+                    new Document("_id", INCREMENTAL_ID),
+                    new Document(INC_KEY_WATERMARK, Date.from(watermark)),
+                    new UpdateOptions().upsert(true));
+        } catch (MongoException e) {
+            throw convert(e, "search");
+        }
+        log("Saved incremental watermark " + watermark);
+    }
+    
+    private void workspaceStarted(final int wsid) {
+        synchronized (checkpointLock) {
+            inFlight.add(wsid);
+            lastStarted = wsid;
+        }
+    }
+    
+    private void workspaceFinished(final int wsid) throws EventGeneratorException {
+        final int watermark;
+        synchronized (checkpointLock) {
+            inFlight.remove(wsid);
+            if (Duration.between(lastCheckpoint, Instant.now())
+                    .compareTo(CHECKPOINT_INTERVAL) < 0) {
+                return;
+            }
+            lastCheckpoint = Instant.now();
+            watermark = getWatermark();
+        }
+        // the events from the workspaces below the watermark must be stored before the
+        // checkpoint moves past them
+        storePendingEvents(true);
+        saveCheckpoint(watermark, false);
+    }
+    
+    private int getWatermark() {
+        synchronized (checkpointLock) {
+            return inFlight.isEmpty() ? lastStarted + 1 : inFlight.first();
+        }
+    }
+    
+    /* Saves the checkpoint. Any events generated for workspaces below the watermark must be
+     * stored prior to calling this method.
+     */
+    private void saveCheckpoint(final int watermark, final boolean complete)
+            throws EventGeneratorException {
+        if (checkpointDB == null) {
+            return;
+        }
+        if (storeFailed) {
+            // the failed batch may contain events for workspaces below the watermark, so the
+            // checkpoint must stay where it was for a resumed run to regenerate them
+            return;
+        }
+        try {
+            checkpointDB.getCollection(COL_CHECKPOINT).replaceOne(
+                    new Document("_id", WS_EVENT_GEN),
+                    new Document(CP_KEY_PARAMS, getRunParameters())
+                            .append(CP_KEY_RUN, runID)
+                            .append(CP_KEY_WS, watermark)
+                            .append(CP_KEY_COMPLETE, complete)
+                            .append(CP_KEY_UPDATED, Date.from(Instant.now())),
+                    new UpdateOptions().upsert(true));
+        } catch (MongoException e) {
+            throw convert(e, "search");
         }
-        log("Finished processing.");
     }
 
     private boolean isTemporaryNarrative(final Document doc) {
@@ -209,8 +531,14 @@ public class WorkspaceEventGenerator {
         if (!wsTypes.isEmpty()) {
             query.append(WS_KEY_TYPE, new Document("$in", wsTypes));
         }
+        if (since.isPresent()) {
+            // the ws id is a prefix of the version index, so the query only scans the versions
+            // in the workspace
+            query.append(WS_KEY_SAVEDATE, new Document("$gte", Date.from(since.get())));
+        }
         final MongoCursor<Document> vercur = wsDB.getCollection(WS_COL_VERS)
                 .find(query)
+                .projection(VER_PROJECTION)
                 .sort(new Document(WS_KEY_WS_ID, 1)
                         .append(WS_KEY_OBJ_ID, 1)
                         .append(WS_KEY_VER, -1)).iterator();
@@ -220,6 +548,10 @@ public class WorkspaceEventGenerator {
             processVers(wsid, vers, pub, tempNarr);
             vers = new Versions(vercur, 10000, vers.lastObjVer);
         }
+        storePendingEvents(false);
+        progress.workspaceComplete();
+        log(String.format("Finished workspace %s. %s", wsid, progress.getProgress()));
+        workspaceFinished(wsid);
     }
 
     private void processVers(
@@ -274,23 +606,63 @@ public class WorkspaceEventGenerator {
         final String[] typeString = ver.getString(WS_KEY_TYPE).split("-");
         final String type = typeString[0];
         final int typever = Integer.parseInt(typeString[1].split("\\.")[0]);
-        try {
-            storage.store(StatusEvent.getBuilder(
-                    new StorageObjectType("WS", type, typever),
-                    ver.getDate(WS_KEY_SAVEDATE).toInstant(),
-                    StatusEventType.NEW_VERSION)
-                    .withNullableAccessGroupID(wsid)
-                    .withNullableObjectID(objid + "")
-                    .withNullableVersion(vernum)
-                    .withNullableisPublic(pub)
-                    .build(),
-                    StatusEventProcessingState.UNPROC,
-                    workerCodes,
-                    WS_EVENT_GEN);
-        } catch (RetriableIndexingException e) {
-            throw new EventGeneratorException(e.getMessage(), e); //TODO CODE retries
-        }
+        final StatusEvent event = StatusEvent.getBuilder(
+                new StorageObjectType("WS", type, typever),
+                ver.getDate(WS_KEY_SAVEDATE).toInstant(),
+                StatusEventType.NEW_VERSION)
+                .withNullableAccessGroupID(wsid)
+                .withNullableObjectID(objid + "")
+                .withNullableVersion(vernum)
+                .withNullableisPublic(pub)
+                .build();
         log(String.format("Generated event %s/%s/%s %s-%s", wsid, objid, vernum, type, typever));
+        final String key = String.format("%s:%s/%s/%s", runID, wsid, objid, vernum);
+        synchronized (this) {
+            pendingEvents.put(key, event);
+        }
+        progress.eventGenerated();
+        storePendingEvents(false);
+    }
+    
+    private synchronized boolean isStoreRequired(final boolean force) {
+        return !pendingEvents.isEmpty() && (force || pendingEvents.size() >= storeBatchSize);
+    }
+    
+    /* Stores the pending events if there's a full batch or force is true. The batch is swapped
+     * out under the lock so other threads can keep generating events during the insert.
+     * Stores are serialized so that a forced store returns only after all events generated
+     * prior to the call are stored.
+     */
+    private void storePendingEvents(final boolean force) throws EventGeneratorException {
+        // a forced store must wait for any in progress store even if nothing is pending
+        if (!force && !isStoreRequired(false)) {
+            return;
+        }
+        synchronized (storeLock) {
+            final Map<String, StatusEvent> batch;
+            synchronized (this) {
+                if (!isStoreRequired(force)) {
+                    return;
+                }
+                batch = pendingEvents;
+                pendingEvents = new LinkedHashMap<>();
+            }
+            final int stored;
+            try {
+                // backfill events go in the bulk lane so they don't delay user saves
+                // events already stored by a previous attempt at this run are skipped
+                stored = storage.storeAllUnique(batch, StatusEventProcessingState.UNPROC,
+                        workerCodes, WS_EVENT_GEN, StatusEventPriority.BULK).size();
+            } catch (RetriableIndexingException e) {
+                storeFailed = true;
+                throw new EventGeneratorException(e.getMessage(), e); //TODO CODE retries
+            } catch (RuntimeException e) {
+                storeFailed = true;
+                throw e;
+            }
+            log(String.format("Stored %s events, skipped %s previously stored events",
+                    stored, batch.size() - stored));
+        }
     }
 
     private Map<Integer, Document> getObjects(
@@ -304,7 +676,8 @@ public class WorkspaceEventGenerator {
                     .find(new Document(WS_KEY_WS_ID, wsid)
                             .append(WS_KEY_OBJ_ID,
                                     new Document("$gte", minObjId)
-                                            .append("$lte", maxObjId)));
+                                            .append("$lte", maxObjId)))
+                    .projection(OBJ_PROJECTION);
             for (final Document obj: objs) {
                 ret.put(Math.toIntExact(obj.getLong(WS_KEY_OBJ_ID)), obj);
             }
@@ -376,7 +749,8 @@ public class WorkspaceEventGenerator {
         try {
             final Document pubdoc = wsDB.getCollection(WS_COL_WORKSPACE_ACLS)
                     .find(new Document(WS_KEY_WS_USER, WS_PUB_USER)
-                            .append(WS_KEY_WS_ACL_ID, wsid)).first();
+                            .append(WS_KEY_WS_ACL_ID, wsid))
+                    .projection(ACL_PROJECTION).first();
             if (pubdoc == null) {
                 pub = false;
             } else {
@@ -391,6 +765,48 @@ public class WorkspaceEventGenerator {
     private void log(final String string) {
         logtarget.println(Instant.now().toEpochMilli() + " " + string);
     }
+    
+    /* Tracks the progress of the generator. The estimated time to completion assumes
+     * workspaces take, on average, the same time to process.
+     */
+    private static class Progress {
+        
+        private final AtomicLong workspaces = new AtomicLong();
+        private final AtomicLong workspacesComplete = new AtomicLong();
+        private final AtomicLong events = new AtomicLong();
+        private Instant start = Instant.now();
+        
+        private void start() {
+            start = Instant.now();
+        }
+        
+        private void setWorkspaceCount(final long count) {
+            workspaces.set(count);
+        }
+        
+        private void workspaceComplete() {
+            workspacesComplete.incrementAndGet();
+        }
+        
+        private void eventGenerated() {
+            events.incrementAndGet();
+        }
+        
+        private String getProgress() {
+            final long elapsed = Math.max(1, Duration.between(start, Instant.now()).toMillis());
+            final long total = workspaces.get();
+            final long done = workspacesComplete.get();
+            final String eta;
+            if (done < 1 || done >= total) {
+                eta = done >= total ? "0s" : "unknown";
+            } else {
+                eta = Duration.ofMillis(elapsed * (total - done) / done).getSeconds() + "s";
+            }
+            return String.format("%s/%s workspaces, %s events in %s s (%.1f events/s), ETA %s",
+                    done, total, events.get(), elapsed / 1000, events.get() * 1000.0 / elapsed,
+                    eta);
+        }
+    }
 
     public static class Builder {
         
@@ -404,6 +820,12 @@ public class WorkspaceEventGenerator {
         private Collection<String> wsTypes = new LinkedList<>();
         private Collection<String> workerCodes = new HashSet<>();
         private boolean lastVersionOnly = false;
+        private int storeBatchSize = DEFAULT_STORE_BATCH_SIZE;
+        private int parallelism = DEFAULT_PARALLELISM;
+        private MongoDatabase checkpointDatabase = null;
+        private boolean resume = false;
+        private boolean incremental = false;
+        private Optional<Instant> since = Optional.absent();
         
         public Builder(
                 final StatusEventStorage storage,
@@ -476,10 +898,90 @@ public class WorkspaceEventGenerator {
             return this;
         }
 
+        /** Set the number of events to store in one call to the event storage system.
+         * Defaults to {@link WorkspaceEventGenerator#DEFAULT_STORE_BATCH_SIZE}.
+         * @param storeBatchSize the batch size.
+         * @return this builder.
+         */
+        public Builder withStoreBatchSize(final int storeBatchSize) {
+            if (storeBatchSize < 1) {
+                throw new IllegalArgumentException("storeBatchSize must be at least 1");
+            }
+            this.storeBatchSize = storeBatchSize;
+            return this;
+        }
+
+        /** Set the number of workspaces to process in parallel. Defaults to
+         * {@link WorkspaceEventGenerator#DEFAULT_PARALLELISM}.
+         * @param parallelism the number of workspaces to process at once.
+         * @return this builder.
+         */
+        public Builder withParallelism(final int parallelism) {
+            if (parallelism < 1) {
+                throw new IllegalArgumentException("parallelism must be at least 1");
+            }
+            this.parallelism = parallelism;
+            return this;
+        }
+
+        /** Set the database in which to save a checkpoint of the progress of the generator.
+         * Usually the search database. If not set, no checkpoints are saved.
+         * @param checkpointDatabase the database.
+         * @return this builder.
+         */
+        public Builder withCheckpointDatabase(final MongoDatabase checkpointDatabase) {
+            nonNull(checkpointDatabase, "checkpointDatabase");
+            this.checkpointDatabase = checkpointDatabase;
+            return this;
+        }
+        
+        /** Resume the run saved in the checkpoint database, if any, rather than starting a new
+         * run. The run parameters must match those of the checkpointed run. Requires a
+         * checkpoint database.
+         * @param resume true to resume the checkpointed run.
+         * @return this builder.
+         */
+        public Builder withResume(final boolean resume) {
+            this.resume = resume;
+            return this;
+        }
+
+        /** Only generate events for versions saved since the last successful incremental run,
+         * and record the start of this run as the starting point for the next incremental run.
+         * If there has been no previous incremental run, all versions are processed. Requires a
+         * checkpoint database, which stores the starting point.
+         * @param incremental true to run in incremental mode.
+         * @return this builder.
+         */
+        public Builder withIncremental(final boolean incremental) {
+            this.incremental = incremental;
+            return this;
+        }
+        
+        /** Only generate events for versions saved at or after the given time. Overrides the
+         * starting point of an incremental run.
+         * @param since the earliest save time of the versions to process, or null to process
+         * versions saved at any time.
+         * @return this builder.
+         */
+        public Builder withNullableSince(final Instant since) {
+            this.since = Optional.fromNullable(since);
+            return this;
+        }
+
         public WorkspaceEventGenerator build() throws EventGeneratorException {
+            if (resume && checkpointDatabase == null) {
+                throw new EventGeneratorException(
+                        "A checkpoint database is required to resume a run");
+            }
+            if (incremental && checkpointDatabase == null) {
+                throw new EventGeneratorException(
+                        "A checkpoint database is required for an incremental run");
+            }
             return new WorkspaceEventGenerator(
                     storage, workspaceDatabase, ws, obj, ver, logtarget, wsBlackList, wsTypes,
-                    workerCodes, ver > 0 ? false : lastVersionOnly);
+                    workerCodes, ver > 0 ? false : lastVersionOnly, storeBatchSize, parallelism,
+                    checkpointDatabase, resume, incremental, since);
         }
 
     }
@@ -0,0 +1,230 @@
+package kbasesearchengine.test.common;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+
+import org.junit.Test;
+
+import kbasesearchengine.common.CircuitBreaker;
+import kbasesearchengine.common.CircuitBreaker.State;
+
+public class CircuitBreakerTest {
+
+    @Test
+    public void construct() {
+        final CircuitBreaker cb = new CircuitBreaker("es", 3, Duration.ofSeconds(10));
+
+        assertThat("incorrect name", cb.getName(), is("es"));
+        assertThat("incorrect state", cb.getState(), is(State.CLOSED));
+        assertThat("incorrect short circuit count", cb.getShortCircuitedCount(), is(0L));
+        assertThat("incorrect opened count", cb.getOpenedCount(), is(0L));
+    }
+
+    @Test
+    public void constructFail() {
+        final Duration d = Duration.ofMillis(1);
+        final Clock c = Clock.systemDefaultZone();
+        failConstruct(null, 1, d, c, new IllegalArgumentException(
+                "name cannot be null or whitespace only"));
+        failConstruct("   \t  ", 1, d, c, new IllegalArgumentException(
+                "name cannot be null or whitespace only"));
+        failConstruct("n", 0, d, c, new IllegalArgumentException(
+                "failureThreshold must be at least 1"));
+        failConstruct("n", 1, null, c, new NullPointerException("openDuration"));
+        failConstruct("n", 1, Duration.ZERO, c, new IllegalArgumentException(
+                "openDuration must be positive"));
+        failConstruct("n", 1, Duration.ofMillis(-1), c, new IllegalArgumentException(
+                "openDuration must be positive"));
+        failConstruct("n", 1, d, null, new NullPointerException("clock"));
+    }
+
+    private void failConstruct(
+            final String name,
+            final int threshold,
+            final Duration open,
+            final Clock clock,
+            final Exception expected) {
+        try {
+            new CircuitBreaker(name, threshold, open, clock);
+            fail("expected exception");
+        } catch (Exception got) {
+            TestCommon.assertExceptionCorrect(got, expected);
+        }
+    }
+
+    @Test
+    public void constructRateFail() {
+        final Duration d = Duration.ofMillis(1);
+        final Clock c = Clock.systemDefaultZone();
+        failConstructRate(null, 0.5, 1, d, c, new IllegalArgumentException(
+                "name cannot be null or whitespace only"));
+        failConstructRate("n", 0, 1, d, c, new IllegalArgumentException(
+                "failureRateThreshold must be greater than 0 and at most 1"));
+        failConstructRate("n", 1.01, 1, d, c, new IllegalArgumentException(
+                "failureRateThreshold must be greater than 0 and at most 1"));
+        failConstructRate("n", Double.NaN, 1, d, c, new IllegalArgumentException(
+                "failureRateThreshold must be greater than 0 and at most 1"));
+        failConstructRate("n", 0.5, 0, d, c, new IllegalArgumentException(
+                "windowSize must be at least 1"));
+        failConstructRate("n", 0.5, 1, null, c, new NullPointerException("openDuration"));
+        failConstructRate("n", 0.5, 1, Duration.ZERO, c, new IllegalArgumentException(
+                "openDuration must be positive"));
+        failConstructRate("n", 0.5, 1, d, null, new NullPointerException("clock"));
+    }
+
+    private void failConstructRate(
+            final String name,
+            final double rate,
+            final int window,
+            final Duration open,
+            final Clock clock,
+            final Exception expected) {
+        try {
+            new CircuitBreaker(name, rate, window, open, clock);
+            fail("expected exception");
+        } catch (Exception got) {
+            TestCommon.assertExceptionCorrect(got, expected);
+        }
+    }
+
+    @Test
+    public void openAfterFailureRate() {
+        final Clock clock = mock(Clock.class);
+        when(clock.instant()).thenReturn(Instant.ofEpochMilli(10000));
+        final CircuitBreaker cb = new CircuitBreaker(
+                "ws", 0.5, 4, Duration.ofSeconds(10), clock);
+
+        // the window isn't full, so the breaker stays closed
+        cb.recordFailure();
+        cb.recordFailure();
+        cb.recordFailure();
+        assertThat("incorrect state", cb.getState(), is(State.CLOSED));
+        assertThat("incorrect rate", cb.getFailureRate(), is(1.0));
+        cb.recordSuccess();
+        assertThat("incorrect state", cb.getState(), is(State.CLOSED));
+        assertThat("incorrect rate", cb.getFailureRate(), is(0.75));
+        // the oldest failure drops out of the window
+        cb.recordSuccess();
+        cb.recordSuccess();
+        assertThat("incorrect rate", cb.getFailureRate(), is(0.25));
+        // replaces a failure
+        cb.recordFailure();
+        assertThat("incorrect state", cb.getState(), is(State.CLOSED));
+        assertThat("incorrect rate", cb.getFailureRate(), is(0.25));
+        cb.recordFailure();
+        assertThat("incorrect state", cb.getState(), is(State.OPEN));
+        assertThat("incorrect opened count", cb.getOpenedCount(), is(1L));
+        assertThat("incorrect rate", cb.getFailureRate(), is(0.0));
+    }
+
+    @Test
+    public void openTimeRemaining() {
+        final Clock clock = mock(Clock.class);
+        when(clock.instant()).thenReturn(Instant.ofEpochMilli(10000), Instant.ofEpochMilli(16000),
+                Instant.ofEpochMilli(16000), Instant.ofEpochMilli(20000));
+        final CircuitBreaker cb = new CircuitBreaker("es", 1.0, 1, Duration.ofSeconds(10), clock);
+
+        // no clock call when closed
+        assertThat("incorrect remaining", cb.getOpenTimeRemaining(), is(Duration.ZERO));
+        cb.recordFailure(); // call 1
+        assertThat("incorrect remaining", cb.getOpenTimeRemaining(),
+                is(Duration.ofSeconds(4))); // calls 2 and 3
+        assertThat("incorrect remaining", cb.getOpenTimeRemaining(),
+                is(Duration.ZERO)); // call 4
+    }
+
+    @Test
+    public void openAfterThreshold() {
+        final Clock clock = mock(Clock.class);
+        when(clock.instant()).thenReturn(Instant.ofEpochMilli(10000));
+        final CircuitBreaker cb = new CircuitBreaker("es", 3, Duration.ofSeconds(10), clock);
+
+        for (int i = 0; i < 2; i++) {
+            assertThat("incorrect acquire", cb.tryAcquire(), is(true));
+            cb.recordFailure();
+        }
+        assertThat("incorrect state", cb.getState(), is(State.CLOSED));
+        // a success resets the failure count
+        assertThat("incorrect acquire", cb.tryAcquire(), is(true));
+        cb.recordSuccess();
+        for (int i = 0; i < 2; i++) {
+            assertThat("incorrect acquire", cb.tryAcquire(), is(true));
+            cb.recordFailure();
+        }
+        assertThat("incorrect state", cb.getState(), is(State.CLOSED));
+        assertThat("incorrect acquire", cb.tryAcquire(), is(true));
+        cb.recordFailure();
+        assertThat("incorrect state", cb.getState(), is(State.OPEN));
+        assertThat("incorrect opened count", cb.getOpenedCount(), is(1L));
+
+        assertThat("incorrect acquire", cb.tryAcquire(), is(false));
+        assertThat("incorrect acquire", cb.tryAcquire(), is(false));
+        assertThat("incorrect short circuit count", cb.getShortCircuitedCount(), is(2L));
+    }
+
+    @Test
+    public void halfOpenProbeSucceeds() {
+        final Clock clock = mock(Clock.class);
+        when(clock.instant()).thenReturn(Instant.ofEpochMilli(10000), Instant.ofEpochMilli(19999),
+                Instant.ofEpochMilli(20000));
+        final CircuitBreaker cb = new CircuitBreaker("es", 1, Duration.ofSeconds(10), clock);
+
+        cb.tryAcquire();
+        cb.recordFailure(); // clock call 1
+        assertThat("incorrect state", cb.getState(), is(State.OPEN)); // call 2
+        assertThat("incorrect state", cb.getState(), is(State.HALF_OPEN)); // call 3
+
+        assertThat("incorrect acquire", cb.tryAcquire(), is(true));
+        // only one probe at a time
+        assertThat("incorrect acquire", cb.tryAcquire(), is(false));
+        cb.recordSuccess();
+        assertThat("incorrect state", cb.getState(), is(State.CLOSED));
+        assertThat("incorrect acquire", cb.tryAcquire(), is(true));
+        assertThat("incorrect acquire", cb.tryAcquire(), is(true));
+        assertThat("incorrect short circuit count", cb.getShortCircuitedCount(), is(1L));
+    }
+
+    @Test
+    public void halfOpenProbeFails() {
+        final Clock clock = mock(Clock.class);
+        when(clock.instant()).thenReturn(Instant.ofEpochMilli(10000), Instant.ofEpochMilli(20000),
+                Instant.ofEpochMilli(20000), Instant.ofEpochMilli(29999));
+        final CircuitBreaker cb = new CircuitBreaker("es", 2, Duration.ofSeconds(10), clock);
+
+        cb.tryAcquire();
+        cb.recordFailure(); // no clock call, under the threshold
+        cb.tryAcquire();
+        cb.recordFailure(); // clock call 1
+        assertThat("incorrect state", cb.getState(), is(State.HALF_OPEN)); // call 2
+
+        assertThat("incorrect acquire", cb.tryAcquire(), is(true));
+        // a single failure reopens the breaker
+        cb.recordFailure(); // call 3
+        assertThat("incorrect state", cb.getState(), is(State.OPEN)); // call 4
+        assertThat("incorrect opened count", cb.getOpenedCount(), is(2L));
+    }
+
+    @Test
+    public void halfOpenProbeReleased() {
+        final Clock clock = mock(Clock.class);
+        when(clock.instant()).thenReturn(Instant.ofEpochMilli(10000), Instant.ofEpochMilli(20000));
+        final CircuitBreaker cb = new CircuitBreaker("es", 1, Duration.ofSeconds(10), clock);
+
+        cb.tryAcquire();
+        cb.recordFailure();
+
+        assertThat("incorrect acquire", cb.tryAcquire(), is(true));
+        assertThat("incorrect acquire", cb.tryAcquire(), is(false));
+        cb.release();
+        // the probe was never made, so another is allowed
+        assertThat("incorrect acquire", cb.tryAcquire(), is(true));
+        assertThat("incorrect state", cb.getState(), is(State.HALF_OPEN));
+    }
+}
@@ -32,6 +32,7 @@ import org.bson.Document;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.collect.ImmutableMap;
+import com.mongodb.MongoException;
 import com.mongodb.client.MongoDatabase;
 
 import us.kbase.common.test.TestException;
@@ -132,7 +133,12 @@ public class TestCommon {
         for (String name: db.listCollectionNames()) {
             if (!name.startsWith("system.")) {
                 // dropping collection also drops indexes
-                db.getCollection(name).deleteMany(new Document());
+                try {
+                    db.getCollection(name).deleteMany(new Document());
+                } catch (MongoException e) {
+                    // documents can't be deleted from capped collections
+                    db.getCollection(name).drop();
+                }
             }
         }
     }
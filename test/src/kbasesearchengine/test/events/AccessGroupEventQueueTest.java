@@ -14,6 +14,7 @@ import java.util.Set;
 import org.junit.Test;
 
 import kbasesearchengine.events.AccessGroupEventQueue;
+import kbasesearchengine.events.ObjectIDRange;
 import kbasesearchengine.events.StatusEvent;
 import kbasesearchengine.events.StatusEventID;
 import kbasesearchengine.events.StatusEventProcessingState;
@@ -312,6 +313,59 @@ public class AccessGroupEventQueueTest {
         assertQueueState(q, set(e2), set(), 1);
     }
     
+    @Test
+    public void blockQueueWithRangedEvents() {
+        // child events for a range of object IDs have no object ID
+        blockQueueWithRangedEvent(StatusEventType.DELETE_ALL_VERSIONS);
+        blockQueueWithRangedEvent(StatusEventType.PUBLISH_ALL_VERSIONS);
+        blockQueueWithRangedEvent(StatusEventType.UNPUBLISH_ALL_VERSIONS);
+    }
+    
+    private StoredStatusEvent ranged(
+            final String id,
+            final Instant time,
+            final StatusEventType type,
+            final StatusEventProcessingState state) {
+        return StoredStatusEvent.getBuilder(StatusEvent.getBuilder(
+                "storagecode", time, type)
+                .withNullableObjectIDRange(new ObjectIDRange(1, 1000))
+                .build(),
+                new StatusEventID(id), state).build();
+    }
+
+    private void blockQueueWithRangedEvent(final StatusEventType type) {
+        final AccessGroupEventQueue q = new AccessGroupEventQueue();
+        
+        final StoredStatusEvent e1 = loadUnprocVer(q, "1", Instant.ofEpochMilli(10000), "1");
+        final StoredStatusEvent e2 = ranged(
+                "2", Instant.ofEpochMilli(20000), type, StatusEventProcessingState.UNPROC);
+        assertThat("incorrect load", q.load(e2), is(true));
+        final StoredStatusEvent e3 = loadUnprocVer(q, "3", Instant.ofEpochMilli(30000), "2");
+        
+        assertMoveToReadyCorrect(q, set(e1));
+        assertMoveToProcessingCorrect(q, set(e1));
+        assertQueueState(q, set(), set(e1), 3);
+        
+        q.setProcessingComplete(e1);
+        assertQueueState(q, set(e2), set(), 2);
+        assertMoveToProcessingCorrect(q, set(e2));
+        assertMoveToReadyCorrect(q, set());
+        assertQueueState(q, set(), set(e2), 2);
+        
+        q.setProcessingComplete(e2);
+        assertQueueState(q, set(e3), set(), 1);
+        
+        // check the constructor as well
+        final StoredStatusEvent e4 = ranged(
+                "4", Instant.ofEpochMilli(20000), type, StatusEventProcessingState.PROC);
+        final AccessGroupEventQueue q2 = new AccessGroupEventQueue(Arrays.asList(e4));
+        assertQueueState(q2, set(), set(e4), 1);
+        final StoredStatusEvent e5 = loadUnprocVer(q2, "5", Instant.ofEpochMilli(10000), "1");
+        assertMoveToReadyCorrect(q2, set());
+        q2.setProcessingComplete(e4);
+        assertQueueState(q2, set(e5), set(), 1);
+    }
+    
     @Test
     public void setProcessedWithMutatedEvent() {
         // in practice we expect the events passed into setProcessed() to have mutated slightly
@@ -904,4 +958,100 @@ public class AccessGroupEventQueueTest {
         q.moveToReady();
         assertQueueState(q, set(sse2), set(), 1);
     }
+    
+    @Test
+    public void hasReadyAndIsProcessing() {
+        final AccessGroupEventQueue q = new AccessGroupEventQueue();
+        assertThat("incorrect ready", q.hasReady(), is(false));
+        assertThat("incorrect processing", q.isProcessing(), is(false));
+        
+        final StoredStatusEvent e1 = loadUnprocVer(q, "1", Instant.ofEpochMilli(10000), "1");
+        final StoredStatusEvent e2 = loadUnprocVer(q, "2", Instant.ofEpochMilli(10000), "2");
+        assertThat("incorrect ready", q.hasReady(), is(false));
+        assertThat("incorrect processing", q.isProcessing(), is(false));
+        
+        assertMoveToReadyCorrect(q, set(e1, e2));
+        assertThat("incorrect ready", q.hasReady(), is(true));
+        assertThat("incorrect processing", q.isProcessing(), is(false));
+        
+        assertMoveToProcessingCorrect(q, set(e1, e2));
+        assertThat("incorrect ready", q.hasReady(), is(false));
+        assertThat("incorrect processing", q.isProcessing(), is(true));
+        
+        final StoredStatusEvent e3 = loadUnprocVer(q, "3", Instant.ofEpochMilli(20000), "1");
+        q.setProcessingComplete(e1);
+        assertQueueState(q, set(e3), set(e2), 2);
+        assertThat("incorrect ready", q.hasReady(), is(true));
+        assertThat("incorrect processing", q.isProcessing(), is(true));
+        
+        q.setProcessingComplete(e2);
+        assertThat("incorrect ready", q.hasReady(), is(true));
+        assertThat("incorrect processing", q.isProcessing(), is(false));
+    }
+    
+    @Test
+    public void hasReadyAndIsProcessingAccessGroupEvent() {
+        final AccessGroupEventQueue q = new AccessGroupEventQueue();
+        
+        final StoredStatusEvent e1 = loadUnproc(q, "1", Instant.ofEpochMilli(10000), null,
+                StatusEventType.PUBLISH_ACCESS_GROUP);
+        assertMoveToReadyCorrect(q, set(e1));
+        assertThat("incorrect ready", q.hasReady(), is(true));
+        assertThat("incorrect processing", q.isProcessing(), is(false));
+        
+        assertMoveToProcessingCorrect(q, set(e1));
+        assertThat("incorrect ready", q.hasReady(), is(false));
+        assertThat("incorrect processing", q.isProcessing(), is(true));
+        
+        q.setProcessingComplete(e1);
+        assertThat("incorrect ready", q.hasReady(), is(false));
+        assertThat("incorrect processing", q.isProcessing(), is(false));
+    }
+    
+    @Test
+    public void removeCoalesced() {
+        final AccessGroupEventQueue q = new AccessGroupEventQueue();
+        assertThat("incorrect coalesced", q.hasCoalesced(), is(false));
+        assertThat("incorrect coalesced", q.removeCoalesced(), is(Collections.emptyList()));
+        
+        final StoredStatusEvent r1 = loadUnproc(q, "r1", Instant.ofEpochMilli(10000), "1",
+                StatusEventType.RENAME_ALL_VERSIONS);
+        final StoredStatusEvent r2 = loadUnproc(q, "r2", Instant.ofEpochMilli(20000), "1",
+                StatusEventType.RENAME_ALL_VERSIONS);
+        final StoredStatusEvent p1 = loadUnproc(q, "p1", Instant.ofEpochMilli(10000), "2",
+                StatusEventType.PUBLISH_ALL_VERSIONS);
+        final StoredStatusEvent u1 = loadUnproc(q, "u1", Instant.ofEpochMilli(20000), "2",
+                StatusEventType.UNPUBLISH_ALL_VERSIONS);
+        final StoredStatusEvent n1 = loadUnprocVer(q, "n1", Instant.ofEpochMilli(15000), "3");
+        
+        assertMoveToReadyCorrect(q, set(r2, u1, n1));
+        assertThat("incorrect coalesced", q.hasCoalesced(), is(true));
+        assertQueueState(q, set(r2, u1, n1), set(), 5);
+        assertThat("incorrect coalesced", set(q.removeCoalesced().toArray()),
+                is(set(r1, p1)));
+        assertThat("incorrect coalesced", q.hasCoalesced(), is(false));
+        assertQueueState(q, set(r2, u1, n1), set(), 3);
+    }
+    
+    @Test
+    public void removeCoalescedAfterProcessingComplete() {
+        final AccessGroupEventQueue q = new AccessGroupEventQueue();
+        final StoredStatusEvent n1 = loadUnprocVer(q, "n1", Instant.ofEpochMilli(10000), "1");
+        assertMoveToReadyCorrect(q, set(n1));
+        assertMoveToProcessingCorrect(q, set(n1));
+        final StoredStatusEvent r1 = loadUnproc(q, "r1", Instant.ofEpochMilli(20000), "1",
+                StatusEventType.RENAME_ALL_VERSIONS);
+        final StoredStatusEvent r2 = loadUnproc(q, "r2", Instant.ofEpochMilli(30000), "1",
+                StatusEventType.RENAME_ALL_VERSIONS);
+        assertMoveToReadyCorrect(q, set());
+        assertThat("incorrect coalesced", q.hasCoalesced(), is(false));
+        
+        q.setProcessingComplete(n1);
+        assertThat("incorrect coalesced", q.hasCoalesced(), is(true));
+        assertQueueState(q, set(r2), set(), 2);
+        assertThat("incorrect coalesced", q.removeCoalesced(), is(Arrays.asList(r1)));
+        assertMoveToProcessingCorrect(q, set(r2));
+        q.setProcessingComplete(r2);
+        assertEmpty(q);
+    }
 }
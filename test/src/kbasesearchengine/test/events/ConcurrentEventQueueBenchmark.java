@@ -0,0 +1,153 @@
+package kbasesearchengine.test.events;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import kbasesearchengine.events.ConcurrentEventQueue;
+import kbasesearchengine.events.EventQueue;
+import kbasesearchengine.events.StatusEvent;
+import kbasesearchengine.events.StatusEventID;
+import kbasesearchengine.events.StatusEventProcessingState;
+import kbasesearchengine.events.StatusEventType;
+import kbasesearchengine.events.StoredStatusEvent;
+
+/** Compares the throughput of a {@link ConcurrentEventQueue} against an {@link EventQueue}
+ * guarded by a single global lock as the number of threads increases.
+ *
+ * Each thread repeatedly loads an event, moves ready events to processing, and completes the
+ * events it received, cycling through the objects in its own set of access groups.
+ *
+ * Not run as part of the test suite.
+ */
+public class ConcurrentEventQueueBenchmark {
+
+    private static final int ACCESS_GROUPS_PER_THREAD = 50;
+    private static final int OBJECTS_PER_ACCESS_GROUP = 20;
+    private static final int OPS_PER_THREAD = 200000;
+    private static final int[] THREADS = {1, 2, 4, 8, 16};
+
+    private static final AtomicLong EVENT_ID = new AtomicLong();
+
+    /* The operations of the two queues under test. */
+    private interface Queue {
+        void load(StoredStatusEvent event);
+        Set<StoredStatusEvent> moveToReady();
+        Set<StoredStatusEvent> moveReadyToProcessing();
+        void setProcessingComplete(StoredStatusEvent event);
+    }
+
+    private static class GlobalLockQueue implements Queue {
+
+        private final EventQueue queue = new EventQueue();
+
+        @Override
+        public synchronized void load(final StoredStatusEvent event) {
+            queue.load(event);
+        }
+
+        @Override
+        public synchronized Set<StoredStatusEvent> moveToReady() {
+            return queue.moveToReady();
+        }
+
+        @Override
+        public synchronized Set<StoredStatusEvent> moveReadyToProcessing() {
+            return queue.moveReadyToProcessing();
+        }
+
+        @Override
+        public synchronized void setProcessingComplete(final StoredStatusEvent event) {
+            queue.setProcessingComplete(event);
+        }
+    }
+
+    private static class StripedQueue implements Queue {
+
+        private final ConcurrentEventQueue queue = new ConcurrentEventQueue();
+
+        @Override
+        public void load(final StoredStatusEvent event) {
+            queue.load(event);
+        }
+
+        @Override
+        public Set<StoredStatusEvent> moveToReady() {
+            return queue.moveToReady();
+        }
+
+        @Override
+        public Set<StoredStatusEvent> moveReadyToProcessing() {
+            return queue.moveReadyToProcessing();
+        }
+
+        @Override
+        public void setProcessingComplete(final StoredStatusEvent event) {
+            queue.setProcessingComplete(event);
+        }
+    }
+
+    public static void main(final String[] args) throws Exception {
+        // warm up
+        run(new GlobalLockQueue(), 4);
+        run(new StripedQueue(), 4);
+        for (final int threads: THREADS) {
+            final double global = run(new GlobalLockQueue(), threads);
+            final double striped = run(new StripedQueue(), threads);
+            System.out.println(String.format(
+                    "%2s threads: global lock %,10.0f ops/s, striped %,10.0f ops/s (%.1fx)",
+                    threads, global, striped, striped / global));
+        }
+    }
+
+    private static double run(final Queue queue, final int threads) throws Exception {
+        final ExecutorService exe = Executors.newFixedThreadPool(threads);
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<Future<Void>> futures = new ArrayList<>();
+        try {
+            for (int t = 0; t < threads; t++) {
+                final int firstAccessGroup = t * ACCESS_GROUPS_PER_THREAD + 1;
+                futures.add(exe.submit(() -> {
+                    start.await();
+                    for (int i = 0; i < OPS_PER_THREAD; i++) {
+                        final int ag = firstAccessGroup + i % ACCESS_GROUPS_PER_THREAD;
+                        final int obj = (i / ACCESS_GROUPS_PER_THREAD) % OBJECTS_PER_ACCESS_GROUP;
+                        queue.load(event(ag, obj));
+                        queue.moveToReady();
+                        for (final StoredStatusEvent e: queue.moveReadyToProcessing()) {
+                            queue.setProcessingComplete(e);
+                        }
+                    }
+                    return null;
+                }));
+            }
+            final long startTime = System.nanoTime();
+            start.countDown();
+            for (final Future<Void> f: futures) {
+                f.get();
+            }
+            final long elapsed = System.nanoTime() - startTime;
+            return (double) threads * OPS_PER_THREAD / elapsed * 1000000000;
+        } finally {
+            exe.shutdownNow();
+        }
+    }
+
+    private static StoredStatusEvent event(final int accessGroupID, final int objectID) {
+        final long id = EVENT_ID.incrementAndGet();
+        return StoredStatusEvent.getBuilder(StatusEvent.getBuilder(
+                "WS", Instant.ofEpochMilli(id), StatusEventType.NEW_VERSION)
+                .withNullableAccessGroupID(accessGroupID)
+                .withNullableObjectID(String.valueOf(objectID))
+                .build(),
+                new StatusEventID(String.valueOf(id)),
+                StatusEventProcessingState.UNPROC)
+                .build();
+    }
+}
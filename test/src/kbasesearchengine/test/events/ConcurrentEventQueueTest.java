@@ -0,0 +1,400 @@
+package kbasesearchengine.test.events;
+
+import static kbasesearchengine.test.common.TestCommon.set;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import kbasesearchengine.events.ConcurrentEventQueue;
+import kbasesearchengine.events.StatusEvent;
+import kbasesearchengine.events.StatusEventID;
+import kbasesearchengine.events.StatusEventProcessingState;
+import kbasesearchengine.events.StatusEventType;
+import kbasesearchengine.events.StoredStatusEvent;
+import kbasesearchengine.events.exceptions.NoSuchEventException;
+import kbasesearchengine.test.common.TestCommon;
+
+public class ConcurrentEventQueueTest {
+
+    /* this assert does not mutate the queue state */
+    private void assertQueueState(
+            final ConcurrentEventQueue queue,
+            final Set<StoredStatusEvent> ready,
+            final Set<StoredStatusEvent> processing,
+            final int size) {
+        assertThat("incorrect ready", queue.getReadyForProcessing(), is(ready));
+        assertThat("incorrect get processing", queue.getProcessing(), is(processing));
+        assertThat("incorrect size", queue.size(), is(size));
+        assertThat("incorrect isEmpty", queue.isEmpty(), is(size == 0));
+    }
+
+    /* this assert does not mutate the queue state */
+    private void assertEmpty(final ConcurrentEventQueue queue) {
+        assertQueueState(queue, set(), set(), 0);
+        assertThat("incorrect move", queue.moveToReady(), is(set()));
+        assertThat("incorrect move", queue.moveReadyToProcessing(), is(set()));
+    }
+
+    private StoredStatusEvent createEvent(
+            final int accgrpID,
+            final String eventid,
+            final Instant time,
+            final StatusEventType type,
+            final StatusEventProcessingState state,
+            final String objectID) {
+        return StoredStatusEvent.getBuilder(StatusEvent.getBuilder(
+                "storagecode", time, type)
+                .withNullableObjectID(objectID)
+                .withNullableAccessGroupID(accgrpID)
+                .build(),
+                new StatusEventID(eventid), state).build();
+    }
+
+    private StoredStatusEvent unproc(
+            final int accgrpID,
+            final String eventid,
+            final Instant time,
+            final String objectID,
+            final StatusEventType type) {
+        return createEvent(
+                accgrpID, eventid, time, type, StatusEventProcessingState.UNPROC, objectID);
+    }
+
+    private StoredStatusEvent loadUnproc(
+            final ConcurrentEventQueue queue,
+            final int accgrpID,
+            final String eventid,
+            final Instant time,
+            final String objectID,
+            final StatusEventType type) {
+        final StoredStatusEvent e = unproc(accgrpID, eventid, time, objectID, type);
+        queue.load(e);
+        return e;
+    }
+
+    @Test
+    public void constructEmpty() {
+        final ConcurrentEventQueue q = new ConcurrentEventQueue();
+        assertEmpty(q);
+        assertThat("incorrect stripes", q.getStripeCount(), is(64));
+        assertEmpty(new ConcurrentEventQueue(Collections.emptyList()));
+        final ConcurrentEventQueue q2 = new ConcurrentEventQueue(1);
+        assertEmpty(q2);
+        assertThat("incorrect stripes", q2.getStripeCount(), is(1));
+    }
+
+    @Test
+    public void constructWithInitialLoad() {
+        final StoredStatusEvent e1 = createEvent(1, "1", Instant.ofEpochMilli(10000),
+                StatusEventType.NEW_VERSION, StatusEventProcessingState.READY, "1");
+        final StoredStatusEvent e2 = createEvent(1, "2", Instant.ofEpochMilli(10000),
+                StatusEventType.NEW_VERSION, StatusEventProcessingState.PROC, "2");
+        final StoredStatusEvent e3 = createEvent(2, "3", Instant.ofEpochMilli(10000),
+                StatusEventType.DELETE_ACCESS_GROUP, StatusEventProcessingState.PROC, null);
+        final ConcurrentEventQueue q = new ConcurrentEventQueue(Arrays.asList(e1, e2, e3), 7);
+
+        assertQueueState(q, set(e1), set(e2, e3), 3);
+        assertThat("incorrect stripes", q.getStripeCount(), is(7));
+
+        final StoredStatusEvent e4 = loadUnproc(
+                q, 2, "4", Instant.ofEpochMilli(20000), "1", StatusEventType.NEW_VERSION);
+        assertThat("incorrect move", q.moveToReady(), is(set()));
+        assertThat("incorrect move", q.moveReadyToProcessing(), is(set(e1)));
+        q.setProcessingComplete(e3);
+        assertQueueState(q, set(e4), set(e1, e2), 3);
+    }
+
+    @Test
+    public void constructFail() {
+        failConstruct(null, 1, new NullPointerException("initialLoad"));
+        failConstruct(Arrays.asList(createEvent(1, "1", Instant.ofEpochMilli(10000),
+                StatusEventType.NEW_VERSION, StatusEventProcessingState.READY, "1"), null), 1,
+                new NullPointerException("initialLoad has null entries"));
+        failConstruct(Collections.emptyList(), 0,
+                new IllegalArgumentException("stripes must be at least 1"));
+        failConstruct(Arrays.asList(
+                createEvent(1, "1", Instant.ofEpochMilli(10000),
+                        StatusEventType.NEW_VERSION, StatusEventProcessingState.READY, "1"),
+                createEvent(1, "2", Instant.ofEpochMilli(10000),
+                        StatusEventType.NEW_VERSION, StatusEventProcessingState.PROC, "1")), 4,
+                new IllegalArgumentException(
+                        "Already contains an event for object ID 1.\n" +
+                        "Existing event: " + createEvent(1, "1", Instant.ofEpochMilli(10000),
+                                StatusEventType.NEW_VERSION, StatusEventProcessingState.READY,
+                                "1") +
+                        "\nNew event: " + createEvent(1, "2", Instant.ofEpochMilli(10000),
+                                StatusEventType.NEW_VERSION, StatusEventProcessingState.PROC,
+                                "1")));
+    }
+
+    private void failConstruct(
+            final List<StoredStatusEvent> events,
+            final int stripes,
+            final Exception expected) {
+        try {
+            new ConcurrentEventQueue(events, stripes);
+            fail("expected exception");
+        } catch (Exception got) {
+            TestCommon.assertExceptionCorrect(got, expected);
+        }
+    }
+
+    @Test
+    public void moveEventsThroughQueue() {
+        final ConcurrentEventQueue q = new ConcurrentEventQueue(2);
+
+        final StoredStatusEvent e1 = loadUnproc(
+                q, 1, "1", Instant.ofEpochMilli(10000), "1", StatusEventType.DELETE_ALL_VERSIONS);
+        final StoredStatusEvent e2 = loadUnproc(
+                q, 1, "2", Instant.ofEpochMilli(20000), "1", StatusEventType.NEW_VERSION);
+        final StoredStatusEvent e3 = loadUnproc(
+                q, 1, "3", Instant.ofEpochMilli(15000), null, StatusEventType.COPY_ACCESS_GROUP);
+        final StoredStatusEvent e4 = loadUnproc(
+                q, 2, "4", Instant.ofEpochMilli(10000), "1", StatusEventType.NEW_VERSION);
+        final StoredStatusEvent e5 = loadUnproc(
+                q, 3, "5", Instant.ofEpochMilli(10000), "1", StatusEventType.NEW_VERSION);
+        // duplicate ID is ignored
+        loadUnproc(q, 1, "1", Instant.ofEpochMilli(10000), "1", StatusEventType.NEW_VERSION);
+        assertQueueState(q, set(), set(), 5);
+
+        assertThat("incorrect move", q.moveToReady(), is(set(e1, e4, e5)));
+        assertThat("incorrect move", q.moveReadyToProcessing(), is(set(e1, e4, e5)));
+        assertQueueState(q, set(), set(e1, e4, e5), 5);
+
+        // the access group event drains the access group first
+        q.setProcessingComplete(e1);
+        assertQueueState(q, set(e3), set(e4, e5), 4);
+        assertThat("incorrect move", q.moveReadyToProcessing(), is(set(e3)));
+        q.setProcessingComplete(e4);
+        q.setProcessingComplete(e3);
+        assertQueueState(q, set(e2), set(e5), 2);
+        assertThat("incorrect move", q.moveReadyToProcessing(), is(set(e2)));
+        q.setProcessingComplete(e2);
+        q.setProcessingComplete(e5);
+        assertEmpty(q);
+    }
+
+    @Test
+    public void removeCoalesced() {
+        final ConcurrentEventQueue q = new ConcurrentEventQueue(3);
+        assertThat("incorrect coalesced", q.removeCoalesced(), is(Collections.emptyList()));
+        
+        final StoredStatusEvent r1 = loadUnproc(
+                q, 1, "r1", Instant.ofEpochMilli(10000), "1", StatusEventType.RENAME_ALL_VERSIONS);
+        final StoredStatusEvent r2 = loadUnproc(
+                q, 1, "r2", Instant.ofEpochMilli(20000), "1", StatusEventType.RENAME_ALL_VERSIONS);
+        final StoredStatusEvent p1 = loadUnproc(
+                q, 2, "p1", Instant.ofEpochMilli(10000), "1", StatusEventType.PUBLISH_ALL_VERSIONS);
+        final StoredStatusEvent p2 = loadUnproc(
+                q, 2, "p2", Instant.ofEpochMilli(20000), "1", StatusEventType.PUBLISH_ALL_VERSIONS);
+        
+        assertThat("incorrect move", q.moveToReady(), is(set(r2, p2)));
+        assertQueueState(q, set(r2, p2), set(), 4);
+        assertThat("incorrect coalesced", set(q.removeCoalesced().toArray()),
+                is(set(r1, p1)));
+        assertQueueState(q, set(r2, p2), set(), 2);
+        assertThat("incorrect coalesced", q.removeCoalesced(), is(Collections.emptyList()));
+    }
+
+    @Test
+    public void loadFail() {
+        final StatusEvent se = StatusEvent.getBuilder(
+                "foo", Instant.ofEpochMilli(10000), StatusEventType.DELETE_ALL_VERSIONS)
+                .withNullableAccessGroupID(1).build();
+        final StatusEventID id = new StatusEventID("some id");
+
+        failLoad(null, new NullPointerException("event"));
+        failLoad(StoredStatusEvent.getBuilder(se, id, StatusEventProcessingState.READY).build(),
+                new IllegalArgumentException("Illegal state for loading event: READY"));
+    }
+
+    private void failLoad(final StoredStatusEvent event, final Exception expected) {
+        final ConcurrentEventQueue q = new ConcurrentEventQueue();
+        try {
+            q.load(event);
+            fail("expected exception");
+        } catch (Exception got) {
+            TestCommon.assertExceptionCorrect(got, expected);
+        }
+        assertEmpty(q);
+    }
+
+    @Test
+    public void setProcessingCompleteFail() {
+        final StoredStatusEvent sse = createEvent(1, "foo", Instant.ofEpochMilli(10000),
+                StatusEventType.DELETE_ALL_VERSIONS, StatusEventProcessingState.READY, "id");
+
+        failSetProcessingComplete(new ConcurrentEventQueue(), null,
+                new NullPointerException("event"));
+        failSetProcessingComplete(new ConcurrentEventQueue(), sse, new NoSuchEventException(sse));
+
+        final ConcurrentEventQueue q = new ConcurrentEventQueue(Arrays.asList(createEvent(
+                1, "foo2", Instant.ofEpochMilli(10000), StatusEventType.DELETE_ACCESS_GROUP,
+                StatusEventProcessingState.PROC, null)));
+        failSetProcessingComplete(q, sse, new NoSuchEventException(sse));
+        assertThat("incorrect size", q.size(), is(1));
+    }
+
+    private void failSetProcessingComplete(
+            final ConcurrentEventQueue queue,
+            final StoredStatusEvent event,
+            final Exception expected) {
+        try {
+            queue.setProcessingComplete(event);
+            fail("expected exception");
+        } catch (Exception got) {
+            TestCommon.assertExceptionCorrect(got, expected);
+        }
+    }
+
+    @Test
+    public void concurrentLoadAndProcess() throws Exception {
+        /* loader threads load events for a small number of access groups and objects, so there
+         * is plenty of contention, while worker threads take events for processing and
+         * complete them. While a worker holds an event it records the event as in flight.
+         * That interval is contained within the interval the queue considers the event to be
+         * processing, so if the queue is correct the workers never see conflicting events in
+         * flight at the same time, and see the events for an object in timestamp order.
+         */
+        final int loaders = 4;
+        final int workers = 8;
+        final int eventsPerLoader = 2000;
+        final int accessGroups = 5;
+        final int objects = 4;
+        final int total = loaders * eventsPerLoader;
+        final ConcurrentEventQueue q = new ConcurrentEventQueue(4);
+
+        // loader l's event i has timestamp i * loaders + l, so each object's events interleave
+        // across loaders. Loaders load in timestamp order, and an object's events are only
+        // loaded by one loader, so events for an object are always loaded in order.
+        final Map<String, List<Long>> expectedOrder = new HashMap<>();
+        final List<List<StoredStatusEvent>> loads = new ArrayList<>();
+        for (int l = 0; l < loaders; l++) {
+            final List<StoredStatusEvent> events = new ArrayList<>();
+            for (int i = 0; i < eventsPerLoader; i++) {
+                final long time = (long) i * loaders + l;
+                final int ag = (i % accessGroups) + 1;
+                final String id = l + "-" + i;
+                final StoredStatusEvent e;
+                if (i % 50 == 0) {
+                    e = unproc(ag, id, Instant.ofEpochMilli(time), null,
+                            StatusEventType.PUBLISH_ACCESS_GROUP);
+                } else {
+                    // each loader gets its own objects
+                    final String obj = l + "_" + (i % objects);
+                    e = unproc(ag, id, Instant.ofEpochMilli(time), obj,
+                            StatusEventType.NEW_VERSION);
+                    final String key = ag + "/" + obj;
+                    if (!expectedOrder.containsKey(key)) {
+                        expectedOrder.put(key, new ArrayList<>());
+                    }
+                    expectedOrder.get(key).add(time);
+                }
+                events.add(e);
+            }
+            loads.add(events);
+        }
+
+        final Map<Integer, AtomicInteger> objectsInFlight = new ConcurrentHashMap<>();
+        final Set<Integer> accessGroupsInFlight = ConcurrentHashMap.newKeySet();
+        final Set<String> objectKeysInFlight = ConcurrentHashMap.newKeySet();
+        final Map<String, List<Long>> seenOrder = new ConcurrentHashMap<>();
+        final Set<StatusEventID> processed = ConcurrentHashMap.newKeySet();
+        final AtomicInteger processedCount = new AtomicInteger();
+        for (int ag = 1; ag <= accessGroups; ag++) {
+            objectsInFlight.put(ag, new AtomicInteger());
+        }
+
+        final ExecutorService exe = Executors.newFixedThreadPool(loaders + workers);
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<Future<Void>> futures = new ArrayList<>();
+        try {
+            for (final List<StoredStatusEvent> events: loads) {
+                futures.add(exe.submit(() -> {
+                    start.await();
+                    for (final StoredStatusEvent e: events) {
+                        q.load(e);
+                        q.moveToReady();
+                    }
+                    return null;
+                }));
+            }
+            for (int w = 0; w < workers; w++) {
+                futures.add(exe.submit(() -> {
+                    start.await();
+                    // stop on interrupt so a broken queue can't hang the test
+                    while (processedCount.get() < total &&
+                            !Thread.currentThread().isInterrupted()) {
+                        for (final StoredStatusEvent e: q.moveReadyToProcessing()) {
+                            process(e, objectsInFlight, accessGroupsInFlight, objectKeysInFlight,
+                                    seenOrder);
+                            assertThat("event processed twice", processed.add(e.getID()),
+                                    is(true));
+                            q.setProcessingComplete(e);
+                            processedCount.incrementAndGet();
+                        }
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (final Future<Void> f: futures) {
+                f.get(60, TimeUnit.SECONDS); // rethrows any assertion failures
+            }
+        } finally {
+            exe.shutdownNow();
+        }
+
+        assertThat("incorrect processed count", processed.size(), is(total));
+        assertThat("incorrect object order", seenOrder, is(expectedOrder));
+        assertEmpty(q);
+    }
+
+    private void process(
+            final StoredStatusEvent e,
+            final Map<Integer, AtomicInteger> objectsInFlight,
+            final Set<Integer> accessGroupsInFlight,
+            final Set<String> objectKeysInFlight,
+            final Map<String, List<Long>> seenOrder) {
+        final int ag = e.getEvent().getAccessGroupId().get();
+        if (e.getEvent().getAccessGroupObjectId().isPresent()) {
+            final String key = ag + "/" + e.getEvent().getAccessGroupObjectId().get();
+            objectsInFlight.get(ag).incrementAndGet();
+            assertThat("access group event in flight with object event " + e,
+                    accessGroupsInFlight.contains(ag), is(false));
+            assertThat("concurrent events for object " + e, objectKeysInFlight.add(key),
+                    is(true));
+            // only this thread can be processing this object, so no sync needed on the list
+            seenOrder.computeIfAbsent(key, k -> new ArrayList<>())
+                    .add(e.getEvent().getTimestamp().toEpochMilli());
+            Thread.yield();
+            objectKeysInFlight.remove(key);
+            objectsInFlight.get(ag).decrementAndGet();
+        } else {
+            assertThat("concurrent access group events " + e, accessGroupsInFlight.add(ag),
+                    is(true));
+            assertThat("object events in flight with access group event " + e,
+                    objectsInFlight.get(ag).get(), is(0));
+            Thread.yield();
+            accessGroupsInFlight.remove(ag);
+        }
+    }
+}
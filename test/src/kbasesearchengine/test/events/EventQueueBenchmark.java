@@ -0,0 +1,87 @@
+package kbasesearchengine.test.events;
+
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import kbasesearchengine.events.EventQueue;
+import kbasesearchengine.events.StatusEvent;
+import kbasesearchengine.events.StatusEventID;
+import kbasesearchengine.events.StatusEventProcessingState;
+import kbasesearchengine.events.StatusEventType;
+import kbasesearchengine.events.StoredStatusEvent;
+
+/** Measures the cost of an indexer coordinator tick on a large {@link EventQueue}.
+ *
+ * The queue is filled with 100k objects spread across 1k access groups, all of which are moved
+ * into the processing state. Each tick then completes a small number of events, loads the same
+ * number of new events, and runs the same queue operations as the coordinator. The tick time
+ * should be proportional to the number of changed access groups, not the size of the queue.
+ *
+ * Not run as part of the test suite.
+ */
+public class EventQueueBenchmark {
+
+    private static final int ACCESS_GROUPS = 1000;
+    private static final int OBJECTS_PER_ACCESS_GROUP = 100;
+    private static final int CHANGES_PER_TICK = 10;
+    private static final int WARMUP_TICKS = 1000;
+    private static final int TICKS = 10000;
+
+    private static int eventID = 0;
+
+    public static void main(final String[] args) {
+        final EventQueue queue = new EventQueue();
+        final long loadStart = System.nanoTime();
+        for (int ag = 1; ag <= ACCESS_GROUPS; ag++) {
+            for (int obj = 1; obj <= OBJECTS_PER_ACCESS_GROUP; obj++) {
+                queue.load(event(ag, obj));
+            }
+        }
+        queue.moveToReady();
+        queue.moveReadyToProcessing();
+        System.out.println(String.format("Loaded and moved %s events to processing in %s ms",
+                queue.size(), (System.nanoTime() - loadStart) / 1000000));
+
+        final Deque<StoredStatusEvent> processing = new ArrayDeque<>(queue.getProcessing());
+        runTicks(queue, processing, WARMUP_TICKS);
+        final long start = System.nanoTime();
+        runTicks(queue, processing, TICKS);
+        final long elapsed = System.nanoTime() - start;
+        System.out.println(String.format(
+                "Queue size %s, %s changes per tick: %.1f us per tick over %s ticks",
+                queue.size(), CHANGES_PER_TICK, elapsed / 1000.0 / TICKS, TICKS));
+    }
+
+    private static void runTicks(
+            final EventQueue queue,
+            final Deque<StoredStatusEvent> processing,
+            final int ticks) {
+        for (int t = 0; t < ticks; t++) {
+            for (int i = 0; i < CHANGES_PER_TICK; i++) {
+                // complete the oldest processing event and replace it with an event for
+                // the same object
+                final StoredStatusEvent done = processing.removeFirst();
+                queue.setProcessingComplete(done);
+                queue.load(event(done.getEvent().getAccessGroupId().get(),
+                        Integer.parseInt(done.getEvent().getAccessGroupObjectId().get())));
+            }
+            // same sequence of calls as the indexer coordinator
+            queue.moveToReady();
+            queue.getReadyForProcessing();
+            processing.addAll(queue.moveReadyToProcessing());
+        }
+    }
+
+    private static StoredStatusEvent event(final int accessGroupID, final int objectID) {
+        eventID++;
+        return StoredStatusEvent.getBuilder(StatusEvent.getBuilder(
+                "WS", Instant.ofEpochMilli(eventID), StatusEventType.NEW_VERSION)
+                .withNullableAccessGroupID(accessGroupID)
+                .withNullableObjectID(String.valueOf(objectID))
+                .build(),
+                new StatusEventID(String.valueOf(eventID)),
+                StatusEventProcessingState.UNPROC)
+                .build();
+    }
+}
@@ -31,6 +31,7 @@ public class EventQueueTest {
             final Set<StoredStatusEvent> processing,
             final int size) {
         assertThat("incorrect ready", queue.getReadyForProcessing(), is(ready));
+        assertThat("incorrect has ready", queue.hasReady(), is(!ready.isEmpty()));
         assertThat("incorrect get processing", queue.getProcessing(), is(processing));
         assertThat("incorrect size", queue.size(), is(size));
         assertThat("incorrect isEmpty", queue.isEmpty(), is(size == 0));
@@ -341,4 +342,94 @@ public class EventQueueTest {
         q.moveToReady();
         assertQueueState(q, set(sse2), set(), 1);
     }
+    
+    @Test
+    public void moveToReadyOnlyAffectsLoadedAccessGroups() {
+        final StoredStatusEvent r1 = ready(
+                1, "r1", Instant.ofEpochMilli(10000), "1", StatusEventType.NEW_VERSION);
+        final StoredStatusEvent p2 = proc(
+                2, "p2", Instant.ofEpochMilli(10000), "1", StatusEventType.NEW_VERSION);
+        final EventQueue q = new EventQueue(Arrays.asList(r1, p2));
+        assertQueueState(q, set(r1), set(p2), 2);
+        
+        final StoredStatusEvent e3 = loadUnproc(
+                q, 3, "3", Instant.ofEpochMilli(20000), "1", StatusEventType.NEW_VERSION);
+        final StoredStatusEvent e4 = loadUnproc(
+                q, 2, "4", Instant.ofEpochMilli(20000), "1", StatusEventType.NEW_VERSION);
+        assertQueueState(q, set(r1), set(p2), 4);
+        
+        assertMoveToReadyCorrect(q, set(e3));
+        assertQueueState(q, set(r1, e3), set(p2), 4);
+        assertMoveToReadyCorrect(q, set());
+        
+        // completing processing moves the next event to ready without a call to moveToReady()
+        q.setProcessingComplete(p2);
+        assertQueueState(q, set(r1, e3, e4), set(), 3);
+        assertMoveToReadyCorrect(q, set());
+        
+        assertMoveToProcessingCorrect(q, set(r1, e3, e4));
+        assertQueueState(q, set(), set(r1, e3, e4), 3);
+        assertMoveToProcessingCorrect(q, set());
+        
+        q.setProcessingComplete(r1);
+        q.setProcessingComplete(e4);
+        assertQueueState(q, set(), set(e3), 1);
+        q.setProcessingComplete(e3);
+        assertEmpty(q);
+    }
+    
+    @Test
+    public void loadAfterAccessGroupDrainStarts() {
+        final EventQueue q = new EventQueue();
+        
+        final StoredStatusEvent e1 = loadUnproc(
+                q, 1, "1", Instant.ofEpochMilli(10000), "1", StatusEventType.NEW_VERSION);
+        final StoredStatusEvent ag = loadUnproc(
+                q, 1, "ag", Instant.ofEpochMilli(20000), null,
+                StatusEventType.DELETE_ACCESS_GROUP);
+        assertMoveToReadyCorrect(q, set(e1));
+        
+        // a new object queue created while draining must be blocked at the drain time
+        final StoredStatusEvent e2 = loadUnproc(
+                q, 1, "2", Instant.ofEpochMilli(30000), "2", StatusEventType.NEW_VERSION);
+        assertMoveToReadyCorrect(q, set());
+        assertQueueState(q, set(e1), set(), 3);
+        
+        assertMoveToProcessingCorrect(q, set(e1));
+        q.setProcessingComplete(e1);
+        assertQueueState(q, set(ag), set(), 2);
+        
+        assertMoveToProcessingCorrect(q, set(ag));
+        q.setProcessingComplete(ag);
+        assertQueueState(q, set(e2), set(), 1);
+    }
+    
+    @Test
+    public void removeCoalesced() {
+        final EventQueue q = new EventQueue();
+        assertThat("incorrect coalesced", q.hasCoalesced(), is(false));
+        assertThat("incorrect coalesced", q.removeCoalesced(), is(Collections.emptyList()));
+        
+        final StoredStatusEvent r1 = loadUnproc(q, 1, "r1", Instant.ofEpochMilli(10000), "1",
+                StatusEventType.RENAME_ALL_VERSIONS);
+        final StoredStatusEvent r2 = loadUnproc(q, 1, "r2", Instant.ofEpochMilli(20000), "1",
+                StatusEventType.RENAME_ALL_VERSIONS);
+        final StoredStatusEvent p1 = loadUnproc(q, 2, "p1", Instant.ofEpochMilli(10000), "1",
+                StatusEventType.PUBLISH_ALL_VERSIONS);
+        final StoredStatusEvent u1 = loadUnproc(q, 2, "u1", Instant.ofEpochMilli(20000), "1",
+                StatusEventType.UNPUBLISH_ALL_VERSIONS);
+        
+        assertMoveToReadyCorrect(q, set(r2, u1));
+        assertThat("incorrect coalesced", q.hasCoalesced(), is(true));
+        assertQueueState(q, set(r2, u1), set(), 4);
+        assertThat("incorrect coalesced", set(q.removeCoalesced().toArray()),
+                is(set(r1, p1)));
+        assertThat("incorrect coalesced", q.hasCoalesced(), is(false));
+        assertQueueState(q, set(r2, u1), set(), 2);
+        
+        assertMoveToProcessingCorrect(q, set(r2, u1));
+        q.setProcessingComplete(r2);
+        q.setProcessingComplete(u1);
+        assertEmpty(q);
+    }
 }
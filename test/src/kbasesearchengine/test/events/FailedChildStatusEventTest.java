@@ -0,0 +1,63 @@
+package kbasesearchengine.test.events;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.time.Instant;
+
+import org.junit.Test;
+
+import kbasesearchengine.events.ChildStatusEvent;
+import kbasesearchengine.events.FailedChildStatusEvent;
+import kbasesearchengine.events.StatusEvent;
+import kbasesearchengine.events.StatusEventID;
+import kbasesearchengine.events.StatusEventType;
+import kbasesearchengine.test.common.TestCommon;
+import nl.jqno.equalsverifier.EqualsVerifier;
+
+public class FailedChildStatusEventTest {
+    
+    private static final ChildStatusEvent CHILD = new ChildStatusEvent(StatusEvent.getBuilder(
+            "ws", Instant.ofEpochMilli(10000), StatusEventType.COPY_ACCESS_GROUP).build(),
+            new StatusEventID("whee"));
+    
+    @Test
+    public void equals() {
+        EqualsVerifier.forClass(FailedChildStatusEvent.class).usingGetClass().verify();
+    }
+
+    @Test
+    public void construct() {
+        final IllegalStateException err = new IllegalStateException("foo");
+        final FailedChildStatusEvent e = new FailedChildStatusEvent(CHILD, "code", err);
+        
+        assertThat("incorrect event", e.getEvent(), is(CHILD));
+        assertThat("incorrect code", e.getErrorCode(), is("code"));
+        assertThat("incorrect error", e.getError(), is(err));
+    }
+    
+    @Test
+    public void constructFail() {
+        final Throwable t = new IllegalStateException("foo");
+        failConstruct(null, "c", t, new NullPointerException("event"));
+        failConstruct(CHILD, null, t, new IllegalArgumentException(
+                "errorCode cannot be null or whitespace only"));
+        failConstruct(CHILD, "   \t ", t, new IllegalArgumentException(
+                "errorCode cannot be null or whitespace only"));
+        failConstruct(CHILD, "c", null, new NullPointerException("error"));
+    }
+    
+    private void failConstruct(
+            final ChildStatusEvent event,
+            final String errorCode,
+            final Throwable error,
+            final Exception expected) {
+        try {
+            new FailedChildStatusEvent(event, errorCode, error);
+            fail("expected exception");
+        } catch (Exception got) {
+            TestCommon.assertExceptionCorrect(got, expected);
+        }
+    }
+}
@@ -6,6 +6,7 @@ import static org.junit.Assert.fail;
 
 import java.time.Instant;
 import java.util.Arrays;
+import java.util.Collections;
 
 import org.junit.Test;
 
@@ -518,4 +519,110 @@ public class ObjectEventQueueTest {
         q.moveToReady();
         assertQueueState(q, Optional.of(sse2), Optional.absent(), 1);
     }
+    
+    private StoredStatusEvent unproc(
+            final String id,
+            final long time,
+            final StatusEventType type) {
+        return StoredStatusEvent.getBuilder(StatusEvent.getBuilder(
+                "bar", Instant.ofEpochMilli(time), type)
+                .build(),
+                new StatusEventID(id), StatusEventProcessingState.UNPROC).build();
+    }
+    
+    @Test
+    public void coalesceRenames() {
+        final ObjectEventQueue q = new ObjectEventQueue();
+        final StoredStatusEvent r1 = unproc("r1", 10000, StatusEventType.RENAME_ALL_VERSIONS);
+        final StoredStatusEvent r2 = unproc("r2", 20000, StatusEventType.RENAME_ALL_VERSIONS);
+        final StoredStatusEvent nv = unproc("nv", 25000, StatusEventType.NEW_VERSION);
+        final StoredStatusEvent r3 = unproc("r3", 30000, StatusEventType.RENAME_ALL_VERSIONS);
+        // load out of order
+        q.load(r3);
+        q.load(nv);
+        q.load(r2);
+        q.load(r1);
+        assertThat("incorrect coalesced", q.hasCoalesced(), is(false));
+        
+        // the earlier renames are superseded by r3, even with events in between
+        assertMoveToReadyCorrect(q, Optional.of(nv));
+        assertQueueState(q, Optional.of(nv), Optional.absent(), 4);
+        assertThat("incorrect coalesced", q.hasCoalesced(), is(true));
+        assertThat("incorrect coalesced", q.removeCoalesced(), is(Arrays.asList(r1, r2)));
+        assertThat("incorrect coalesced", q.hasCoalesced(), is(false));
+        assertThat("incorrect coalesced", q.removeCoalesced(), is(Collections.emptyList()));
+        assertQueueState(q, Optional.of(nv), Optional.absent(), 2);
+        
+        q.moveReadyToProcessing();
+        q.setProcessingComplete(nv);
+        // the last rename is never coalesced
+        assertQueueState(q, Optional.of(r3), Optional.absent(), 1);
+        assertThat("incorrect coalesced", q.hasCoalesced(), is(false));
+        
+        // removed coalesced events can be loaded again
+        assertThat("incorrect load", q.load(r1), is(true));
+        assertThat("incorrect load", q.load(r3), is(false));
+    }
+    
+    @Test
+    public void coalescePublishAndUnpublish() {
+        final ObjectEventQueue q = new ObjectEventQueue();
+        final StoredStatusEvent p1 = unproc("p1", 10000, StatusEventType.PUBLISH_ALL_VERSIONS);
+        final StoredStatusEvent u1 = unproc("u1", 20000, StatusEventType.UNPUBLISH_ALL_VERSIONS);
+        final StoredStatusEvent r1 = unproc("r1", 30000, StatusEventType.RENAME_ALL_VERSIONS);
+        final StoredStatusEvent p2 = unproc("p2", 40000, StatusEventType.PUBLISH_ALL_VERSIONS);
+        q.load(p1);
+        q.load(u1);
+        q.load(r1);
+        q.load(p2);
+        
+        // renames don't supersede publication events and vice versa
+        assertMoveToReadyCorrect(q, Optional.of(r1));
+        assertThat("incorrect coalesced", q.removeCoalesced(), is(Arrays.asList(p1, u1)));
+        q.moveReadyToProcessing();
+        q.setProcessingComplete(r1);
+        assertQueueState(q, Optional.of(p2), Optional.absent(), 1);
+        assertThat("incorrect coalesced", q.hasCoalesced(), is(false));
+    }
+    
+    @Test
+    public void noCoalesceForOtherEvents() {
+        final ObjectEventQueue q = new ObjectEventQueue();
+        final StoredStatusEvent n1 = unproc("n1", 10000, StatusEventType.NEW_VERSION);
+        final StoredStatusEvent n2 = unproc("n2", 20000, StatusEventType.NEW_VERSION);
+        final StoredStatusEvent d1 = unproc("d1", 30000, StatusEventType.DELETE_ALL_VERSIONS);
+        final StoredStatusEvent d2 = unproc("d2", 40000, StatusEventType.DELETE_ALL_VERSIONS);
+        q.load(n1);
+        q.load(n2);
+        q.load(d1);
+        q.load(d2);
+        
+        q.moveToReady();
+        // completing an event moves the next event to ready
+        for (final StoredStatusEvent e: Arrays.asList(n1, n2, d1, d2)) {
+            assertThat("incorrect ready", q.getReadyForProcessing(), is(Optional.of(e)));
+            assertThat("incorrect coalesced", q.hasCoalesced(), is(false));
+            q.moveReadyToProcessing();
+            q.setProcessingComplete(e);
+        }
+        assertEmpty(q);
+    }
+    
+    @Test
+    public void noCoalesceWhileBlocked() {
+        final ObjectEventQueue q = new ObjectEventQueue();
+        final StoredStatusEvent r1 = unproc("r1", 10000, StatusEventType.RENAME_ALL_VERSIONS);
+        final StoredStatusEvent r2 = unproc("r2", 30000, StatusEventType.RENAME_ALL_VERSIONS);
+        q.load(r1);
+        q.load(r2);
+        q.drainAndBlockAt(Instant.ofEpochMilli(20000));
+        
+        assertMoveToReadyCorrect(q, Optional.of(r1));
+        assertThat("incorrect coalesced", q.hasCoalesced(), is(false));
+        q.moveReadyToProcessing();
+        q.setProcessingComplete(r1);
+        assertQueueState(q, Optional.absent(), Optional.absent(), 1);
+        q.removeBlock();
+        assertMoveToReadyCorrect(q, Optional.of(r2));
+    }
 }
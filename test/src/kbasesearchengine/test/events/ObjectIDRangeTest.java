@@ -0,0 +1,53 @@
+package kbasesearchengine.test.events;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import kbasesearchengine.events.ObjectIDRange;
+import kbasesearchengine.test.common.TestCommon;
+import nl.jqno.equalsverifier.EqualsVerifier;
+
+public class ObjectIDRangeTest {
+
+    @Test
+    public void construct() {
+        final ObjectIDRange r = new ObjectIDRange(1, 10000);
+        assertThat("incorrect first", r.getFirst(), is(1L));
+        assertThat("incorrect last", r.getLast(), is(10000L));
+        assertThat("incorrect size", r.size(), is(10000L));
+        assertThat("incorrect toString", r.toString(),
+                is("ObjectIDRange [first=1, last=10000]"));
+    }
+    
+    @Test
+    public void constructSingle() {
+        final ObjectIDRange r = new ObjectIDRange(42, 42);
+        assertThat("incorrect first", r.getFirst(), is(42L));
+        assertThat("incorrect last", r.getLast(), is(42L));
+        assertThat("incorrect size", r.size(), is(1L));
+    }
+    
+    @Test
+    public void equals() {
+        EqualsVerifier.forClass(ObjectIDRange.class).usingGetClass().verify();
+    }
+    
+    @Test
+    public void constructFail() {
+        failConstruct(0, 1, new IllegalArgumentException("first must be at least 1"));
+        failConstruct(-1, 1, new IllegalArgumentException("first must be at least 1"));
+        failConstruct(2, 1, new IllegalArgumentException("last must be at least first"));
+    }
+
+    private void failConstruct(final long first, final long last, final Exception expected) {
+        try {
+            new ObjectIDRange(first, last);
+            fail("expected exception");
+        } catch (Exception got) {
+            TestCommon.assertExceptionCorrect(got, expected);
+        }
+    }
+}
@@ -11,6 +11,7 @@ import org.junit.Test;
 import com.google.common.base.Optional;
 
 import kbasesearchengine.common.GUID;
+import kbasesearchengine.events.ObjectIDRange;
 import kbasesearchengine.events.StatusEvent;
 import kbasesearchengine.events.StatusEventType;
 import kbasesearchengine.system.StorageObjectType;
@@ -42,6 +43,7 @@ public class StatusEventTest {
         assertThat("incorrect timestamp", se.getTimestamp(), is(Instant.ofEpochMilli(20000)));
         assertThat("incorrect version", se.getVersion(), is(Optional.absent()));
         assertThat("incorrect is public", se.isPublic(), is(Optional.absent()));
+        assertThat("incorrect range", se.getObjectIDRange(), is(Optional.absent()));
         //TODO CODE this is clearly an invalid GUID. Need to do something else here.
         assertThat("incorrect guid", se.toGUID(),
                 is((new GUID("WS", null, null, null, null, null))));
@@ -50,7 +52,7 @@ public class StatusEventTest {
                         "storageCode=WS, storageObjectType=Optional.absent(), " +
                         "accessGroupID=Optional.absent(), objectID=Optional.absent(), " +
                         "version=Optional.absent(), isPublic=Optional.absent(), " +
-                        "newName=Optional.absent()]"));
+                        "newName=Optional.absent(), objectIDRange=Optional.absent()]"));
     }
     
     @Test
@@ -63,6 +65,7 @@ public class StatusEventTest {
                 .withNullableNewName("nn")
                 .withNullableObjectID("2")
                 .withNullableVersion(8)
+                .withNullableObjectIDRange(new ObjectIDRange(1, 10))
                 .build();
         
         assertThat("incorrect access group id", se.getAccessGroupId(), is(Optional.of(6)));
@@ -77,6 +80,8 @@ public class StatusEventTest {
         assertThat("incorrect timestamp", se.getTimestamp(), is(Instant.ofEpochMilli(30000)));
         assertThat("incorrect version", se.getVersion(), is(Optional.of(8)));
         assertThat("incorrect is public", se.isPublic(), is(Optional.of(true)));
+        assertThat("incorrect range", se.getObjectIDRange(),
+                is(Optional.of(new ObjectIDRange(1, 10))));
         assertThat("incorrect guid", se.toGUID(),
                 is((new GUID("RK", 6, "2", 8, null, null))));
         assertThat("incorrect toString", se.toString(),
@@ -85,7 +90,8 @@ public class StatusEventTest {
                         "[storageCode=RK, type=foo, version=Optional.of(3)]), " +
                         "accessGroupID=Optional.of(6), objectID=Optional.of(2), " +
                         "version=Optional.of(8), isPublic=Optional.of(true), " +
-                        "newName=Optional.of(nn)]"));
+                        "newName=Optional.of(nn), objectIDRange=Optional.of(ObjectIDRange " +
+                        "[first=1, last=10])]"));
     }
     
     @Test
@@ -97,6 +103,7 @@ public class StatusEventTest {
                 .withNullableNewName(null)
                 .withNullableObjectID(null)
                 .withNullableVersion(null)
+                .withNullableObjectIDRange(null)
                 .build();
         
         assertThat("incorrect access group id", se.getAccessGroupId(), is(Optional.absent()));
@@ -111,6 +118,7 @@ public class StatusEventTest {
         assertThat("incorrect timestamp", se.getTimestamp(), is(Instant.ofEpochMilli(40000)));
         assertThat("incorrect version", se.getVersion(), is(Optional.absent()));
         assertThat("incorrect is public", se.isPublic(), is(Optional.absent()));
+        assertThat("incorrect range", se.getObjectIDRange(), is(Optional.absent()));
         assertThat("incorrect guid", se.toGUID(),
                 is((new GUID("PP", null, null, null, null, null))));
         assertThat("incorrect toString", se.toString(),
@@ -118,7 +126,7 @@ public class StatusEventTest {
                         "storageCode=PP, storageObjectType=Optional.absent(), " +
                         "accessGroupID=Optional.absent(), objectID=Optional.absent(), " +
                         "version=Optional.absent(), isPublic=Optional.absent(), " +
-                        "newName=Optional.absent()]"));
+                        "newName=Optional.absent(), objectIDRange=Optional.absent()]"));
     }
     
     @Test
@@ -141,6 +149,7 @@ public class StatusEventTest {
         assertThat("incorrect timestamp", se.getTimestamp(), is(Instant.ofEpochMilli(40000)));
         assertThat("incorrect version", se.getVersion(), is(Optional.absent()));
         assertThat("incorrect is public", se.isPublic(), is(Optional.absent()));
+        assertThat("incorrect range", se.getObjectIDRange(), is(Optional.absent()));
         assertThat("incorrect guid", se.toGUID(),
                 is((new GUID("PP", null, null, null, null, null))));
         assertThat("incorrect toString", se.toString(),
@@ -148,7 +157,7 @@ public class StatusEventTest {
                         "storageCode=PP, storageObjectType=Optional.absent(), " +
                         "accessGroupID=Optional.absent(), objectID=Optional.absent(), " +
                         "version=Optional.absent(), isPublic=Optional.absent(), " +
-                        "newName=Optional.absent()]"));
+                        "newName=Optional.absent(), objectIDRange=Optional.absent()]"));
     }
     
     @Test
@@ -14,6 +14,7 @@ import com.google.common.base.Optional;
 
 import kbasesearchengine.events.StatusEvent;
 import kbasesearchengine.events.StatusEventID;
+import kbasesearchengine.events.StatusEventPriority;
 import kbasesearchengine.events.StatusEventProcessingState;
 import kbasesearchengine.events.StatusEventType;
 import kbasesearchengine.events.StoredStatusEvent;
@@ -48,16 +49,23 @@ public class StoredStatusEventTest {
         assertThat("incorrect err code", sei.getErrorCode(), is(Optional.absent()));
         assertThat("incorrect err msg", sei.getErrorMessage(), is(Optional.absent()));
         assertThat("incorrect err trace", sei.getErrorStackTrace(), is(Optional.absent()));
+        assertThat("incorrect lease owner", sei.getLeaseOwner(), is(Optional.absent()));
+        assertThat("incorrect lease expiry", sei.getLeaseExpiry(), is(Optional.absent()));
+        assertThat("incorrect priority", sei.getPriority(),
+                is(StatusEventPriority.INTERACTIVE));
         assertThat("incorrect toString", sei.toString(), is(
                 "StoredStatusEvent [event=StatusEvent [time=1970-01-01T00:00:10Z, " +
                 "eventType=DELETE_ALL_VERSIONS, storageCode=foo, " +
                 "storageObjectType=Optional.absent(), accessGroupID=Optional.absent(), " +
                 "objectID=Optional.absent(), version=Optional.absent(), " +
-                "isPublic=Optional.absent(), newName=Optional.absent()], " +
+                "isPublic=Optional.absent(), newName=Optional.absent(), " +
+                "objectIDRange=Optional.absent()], " +
                 "id=StatusEventID [id=bar], state=UNPROC, updateTime=Optional.absent(), " +
                 "updater=Optional.absent(), workerCodes=[], storedBy=Optional.absent(), " +
                 "storeTime=Optional.absent(), errorCode=Optional.absent(), " +
-                "errorMessage=Optional.absent(), errorStackTrace=Optional.absent()]"));
+                "errorMessage=Optional.absent(), errorStackTrace=Optional.absent(), " +
+                "leaseOwner=Optional.absent(), leaseExpiry=Optional.absent(), " +
+                "priority=INTERACTIVE]"));
     }
 
     
@@ -73,6 +81,7 @@ public class StoredStatusEventTest {
                 .withNullableStoredBy("   \t  \n ")
                 .withNullableStoreTime(null)
                 .withNullableError(null, "foo", "bar")
+                .withNullableLease(null, null)
                 .build();
         assertThat("incorrect id", sei.getID(), is(new StatusEventID("bar")));
         assertThat("incorrect event", sei.getEvent(), is(StatusEvent.getBuilder(
@@ -87,16 +96,23 @@ public class StoredStatusEventTest {
         assertThat("incorrect err code", sei.getErrorCode(), is(Optional.absent()));
         assertThat("incorrect err msg", sei.getErrorMessage(), is(Optional.absent()));
         assertThat("incorrect err trace", sei.getErrorStackTrace(), is(Optional.absent()));
+        assertThat("incorrect lease owner", sei.getLeaseOwner(), is(Optional.absent()));
+        assertThat("incorrect lease expiry", sei.getLeaseExpiry(), is(Optional.absent()));
+        assertThat("incorrect priority", sei.getPriority(),
+                is(StatusEventPriority.INTERACTIVE));
         assertThat("incorrect toString", sei.toString(), is(
                 "StoredStatusEvent [event=StatusEvent [time=1970-01-01T00:00:10Z, " +
                 "eventType=DELETE_ALL_VERSIONS, storageCode=foo, " +
                 "storageObjectType=Optional.absent(), accessGroupID=Optional.absent(), " +
                 "objectID=Optional.absent(), version=Optional.absent(), " +
-                "isPublic=Optional.absent(), newName=Optional.absent()], " +
+                "isPublic=Optional.absent(), newName=Optional.absent(), " +
+                "objectIDRange=Optional.absent()], " +
                 "id=StatusEventID [id=bar], state=UNPROC, updateTime=Optional.absent(), " +
                 "updater=Optional.absent(), workerCodes=[], storedBy=Optional.absent(), " +
                 "storeTime=Optional.absent(), errorCode=Optional.absent(), " +
-                "errorMessage=Optional.absent(), errorStackTrace=Optional.absent()]"));
+                "errorMessage=Optional.absent(), errorStackTrace=Optional.absent(), " +
+                "leaseOwner=Optional.absent(), leaseExpiry=Optional.absent(), " +
+                "priority=INTERACTIVE]"));
     }
     
     @Test 
@@ -132,12 +148,15 @@ public class StoredStatusEventTest {
                 "eventType=DELETE_ALL_VERSIONS, storageCode=foo, " +
                 "storageObjectType=Optional.absent(), accessGroupID=Optional.absent(), " +
                 "objectID=Optional.absent(), version=Optional.absent(), " +
-                "isPublic=Optional.absent(), newName=Optional.absent()], " +
+                "isPublic=Optional.absent(), newName=Optional.absent(), " +
+                "objectIDRange=Optional.absent()], " +
                 "id=StatusEventID [id=bar], state=UNPROC, " +
                 "updateTime=Optional.of(1970-01-01T00:00:20Z), " +
                 "updater=Optional.absent(), workerCodes=[], storedBy=Optional.absent(), " +
                 "storeTime=Optional.absent(), errorCode=Optional.absent(), " +
-                "errorMessage=Optional.absent(), errorStackTrace=Optional.absent()]"));
+                "errorMessage=Optional.absent(), errorStackTrace=Optional.absent(), " +
+                "leaseOwner=Optional.absent(), leaseExpiry=Optional.absent(), " +
+                "priority=INTERACTIVE]"));
     }
     
     @Test
@@ -169,12 +188,15 @@ public class StoredStatusEventTest {
                 "eventType=DELETE_ALL_VERSIONS, storageCode=foo, " +
                 "storageObjectType=Optional.absent(), accessGroupID=Optional.absent(), " +
                 "objectID=Optional.absent(), version=Optional.absent(), " +
-                "isPublic=Optional.absent(), newName=Optional.absent()], " +
+                "isPublic=Optional.absent(), newName=Optional.absent(), " +
+                "objectIDRange=Optional.absent()], " +
                 "id=StatusEventID [id=baz], state=UNPROC, " +
                 "updateTime=Optional.of(1970-01-01T00:00:20Z), " +
                 "updater=Optional.of(bar), workerCodes=[], storedBy=Optional.absent(), " +
                 "storeTime=Optional.absent(), errorCode=Optional.absent(), " +
-                "errorMessage=Optional.absent(), errorStackTrace=Optional.absent()]"));
+                "errorMessage=Optional.absent(), errorStackTrace=Optional.absent(), " +
+                "leaseOwner=Optional.absent(), leaseExpiry=Optional.absent(), " +
+                "priority=INTERACTIVE]"));
     }
     
     @Test
@@ -206,12 +228,15 @@ public class StoredStatusEventTest {
                 "eventType=DELETE_ALL_VERSIONS, storageCode=foo, " +
                 "storageObjectType=Optional.absent(), accessGroupID=Optional.absent(), " +
                 "objectID=Optional.absent(), version=Optional.absent(), " +
-                "isPublic=Optional.absent(), newName=Optional.absent()], " +
+                "isPublic=Optional.absent(), newName=Optional.absent(), " +
+                "objectIDRange=Optional.absent()], " +
                 "id=StatusEventID [id=baz], state=UNPROC, " +
                 "updateTime=Optional.of(1970-01-01T00:00:20Z), " +
                 "updater=Optional.absent(), workerCodes=[], storedBy=Optional.absent(), " +
                 "storeTime=Optional.absent(), errorCode=Optional.absent(), " +
-                "errorMessage=Optional.absent(), errorStackTrace=Optional.absent()]"));
+                "errorMessage=Optional.absent(), errorStackTrace=Optional.absent(), " +
+                "leaseOwner=Optional.absent(), leaseExpiry=Optional.absent(), " +
+                "priority=INTERACTIVE]"));
     }
     
     @Test
@@ -227,6 +252,8 @@ public class StoredStatusEventTest {
                 .withNullableStoredBy("my man")
                 .withNullableStoreTime(Instant.ofEpochMilli(30000))
                 .withNullableError("code", "msg", "trace")
+                .withNullableLease("worker1", Instant.ofEpochMilli(40000))
+                .withPriority(StatusEventPriority.BULK)
                 .build();
         assertThat("incorrect id", sei.getID(), is(new StatusEventID("foo")));
         assertThat("incorrect event", sei.getEvent(), is(StatusEvent.getBuilder(
@@ -243,17 +270,24 @@ public class StoredStatusEventTest {
         assertThat("incorrect err code", sei.getErrorCode(), is(Optional.of("code")));
         assertThat("incorrect err msg", sei.getErrorMessage(), is(Optional.of("msg")));
         assertThat("incorrect err trace", sei.getErrorStackTrace(), is(Optional.of("trace")));
+        assertThat("incorrect lease owner", sei.getLeaseOwner(), is(Optional.of("worker1")));
+        assertThat("incorrect lease expiry", sei.getLeaseExpiry(),
+                is(Optional.of(Instant.ofEpochMilli(40000))));
+        assertThat("incorrect priority", sei.getPriority(), is(StatusEventPriority.BULK));
         assertThat("incorrect toString", sei.toString(), is(
                 "StoredStatusEvent [event=StatusEvent [time=1970-01-01T00:00:10Z, " +
                 "eventType=DELETE_ALL_VERSIONS, storageCode=foo, " +
                 "storageObjectType=Optional.absent(), accessGroupID=Optional.absent(), " +
                 "objectID=Optional.absent(), version=Optional.absent(), " +
-                "isPublic=Optional.absent(), newName=Optional.absent()], " +
+                "isPublic=Optional.absent(), newName=Optional.absent(), " +
+                "objectIDRange=Optional.absent()], " +
                 "id=StatusEventID [id=foo], state=UNPROC, " +
                 "updateTime=Optional.of(1970-01-01T00:00:20Z), updater=Optional.of(foo), " +
                 "workerCodes=[bar, foo], storedBy=Optional.of(my man), " +
                 "storeTime=Optional.of(1970-01-01T00:00:30Z), errorCode=Optional.of(code), " +
-                "errorMessage=Optional.of(msg), errorStackTrace=Optional.of(trace)]"));
+                "errorMessage=Optional.of(msg), errorStackTrace=Optional.of(trace), " +
+                "leaseOwner=Optional.of(worker1), " +
+                "leaseExpiry=Optional.of(1970-01-01T00:00:40Z), priority=BULK]"));
     }
     
     @Test
@@ -339,6 +373,41 @@ public class StoredStatusEventTest {
                 "errorStackTrace cannot be null or whitespace only"));
     }
     
+    @Test
+    public void withPriorityFail() {
+        final StatusEvent event = StatusEvent.getBuilder(
+                "foo", Instant.ofEpochMilli(10000), StatusEventType.DELETE_ALL_VERSIONS).build();
+        try {
+            StoredStatusEvent.getBuilder(
+                    event, new StatusEventID("foo"), StatusEventProcessingState.PROC)
+                    .withPriority(null);
+            fail("expected exception");
+        } catch (Exception got) {
+            TestCommon.assertExceptionCorrect(got, new NullPointerException("priority"));
+        }
+    }
+    
+    @Test
+    public void withLeaseFail() {
+        failWithLease(null, new IllegalArgumentException(
+                "leaseOwner cannot be null or whitespace only"));
+        failWithLease("   \t  ", new IllegalArgumentException(
+                "leaseOwner cannot be null or whitespace only"));
+    }
+    
+    private void failWithLease(final String owner, final Exception expected) {
+        final StatusEvent event = StatusEvent.getBuilder(
+                "foo", Instant.ofEpochMilli(10000), StatusEventType.DELETE_ALL_VERSIONS).build();
+        try {
+            StoredStatusEvent.getBuilder(
+                    event, new StatusEventID("foo"), StatusEventProcessingState.PROC)
+                    .withNullableLease(owner, Instant.ofEpochMilli(10000));
+            fail("expected exception");
+        } catch (Exception got) {
+            TestCommon.assertExceptionCorrect(got, expected);
+        }
+    }
+    
     private void failWithError(
             final String code,
             final String msg,
@@ -0,0 +1,594 @@
+package kbasesearchengine.test.events.exceptions;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static kbasesearchengine.test.common.TestCommon.assertCloseMS;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableMap;
+
+import kbasesearchengine.common.CircuitBreaker;
+import kbasesearchengine.common.CircuitBreaker.State;
+import kbasesearchengine.events.StatusEvent;
+import kbasesearchengine.events.StatusEventID;
+import kbasesearchengine.events.StatusEventProcessingState;
+import kbasesearchengine.events.StatusEventType;
+import kbasesearchengine.events.StatusEventWithId;
+import kbasesearchengine.events.StoredStatusEvent;
+import kbasesearchengine.events.exceptions.AsyncRetrier;
+import kbasesearchengine.events.exceptions.Downstream;
+import kbasesearchengine.events.exceptions.DownstreamCircuitBreakers;
+import kbasesearchengine.events.exceptions.DownstreamCircuitBreakers.Permit;
+import kbasesearchengine.events.exceptions.ErrorType;
+import kbasesearchengine.events.exceptions.FatalIndexingException;
+import kbasesearchengine.events.exceptions.FatalRetriableIndexingException;
+import kbasesearchengine.events.exceptions.IndexingException;
+import kbasesearchengine.events.exceptions.RetriableIndexingException;
+import kbasesearchengine.events.exceptions.RetriesExceededIndexingException;
+import kbasesearchengine.events.exceptions.RetryFunction;
+import kbasesearchengine.events.exceptions.RetryLogger;
+import kbasesearchengine.events.exceptions.UnprocessableEventIndexingException;
+import kbasesearchengine.test.common.TestCommon;
+
+public class AsyncRetrierTest {
+
+    private class LogEvent {
+        private final Instant time;
+        private final int retryCount;
+        private final Optional<StatusEventWithId> event;
+        private final RetriableIndexingException exception;
+
+        private LogEvent(
+                final Instant time,
+                final int retryCount,
+                final Optional<StatusEventWithId> event,
+                final RetriableIndexingException exception) {
+            this.time = time;
+            this.retryCount = retryCount;
+            this.event = event;
+            this.exception = exception;
+        }
+    }
+
+    private class CollectingLogger implements RetryLogger {
+
+        private final List<LogEvent> events = new CopyOnWriteArrayList<>();
+
+        @Override
+        public void log(
+                final int retryCount,
+                final Optional<StatusEventWithId> event,
+                final RetriableIndexingException e) {
+            events.add(new LogEvent(Instant.now(), retryCount, event, e));
+        }
+    }
+
+    /* Throws the provided exceptions in order, one per call, and then returns the input.
+     * Records the thread on which each call occurred.
+     */
+    private class TestFunction implements RetryFunction<String, String> {
+
+        private final List<Exception> exceptions;
+        private final List<Thread> threads = new CopyOnWriteArrayList<>();
+
+        private TestFunction(final Exception... exceptions) {
+            this.exceptions = new CopyOnWriteArrayList<>(exceptions);
+        }
+
+        @Override
+        public String apply(final String input)
+                throws IndexingException, RetriableIndexingException, InterruptedException {
+            threads.add(Thread.currentThread());
+            if (exceptions.isEmpty()) {
+                return input + " out";
+            }
+            final Exception e = exceptions.remove(0);
+            if (e instanceof IndexingException) {
+                throw (IndexingException) e;
+            }
+            if (e instanceof RetriableIndexingException) {
+                throw (RetriableIndexingException) e;
+            }
+            if (e instanceof InterruptedException) {
+                throw (InterruptedException) e;
+            }
+            throw (RuntimeException) e;
+        }
+    }
+
+    private ScheduledExecutorService scheduler;
+
+    @Before
+    public void before() {
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+    }
+
+    @After
+    public void after() {
+        scheduler.shutdownNow();
+    }
+
+    private AsyncRetrier.Builder getBuilder(final RetryLogger logger) {
+        return AsyncRetrier.getBuilder(scheduler, logger)
+                .withBackoff(Duration.ofMillis(100), Duration.ofMillis(200))
+                .withJitter(0);
+    }
+
+    private StoredStatusEvent getEvent() {
+        return StoredStatusEvent.getBuilder(StatusEvent.getBuilder(
+                "WS", Instant.ofEpochMilli(10000), StatusEventType.NEW_VERSION)
+                .withNullableAccessGroupID(23)
+                .withNullableObjectID("bar")
+                .withNullableVersion(6)
+                .build(),
+                new StatusEventID("wugga"),
+                StatusEventProcessingState.PROC)
+                .build();
+    }
+
+    private Exception getException(final CompletableFuture<?> future) throws Exception {
+        try {
+            future.get();
+            fail("expected exception");
+            return null; // unreachable
+        } catch (ExecutionException e) {
+            return (Exception) e.getCause();
+        }
+    }
+
+    @Test
+    public void buildMinimal() {
+        final CollectingLogger log = new CollectingLogger();
+        final AsyncRetrier ret = AsyncRetrier.getBuilder(scheduler, log).build();
+
+        assertThat("incorrect scheduler", ret.getScheduler(), is(scheduler));
+        assertThat("incorrect logger", ret.getLogger(), is((RetryLogger) log));
+        for (final ErrorType t: ErrorType.values()) {
+            assertThat("incorrect budget", ret.getRetryBudget(t), is(5));
+        }
+        assertThat("incorrect fatal budget", ret.getFatalRetryBudget(), is(5));
+        assertThat("incorrect initial backoff", ret.getInitialBackoff(),
+                is(Duration.ofSeconds(1)));
+        assertThat("incorrect max backoff", ret.getMaxBackoff(), is(Duration.ofMinutes(1)));
+        assertThat("incorrect jitter", ret.getJitter(), is(0.5));
+        assertThat("incorrect scheduled", ret.getRetriesScheduled(), is(Collections.emptyMap()));
+        assertThat("incorrect succeeded", ret.getRetriesSucceeded(), is(Collections.emptyMap()));
+        assertThat("incorrect exhausted", ret.getRetriesExhausted(), is(Collections.emptyMap()));
+        assertThat("incorrect breakers", ret.getCircuitBreakers(), is(Optional.absent()));
+    }
+
+    @Test
+    public void buildMaximal() {
+        final DownstreamCircuitBreakers cbs = new DownstreamCircuitBreakers();
+        final AsyncRetrier ret = AsyncRetrier.getBuilder(scheduler, new CollectingLogger())
+                .withDefaultRetryBudget(3)
+                .withRetryBudget(ErrorType.INDEXING_CONFLICT, 10)
+                .withRetryBudget(ErrorType.DELETED, 0)
+                .withFatalRetryBudget(0)
+                .withBackoff(Duration.ofMillis(1), Duration.ofMillis(1))
+                .withJitter(1)
+                .withRandom(new Random(42))
+                .withCircuitBreakers(cbs)
+                .build();
+
+        assertThat("incorrect budget", ret.getRetryBudget(ErrorType.OTHER), is(3));
+        assertThat("incorrect budget", ret.getRetryBudget(ErrorType.INDEXING_CONFLICT), is(10));
+        assertThat("incorrect budget", ret.getRetryBudget(ErrorType.DELETED), is(0));
+        assertThat("incorrect fatal budget", ret.getFatalRetryBudget(), is(0));
+        assertThat("incorrect initial backoff", ret.getInitialBackoff(),
+                is(Duration.ofMillis(1)));
+        assertThat("incorrect max backoff", ret.getMaxBackoff(), is(Duration.ofMillis(1)));
+        assertThat("incorrect jitter", ret.getJitter(), is(1.0));
+        assertThat("incorrect breakers", ret.getCircuitBreakers(), is(Optional.of(cbs)));
+    }
+
+    @Test
+    public void buildFail() {
+        final CollectingLogger log = new CollectingLogger();
+        failBuild(() -> AsyncRetrier.getBuilder(null, log),
+                new NullPointerException("scheduler"));
+        failBuild(() -> AsyncRetrier.getBuilder(scheduler, null),
+                new NullPointerException("logger"));
+        final AsyncRetrier.Builder b = AsyncRetrier.getBuilder(scheduler, log);
+        failBuild(() -> b.withDefaultRetryBudget(-1),
+                new IllegalArgumentException("retryBudget must be at least 0"));
+        failBuild(() -> b.withRetryBudget(null, 1), new NullPointerException("errorType"));
+        failBuild(() -> b.withRetryBudget(ErrorType.OTHER, -1),
+                new IllegalArgumentException("retryBudget must be at least 0"));
+        failBuild(() -> b.withFatalRetryBudget(-1),
+                new IllegalArgumentException("retryBudget must be at least 0"));
+        failBuild(() -> b.withBackoff(null, Duration.ofSeconds(1)),
+                new NullPointerException("initialBackoff"));
+        failBuild(() -> b.withBackoff(Duration.ofSeconds(1), null),
+                new NullPointerException("maxBackoff"));
+        failBuild(() -> b.withBackoff(Duration.ofNanos(999999), Duration.ofSeconds(1)),
+                new IllegalArgumentException("initialBackoff must be at least 1 ms"));
+        failBuild(() -> b.withBackoff(Duration.ofSeconds(2), Duration.ofMillis(1999)),
+                new IllegalArgumentException("maxBackoff must be at least initialBackoff"));
+        failBuild(() -> b.withJitter(-0.0001),
+                new IllegalArgumentException("jitter must be between 0 and 1"));
+        failBuild(() -> b.withJitter(1.0001),
+                new IllegalArgumentException("jitter must be between 0 and 1"));
+        failBuild(() -> b.withRandom(null), new NullPointerException("random"));
+        failBuild(() -> b.withCircuitBreakers(null),
+                new NullPointerException("circuitBreakers"));
+    }
+
+    private void failBuild(final Runnable build, final Exception expected) {
+        try {
+            build.run();
+            fail("expected exception");
+        } catch (Exception got) {
+            TestCommon.assertExceptionCorrect(got, expected);
+        }
+    }
+
+    @Test
+    public void waitForOpenCircuitBreaker() throws Exception {
+        final CollectingLogger log = new CollectingLogger();
+        final DownstreamCircuitBreakers cbs = new DownstreamCircuitBreakers(
+                1, 1, Duration.ofMillis(300), Clock.systemDefaultZone());
+        final AsyncRetrier ret = getBuilder(log)
+                .withDefaultRetryBudget(1)
+                .withCircuitBreakers(cbs)
+                .build();
+        final TestFunction func = new TestFunction(
+                new RetriableIndexingException(
+                        ErrorType.OTHER, Downstream.ELASTICSEARCH, "es down", new Exception()),
+                new RetriableIndexingException(
+                        ErrorType.OTHER, Downstream.ELASTICSEARCH, "es down", new Exception()));
+
+        final Instant start = Instant.now();
+        final CompletableFuture<String> f = ret.retryFunc(func, "foo", null);
+
+        // the budget is 1, but the retry while the breaker is open isn't counted
+        assertThat("incorrect result", f.get(), is("foo out"));
+        assertCloseMS(start, Instant.now(), 600, 100);
+        assertThat("incorrect calls", func.threads.size(), is(3));
+        assertThat("incorrect retries", log.events.size(), is(2));
+        assertThat("incorrect scheduled", ret.getRetriesScheduled(), is(Collections.emptyMap()));
+        final CircuitBreaker cb = cbs.getBreaker(Downstream.ELASTICSEARCH, ErrorType.OTHER).get();
+        assertThat("incorrect opened count", cb.getOpenedCount(), is(2L));
+        assertThat("incorrect state", cb.getState(), is(State.CLOSED));
+    }
+
+    @Test
+    public void halfOpenAllowsOneAttempt() throws Exception {
+        final DownstreamCircuitBreakers cbs = new DownstreamCircuitBreakers(
+                1, 1, Duration.ofMillis(50), Clock.systemDefaultZone());
+        final AsyncRetrier ret = getBuilder(new CollectingLogger())
+                .withCircuitBreakers(cbs)
+                .build();
+        cbs.recordFailure(new RetriableIndexingException(
+                ErrorType.OTHER, Downstream.WORKSPACE, "ws down", new Exception()));
+        Thread.sleep(100);
+        // another unit of work holds the probe
+        final Permit probe = cbs.tryAcquire(EnumSet.of(Downstream.WORKSPACE));
+        assertThat("incorrect grant", probe.isGranted(), is(true));
+        final TestFunction func = new TestFunction();
+
+        // even the first attempt waits for the probe
+        final CompletableFuture<String> f = ret.retryFunc(func, "foo", null, Downstream.WORKSPACE);
+        Thread.sleep(150);
+        assertThat("incorrect calls", func.threads.size(), is(0));
+        assertThat("incorrect done", f.isDone(), is(false));
+        final CircuitBreaker cb = cbs.getBreaker(Downstream.WORKSPACE, ErrorType.OTHER).get();
+        assertThat("incorrect state", cb.getState(), is(State.HALF_OPEN));
+
+        final Instant released = Instant.now();
+        probe.release();
+        assertThat("incorrect result", f.get(), is("foo out"));
+        // the attempts poll the breaker at the initial backoff
+        assertCloseMS(released, Instant.now(), 50, 60);
+        assertThat("incorrect calls", func.threads.size(), is(1));
+        assertThat("incorrect state", cb.getState(), is(State.CLOSED));
+    }
+
+    @Test
+    public void successRecordedOnlyForCalledDownstream() throws Exception {
+        final DownstreamCircuitBreakers cbs = new DownstreamCircuitBreakers(
+                0.5, 2, Duration.ofMillis(50), Clock.systemDefaultZone());
+        final AsyncRetrier ret = getBuilder(new CollectingLogger())
+                .withCircuitBreakers(cbs)
+                .build();
+        cbs.recordFailure(new RetriableIndexingException(
+                ErrorType.OTHER, Downstream.MONGO, "mongo down", new Exception()));
+        for (int i = 0; i < 2; i++) {
+            cbs.recordFailure(new RetriableIndexingException(
+                    ErrorType.OTHER, Downstream.WORKSPACE, "ws down", new Exception()));
+        }
+        final CircuitBreaker mongo = cbs.getBreaker(Downstream.MONGO, ErrorType.OTHER).get();
+        final CircuitBreaker ws = cbs.getBreaker(Downstream.WORKSPACE, ErrorType.OTHER).get();
+        Thread.sleep(100);
+        assertThat("incorrect state", ws.getState(), is(State.HALF_OPEN));
+
+        // a success of another downstream neither closes nor dilutes the breakers
+        assertThat("incorrect result", ret.retryFunc(i -> i + " out", "foo", null,
+                Downstream.MONGO).get(), is("foo out"));
+        ret.retryCons(i -> {}, "foo", null).get();
+        assertThat("incorrect state", ws.getState(), is(State.HALF_OPEN));
+        assertThat("incorrect rate", mongo.getFailureRate(), is(0.5));
+
+        ret.retryCons(i -> {}, "foo", null, Downstream.WORKSPACE).get();
+        assertThat("incorrect state", ws.getState(), is(State.CLOSED));
+        assertThat("incorrect rate", mongo.getFailureRate(), is(0.5));
+    }
+
+    @Test
+    public void getBackoff() {
+        final AsyncRetrier ret = AsyncRetrier.getBuilder(scheduler, new CollectingLogger())
+                .withBackoff(Duration.ofMillis(100), Duration.ofMillis(700))
+                .build();
+        assertThat("incorrect backoff", ret.getBackoff(1), is(Duration.ofMillis(100)));
+        assertThat("incorrect backoff", ret.getBackoff(2), is(Duration.ofMillis(200)));
+        assertThat("incorrect backoff", ret.getBackoff(3), is(Duration.ofMillis(400)));
+        assertThat("incorrect backoff", ret.getBackoff(4), is(Duration.ofMillis(700)));
+        assertThat("incorrect backoff", ret.getBackoff(Integer.MAX_VALUE),
+                is(Duration.ofMillis(700)));
+        try {
+            ret.getBackoff(0);
+            fail("expected exception");
+        } catch (Exception got) {
+            TestCommon.assertExceptionCorrect(got,
+                    new IllegalArgumentException("retry must be at least 1"));
+        }
+    }
+
+    @Test
+    public void retryFail() {
+        final AsyncRetrier ret = getBuilder(new CollectingLogger()).build();
+        try {
+            ret.retryFunc(null, "foo", null);
+            fail("expected exception");
+        } catch (Exception got) {
+            TestCommon.assertExceptionCorrect(got, new NullPointerException("function"));
+        }
+        try {
+            ret.retryCons(null, "foo", null);
+            fail("expected exception");
+        } catch (Exception got) {
+            TestCommon.assertExceptionCorrect(got, new NullPointerException("consumer"));
+        }
+    }
+
+    @Test
+    public void successNoRetry() throws Exception {
+        final CollectingLogger log = new CollectingLogger();
+        final AsyncRetrier ret = getBuilder(log).build();
+        final TestFunction func = new TestFunction();
+
+        final CompletableFuture<String> f = ret.retryFunc(func, "foo", null);
+
+        // completes on the calling thread
+        assertThat("not complete", f.isDone(), is(true));
+        assertThat("incorrect result", f.get(), is("foo out"));
+        assertThat("incorrect threads", func.threads,
+                is(Collections.singletonList(Thread.currentThread())));
+        assertThat("incorrect log", log.events.size(), is(0));
+        assertThat("incorrect scheduled", ret.getRetriesScheduled(), is(Collections.emptyMap()));
+        assertThat("incorrect succeeded", ret.getRetriesSucceeded(), is(Collections.emptyMap()));
+    }
+
+    @Test
+    public void function2RetrySuccessWithEvent() throws Exception {
+        final CollectingLogger log = new CollectingLogger();
+        final AsyncRetrier ret = getBuilder(log).build();
+        final StoredStatusEvent ev = getEvent();
+        final TestFunction func = new TestFunction(
+                new RetriableIndexingException(ErrorType.OTHER, "foo"),
+                new RetriableIndexingException(ErrorType.INDEXING_CONFLICT, "bar"));
+
+        final Instant start = Instant.now();
+        final CompletableFuture<String> f = ret.retryFunc(func, "foo", ev);
+        // the calling thread is not blocked by the retries
+        assertThat("complete", f.isDone(), is(false));
+        assertCloseMS(start, Instant.now(), 0, 60);
+
+        assertThat("incorrect result", f.get(), is("foo out"));
+        final Instant end = Instant.now();
+
+        assertThat("incorrect calls", func.threads.size(), is(3));
+        assertThat("incorrect thread", func.threads.get(0), is(Thread.currentThread()));
+        assertThat("incorrect thread", func.threads.get(1) == Thread.currentThread(), is(false));
+
+        assertThat("incorrect retries", log.events.size(), is(2));
+        final LogEvent le1 = log.events.get(0);
+        assertThat("incorrect retry count", le1.retryCount, is(1));
+        assertThat("incorrect event", le1.event, is(Optional.of(ev)));
+        TestCommon.assertExceptionCorrect(le1.exception,
+                new RetriableIndexingException(ErrorType.OTHER, "foo"));
+        assertCloseMS(start, le1.time, 0, 60);
+
+        final LogEvent le2 = log.events.get(1);
+        assertThat("incorrect retry count", le2.retryCount, is(2));
+        assertThat("incorrect event", le2.event, is(Optional.of(ev)));
+        TestCommon.assertExceptionCorrect(le2.exception,
+                new RetriableIndexingException(ErrorType.INDEXING_CONFLICT, "bar"));
+        assertCloseMS(start, le2.time, 100, 60);
+        // exponential backoff: 100 ms then 200 ms
+        assertCloseMS(start, end, 300, 60);
+
+        assertThat("incorrect scheduled", ret.getRetriesScheduled(), is(ImmutableMap.of(
+                ErrorType.INDEXING_CONFLICT, 1L, ErrorType.OTHER, 1L)));
+        assertThat("incorrect succeeded", ret.getRetriesSucceeded(), is(ImmutableMap.of(
+                ErrorType.INDEXING_CONFLICT, 1L)));
+        assertThat("incorrect exhausted", ret.getRetriesExhausted(), is(Collections.emptyMap()));
+    }
+
+    @Test
+    public void consumerRetrySuccess() throws Exception {
+        final CollectingLogger log = new CollectingLogger();
+        final AsyncRetrier ret = getBuilder(log).build();
+        final TestFunction func = new TestFunction(
+                new RetriableIndexingException(ErrorType.OTHER, "foo"));
+
+        final CompletableFuture<Void> f = ret.retryCons(i -> func.apply(i), "foo", null);
+
+        assertThat("incorrect result", f.get(), is((Void) null));
+        assertThat("incorrect calls", func.threads.size(), is(2));
+        assertThat("incorrect retries", log.events.size(), is(1));
+        assertThat("incorrect event", log.events.get(0).event, is(Optional.absent()));
+        assertThat("incorrect succeeded", ret.getRetriesSucceeded(), is(ImmutableMap.of(
+                ErrorType.OTHER, 1L)));
+    }
+
+    @Test
+    public void perErrorTypeBudget() throws Exception {
+        // the budget is for the total retries, and is determined by the most recent error
+        final CollectingLogger log = new CollectingLogger();
+        final AsyncRetrier ret = getBuilder(log)
+                .withDefaultRetryBudget(3)
+                .withRetryBudget(ErrorType.DELETED, 1)
+                .build();
+        final TestFunction func = new TestFunction(
+                new RetriableIndexingException(ErrorType.OTHER, "foo"),
+                new RetriableIndexingException(ErrorType.DELETED, "bar"),
+                new RetriableIndexingException(ErrorType.OTHER, "baz"));
+
+        TestCommon.assertExceptionCorrect(getException(ret.retryFunc(func, "foo", null)),
+                new RetriesExceededIndexingException(ErrorType.DELETED, "bar"));
+        assertThat("incorrect calls", func.threads.size(), is(2));
+        assertThat("incorrect retries", log.events.size(), is(1));
+        assertThat("incorrect scheduled", ret.getRetriesScheduled(), is(ImmutableMap.of(
+                ErrorType.OTHER, 1L)));
+        assertThat("incorrect succeeded", ret.getRetriesSucceeded(), is(Collections.emptyMap()));
+        assertThat("incorrect exhausted", ret.getRetriesExhausted(), is(ImmutableMap.of(
+                ErrorType.DELETED, 1L)));
+        
+        final TestFunction func2 = new TestFunction(
+                new RetriableIndexingException(ErrorType.DELETED, "foo"),
+                new RetriableIndexingException(ErrorType.OTHER, "bar"),
+                new RetriableIndexingException(ErrorType.OTHER, "baz"));
+        assertThat("incorrect result", ret.retryFunc(func2, "foo", null).get(), is("foo out"));
+        assertThat("incorrect calls", func2.threads.size(), is(4));
+        assertThat("incorrect scheduled", ret.getRetriesScheduled(), is(ImmutableMap.of(
+                ErrorType.DELETED, 1L, ErrorType.OTHER, 3L)));
+        assertThat("incorrect succeeded", ret.getRetriesSucceeded(), is(ImmutableMap.of(
+                ErrorType.OTHER, 1L)));
+    }
+
+    @Test
+    public void zeroBudget() throws Exception {
+        final CollectingLogger log = new CollectingLogger();
+        final AsyncRetrier ret = getBuilder(log)
+                .withRetryBudget(ErrorType.SUBOBJECT_COUNT, 0)
+                .build();
+        final TestFunction func = new TestFunction(
+                new RetriableIndexingException(ErrorType.SUBOBJECT_COUNT, "foo"));
+
+        final CompletableFuture<String> f = ret.retryFunc(func, "foo", null);
+        assertThat("not complete", f.isDone(), is(true));
+        TestCommon.assertExceptionCorrect(getException(f),
+                new RetriesExceededIndexingException(ErrorType.SUBOBJECT_COUNT, "foo"));
+        assertThat("incorrect retries", log.events.size(), is(0));
+        assertThat("incorrect exhausted", ret.getRetriesExhausted(), is(ImmutableMap.of(
+                ErrorType.SUBOBJECT_COUNT, 1L)));
+    }
+
+    @Test
+    public void fatalRetriesExceeded() throws Exception {
+        final CollectingLogger log = new CollectingLogger();
+        final AsyncRetrier ret = getBuilder(log)
+                .withFatalRetryBudget(2)
+                .withRetryBudget(ErrorType.OTHER, 0)
+                .build();
+        final TestFunction func = new TestFunction(
+                new FatalRetriableIndexingException(ErrorType.OTHER, "foo"),
+                new FatalRetriableIndexingException(ErrorType.OTHER, "bar"),
+                new FatalRetriableIndexingException(ErrorType.OTHER, "baz"));
+
+        final Instant start = Instant.now();
+        TestCommon.assertExceptionCorrect(getException(ret.retryFunc(func, "foo", null)),
+                new FatalIndexingException(ErrorType.OTHER, "baz"));
+        assertCloseMS(start, Instant.now(), 300, 60);
+        assertThat("incorrect retries", log.events.size(), is(2));
+        assertThat("incorrect retry count", log.events.get(1).retryCount, is(2));
+        assertThat("incorrect scheduled", ret.getRetriesScheduled(), is(ImmutableMap.of(
+                ErrorType.OTHER, 2L)));
+        assertThat("incorrect exhausted", ret.getRetriesExhausted(), is(ImmutableMap.of(
+                ErrorType.OTHER, 1L)));
+    }
+
+    @Test
+    public void nonRetriableException() throws Exception {
+        final CollectingLogger log = new CollectingLogger();
+        final AsyncRetrier ret = getBuilder(log).build();
+        final TestFunction func = new TestFunction(
+                new RetriableIndexingException(ErrorType.OTHER, "foo"),
+                new UnprocessableEventIndexingException(ErrorType.DELETED, "bar"));
+
+        TestCommon.assertExceptionCorrect(getException(ret.retryFunc(func, "foo", null)),
+                new UnprocessableEventIndexingException(ErrorType.DELETED, "bar"));
+        assertThat("incorrect retries", log.events.size(), is(1));
+        assertThat("incorrect succeeded", ret.getRetriesSucceeded(), is(Collections.emptyMap()));
+        assertThat("incorrect exhausted", ret.getRetriesExhausted(), is(Collections.emptyMap()));
+    }
+
+    @Test
+    public void runtimeException() throws Exception {
+        final AsyncRetrier ret = getBuilder(new CollectingLogger()).build();
+        final TestFunction func = new TestFunction(new IllegalStateException("foo"));
+
+        TestCommon.assertExceptionCorrect(getException(ret.retryFunc(func, "foo", null)),
+                new IllegalStateException("foo"));
+    }
+
+    @Test
+    public void schedulerShutDown() throws Exception {
+        final AsyncRetrier ret = getBuilder(new CollectingLogger()).build();
+        scheduler.shutdown();
+        final TestFunction func = new TestFunction(
+                new RetriableIndexingException(ErrorType.OTHER, "foo"));
+
+        final CompletableFuture<String> f = ret.retryFunc(func, "foo", null);
+        assertThat("not complete", f.isDone(), is(true));
+        assertThat("incorrect exception class",
+                getException(f).getClass().getSimpleName(), is("RejectedExecutionException"));
+        assertThat("incorrect scheduled", ret.getRetriesScheduled(), is(Collections.emptyMap()));
+    }
+
+    @Test
+    public void jitter() throws Exception {
+        final CollectingLogger log = new CollectingLogger();
+        final AsyncRetrier ret = AsyncRetrier.getBuilder(scheduler, log)
+                .withBackoff(Duration.ofMillis(100), Duration.ofMillis(100))
+                .withJitter(1)
+                .withRandom(new Random() {
+                    private static final long serialVersionUID = 1L;
+
+                    @Override
+                    public double nextDouble() {
+                        // removes 90% of the delay
+                        return 0.9;
+                    }
+                })
+                .build();
+        final TestFunction func = new TestFunction(
+                new RetriableIndexingException(ErrorType.OTHER, "foo"),
+                new RetriableIndexingException(ErrorType.OTHER, "foo"),
+                new RetriableIndexingException(ErrorType.OTHER, "foo"));
+
+        final Instant start = Instant.now();
+        assertThat("incorrect result", ret.retryFunc(func, "foo", null).get(), is("foo out"));
+        assertCloseMS(start, Instant.now(), 30, 40);
+        assertThat("incorrect retries", log.events.size(), is(3));
+    }
+}
@@ -0,0 +1,274 @@
+package kbasesearchengine.test.events.exceptions;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Test;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableMap;
+
+import kbasesearchengine.common.CircuitBreaker;
+import kbasesearchengine.common.CircuitBreaker.State;
+import kbasesearchengine.events.exceptions.Downstream;
+import kbasesearchengine.events.exceptions.DownstreamCircuitBreakers;
+import kbasesearchengine.events.exceptions.DownstreamCircuitBreakers.Permit;
+import kbasesearchengine.events.exceptions.ErrorType;
+import kbasesearchengine.events.exceptions.FatalRetriableIndexingException;
+import kbasesearchengine.events.exceptions.RetriableIndexingException;
+import kbasesearchengine.test.common.TestCommon;
+
+public class DownstreamCircuitBreakersTest {
+
+    private static RetriableIndexingException ex(
+            final ErrorType type,
+            final Downstream downstream) {
+        return new RetriableIndexingException(type, downstream, "foo", new Exception());
+    }
+
+    @Test
+    public void constructFail() {
+        final Duration d = Duration.ofMillis(1);
+        final Clock c = Clock.systemDefaultZone();
+        failConstruct(0, 1, d, c, new IllegalArgumentException(
+                "failureRateThreshold must be greater than 0 and at most 1"));
+        failConstruct(1.1, 1, d, c, new IllegalArgumentException(
+                "failureRateThreshold must be greater than 0 and at most 1"));
+        failConstruct(1, 0, d, c, new IllegalArgumentException(
+                "windowSize must be at least 1"));
+        failConstruct(1, 1, null, c, new NullPointerException("openDuration"));
+        failConstruct(1, 1, Duration.ZERO, c, new IllegalArgumentException(
+                "openDuration must be positive"));
+        failConstruct(1, 1, d, null, new NullPointerException("clock"));
+    }
+
+    private void failConstruct(
+            final double rate,
+            final int window,
+            final Duration open,
+            final Clock clock,
+            final Exception expected) {
+        try {
+            new DownstreamCircuitBreakers(rate, window, open, clock);
+            fail("expected exception");
+        } catch (Exception got) {
+            TestCommon.assertExceptionCorrect(got, expected);
+        }
+    }
+
+    @Test
+    public void noDownstream() {
+        final DownstreamCircuitBreakers cbs = new DownstreamCircuitBreakers();
+
+        assertThat("incorrect wait", cbs.recordFailure(new RetriableIndexingException(
+                ErrorType.OTHER, "foo")), is(Duration.ZERO));
+        cbs.recordSuccess(Downstream.WORKSPACE);
+        assertThat("incorrect open", cbs.isOpen(), is(false));
+        assertThat("incorrect status", cbs.getStatus(), is(Collections.emptyMap()));
+    }
+
+    @Test
+    public void getBreakerFail() {
+        final DownstreamCircuitBreakers cbs = new DownstreamCircuitBreakers();
+        failGetBreaker(cbs, null, ErrorType.OTHER, new NullPointerException("downstream"));
+        failGetBreaker(cbs, Downstream.MONGO, null, new NullPointerException("errorType"));
+    }
+
+    private void failGetBreaker(
+            final DownstreamCircuitBreakers cbs,
+            final Downstream downstream,
+            final ErrorType errorType,
+            final Exception expected) {
+        try {
+            cbs.getBreaker(downstream, errorType);
+            fail("expected exception");
+        } catch (Exception got) {
+            TestCommon.assertExceptionCorrect(got, expected);
+        }
+    }
+
+    @Test
+    public void breakerPerDownstreamAndErrorType() {
+        final Clock clock = mock(Clock.class);
+        when(clock.instant()).thenReturn(Instant.ofEpochMilli(10000));
+        final DownstreamCircuitBreakers cbs = new DownstreamCircuitBreakers(
+                0.5, 2, Duration.ofSeconds(10), clock);
+
+        assertThat("incorrect breaker", cbs.getBreaker(Downstream.WORKSPACE, ErrorType.OTHER),
+                is(Optional.absent()));
+        cbs.recordFailure(ex(ErrorType.OTHER, Downstream.WORKSPACE));
+        cbs.recordFailure(ex(ErrorType.INDEXING_CONFLICT, Downstream.ELASTICSEARCH));
+        // fatal exceptions share breakers with non-fatal exceptions
+        cbs.recordFailure(new FatalRetriableIndexingException(
+                ErrorType.OTHER, Downstream.ELASTICSEARCH, "bar", new Exception()));
+
+        final CircuitBreaker ws = cbs.getBreaker(Downstream.WORKSPACE, ErrorType.OTHER).get();
+        assertThat("incorrect name", ws.getName(), is("workspace/OTHER"));
+        assertThat("incorrect rate", ws.getFailureRate(), is(1.0));
+        assertThat("incorrect breaker", cbs.getBreaker(Downstream.MONGO, ErrorType.OTHER),
+                is(Optional.absent()));
+
+        final Map<String, Object> expected = ImmutableMap.of(
+                "elasticsearch/INDEXING_CONFLICT", ImmutableMap.of(
+                        "state", "CLOSED", "failure_rate", 1.0, "opened", 0L),
+                "elasticsearch/OTHER", ImmutableMap.of(
+                        "state", "CLOSED", "failure_rate", 1.0, "opened", 0L),
+                "workspace/OTHER", ImmutableMap.of(
+                        "state", "CLOSED", "failure_rate", 1.0, "opened", 0L));
+        assertThat("incorrect status", cbs.getStatus(), is(expected));
+        assertThat("incorrect open", cbs.isOpen(), is(false));
+
+        // successes are recorded against all breakers for the downstream
+        cbs.recordSuccess(Downstream.ELASTICSEARCH);
+        assertThat("incorrect rate", ws.getFailureRate(), is(1.0));
+        assertThat("incorrect rate", cbs.getBreaker(Downstream.ELASTICSEARCH, ErrorType.OTHER)
+                .get().getFailureRate(), is(0.5));
+        assertThat("incorrect rate", cbs.getBreaker(
+                Downstream.ELASTICSEARCH, ErrorType.INDEXING_CONFLICT).get().getFailureRate(),
+                is(0.5));
+        cbs.recordSuccess(Downstream.WORKSPACE);
+        assertThat("incorrect rate", ws.getFailureRate(), is(0.5));
+    }
+
+    @Test
+    public void recordSuccessFail() {
+        try {
+            new DownstreamCircuitBreakers().recordSuccess(null);
+            fail("expected exception");
+        } catch (Exception got) {
+            TestCommon.assertExceptionCorrect(got, new NullPointerException("downstream"));
+        }
+    }
+
+    @Test
+    public void openAndProbe() {
+        final Clock clock = mock(Clock.class);
+        when(clock.instant()).thenReturn(Instant.ofEpochMilli(10000));
+        final DownstreamCircuitBreakers cbs = new DownstreamCircuitBreakers(
+                0.5, 2, Duration.ofSeconds(10), clock);
+
+        assertThat("incorrect wait", cbs.recordFailure(ex(ErrorType.OTHER, Downstream.MONGO)),
+                is(Duration.ZERO));
+        cbs.recordSuccess(Downstream.MONGO);
+        when(clock.instant()).thenReturn(Instant.ofEpochMilli(10000));
+        assertThat("incorrect wait", cbs.recordFailure(ex(ErrorType.OTHER, Downstream.MONGO)),
+                is(Duration.ofSeconds(10)));
+        final CircuitBreaker cb = cbs.getBreaker(Downstream.MONGO, ErrorType.OTHER).get();
+        assertThat("incorrect state", cb.getState(), is(State.OPEN));
+        assertThat("incorrect open", cbs.isOpen(), is(true));
+
+        // neither failures of calls in flight nor successes change an open breaker
+        when(clock.instant()).thenReturn(Instant.ofEpochMilli(14000));
+        assertThat("incorrect wait", cbs.recordFailure(ex(ErrorType.OTHER, Downstream.MONGO)),
+                is(Duration.ofSeconds(6)));
+        cbs.recordSuccess(Downstream.MONGO);
+        assertThat("incorrect state", cb.getState(), is(State.OPEN));
+        assertThat("incorrect opened count", cb.getOpenedCount(), is(1L));
+
+        // once the open period passes, the next success closes the breaker
+        when(clock.instant()).thenReturn(Instant.ofEpochMilli(20000));
+        assertThat("incorrect open", cbs.isOpen(), is(false));
+        assertThat("incorrect state", cb.getState(), is(State.HALF_OPEN));
+        // successes of other downstreams don't close the breaker
+        cbs.recordSuccess(Downstream.WORKSPACE);
+        cbs.recordSuccess(Downstream.ELASTICSEARCH);
+        assertThat("incorrect state", cb.getState(), is(State.HALF_OPEN));
+        cbs.recordSuccess(Downstream.MONGO);
+        assertThat("incorrect state", cb.getState(), is(State.CLOSED));
+        assertThat("incorrect status", cbs.getStatus(), is(ImmutableMap.of("mongo/OTHER",
+                ImmutableMap.of("state", "CLOSED", "failure_rate", 0.0, "opened", 1L))));
+    }
+
+    @Test
+    public void probeFails() {
+        final Clock clock = mock(Clock.class);
+        when(clock.instant()).thenReturn(Instant.ofEpochMilli(10000));
+        final DownstreamCircuitBreakers cbs = new DownstreamCircuitBreakers(
+                1, 1, Duration.ofSeconds(10), clock);
+
+        assertThat("incorrect wait", cbs.recordFailure(ex(ErrorType.OTHER, Downstream.WORKSPACE)),
+                is(Duration.ofSeconds(10)));
+        when(clock.instant()).thenReturn(Instant.ofEpochMilli(20000));
+        assertThat("incorrect open", cbs.isOpen(), is(false));
+        assertThat("incorrect wait", cbs.recordFailure(ex(ErrorType.OTHER, Downstream.WORKSPACE)),
+                is(Duration.ofSeconds(10)));
+        assertThat("incorrect open", cbs.isOpen(), is(true));
+        assertThat("incorrect opened count", cbs.getBreaker(Downstream.WORKSPACE, ErrorType.OTHER)
+                .get().getOpenedCount(), is(2L));
+    }
+
+    @Test
+    public void halfOpenAllowsSingleProbe() {
+        final Clock clock = mock(Clock.class);
+        when(clock.instant()).thenReturn(Instant.ofEpochMilli(10000));
+        final DownstreamCircuitBreakers cbs = new DownstreamCircuitBreakers(
+                1, 1, Duration.ofSeconds(10), clock);
+        cbs.recordFailure(ex(ErrorType.OTHER, Downstream.WORKSPACE));
+        final EnumSet<Downstream> ws = EnumSet.of(Downstream.WORKSPACE);
+
+        // other downstreams aren't affected by the open breaker
+        assertThat("incorrect grant", cbs.tryAcquire(EnumSet.of(Downstream.MONGO)).isGranted(),
+                is(true));
+        assertThat("incorrect grant", cbs.tryAcquire(EnumSet.noneOf(Downstream.class))
+                .isGranted(), is(true));
+        when(clock.instant()).thenReturn(Instant.ofEpochMilli(14000));
+        final Permit open = cbs.tryAcquire(ws);
+        assertThat("incorrect grant", open.isGranted(), is(false));
+        assertThat("incorrect wait", open.getWait(), is(Duration.ofSeconds(6)));
+
+        when(clock.instant()).thenReturn(Instant.ofEpochMilli(20000));
+        final Permit probe = cbs.tryAcquire(ws);
+        assertThat("incorrect grant", probe.isGranted(), is(true));
+        assertThat("incorrect wait", probe.getWait(), is(Duration.ZERO));
+        final Permit refused = cbs.tryAcquire(EnumSet.of(Downstream.WORKSPACE, Downstream.MONGO));
+        assertThat("incorrect grant", refused.isGranted(), is(false));
+        assertThat("incorrect wait", refused.getWait(), is(Duration.ZERO));
+        final CircuitBreaker cb = cbs.getBreaker(Downstream.WORKSPACE, ErrorType.OTHER).get();
+        assertThat("incorrect short circuit", cb.getShortCircuitedCount(), is(2L));
+
+        // releasing the refused permit must not release the probe
+        refused.release();
+        assertThat("incorrect grant", cbs.tryAcquire(ws).isGranted(), is(false));
+        probe.release();
+        probe.release();
+        final Permit probe2 = cbs.tryAcquire(ws);
+        assertThat("incorrect grant", probe2.isGranted(), is(true));
+        assertThat("incorrect grant", cbs.tryAcquire(ws).isGranted(), is(false));
+        cbs.recordSuccess(Downstream.WORKSPACE);
+        probe2.release();
+        assertThat("incorrect state", cb.getState(), is(State.CLOSED));
+        assertThat("incorrect grant", cbs.tryAcquire(ws).isGranted(), is(true));
+        assertThat("incorrect grant", cbs.tryAcquire(ws).isGranted(), is(true));
+    }
+
+    @Test
+    public void tryAcquireFail() {
+        final DownstreamCircuitBreakers cbs = new DownstreamCircuitBreakers();
+        failTryAcquire(cbs, null, new NullPointerException("downstreams"));
+        failTryAcquire(cbs, Collections.singleton(null),
+                new NullPointerException("null item in downstreams"));
+    }
+
+    private void failTryAcquire(
+            final DownstreamCircuitBreakers cbs,
+            final Set<Downstream> downstreams,
+            final Exception expected) {
+        try {
+            cbs.tryAcquire(downstreams);
+            fail("expected exception");
+        } catch (Exception got) {
+            TestCommon.assertExceptionCorrect(got, expected);
+        }
+    }
+}
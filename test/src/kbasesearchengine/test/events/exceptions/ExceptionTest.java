@@ -7,17 +7,22 @@ import java.time.Instant;
 
 import org.junit.Test;
 
+import com.google.common.base.Optional;
+
 import kbasesearchengine.events.StatusEvent;
 import kbasesearchengine.events.StatusEventID;
 import kbasesearchengine.events.StatusEventProcessingState;
 import kbasesearchengine.events.StatusEventType;
 import kbasesearchengine.events.StoredStatusEvent;
+import kbasesearchengine.events.exceptions.Downstream;
+import kbasesearchengine.events.exceptions.ErrorType;
+import kbasesearchengine.events.exceptions.FatalRetriableIndexingException;
 import kbasesearchengine.events.exceptions.NoSuchEventException;
+import kbasesearchengine.events.exceptions.RetriableIndexingException;
 
 public class ExceptionTest {
 
-    // just testing NoSuchEventException for now since it's not a straight super(String)
-    // constructor
+    // just testing exceptions that aren't straight super(String) constructors
     
     @Test
     public void noSuchEventException() {
@@ -29,4 +34,21 @@ public class ExceptionTest {
         assertThat("incorrect message", e.getMessage(), is("Event with ID foo not found"));
     }
     
+    @Test
+    public void retriableIndexingExceptionDownstream() {
+        final Exception cause = new Exception("bar");
+        final RetriableIndexingException e = new FatalRetriableIndexingException(
+                ErrorType.INDEXING_CONFLICT, Downstream.ELASTICSEARCH, "foo", cause);
+        assertThat("incorrect message", e.getMessage(), is("foo"));
+        assertThat("incorrect cause", e.getCause(), is((Throwable) cause));
+        assertThat("incorrect type", e.getErrorType(), is(ErrorType.INDEXING_CONFLICT));
+        assertThat("incorrect downstream", e.getDownstream(),
+                is(Optional.of(Downstream.ELASTICSEARCH)));
+        
+        assertThat("incorrect downstream", new RetriableIndexingException(
+                ErrorType.OTHER, "foo").getDownstream(), is(Optional.absent()));
+        assertThat("incorrect downstream", new RetriableIndexingException(
+                ErrorType.OTHER, "foo", cause).getDownstream(), is(Optional.absent()));
+    }
+    
 }
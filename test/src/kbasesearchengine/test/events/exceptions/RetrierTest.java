@@ -4,23 +4,32 @@ import static org.hamcrest.CoreMatchers.is;
 import static org.junit.Assert.assertThat;
 import static kbasesearchengine.test.common.TestCommon.assertCloseMS;
 
+import java.time.Clock;
+import java.time.Duration;
 import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.EnumSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.junit.Test;
 
 import com.google.common.base.Optional;
 
+import kbasesearchengine.common.CircuitBreaker;
+import kbasesearchengine.common.CircuitBreaker.State;
 import kbasesearchengine.events.StatusEvent;
 import kbasesearchengine.events.StatusEventID;
 import kbasesearchengine.events.StatusEventProcessingState;
 import kbasesearchengine.events.StatusEventType;
 import kbasesearchengine.events.StatusEventWithId;
 import kbasesearchengine.events.StoredStatusEvent;
+import kbasesearchengine.events.exceptions.Downstream;
+import kbasesearchengine.events.exceptions.DownstreamCircuitBreakers;
+import kbasesearchengine.events.exceptions.DownstreamCircuitBreakers.Permit;
 import kbasesearchengine.events.exceptions.ErrorType;
 import kbasesearchengine.events.exceptions.FatalIndexingException;
 import kbasesearchengine.events.exceptions.FatalRetriableIndexingException;
@@ -76,6 +85,17 @@ public class RetrierTest {
         assertThat("incorrect fatal delays", ret.getFatalRetryBackoffsMS(),
                 is(Arrays.asList(4, 5, 6)));
         assertThat("incorrect logger", ret.getLogger(), is(log));
+        assertThat("incorrect breakers", ret.getCircuitBreakers(), is(Optional.absent()));
+    }
+    
+    @Test
+    public void constructWithCircuitBreakers() throws Exception {
+        final CollectingLogger log = new CollectingLogger();
+        final DownstreamCircuitBreakers cbs = new DownstreamCircuitBreakers();
+        final Retrier ret = new Retrier(2, 10, Arrays.asList(4, 5, 6), log, cbs);
+        
+        assertThat("incorrect retries", ret.getRetryCount(), is(2));
+        assertThat("incorrect breakers", ret.getCircuitBreakers(), is(Optional.of(cbs)));
     }
     
     @Test
@@ -120,6 +140,124 @@ public class RetrierTest {
         }
     }
     
+    @Test
+    public void consumerWaitsForOpenCircuitBreaker() throws Exception {
+        final CollectingLogger collog = new CollectingLogger();
+        final DownstreamCircuitBreakers cbs = new DownstreamCircuitBreakers(
+                1, 1, Duration.ofMillis(150), Clock.systemDefaultZone());
+        // a single retry is allowed, but retries while the breaker is open aren't counted
+        final Retrier ret = new Retrier(1, 10, Collections.emptyList(), collog, cbs);
+        final int[] count = {0};
+        final Instant start = Instant.now();
+        ret.retryCons(i -> {
+            if (count[0]++ < 2) {
+                throw new RetriableIndexingException(
+                        ErrorType.OTHER, Downstream.WORKSPACE, "ws down", new Exception());
+            }
+        }, "foo", null);
+        final Instant end = Instant.now();
+        
+        assertThat("incorrect attempts", count[0], is(3));
+        assertThat("incorrect retries", collog.events.size(), is(2));
+        for (final LogEvent le: collog.events) {
+            assertThat("incorrect retry count", le.retryCount, is(1));
+            TestCommon.assertExceptionCorrect(le.exception, new RetriableIndexingException(
+                    ErrorType.OTHER, "ws down"));
+        }
+        // the first attempt opens the breaker and the second reopens it
+        assertCloseMS(start, collog.events.get(1).time, 150, 60);
+        assertCloseMS(start, end, 300, 60);
+        final CircuitBreaker cb = cbs.getBreaker(Downstream.WORKSPACE, ErrorType.OTHER).get();
+        assertThat("incorrect opened count", cb.getOpenedCount(), is(2L));
+        assertThat("incorrect state", cb.getState(), is(State.CLOSED));
+    }
+    
+    @Test
+    public void functionRecordsWithCircuitBreakers() throws Exception {
+        final DownstreamCircuitBreakers cbs = new DownstreamCircuitBreakers(
+                0.5, 4, Duration.ofSeconds(10), Clock.systemDefaultZone());
+        final Retrier ret = new Retrier(
+                2, 10, Collections.emptyList(), new CollectingLogger(), cbs);
+        final int[] count = {0};
+        final long result = ret.retryFunc(i -> {
+            if (count[0]++ < 1) {
+                throw new RetriableIndexingException(
+                        ErrorType.OTHER, Downstream.MONGO, "mongo down", new Exception());
+            }
+            return 42L;
+        }, "foo", null);
+        
+        assertThat("incorrect result", result, is(42L));
+        final CircuitBreaker cb = cbs.getBreaker(Downstream.MONGO, ErrorType.OTHER).get();
+        assertThat("incorrect rate", cb.getFailureRate(), is(0.5));
+        assertThat("incorrect state", cb.getState(), is(State.CLOSED));
+    }
+    
+    @Test
+    public void successRecordedOnlyForCalledDownstream() throws Exception {
+        final DownstreamCircuitBreakers cbs = new DownstreamCircuitBreakers(
+                0.5, 2, Duration.ofMillis(50), Clock.systemDefaultZone());
+        final Retrier ret = new Retrier(
+                2, 10, Collections.emptyList(), new CollectingLogger(), cbs);
+        cbs.recordFailure(new RetriableIndexingException(
+                ErrorType.OTHER, Downstream.MONGO, "mongo down", new Exception()));
+        for (int i = 0; i < 2; i++) {
+            cbs.recordFailure(new RetriableIndexingException(
+                    ErrorType.OTHER, Downstream.WORKSPACE, "ws down", new Exception()));
+        }
+        final CircuitBreaker mongo = cbs.getBreaker(Downstream.MONGO, ErrorType.OTHER).get();
+        final CircuitBreaker ws = cbs.getBreaker(Downstream.WORKSPACE, ErrorType.OTHER).get();
+        assertThat("incorrect state", ws.getState(), is(State.OPEN));
+        Thread.sleep(100);
+        assertThat("incorrect state", ws.getState(), is(State.HALF_OPEN));
+        
+        // a success of another downstream neither closes nor dilutes the breakers
+        assertThat("incorrect result", ret.retryFunc(i -> 42L, "foo", null, Downstream.MONGO),
+                is(42L));
+        ret.retryCons(i -> {}, "foo", null);
+        assertThat("incorrect state", ws.getState(), is(State.HALF_OPEN));
+        assertThat("incorrect rate", mongo.getFailureRate(), is(0.5));
+        
+        ret.retryCons(i -> {}, "foo", null, Downstream.WORKSPACE);
+        assertThat("incorrect state", ws.getState(), is(State.CLOSED));
+        assertThat("incorrect rate", mongo.getFailureRate(), is(0.5));
+    }
+    
+    @Test
+    public void halfOpenAllowsOneAttempt() throws Exception {
+        final DownstreamCircuitBreakers cbs = new DownstreamCircuitBreakers(
+                1, 1, Duration.ofMillis(50), Clock.systemDefaultZone());
+        final Retrier ret = new Retrier(
+                2, 10, Collections.emptyList(), new CollectingLogger(), cbs);
+        cbs.recordFailure(new RetriableIndexingException(
+                ErrorType.OTHER, Downstream.WORKSPACE, "ws down", new Exception()));
+        Thread.sleep(100);
+        // another unit of work holds the probe
+        final Permit probe = cbs.tryAcquire(EnumSet.of(Downstream.WORKSPACE));
+        assertThat("incorrect grant", probe.isGranted(), is(true));
+        
+        final List<Instant> calls = new CopyOnWriteArrayList<>();
+        final Thread t = new Thread(() -> {
+            try {
+                ret.retryCons(i -> calls.add(Instant.now()), "foo", null, Downstream.WORKSPACE);
+            } catch (InterruptedException | IndexingException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        t.start();
+        Thread.sleep(100);
+        assertThat("incorrect calls", calls.size(), is(0));
+        final CircuitBreaker cb = cbs.getBreaker(Downstream.WORKSPACE, ErrorType.OTHER).get();
+        assertThat("incorrect state", cb.getState(), is(State.HALF_OPEN));
+        
+        final Instant released = Instant.now();
+        probe.release();
+        t.join(1000);
+        assertThat("incorrect calls", calls.size(), is(1));
+        assertCloseMS(released, calls.get(0), 10, 20);
+        assertThat("incorrect state", cb.getState(), is(State.CLOSED));
+    }
+    
     private class TestConsumer<T> implements RetryConsumer<T> {
 
         private final T input;
@@ -7,6 +7,8 @@ import static org.mockito.Mockito.any;
 import static org.mockito.Mockito.argThat;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -15,10 +17,13 @@ import java.io.IOException;
 import java.net.ConnectException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.stream.Collectors;
 
 import org.junit.Test;
 import org.mockito.ArgumentMatcher;
@@ -26,6 +31,13 @@ import org.mockito.ArgumentMatcher;
 import com.google.common.collect.ImmutableMap;
 
 import kbasesearchengine.common.GUID;
+import kbasesearchengine.events.ChildStatusEvent;
+import kbasesearchengine.events.ObjectIDRange;
+import kbasesearchengine.events.StatusEvent;
+import kbasesearchengine.events.StatusEventID;
+import kbasesearchengine.events.StatusEventProcessingState;
+import kbasesearchengine.events.StatusEventType;
+import kbasesearchengine.events.StoredStatusEvent;
 import kbasesearchengine.events.exceptions.ErrorType;
 import kbasesearchengine.events.exceptions.FatalIndexingException;
 import kbasesearchengine.events.exceptions.FatalRetriableIndexingException;
@@ -35,12 +47,15 @@ import kbasesearchengine.events.handler.CloneableWorkspaceClient;
 import kbasesearchengine.events.handler.CloneableWorkspaceClientImpl;
 import kbasesearchengine.events.handler.SourceData;
 import kbasesearchengine.events.handler.WorkspaceEventHandler;
+import kbasesearchengine.events.handler.WorkspaceInfoCache;
 import kbasesearchengine.test.common.TestCommon;
 import us.kbase.common.service.JsonClientException;
 import us.kbase.common.service.Tuple11;
 import us.kbase.common.service.Tuple9;
 import us.kbase.common.service.UObject;
 import us.kbase.common.service.UnauthorizedException;
+import us.kbase.workspace.GetObjectInfo3Params;
+import us.kbase.workspace.GetObjectInfo3Results;
 import us.kbase.workspace.GetObjects2Params;
 import us.kbase.workspace.GetObjects2Results;
 import us.kbase.workspace.ObjectData;
@@ -123,6 +138,87 @@ public class WorkspaceEventHandlerTest {
         assertThat("incorrect ws meta", got.getE9(), is(expected.getE9()));
     }
 
+    @Test
+    public void expandDeleteAccessGroup() throws Exception {
+        final CloneableWorkspaceClient clonecli = mock(CloneableWorkspaceClient.class);
+        
+        final Iterable<ChildStatusEvent> children = new WorkspaceEventHandler(clonecli).expand(
+                accessGroupEvent(StatusEventType.DELETE_ACCESS_GROUP, "20001"));
+        
+        assertThat("incorrect children", toList(children), is(Arrays.asList(
+                rangeEvent(StatusEventType.DELETE_ALL_VERSIONS, 1, 10000),
+                rangeEvent(StatusEventType.DELETE_ALL_VERSIONS, 10001, 20000),
+                rangeEvent(StatusEventType.DELETE_ALL_VERSIONS, 20001, 20001))));
+    }
+    
+    @Test
+    public void expandPublishAccessGroup() throws Exception {
+        expandPublishAccessGroup(StatusEventType.PUBLISH_ACCESS_GROUP,
+                StatusEventType.PUBLISH_ALL_VERSIONS);
+        expandPublishAccessGroup(StatusEventType.UNPUBLISH_ACCESS_GROUP,
+                StatusEventType.UNPUBLISH_ALL_VERSIONS);
+    }
+
+    private void expandPublishAccessGroup(
+            final StatusEventType type,
+            final StatusEventType childType)
+            throws Exception {
+        final CloneableWorkspaceClient clonecli = mock(CloneableWorkspaceClient.class);
+        final WorkspaceClient wscli = mock(WorkspaceClient.class);
+        when(clonecli.getClient()).thenReturn(wscli);
+        
+        when(wscli.administer(argThat(new AdminGetWSInfoAnswerMatcher(6))))
+                .thenReturn(new UObject(wsTuple(6, "myws", "owner", "date", 10000, "a",
+                        "r", "unlocked", Collections.emptyMap())));
+        
+        final Iterable<ChildStatusEvent> children = new WorkspaceEventHandler(clonecli)
+                .expand(accessGroupEvent(type, null));
+        
+        assertThat("incorrect children", toList(children), is(Arrays.asList(
+                rangeEvent(childType, 1, 10000))));
+    }
+    
+    @Test
+    public void expandEmptyAccessGroup() throws Exception {
+        final CloneableWorkspaceClient clonecli = mock(CloneableWorkspaceClient.class);
+        
+        final Iterable<ChildStatusEvent> children = new WorkspaceEventHandler(clonecli).expand(
+                accessGroupEvent(StatusEventType.DELETE_ACCESS_GROUP, "0"));
+        
+        assertThat("incorrect children", toList(children), is(Collections.emptyList()));
+    }
+    
+    private StoredStatusEvent accessGroupEvent(final StatusEventType type, final String maxObjID) {
+        return StoredStatusEvent.getBuilder(StatusEvent.getBuilder(
+                "WS", Instant.ofEpochMilli(10000), type)
+                .withNullableAccessGroupID(6)
+                .withNullableObjectID(maxObjID)
+                .build(),
+                new StatusEventID("parent"),
+                StatusEventProcessingState.PROC)
+                .build();
+    }
+    
+    private ChildStatusEvent rangeEvent(
+            final StatusEventType type,
+            final long first,
+            final long last) {
+        return new ChildStatusEvent(StatusEvent.getBuilder(
+                "WS", Instant.ofEpochMilli(10000), type)
+                .withNullableAccessGroupID(6)
+                .withNullableObjectIDRange(new ObjectIDRange(first, last))
+                .build(),
+                new StatusEventID("parent"));
+    }
+    
+    private List<ChildStatusEvent> toList(final Iterable<ChildStatusEvent> children) {
+        final List<ChildStatusEvent> ret = new ArrayList<>();
+        for (final ChildStatusEvent child: children) {
+            ret.add(child);
+        }
+        return ret;
+    }
+
     private class AdminGetObjectsAnswerMatcher implements ArgumentMatcher<UObject> {
 
         final String ref;
@@ -228,6 +324,45 @@ public class WorkspaceEventHandlerTest {
         verify(cloned)._setFileForNextRpcResponse(new File("somefile"));
     }
 
+    @Test
+    public void loadWithWorkspaceInfoCache() throws Exception {
+        final CloneableWorkspaceClient clonecli = mock(CloneableWorkspaceClient.class);
+        final WorkspaceClient cloned = mock(WorkspaceClient.class);
+        final WorkspaceClient wscli = mock(WorkspaceClient.class);
+        when(clonecli.getClientClone()).thenReturn(cloned);
+        when(clonecli.getClient()).thenReturn(wscli);
+        
+        doReturn(new UObject(new GetObjects2Results().withData(Arrays.asList(
+                new ObjectData()
+                        .withData(new UObject(ImmutableMap.of("genome", "data")))
+                        .withProvenance(Collections.emptyList())
+                        .withCreator("creator")
+                        .withCopySourceInaccessible(0L)
+                        .withInfo(objTuple(2, "objname", "sometype", "date", 3, "copier",
+                                1, "wsname", "checksum", 44, Collections.emptyMap()))))))
+                .when(cloned).administer(argThat(new AdminGetObjectsAnswerMatcher("1/2/3")));
+        
+        doReturn(new UObject(wsTuple(1, "wsname", "username", "date", 7, "r", "n",
+                "unlocked", ImmutableMap.of("searchtags", "foo"))))
+                .when(wscli).administer(argThat(new AdminGetWSInfoAnswerMatcher(1)));
+        
+        final WorkspaceEventHandler weh = new WorkspaceEventHandler(clonecli,
+                new WorkspaceInfoCache(new WorkspaceEventHandler(clonecli), 10000, 10));
+        weh.load(new GUID("WS:1/2/3"), Paths.get("somefile"));
+        final SourceData sd = weh.load(new GUID("WS:1/2/3"), Paths.get("somefile"));
+        
+        final SourceData expected = SourceData.getBuilder(
+                new UObject(ImmutableMap.of("genome", "data")), "objname", "creator")
+                .withNullableMD5("checksum")
+                .withSourceTag("foo")
+                .build();
+        
+        compare(sd, expected);
+        
+        // the workspace info is only fetched once
+        verify(wscli, times(1)).administer(argThat(new AdminGetWSInfoAnswerMatcher(1)));
+    }
+
     @Test
     public void loadWithPathMaximalCopyRef() throws Exception {
         final CloneableWorkspaceClient clonecli = mock(CloneableWorkspaceClient.class);
@@ -696,4 +831,273 @@ public class WorkspaceEventHandlerTest {
             TestCommon.assertExceptionCorrect(got, expected);
         }
     }
+    
+    private class AdminGetObjectInfoAnswerMatcher implements ArgumentMatcher<UObject> {
+
+        final List<String> refs;
+        
+        public AdminGetObjectInfoAnswerMatcher(final String... refs) {
+            this.refs = Arrays.asList(refs);
+        }
+        
+        @Override
+        public boolean matches(final UObject command) {
+            boolean matches = true;
+            @SuppressWarnings("unchecked")
+            final Map<String, Object> cmd = command.asClassInstance(Map.class);
+            matches = matches && "getObjectInfo".equals(cmd.get("command"));
+            
+            final GetObjectInfo3Params p = UObject.transformObjectToObject(
+                    cmd.get("params"), GetObjectInfo3Params.class);
+            matches = matches && p.getIgnoreErrors() == null;
+            matches = matches && p.getIncludeMetadata() == null;
+            
+            final List<String> gotRefs = p.getObjects().stream().map(o -> o.getRef())
+                    .collect(Collectors.toList());
+            matches = matches && refs.equals(gotRefs);
+            
+            return matches;
+        }
+    }
+    
+    private class AdminGetObjectsBatchAnswerMatcher implements ArgumentMatcher<UObject> {
+
+        final List<String> refs;
+        
+        public AdminGetObjectsBatchAnswerMatcher(final String... refs) {
+            this.refs = Arrays.asList(refs);
+        }
+        
+        @Override
+        public boolean matches(final UObject command) {
+            boolean matches = true;
+            @SuppressWarnings("unchecked")
+            final Map<String, Object> cmd = command.asClassInstance(Map.class);
+            matches = matches && "getObjects".equals(cmd.get("command"));
+            
+            final GetObjects2Params p = UObject.transformObjectToObject(
+                    cmd.get("params"), GetObjects2Params.class);
+            final List<String> gotRefs = p.getObjects().stream().map(o -> o.getRef())
+                    .collect(Collectors.toList());
+            matches = matches && refs.equals(gotRefs);
+            
+            return matches;
+        }
+    }
+    
+    @Test
+    public void loadBatch() throws Exception {
+        final CloneableWorkspaceClient clonecli = mock(CloneableWorkspaceClient.class);
+        final WorkspaceClient cloned = mock(WorkspaceClient.class);
+        final WorkspaceClient wscli = mock(WorkspaceClient.class);
+        when(clonecli.getClientClone()).thenReturn(cloned);
+        when(clonecli.getClient()).thenReturn(wscli);
+        final long big = WorkspaceEventHandler.BATCH_IN_MEMORY_MAX_BYTES + 1;
+        
+        doReturn(new UObject(new GetObjectInfo3Results().withInfos(Arrays.asList(
+                objTuple(2, "obj2", "sometype", "date", 3, "user", 1, "wsname", "chk2", 44,
+                        Collections.emptyMap()),
+                objTuple(5, "obj5", "sometype", "date", 6, "user", 4, "wsname", "chk5", big,
+                        Collections.emptyMap()),
+                objTuple(8, "obj8", "sometype", "date", 9, "user", 1, "wsname", "chk8", 55,
+                        Collections.emptyMap())))))
+                .when(wscli).administer(argThat(
+                        new AdminGetObjectInfoAnswerMatcher("1/2/3", "1/4/5;4/5/6", "1/8/9")));
+        
+        doReturn(new UObject(new GetObjects2Results().withData(Arrays.asList(
+                new ObjectData()
+                        .withData(new UObject(ImmutableMap.of("genome", "data2")))
+                        .withProvenance(Collections.emptyList())
+                        .withCreator("creator")
+                        .withCopySourceInaccessible(0L)
+                        .withInfo(objTuple(2, "obj2", "sometype", "date", 3, "user",
+                                1, "wsname", "chk2", 44, Collections.emptyMap())),
+                new ObjectData()
+                        .withData(new UObject(ImmutableMap.of("genome", "data8")))
+                        .withProvenance(Collections.emptyList())
+                        .withCreator("creator")
+                        .withCopySourceInaccessible(0L)
+                        .withInfo(objTuple(8, "obj8", "sometype", "date", 9, "user",
+                                1, "wsname", "chk8", 55, Collections.emptyMap()))))))
+                .when(wscli).administer(argThat(
+                        new AdminGetObjectsBatchAnswerMatcher("1/2/3", "1/8/9")));
+        
+        doReturn(new UObject(wsTuple(1, "wsname", "username", "date", 7, "r", "n",
+                "unlocked", Collections.emptyMap())))
+                .when(wscli).administer(argThat(new AdminGetWSInfoAnswerMatcher(1)));
+        
+        final Map<GUID, SourceData> sds = new WorkspaceEventHandler(clonecli).loadBatch(
+                Arrays.asList(
+                        Arrays.asList(new GUID("WS:1/2/3")),
+                        Arrays.asList(new GUID("WS:1/4/5"), new GUID("WS:4/5/6")),
+                        Arrays.asList(new GUID("WS:1/8/9"))));
+        
+        // the large object is left for the caller to load individually
+        assertThat("incorrect guids", sds.keySet(), is(TestCommon.set(
+                new GUID("WS:1/2/3"), new GUID("WS:1/8/9"))));
+        compare(sds.get(new GUID("WS:1/2/3")), SourceData.getBuilder(
+                new UObject(ImmutableMap.of("genome", "data2")), "obj2", "creator")
+                .withNullableMD5("chk2").build());
+        compare(sds.get(new GUID("WS:1/8/9")), SourceData.getBuilder(
+                new UObject(ImmutableMap.of("genome", "data8")), "obj8", "creator")
+                .withNullableMD5("chk8").build());
+        
+        // nothing is streamed to disk
+        verify(clonecli, never()).getClientClone();
+        verify(cloned, never()).setStreamingModeOn(true);
+    }
+    
+    @Test
+    public void loadBatchMissingInfo() throws Exception {
+        final CloneableWorkspaceClient clonecli = mock(CloneableWorkspaceClient.class);
+        final WorkspaceClient wscli = mock(WorkspaceClient.class);
+        when(clonecli.getClient()).thenReturn(wscli);
+        
+        doReturn(new UObject(new GetObjectInfo3Results().withInfos(Arrays.asList(
+                objTuple(2, "obj2", "sometype", "date", 3, "user", 1, "wsname", "chk2", 44,
+                        Collections.emptyMap())))))
+                .when(wscli).administer(argThat(
+                        new AdminGetObjectInfoAnswerMatcher("1/2/3", "1/8/9")));
+        
+        try {
+            new WorkspaceEventHandler(clonecli).loadBatch(Arrays.asList(
+                    Arrays.asList(new GUID("WS:1/2/3")),
+                    Arrays.asList(new GUID("WS:1/8/9"))));
+            fail("expected exception");
+        } catch (Exception got) {
+            TestCommon.assertExceptionCorrect(got, new UnprocessableEventIndexingException(
+                    ErrorType.OTHER, "Workspace returned 1 object info entries for 2 objects"));
+        }
+    }
+    
+    @Test
+    public void loadBatchMissingData() throws Exception {
+        final CloneableWorkspaceClient clonecli = mock(CloneableWorkspaceClient.class);
+        final WorkspaceClient wscli = mock(WorkspaceClient.class);
+        when(clonecli.getClient()).thenReturn(wscli);
+        
+        doReturn(new UObject(new GetObjectInfo3Results().withInfos(Arrays.asList(
+                objTuple(2, "obj2", "sometype", "date", 3, "user", 1, "wsname", "chk2", 44,
+                        Collections.emptyMap()),
+                objTuple(8, "obj8", "sometype", "date", 9, "user", 1, "wsname", "chk8", 55,
+                        Collections.emptyMap())))))
+                .when(wscli).administer(argThat(
+                        new AdminGetObjectInfoAnswerMatcher("1/2/3", "1/8/9")));
+        
+        doReturn(new UObject(new GetObjects2Results().withData(Arrays.asList(
+                new ObjectData()
+                        .withData(new UObject(ImmutableMap.of("genome", "data2")))
+                        .withProvenance(Collections.emptyList())
+                        .withCreator("creator")
+                        .withCopySourceInaccessible(0L)
+                        .withInfo(objTuple(2, "obj2", "sometype", "date", 3, "user",
+                                1, "wsname", "chk2", 44, Collections.emptyMap()))))))
+                .when(wscli).administer(argThat(
+                        new AdminGetObjectsBatchAnswerMatcher("1/2/3", "1/8/9")));
+        
+        try {
+            new WorkspaceEventHandler(clonecli).loadBatch(Arrays.asList(
+                    Arrays.asList(new GUID("WS:1/2/3")),
+                    Arrays.asList(new GUID("WS:1/8/9"))));
+            fail("expected exception");
+        } catch (Exception got) {
+            TestCommon.assertExceptionCorrect(got, new UnprocessableEventIndexingException(
+                    ErrorType.OTHER, "Workspace returned 1 object data entries for 2 objects"));
+        }
+    }
+    
+    @Test
+    public void loadBatchFail() throws Exception {
+        final List<GUID> g = Arrays.asList(new GUID("WS:1/2/3"));
+        failLoadBatch(null, new NullPointerException("guids"));
+        failLoadBatch(Arrays.asList(g, null), new NullPointerException("null item in guids"));
+        failLoadBatch(Arrays.asList(g, Collections.emptyList()),
+                new IllegalArgumentException("empty path in guids"));
+        failLoadBatch(Arrays.asList(g, Arrays.asList(new GUID("WS:1/2/3"), null)),
+                new NullPointerException("null item in guids path"));
+        failLoadBatch(Arrays.asList(Arrays.asList(new GUID("FS:1/2/3"))),
+                new IllegalArgumentException("GUID FS:1/2/3 is not a workspace object"));
+    }
+    
+    private void failLoadBatch(
+            final List<List<GUID>> guids,
+            final Exception expected) {
+        try {
+            new WorkspaceEventHandler(new CloneableWorkspaceClientImpl(
+                    mock(WorkspaceClient.class)))
+                    .loadBatch(guids);
+            fail("expected exception");
+        } catch (Exception got) {
+            TestCommon.assertExceptionCorrect(got, expected);
+        }
+    }
+    
+    @Test
+    public void getMD5() throws Exception {
+        final CloneableWorkspaceClient clonecli = mock(CloneableWorkspaceClient.class);
+        final WorkspaceClient wscli = mock(WorkspaceClient.class);
+        when(clonecli.getClient()).thenReturn(wscli);
+        
+        when(wscli.administer(argThat(new AdminGetObjectInfoAnswerMatcher("1/2/3;4/5/6"))))
+                .thenReturn(new UObject(new GetObjectInfo3Results().withInfos(Arrays.asList(
+                        objTuple(5, "objname", "sometype", "date", 6, "copier",
+                                4, "wsname", "checksum", 44, Collections.emptyMap())))));
+        
+        final String md5 = new WorkspaceEventHandler(clonecli)
+                .getMD5(Arrays.asList(new GUID("WS:1/2/3"), new GUID("WS:4/5/6")));
+        
+        assertThat("incorrect md5", md5, is("checksum"));
+    }
+    
+    @Test
+    public void getMD5Fail() throws Exception {
+        failGetMD5(null, new NullPointerException("guids"));
+        failGetMD5(Arrays.asList(new GUID("WS:1/2/3"), null),
+                new NullPointerException("null item in guids"));
+        failGetMD5(Arrays.asList(new GUID("FS:1/2/3")),
+                new IllegalArgumentException("GUID FS:1/2/3 is not a workspace object"));
+    }
+    
+    private void failGetMD5(final List<GUID> guids, final Exception expected) {
+        try {
+            new WorkspaceEventHandler(new CloneableWorkspaceClientImpl(
+                    mock(WorkspaceClient.class)))
+                    .getMD5(guids);
+            fail("expected exception");
+        } catch (Exception got) {
+            TestCommon.assertExceptionCorrect(got, expected);
+        }
+    }
+    
+    @Test
+    public void getMD5FailWSExceptions() throws Exception {
+        failGetMD5WSException(new ConnectException("hot damn"),
+                new FatalRetriableIndexingException(ErrorType.OTHER, "hot damn"));
+        
+        failGetMD5WSException(new IOException("pump yer brakes, kid"),
+                new RetriableIndexingException(ErrorType.OTHER, "pump yer brakes, kid"));
+        
+        failGetMD5WSException(new UnauthorizedException("dvd commentary"),
+                new FatalIndexingException(ErrorType.OTHER, "dvd commentary"));
+        
+        failGetMD5WSException(new JsonClientException("Object Whatever is Deleted"),
+                new UnprocessableEventIndexingException(ErrorType.DELETED, 
+                        "Object Whatever is Deleted"));
+    }
+    
+    private void failGetMD5WSException(final Exception toThrow, final Exception expected)
+            throws Exception {
+        final CloneableWorkspaceClient clonecli = mock(CloneableWorkspaceClient.class);
+        final WorkspaceClient wscli = mock(WorkspaceClient.class);
+        when(clonecli.getClient()).thenReturn(wscli);
+        
+        when(wscli.administer(any())).thenThrow(toThrow);
+        
+        try {
+            new WorkspaceEventHandler(clonecli).getMD5(Arrays.asList(new GUID("WS:1/2/3")));
+            fail("expected exception");
+        } catch (Exception got) {
+            TestCommon.assertExceptionCorrect(got, expected);
+        }
+    }
 }
@@ -0,0 +1,223 @@
+package kbasesearchengine.test.events.handler;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.google.common.base.Ticker;
+
+import kbasesearchengine.events.handler.WorkspaceEventHandler;
+import kbasesearchengine.events.handler.WorkspaceInfoCache;
+import kbasesearchengine.test.common.TestCommon;
+import us.kbase.common.service.JsonClientException;
+import us.kbase.common.service.Tuple9;
+
+public class WorkspaceInfoCacheTest {
+
+    private static Tuple9<Long, String, String, String, Long, String, String, String,
+            Map<String, String>> wsInfo(final long id, final String name) {
+        return new Tuple9<Long, String, String, String, Long, String, String, String,
+                Map<String, String>>()
+                .withE1(id)
+                .withE2(name)
+                .withE3("owner")
+                .withE4("date")
+                .withE5(1L)
+                .withE6("r")
+                .withE7("n")
+                .withE8("unlocked")
+                .withE9(Collections.emptyMap());
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void standardConstructor() throws Exception {
+        // test the non-test constructor
+        final WorkspaceEventHandler wrapped = mock(WorkspaceEventHandler.class);
+        final WorkspaceInfoCache cache = new WorkspaceInfoCache(wrapped, 1, 10000);
+        final Tuple9<Long, String, String, String, Long, String, String, String,
+                Map<String, String>> info1 = wsInfo(1, "foo");
+        final Tuple9<Long, String, String, String, Long, String, String, String,
+                Map<String, String>> info2 = wsInfo(1, "bar");
+
+        when(wrapped.getWorkspaceInfo(1)).thenReturn(info1, info2, null);
+
+        assertThat("incorrect info", cache.getWorkspaceInfo(1), sameInstance(info1));
+        assertThat("incorrect info", cache.getWorkspaceInfo(1), sameInstance(info1));
+        Thread.sleep(1001);
+
+        assertThat("incorrect info", cache.getWorkspaceInfo(1), sameInstance(info2));
+        assertThat("incorrect info", cache.getWorkspaceInfo(1), sameInstance(info2));
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void cacheAccessOnGet() throws Exception {
+        // test that the cache is accessed when available
+        final WorkspaceEventHandler wrapped = mock(WorkspaceEventHandler.class);
+        final Ticker ticker = mock(Ticker.class);
+        final WorkspaceInfoCache cache = new WorkspaceInfoCache(wrapped, 10, 10000, ticker);
+        final Tuple9<Long, String, String, String, Long, String, String, String,
+                Map<String, String>> info1 = wsInfo(1, "foo");
+        final Tuple9<Long, String, String, String, Long, String, String, String,
+                Map<String, String>> info2 = wsInfo(1, "bar");
+
+        when(wrapped.getWorkspaceInfo(1)).thenReturn(info1, info2, null);
+        when(ticker.read()).thenReturn(0L, 5000000001L, 10000000001L, 15000000001L, 20000000001L);
+
+        assertThat("incorrect info", cache.getWorkspaceInfo(1), sameInstance(info1));
+        assertThat("incorrect info", cache.getWorkspaceInfo(1), sameInstance(info1));
+
+        assertThat("incorrect info", cache.getWorkspaceInfo(1), sameInstance(info2));
+        assertThat("incorrect info", cache.getWorkspaceInfo(1), sameInstance(info2));
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void invalidate() throws Exception {
+        final WorkspaceEventHandler wrapped = mock(WorkspaceEventHandler.class);
+        final WorkspaceInfoCache cache = new WorkspaceInfoCache(wrapped, 10000, 10000);
+        final Tuple9<Long, String, String, String, Long, String, String, String,
+                Map<String, String>> info1 = wsInfo(1, "foo");
+        final Tuple9<Long, String, String, String, Long, String, String, String,
+                Map<String, String>> info2 = wsInfo(1, "bar");
+        final Tuple9<Long, String, String, String, Long, String, String, String,
+                Map<String, String>> info3 = wsInfo(2, "baz");
+
+        when(wrapped.getWorkspaceInfo(1)).thenReturn(info1, info2, null);
+        when(wrapped.getWorkspaceInfo(2)).thenReturn(info3, null);
+
+        assertThat("incorrect info", cache.getWorkspaceInfo(1), sameInstance(info1));
+        assertThat("incorrect info", cache.getWorkspaceInfo(2), sameInstance(info3));
+
+        cache.invalidate(1);
+
+        assertThat("incorrect info", cache.getWorkspaceInfo(1), sameInstance(info2));
+        assertThat("incorrect info", cache.getWorkspaceInfo(2), sameInstance(info3));
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void invalidateAll() throws Exception {
+        final WorkspaceEventHandler wrapped = mock(WorkspaceEventHandler.class);
+        final WorkspaceInfoCache cache = new WorkspaceInfoCache(wrapped, 10000, 10000);
+        final Tuple9<Long, String, String, String, Long, String, String, String,
+                Map<String, String>> info1 = wsInfo(1, "foo");
+        final Tuple9<Long, String, String, String, Long, String, String, String,
+                Map<String, String>> info2 = wsInfo(1, "bar");
+        final Tuple9<Long, String, String, String, Long, String, String, String,
+                Map<String, String>> info3 = wsInfo(2, "baz");
+        final Tuple9<Long, String, String, String, Long, String, String, String,
+                Map<String, String>> info4 = wsInfo(2, "bat");
+
+        when(wrapped.getWorkspaceInfo(1)).thenReturn(info1, info2, null);
+        when(wrapped.getWorkspaceInfo(2)).thenReturn(info3, info4, null);
+
+        assertThat("incorrect info", cache.getWorkspaceInfo(1), sameInstance(info1));
+        assertThat("incorrect info", cache.getWorkspaceInfo(2), sameInstance(info3));
+
+        cache.invalidateAll();
+
+        assertThat("incorrect info", cache.getWorkspaceInfo(1), sameInstance(info2));
+        assertThat("incorrect info", cache.getWorkspaceInfo(2), sameInstance(info4));
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void expiresOnSize() throws Exception {
+        // test that the cache expires values when it reaches the max size
+        final WorkspaceEventHandler wrapped = mock(WorkspaceEventHandler.class);
+        final WorkspaceInfoCache cache = new WorkspaceInfoCache(wrapped, 10000, 1);
+        final Tuple9<Long, String, String, String, Long, String, String, String,
+                Map<String, String>> info1 = wsInfo(1, "foo");
+        final Tuple9<Long, String, String, String, Long, String, String, String,
+                Map<String, String>> info2 = wsInfo(1, "bar");
+        final Tuple9<Long, String, String, String, Long, String, String, String,
+                Map<String, String>> info3 = wsInfo(2, "baz");
+
+        when(wrapped.getWorkspaceInfo(1)).thenReturn(info1, info2, null);
+        when(wrapped.getWorkspaceInfo(2)).thenReturn(info3, null);
+
+        assertThat("incorrect info", cache.getWorkspaceInfo(1), sameInstance(info1));
+        assertThat("incorrect info", cache.getWorkspaceInfo(1), sameInstance(info1));
+        // force an expiration based on cache size
+        assertThat("incorrect info", cache.getWorkspaceInfo(2), sameInstance(info3));
+        assertThat("incorrect info", cache.getWorkspaceInfo(1), sameInstance(info2));
+    }
+
+    @Test
+    public void constructFail() throws Exception {
+        final WorkspaceEventHandler wrapped = mock(WorkspaceEventHandler.class);
+        failConstruct(null, 10, 10, new NullPointerException("handler"));
+        failConstruct(wrapped, 0, 10,
+                new IllegalArgumentException("cache lifetime must be at least one second"));
+        failConstruct(wrapped, 10, 0,
+                new IllegalArgumentException("cache size must be at least one"));
+    }
+
+    private void failConstruct(
+            final WorkspaceEventHandler handler,
+            final int lifetimeSec,
+            final int size,
+            final Exception exception) {
+        try {
+            new WorkspaceInfoCache(handler, lifetimeSec, size);
+            fail("expected exception");
+        } catch (Exception got) {
+            TestCommon.assertExceptionCorrect(got, exception);
+        }
+    }
+
+    @Test
+    public void getFailIOE() throws Exception {
+        final WorkspaceEventHandler wrapped = mock(WorkspaceEventHandler.class);
+        final WorkspaceInfoCache cache = new WorkspaceInfoCache(wrapped, 10000, 10);
+
+        when(wrapped.getWorkspaceInfo(1)).thenThrow(new IOException("well poop"));
+
+        failGetWorkspaceInfo(cache, 1, new IOException("well poop"));
+    }
+
+    @Test
+    public void getFailJsonClientException() throws Exception {
+        final WorkspaceEventHandler wrapped = mock(WorkspaceEventHandler.class);
+        final WorkspaceInfoCache cache = new WorkspaceInfoCache(wrapped, 10000, 10);
+
+        when(wrapped.getWorkspaceInfo(1)).thenThrow(new JsonClientException("no ws 1"));
+
+        failGetWorkspaceInfo(cache, 1, new JsonClientException("no ws 1"));
+    }
+
+    private void failGetWorkspaceInfo(
+            final WorkspaceInfoCache cache,
+            final long workspaceID,
+            final Exception expected) {
+        try {
+            cache.getWorkspaceInfo(workspaceID);
+            fail("expected exception");
+        } catch (Exception got) {
+            TestCommon.assertExceptionCorrect(got, expected);
+        }
+    }
+
+    @Test
+    public void getMultipleWorkspaces() throws Exception {
+        final WorkspaceEventHandler wrapped = mock(WorkspaceEventHandler.class);
+        final WorkspaceInfoCache cache = new WorkspaceInfoCache(wrapped, 10000, 10);
+
+        when(wrapped.getWorkspaceInfo(1)).thenReturn(wsInfo(1, "foo"));
+        when(wrapped.getWorkspaceInfo(2)).thenReturn(wsInfo(2, "bar"));
+
+        assertThat("incorrect name", cache.getWorkspaceInfo(1).getE2(), is("foo"));
+        assertThat("incorrect name", cache.getWorkspaceInfo(2).getE2(), is("bar"));
+    }
+}
@@ -0,0 +1,93 @@
+package kbasesearchengine.test.events.storage;
+
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import com.mongodb.MongoClient;
+import com.mongodb.client.MongoDatabase;
+
+import kbasesearchengine.events.StatusEvent;
+import kbasesearchengine.events.StatusEventProcessingState;
+import kbasesearchengine.events.StatusEventType;
+import kbasesearchengine.events.storage.MongoDBStatusEventStorage;
+import kbasesearchengine.events.storage.StatusEventStorage;
+import kbasesearchengine.test.common.TestCommon;
+import us.kbase.common.test.controllers.mongo.MongoController;
+
+/** Compares the throughput of claiming events one at a time with
+ * {@link StatusEventStorage#setAndGetProcessingState} against claiming them in batches with
+ * {@link StatusEventStorage#claimEvents}.
+ *
+ * Starts a local mongod with the test configuration (see {@link TestCommon}), so run with
+ * -Dtest.cfg=path/to/test.cfg. Not run as part of the test suite.
+ */
+public class ClaimEventsBenchmark {
+
+    private static final int EVENT_COUNT = 20000;
+    private static final List<Integer> BATCH_SIZES = Arrays.asList(1, 10, 100, 1000);
+    private static final Duration LEASE = Duration.ofMinutes(10);
+
+    public static void main(final String[] args) throws Exception {
+        TestCommon.stfuLoggers();
+        final MongoController mongo = new MongoController(
+                TestCommon.getMongoExe(),
+                Paths.get(TestCommon.getTempDir()),
+                TestCommon.useWiredTigerEngine());
+        final MongoClient mc = new MongoClient("localhost:" + mongo.getServerPort());
+        try {
+            final MongoDatabase db = mc.getDatabase("claim_benchmark");
+
+            System.out.println(String.format("Claiming %s events", EVENT_COUNT));
+            System.out.println(String.format("%-22s %10s %12s", "method", "total ms", "events/s"));
+            final StatusEventStorage storage = load(db);
+            long start = System.nanoTime();
+            while (storage.setAndGetProcessingState(StatusEventProcessingState.READY, null,
+                    StatusEventProcessingState.PROC, "bench").isPresent()) {
+                // claim the next event
+            }
+            report("setAndGet (single)", System.nanoTime() - start);
+
+            for (final int batch: BATCH_SIZES) {
+                final StatusEventStorage s = load(db);
+                start = System.nanoTime();
+                int claimed = 0;
+                while (claimed < EVENT_COUNT) {
+                    claimed += s.claimEvents(StatusEventProcessingState.READY, null,
+                            StatusEventProcessingState.PROC, "bench", batch, LEASE).size();
+                }
+                report("claimEvents batch " + batch, System.nanoTime() - start);
+            }
+            TestCommon.destroyDB(db);
+        } finally {
+            mc.close();
+            mongo.destroy(TestCommon.getDeleteTempFiles());
+        }
+    }
+
+    private static StatusEventStorage load(final MongoDatabase db) throws Exception {
+        TestCommon.destroyDB(db);
+        final StatusEventStorage storage = new MongoDBStatusEventStorage(db);
+        final List<Integer> times = new ArrayList<>();
+        for (int i = 0; i < EVENT_COUNT; i++) {
+            times.add(i);
+        }
+        Collections.shuffle(times);
+        for (final int time: times) {
+            storage.store(StatusEvent.getBuilder(
+                    "WS", Instant.ofEpochMilli(time), StatusEventType.NEW_VERSION).build(),
+                    StatusEventProcessingState.READY, null, "bench");
+        }
+        return storage;
+    }
+
+    private static void report(final String method, final long nanos) {
+        final double ms = nanos / 1_000_000.0;
+        System.out.println(String.format("%-22s %10.0f %12.0f",
+                method, ms, EVENT_COUNT / (ms / 1000)));
+    }
+}
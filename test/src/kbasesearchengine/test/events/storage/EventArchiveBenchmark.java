@@ -0,0 +1,126 @@
+package kbasesearchengine.test.events.storage;
+
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.mongodb.MongoClient;
+import com.mongodb.client.MongoDatabase;
+
+import kbasesearchengine.events.StatusEvent;
+import kbasesearchengine.events.StatusEventProcessingState;
+import kbasesearchengine.events.StatusEventType;
+import kbasesearchengine.events.StoredStatusEvent;
+import kbasesearchengine.events.storage.MongoDBStatusEventStorage;
+import kbasesearchengine.events.storage.StatusEventStorage;
+import kbasesearchengine.main.EventArchiver;
+import kbasesearchengine.test.common.TestCommon;
+import us.kbase.common.test.controllers.mongo.MongoController;
+
+/** Measures the latency of claiming events with a large history of processed events in the
+ * event collection, before and after the history is archived with
+ * {@link StatusEventStorage#archiveEvents}.
+ *
+ * The number of historical events defaults to 50M and may be set with the first argument.
+ * Loading 50M events takes a long time and needs tens of GB of disk.
+ *
+ * Starts a local mongod with the test configuration (see {@link TestCommon}), so run with
+ * -Dtest.cfg=path/to/test.cfg. Not run as part of the test suite.
+ */
+public class EventArchiveBenchmark {
+
+    private static final long DEFAULT_HISTORY = 50_000_000L;
+    private static final int LOAD_BATCH = 10000;
+    private static final int READY_EVENTS = 10000;
+    private static final int CLAIM_BATCH = 100;
+    private static final Duration LEASE = Duration.ofMinutes(10);
+
+    public static void main(final String[] args) throws Exception {
+        final long history = args.length > 0 ? Long.parseLong(args[0]) : DEFAULT_HISTORY;
+        TestCommon.stfuLoggers();
+        final MongoController mongo = new MongoController(
+                TestCommon.getMongoExe(),
+                Paths.get(TestCommon.getTempDir()),
+                TestCommon.useWiredTigerEngine());
+        final MongoClient mc = new MongoClient("localhost:" + mongo.getServerPort());
+        try {
+            final MongoDatabase db = mc.getDatabase("archive_benchmark");
+            TestCommon.destroyDB(db);
+            final StatusEventStorage storage = new MongoDBStatusEventStorage(db);
+
+            long start = System.nanoTime();
+            for (long i = 0; i < history; i += LOAD_BATCH) {
+                store(storage, i, (int) Math.min(LOAD_BATCH, history - i),
+                        StatusEventProcessingState.INDX);
+            }
+            System.out.println(String.format("Loaded %,d historical events in %.0f s",
+                    history, (System.nanoTime() - start) / 1e9));
+
+            System.out.println(String.format("%-16s %12s %12s", "history", "ms / claim",
+                    "events/s"));
+            claim(storage, history, "in collection");
+
+            start = System.nanoTime();
+            long archived = 0;
+            long batch;
+            do {
+                batch = storage.archiveEvents(EventArchiver.ARCHIVED_STATES, Instant.now(),
+                        EventArchiver.BATCH_SIZE);
+                archived += batch;
+            } while (batch > 0);
+            System.out.println(String.format("Archived %,d events in %.0f s",
+                    archived, (System.nanoTime() - start) / 1e9));
+            claim(storage, history + READY_EVENTS, "archived");
+
+            TestCommon.destroyDB(db);
+        } finally {
+            mc.close();
+            mongo.destroy(TestCommon.getDeleteTempFiles());
+        }
+    }
+
+    private static void claim(
+            final StatusEventStorage storage,
+            final long first,
+            final String label)
+            throws Exception {
+        // only READY events are claimed, but they share the indexes with the history
+        store(storage, first, READY_EVENTS, StatusEventProcessingState.READY);
+        final long start = System.nanoTime();
+        int claims = 0;
+        int claimed = 0;
+        while (claimed < READY_EVENTS) {
+            claimed += storage.claimEvents(StatusEventProcessingState.READY, null,
+                    StatusEventProcessingState.PROC, "bench", CLAIM_BATCH, LEASE).size();
+            claims++;
+        }
+        final double ms = (System.nanoTime() - start) / 1_000_000.0;
+        System.out.println(String.format("%-16s %12.2f %12.0f",
+                label, ms / claims, claimed / (ms / 1000)));
+        // finish processing so the events join the history
+        for (final StoredStatusEvent e: storage.get(StatusEventProcessingState.PROC, -1)) {
+            storage.setProcessingState(e.getID(), StatusEventProcessingState.PROC,
+                    StatusEventProcessingState.INDX);
+        }
+    }
+
+    private static void store(
+            final StatusEventStorage storage,
+            final long first,
+            final int count,
+            final StatusEventProcessingState state)
+            throws Exception {
+        final List<StatusEvent> events = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            events.add(StatusEvent.getBuilder(
+                    "WS", Instant.ofEpochMilli(first + i), StatusEventType.NEW_VERSION)
+                    .withNullableAccessGroupID((int) ((first + i) / 1000))
+                    .withNullableObjectID(String.valueOf((first + i) % 1000))
+                    .withNullableVersion(1)
+                    .build());
+        }
+        storage.storeAll(events, state, null, "bench");
+    }
+}
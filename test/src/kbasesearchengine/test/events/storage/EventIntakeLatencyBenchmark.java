@@ -0,0 +1,170 @@
+package kbasesearchengine.test.events.storage;
+
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.bson.Document;
+
+import com.mongodb.MongoClient;
+import com.mongodb.client.MongoDatabase;
+
+import kbasesearchengine.events.StatusEvent;
+import kbasesearchengine.events.StatusEventProcessingState;
+import kbasesearchengine.events.StatusEventType;
+import kbasesearchengine.events.storage.EventSubscription;
+import kbasesearchengine.events.storage.MongoDBStatusEventStorage;
+import kbasesearchengine.events.storage.StatusEventStorage;
+import kbasesearchengine.test.common.TestCommon;
+import us.kbase.common.test.controllers.mongo.MongoController;
+
+/** Measures the latency between storing an UNPROC event and a consumer noticing it, comparing
+ * an {@link EventSubscription} against polling
+ * {@link StatusEventStorage#get(StatusEventProcessingState, int)} once a second as the indexer
+ * coordinator used to do. Events are stored both via the storage system and by inserting them
+ * directly into the event collection, as the workspace listener does.
+ *
+ * By default starts a local, standalone mongod with the test configuration (see
+ * {@link TestCommon}), so run with -Dtest.cfg=path/to/test.cfg. The subscription then tails the
+ * notification collection, and directly inserted events are followed by a notification
+ * document as documented in {@link MongoDBStatusEventStorage}.
+ *
+ * Alternatively, pass the host:port of a mongod running as a replica set as the only argument.
+ * The subscription then tails the oplog and directly inserted events are not followed by a
+ * notification. The benchmark database on that mongod is deleted.
+ *
+ * Not run as part of the test suite.
+ */
+public class EventIntakeLatencyBenchmark {
+
+    private static final int SAMPLES = 200;
+    private static final long POLL_INTERVAL_MS = 1000;
+    // polling samples take up to a second each
+    private static final int POLL_SAMPLES = 20;
+
+    @FunctionalInterface
+    private interface Inserter {
+        void insert() throws Exception;
+    }
+
+    public static void main(final String[] args) throws Exception {
+        TestCommon.stfuLoggers();
+        final boolean oplog = args.length > 0;
+        final MongoController mongo;
+        final MongoClient mc;
+        if (oplog) {
+            mongo = null;
+            mc = new MongoClient(args[0]);
+        } else {
+            mongo = new MongoController(
+                    TestCommon.getMongoExe(),
+                    Paths.get(TestCommon.getTempDir()),
+                    TestCommon.useWiredTigerEngine());
+            mc = new MongoClient("localhost:" + mongo.getServerPort());
+        }
+        try {
+            final MongoDatabase db = mc.getDatabase("intake_benchmark");
+            TestCommon.destroyDB(db);
+            final StatusEventStorage storage = oplog ?
+                    new MongoDBStatusEventStorage(db, mc.getDatabase("local")) :
+                    new MongoDBStatusEventStorage(db);
+            final StatusEvent event = StatusEvent.getBuilder(
+                    "WS", Instant.ofEpochMilli(10000), StatusEventType.NEW_VERSION).build();
+            // make sure the notification collection isn't empty so the tailable cursor lives
+            storage.store(event, StatusEventProcessingState.UNINDX, null, "bench");
+
+            final List<Long> subLatencies;
+            final List<Long> directLatencies;
+            try (final EventSubscription sub = storage.subscribe(
+                    StatusEventProcessingState.UNPROC)) {
+                subLatencies = measure(sub, () -> storage.store(
+                        event, StatusEventProcessingState.UNPROC, null, "bench"));
+                directLatencies = measure(sub, () -> {
+                    // the fields the workspace listener writes
+                    db.getCollection("searchEvents").insertOne(new Document("strcde", "WS")
+                            .append("accgrp", 1)
+                            .append("objid", "1")
+                            .append("ver", 1)
+                            .append("time", new Date(10000))
+                            .append("evtype", "NEW_VERSION")
+                            .append("status", "UNPROC"));
+                    if (!oplog) {
+                        db.getCollection("searchEventsNotify").insertOne(
+                                new Document("status", "UNPROC")
+                                        .append("count", 1)
+                                        .append("sttime", new Date()));
+                    }
+                });
+            }
+
+            final List<Long> pollLatencies = new ArrayList<>();
+            final Random rand = new Random();
+            for (int i = 0; i < POLL_SAMPLES; i++) {
+                TestCommon.destroyDB(db);
+                final StatusEventStorage s = new MongoDBStatusEventStorage(db);
+                // the event arrives at a random point in the poll cycle
+                final long delay = rand.nextInt((int) POLL_INTERVAL_MS);
+                final AtomicLong storeTime = new AtomicLong();
+                final Thread storer = new Thread(() -> {
+                    try {
+                        Thread.sleep(delay);
+                        storeTime.set(System.nanoTime());
+                        s.store(event, StatusEventProcessingState.UNPROC, null, "bench");
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                });
+                storer.start();
+                while (s.get(StatusEventProcessingState.UNPROC, 1).isEmpty()) {
+                    Thread.sleep(POLL_INTERVAL_MS);
+                }
+                pollLatencies.add(System.nanoTime() - storeTime.get());
+                storer.join();
+            }
+            TestCommon.destroyDB(db);
+
+            System.out.println(String.format("%-14s %8s %8s %8s %8s",
+                    "method", "p50 ms", "p90 ms", "p99 ms", "max ms"));
+            report("subscription", subLatencies);
+            report("direct insert", directLatencies);
+            report("1s polling", pollLatencies);
+        } finally {
+            mc.close();
+            if (mongo != null) {
+                mongo.destroy(TestCommon.getDeleteTempFiles());
+            }
+        }
+    }
+
+    private static List<Long> measure(final EventSubscription sub, final Inserter inserter)
+            throws Exception {
+        final List<Long> latencies = new ArrayList<>();
+        for (int i = 0; i < SAMPLES; i++) {
+            final long start = System.nanoTime();
+            inserter.insert();
+            if (!sub.await(10, TimeUnit.SECONDS)) {
+                throw new IllegalStateException("No notification received");
+            }
+            latencies.add(System.nanoTime() - start);
+        }
+        return latencies;
+    }
+
+    private static void report(final String method, final List<Long> nanos) {
+        Collections.sort(nanos);
+        System.out.println(String.format("%-14s %8.2f %8.2f %8.2f %8.2f", method,
+                percentile(nanos, 50), percentile(nanos, 90), percentile(nanos, 99),
+                nanos.get(nanos.size() - 1) / 1_000_000.0));
+    }
+
+    private static double percentile(final List<Long> sorted, final int pct) {
+        final int index = Math.min(sorted.size() - 1, sorted.size() * pct / 100);
+        return sorted.get(index) / 1_000_000.0;
+    }
+}
@@ -0,0 +1,135 @@
+package kbasesearchengine.test.events.storage;
+
+import static kbasesearchengine.test.common.TestCommon.set;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.time.Instant;
+import java.util.Collections;
+
+import org.junit.Test;
+
+import com.google.common.base.Optional;
+
+import kbasesearchengine.events.StatusEventType;
+import kbasesearchengine.events.storage.FailedEventQuery;
+import kbasesearchengine.test.common.TestCommon;
+import nl.jqno.equalsverifier.EqualsVerifier;
+
+public class FailedEventQueryTest {
+
+    @Test
+    public void equals() {
+        EqualsVerifier.forClass(FailedEventQuery.class).usingGetClass().verify();
+    }
+
+    @Test
+    public void buildMinimal() {
+        final FailedEventQuery q = FailedEventQuery.getBuilder().build();
+
+        assertThat("incorrect codes", q.getErrorCodes(), is(Collections.emptySet()));
+        assertThat("incorrect types", q.getEventTypes(), is(Collections.emptySet()));
+        assertThat("incorrect from", q.getTimestampFrom(), is(Optional.absent()));
+        assertThat("incorrect to", q.getTimestampTo(), is(Optional.absent()));
+        assertThat("incorrect storage code", q.getStorageCode(), is(Optional.absent()));
+        assertThat("incorrect access group", q.getAccessGroupID(), is(Optional.absent()));
+        assertThat("incorrect failed before", q.getFailedBefore(), is(Optional.absent()));
+        assertThat("incorrect toString", q.toString(), is(
+                "FailedEventQuery [errorCodes=[], eventTypes=[], " +
+                "timestampFrom=Optional.absent(), timestampTo=Optional.absent(), " +
+                "storageCode=Optional.absent(), accessGroupID=Optional.absent(), " +
+                "failedBefore=Optional.absent()]"));
+    }
+
+    @Test
+    public void buildMaximal() {
+        final FailedEventQuery q = FailedEventQuery.getBuilder()
+                .withErrorCode("OTHER")
+                .withErrorCode("DELETED")
+                .withEventType(StatusEventType.NEW_VERSION)
+                .withTimestampFrom(Instant.ofEpochMilli(10000))
+                .withTimestampTo(Instant.ofEpochMilli(10001))
+                .withAccessGroup("WS", 6)
+                .withFailedBefore(Instant.ofEpochMilli(20000))
+                .build();
+
+        assertThat("incorrect codes", q.getErrorCodes(), is(set("OTHER", "DELETED")));
+        assertThat("incorrect types", q.getEventTypes(), is(set(StatusEventType.NEW_VERSION)));
+        assertThat("incorrect from", q.getTimestampFrom(),
+                is(Optional.of(Instant.ofEpochMilli(10000))));
+        assertThat("incorrect to", q.getTimestampTo(),
+                is(Optional.of(Instant.ofEpochMilli(10001))));
+        assertThat("incorrect storage code", q.getStorageCode(), is(Optional.of("WS")));
+        assertThat("incorrect access group", q.getAccessGroupID(), is(Optional.of(6)));
+        assertThat("incorrect failed before", q.getFailedBefore(),
+                is(Optional.of(Instant.ofEpochMilli(20000))));
+
+        // the copy is independent of the original
+        final FailedEventQuery copy = FailedEventQuery.getBuilder(q).build();
+        assertThat("incorrect copy", copy, is(q));
+        final FailedEventQuery q2 = FailedEventQuery.getBuilder(q)
+                .withFailedBefore(Instant.ofEpochMilli(30000)).build();
+        assertThat("incorrect failed before", q2.getFailedBefore(),
+                is(Optional.of(Instant.ofEpochMilli(30000))));
+        assertThat("incorrect failed before", q.getFailedBefore(),
+                is(Optional.of(Instant.ofEpochMilli(20000))));
+        assertThat("incorrect codes", q2.getErrorCodes(), is(set("OTHER", "DELETED")));
+    }
+
+    @Test
+    public void immutable() {
+        final FailedEventQuery q = FailedEventQuery.getBuilder()
+                .withErrorCode("OTHER").withEventType(StatusEventType.NEW_VERSION).build();
+        try {
+            q.getErrorCodes().add("foo");
+            fail("expected exception");
+        } catch (UnsupportedOperationException e) {
+            // test passed
+        }
+        try {
+            q.getEventTypes().add(StatusEventType.DELETE_ALL_VERSIONS);
+            fail("expected exception");
+        } catch (UnsupportedOperationException e) {
+            // test passed
+        }
+    }
+
+    @Test
+    public void buildFail() {
+        final Instant i = Instant.ofEpochMilli(10000);
+        failBuild(() -> FailedEventQuery.getBuilder(null),
+                new NullPointerException("query"));
+        failBuild(() -> FailedEventQuery.getBuilder().withErrorCode(null),
+                new IllegalArgumentException("errorCode cannot be null or whitespace only"));
+        failBuild(() -> FailedEventQuery.getBuilder().withErrorCode("   \t  "),
+                new IllegalArgumentException("errorCode cannot be null or whitespace only"));
+        failBuild(() -> FailedEventQuery.getBuilder().withEventType(null),
+                new NullPointerException("eventType"));
+        failBuild(() -> FailedEventQuery.getBuilder().withTimestampFrom(null),
+                new NullPointerException("timestampFrom"));
+        failBuild(() -> FailedEventQuery.getBuilder().withTimestampTo(null),
+                new NullPointerException("timestampTo"));
+        failBuild(() -> FailedEventQuery.getBuilder().withAccessGroup(null, 1),
+                new IllegalArgumentException("storageCode cannot be null or whitespace only"));
+        failBuild(() -> FailedEventQuery.getBuilder().withAccessGroup("  \t ", 1),
+                new IllegalArgumentException("storageCode cannot be null or whitespace only"));
+        failBuild(() -> FailedEventQuery.getBuilder().withFailedBefore(null),
+                new NullPointerException("failedBefore"));
+        failBuild(() -> FailedEventQuery.getBuilder().withTimestampFrom(i).withTimestampTo(i)
+                .build(),
+                new IllegalArgumentException("timestampFrom must be before timestampTo"));
+        failBuild(() -> FailedEventQuery.getBuilder().withTimestampFrom(i.plusMillis(1))
+                .withTimestampTo(i).build(),
+                new IllegalArgumentException("timestampFrom must be before timestampTo"));
+    }
+
+    private void failBuild(final Runnable build, final Exception expected) {
+        try {
+            build.run();
+            fail("expected exception");
+        } catch (Exception got) {
+            TestCommon.assertExceptionCorrect(got, expected);
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package kbasesearchengine.test.events.storage;
+
+import static org.junit.Assert.fail;
+
+import java.time.Clock;
+
+import org.junit.Test;
+
+import kbasesearchengine.events.storage.InMemoryStatusEventStorage;
+import kbasesearchengine.events.storage.StatusEventStorage;
+import kbasesearchengine.test.common.TestCommon;
+
+public class InMemoryStatusEventStorageTest extends StatusEventStorageTester {
+    
+    @Override
+    protected StatusEventStorage createStorage(final Clock clock) {
+        return new InMemoryStatusEventStorage(clock);
+    }
+    
+    @Test
+    public void constructFail() {
+        try {
+            new InMemoryStatusEventStorage(null);
+            fail("expected exception");
+        } catch (Exception got) {
+            TestCommon.assertExceptionCorrect(got, new NullPointerException("clock"));
+        }
+    }
+}
@@ -2,92 +2,66 @@ package kbasesearchengine.test.events.storage;
 
 import static org.hamcrest.CoreMatchers.is;
 import static org.junit.Assert.assertThat;
-import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.fail;
-import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 import static kbasesearchengine.test.common.TestCommon.set;
 
-import java.io.PrintWriter;
 import java.nio.file.Paths;
 import java.time.Clock;
+import java.time.Duration;
 import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
 import org.bson.Document;
 import org.bson.types.ObjectId;
 import org.junit.AfterClass;
-import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
 import com.google.common.base.Optional;
-import com.google.common.collect.Range;
+import com.google.common.collect.ImmutableMap;
 import com.mongodb.MongoClient;
 import com.mongodb.client.MongoDatabase;
 import com.mongodb.client.model.FindOneAndUpdateOptions;
 import com.mongodb.client.model.ReturnDocument;
 
 import kbasesearchengine.events.ChildStatusEvent;
+import kbasesearchengine.events.FailedChildStatusEvent;
 import kbasesearchengine.events.StatusEvent;
 import kbasesearchengine.events.StatusEventID;
+import kbasesearchengine.events.StatusEventPriority;
 import kbasesearchengine.events.StatusEventProcessingState;
 import kbasesearchengine.events.StatusEventType;
 import kbasesearchengine.events.StoredChildStatusEvent;
 import kbasesearchengine.events.StoredStatusEvent;
 import kbasesearchengine.events.exceptions.ErrorType;
 import kbasesearchengine.events.exceptions.FatalRetriableIndexingException;
-import kbasesearchengine.events.exceptions.RetriableIndexingException;
 import kbasesearchengine.events.exceptions.UnprocessableEventIndexingException;
+import kbasesearchengine.events.storage.EventSubscription;
+import kbasesearchengine.events.storage.LaneStatistics;
 import kbasesearchengine.events.storage.MongoDBStatusEventStorage;
+import kbasesearchengine.events.storage.StatusEventStatistics;
 import kbasesearchengine.events.storage.StatusEventStorage;
-import kbasesearchengine.system.StorageObjectType;
+import kbasesearchengine.events.storage.StorageInitException;
 import kbasesearchengine.test.common.TestCommon;
 import us.kbase.common.test.controllers.mongo.MongoController;
 
-public class MongoDBStatusEventStorageTest {
+public class MongoDBStatusEventStorageTest extends StatusEventStorageTester {
     
-    final private static String LONG1001;
-    final private static String LONG100_001;
-    static {
-        final StringBuilder sb = new StringBuilder();
-        for (int i = 0; i < 100; i++) {
-            sb.append("01234567890");
-        }
-        sb.append("a");
-        LONG1001 = sb.toString();
-        
-        final StringBuilder sb2 = new StringBuilder();
-        for (int i = 0; i < 10_000; i++) {
-            sb2.append("012345678\n");
-        }
-        sb2.append("a");
-        
-        LONG100_001 = sb2.toString();
-    }
-    
-    @SuppressWarnings("serial")
-    final private Exception LONG_TRACE_EXCEPTION = new Exception("foo") {
-        
-        @Override
-        public void printStackTrace(final PrintWriter pw) {
-            pw.print(LONG100_001);
-        }
-    };
-    
-    
-
-    private StatusEventStorage storage;
     private static MongoController mongo;
     private static MongoDatabase db;
     private static MongoClient mc;
-    private Clock clock;
 
     @BeforeClass
     public static void setUpClass() throws Exception {
@@ -110,185 +84,10 @@ public class MongoDBStatusEventStorageTest {
         }
     }
     
-    @Before
-    public void init() throws Exception {
+    @Override
+    protected StatusEventStorage createStorage(final Clock clock) throws Exception {
         TestCommon.destroyDB(db);
-        clock = mock(Clock.class);
-        storage  = new MongoDBStatusEventStorage(db, clock);
-    }
-
-    @Test
-    public void storeAndGetNoTypeEmptyCodesAllFields() throws Exception {
-        // tests with all possible fields in status event
-        when(clock.instant()).thenReturn(Instant.ofEpochMilli(30000L));
-        final StoredStatusEvent sse = storage.store(StatusEvent.getBuilder(
-                "WS", Instant.ofEpochMilli(10000), StatusEventType.COPY_ACCESS_GROUP)
-                .withNullableAccessGroupID(6)
-                .withNullableisPublic(true)
-                .withNullableNewName("foo")
-                .withNullableObjectID("bar")
-                .withNullableVersion(7)
-                .build(),
-                StatusEventProcessingState.UNPROC,
-                set(),
-                "Baldrick");
-        
-        assertThat("incorrect state", sse.getState(), is(StatusEventProcessingState.UNPROC));
-        assertThat("incorrect updater", sse.getUpdater(), is(Optional.absent()));
-        assertThat("incorrect update time", sse.getUpdateTime(), is(Optional.absent()));
-        assertThat("incorrect event", sse.getEvent(), is(StatusEvent.getBuilder(
-                "WS", Instant.ofEpochMilli(10000), StatusEventType.COPY_ACCESS_GROUP)
-                .withNullableAccessGroupID(6)
-                .withNullableisPublic(true)
-                .withNullableNewName("foo")
-                .withNullableObjectID("bar")
-                .withNullableVersion(7)
-                .build()));
-        assertThat("incorrect worker codes", sse.getWorkerCodes(), is(set("default")));
-        assertThat("incorrect stored by", sse.getStoredBy(), is(Optional.of("Baldrick")));
-        assertThat("incorrect store time", sse.getStoreTime(),
-                is(Optional.of(Instant.ofEpochMilli(30000L))));
-        assertThat("incorrect error code", sse.getErrorCode(), is(Optional.absent()));
-        assertThat("incorrect error msg", sse.getErrorMessage(), is(Optional.absent()));
-        assertThat("incorrect error trace", sse.getErrorStackTrace(), is(Optional.absent()));
-        assertNotNull("id is null", sse.getID());
-        
-        final StoredStatusEvent got = storage.get(sse.getID()).get();
-        
-        assertThat("ids don't match", got.getID(), is(sse.getID()));
-        assertThat("incorrect state", got.getState(), is(StatusEventProcessingState.UNPROC));
-        assertThat("incorrect updater", got.getUpdater(), is(Optional.absent()));
-        assertThat("incorrect update time", got.getUpdateTime(), is(Optional.absent()));
-        assertThat("incorrect event", got.getEvent(), is(StatusEvent.getBuilder(
-                "WS", Instant.ofEpochMilli(10000), StatusEventType.COPY_ACCESS_GROUP)
-                .withNullableAccessGroupID(6)
-                .withNullableisPublic(true)
-                .withNullableNewName("foo")
-                .withNullableObjectID("bar")
-                .withNullableVersion(7)
-                .build()));
-        assertThat("incorrect worker codes", got.getWorkerCodes(), is(set("default")));
-        assertThat("incorrect stored by", got.getStoredBy(), is(Optional.of("Baldrick")));
-        assertThat("incorrect store time", got.getStoreTime(),
-                is(Optional.of(Instant.ofEpochMilli(30000L))));
-        assertThat("incorrect error code", got.getErrorCode(), is(Optional.absent()));
-        assertThat("incorrect error msg", got.getErrorMessage(), is(Optional.absent()));
-        assertThat("incorrect error trace", got.getErrorStackTrace(), is(Optional.absent()));
-    }
-    
-    @Test
-    public void storeAndGetNoTypeWithCodes() throws Exception {
-        when(clock.instant()).thenReturn(Instant.ofEpochMilli(30000L));
-        final StoredStatusEvent sse = storage.store(StatusEvent.getBuilder(
-                "WS", Instant.ofEpochMilli(10000), StatusEventType.COPY_ACCESS_GROUP).build(),
-                StatusEventProcessingState.UNPROC,
-                set("business", "numbers"),
-                "WSEG");
-        
-        assertThat("incorrect state", sse.getState(), is(StatusEventProcessingState.UNPROC));
-        assertThat("incorrect updater", sse.getUpdater(), is(Optional.absent()));
-        assertThat("incorrect update time", sse.getUpdateTime(), is(Optional.absent()));
-        assertThat("incorrect event", sse.getEvent(), is(StatusEvent.getBuilder(
-                "WS", Instant.ofEpochMilli(10000), StatusEventType.COPY_ACCESS_GROUP)
-                .build()));
-        assertThat("incorrect worker codes", sse.getWorkerCodes(), is(set("business", "numbers")));
-        assertThat("incorrect stored by", sse.getStoredBy(), is(Optional.of("WSEG")));
-        assertThat("incorrect store time", sse.getStoreTime(),
-                is(Optional.of(Instant.ofEpochMilli(30000L))));
-        assertThat("incorrect error code", sse.getErrorCode(), is(Optional.absent()));
-        assertThat("incorrect error msg", sse.getErrorMessage(), is(Optional.absent()));
-        assertThat("incorrect error trace", sse.getErrorStackTrace(), is(Optional.absent()));
-        
-        assertNotNull("id is null", sse.getID());
-        
-        final StoredStatusEvent got = storage.get(sse.getID()).get();
-        
-        assertThat("ids don't match", got.getID(), is(sse.getID()));
-        assertThat("incorrect state", got.getState(), is(StatusEventProcessingState.UNPROC));
-        assertThat("incorrect updater", got.getUpdater(), is(Optional.absent()));
-        assertThat("incorrect update time", got.getUpdateTime(), is(Optional.absent()));
-        assertThat("incorrect event", got.getEvent(), is(StatusEvent.getBuilder(
-                "WS", Instant.ofEpochMilli(10000), StatusEventType.COPY_ACCESS_GROUP)
-                .build()));
-        assertThat("incorrect worker codes", got.getWorkerCodes(), is(set("business", "numbers")));
-        assertThat("incorrect stored by", got.getStoredBy(), is(Optional.of("WSEG")));
-        assertThat("incorrect store time", got.getStoreTime(),
-                is(Optional.of(Instant.ofEpochMilli(30000L))));
-        assertThat("incorrect error code", got.getErrorCode(), is(Optional.absent()));
-        assertThat("incorrect error msg", got.getErrorMessage(), is(Optional.absent()));
-        assertThat("incorrect error trace", got.getErrorStackTrace(), is(Optional.absent()));
-    }
-    
-    @Test
-    public void storeAndGetWithTypeMinimalFields() throws Exception {
-        // tests with minimal possible fields in status event
-        when(clock.instant()).thenReturn(Instant.ofEpochMilli(40000L));
-        final StorageObjectType sot = new StorageObjectType("foo", "bar", 9);
-        final StoredStatusEvent sse = storage.store(StatusEvent.getBuilder(
-                sot, Instant.ofEpochMilli(20000), StatusEventType.DELETE_ALL_VERSIONS).build(),
-                StatusEventProcessingState.FAIL, null, "WSEG");
-        
-        assertThat("incorrect state", sse.getState(), is(StatusEventProcessingState.FAIL));
-        assertThat("incorrect updater", sse.getUpdater(), is(Optional.absent()));
-        assertThat("incorrect update time", sse.getUpdateTime(), is(Optional.absent()));
-        assertThat("incorrect event", sse.getEvent(), is(StatusEvent.getBuilder(
-                new StorageObjectType("foo", "bar", 9), Instant.ofEpochMilli(20000),
-                    StatusEventType.DELETE_ALL_VERSIONS)
-                .build()));
-        assertNotNull("id is null", sse.getID());
-        assertThat("incorrect worker codes", sse.getWorkerCodes(), is(set("default")));
-        assertThat("incorrect stored by", sse.getStoredBy(), is(Optional.of("WSEG")));
-        assertThat("incorrect store time", sse.getStoreTime(),
-                is(Optional.of(Instant.ofEpochMilli(40000L))));
-        assertThat("incorrect error code", sse.getErrorCode(), is(Optional.absent()));
-        assertThat("incorrect error msg", sse.getErrorMessage(), is(Optional.absent()));
-        assertThat("incorrect error trace", sse.getErrorStackTrace(), is(Optional.absent()));
-        
-        final StoredStatusEvent got = storage.get(sse.getID()).get();
-        
-        assertThat("ids don't match", got.getID(), is(sse.getID()));
-        assertThat("incorrect state", got.getState(), is(StatusEventProcessingState.FAIL));
-        assertThat("incorrect updater", got.getUpdater(), is(Optional.absent()));
-        assertThat("incorrect update time", got.getUpdateTime(), is(Optional.absent()));
-        assertThat("incorrect event", got.getEvent(), is(StatusEvent.getBuilder(
-                new StorageObjectType("foo", "bar", 9), Instant.ofEpochMilli(20000),
-                StatusEventType.DELETE_ALL_VERSIONS).build()));
-        assertThat("incorrect worker codes", got.getWorkerCodes(), is(set("default")));
-        assertThat("incorrect stored by", got.getStoredBy(), is(Optional.of("WSEG")));
-        assertThat("incorrect store time", got.getStoreTime(),
-                is(Optional.of(Instant.ofEpochMilli(40000L))));
-        assertThat("incorrect error code", got.getErrorCode(), is(Optional.absent()));
-        assertThat("incorrect error msg", got.getErrorMessage(), is(Optional.absent()));
-        assertThat("incorrect error trace", got.getErrorStackTrace(), is(Optional.absent()));
-    }
-    
-    @Test
-    public void storeAndGetNonExistant() throws Exception {
-        when(clock.instant()).thenReturn(Instant.ofEpochMilli(100000L));
-        final StorageObjectType sot = new StorageObjectType("foo", "bar", 9);
-        final StoredStatusEvent sse = storage.store(StatusEvent.getBuilder(
-                sot, Instant.ofEpochMilli(20000), StatusEventType.DELETE_ALL_VERSIONS).build(),
-                StatusEventProcessingState.FAIL, null, "WS");
-        
-        assertThat("incorrect state", sse.getState(), is(StatusEventProcessingState.FAIL));
-        assertThat("incorrect updater", sse.getUpdater(), is(Optional.absent()));
-        assertThat("incorrect update time", sse.getUpdateTime(), is(Optional.absent()));
-        assertThat("incorrect event", sse.getEvent(), is(StatusEvent.getBuilder(
-                new StorageObjectType("foo", "bar", 9), Instant.ofEpochMilli(20000),
-                    StatusEventType.DELETE_ALL_VERSIONS)
-                .build()));
-        assertNotNull("id is null", sse.getID());
-        assertThat("incorrect worker codes", sse.getWorkerCodes(), is(set("default")));
-        assertThat("incorrect stored by", sse.getStoredBy(), is(Optional.of("WS")));
-        assertThat("incorrect store time", sse.getStoreTime(),
-                is(Optional.of(Instant.ofEpochMilli(100000L))));
-        assertThat("incorrect error code", sse.getErrorCode(), is(Optional.absent()));
-        assertThat("incorrect error msg", sse.getErrorMessage(), is(Optional.absent()));
-        assertThat("incorrect error trace", sse.getErrorStackTrace(), is(Optional.absent()));
-        
-        final Optional<StoredStatusEvent> got = storage.get(
-                new StatusEventID(new ObjectId().toString()));
-        assertThat("expected absent", got, is(Optional.absent()));
+        return new MongoDBStatusEventStorage(db, clock);
     }
     
     @Test
@@ -335,6 +134,21 @@ public class MongoDBStatusEventStorageTest {
         assertThat("incorrect error trace", got.getErrorStackTrace(), is(Optional.absent()));
     }
     
+    @Test
+    public void getWithMissingPriorityField() throws Exception {
+        when(clock.instant()).thenReturn(Instant.ofEpochMilli(30000L));
+        final StoredStatusEvent sse = storage.store(StatusEvent.getBuilder(
+                "WS", Instant.ofEpochMilli(10000), StatusEventType.COPY_ACCESS_GROUP).build(),
+                StatusEventProcessingState.UNPROC, null, "WSEG", StatusEventPriority.BULK);
+        // events stored by other systems may not have a priority
+        db.getCollection("searchEvents").updateOne(
+                new Document("_id", new ObjectId(sse.getID().getId())),
+                new Document("$unset", new Document("prio", 1)));
+        
+        assertThat("incorrect priority", storage.get(sse.getID()).get().getPriority(),
+                is(StatusEventPriority.INTERACTIVE));
+    }
+    
     @Test
     public void getWithNullStoredByAndTime() throws Exception {
         when(clock.instant()).thenReturn(Instant.ofEpochMilli(30000L));
@@ -364,367 +178,147 @@ public class MongoDBStatusEventStorageTest {
     }
     
     @Test
-    public void storeAndGetChildNoTypeAllFields() throws Exception {
-        // tests with all possible fields in status event
+    @Override
+    public void storeAllAndGet() throws Exception {
+        // use a small batch size so the events are stored in multiple batches
+        final StatusEventStorage storage = new MongoDBStatusEventStorage(db, 3, clock);
         when(clock.instant()).thenReturn(Instant.ofEpochMilli(30000L));
-        final StoredChildStatusEvent sse = storage.store(new ChildStatusEvent(
-                StatusEvent.getBuilder(
-                    "WS", Instant.ofEpochMilli(10000), StatusEventType.COPY_ACCESS_GROUP)
+        final List<StatusEvent> events = new ArrayList<>();
+        for (int i = 0; i < 7; i++) {
+            events.add(StatusEvent.getBuilder(
+                    "WS", Instant.ofEpochMilli(10000 + i), StatusEventType.NEW_VERSION)
                     .withNullableAccessGroupID(6)
-                    .withNullableisPublic(true)
-                    .withNullableNewName("foo")
-                    .withNullableObjectID("bar")
-                    .withNullableVersion(7)
-                    .build(),
-                    new StatusEventID("parent id")),
-                "DELETED",
-                new UnprocessableEventIndexingException(ErrorType.DELETED, "deleted"));
-        
-        assertThat("incorrect state", sse.getState(), is(StatusEventProcessingState.FAIL));
-        assertThat("incorrect event", sse.getChildEvent(), is(new ChildStatusEvent(
-                StatusEvent.getBuilder(
-                        "WS", Instant.ofEpochMilli(10000), StatusEventType.COPY_ACCESS_GROUP)
-                        .withNullableAccessGroupID(6)
-                        .withNullableisPublic(true)
-                        .withNullableNewName("foo")
-                        .withNullableObjectID("bar")
-                        .withNullableVersion(7)
-                        .build(),
-                new StatusEventID("parent id"))));
-        assertThat("incorrect store time", sse.getStoreTime(), is(Instant.ofEpochMilli(30000L)));
-        assertThat("incorrect error code", sse.getErrorCode(), is(Optional.of("DELETED")));
-        assertThat("incorrect error msg", sse.getErrorMessage(), is(Optional.of("deleted")));
-        assertThat("incorrect error trace",
-                sse.getErrorStackTrace().get().contains("IndexingException: deleted"), is(true));
-        assertNotNull("id is null", sse.getID());
-        
-        final StoredChildStatusEvent got = storage.getChild(sse.getID()).get();
-        
-        assertThat("ids don't match", got.getID(), is(sse.getID()));
-        assertThat("incorrect state", got.getState(), is(StatusEventProcessingState.FAIL));
-        assertThat("incorrect event", got.getChildEvent(), is(new ChildStatusEvent(
-                StatusEvent.getBuilder(
-                        "WS", Instant.ofEpochMilli(10000), StatusEventType.COPY_ACCESS_GROUP)
-                        .withNullableAccessGroupID(6)
-                        .withNullableisPublic(true)
-                        .withNullableNewName("foo")
-                        .withNullableObjectID("bar")
-                        .withNullableVersion(7)
-                        .build(),
-                new StatusEventID("parent id"))));
-        assertThat("incorrect store time", got.getStoreTime(), is(Instant.ofEpochMilli(30000L)));
-        assertThat("incorrect error code", got.getErrorCode(), is(Optional.of("DELETED")));
-        assertThat("incorrect error msg", got.getErrorMessage(), is(Optional.of("deleted")));
-        assertThat("incorrect error trace",
-                got.getErrorStackTrace().get().contains("IndexingException: deleted"), is(true));
-    }
-    
-    @Test
-    public void storeAndGetChildWithTypeMinimalFields() throws Exception {
-        final StorageObjectType sot = new StorageObjectType("foo", "bar", 9);
-        when(clock.instant()).thenReturn(Instant.ofEpochMilli(30000L));
-        final StoredChildStatusEvent sse = storage.store(new ChildStatusEvent(
-                StatusEvent.getBuilder(
-                        sot, Instant.ofEpochMilli(10000), StatusEventType.COPY_ACCESS_GROUP)
-                                .build(),
-                        new StatusEventID("parent id")),
-                "DELETED",
-                new UnprocessableEventIndexingException(ErrorType.DELETED, "deleted"));
-        
-        assertThat("incorrect state", sse.getState(), is(StatusEventProcessingState.FAIL));
-        assertThat("incorrect event", sse.getChildEvent(), is(new ChildStatusEvent(
-                StatusEvent.getBuilder(
-                        sot, Instant.ofEpochMilli(10000), StatusEventType.COPY_ACCESS_GROUP)
-                                .build(),
-                        new StatusEventID("parent id"))));
-        assertThat("incorrect store time", sse.getStoreTime(), is(Instant.ofEpochMilli(30000L)));
-        assertThat("incorrect error code", sse.getErrorCode(), is(Optional.of("DELETED")));
-        assertThat("incorrect error msg", sse.getErrorMessage(), is(Optional.of("deleted")));
-        assertThat("incorrect error trace",
-                sse.getErrorStackTrace().get().contains("IndexingException: deleted"), is(true));
-        assertNotNull("id is null", sse.getID());
-        
-        final StoredChildStatusEvent got = storage.getChild(sse.getID()).get();
-        
-        assertThat("ids don't match", got.getID(), is(sse.getID()));
-        assertThat("incorrect state", got.getState(), is(StatusEventProcessingState.FAIL));
-        assertThat("incorrect event", got.getChildEvent(), is(new ChildStatusEvent(
-                StatusEvent.getBuilder(
-                        sot, Instant.ofEpochMilli(10000), StatusEventType.COPY_ACCESS_GROUP)
-                                .build(),
-                        new StatusEventID("parent id"))));
-        assertThat("incorrect store time", got.getStoreTime(), is(Instant.ofEpochMilli(30000L)));
-        assertThat("incorrect error code", got.getErrorCode(), is(Optional.of("DELETED")));
-        assertThat("incorrect error msg", got.getErrorMessage(), is(Optional.of("deleted")));
-        assertThat("incorrect error trace",
-                got.getErrorStackTrace().get().contains("IndexingException: deleted"), is(true));
-    }
-    
-    @Test
-    public void storeAndGetChildWithErrMsgTruncation() throws Exception {
-        when(clock.instant()).thenReturn(Instant.ofEpochMilli(30000L));
-        final StoredChildStatusEvent sse = storage.store(new ChildStatusEvent(
-                StatusEvent.getBuilder(
-                    "WS", Instant.ofEpochMilli(10000), StatusEventType.COPY_ACCESS_GROUP)
-                    .build(),
-                    new StatusEventID("parent id")),
-                "DELETED",
-                new UnprocessableEventIndexingException(ErrorType.DELETED, LONG1001));
-
-        final String msgExpected = LONG1001.substring(0, 997) + "...";
-        
-        assertThat("incorrect error msg", sse.getErrorMessage(), is(Optional.of(msgExpected)));
+                    .withNullableObjectID("" + i)
+                    .withNullableVersion(1)
+                    .build());
+        }
         
-        final StoredChildStatusEvent got = storage.getChild(sse.getID()).get();
+        final List<StoredStatusEvent> stored = storage.storeAll(events,
+                StatusEventProcessingState.UNPROC, set("foo"), "WSEG");
+        
+        assertThat("incorrect count", stored.size(), is(7));
+        assertThat("incorrect db count", db.getCollection("searchEvents").count(), is(7L));
+        for (int i = 0; i < 7; i++) {
+            final StoredStatusEvent sse = stored.get(i);
+            assertThat("incorrect event", sse.getEvent(), is(events.get(i)));
+            assertThat("incorrect state", sse.getState(),
+                    is(StatusEventProcessingState.UNPROC));
+            assertThat("incorrect worker codes", sse.getWorkerCodes(), is(set("foo")));
+            assertThat("incorrect stored by", sse.getStoredBy(), is(Optional.of("WSEG")));
+            assertThat("incorrect store time", sse.getStoreTime(),
+                    is(Optional.of(Instant.ofEpochMilli(30000L))));
+            assertThat("incorrect stored event", storage.get(sse.getID()).get(), is(sse));
+        }
         
-        assertThat("incorrect error msg", got.getErrorMessage(), is(Optional.of(msgExpected)));
+        assertThat("incorrect stored", storage.storeAll(Collections.emptyList(),
+                StatusEventProcessingState.UNPROC, null, "WSEG"),
+                is(Collections.emptyList()));
+        assertThat("incorrect db count", db.getCollection("searchEvents").count(), is(7L));
     }
     
     @Test
-    public void storeAndGetChildWithTraceTruncation() throws Exception {
+    @Override
+    public void storeAllChildrenAndGet() throws Exception {
+        final StatusEventStorage storage = new MongoDBStatusEventStorage(db, 2, clock);
         when(clock.instant()).thenReturn(Instant.ofEpochMilli(30000L));
-        final StoredChildStatusEvent sse = storage.store(new ChildStatusEvent(
-                StatusEvent.getBuilder(
-                    "WS", Instant.ofEpochMilli(10000), StatusEventType.COPY_ACCESS_GROUP)
-                    .build(),
+        final List<FailedChildStatusEvent> events = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            events.add(new FailedChildStatusEvent(new ChildStatusEvent(
+                    StatusEvent.getBuilder(
+                            "WS", Instant.ofEpochMilli(10000 + i), StatusEventType.NEW_VERSION)
+                            .withNullableObjectID("" + i)
+                            .build(),
                     new StatusEventID("parent id")),
-                "DELETED",
-                LONG_TRACE_EXCEPTION);
-
-        final String traceExpected = LONG100_001.substring(0, 99997) + "...";
-        
-        assertThat("incorrect error msg", sse.getErrorStackTrace(),
-                is(Optional.of(traceExpected)));
-        
-        final StoredChildStatusEvent got = storage.getChild(sse.getID()).get();
-        
-        assertThat("incorrect error msg", got.getErrorStackTrace(),
-                is(Optional.of(traceExpected)));
-    }
-    
-    @Test
-    public void storeAndGetChildNonExistant() throws Exception {
-        when(clock.instant()).thenReturn(Instant.ofEpochMilli(100000L));
-        final StoredChildStatusEvent sse = storage.store(new ChildStatusEvent(
-                StatusEvent.getBuilder(
-                        "WS", Instant.ofEpochMilli(20000), StatusEventType.DELETE_ALL_VERSIONS)
-                                .build(),
-                new StatusEventID("parent id")),
-                "DELETED",
-                new UnprocessableEventIndexingException(ErrorType.DELETED, "deleted"));
-        
-        assertThat("incorrect state", sse.getState(), is(StatusEventProcessingState.FAIL));
-        assertThat("incorrect event", sse.getChildEvent(), is(new ChildStatusEvent(
-                StatusEvent.getBuilder(
-                        "WS", Instant.ofEpochMilli(20000), StatusEventType.DELETE_ALL_VERSIONS)
-                                .build(),
-                new StatusEventID("parent id"))));
-        assertNotNull("id is null", sse.getID());
-        assertThat("incorrect store time", sse.getStoreTime(), is(Instant.ofEpochMilli(100000L)));
-        assertThat("incorrect error code", sse.getErrorCode(), is(Optional.of("DELETED")));
-        assertThat("incorrect error msg", sse.getErrorMessage(), is(Optional.of("deleted")));
-        assertThat("incorrect error trace",
-                sse.getErrorStackTrace().get().contains("IndexingException: deleted"), is(true));
-        
-        final Optional<StoredChildStatusEvent> got = storage.getChild(
-                new StatusEventID(new ObjectId().toString()));
-        assertThat("expected absent", got, is(Optional.absent()));
-    }
-    
-    @Test
-    public void setProcessingStateWithoutOldState() throws Exception {
-        when(clock.instant()).thenReturn(Instant.ofEpochMilli(10000), Instant.ofEpochMilli(60000));
-        final StoredStatusEvent sse = storage.store(StatusEvent.getBuilder(
-                "KE", Instant.ofEpochMilli(30000), StatusEventType.COPY_ACCESS_GROUP).build(),
-                StatusEventProcessingState.UNPROC, null, "WSEG");
-        
-        
-        final boolean success = storage.setProcessingState(
-                sse.getID(), null, StatusEventProcessingState.FAIL);
-        assertThat("expected success", success, is(true));
-        
-        final StoredStatusEvent got = storage.get(sse.getID()).get();
-        assertThat("ids don't match", got.getID(), is(sse.getID()));
-        assertThat("incorrect state", got.getState(), is(StatusEventProcessingState.FAIL));
-        assertThat("incorrect updater", got.getUpdater(), is(Optional.absent()));
-        assertThat("incorrect update time", got.getUpdateTime(),
-                is(Optional.of(Instant.ofEpochMilli(60000))));
-        assertThat("incorrect event", got.getEvent(), is(StatusEvent.getBuilder(
-                "KE", Instant.ofEpochMilli(30000), StatusEventType.COPY_ACCESS_GROUP).build()));
-        assertThat("incorrect worker codes", got.getWorkerCodes(), is(set("default")));
-        assertThat("incorrect stored by", got.getStoredBy(), is(Optional.of("WSEG")));
-        assertThat("incorrect store time", got.getStoreTime(),
-                is(Optional.of(Instant.ofEpochMilli(10000L))));
-        assertThat("incorrect error code", got.getErrorCode(), is(Optional.absent()));
-        assertThat("incorrect error msg", got.getErrorMessage(), is(Optional.absent()));
-        assertThat("incorrect error trace", got.getErrorStackTrace(), is(Optional.absent()));
-    }
-    
-    @Test
-    public void setProcessingStateWithOldState() throws Exception {
-        when(clock.instant()).thenReturn(Instant.ofEpochMilli(40000), Instant.ofEpochMilli(10000));
-        final StoredStatusEvent sse = storage.store(StatusEvent.getBuilder(
-                "KE", Instant.ofEpochMilli(30000), StatusEventType.COPY_ACCESS_GROUP).build(),
-                StatusEventProcessingState.UNPROC, null, "WSEG");
-        
-        final boolean success = storage.setProcessingState(
-                sse.getID(), StatusEventProcessingState.UNPROC, StatusEventProcessingState.FAIL);
-        assertThat("expected success", success, is(true));
-        
-        final StoredStatusEvent got = storage.get(sse.getID()).get();
-        assertThat("ids don't match", got.getID(), is(sse.getID()));
-        assertThat("incorrect state", got.getState(), is(StatusEventProcessingState.FAIL));
-        assertThat("incorrect updater", got.getUpdater(), is(Optional.absent()));
-        assertThat("incorrect update time", got.getUpdateTime(),
-                is(Optional.of(Instant.ofEpochMilli(10000))));
-        assertThat("incorrect event", got.getEvent(), is(StatusEvent.getBuilder(
-                "KE", Instant.ofEpochMilli(30000), StatusEventType.COPY_ACCESS_GROUP).build()));
-        assertThat("incorrect worker codes", got.getWorkerCodes(), is(set("default")));
-        assertThat("incorrect stored by", got.getStoredBy(), is(Optional.of("WSEG")));
-        assertThat("incorrect store time", got.getStoreTime(),
-                is(Optional.of(Instant.ofEpochMilli(40000L))));
-        assertThat("incorrect error code", got.getErrorCode(), is(Optional.absent()));
-        assertThat("incorrect error msg", got.getErrorMessage(), is(Optional.absent()));
-        assertThat("incorrect error trace", got.getErrorStackTrace(), is(Optional.absent()));
-    }
-    
-    @Test
-    public void setProcessingStateWithErrorWithoutOldState() throws Exception {
-        when(clock.instant()).thenReturn(Instant.ofEpochMilli(10000), Instant.ofEpochMilli(60000));
-        final StoredStatusEvent sse = storage.store(StatusEvent.getBuilder(
-                "KE", Instant.ofEpochMilli(30000), StatusEventType.COPY_ACCESS_GROUP).build(),
-                StatusEventProcessingState.UNPROC, null, "WSEG");
+                    "DELETED",
+                    new UnprocessableEventIndexingException(ErrorType.DELETED, "deleted " + i)));
+        }
         
-        final boolean success = storage.setProcessingState(
-                sse.getID(), null, "DELETED",
-                new UnprocessableEventIndexingException(ErrorType.DELETED, "deleted"));
-        assertThat("expected success", success, is(true));
+        final List<StoredChildStatusEvent> stored = storage.storeAllChildren(events);
+        
+        assertThat("incorrect count", stored.size(), is(5));
+        assertThat("incorrect db count", db.getCollection("childEvents").count(), is(5L));
+        for (int i = 0; i < 5; i++) {
+            final StoredChildStatusEvent sse = stored.get(i);
+            assertThat("incorrect event", sse.getChildEvent(), is(events.get(i).getEvent()));
+            assertThat("incorrect state", sse.getState(), is(StatusEventProcessingState.FAIL));
+            assertThat("incorrect store time", sse.getStoreTime(),
+                    is(Instant.ofEpochMilli(30000L)));
+            assertThat("incorrect error code", sse.getErrorCode(), is(Optional.of("DELETED")));
+            assertThat("incorrect error msg", sse.getErrorMessage(),
+                    is(Optional.of("deleted " + i)));
+            assertThat("incorrect stored event", storage.getChild(sse.getID()).get(), is(sse));
+        }
         
-        final StoredStatusEvent got = storage.get(sse.getID()).get();
-        assertThat("ids don't match", got.getID(), is(sse.getID()));
-        assertThat("incorrect state", got.getState(), is(StatusEventProcessingState.FAIL));
-        assertThat("incorrect updater", got.getUpdater(), is(Optional.absent()));
-        assertThat("incorrect update time", got.getUpdateTime(),
-                is(Optional.of(Instant.ofEpochMilli(60000))));
-        assertThat("incorrect event", got.getEvent(), is(StatusEvent.getBuilder(
-                "KE", Instant.ofEpochMilli(30000), StatusEventType.COPY_ACCESS_GROUP).build()));
-        assertThat("incorrect worker codes", got.getWorkerCodes(), is(set("default")));
-        assertThat("incorrect stored by", got.getStoredBy(), is(Optional.of("WSEG")));
-        assertThat("incorrect store time", got.getStoreTime(),
-                is(Optional.of(Instant.ofEpochMilli(10000L))));
-        assertThat("incorrect error code", got.getErrorCode(), is(Optional.of("DELETED")));
-        assertThat("incorrect error msg", got.getErrorMessage(), is(Optional.of("deleted")));
-        assertThat("incorrect error trace",
-                got.getErrorStackTrace().get().contains("IndexingException: deleted"), is(true));
+        assertThat("incorrect stored", storage.storeAllChildren(Collections.emptyList()),
+                is(Collections.emptyList()));
     }
     
     @Test
-    public void setProcessingStateWithErrorWithOldState() throws Exception {
-        when(clock.instant()).thenReturn(Instant.ofEpochMilli(40000), Instant.ofEpochMilli(10000));
-        final StoredStatusEvent sse = storage.store(StatusEvent.getBuilder(
-                "KE", Instant.ofEpochMilli(30000), StatusEventType.COPY_ACCESS_GROUP).build(),
-                StatusEventProcessingState.UNPROC, null, "WSEG");
-        
-        final boolean success = storage.setProcessingState(
-                sse.getID(), StatusEventProcessingState.UNPROC, "DELETED",
-                new UnprocessableEventIndexingException(ErrorType.DELETED, "deleted"));
-        assertThat("expected success", success, is(true));
-        
-        final StoredStatusEvent got = storage.get(sse.getID()).get();
-        assertThat("ids don't match", got.getID(), is(sse.getID()));
-        assertThat("incorrect state", got.getState(), is(StatusEventProcessingState.FAIL));
-        assertThat("incorrect updater", got.getUpdater(), is(Optional.absent()));
-        assertThat("incorrect update time", got.getUpdateTime(),
-                is(Optional.of(Instant.ofEpochMilli(10000))));
-        assertThat("incorrect event", got.getEvent(), is(StatusEvent.getBuilder(
-                "KE", Instant.ofEpochMilli(30000), StatusEventType.COPY_ACCESS_GROUP).build()));
-        assertThat("incorrect worker codes", got.getWorkerCodes(), is(set("default")));
-        assertThat("incorrect stored by", got.getStoredBy(), is(Optional.of("WSEG")));
-        assertThat("incorrect store time", got.getStoreTime(),
-                is(Optional.of(Instant.ofEpochMilli(40000L))));
-        assertThat("incorrect error code", got.getErrorCode(), is(Optional.of("DELETED")));
-        assertThat("incorrect error msg", got.getErrorMessage(), is(Optional.of("deleted")));
-        assertThat("incorrect error trace",
-                got.getErrorStackTrace().get().contains("IndexingException: deleted"), is(true));
+    public void notificationCollectionIsCapped() {
+        final Document stats = db.runCommand(new Document("collStats", "searchEventsNotify"));
+        assertThat("incorrect capped", stats.getBoolean("capped"), is(true));
     }
     
     @Test
-    public void setProcessingStateWithErrorWithErrMsgTruncation() throws Exception {
-        when(clock.instant()).thenReturn(Instant.ofEpochMilli(40000), Instant.ofEpochMilli(10000));
-        final StoredStatusEvent sse = storage.store(StatusEvent.getBuilder(
-                "KE", Instant.ofEpochMilli(30000), StatusEventType.COPY_ACCESS_GROUP).build(),
-                StatusEventProcessingState.UNPROC, null, "WSEG");
-        
-        final boolean success = storage.setProcessingState(
-                sse.getID(), StatusEventProcessingState.UNPROC, "DELETED",
-                new UnprocessableEventIndexingException(ErrorType.DELETED, LONG1001));
-        assertThat("expected success", success, is(true));
-        
-        final String msgExpected = LONG1001.substring(0, 997) + "...";
-        
-        final StoredStatusEvent got = storage.get(sse.getID()).get();
-        
-        assertThat("incorrect error msg", got.getErrorMessage(), is(Optional.of(msgExpected)));
+    public void subscribeDirectInsert() throws Exception {
+        // events inserted by other processes, like the workspace listener, only trigger the
+        // subscription if a notification is written as well
+        final StatusEvent event = StatusEvent.getBuilder(
+                "WS", Instant.ofEpochMilli(10000), StatusEventType.NEW_VERSION).build();
+        storage.store(event, StatusEventProcessingState.UNINDX, null, "WSEG");
+        final Document listenerEvent = new Document("strcde", "WS")
+                .append("accgrp", 1)
+                .append("objid", "1")
+                .append("ver", 1)
+                .append("time", new Date(10000))
+                .append("evtype", "NEW_VERSION")
+                .append("status", "UNPROC");
+        
+        try (final EventSubscription sub = storage.subscribe(StatusEventProcessingState.UNPROC)) {
+            db.getCollection("searchEvents").insertOne(new Document(listenerEvent));
+            assertThat("incorrect await", sub.await(500, TimeUnit.MILLISECONDS), is(false));
+            
+            final Instant start = Instant.now();
+            db.getCollection("searchEvents").insertOne(new Document(listenerEvent));
+            db.getCollection("searchEventsNotify").insertOne(new Document("status", "UNPROC")
+                    .append("count", 1)
+                    .append("sttime", new Date()));
+            assertThat("incorrect await", sub.await(5, TimeUnit.SECONDS), is(true));
+            TestCommon.assertCloseMS(start, Instant.now(), 0, 1000);
+        }
     }
-    
-    @Test
-    public void setProcessingStateWithErrorWithErrTraceTruncation() throws Exception {
-        when(clock.instant()).thenReturn(Instant.ofEpochMilli(40000), Instant.ofEpochMilli(10000));
-        final StoredStatusEvent sse = storage.store(StatusEvent.getBuilder(
-                "KE", Instant.ofEpochMilli(30000), StatusEventType.COPY_ACCESS_GROUP).build(),
-                StatusEventProcessingState.UNPROC, null, "WSEG");
-        
-        final boolean success = storage.setProcessingState(
-                sse.getID(), StatusEventProcessingState.UNPROC, "DELETED",
-                LONG_TRACE_EXCEPTION);
-        assertThat("expected success", success, is(true));
-        
-        final StoredStatusEvent got = storage.get(sse.getID()).get();
 
-        final String traceExpected = LONG100_001.substring(0, 99997) + "...";
-        
-        assertThat("incorrect error msg", got.getErrorStackTrace(),
-                is(Optional.of(traceExpected)));
-    }
-    
     @Test
-    public void setProcessingStateFailNonExistant() throws Exception {
-        when(clock.instant()).thenReturn(Instant.now());
-        storage.store(StatusEvent.getBuilder(
-                "FE", Instant.ofEpochMilli(30000), StatusEventType.COPY_ACCESS_GROUP).build(),
-                StatusEventProcessingState.UNPROC, null, "WS");
-        
-        
-        final boolean success = storage.setProcessingState(
-                new StatusEventID(new ObjectId().toString()), null,
-                StatusEventProcessingState.FAIL);
-        
-        assertThat("expected fail", success, is(false));
+    public void getStatistics() throws Exception {
+        when(clock.instant()).thenReturn(Instant.ofEpochMilli(100000));
+        final StatusEventProcessingState r = StatusEventProcessingState.READY;
+        final StatusEventPriority i = StatusEventPriority.INTERACTIVE;
+        store(8, 9, r, set("foo"), i);
         
-        final boolean success2 = storage.setProcessingState(
-                new StatusEventID(new ObjectId().toString()), null, "DELETED",
-                new UnprocessableEventIndexingException(ErrorType.DELETED, "deleted"));
+        final StatusEventStatistics stats = MongoDBStatusEventStorage.getStatistics(db);
         
-        assertThat("expected fail", success2, is(false));
+        assertThat("incorrect stats", stats.getLaneStatistics(r).get(i),
+                is(new LaneStatistics(i, 2, Instant.ofEpochMilli(8000))));
+        assertThat("incorrect counts", stats.getWorkerCodeCounts(r),
+                is(ImmutableMap.of("foo", 2L)));
+        assertThat("incorrect counts", stats.getEventTypeCounts(
+                set(r), Instant.ofEpochMilli(0)),
+                is(ImmutableMap.of(StatusEventType.NEW_VERSION, 2L)));
+        // the statistics can't be used to modify the events
+        assertThat("incorrect storage", stats instanceof StatusEventStorage, is(false));
     }
     
     @Test
-    public void setProcessingStateFailNoSuchState() throws Exception {
-        when(clock.instant()).thenReturn(Instant.now());
-        final StoredStatusEvent sse = storage.store(StatusEvent.getBuilder(
-                "FE", Instant.ofEpochMilli(30000), StatusEventType.COPY_ACCESS_GROUP).build(),
-                StatusEventProcessingState.UNPROC, null, "WS");
+    public void getStatisticsDoesNotInitializeDB() throws Exception {
+        final MongoDatabase readDB = mc.getDatabase("test_mongostorage_read");
+        TestCommon.destroyDB(readDB);
+        final StatusEventStatistics stats = MongoDBStatusEventStorage.getStatistics(readDB);
         
-        final boolean success = storage.setProcessingState(sse.getID(),
-                StatusEventProcessingState.READY, StatusEventProcessingState.FAIL);
-        
-        assertThat("expected fail", success, is(false));
-        
-        final boolean success2 = storage.setProcessingState(sse.getID(),
-                StatusEventProcessingState.READY, "DELETED",
-                new UnprocessableEventIndexingException(ErrorType.DELETED, "deleted"));
-        
-        assertThat("expected fail", success2, is(false));
+        assertThat("incorrect counts", stats.getWorkerCodeCounts(
+                StatusEventProcessingState.READY), is(Collections.emptyMap()));
+        final Set<String> names = new HashSet<>();
+        readDB.listCollectionNames().forEach((Consumer<String>) names::add);
+        assertThat("incorrect collections", names, is(Collections.emptySet()));
     }
 
     @Test
@@ -754,510 +348,171 @@ public class MongoDBStatusEventStorageTest {
                         new FindOneAndUpdateOptions().returnDocument(ReturnDocument.AFTER)));
     }
     
-    private static final Consumer<StatusEventID> NOOP = id -> {};
-    
     @Test
-    public void getAndSetProcessingWithSortAndNullCodes() throws Exception {
-        getAndSetProcessingWithSort(null, NOOP);
-    }
-    
-    @Test
-    public void getAndSetProcessingWithSortAndEmptyCodes() throws Exception {
-        getAndSetProcessingWithSort(set(), NOOP);
-    }
-    
-    @Test
-    public void getAndSetProcessingWithSortAndDefaultCode() throws Exception {
-        getAndSetProcessingWithSort(set("default"), NOOP);
-    }
-    
-    @Test
-    public void getAndSetProcessingWithSortAndDefaultPlusCodes() throws Exception {
-        getAndSetProcessingWithSort(set("default", "foo"), NOOP);
-    }
-    
-    @Test
-    public void getAndSetProcessingWithSortAndSpecificCodes() throws Exception {
-        getAndSetProcessingWithSort(set("bar"), set("baz"), set("bar"));
-    }
-    
-    @Test
-    public void getAndSetProcessingWithSortAndSpecificOverlappingCodes() throws Exception {
-        getAndSetProcessingWithSort(set("foo", "bar"), set("foo", "baz"), set("bar"));
-    }
-    
-    @Test
-    public void getAndSetProcessingWithSortAndSameCodes() throws Exception {
-        // tests sort
-        getAndSetProcessingWithSort(set("foo", "baz"), set("foo", "baz"), set("baz"));
-    }
-
-    private void getAndSetProcessingWithSort(
-            final Set<String> searchWorkerCodes,
-            final Consumer<StatusEventID> operation)
-            throws RetriableIndexingException, FatalRetriableIndexingException {
-        getAndSetProcessingWithSort(null, set("default"), null, searchWorkerCodes, operation);
-    }
-    
-    private void getAndSetProcessingWithSort(
-            final Set<String> storedWorkerCodes,
-            final Set<String> otherEventWorkerCodes,
-            final Set<String> searchWorkerCodes)
-            throws FatalRetriableIndexingException, RetriableIndexingException {
-        getAndSetProcessingWithSort(storedWorkerCodes, storedWorkerCodes, otherEventWorkerCodes,
-                searchWorkerCodes, NOOP);
-    }
-    
-    private void getAndSetProcessingWithSort(
-            final Set<String> storedWorkerCodes,
-            final Set<String> expectedWorkerCodes,
-            final Set<String> otherEventWorkerCodes,
-            final Set<String> searchWorkerCodes,
-            final Consumer<StatusEventID> operation)
-            throws RetriableIndexingException, FatalRetriableIndexingException {
-        // test that the event that is updated is the oldest event
-        when(clock.instant()).thenReturn(Instant.ofEpochMilli(100000));
-        store(2, 200, StatusEventProcessingState.READY, otherEventWorkerCodes);
-        final StorageObjectType sot = new StorageObjectType("foo", "bar", 9);
-        final StoredStatusEvent sse = storage.store(StatusEvent.getBuilder(
-                sot, Instant.ofEpochMilli(1000), StatusEventType.COPY_ACCESS_GROUP)
-                .withNullableAccessGroupID(6)
-                .withNullableisPublic(true)
-                .withNullableNewName("foo")
-                .withNullableObjectID("bar")
-                .withNullableVersion(7)
-                .build(),
-                StatusEventProcessingState.READY,
-                storedWorkerCodes,
-                "WSEG");
-        store(201, 400, StatusEventProcessingState.READY, otherEventWorkerCodes);
-        
-        operation.accept(sse.getID());
-        
-        final StoredStatusEvent ret = storage.setAndGetProcessingState(
-                StatusEventProcessingState.READY, searchWorkerCodes,
-                StatusEventProcessingState.PROC, "whee")
-                .get();
-        assertThat("incorrect state", ret.getState(), is(StatusEventProcessingState.PROC));
-        assertThat("incorrect updater", ret.getUpdater(), is(Optional.of("whee")));
-        assertThat("incorrect update time", ret.getUpdateTime(),
-                is(Optional.of(Instant.ofEpochMilli(100000))));
-        assertThat("incorrect event", ret.getEvent(), is(StatusEvent.getBuilder(
-                sot, Instant.ofEpochMilli(1000), StatusEventType.COPY_ACCESS_GROUP)
-                .withNullableAccessGroupID(6)
-                .withNullableisPublic(true)
-                .withNullableNewName("foo")
-                .withNullableObjectID("bar")
-                .withNullableVersion(7)
-                .build()));
-        assertThat("ids don't match", ret.getID(), is(sse.getID()));
-        assertThat("incorrect worker codes", ret.getWorkerCodes(), is(expectedWorkerCodes));
-        assertThat("incorrect stored by", ret.getStoredBy(), is(Optional.of("WSEG")));
-        assertThat("incorrect store time", ret.getStoreTime(),
-                is(Optional.of(Instant.ofEpochMilli(100000L))));
-        
-        final StoredStatusEvent got = storage.get(sse.getID()).get();
-        assertThat("incorrect state", got.getState(), is(StatusEventProcessingState.PROC));
-        assertThat("incorrect updater", got.getUpdater(), is(Optional.of("whee")));
-        assertThat("incorrect update time", got.getUpdateTime(),
-                is(Optional.of(Instant.ofEpochMilli(100000))));
-        assertThat("incorrect event", got.getEvent(), is(StatusEvent.getBuilder(
-                sot, Instant.ofEpochMilli(1000), StatusEventType.COPY_ACCESS_GROUP)
-                .withNullableAccessGroupID(6)
-                .withNullableisPublic(true)
-                .withNullableNewName("foo")
-                .withNullableObjectID("bar")
-                .withNullableVersion(7)
-                .build()));
-        assertThat("ids don't match", got.getID(), is(sse.getID()));
-        assertThat("incorrect worker codes", got.getWorkerCodes(), is(expectedWorkerCodes));
-        assertThat("incorrect stored by", got.getStoredBy(), is(Optional.of("WSEG")));
-        assertThat("incorrect store time", got.getStoreTime(),
-                is(Optional.of(Instant.ofEpochMilli(100000L))));
-    }
-    
-    @Test
-    public void getAndSetProcessingSortWithCodes() throws Exception {
-        // tests that earlier events with different codes will be skipped
-        // and that the newest event with matching codes is returned
+    @Override
+    public void getLaneStatistics() throws Exception {
         when(clock.instant()).thenReturn(Instant.ofEpochMilli(100000));
-        store(1, 10, StatusEventProcessingState.READY, set("foo"));
-        store(12, 20, StatusEventProcessingState.READY, set("bar"));
-        final StorageObjectType sot = new StorageObjectType("foo", "bar", 9);
+        final StatusEventProcessingState r = StatusEventProcessingState.READY;
+        final StatusEventPriority i = StatusEventPriority.INTERACTIVE;
+        final StatusEventPriority b = StatusEventPriority.BULK;
+        
+        Map<StatusEventPriority, LaneStatistics> stats = storage.getLaneStatistics(r);
+        assertThat("incorrect stats", stats.get(i), is(new LaneStatistics(i, 0, null)));
+        assertThat("incorrect stats", stats.get(b), is(new LaneStatistics(b, 0, null)));
+        
+        store(5, 10, r, null, b);
+        store(8, 9, r, null, i);
+        store(2, 3, StatusEventProcessingState.UNPROC, null, i);
+        // events without a priority field are interactive
         final StoredStatusEvent sse = storage.store(StatusEvent.getBuilder(
-                sot, Instant.ofEpochMilli(11000), StatusEventType.COPY_ACCESS_GROUP)
-                .withNullableAccessGroupID(6)
-                .withNullableisPublic(true)
-                .withNullableNewName("foo")
-                .withNullableObjectID("bar")
-                .withNullableVersion(7)
-                .build(),
-                StatusEventProcessingState.READY,
-                set("bar"),
-                "WSEG");
-        
-        
-        final StoredStatusEvent ret = storage.setAndGetProcessingState(
-                StatusEventProcessingState.READY, set("bar"),
-                StatusEventProcessingState.PROC, "whee")
-                .get();
-        assertThat("incorrect state", ret.getState(), is(StatusEventProcessingState.PROC));
-        assertThat("incorrect updater", ret.getUpdater(), is(Optional.of("whee")));
-        assertThat("incorrect update time", ret.getUpdateTime(),
-                is(Optional.of(Instant.ofEpochMilli(100000))));
-        assertThat("incorrect event", ret.getEvent(), is(StatusEvent.getBuilder(
-                sot, Instant.ofEpochMilli(11000), StatusEventType.COPY_ACCESS_GROUP)
-                .withNullableAccessGroupID(6)
-                .withNullableisPublic(true)
-                .withNullableNewName("foo")
-                .withNullableObjectID("bar")
-                .withNullableVersion(7)
-                .build()));
-        assertThat("ids don't match", ret.getID(), is(sse.getID()));
-        assertThat("incorrect worker codes", ret.getWorkerCodes(), is(set("bar")));
-        assertThat("incorrect stored by", ret.getStoredBy(), is(Optional.of("WSEG")));
-        assertThat("incorrect store time", ret.getStoreTime(),
-                is(Optional.of(Instant.ofEpochMilli(100000L))));
-        
-        final StoredStatusEvent got = storage.get(sse.getID()).get();
-        assertThat("incorrect state", got.getState(), is(StatusEventProcessingState.PROC));
-        assertThat("incorrect updater", got.getUpdater(), is(Optional.of("whee")));
-        assertThat("incorrect update time", got.getUpdateTime(),
-                is(Optional.of(Instant.ofEpochMilli(100000))));
-        assertThat("incorrect event", got.getEvent(), is(StatusEvent.getBuilder(
-                sot, Instant.ofEpochMilli(11000), StatusEventType.COPY_ACCESS_GROUP)
-                .withNullableAccessGroupID(6)
-                .withNullableisPublic(true)
-                .withNullableNewName("foo")
-                .withNullableObjectID("bar")
-                .withNullableVersion(7)
-                .build()));
-        assertThat("ids don't match", got.getID(), is(sse.getID()));
-        assertThat("incorrect worker codes", got.getWorkerCodes(), is(set("bar")));
-        assertThat("incorrect stored by", got.getStoredBy(), is(Optional.of("WSEG")));
-        assertThat("incorrect store time", got.getStoreTime(),
-                is(Optional.of(Instant.ofEpochMilli(100000L))));
-    }
-    
-    @Test
-    public void getAndSetProcessingNonExistantOnState() throws Exception {
-        when(clock.instant()).thenReturn(Instant.now());
-        final StorageObjectType sot = new StorageObjectType("foo", "bar", 9);
-        storage.store(StatusEvent.getBuilder(
-                sot, Instant.ofEpochMilli(10000), StatusEventType.COPY_ACCESS_GROUP)
-                .withNullableAccessGroupID(6)
-                .withNullableisPublic(true)
-                .withNullableNewName("foo")
-                .withNullableObjectID("bar")
-                .withNullableVersion(7)
-                .build(),
-                StatusEventProcessingState.UNPROC,
-                null,
-                "WS");
-        
-        final Optional<StoredStatusEvent> ret = storage.setAndGetProcessingState(
-                StatusEventProcessingState.READY, null, StatusEventProcessingState.PROC, "whee");
-        assertThat("expected absent", ret, is(Optional.absent()));
-    }
-    
-    @Test
-    public void getAndSetProcessingNonExistantOnWorkerCode() throws Exception {
-        when(clock.instant()).thenReturn(Instant.now());
-        store(1, 2, StatusEventProcessingState.READY, set("foo"));
-        store(1, 2, StatusEventProcessingState.READY, set("bar"));
+                "foo", Instant.ofEpochMilli(7000), StatusEventType.NEW_VERSION).build(),
+                r, null, "WSEG");
+        db.getCollection("searchEvents").updateOne(
+                new Document("_id", new ObjectId(sse.getID().getId())),
+                new Document("$unset", new Document("prio", 1)));
         
-        when(clock.instant()).thenReturn(Instant.now());
+        stats = storage.getLaneStatistics(r);
+        assertThat("incorrect stats", stats.get(i),
+                is(new LaneStatistics(i, 3, Instant.ofEpochMilli(7000))));
+        assertThat("incorrect stats", stats.get(b),
+                is(new LaneStatistics(b, 6, Instant.ofEpochMilli(5000))));
+        assertThat("incorrect age", stats.get(b).getAge(Instant.ofEpochMilli(100000)),
+                is(Optional.of(Duration.ofSeconds(95))));
+        assertThat("incorrect lanes", stats.keySet(), is(set(i, b)));
         
-        final Optional<StoredStatusEvent> ret = storage.setAndGetProcessingState(
-                StatusEventProcessingState.READY, set("baz"),
-                StatusEventProcessingState.PROC, "whee");
-        assertThat("expected absent", ret, is(Optional.absent()));
-    }
-    
-    @Test
-    public void setAndGetProcessingFail() {
-        failSetAndGetProcessing(null, null, StatusEventProcessingState.FAIL, "foo",
-                new NullPointerException("oldState"));
-        failSetAndGetProcessing(StatusEventProcessingState.FAIL, null, null, "foo",
-                new NullPointerException("newState"));
-        failSetAndGetProcessing(StatusEventProcessingState.UNPROC, null,
-                StatusEventProcessingState.READY, null,
-                new IllegalArgumentException("updater cannot be null or whitespace"));
-        failSetAndGetProcessing(StatusEventProcessingState.UNPROC, null,
-                StatusEventProcessingState.READY, "   \t \n  ",
-                new IllegalArgumentException("updater cannot be null or whitespace"));
-        failSetAndGetProcessing(StatusEventProcessingState.UNPROC, set("foo", null),
-                StatusEventProcessingState.FAIL, "foo",
-                new NullPointerException("null item in workerCodes"));
-    }
-    
-    private void failSetAndGetProcessing(
-            final StatusEventProcessingState oldState,
-            final Set<String> workerCodes,
-            final StatusEventProcessingState newState,
-            final String updater,
-            final Exception expected) {
         try {
-            storage.setAndGetProcessingState(oldState, workerCodes, newState, updater);
+            storage.getLaneStatistics(null);
             fail("expected exception");
         } catch (Exception got) {
-            TestCommon.assertExceptionCorrect(got, expected);
-        }
-    }
-    
-    @Test
-    public void getByState() throws Exception {
-        when(clock.instant()).thenReturn(Instant.now());
-        store(10100, StatusEventProcessingState.UNPROC);
-        store(10, StatusEventProcessingState.UNINDX);
-        store(10, StatusEventProcessingState.FAIL);
-        
-        //basic checks
-        assertReturnedInOrder(StatusEventProcessingState.UNPROC, 15, 15, Range.closed(1, 15));
-        assertReturnedInOrder(StatusEventProcessingState.UNINDX, 15, 10, Range.closed(1, 10));
-        assertReturnedInOrder(StatusEventProcessingState.FAIL, 15, 10, Range.closed(1, 10));
-        // ensures no events are found for INDX
-        assertReturnedInOrder(StatusEventProcessingState.INDX, 15, 0, Range.closed(-1, -1));
-        
-        // check limit works as expected
-        assertReturnedInOrder(StatusEventProcessingState.UNPROC, 0, 10000, Range.closed(1, 10000));
-        assertReturnedInOrder(StatusEventProcessingState.UNPROC, 1, 1, Range.closed(1, 1));
-        assertReturnedInOrder(StatusEventProcessingState.UNPROC, 9999, 9999,
-                Range.closed(1, 9999));
-        assertReturnedInOrder(StatusEventProcessingState.UNPROC, 10000, 10000,
-                Range.closed(1, 10000));
-        assertReturnedInOrder(StatusEventProcessingState.UNPROC, 10001, 10000,
-                Range.closed(1, 10000));
-        
-        // check changing state moves limits around
-        setState(StatusEventProcessingState.UNPROC, StatusEventProcessingState.INDX,
-                Range.closed(100, 150));
-        
-        assertReturnedInOrder(StatusEventProcessingState.INDX, 25, 25, Range.closed(100, 124));
-        assertReturnedInOrder(StatusEventProcessingState.INDX, 51, 51, Range.closed(100, 150));
-        assertReturnedInOrder(StatusEventProcessingState.INDX, 52, 51, Range.closed(100, 150));
-        assertReturnedInOrder(StatusEventProcessingState.INDX, -1, 51, Range.closed(100, 150));
-        assertReturnedInOrder(StatusEventProcessingState.UNPROC, -1, 10000,
-                Range.closed(1, 99), Range.closed(151, 10051));
-    }
-
-    private void setState(
-            final StatusEventProcessingState oldState,
-            final StatusEventProcessingState newState,
-            final Range<Integer> timesToModifyInSec)
-            throws Exception {
-        when(clock.instant()).thenReturn(Instant.now());
-        for (final StoredStatusEvent event: storage.get(oldState, -1)) {
-            final int t = (int) event.getEvent().getTimestamp().toEpochMilli();
-            if (timesToModifyInSec.contains(t / 1000)) {
-                storage.setProcessingState(event.getID(), oldState, newState);
-            }
+            TestCommon.assertExceptionCorrect(got, new NullPointerException("state"));
         }
     }
 
-    @SafeVarargs
-    private final void assertReturnedInOrder(
-            final StatusEventProcessingState state,
-            final int limit,
-            final int expected,
-            final Range<Integer>... ranges)
-            throws Exception {
-        Instant last = null;
-        final List<StoredStatusEvent> events = storage.get(state, limit);
-        assertThat("incorrect number of events", events.size(), is(expected));
-        for (final StoredStatusEvent event: events) {
-            if (last != null) {
-                assertThat("expected correct ordering",
-                        last.isBefore(event.getEvent().getTimestamp()), is(true));
-            }
-            last = event.getEvent().getTimestamp();
-            assertInRange(event.getEvent().getTimestamp(), ranges);
+    @Test
+    public void getWorkerCodeCountsWithAlteredDBWorkerCodeFields() throws Exception {
+        when(clock.instant()).thenReturn(Instant.ofEpochMilli(100000));
+        final StatusEventProcessingState r = StatusEventProcessingState.READY;
+        final List<Document> operations = Arrays.asList(
+                new Document("$unset", new Document("wrkcde", 1)),
+                new Document("$set", new Document("wrkcde", null)),
+                new Document("$set", new Document("wrkcde", Arrays.asList())));
+        for (final Document operation: operations) {
+            final StoredStatusEvent sse = storage.store(StatusEvent.getBuilder(
+                    "foo", Instant.ofEpochMilli(7000), StatusEventType.NEW_VERSION).build(),
+                    r, set("foo"), "WSEG");
+            db.getCollection("searchEvents").updateOne(
+                    new Document("_id", new ObjectId(sse.getID().getId())), operation);
         }
-    }
+        store(1, 2, r, set("foo"), StatusEventPriority.INTERACTIVE);
 
-    private void assertInRange(final Instant timestamp, final Range<Integer>[] ranges) {
-        final int t = (int) timestamp.toEpochMilli();
-        for (final Range<Integer> range: ranges) {
-            if (range.contains(t / 1000)) {
-                return;
-            }
-        }
-        fail(String.format("Time %s not in any ranges %s", t / 1000, Arrays.asList(ranges)));
+        final Map<String, Long> expected = new HashMap<>();
+        expected.put("default", 3L);
+        expected.put("foo", 2L);
+        assertThat("incorrect counts", storage.getWorkerCodeCounts(r), is(expected));
     }
 
-    private void store(final int count, final StatusEventProcessingState state)
-            throws RetriableIndexingException {
-        store(1, count, state, null);
-    }
-    
-    private void store(
-            final int start,
-            final int count,
-            final StatusEventProcessingState state,
-            final Set<String> workerCodes)
-            throws RetriableIndexingException {
-        final List<Integer> times = new ArrayList<>();
-        for (int i = start; i <= count; i++) {
-            times.add(i);
-        }
-        Collections.shuffle(times);
-        for (final int time: times) {
-            storage.store(StatusEvent.getBuilder(
-                    "foo", Instant.ofEpochMilli(time * 1000), StatusEventType.NEW_VERSION).build(),
-                    state, workerCodes, "WSEG");
-        }
-    }
-    
     @Test
-    public void constructFail() {
-        try {
-            new MongoDBStatusEventStorage(null);
-            fail("expected exception");
-        } catch (Exception got) {
-            TestCommon.assertExceptionCorrect(got, new NullPointerException("db"));
+    @Override
+    public void archiveEvents() throws Exception {
+        when(clock.instant()).thenReturn(Instant.ofEpochMilli(10000));
+        final List<StoredStatusEvent> events = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            events.add(storage.store(StatusEvent.getBuilder(
+                    "WS", Instant.ofEpochMilli(1000 + i), StatusEventType.NEW_VERSION).build(),
+                    StatusEventProcessingState.UNPROC, null, "WSEG"));
         }
-    }
-    
-    @Test
-    public void storeFail() {
-        failStore(null, StatusEventProcessingState.UNINDX, null, "s",
-                new NullPointerException("newEvent"));
-        final StatusEvent event = StatusEvent.getBuilder(
-                "Ws", Instant.ofEpochMilli(10000), StatusEventType.NEW_ALL_VERSIONS).build();
-        failStore(event, null, null, "s", new NullPointerException("state"));
-        failStore(event, StatusEventProcessingState.UNINDX, set("foo", null), "s",
-                new IllegalArgumentException("null or whitespace only item in workerCodes"));
-        failStore(event, StatusEventProcessingState.UNINDX, set("foo", "   \t   \n  "), "s",
-                new IllegalArgumentException("null or whitespace only item in workerCodes"));
-        failStore(event, StatusEventProcessingState.UNINDX, set(), null,
-                new IllegalArgumentException("storedBy cannot be null or whitespace only"));
-        failStore(event, StatusEventProcessingState.UNINDX, set(), "   \t   \n  ",
-                new IllegalArgumentException("storedBy cannot be null or whitespace only"));
-    }
-    
-    private void failStore(
-            final StatusEvent event,
-            final StatusEventProcessingState state,
-            final Set<String> workerCodes,
-            final String storedBy,
-            final Exception expected) {
-        try {
-            storage.store(event, state, workerCodes, storedBy);
-            fail("expected exception");
-        } catch (Exception got) {
-            TestCommon.assertExceptionCorrect(got, expected);
+        final StatusEventProcessingState indx = StatusEventProcessingState.INDX;
+        final StatusEventProcessingState unindx = StatusEventProcessingState.UNINDX;
+        when(clock.instant()).thenReturn(Instant.ofEpochMilli(20000));
+        for (int i = 0; i < 4; i++) {
+            storage.setProcessingState(events.get(i).getID(), null, indx);
         }
-    }
-    
-    @Test
-    public void storeChildFail() {
-        final ChildStatusEvent c = new ChildStatusEvent(StatusEvent.getBuilder(
-                "WS", Instant.ofEpochMilli(20000), StatusEventType.DELETE_ALL_VERSIONS).build(),
-                new StatusEventID("parent id"));
-        final Throwable e = new RuntimeException("foo");
-        
-        when(clock.instant()).thenReturn(Instant.ofEpochMilli(10000L));
-        
-        failStoreChild(null, "c", e, new NullPointerException("newEvent"));
-        
-        failStoreChild(c, null, e, new IllegalArgumentException(
-                "errorCode cannot be null or whitespace only"));
-        failStoreChild(c, "   \t   \n   ", e, new IllegalArgumentException(
-                "errorCode cannot be null or whitespace only"));
-        failStoreChild(c, "01234567890123456789a", e, new IllegalArgumentException(
-                "errorCode exceeds max length of 20"));
-        
-        failStoreChild(c, "c", null, new NullPointerException("error"));
-    }
-    
-    private void failStoreChild(
-            final ChildStatusEvent event,
-            final String errorCode,
-            final Throwable error,
-            final Exception expected) {
-        try {
-            storage.store(event, errorCode, error);
-            fail("expected exception");
-        } catch (Exception got) {
-            TestCommon.assertExceptionCorrect(got, expected);
+        storage.setProcessingState(events.get(4).getID(), null, unindx);
+        storage.setProcessingState(events.get(5).getID(), null, StatusEventProcessingState.FAIL);
+        // updated too recently to archive
+        when(clock.instant()).thenReturn(Instant.ofEpochMilli(30000));
+        storage.setProcessingState(events.get(6).getID(), null, indx);
+        // event 7 is UNPROC
+        
+        final Instant cutoff = Instant.ofEpochMilli(25000);
+        assertThat("incorrect count", storage.archiveEvents(set(indx, unindx), cutoff, 3),
+                is(3L));
+        assertThat("incorrect count", storage.archiveEvents(set(indx, unindx), cutoff, 0),
+                is(2L));
+        assertThat("incorrect count", storage.archiveEvents(set(indx, unindx), cutoff, 0),
+                is(0L));
+        assertThat("incorrect count", storage.archiveEvents(set(), cutoff, 0), is(0L));
+        
+        assertThat("incorrect db count", db.getCollection("searchEvents").count(), is(3L));
+        assertThat("incorrect archive count", db.getCollection("searchEventsArchive").count(),
+                is(5L));
+        assertThat("incorrect remaining events", storage.get(indx, -1).stream()
+                .map(e -> e.getID()).collect(Collectors.toSet()),
+                is(set(events.get(6).getID())));
+        
+        // archived events are still available by ID
+        for (int i = 0; i < 8; i++) {
+            final StoredStatusEvent got = storage.get(events.get(i).getID()).get();
+            assertThat("incorrect event", got.getEvent(), is(events.get(i).getEvent()));
         }
+        assertThat("incorrect state", storage.get(events.get(4).getID()).get().getState(),
+                is(unindx));
+        // but can't be modified
+        assertThat("incorrect set state", storage.setProcessingState(
+                events.get(0).getID(), null, StatusEventProcessingState.UNPROC), is(false));
     }
     
     @Test
-    public void getFail() {
-        try {
-            storage.get(null);
-            fail("expected exception");
-        } catch (Exception got) {
-            TestCommon.assertExceptionCorrect(got, new NullPointerException("id"));
-        }
+    public void archiveEventsIsIdempotent() throws Exception {
+        when(clock.instant()).thenReturn(Instant.ofEpochMilli(10000));
+        final StoredStatusEvent sse = storage.store(StatusEvent.getBuilder(
+                "WS", Instant.ofEpochMilli(1000), StatusEventType.NEW_VERSION).build(),
+                StatusEventProcessingState.INDX, null, "WSEG");
+        final StoredStatusEvent stored = storage.get(sse.getID()).get();
+        // simulate an archive run that died after copying the event
+        db.getCollection("searchEventsArchive").insertOne(db.getCollection("searchEvents")
+                .find(new Document("_id", new ObjectId(sse.getID().getId()))).first());
+        
+        // events never updated are archived by store time
+        assertThat("incorrect count", storage.archiveEvents(
+                set(StatusEventProcessingState.INDX), Instant.ofEpochMilli(10000), 10), is(0L));
+        assertThat("incorrect count", storage.archiveEvents(
+                set(StatusEventProcessingState.INDX), Instant.ofEpochMilli(10001), 10), is(1L));
+        assertThat("incorrect db count", db.getCollection("searchEvents").count(), is(0L));
+        assertThat("incorrect archive count", db.getCollection("searchEventsArchive").count(),
+                is(1L));
+        assertThat("incorrect event", storage.get(sse.getID()).get(), is(stored));
     }
     
     @Test
-    public void getChildFail() {
+    public void constructFail() {
         try {
-            storage.getChild(null);
+            new MongoDBStatusEventStorage(null);
             fail("expected exception");
         } catch (Exception got) {
-            TestCommon.assertExceptionCorrect(got, new NullPointerException("id"));
+            TestCommon.assertExceptionCorrect(got, new NullPointerException("db"));
         }
-    }
-    
-    @Test
-    public void getByStateFail() {
         try {
-            storage.get(null, -1);
+            new MongoDBStatusEventStorage(db, 0);
             fail("expected exception");
         } catch (Exception got) {
-            TestCommon.assertExceptionCorrect(got, new NullPointerException("state"));
+            TestCommon.assertExceptionCorrect(got, new IllegalArgumentException(
+                    "insertBatchSize must be at least 1"));
         }
-    }
-    
-    @Test
-    public void setProcessingStateFail() {
-        failSetProcessingState(
-                null, StatusEventProcessingState.INDX, new NullPointerException("id"));
-        failSetProcessingState(
-                new StatusEventID("foo"), null, new NullPointerException("newState"));
-    }
-    
-    private void failSetProcessingState(
-            final StatusEventID id,
-            final StatusEventProcessingState state,
-            final Exception expected) {
         try {
-            storage.setProcessingState(id, null, state);
+            new MongoDBStatusEventStorage(db, (MongoDatabase) null);
             fail("expected exception");
         } catch (Exception got) {
-            TestCommon.assertExceptionCorrect(got, expected);
+            TestCommon.assertExceptionCorrect(got, new NullPointerException("oplogDB"));
         }
-    }
-    
-    @Test
-    public void setProcessingStateWithErrorFail() {
-        when(clock.instant()).thenReturn(Instant.ofEpochMilli(100000));
-        
-        final StatusEventID i = new StatusEventID("foo");
-        failSetProcessingState(null, "c", LONG_TRACE_EXCEPTION, new NullPointerException("id"));
-        failSetProcessingState(i, null, LONG_TRACE_EXCEPTION,
-                new IllegalArgumentException("errorCode cannot be null or whitespace only"));
-        failSetProcessingState(i, "   \t \n  ", LONG_TRACE_EXCEPTION,
-                new IllegalArgumentException("errorCode cannot be null or whitespace only"));
-        failSetProcessingState(i, "01234567890123456789a", LONG_TRACE_EXCEPTION,
-                new IllegalArgumentException("errorCode exceeds max length of 20"));
-        failSetProcessingState(i, "c", null, new NullPointerException("error"));
-    }
-    
-    private void failSetProcessingState(
-            final StatusEventID id,
-            final String errorCode,
-            final Throwable error,
-            final Exception expected) {
         try {
-            storage.setProcessingState(id, null, errorCode, error);
+            // the test mongod is not a replica set
+            new MongoDBStatusEventStorage(db, mc.getDatabase("local"));
             fail("expected exception");
         } catch (Exception got) {
-            TestCommon.assertExceptionCorrect(got, expected);
+            TestCommon.assertExceptionCorrect(got, new StorageInitException(
+                    "No oplog found in database local. MongoDB must run as a replica set for " +
+                    "subscriptions to watch the oplog"));
         }
     }
     
@@ -1279,6 +534,19 @@ public class MongoDBStatusEventStorageTest {
                         .append("key", new Document("sttime", 1).append("status", 1))
                         .append("name", "sttime_1_status_1")
                         .append("ns", "test_mongostorage.searchEvents"),
+                new Document()
+                        .append("key", new Document("status", 1).append("lsexp", 1))
+                        .append("name", "status_1_lsexp_1")
+                        .append("ns", "test_mongostorage.searchEvents"),
+                new Document()
+                        .append("key", new Document("status", 1).append("prio", 1)
+                                .append("time", 1))
+                        .append("name", "status_1_prio_1_time_1")
+                        .append("ns", "test_mongostorage.searchEvents"),
+                new Document()
+                        .append("key", new Document("status", 1).append("updte", 1))
+                        .append("name", "status_1_updte_1")
+                        .append("ns", "test_mongostorage.searchEvents"),
                 new Document()
                         .append("key", new Document("_id", 1))
                         .append("name", "_id_")
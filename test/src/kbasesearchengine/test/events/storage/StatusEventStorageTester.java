@@ -0,0 +1,2273 @@
+package kbasesearchengine.test.events.storage;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static kbasesearchengine.test.common.TestCommon.set;
+
+import java.io.PrintWriter;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Range;
+
+import kbasesearchengine.events.ChildStatusEvent;
+import kbasesearchengine.events.FailedChildStatusEvent;
+import kbasesearchengine.events.ObjectIDRange;
+import kbasesearchengine.events.StatusEvent;
+import kbasesearchengine.events.StatusEventID;
+import kbasesearchengine.events.StatusEventPriority;
+import kbasesearchengine.events.StatusEventProcessingState;
+import kbasesearchengine.events.StatusEventType;
+import kbasesearchengine.events.StoredChildStatusEvent;
+import kbasesearchengine.events.StoredStatusEvent;
+import kbasesearchengine.events.exceptions.ErrorType;
+import kbasesearchengine.events.exceptions.FatalRetriableIndexingException;
+import kbasesearchengine.events.exceptions.RetriableIndexingException;
+import kbasesearchengine.events.exceptions.UnprocessableEventIndexingException;
+import kbasesearchengine.events.storage.EventSubscription;
+import kbasesearchengine.events.storage.FailedEventQuery;
+import kbasesearchengine.events.storage.LaneStatistics;
+import kbasesearchengine.events.storage.StatusEventStorage;
+import kbasesearchengine.system.StorageObjectType;
+import kbasesearchengine.test.common.TestCommon;
+
+/** Tests for {@link StatusEventStorage} implementations. Each implementation's test class
+ * extends this class, so that all implementations are verified against the same suite and
+ * have identical semantics. Tests specific to an implementation, such as tests that modify the
+ * underlying database, belong in the subclass.
+ */
+public abstract class StatusEventStorageTester {
+    
+    /* an ID that is a valid mongo object ID but is never generated by the storage systems
+     * under test.
+     */
+    protected static final StatusEventID NO_SUCH_ID = new StatusEventID(
+            "5a0f1b2c3d4e5f6a7b8c9d0e");
+    
+    final private static String LONG1001;
+    final private static String LONG100_001;
+    static {
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            sb.append("01234567890");
+        }
+        sb.append("a");
+        LONG1001 = sb.toString();
+        
+        final StringBuilder sb2 = new StringBuilder();
+        for (int i = 0; i < 10_000; i++) {
+            sb2.append("012345678\n");
+        }
+        sb2.append("a");
+        
+        LONG100_001 = sb2.toString();
+    }
+    
+    @SuppressWarnings("serial")
+    final private Exception LONG_TRACE_EXCEPTION = new Exception("foo") {
+        
+        @Override
+        public void printStackTrace(final PrintWriter pw) {
+            pw.print(LONG100_001);
+        }
+    };
+
+    protected StatusEventStorage storage;
+    protected Clock clock;
+    
+    /** Create the storage system under test. Called before each test with a fresh, empty
+     * storage system.
+     * @param clock the clock for the storage system to use, a mock.
+     * @return the storage system.
+     * @throws Exception if the storage system could not be created.
+     */
+    protected abstract StatusEventStorage createStorage(Clock clock) throws Exception;
+    
+    @Before
+    public void init() throws Exception {
+        clock = mock(Clock.class);
+        storage = createStorage(clock);
+    }
+
+    @Test
+    public void storeAndGetNoTypeEmptyCodesAllFields() throws Exception {
+        // tests with all possible fields in status event
+        when(clock.instant()).thenReturn(Instant.ofEpochMilli(30000L));
+        final StoredStatusEvent sse = storage.store(StatusEvent.getBuilder(
+                "WS", Instant.ofEpochMilli(10000), StatusEventType.COPY_ACCESS_GROUP)
+                .withNullableAccessGroupID(6)
+                .withNullableisPublic(true)
+                .withNullableNewName("foo")
+                .withNullableObjectID("bar")
+                .withNullableVersion(7)
+                .withNullableObjectIDRange(new ObjectIDRange(1, 10000))
+                .build(),
+                StatusEventProcessingState.UNPROC,
+                set(),
+                "Baldrick");
+        
+        assertThat("incorrect state", sse.getState(), is(StatusEventProcessingState.UNPROC));
+        assertThat("incorrect updater", sse.getUpdater(), is(Optional.absent()));
+        assertThat("incorrect update time", sse.getUpdateTime(), is(Optional.absent()));
+        assertThat("incorrect event", sse.getEvent(), is(StatusEvent.getBuilder(
+                "WS", Instant.ofEpochMilli(10000), StatusEventType.COPY_ACCESS_GROUP)
+                .withNullableAccessGroupID(6)
+                .withNullableisPublic(true)
+                .withNullableNewName("foo")
+                .withNullableObjectID("bar")
+                .withNullableVersion(7)
+                .withNullableObjectIDRange(new ObjectIDRange(1, 10000))
+                .build()));
+        assertThat("incorrect worker codes", sse.getWorkerCodes(), is(set("default")));
+        assertThat("incorrect stored by", sse.getStoredBy(), is(Optional.of("Baldrick")));
+        assertThat("incorrect store time", sse.getStoreTime(),
+                is(Optional.of(Instant.ofEpochMilli(30000L))));
+        assertThat("incorrect error code", sse.getErrorCode(), is(Optional.absent()));
+        assertThat("incorrect error msg", sse.getErrorMessage(), is(Optional.absent()));
+        assertThat("incorrect error trace", sse.getErrorStackTrace(), is(Optional.absent()));
+        assertNotNull("id is null", sse.getID());
+        
+        final StoredStatusEvent got = storage.get(sse.getID()).get();
+        
+        assertThat("ids don't match", got.getID(), is(sse.getID()));
+        assertThat("incorrect state", got.getState(), is(StatusEventProcessingState.UNPROC));
+        assertThat("incorrect updater", got.getUpdater(), is(Optional.absent()));
+        assertThat("incorrect update time", got.getUpdateTime(), is(Optional.absent()));
+        assertThat("incorrect event", got.getEvent(), is(StatusEvent.getBuilder(
+                "WS", Instant.ofEpochMilli(10000), StatusEventType.COPY_ACCESS_GROUP)
+                .withNullableAccessGroupID(6)
+                .withNullableisPublic(true)
+                .withNullableNewName("foo")
+                .withNullableObjectID("bar")
+                .withNullableVersion(7)
+                .withNullableObjectIDRange(new ObjectIDRange(1, 10000))
+                .build()));
+        assertThat("incorrect worker codes", got.getWorkerCodes(), is(set("default")));
+        assertThat("incorrect stored by", got.getStoredBy(), is(Optional.of("Baldrick")));
+        assertThat("incorrect store time", got.getStoreTime(),
+                is(Optional.of(Instant.ofEpochMilli(30000L))));
+        assertThat("incorrect error code", got.getErrorCode(), is(Optional.absent()));
+        assertThat("incorrect error msg", got.getErrorMessage(), is(Optional.absent()));
+        assertThat("incorrect error trace", got.getErrorStackTrace(), is(Optional.absent()));
+    }
+    
+    @Test
+    public void storeAndGetNoTypeWithCodes() throws Exception {
+        when(clock.instant()).thenReturn(Instant.ofEpochMilli(30000L));
+        final StoredStatusEvent sse = storage.store(StatusEvent.getBuilder(
+                "WS", Instant.ofEpochMilli(10000), StatusEventType.COPY_ACCESS_GROUP).build(),
+                StatusEventProcessingState.UNPROC,
+                set("business", "numbers"),
+                "WSEG");
+        
+        assertThat("incorrect state", sse.getState(), is(StatusEventProcessingState.UNPROC));
+        assertThat("incorrect updater", sse.getUpdater(), is(Optional.absent()));
+        assertThat("incorrect update time", sse.getUpdateTime(), is(Optional.absent()));
+        assertThat("incorrect event", sse.getEvent(), is(StatusEvent.getBuilder(
+                "WS", Instant.ofEpochMilli(10000), StatusEventType.COPY_ACCESS_GROUP)
+                .build()));
+        assertThat("incorrect worker codes", sse.getWorkerCodes(), is(set("business", "numbers")));
+        assertThat("incorrect stored by", sse.getStoredBy(), is(Optional.of("WSEG")));
+        assertThat("incorrect store time", sse.getStoreTime(),
+                is(Optional.of(Instant.ofEpochMilli(30000L))));
+        assertThat("incorrect error code", sse.getErrorCode(), is(Optional.absent()));
+        assertThat("incorrect error msg", sse.getErrorMessage(), is(Optional.absent()));
+        assertThat("incorrect error trace", sse.getErrorStackTrace(), is(Optional.absent()));
+        
+        assertNotNull("id is null", sse.getID());
+        
+        final StoredStatusEvent got = storage.get(sse.getID()).get();
+        
+        assertThat("ids don't match", got.getID(), is(sse.getID()));
+        assertThat("incorrect state", got.getState(), is(StatusEventProcessingState.UNPROC));
+        assertThat("incorrect updater", got.getUpdater(), is(Optional.absent()));
+        assertThat("incorrect update time", got.getUpdateTime(), is(Optional.absent()));
+        assertThat("incorrect event", got.getEvent(), is(StatusEvent.getBuilder(
+                "WS", Instant.ofEpochMilli(10000), StatusEventType.COPY_ACCESS_GROUP)
+                .build()));
+        assertThat("incorrect worker codes", got.getWorkerCodes(), is(set("business", "numbers")));
+        assertThat("incorrect stored by", got.getStoredBy(), is(Optional.of("WSEG")));
+        assertThat("incorrect store time", got.getStoreTime(),
+                is(Optional.of(Instant.ofEpochMilli(30000L))));
+        assertThat("incorrect error code", got.getErrorCode(), is(Optional.absent()));
+        assertThat("incorrect error msg", got.getErrorMessage(), is(Optional.absent()));
+        assertThat("incorrect error trace", got.getErrorStackTrace(), is(Optional.absent()));
+    }
+    
+    @Test
+    public void storeAndGetWithTypeMinimalFields() throws Exception {
+        // tests with minimal possible fields in status event
+        when(clock.instant()).thenReturn(Instant.ofEpochMilli(40000L));
+        final StorageObjectType sot = new StorageObjectType("foo", "bar", 9);
+        final StoredStatusEvent sse = storage.store(StatusEvent.getBuilder(
+                sot, Instant.ofEpochMilli(20000), StatusEventType.DELETE_ALL_VERSIONS).build(),
+                StatusEventProcessingState.FAIL, null, "WSEG");
+        
+        assertThat("incorrect state", sse.getState(), is(StatusEventProcessingState.FAIL));
+        assertThat("incorrect updater", sse.getUpdater(), is(Optional.absent()));
+        assertThat("incorrect update time", sse.getUpdateTime(), is(Optional.absent()));
+        assertThat("incorrect event", sse.getEvent(), is(StatusEvent.getBuilder(
+                new StorageObjectType("foo", "bar", 9), Instant.ofEpochMilli(20000),
+                    StatusEventType.DELETE_ALL_VERSIONS)
+                .build()));
+        assertNotNull("id is null", sse.getID());
+        assertThat("incorrect worker codes", sse.getWorkerCodes(), is(set("default")));
+        assertThat("incorrect stored by", sse.getStoredBy(), is(Optional.of("WSEG")));
+        assertThat("incorrect store time", sse.getStoreTime(),
+                is(Optional.of(Instant.ofEpochMilli(40000L))));
+        assertThat("incorrect error code", sse.getErrorCode(), is(Optional.absent()));
+        assertThat("incorrect error msg", sse.getErrorMessage(), is(Optional.absent()));
+        assertThat("incorrect error trace", sse.getErrorStackTrace(), is(Optional.absent()));
+        
+        final StoredStatusEvent got = storage.get(sse.getID()).get();
+        
+        assertThat("ids don't match", got.getID(), is(sse.getID()));
+        assertThat("incorrect state", got.getState(), is(StatusEventProcessingState.FAIL));
+        assertThat("incorrect updater", got.getUpdater(), is(Optional.absent()));
+        assertThat("incorrect update time", got.getUpdateTime(), is(Optional.absent()));
+        assertThat("incorrect event", got.getEvent(), is(StatusEvent.getBuilder(
+                new StorageObjectType("foo", "bar", 9), Instant.ofEpochMilli(20000),
+                StatusEventType.DELETE_ALL_VERSIONS).build()));
+        assertThat("incorrect worker codes", got.getWorkerCodes(), is(set("default")));
+        assertThat("incorrect stored by", got.getStoredBy(), is(Optional.of("WSEG")));
+        assertThat("incorrect store time", got.getStoreTime(),
+                is(Optional.of(Instant.ofEpochMilli(40000L))));
+        assertThat("incorrect error code", got.getErrorCode(), is(Optional.absent()));
+        assertThat("incorrect error msg", got.getErrorMessage(), is(Optional.absent()));
+        assertThat("incorrect error trace", got.getErrorStackTrace(), is(Optional.absent()));
+    }
+    
+    @Test
+    public void storeAndGetNonExistant() throws Exception {
+        when(clock.instant()).thenReturn(Instant.ofEpochMilli(100000L));
+        final StorageObjectType sot = new StorageObjectType("foo", "bar", 9);
+        final StoredStatusEvent sse = storage.store(StatusEvent.getBuilder(
+                sot, Instant.ofEpochMilli(20000), StatusEventType.DELETE_ALL_VERSIONS).build(),
+                StatusEventProcessingState.FAIL, null, "WS");
+        
+        assertThat("incorrect state", sse.getState(), is(StatusEventProcessingState.FAIL));
+        assertThat("incorrect updater", sse.getUpdater(), is(Optional.absent()));
+        assertThat("incorrect update time", sse.getUpdateTime(), is(Optional.absent()));
+        assertThat("incorrect event", sse.getEvent(), is(StatusEvent.getBuilder(
+                new StorageObjectType("foo", "bar", 9), Instant.ofEpochMilli(20000),
+                    StatusEventType.DELETE_ALL_VERSIONS)
+                .build()));
+        assertNotNull("id is null", sse.getID());
+        assertThat("incorrect worker codes", sse.getWorkerCodes(), is(set("default")));
+        assertThat("incorrect stored by", sse.getStoredBy(), is(Optional.of("WS")));
+        assertThat("incorrect store time", sse.getStoreTime(),
+                is(Optional.of(Instant.ofEpochMilli(100000L))));
+        assertThat("incorrect error code", sse.getErrorCode(), is(Optional.absent()));
+        assertThat("incorrect error msg", sse.getErrorMessage(), is(Optional.absent()));
+        assertThat("incorrect error trace", sse.getErrorStackTrace(), is(Optional.absent()));
+        
+        final Optional<StoredStatusEvent> got = storage.get(
+                NO_SUCH_ID);
+        assertThat("expected absent", got, is(Optional.absent()));
+    }
+    
+    @Test
+    public void storeAndGetWithPriority() throws Exception {
+        when(clock.instant()).thenReturn(Instant.ofEpochMilli(30000L));
+        final StatusEvent event = StatusEvent.getBuilder(
+                "WS", Instant.ofEpochMilli(10000), StatusEventType.NEW_VERSION)
+                .withNullableAccessGroupID(6)
+                .withNullableObjectID("3")
+                .build();
+        final StoredStatusEvent sse = storage.store(event, StatusEventProcessingState.UNPROC,
+                null, "WSEG", StatusEventPriority.BULK);
+        
+        assertThat("incorrect priority", sse.getPriority(), is(StatusEventPriority.BULK));
+        assertThat("incorrect stored event", storage.get(sse.getID()).get(), is(sse));
+        
+        final StoredStatusEvent sse2 = storage.store(event, StatusEventProcessingState.UNPROC,
+                null, "WSEG");
+        assertThat("incorrect priority", sse2.getPriority(),
+                is(StatusEventPriority.INTERACTIVE));
+        assertThat("incorrect stored event", storage.get(sse2.getID()).get(), is(sse2));
+    }
+    
+    @Test
+    public void storeAndGetChildNoTypeAllFields() throws Exception {
+        // tests with all possible fields in status event
+        when(clock.instant()).thenReturn(Instant.ofEpochMilli(30000L));
+        final StoredChildStatusEvent sse = storage.store(new ChildStatusEvent(
+                StatusEvent.getBuilder(
+                    "WS", Instant.ofEpochMilli(10000), StatusEventType.COPY_ACCESS_GROUP)
+                    .withNullableAccessGroupID(6)
+                    .withNullableisPublic(true)
+                    .withNullableNewName("foo")
+                    .withNullableObjectID("bar")
+                    .withNullableVersion(7)
+                    .withNullableObjectIDRange(new ObjectIDRange(1, 10000))
+                    .build(),
+                    new StatusEventID("parent id")),
+                "DELETED",
+                new UnprocessableEventIndexingException(ErrorType.DELETED, "deleted"));
+        
+        assertThat("incorrect state", sse.getState(), is(StatusEventProcessingState.FAIL));
+        assertThat("incorrect event", sse.getChildEvent(), is(new ChildStatusEvent(
+                StatusEvent.getBuilder(
+                        "WS", Instant.ofEpochMilli(10000), StatusEventType.COPY_ACCESS_GROUP)
+                        .withNullableAccessGroupID(6)
+                        .withNullableisPublic(true)
+                        .withNullableNewName("foo")
+                        .withNullableObjectID("bar")
+                        .withNullableVersion(7)
+                        .withNullableObjectIDRange(new ObjectIDRange(1, 10000))
+                        .build(),
+                new StatusEventID("parent id"))));
+        assertThat("incorrect store time", sse.getStoreTime(), is(Instant.ofEpochMilli(30000L)));
+        assertThat("incorrect error code", sse.getErrorCode(), is(Optional.of("DELETED")));
+        assertThat("incorrect error msg", sse.getErrorMessage(), is(Optional.of("deleted")));
+        assertThat("incorrect error trace",
+                sse.getErrorStackTrace().get().contains("IndexingException: deleted"), is(true));
+        assertNotNull("id is null", sse.getID());
+        
+        final StoredChildStatusEvent got = storage.getChild(sse.getID()).get();
+        
+        assertThat("ids don't match", got.getID(), is(sse.getID()));
+        assertThat("incorrect state", got.getState(), is(StatusEventProcessingState.FAIL));
+        assertThat("incorrect event", got.getChildEvent(), is(new ChildStatusEvent(
+                StatusEvent.getBuilder(
+                        "WS", Instant.ofEpochMilli(10000), StatusEventType.COPY_ACCESS_GROUP)
+                        .withNullableAccessGroupID(6)
+                        .withNullableisPublic(true)
+                        .withNullableNewName("foo")
+                        .withNullableObjectID("bar")
+                        .withNullableVersion(7)
+                        .withNullableObjectIDRange(new ObjectIDRange(1, 10000))
+                        .build(),
+                new StatusEventID("parent id"))));
+        assertThat("incorrect store time", got.getStoreTime(), is(Instant.ofEpochMilli(30000L)));
+        assertThat("incorrect error code", got.getErrorCode(), is(Optional.of("DELETED")));
+        assertThat("incorrect error msg", got.getErrorMessage(), is(Optional.of("deleted")));
+        assertThat("incorrect error trace",
+                got.getErrorStackTrace().get().contains("IndexingException: deleted"), is(true));
+    }
+    
+    @Test
+    public void storeAndGetChildWithTypeMinimalFields() throws Exception {
+        final StorageObjectType sot = new StorageObjectType("foo", "bar", 9);
+        when(clock.instant()).thenReturn(Instant.ofEpochMilli(30000L));
+        final StoredChildStatusEvent sse = storage.store(new ChildStatusEvent(
+                StatusEvent.getBuilder(
+                        sot, Instant.ofEpochMilli(10000), StatusEventType.COPY_ACCESS_GROUP)
+                                .build(),
+                        new StatusEventID("parent id")),
+                "DELETED",
+                new UnprocessableEventIndexingException(ErrorType.DELETED, "deleted"));
+        
+        assertThat("incorrect state", sse.getState(), is(StatusEventProcessingState.FAIL));
+        assertThat("incorrect event", sse.getChildEvent(), is(new ChildStatusEvent(
+                StatusEvent.getBuilder(
+                        sot, Instant.ofEpochMilli(10000), StatusEventType.COPY_ACCESS_GROUP)
+                                .build(),
+                        new StatusEventID("parent id"))));
+        assertThat("incorrect store time", sse.getStoreTime(), is(Instant.ofEpochMilli(30000L)));
+        assertThat("incorrect error code", sse.getErrorCode(), is(Optional.of("DELETED")));
+        assertThat("incorrect error msg", sse.getErrorMessage(), is(Optional.of("deleted")));
+        assertThat("incorrect error trace",
+                sse.getErrorStackTrace().get().contains("IndexingException: deleted"), is(true));
+        assertNotNull("id is null", sse.getID());
+        
+        final StoredChildStatusEvent got = storage.getChild(sse.getID()).get();
+        
+        assertThat("ids don't match", got.getID(), is(sse.getID()));
+        assertThat("incorrect state", got.getState(), is(StatusEventProcessingState.FAIL));
+        assertThat("incorrect event", got.getChildEvent(), is(new ChildStatusEvent(
+                StatusEvent.getBuilder(
+                        sot, Instant.ofEpochMilli(10000), StatusEventType.COPY_ACCESS_GROUP)
+                                .build(),
+                        new StatusEventID("parent id"))));
+        assertThat("incorrect store time", got.getStoreTime(), is(Instant.ofEpochMilli(30000L)));
+        assertThat("incorrect error code", got.getErrorCode(), is(Optional.of("DELETED")));
+        assertThat("incorrect error msg", got.getErrorMessage(), is(Optional.of("deleted")));
+        assertThat("incorrect error trace",
+                got.getErrorStackTrace().get().contains("IndexingException: deleted"), is(true));
+    }
+    
+    @Test
+    public void storeAndGetChildWithErrMsgTruncation() throws Exception {
+        when(clock.instant()).thenReturn(Instant.ofEpochMilli(30000L));
+        final StoredChildStatusEvent sse = storage.store(new ChildStatusEvent(
+                StatusEvent.getBuilder(
+                    "WS", Instant.ofEpochMilli(10000), StatusEventType.COPY_ACCESS_GROUP)
+                    .build(),
+                    new StatusEventID("parent id")),
+                "DELETED",
+                new UnprocessableEventIndexingException(ErrorType.DELETED, LONG1001));
+
+        final String msgExpected = LONG1001.substring(0, 997) + "...";
+        
+        assertThat("incorrect error msg", sse.getErrorMessage(), is(Optional.of(msgExpected)));
+        
+        final StoredChildStatusEvent got = storage.getChild(sse.getID()).get();
+        
+        assertThat("incorrect error msg", got.getErrorMessage(), is(Optional.of(msgExpected)));
+    }
+    
+    @Test
+    public void storeAndGetChildWithTraceTruncation() throws Exception {
+        when(clock.instant()).thenReturn(Instant.ofEpochMilli(30000L));
+        final StoredChildStatusEvent sse = storage.store(new ChildStatusEvent(
+                StatusEvent.getBuilder(
+                    "WS", Instant.ofEpochMilli(10000), StatusEventType.COPY_ACCESS_GROUP)
+                    .build(),
+                    new StatusEventID("parent id")),
+                "DELETED",
+                LONG_TRACE_EXCEPTION);
+
+        final String traceExpected = LONG100_001.substring(0, 99997) + "...";
+        
+        assertThat("incorrect error msg", sse.getErrorStackTrace(),
+                is(Optional.of(traceExpected)));
+        
+        final StoredChildStatusEvent got = storage.getChild(sse.getID()).get();
+        
+        assertThat("incorrect error msg", got.getErrorStackTrace(),
+                is(Optional.of(traceExpected)));
+    }
+    
+    @Test
+    public void storeAndGetChildNonExistant() throws Exception {
+        when(clock.instant()).thenReturn(Instant.ofEpochMilli(100000L));
+        final StoredChildStatusEvent sse = storage.store(new ChildStatusEvent(
+                StatusEvent.getBuilder(
+                        "WS", Instant.ofEpochMilli(20000), StatusEventType.DELETE_ALL_VERSIONS)
+                                .build(),
+                new StatusEventID("parent id")),
+                "DELETED",
+                new UnprocessableEventIndexingException(ErrorType.DELETED, "deleted"));
+        
+        assertThat("incorrect state", sse.getState(), is(StatusEventProcessingState.FAIL));
+        assertThat("incorrect event", sse.getChildEvent(), is(new ChildStatusEvent(
+                StatusEvent.getBuilder(
+                        "WS", Instant.ofEpochMilli(20000), StatusEventType.DELETE_ALL_VERSIONS)
+                                .build(),
+                new StatusEventID("parent id"))));
+        assertNotNull("id is null", sse.getID());
+        assertThat("incorrect store time", sse.getStoreTime(), is(Instant.ofEpochMilli(100000L)));
+        assertThat("incorrect error code", sse.getErrorCode(), is(Optional.of("DELETED")));
+        assertThat("incorrect error msg", sse.getErrorMessage(), is(Optional.of("deleted")));
+        assertThat("incorrect error trace",
+                sse.getErrorStackTrace().get().contains("IndexingException: deleted"), is(true));
+        
+        final Optional<StoredChildStatusEvent> got = storage.getChild(
+                NO_SUCH_ID);
+        assertThat("expected absent", got, is(Optional.absent()));
+    }
+    
+    @Test
+    public void storeAllAndGet() throws Exception {
+        when(clock.instant()).thenReturn(Instant.ofEpochMilli(30000L));
+        final List<StatusEvent> events = new ArrayList<>();
+        for (int i = 0; i < 7; i++) {
+            events.add(StatusEvent.getBuilder(
+                    "WS", Instant.ofEpochMilli(10000 + i), StatusEventType.NEW_VERSION)
+                    .withNullableAccessGroupID(6)
+                    .withNullableObjectID("" + i)
+                    .withNullableVersion(1)
+                    .build());
+        }
+        
+        final List<StoredStatusEvent> stored = storage.storeAll(events,
+                StatusEventProcessingState.UNPROC, set("foo"), "WSEG");
+        
+        assertThat("incorrect count", stored.size(), is(7));
+        for (int i = 0; i < 7; i++) {
+            final StoredStatusEvent sse = stored.get(i);
+            assertThat("incorrect event", sse.getEvent(), is(events.get(i)));
+            assertThat("incorrect state", sse.getState(),
+                    is(StatusEventProcessingState.UNPROC));
+            assertThat("incorrect worker codes", sse.getWorkerCodes(), is(set("foo")));
+            assertThat("incorrect stored by", sse.getStoredBy(), is(Optional.of("WSEG")));
+            assertThat("incorrect store time", sse.getStoreTime(),
+                    is(Optional.of(Instant.ofEpochMilli(30000L))));
+            assertThat("incorrect stored event", storage.get(sse.getID()).get(), is(sse));
+        }
+        
+        assertThat("incorrect stored", storage.storeAll(Collections.emptyList(),
+                StatusEventProcessingState.UNPROC, null, "WSEG"),
+                is(Collections.emptyList()));
+    }
+    
+    @Test
+    public void storeAllWithPriority() throws Exception {
+        when(clock.instant()).thenReturn(Instant.ofEpochMilli(30000L));
+        final List<StoredStatusEvent> stored = storage.storeAll(Arrays.asList(
+                StatusEvent.getBuilder(
+                        "WS", Instant.ofEpochMilli(10000), StatusEventType.NEW_VERSION).build(),
+                StatusEvent.getBuilder(
+                        "WS", Instant.ofEpochMilli(20000), StatusEventType.NEW_VERSION).build()),
+                StatusEventProcessingState.UNPROC, null, "WSEG", StatusEventPriority.BULK);
+        
+        assertThat("incorrect count", stored.size(), is(2));
+        for (final StoredStatusEvent sse: stored) {
+            assertThat("incorrect priority", sse.getPriority(), is(StatusEventPriority.BULK));
+            assertThat("incorrect stored event", storage.get(sse.getID()).get(), is(sse));
+        }
+    }
+    
+    @Test
+    public void storeAllDefaultWorkerCode() throws Exception {
+        when(clock.instant()).thenReturn(Instant.ofEpochMilli(30000L));
+        final List<StoredStatusEvent> stored = storage.storeAll(Arrays.asList(
+                StatusEvent.getBuilder(
+                        "WS", Instant.ofEpochMilli(10000), StatusEventType.NEW_VERSION).build()),
+                StatusEventProcessingState.READY, set(), "WSEG");
+        
+        assertThat("incorrect worker codes", stored.get(0).getWorkerCodes(),
+                is(set("default")));
+        assertThat("incorrect stored event", storage.get(stored.get(0).getID()).get(),
+                is(stored.get(0)));
+    }
+    
+    @Test
+    public void storeAllUnique() throws Exception {
+        when(clock.instant()).thenReturn(Instant.ofEpochMilli(30000L));
+        final Map<String, StatusEvent> events = new LinkedHashMap<>();
+        for (int i = 0; i < 4; i++) {
+            events.put("WS:6/" + i + "/1", StatusEvent.getBuilder(
+                    "WS", Instant.ofEpochMilli(10000 + i), StatusEventType.NEW_VERSION)
+                    .withNullableAccessGroupID(6)
+                    .withNullableObjectID("" + i)
+                    .withNullableVersion(1)
+                    .build());
+        }
+        final List<StoredStatusEvent> stored = storage.storeAllUnique(events,
+                StatusEventProcessingState.UNPROC, set("foo"), "WSEG", StatusEventPriority.BULK);
+        
+        assertThat("incorrect count", stored.size(), is(4));
+        final List<StatusEvent> values = new ArrayList<>(events.values());
+        for (int i = 0; i < 4; i++) {
+            final StoredStatusEvent sse = stored.get(i);
+            assertThat("incorrect event", sse.getEvent(), is(values.get(i)));
+            assertThat("incorrect worker codes", sse.getWorkerCodes(), is(set("foo")));
+            assertThat("incorrect priority", sse.getPriority(), is(StatusEventPriority.BULK));
+            assertThat("incorrect stored event", storage.get(sse.getID()).get(), is(sse));
+        }
+        
+        // archived events still block storage of events with the same key
+        when(clock.instant()).thenReturn(Instant.ofEpochMilli(40000L));
+        storage.setProcessingState(
+                stored.get(0).getID(), null, StatusEventProcessingState.INDX);
+        assertThat("incorrect archive count", storage.archiveEvents(
+                set(StatusEventProcessingState.INDX), Instant.ofEpochMilli(50000L), 0), is(1L));
+        
+        final StatusEvent newEvent = StatusEvent.getBuilder(
+                "WS", Instant.ofEpochMilli(20000), StatusEventType.NEW_VERSION)
+                .withNullableAccessGroupID(6)
+                .withNullableObjectID("4")
+                .withNullableVersion(1)
+                .build();
+        final Map<String, StatusEvent> again = new LinkedHashMap<>();
+        again.put("WS:6/0/1", values.get(0));
+        again.put("WS:6/4/1", newEvent);
+        again.put("WS:6/2/1", values.get(2));
+        final List<StoredStatusEvent> stored2 = storage.storeAllUnique(again,
+                StatusEventProcessingState.UNPROC, null, "WSEG", StatusEventPriority.BULK);
+        
+        assertThat("incorrect count", stored2.size(), is(1));
+        assertThat("incorrect event", stored2.get(0).getEvent(), is(newEvent));
+        assertThat("incorrect worker codes", stored2.get(0).getWorkerCodes(),
+                is(set("default")));
+        assertThat("incorrect unproc count",
+                storage.get(StatusEventProcessingState.UNPROC, -1).size(), is(4));
+        
+        assertThat("incorrect stored", storage.storeAllUnique(Collections.emptyMap(),
+                StatusEventProcessingState.UNPROC, null, "WSEG", StatusEventPriority.BULK),
+                is(Collections.emptyList()));
+    }
+    
+    @Test
+    public void storeAllUniqueFail() {
+        final StatusEvent event = StatusEvent.getBuilder(
+                "Ws", Instant.ofEpochMilli(10000), StatusEventType.NEW_ALL_VERSIONS).build();
+        final Map<String, StatusEvent> events = ImmutableMap.of("k", event);
+        final StatusEventProcessingState s = StatusEventProcessingState.UNINDX;
+        final StatusEventPriority p = StatusEventPriority.BULK;
+        final Map<String, StatusEvent> nullKey = new HashMap<>();
+        nullKey.put(null, event);
+        final Map<String, StatusEvent> nullEvent = new HashMap<>();
+        nullEvent.put("k", null);
+        
+        failStoreAllUnique(null, s, null, "s", p, new NullPointerException("newEvents"));
+        failStoreAllUnique(nullKey, s, null, "s", p,
+                new IllegalArgumentException("null or whitespace only key in newEvents"));
+        failStoreAllUnique(ImmutableMap.of("  \t  ", event), s, null, "s", p,
+                new IllegalArgumentException("null or whitespace only key in newEvents"));
+        failStoreAllUnique(nullEvent, s, null, "s", p,
+                new NullPointerException("null event in newEvents"));
+        failStoreAllUnique(events, null, null, "s", p, new NullPointerException("state"));
+        failStoreAllUnique(events, s, set("foo", null), "s", p,
+                new IllegalArgumentException("null or whitespace only item in workerCodes"));
+        failStoreAllUnique(events, s, set(), "   \t   \n  ", p,
+                new IllegalArgumentException("storedBy cannot be null or whitespace only"));
+        failStoreAllUnique(events, s, set(), "s", null, new NullPointerException("priority"));
+    }
+    
+    private void failStoreAllUnique(
+            final Map<String, StatusEvent> events,
+            final StatusEventProcessingState state,
+            final Set<String> workerCodes,
+            final String storedBy,
+            final StatusEventPriority priority,
+            final Exception expected) {
+        try {
+            storage.storeAllUnique(events, state, workerCodes, storedBy, priority);
+            fail("expected exception");
+        } catch (Exception got) {
+            TestCommon.assertExceptionCorrect(got, expected);
+        }
+    }
+    
+    @Test
+    public void storeAllChildrenAndGet() throws Exception {
+        when(clock.instant()).thenReturn(Instant.ofEpochMilli(30000L));
+        final List<FailedChildStatusEvent> events = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            events.add(new FailedChildStatusEvent(new ChildStatusEvent(
+                    StatusEvent.getBuilder(
+                            "WS", Instant.ofEpochMilli(10000 + i), StatusEventType.NEW_VERSION)
+                            .withNullableObjectID("" + i)
+                            .build(),
+                    new StatusEventID("parent id")),
+                    "DELETED",
+                    new UnprocessableEventIndexingException(ErrorType.DELETED, "deleted " + i)));
+        }
+        
+        final List<StoredChildStatusEvent> stored = storage.storeAllChildren(events);
+        
+        assertThat("incorrect count", stored.size(), is(5));
+        for (int i = 0; i < 5; i++) {
+            final StoredChildStatusEvent sse = stored.get(i);
+            assertThat("incorrect event", sse.getChildEvent(), is(events.get(i).getEvent()));
+            assertThat("incorrect state", sse.getState(), is(StatusEventProcessingState.FAIL));
+            assertThat("incorrect store time", sse.getStoreTime(),
+                    is(Instant.ofEpochMilli(30000L)));
+            assertThat("incorrect error code", sse.getErrorCode(), is(Optional.of("DELETED")));
+            assertThat("incorrect error msg", sse.getErrorMessage(),
+                    is(Optional.of("deleted " + i)));
+            assertThat("incorrect stored event", storage.getChild(sse.getID()).get(), is(sse));
+        }
+        
+        assertThat("incorrect stored", storage.storeAllChildren(Collections.emptyList()),
+                is(Collections.emptyList()));
+    }
+    
+    @Test
+    public void subscribe() throws Exception {
+        when(clock.instant()).thenReturn(Instant.ofEpochMilli(30000L));
+        final StatusEvent event = StatusEvent.getBuilder(
+                "WS", Instant.ofEpochMilli(10000), StatusEventType.NEW_VERSION).build();
+        // events stored before the subscription don't trigger it
+        storage.store(event, StatusEventProcessingState.UNPROC, null, "WSEG");
+        
+        final EventSubscription closed;
+        try (final EventSubscription sub = storage.subscribe(StatusEventProcessingState.UNPROC)) {
+            closed = sub;
+            assertThat("incorrect await", sub.await(200, TimeUnit.MILLISECONDS), is(false));
+            
+            storage.store(event, StatusEventProcessingState.UNPROC, null, "WSEG");
+            storage.store(event, StatusEventProcessingState.UNPROC, null, "WSEG");
+            Thread.sleep(500); // let both notifications arrive
+            assertThat("incorrect await", sub.await(5, TimeUnit.SECONDS), is(true));
+            // notifications are collapsed
+            assertThat("incorrect await", sub.await(200, TimeUnit.MILLISECONDS), is(false));
+            
+            // other states don't trigger the subscription
+            storage.store(event, StatusEventProcessingState.READY, null, "WSEG");
+            assertThat("incorrect await", sub.await(200, TimeUnit.MILLISECONDS), is(false));
+            
+            final Instant start = Instant.now();
+            storage.storeAll(Arrays.asList(event, event), StatusEventProcessingState.UNPROC,
+                    null, "WSEG");
+            assertThat("incorrect await", sub.await(5, TimeUnit.SECONDS), is(true));
+            TestCommon.assertCloseMS(start, Instant.now(), 0, 1000);
+        }
+        // closed subscriptions aren't triggered
+        storage.store(event, StatusEventProcessingState.UNPROC, null, "WSEG");
+        assertThat("incorrect await", closed.await(200, TimeUnit.MILLISECONDS), is(false));
+    }
+    
+    @Test
+    public void subscribeFail() {
+        try {
+            storage.subscribe(null);
+            fail("expected exception");
+        } catch (Exception got) {
+            TestCommon.assertExceptionCorrect(got, new NullPointerException("state"));
+        }
+    }
+    
+    @Test
+    public void setProcessingStateWithoutOldState() throws Exception {
+        when(clock.instant()).thenReturn(Instant.ofEpochMilli(10000), Instant.ofEpochMilli(60000));
+        final StoredStatusEvent sse = storage.store(StatusEvent.getBuilder(
+                "KE", Instant.ofEpochMilli(30000), StatusEventType.COPY_ACCESS_GROUP).build(),
+                StatusEventProcessingState.UNPROC, null, "WSEG");
+        
+        
+        final boolean success = storage.setProcessingState(
+                sse.getID(), null, StatusEventProcessingState.FAIL);
+        assertThat("expected success", success, is(true));
+        
+        final StoredStatusEvent got = storage.get(sse.getID()).get();
+        assertThat("ids don't match", got.getID(), is(sse.getID()));
+        assertThat("incorrect state", got.getState(), is(StatusEventProcessingState.FAIL));
+        assertThat("incorrect updater", got.getUpdater(), is(Optional.absent()));
+        assertThat("incorrect update time", got.getUpdateTime(),
+                is(Optional.of(Instant.ofEpochMilli(60000))));
+        assertThat("incorrect event", got.getEvent(), is(StatusEvent.getBuilder(
+                "KE", Instant.ofEpochMilli(30000), StatusEventType.COPY_ACCESS_GROUP).build()));
+        assertThat("incorrect worker codes", got.getWorkerCodes(), is(set("default")));
+        assertThat("incorrect stored by", got.getStoredBy(), is(Optional.of("WSEG")));
+        assertThat("incorrect store time", got.getStoreTime(),
+                is(Optional.of(Instant.ofEpochMilli(10000L))));
+        assertThat("incorrect error code", got.getErrorCode(), is(Optional.absent()));
+        assertThat("incorrect error msg", got.getErrorMessage(), is(Optional.absent()));
+        assertThat("incorrect error trace", got.getErrorStackTrace(), is(Optional.absent()));
+    }
+    
+    @Test
+    public void setProcessingStateWithOldState() throws Exception {
+        when(clock.instant()).thenReturn(Instant.ofEpochMilli(40000), Instant.ofEpochMilli(10000));
+        final StoredStatusEvent sse = storage.store(StatusEvent.getBuilder(
+                "KE", Instant.ofEpochMilli(30000), StatusEventType.COPY_ACCESS_GROUP).build(),
+                StatusEventProcessingState.UNPROC, null, "WSEG");
+        
+        final boolean success = storage.setProcessingState(
+                sse.getID(), StatusEventProcessingState.UNPROC, StatusEventProcessingState.FAIL);
+        assertThat("expected success", success, is(true));
+        
+        final StoredStatusEvent got = storage.get(sse.getID()).get();
+        assertThat("ids don't match", got.getID(), is(sse.getID()));
+        assertThat("incorrect state", got.getState(), is(StatusEventProcessingState.FAIL));
+        assertThat("incorrect updater", got.getUpdater(), is(Optional.absent()));
+        assertThat("incorrect update time", got.getUpdateTime(),
+                is(Optional.of(Instant.ofEpochMilli(10000))));
+        assertThat("incorrect event", got.getEvent(), is(StatusEvent.getBuilder(
+                "KE", Instant.ofEpochMilli(30000), StatusEventType.COPY_ACCESS_GROUP).build()));
+        assertThat("incorrect worker codes", got.getWorkerCodes(), is(set("default")));
+        assertThat("incorrect stored by", got.getStoredBy(), is(Optional.of("WSEG")));
+        assertThat("incorrect store time", got.getStoreTime(),
+                is(Optional.of(Instant.ofEpochMilli(40000L))));
+        assertThat("incorrect error code", got.getErrorCode(), is(Optional.absent()));
+        assertThat("incorrect error msg", got.getErrorMessage(), is(Optional.absent()));
+        assertThat("incorrect error trace", got.getErrorStackTrace(), is(Optional.absent()));
+    }
+    
+    @Test
+    public void setProcessingStateWithErrorWithoutOldState() throws Exception {
+        when(clock.instant()).thenReturn(Instant.ofEpochMilli(10000), Instant.ofEpochMilli(60000));
+        final StoredStatusEvent sse = storage.store(StatusEvent.getBuilder(
+                "KE", Instant.ofEpochMilli(30000), StatusEventType.COPY_ACCESS_GROUP).build(),
+                StatusEventProcessingState.UNPROC, null, "WSEG");
+        
+        final boolean success = storage.setProcessingState(
+                sse.getID(), null, "DELETED",
+                new UnprocessableEventIndexingException(ErrorType.DELETED, "deleted"));
+        assertThat("expected success", success, is(true));
+        
+        final StoredStatusEvent got = storage.get(sse.getID()).get();
+        assertThat("ids don't match", got.getID(), is(sse.getID()));
+        assertThat("incorrect state", got.getState(), is(StatusEventProcessingState.FAIL));
+        assertThat("incorrect updater", got.getUpdater(), is(Optional.absent()));
+        assertThat("incorrect update time", got.getUpdateTime(),
+                is(Optional.of(Instant.ofEpochMilli(60000))));
+        assertThat("incorrect event", got.getEvent(), is(StatusEvent.getBuilder(
+                "KE", Instant.ofEpochMilli(30000), StatusEventType.COPY_ACCESS_GROUP).build()));
+        assertThat("incorrect worker codes", got.getWorkerCodes(), is(set("default")));
+        assertThat("incorrect stored by", got.getStoredBy(), is(Optional.of("WSEG")));
+        assertThat("incorrect store time", got.getStoreTime(),
+                is(Optional.of(Instant.ofEpochMilli(10000L))));
+        assertThat("incorrect error code", got.getErrorCode(), is(Optional.of("DELETED")));
+        assertThat("incorrect error msg", got.getErrorMessage(), is(Optional.of("deleted")));
+        assertThat("incorrect error trace",
+                got.getErrorStackTrace().get().contains("IndexingException: deleted"), is(true));
+    }
+    
+    @Test
+    public void setProcessingStateWithErrorWithOldState() throws Exception {
+        when(clock.instant()).thenReturn(Instant.ofEpochMilli(40000), Instant.ofEpochMilli(10000));
+        final StoredStatusEvent sse = storage.store(StatusEvent.getBuilder(
+                "KE", Instant.ofEpochMilli(30000), StatusEventType.COPY_ACCESS_GROUP).build(),
+                StatusEventProcessingState.UNPROC, null, "WSEG");
+        
+        final boolean success = storage.setProcessingState(
+                sse.getID(), StatusEventProcessingState.UNPROC, "DELETED",
+                new UnprocessableEventIndexingException(ErrorType.DELETED, "deleted"));
+        assertThat("expected success", success, is(true));
+        
+        final StoredStatusEvent got = storage.get(sse.getID()).get();
+        assertThat("ids don't match", got.getID(), is(sse.getID()));
+        assertThat("incorrect state", got.getState(), is(StatusEventProcessingState.FAIL));
+        assertThat("incorrect updater", got.getUpdater(), is(Optional.absent()));
+        assertThat("incorrect update time", got.getUpdateTime(),
+                is(Optional.of(Instant.ofEpochMilli(10000))));
+        assertThat("incorrect event", got.getEvent(), is(StatusEvent.getBuilder(
+                "KE", Instant.ofEpochMilli(30000), StatusEventType.COPY_ACCESS_GROUP).build()));
+        assertThat("incorrect worker codes", got.getWorkerCodes(), is(set("default")));
+        assertThat("incorrect stored by", got.getStoredBy(), is(Optional.of("WSEG")));
+        assertThat("incorrect store time", got.getStoreTime(),
+                is(Optional.of(Instant.ofEpochMilli(40000L))));
+        assertThat("incorrect error code", got.getErrorCode(), is(Optional.of("DELETED")));
+        assertThat("incorrect error msg", got.getErrorMessage(), is(Optional.of("deleted")));
+        assertThat("incorrect error trace",
+                got.getErrorStackTrace().get().contains("IndexingException: deleted"), is(true));
+    }
+    
+    @Test
+    public void setProcessingStateWithErrorWithErrMsgTruncation() throws Exception {
+        when(clock.instant()).thenReturn(Instant.ofEpochMilli(40000), Instant.ofEpochMilli(10000));
+        final StoredStatusEvent sse = storage.store(StatusEvent.getBuilder(
+                "KE", Instant.ofEpochMilli(30000), StatusEventType.COPY_ACCESS_GROUP).build(),
+                StatusEventProcessingState.UNPROC, null, "WSEG");
+        
+        final boolean success = storage.setProcessingState(
+                sse.getID(), StatusEventProcessingState.UNPROC, "DELETED",
+                new UnprocessableEventIndexingException(ErrorType.DELETED, LONG1001));
+        assertThat("expected success", success, is(true));
+        
+        final String msgExpected = LONG1001.substring(0, 997) + "...";
+        
+        final StoredStatusEvent got = storage.get(sse.getID()).get();
+        
+        assertThat("incorrect error msg", got.getErrorMessage(), is(Optional.of(msgExpected)));
+    }
+    
+    @Test
+    public void setProcessingStateWithErrorWithErrTraceTruncation() throws Exception {
+        when(clock.instant()).thenReturn(Instant.ofEpochMilli(40000), Instant.ofEpochMilli(10000));
+        final StoredStatusEvent sse = storage.store(StatusEvent.getBuilder(
+                "KE", Instant.ofEpochMilli(30000), StatusEventType.COPY_ACCESS_GROUP).build(),
+                StatusEventProcessingState.UNPROC, null, "WSEG");
+        
+        final boolean success = storage.setProcessingState(
+                sse.getID(), StatusEventProcessingState.UNPROC, "DELETED",
+                LONG_TRACE_EXCEPTION);
+        assertThat("expected success", success, is(true));
+        
+        final StoredStatusEvent got = storage.get(sse.getID()).get();
+
+        final String traceExpected = LONG100_001.substring(0, 99997) + "...";
+        
+        assertThat("incorrect error msg", got.getErrorStackTrace(),
+                is(Optional.of(traceExpected)));
+    }
+    
+    @Test
+    public void setProcessingStateFailNonExistant() throws Exception {
+        when(clock.instant()).thenReturn(Instant.now());
+        storage.store(StatusEvent.getBuilder(
+                "FE", Instant.ofEpochMilli(30000), StatusEventType.COPY_ACCESS_GROUP).build(),
+                StatusEventProcessingState.UNPROC, null, "WS");
+        
+        
+        final boolean success = storage.setProcessingState(
+                NO_SUCH_ID, null,
+                StatusEventProcessingState.FAIL);
+        
+        assertThat("expected fail", success, is(false));
+        
+        final boolean success2 = storage.setProcessingState(
+                NO_SUCH_ID, null, "DELETED",
+                new UnprocessableEventIndexingException(ErrorType.DELETED, "deleted"));
+        
+        assertThat("expected fail", success2, is(false));
+    }
+    
+    @Test
+    public void setProcessingStateFailNoSuchState() throws Exception {
+        when(clock.instant()).thenReturn(Instant.now());
+        final StoredStatusEvent sse = storage.store(StatusEvent.getBuilder(
+                "FE", Instant.ofEpochMilli(30000), StatusEventType.COPY_ACCESS_GROUP).build(),
+                StatusEventProcessingState.UNPROC, null, "WS");
+        
+        final boolean success = storage.setProcessingState(sse.getID(),
+                StatusEventProcessingState.READY, StatusEventProcessingState.FAIL);
+        
+        assertThat("expected fail", success, is(false));
+        
+        final boolean success2 = storage.setProcessingState(sse.getID(),
+                StatusEventProcessingState.READY, "DELETED",
+                new UnprocessableEventIndexingException(ErrorType.DELETED, "deleted"));
+        
+        assertThat("expected fail", success2, is(false));
+    }
+    
+    private static final Consumer<StatusEventID> NOOP = id -> {};
+    
+    @Test
+    public void getAndSetProcessingWithSortAndNullCodes() throws Exception {
+        getAndSetProcessingWithSort(null, NOOP);
+    }
+    
+    @Test
+    public void getAndSetProcessingWithSortAndEmptyCodes() throws Exception {
+        getAndSetProcessingWithSort(set(), NOOP);
+    }
+    
+    @Test
+    public void getAndSetProcessingWithSortAndDefaultCode() throws Exception {
+        getAndSetProcessingWithSort(set("default"), NOOP);
+    }
+    
+    @Test
+    public void getAndSetProcessingWithSortAndDefaultPlusCodes() throws Exception {
+        getAndSetProcessingWithSort(set("default", "foo"), NOOP);
+    }
+    
+    @Test
+    public void getAndSetProcessingWithSortAndSpecificCodes() throws Exception {
+        getAndSetProcessingWithSort(set("bar"), set("baz"), set("bar"));
+    }
+    
+    @Test
+    public void getAndSetProcessingWithSortAndSpecificOverlappingCodes() throws Exception {
+        getAndSetProcessingWithSort(set("foo", "bar"), set("foo", "baz"), set("bar"));
+    }
+    
+    @Test
+    public void getAndSetProcessingWithSortAndSameCodes() throws Exception {
+        // tests sort
+        getAndSetProcessingWithSort(set("foo", "baz"), set("foo", "baz"), set("baz"));
+    }
+
+    protected void getAndSetProcessingWithSort(
+            final Set<String> searchWorkerCodes,
+            final Consumer<StatusEventID> operation)
+            throws RetriableIndexingException, FatalRetriableIndexingException {
+        getAndSetProcessingWithSort(null, set("default"), null, searchWorkerCodes, operation);
+    }
+    
+    private void getAndSetProcessingWithSort(
+            final Set<String> storedWorkerCodes,
+            final Set<String> otherEventWorkerCodes,
+            final Set<String> searchWorkerCodes)
+            throws FatalRetriableIndexingException, RetriableIndexingException {
+        getAndSetProcessingWithSort(storedWorkerCodes, storedWorkerCodes, otherEventWorkerCodes,
+                searchWorkerCodes, NOOP);
+    }
+    
+    private void getAndSetProcessingWithSort(
+            final Set<String> storedWorkerCodes,
+            final Set<String> expectedWorkerCodes,
+            final Set<String> otherEventWorkerCodes,
+            final Set<String> searchWorkerCodes,
+            final Consumer<StatusEventID> operation)
+            throws RetriableIndexingException, FatalRetriableIndexingException {
+        // test that the event that is updated is the oldest event
+        when(clock.instant()).thenReturn(Instant.ofEpochMilli(100000));
+        store(2, 200, StatusEventProcessingState.READY, otherEventWorkerCodes);
+        final StorageObjectType sot = new StorageObjectType("foo", "bar", 9);
+        final StoredStatusEvent sse = storage.store(StatusEvent.getBuilder(
+                sot, Instant.ofEpochMilli(1000), StatusEventType.COPY_ACCESS_GROUP)
+                .withNullableAccessGroupID(6)
+                .withNullableisPublic(true)
+                .withNullableNewName("foo")
+                .withNullableObjectID("bar")
+                .withNullableVersion(7)
+                .build(),
+                StatusEventProcessingState.READY,
+                storedWorkerCodes,
+                "WSEG");
+        store(201, 400, StatusEventProcessingState.READY, otherEventWorkerCodes);
+        
+        operation.accept(sse.getID());
+        
+        final StoredStatusEvent ret = storage.setAndGetProcessingState(
+                StatusEventProcessingState.READY, searchWorkerCodes,
+                StatusEventProcessingState.PROC, "whee")
+                .get();
+        assertThat("incorrect state", ret.getState(), is(StatusEventProcessingState.PROC));
+        assertThat("incorrect updater", ret.getUpdater(), is(Optional.of("whee")));
+        assertThat("incorrect update time", ret.getUpdateTime(),
+                is(Optional.of(Instant.ofEpochMilli(100000))));
+        assertThat("incorrect event", ret.getEvent(), is(StatusEvent.getBuilder(
+                sot, Instant.ofEpochMilli(1000), StatusEventType.COPY_ACCESS_GROUP)
+                .withNullableAccessGroupID(6)
+                .withNullableisPublic(true)
+                .withNullableNewName("foo")
+                .withNullableObjectID("bar")
+                .withNullableVersion(7)
+                .build()));
+        assertThat("ids don't match", ret.getID(), is(sse.getID()));
+        assertThat("incorrect worker codes", ret.getWorkerCodes(), is(expectedWorkerCodes));
+        assertThat("incorrect stored by", ret.getStoredBy(), is(Optional.of("WSEG")));
+        assertThat("incorrect store time", ret.getStoreTime(),
+                is(Optional.of(Instant.ofEpochMilli(100000L))));
+        
+        final StoredStatusEvent got = storage.get(sse.getID()).get();
+        assertThat("incorrect state", got.getState(), is(StatusEventProcessingState.PROC));
+        assertThat("incorrect updater", got.getUpdater(), is(Optional.of("whee")));
+        assertThat("incorrect update time", got.getUpdateTime(),
+                is(Optional.of(Instant.ofEpochMilli(100000))));
+        assertThat("incorrect event", got.getEvent(), is(StatusEvent.getBuilder(
+                sot, Instant.ofEpochMilli(1000), StatusEventType.COPY_ACCESS_GROUP)
+                .withNullableAccessGroupID(6)
+                .withNullableisPublic(true)
+                .withNullableNewName("foo")
+                .withNullableObjectID("bar")
+                .withNullableVersion(7)
+                .build()));
+        assertThat("ids don't match", got.getID(), is(sse.getID()));
+        assertThat("incorrect worker codes", got.getWorkerCodes(), is(expectedWorkerCodes));
+        assertThat("incorrect stored by", got.getStoredBy(), is(Optional.of("WSEG")));
+        assertThat("incorrect store time", got.getStoreTime(),
+                is(Optional.of(Instant.ofEpochMilli(100000L))));
+    }
+    
+    @Test
+    public void getAndSetProcessingSortWithCodes() throws Exception {
+        // tests that earlier events with different codes will be skipped
+        // and that the newest event with matching codes is returned
+        when(clock.instant()).thenReturn(Instant.ofEpochMilli(100000));
+        store(1, 10, StatusEventProcessingState.READY, set("foo"));
+        store(12, 20, StatusEventProcessingState.READY, set("bar"));
+        final StorageObjectType sot = new StorageObjectType("foo", "bar", 9);
+        final StoredStatusEvent sse = storage.store(StatusEvent.getBuilder(
+                sot, Instant.ofEpochMilli(11000), StatusEventType.COPY_ACCESS_GROUP)
+                .withNullableAccessGroupID(6)
+                .withNullableisPublic(true)
+                .withNullableNewName("foo")
+                .withNullableObjectID("bar")
+                .withNullableVersion(7)
+                .build(),
+                StatusEventProcessingState.READY,
+                set("bar"),
+                "WSEG");
+        
+        
+        final StoredStatusEvent ret = storage.setAndGetProcessingState(
+                StatusEventProcessingState.READY, set("bar"),
+                StatusEventProcessingState.PROC, "whee")
+                .get();
+        assertThat("incorrect state", ret.getState(), is(StatusEventProcessingState.PROC));
+        assertThat("incorrect updater", ret.getUpdater(), is(Optional.of("whee")));
+        assertThat("incorrect update time", ret.getUpdateTime(),
+                is(Optional.of(Instant.ofEpochMilli(100000))));
+        assertThat("incorrect event", ret.getEvent(), is(StatusEvent.getBuilder(
+                sot, Instant.ofEpochMilli(11000), StatusEventType.COPY_ACCESS_GROUP)
+                .withNullableAccessGroupID(6)
+                .withNullableisPublic(true)
+                .withNullableNewName("foo")
+                .withNullableObjectID("bar")
+                .withNullableVersion(7)
+                .build()));
+        assertThat("ids don't match", ret.getID(), is(sse.getID()));
+        assertThat("incorrect worker codes", ret.getWorkerCodes(), is(set("bar")));
+        assertThat("incorrect stored by", ret.getStoredBy(), is(Optional.of("WSEG")));
+        assertThat("incorrect store time", ret.getStoreTime(),
+                is(Optional.of(Instant.ofEpochMilli(100000L))));
+        
+        final StoredStatusEvent got = storage.get(sse.getID()).get();
+        assertThat("incorrect state", got.getState(), is(StatusEventProcessingState.PROC));
+        assertThat("incorrect updater", got.getUpdater(), is(Optional.of("whee")));
+        assertThat("incorrect update time", got.getUpdateTime(),
+                is(Optional.of(Instant.ofEpochMilli(100000))));
+        assertThat("incorrect event", got.getEvent(), is(StatusEvent.getBuilder(
+                sot, Instant.ofEpochMilli(11000), StatusEventType.COPY_ACCESS_GROUP)
+                .withNullableAccessGroupID(6)
+                .withNullableisPublic(true)
+                .withNullableNewName("foo")
+                .withNullableObjectID("bar")
+                .withNullableVersion(7)
+                .build()));
+        assertThat("ids don't match", got.getID(), is(sse.getID()));
+        assertThat("incorrect worker codes", got.getWorkerCodes(), is(set("bar")));
+        assertThat("incorrect stored by", got.getStoredBy(), is(Optional.of("WSEG")));
+        assertThat("incorrect store time", got.getStoreTime(),
+                is(Optional.of(Instant.ofEpochMilli(100000L))));
+    }
+    
+    @Test
+    public void getAndSetProcessingNonExistantOnState() throws Exception {
+        when(clock.instant()).thenReturn(Instant.now());
+        final StorageObjectType sot = new StorageObjectType("foo", "bar", 9);
+        storage.store(StatusEvent.getBuilder(
+                sot, Instant.ofEpochMilli(10000), StatusEventType.COPY_ACCESS_GROUP)
+                .withNullableAccessGroupID(6)
+                .withNullableisPublic(true)
+                .withNullableNewName("foo")
+                .withNullableObjectID("bar")
+                .withNullableVersion(7)
+                .build(),
+                StatusEventProcessingState.UNPROC,
+                null,
+                "WS");
+        
+        final Optional<StoredStatusEvent> ret = storage.setAndGetProcessingState(
+                StatusEventProcessingState.READY, null, StatusEventProcessingState.PROC, "whee");
+        assertThat("expected absent", ret, is(Optional.absent()));
+    }
+    
+    @Test
+    public void getAndSetProcessingNonExistantOnWorkerCode() throws Exception {
+        when(clock.instant()).thenReturn(Instant.now());
+        store(1, 2, StatusEventProcessingState.READY, set("foo"));
+        store(1, 2, StatusEventProcessingState.READY, set("bar"));
+        
+        when(clock.instant()).thenReturn(Instant.now());
+        
+        final Optional<StoredStatusEvent> ret = storage.setAndGetProcessingState(
+                StatusEventProcessingState.READY, set("baz"),
+                StatusEventProcessingState.PROC, "whee");
+        assertThat("expected absent", ret, is(Optional.absent()));
+    }
+    
+    @Test
+    public void setAndGetProcessingFail() {
+        failSetAndGetProcessing(null, null, StatusEventProcessingState.FAIL, "foo",
+                new NullPointerException("oldState"));
+        failSetAndGetProcessing(StatusEventProcessingState.FAIL, null, null, "foo",
+                new NullPointerException("newState"));
+        failSetAndGetProcessing(StatusEventProcessingState.UNPROC, null,
+                StatusEventProcessingState.READY, null,
+                new IllegalArgumentException("updater cannot be null or whitespace"));
+        failSetAndGetProcessing(StatusEventProcessingState.UNPROC, null,
+                StatusEventProcessingState.READY, "   \t \n  ",
+                new IllegalArgumentException("updater cannot be null or whitespace"));
+        failSetAndGetProcessing(StatusEventProcessingState.UNPROC, set("foo", null),
+                StatusEventProcessingState.FAIL, "foo",
+                new NullPointerException("null item in workerCodes"));
+    }
+    
+    private void failSetAndGetProcessing(
+            final StatusEventProcessingState oldState,
+            final Set<String> workerCodes,
+            final StatusEventProcessingState newState,
+            final String updater,
+            final Exception expected) {
+        try {
+            storage.setAndGetProcessingState(oldState, workerCodes, newState, updater);
+            fail("expected exception");
+        } catch (Exception got) {
+            TestCommon.assertExceptionCorrect(got, expected);
+        }
+    }
+    
+    @Test
+    public void claimEvents() throws Exception {
+        when(clock.instant()).thenReturn(Instant.ofEpochMilli(100000));
+        store(1, 20, StatusEventProcessingState.READY, null);
+        store(21, 30, StatusEventProcessingState.READY, set("foo"));
+        store(31, 40, StatusEventProcessingState.UNPROC, null);
+        
+        when(clock.instant()).thenReturn(Instant.ofEpochMilli(200000));
+        final List<StoredStatusEvent> ret = storage.claimEvents(
+                StatusEventProcessingState.READY, null, StatusEventProcessingState.PROC,
+                "worker1", 15, Duration.ofSeconds(60));
+        
+        assertThat("incorrect count", ret.size(), is(15));
+        for (int i = 0; i < 15; i++) {
+            final StoredStatusEvent e = ret.get(i);
+            assertThat("incorrect order", e.getEvent().getTimestamp(),
+                    is(Instant.ofEpochMilli((i + 1) * 1000)));
+            assertThat("incorrect state", e.getState(), is(StatusEventProcessingState.PROC));
+            assertThat("incorrect updater", e.getUpdater(), is(Optional.of("worker1")));
+            assertThat("incorrect update time", e.getUpdateTime(),
+                    is(Optional.of(Instant.ofEpochMilli(200000))));
+            assertThat("incorrect lease owner", e.getLeaseOwner(), is(Optional.of("worker1")));
+            assertThat("incorrect lease expiry", e.getLeaseExpiry(),
+                    is(Optional.of(Instant.ofEpochMilli(260000))));
+            assertThat("incorrect stored event", storage.get(e.getID()).get(), is(e));
+        }
+        
+        // claimed events can't be claimed again, and events for other worker codes are skipped
+        final List<StoredStatusEvent> ret2 = storage.claimEvents(
+                StatusEventProcessingState.READY, null, StatusEventProcessingState.PROC,
+                "worker2", 100, Duration.ofSeconds(60));
+        assertThat("incorrect count", ret2.size(), is(5));
+        for (int i = 0; i < 5; i++) {
+            assertThat("incorrect order", ret2.get(i).getEvent().getTimestamp(),
+                    is(Instant.ofEpochMilli((i + 16) * 1000)));
+            assertThat("incorrect lease owner", ret2.get(i).getLeaseOwner(),
+                    is(Optional.of("worker2")));
+        }
+        
+        assertThat("incorrect count", storage.claimEvents(
+                StatusEventProcessingState.READY, set("foo"), StatusEventProcessingState.PROC,
+                "worker3", 0, Duration.ofSeconds(60)).size(), is(10));
+        assertThat("incorrect count", storage.claimEvents(
+                StatusEventProcessingState.READY, null, StatusEventProcessingState.PROC,
+                "worker3", 0, Duration.ofSeconds(60)), is(Collections.emptyList()));
+        assertThat("incorrect count", storage.get(StatusEventProcessingState.UNPROC, 100).size(),
+                is(10));
+    }
+    
+    @Test
+    public void claimEventsWithPriorityLanes() throws Exception {
+        when(clock.instant()).thenReturn(Instant.ofEpochMilli(100000));
+        // the bulk events are older, but shouldn't starve the interactive events
+        store(1, 10, StatusEventProcessingState.READY, null, StatusEventPriority.BULK);
+        store(11, 30, StatusEventProcessingState.READY, null, StatusEventPriority.INTERACTIVE);
+        final StatusEventProcessingState r = StatusEventProcessingState.READY;
+        final StatusEventProcessingState p = StatusEventProcessingState.PROC;
+        final Duration d = Duration.ofSeconds(60);
+        
+        // 4:1 weighting
+        final List<StoredStatusEvent> ret = storage.claimEvents(r, null, p, "w", 10, d);
+        assertThat("incorrect count", ret.size(), is(10));
+        assertThat("incorrect bulk events", getTimes(ret, StatusEventPriority.BULK),
+                is(Arrays.asList(1, 2)));
+        assertThat("incorrect interactive events",
+                getTimes(ret, StatusEventPriority.INTERACTIVE),
+                is(Arrays.asList(11, 12, 13, 14, 15, 16, 17, 18)));
+        for (int i = 1; i < ret.size(); i++) {
+            assertThat("incorrect order", ret.get(i - 1).getEvent().getTimestamp()
+                    .isBefore(ret.get(i).getEvent().getTimestamp()), is(true));
+        }
+        
+        // single event claims rotate through the lanes
+        final List<Integer> single = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            final List<StoredStatusEvent> one = storage.claimEvents(r, null, p, "w", 1, d);
+            assertThat("incorrect count", one.size(), is(1));
+            single.add((int) one.get(0).getEvent().getTimestamp().toEpochMilli() / 1000);
+        }
+        assertThat("incorrect single claims", single, is(Arrays.asList(19, 20, 21, 22, 3)));
+        
+        // unused shares spill over to the other lane
+        final List<StoredStatusEvent> rest = storage.claimEvents(r, null, p, "w", 100, d);
+        assertThat("incorrect bulk events", getTimes(rest, StatusEventPriority.BULK),
+                is(Arrays.asList(4, 5, 6, 7, 8, 9, 10)));
+        assertThat("incorrect interactive events",
+                getTimes(rest, StatusEventPriority.INTERACTIVE),
+                is(Arrays.asList(23, 24, 25, 26, 27, 28, 29, 30)));
+        
+        store(31, 33, StatusEventProcessingState.READY, null, StatusEventPriority.BULK);
+        assertThat("incorrect bulk events", getTimes(storage.claimEvents(r, null, p, "w", 2, d),
+                StatusEventPriority.BULK), is(Arrays.asList(31, 32)));
+    }
+    
+    @Test
+    public void getByPriority() throws Exception {
+        when(clock.instant()).thenReturn(Instant.ofEpochMilli(100000));
+        final StatusEventProcessingState u = StatusEventProcessingState.UNPROC;
+        // a backfill sized bulk backlog, older than the interactive events
+        final List<StatusEvent> backfill = new ArrayList<>();
+        for (int time = 1; time <= 5000; time++) {
+            backfill.add(StatusEvent.getBuilder("foo", Instant.ofEpochMilli(time * 1000),
+                    StatusEventType.NEW_VERSION).build());
+        }
+        storage.storeAll(backfill, u, null, "WSEG", StatusEventPriority.BULK);
+        store(6001, 6005, u, null, StatusEventPriority.INTERACTIVE);
+        store(6006, 6006, StatusEventProcessingState.READY, null,
+                StatusEventPriority.INTERACTIVE);
+        
+        // loading by timestamp only returns the backlog
+        assertThat("incorrect interactive events", getTimes(storage.get(u, 10),
+                StatusEventPriority.INTERACTIVE), is(Collections.emptyList()));
+        
+        // all the interactive events fit in their share, the remainder goes to the bulk lane
+        final List<StoredStatusEvent> ret = storage.getByPriority(u, 10);
+        assertThat("incorrect count", ret.size(), is(10));
+        assertThat("incorrect interactive events",
+                getTimes(ret, StatusEventPriority.INTERACTIVE),
+                is(Arrays.asList(6001, 6002, 6003, 6004, 6005)));
+        assertThat("incorrect bulk events", getTimes(ret, StatusEventPriority.BULK),
+                is(Arrays.asList(1, 2, 3, 4, 5)));
+        for (int i = 1; i < ret.size(); i++) {
+            assertThat("incorrect order", ret.get(i - 1).getEvent().getTimestamp()
+                    .isBefore(ret.get(i).getEvent().getTimestamp()), is(true));
+        }
+        // getting events doesn't change them
+        assertThat("incorrect state", ret.get(0).getState(), is(u));
+        assertThat("incorrect count", storage.getByPriority(u, 10).size(), is(10));
+        
+        // 4:1 weighting
+        store(6007, 6030, u, null, StatusEventPriority.INTERACTIVE);
+        final List<StoredStatusEvent> ret2 = storage.getByPriority(u, 10);
+        assertThat("incorrect bulk events", getTimes(ret2, StatusEventPriority.BULK),
+                is(Arrays.asList(1, 2)));
+        assertThat("incorrect interactive events",
+                getTimes(ret2, StatusEventPriority.INTERACTIVE),
+                is(Arrays.asList(6001, 6002, 6003, 6004, 6005, 6007, 6008, 6009)));
+        
+        // a limit < 1 or > 10000 returns up to 10000 events
+        assertThat("incorrect count", storage.getByPriority(u, -1).size(), is(5029));
+        assertThat("incorrect count", storage.getByPriority(u, 20000).size(), is(5029));
+    }
+    
+    private List<Integer> getTimes(
+            final List<StoredStatusEvent> events,
+            final StatusEventPriority priority) {
+        return events.stream().filter(e -> e.getPriority().equals(priority))
+                .map(e -> (int) e.getEvent().getTimestamp().toEpochMilli() / 1000)
+                .sorted().collect(Collectors.toList());
+    }
+    
+    @Test
+    public void getLaneStatistics() throws Exception {
+        when(clock.instant()).thenReturn(Instant.ofEpochMilli(100000));
+        final StatusEventProcessingState r = StatusEventProcessingState.READY;
+        final StatusEventPriority i = StatusEventPriority.INTERACTIVE;
+        final StatusEventPriority b = StatusEventPriority.BULK;
+        
+        Map<StatusEventPriority, LaneStatistics> stats = storage.getLaneStatistics(r);
+        assertThat("incorrect stats", stats.get(i), is(new LaneStatistics(i, 0, null)));
+        assertThat("incorrect stats", stats.get(b), is(new LaneStatistics(b, 0, null)));
+        
+        store(5, 10, r, null, b);
+        store(8, 9, r, null, i);
+        store(2, 3, StatusEventProcessingState.UNPROC, null, i);
+        // the default priority is interactive
+        storage.store(StatusEvent.getBuilder(
+                "foo", Instant.ofEpochMilli(7000), StatusEventType.NEW_VERSION).build(),
+                r, null, "WSEG");
+        
+        stats = storage.getLaneStatistics(r);
+        assertThat("incorrect stats", stats.get(i),
+                is(new LaneStatistics(i, 3, Instant.ofEpochMilli(7000))));
+        assertThat("incorrect stats", stats.get(b),
+                is(new LaneStatistics(b, 6, Instant.ofEpochMilli(5000))));
+        assertThat("incorrect age", stats.get(b).getAge(Instant.ofEpochMilli(100000)),
+                is(Optional.of(Duration.ofSeconds(95))));
+        assertThat("incorrect lanes", stats.keySet(), is(set(i, b)));
+        
+        try {
+            storage.getLaneStatistics(null);
+            fail("expected exception");
+        } catch (Exception got) {
+            TestCommon.assertExceptionCorrect(got, new NullPointerException("state"));
+        }
+    }
+
+    @Test
+    public void getWorkerCodeCounts() throws Exception {
+        when(clock.instant()).thenReturn(Instant.ofEpochMilli(100000));
+        final StatusEventProcessingState r = StatusEventProcessingState.READY;
+        final StatusEventPriority i = StatusEventPriority.INTERACTIVE;
+
+        assertThat("incorrect counts", storage.getWorkerCodeCounts(r),
+                is(Collections.emptyMap()));
+
+        store(1, 3, r, null, i);
+        store(1, 2, r, set("foo"), StatusEventPriority.BULK);
+        store(1, 4, r, set("foo", "bar", "default"), i);
+        store(1, 5, StatusEventProcessingState.UNPROC, set("baz"), i);
+
+        final Map<String, Long> expected = new HashMap<>();
+        expected.put("default", 7L);
+        expected.put("foo", 6L);
+        expected.put("bar", 4L);
+        assertThat("incorrect counts", storage.getWorkerCodeCounts(r), is(expected));
+
+        try {
+            storage.getWorkerCodeCounts(null);
+            fail("expected exception");
+        } catch (Exception got) {
+            TestCommon.assertExceptionCorrect(got, new NullPointerException("state"));
+        }
+    }
+
+    @Test
+    public void getEventTypeCounts() throws Exception {
+        final StatusEventProcessingState r = StatusEventProcessingState.READY;
+        final StatusEventProcessingState x = StatusEventProcessingState.INDX;
+        final StatusEventProcessingState f = StatusEventProcessingState.FAIL;
+        when(clock.instant()).thenReturn(Instant.ofEpochMilli(10000), Instant.ofEpochMilli(20000),
+                Instant.ofEpochMilli(30000), Instant.ofEpochMilli(40000),
+                Instant.ofEpochMilli(50000));
+
+        final List<StoredStatusEvent> stored = storage.storeAll(Arrays.asList(
+                StatusEvent.getBuilder("foo", Instant.ofEpochMilli(1000),
+                        StatusEventType.NEW_VERSION).build(),
+                StatusEvent.getBuilder("foo", Instant.ofEpochMilli(2000),
+                        StatusEventType.NEW_VERSION).build(),
+                StatusEvent.getBuilder("foo", Instant.ofEpochMilli(3000),
+                        StatusEventType.DELETE_ALL_VERSIONS).build(),
+                StatusEvent.getBuilder("foo", Instant.ofEpochMilli(4000),
+                        StatusEventType.NEW_VERSION).build(),
+                StatusEvent.getBuilder("foo", Instant.ofEpochMilli(5000),
+                        StatusEventType.RENAME_ALL_VERSIONS).build()),
+                r, null, "WSEG");
+
+        // stored events have no update time and are never counted
+        assertThat("incorrect counts", storage.getEventTypeCounts(set(r), Instant.EPOCH),
+                is(Collections.emptyMap()));
+
+        storage.setProcessingState(stored.get(0).getID(), r, x); // updated at 20s
+        storage.setProcessingState(stored.get(1).getID(), r, x); // 30s
+        storage.setProcessingState(stored.get(2).getID(), r, f); // 40s
+        storage.setProcessingState(stored.get(3).getID(), r, x); // 50s
+        storage.setProcessingState(stored.get(4).getID(), r, x); // 50s
+
+        final Map<StatusEventType, Long> expected = new HashMap<>();
+        expected.put(StatusEventType.NEW_VERSION, 2L);
+        expected.put(StatusEventType.DELETE_ALL_VERSIONS, 1L);
+        expected.put(StatusEventType.RENAME_ALL_VERSIONS, 1L);
+        assertThat("incorrect counts", storage.getEventTypeCounts(
+                set(x, f), Instant.ofEpochMilli(30000)), is(expected));
+
+        expected.clear();
+        expected.put(StatusEventType.NEW_VERSION, 3L);
+        expected.put(StatusEventType.RENAME_ALL_VERSIONS, 1L);
+        assertThat("incorrect counts", storage.getEventTypeCounts(
+                set(x), Instant.ofEpochMilli(20000)), is(expected));
+
+        assertThat("incorrect counts", storage.getEventTypeCounts(
+                set(x, f), Instant.ofEpochMilli(50001)), is(Collections.emptyMap()));
+        assertThat("incorrect counts", storage.getEventTypeCounts(
+                set(), Instant.EPOCH), is(Collections.emptyMap()));
+    }
+
+    @Test
+    public void getEventTypeCountsFail() {
+        final Set<StatusEventProcessingState> s = set(StatusEventProcessingState.INDX);
+        failGetEventTypeCounts(null, Instant.EPOCH, new NullPointerException("states"));
+        failGetEventTypeCounts(set(StatusEventProcessingState.INDX, null), Instant.EPOCH,
+                new NullPointerException("null item in states"));
+        failGetEventTypeCounts(s, null, new NullPointerException("updatedSince"));
+    }
+
+    private void failGetEventTypeCounts(
+            final Set<StatusEventProcessingState> states,
+            final Instant updatedSince,
+            final Exception expected) {
+        try {
+            storage.getEventTypeCounts(states, updatedSince);
+            fail("expected exception");
+        } catch (Exception got) {
+            TestCommon.assertExceptionCorrect(got, expected);
+        }
+    }
+
+    @Test
+    public void claimEventsFail() {
+        final StatusEventProcessingState r = StatusEventProcessingState.READY;
+        final StatusEventProcessingState p = StatusEventProcessingState.PROC;
+        final Duration d = Duration.ofSeconds(1);
+        failClaimEvents(null, null, p, "foo", d, new NullPointerException("oldState"));
+        failClaimEvents(r, null, null, "foo", d, new NullPointerException("newState"));
+        failClaimEvents(r, null, p, null, d, new IllegalArgumentException(
+                "leaseOwner cannot be null or whitespace"));
+        failClaimEvents(r, null, p, "   \t \n  ", d, new IllegalArgumentException(
+                "leaseOwner cannot be null or whitespace"));
+        failClaimEvents(r, null, p, "foo", null, new NullPointerException("leaseDuration"));
+        failClaimEvents(r, null, p, "foo", Duration.ZERO, new IllegalArgumentException(
+                "leaseDuration must be positive"));
+        failClaimEvents(r, null, p, "foo", Duration.ofMillis(-1), new IllegalArgumentException(
+                "leaseDuration must be positive"));
+        failClaimEvents(r, set("foo", null), p, "foo", d,
+                new NullPointerException("null item in workerCodes"));
+    }
+    
+    private void failClaimEvents(
+            final StatusEventProcessingState oldState,
+            final Set<String> workerCodes,
+            final StatusEventProcessingState newState,
+            final String leaseOwner,
+            final Duration leaseDuration,
+            final Exception expected) {
+        try {
+            storage.claimEvents(oldState, workerCodes, newState, leaseOwner, 10, leaseDuration);
+            fail("expected exception");
+        } catch (Exception got) {
+            TestCommon.assertExceptionCorrect(got, expected);
+        }
+    }
+    
+    @Test
+    public void renewLease() throws Exception {
+        when(clock.instant()).thenReturn(Instant.ofEpochMilli(100000));
+        store(1, 2, StatusEventProcessingState.READY, null);
+        final List<StoredStatusEvent> claimed = storage.claimEvents(
+                StatusEventProcessingState.READY, null, StatusEventProcessingState.PROC,
+                "worker1", 1, Duration.ofSeconds(60));
+        final StatusEventID id = claimed.get(0).getID();
+        
+        when(clock.instant()).thenReturn(Instant.ofEpochMilli(150000));
+        assertThat("incorrect renew", storage.renewLease(id, "worker1", Duration.ofSeconds(30)),
+                is(true));
+        final StoredStatusEvent got = storage.get(id).get();
+        assertThat("incorrect lease owner", got.getLeaseOwner(), is(Optional.of("worker1")));
+        assertThat("incorrect lease expiry", got.getLeaseExpiry(),
+                is(Optional.of(Instant.ofEpochMilli(180000))));
+        assertThat("incorrect state", got.getState(), is(StatusEventProcessingState.PROC));
+        
+        // another owner can't renew the lease
+        assertThat("incorrect renew", storage.renewLease(id, "worker2", Duration.ofSeconds(30)),
+                is(false));
+        // nor can anyone renew a lease on an unleased event
+        final StatusEventID unleased = storage.get(StatusEventProcessingState.READY, 10)
+                .get(0).getID();
+        assertThat("incorrect renew", storage.renewLease(
+                unleased, "worker1", Duration.ofSeconds(30)), is(false));
+        
+        // changing the state releases the lease
+        storage.setProcessingState(id, StatusEventProcessingState.PROC,
+                StatusEventProcessingState.INDX);
+        final StoredStatusEvent done = storage.get(id).get();
+        assertThat("incorrect lease owner", done.getLeaseOwner(), is(Optional.absent()));
+        assertThat("incorrect lease expiry", done.getLeaseExpiry(), is(Optional.absent()));
+        assertThat("incorrect renew", storage.renewLease(id, "worker1", Duration.ofSeconds(30)),
+                is(false));
+    }
+    
+    @Test
+    public void renewLeaseFail() {
+        final StatusEventID id = new StatusEventID("foo");
+        final Duration d = Duration.ofSeconds(1);
+        failRenewLease(null, "foo", d, new NullPointerException("id"));
+        failRenewLease(id, null, d, new IllegalArgumentException(
+                "leaseOwner cannot be null or whitespace"));
+        failRenewLease(id, "  \t  ", d, new IllegalArgumentException(
+                "leaseOwner cannot be null or whitespace"));
+        failRenewLease(id, "foo", null, new NullPointerException("leaseDuration"));
+        failRenewLease(id, "foo", Duration.ZERO, new IllegalArgumentException(
+                "leaseDuration must be positive"));
+    }
+    
+    private void failRenewLease(
+            final StatusEventID id,
+            final String leaseOwner,
+            final Duration leaseDuration,
+            final Exception expected) {
+        try {
+            storage.renewLease(id, leaseOwner, leaseDuration);
+            fail("expected exception");
+        } catch (Exception got) {
+            TestCommon.assertExceptionCorrect(got, expected);
+        }
+    }
+    
+    @Test
+    public void reclaimExpiredLeases() throws Exception {
+        when(clock.instant()).thenReturn(Instant.ofEpochMilli(100000));
+        store(1, 10, StatusEventProcessingState.READY, null);
+        storage.claimEvents(StatusEventProcessingState.READY, null,
+                StatusEventProcessingState.PROC, "worker1", 3, Duration.ofSeconds(60));
+        storage.claimEvents(StatusEventProcessingState.READY, null,
+                StatusEventProcessingState.PROC, "worker2", 2, Duration.ofSeconds(120));
+        // legacy claim without a lease is never reclaimed
+        storage.setAndGetProcessingState(StatusEventProcessingState.READY, null,
+                StatusEventProcessingState.PROC, "worker3");
+        
+        when(clock.instant()).thenReturn(Instant.ofEpochMilli(160000));
+        // the lease expires at 160000 and so hasn't expired yet
+        assertThat("incorrect count", storage.reclaimExpiredLeases(
+                StatusEventProcessingState.PROC, StatusEventProcessingState.READY, "reaper"),
+                is(0L));
+        
+        when(clock.instant()).thenReturn(Instant.ofEpochMilli(160001));
+        assertThat("incorrect count", storage.reclaimExpiredLeases(
+                StatusEventProcessingState.PROC, StatusEventProcessingState.READY, "reaper"),
+                is(3L));
+        
+        final List<StoredStatusEvent> ready = storage.get(StatusEventProcessingState.READY, 100);
+        assertThat("incorrect ready count", ready.size(), is(7));
+        for (final StoredStatusEvent e: ready) {
+            assertThat("incorrect lease owner", e.getLeaseOwner(), is(Optional.absent()));
+            assertThat("incorrect lease expiry", e.getLeaseExpiry(), is(Optional.absent()));
+        }
+        final List<StoredStatusEvent> reclaimed = ready.stream()
+                .filter(e -> e.getUpdater().equals(Optional.of("reaper")))
+                .collect(Collectors.toList());
+        assertThat("incorrect reclaimed count", reclaimed.size(), is(3));
+        for (final StoredStatusEvent e: reclaimed) {
+            assertThat("incorrect update time", e.getUpdateTime(),
+                    is(Optional.of(Instant.ofEpochMilli(160001))));
+        }
+        
+        final List<StoredStatusEvent> proc = storage.get(StatusEventProcessingState.PROC, 100);
+        assertThat("incorrect proc count", proc.size(), is(3));
+        assertThat("incorrect lease owners", proc.stream().map(e -> e.getLeaseOwner())
+                .collect(Collectors.toSet()),
+                is(set(Optional.of("worker2"), Optional.absent())));
+        
+        // the reclaimed events can be claimed again
+        assertThat("incorrect count", storage.claimEvents(StatusEventProcessingState.READY, null,
+                StatusEventProcessingState.PROC, "worker4", 3, Duration.ofSeconds(60)).size(),
+                is(3));
+    }
+    
+    @Test
+    public void reclaimExpiredLeasesFail() {
+        final StatusEventProcessingState r = StatusEventProcessingState.READY;
+        final StatusEventProcessingState p = StatusEventProcessingState.PROC;
+        failReclaimExpiredLeases(null, r, "foo", new NullPointerException("leasedState"));
+        failReclaimExpiredLeases(p, null, "foo", new NullPointerException("newState"));
+        failReclaimExpiredLeases(p, r, null, new IllegalArgumentException(
+                "updater cannot be null or whitespace"));
+        failReclaimExpiredLeases(p, r, "   \t  ", new IllegalArgumentException(
+                "updater cannot be null or whitespace"));
+    }
+    
+    private void failReclaimExpiredLeases(
+            final StatusEventProcessingState leasedState,
+            final StatusEventProcessingState newState,
+            final String updater,
+            final Exception expected) {
+        try {
+            storage.reclaimExpiredLeases(leasedState, newState, updater);
+            fail("expected exception");
+        } catch (Exception got) {
+            TestCommon.assertExceptionCorrect(got, expected);
+        }
+    }
+    
+    @Test
+    public void archiveEvents() throws Exception {
+        when(clock.instant()).thenReturn(Instant.ofEpochMilli(10000));
+        final List<StoredStatusEvent> events = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            events.add(storage.store(StatusEvent.getBuilder(
+                    "WS", Instant.ofEpochMilli(1000 + i), StatusEventType.NEW_VERSION).build(),
+                    StatusEventProcessingState.UNPROC, null, "WSEG"));
+        }
+        final StatusEventProcessingState indx = StatusEventProcessingState.INDX;
+        final StatusEventProcessingState unindx = StatusEventProcessingState.UNINDX;
+        when(clock.instant()).thenReturn(Instant.ofEpochMilli(20000));
+        for (int i = 0; i < 4; i++) {
+            storage.setProcessingState(events.get(i).getID(), null, indx);
+        }
+        storage.setProcessingState(events.get(4).getID(), null, unindx);
+        storage.setProcessingState(events.get(5).getID(), null, StatusEventProcessingState.FAIL);
+        // updated too recently to archive
+        when(clock.instant()).thenReturn(Instant.ofEpochMilli(30000));
+        storage.setProcessingState(events.get(6).getID(), null, indx);
+        // event 7 is UNPROC
+        
+        final Instant cutoff = Instant.ofEpochMilli(25000);
+        assertThat("incorrect count", storage.archiveEvents(set(indx, unindx), cutoff, 3),
+                is(3L));
+        assertThat("incorrect count", storage.archiveEvents(set(indx, unindx), cutoff, 0),
+                is(2L));
+        assertThat("incorrect count", storage.archiveEvents(set(indx, unindx), cutoff, 0),
+                is(0L));
+        assertThat("incorrect count", storage.archiveEvents(set(), cutoff, 0), is(0L));
+        
+        assertThat("incorrect remaining events", storage.get(indx, -1).stream()
+                .map(e -> e.getID()).collect(Collectors.toSet()),
+                is(set(events.get(6).getID())));
+        
+        // archived events are still available by ID
+        for (int i = 0; i < 8; i++) {
+            final StoredStatusEvent got = storage.get(events.get(i).getID()).get();
+            assertThat("incorrect event", got.getEvent(), is(events.get(i).getEvent()));
+        }
+        assertThat("incorrect state", storage.get(events.get(4).getID()).get().getState(),
+                is(unindx));
+        // but can't be modified
+        assertThat("incorrect set state", storage.setProcessingState(
+                events.get(0).getID(), null, StatusEventProcessingState.UNPROC), is(false));
+    }
+    
+    @Test
+    public void archiveEventsFail() {
+        final Instant i = Instant.ofEpochMilli(10000);
+        failArchiveEvents(null, i, new NullPointerException("states"));
+        failArchiveEvents(set(StatusEventProcessingState.INDX, null), i,
+                new NullPointerException("null item in states"));
+        failArchiveEvents(set(StatusEventProcessingState.INDX), null,
+                new NullPointerException("updatedBefore"));
+    }
+    
+    private void failArchiveEvents(
+            final Set<StatusEventProcessingState> states,
+            final Instant updatedBefore,
+            final Exception expected) {
+        try {
+            storage.archiveEvents(states, updatedBefore, 10);
+            fail("expected exception");
+        } catch (Exception got) {
+            TestCommon.assertExceptionCorrect(got, expected);
+        }
+    }
+    
+    // stores the events described in getFailed() and returns them in order of timestamp
+    private List<StoredStatusEvent> storeFailed() throws Exception {
+        when(clock.instant()).thenReturn(Instant.ofEpochMilli(10000));
+        final List<StoredStatusEvent> events = storage.storeAll(Arrays.asList(
+                StatusEvent.getBuilder("WS", Instant.ofEpochMilli(1000),
+                        StatusEventType.NEW_VERSION).withNullableAccessGroupID(1).build(),
+                StatusEvent.getBuilder("WS", Instant.ofEpochMilli(2000),
+                        StatusEventType.DELETE_ALL_VERSIONS).withNullableAccessGroupID(2).build(),
+                StatusEvent.getBuilder("WS", Instant.ofEpochMilli(3000),
+                        StatusEventType.NEW_VERSION).withNullableAccessGroupID(1).build(),
+                StatusEvent.getBuilder("WS", Instant.ofEpochMilli(4000),
+                        StatusEventType.NEW_VERSION).withNullableAccessGroupID(1).build(),
+                StatusEvent.getBuilder("foo", Instant.ofEpochMilli(5000),
+                        StatusEventType.NEW_VERSION).withNullableAccessGroupID(1).build()),
+                StatusEventProcessingState.PROC, null, "WSEG");
+        when(clock.instant()).thenReturn(Instant.ofEpochMilli(20000));
+        storage.setProcessingState(events.get(0).getID(), null, "DELETED",
+                new UnprocessableEventIndexingException(ErrorType.DELETED, "deleted"));
+        storage.setProcessingState(events.get(1).getID(), null, "OTHER", new Exception("foo"));
+        when(clock.instant()).thenReturn(Instant.ofEpochMilli(30000));
+        storage.setProcessingState(events.get(2).getID(), null, "OTHER", new Exception("bar"));
+        storage.setProcessingState(
+                events.get(3).getID(), null, StatusEventProcessingState.INDX);
+        // no error information
+        storage.setProcessingState(
+                events.get(4).getID(), null, StatusEventProcessingState.FAIL);
+        return events;
+    }
+    
+    private List<StatusEventID> getFailedIDs(final FailedEventQuery query, final int limit)
+            throws Exception {
+        return storage.getFailed(query, limit).stream().map(e -> e.getID())
+                .collect(Collectors.toList());
+    }
+    
+    @Test
+    public void getFailed() throws Exception {
+        final List<StatusEventID> ids = storeFailed().stream().map(e -> e.getID())
+                .collect(Collectors.toList());
+        
+        assertThat("incorrect events", getFailedIDs(FailedEventQuery.getBuilder().build(), -1),
+                is(Arrays.asList(ids.get(0), ids.get(1), ids.get(2), ids.get(4))));
+        assertThat("incorrect events", getFailedIDs(FailedEventQuery.getBuilder().build(), 2),
+                is(Arrays.asList(ids.get(0), ids.get(1))));
+        assertThat("incorrect events", getFailedIDs(FailedEventQuery.getBuilder()
+                .withErrorCode("OTHER").withErrorCode("FOO").build(), -1),
+                is(Arrays.asList(ids.get(1), ids.get(2))));
+        assertThat("incorrect events", getFailedIDs(FailedEventQuery.getBuilder()
+                .withEventType(StatusEventType.NEW_VERSION).build(), -1),
+                is(Arrays.asList(ids.get(0), ids.get(2), ids.get(4))));
+        assertThat("incorrect events", getFailedIDs(FailedEventQuery.getBuilder()
+                .withTimestampFrom(Instant.ofEpochMilli(2000))
+                .withTimestampTo(Instant.ofEpochMilli(5000)).build(), -1),
+                is(Arrays.asList(ids.get(1), ids.get(2))));
+        assertThat("incorrect events", getFailedIDs(FailedEventQuery.getBuilder()
+                .withAccessGroup("WS", 1).build(), -1),
+                is(Arrays.asList(ids.get(0), ids.get(2))));
+        assertThat("incorrect events", getFailedIDs(FailedEventQuery.getBuilder()
+                .withFailedBefore(Instant.ofEpochMilli(30000)).build(), -1),
+                is(Arrays.asList(ids.get(0), ids.get(1))));
+        assertThat("incorrect events", getFailedIDs(FailedEventQuery.getBuilder()
+                .withErrorCode("OTHER").withAccessGroup("WS", 2).build(), -1),
+                is(Arrays.asList(ids.get(1))));
+        
+        final StoredStatusEvent got = storage.getFailed(FailedEventQuery.getBuilder()
+                .withErrorCode("DELETED").build(), -1).get(0);
+        assertThat("incorrect error code", got.getErrorCode(), is(Optional.of("DELETED")));
+        assertThat("incorrect error msg", got.getErrorMessage(), is(Optional.of("deleted")));
+    }
+    
+    @Test
+    public void getFailedCounts() throws Exception {
+        storeFailed();
+        
+        final Map<String, Map<StatusEventType, Long>> expected = new HashMap<>();
+        expected.put("DELETED", ImmutableMap.of(StatusEventType.NEW_VERSION, 1L));
+        expected.put("OTHER", ImmutableMap.of(StatusEventType.NEW_VERSION, 1L,
+                StatusEventType.DELETE_ALL_VERSIONS, 1L));
+        expected.put("none", ImmutableMap.of(StatusEventType.NEW_VERSION, 1L));
+        assertThat("incorrect counts", storage.getFailedCounts(
+                FailedEventQuery.getBuilder().build()), is(expected));
+        
+        expected.clear();
+        expected.put("DELETED", ImmutableMap.of(StatusEventType.NEW_VERSION, 1L));
+        expected.put("OTHER", ImmutableMap.of(StatusEventType.NEW_VERSION, 1L));
+        assertThat("incorrect counts", storage.getFailedCounts(FailedEventQuery.getBuilder()
+                .withAccessGroup("WS", 1).build()), is(expected));
+        
+        assertThat("incorrect counts", storage.getFailedCounts(FailedEventQuery.getBuilder()
+                .withErrorCode("FOO").build()), is(Collections.emptyMap()));
+        // child events are counted separately
+        assertThat("incorrect counts", storage.getFailedChildCounts(
+                FailedEventQuery.getBuilder().build()), is(Collections.emptyMap()));
+    }
+    
+    // stores the child events described in getFailedChildren() in storage order
+    private List<StoredChildStatusEvent> storeFailedChildren() throws Exception {
+        final StatusEventID parent = new StatusEventID("parent id");
+        when(clock.instant()).thenReturn(Instant.ofEpochMilli(20000));
+        final List<StoredChildStatusEvent> ret = new ArrayList<>(storage.storeAllChildren(
+                Arrays.asList(
+                        new FailedChildStatusEvent(new ChildStatusEvent(StatusEvent.getBuilder(
+                                "WS", Instant.ofEpochMilli(3000), StatusEventType.NEW_VERSION)
+                                .withNullableAccessGroupID(1).build(), parent),
+                                "OTHER", new Exception("foo")),
+                        new FailedChildStatusEvent(new ChildStatusEvent(StatusEvent.getBuilder(
+                                "WS", Instant.ofEpochMilli(1000), StatusEventType.NEW_VERSION)
+                                .withNullableAccessGroupID(2).build(), parent),
+                                "DELETED", new Exception("bar")))));
+        when(clock.instant()).thenReturn(Instant.ofEpochMilli(30000));
+        ret.add(storage.store(new ChildStatusEvent(StatusEvent.getBuilder(
+                "WS", Instant.ofEpochMilli(2000), StatusEventType.NEW_VERSION)
+                .withNullableAccessGroupID(1).build(), parent),
+                "OTHER", new Exception("baz")));
+        return ret;
+    }
+    
+    @Test
+    public void getFailedChildren() throws Exception {
+        final List<StoredChildStatusEvent> c = storeFailedChildren();
+        // a failed event is not a child event
+        storage.store(StatusEvent.getBuilder(
+                "WS", Instant.ofEpochMilli(1500), StatusEventType.NEW_VERSION).build(),
+                StatusEventProcessingState.FAIL, null, "WSEG");
+        
+        assertThat("incorrect events", storage.getFailedChildren(
+                FailedEventQuery.getBuilder().build(), -1),
+                is(Arrays.asList(c.get(1), c.get(2), c.get(0))));
+        assertThat("incorrect events", storage.getFailedChildren(
+                FailedEventQuery.getBuilder().build(), 1), is(Arrays.asList(c.get(1))));
+        assertThat("incorrect events", storage.getFailedChildren(FailedEventQuery.getBuilder()
+                .withFailedBefore(Instant.ofEpochMilli(30000)).build(), -1),
+                is(Arrays.asList(c.get(1), c.get(0))));
+        assertThat("incorrect events", storage.getFailedChildren(FailedEventQuery.getBuilder()
+                .withErrorCode("OTHER").withTimestampTo(Instant.ofEpochMilli(3000)).build(), -1),
+                is(Arrays.asList(c.get(2))));
+        assertThat("incorrect events", storage.getFailedChildren(FailedEventQuery.getBuilder()
+                .withAccessGroup("WS", 2).build(), -1), is(Arrays.asList(c.get(1))));
+        assertThat("incorrect events", storage.getFailedChildren(FailedEventQuery.getBuilder()
+                .withEventType(StatusEventType.DELETE_ALL_VERSIONS).build(), -1),
+                is(Collections.emptyList()));
+        
+        final Map<String, Map<StatusEventType, Long>> expected = new HashMap<>();
+        expected.put("DELETED", ImmutableMap.of(StatusEventType.NEW_VERSION, 1L));
+        expected.put("OTHER", ImmutableMap.of(StatusEventType.NEW_VERSION, 2L));
+        assertThat("incorrect counts", storage.getFailedChildCounts(
+                FailedEventQuery.getBuilder().build()), is(expected));
+        assertThat("incorrect counts", storage.getFailedChildCounts(FailedEventQuery.getBuilder()
+                .withErrorCode("DELETED").build()),
+                is(ImmutableMap.of("DELETED", ImmutableMap.of(StatusEventType.NEW_VERSION, 1L))));
+    }
+    
+    @Test
+    public void resetFailed() throws Exception {
+        final List<StoredStatusEvent> events = storeFailed();
+        when(clock.instant()).thenReturn(Instant.ofEpochMilli(40000));
+        
+        assertThat("incorrect count", storage.resetFailed(FailedEventQuery.getBuilder()
+                .withErrorCode("OTHER").build(), StatusEventProcessingState.UNPROC, "replay"),
+                is(2L));
+        
+        final StoredStatusEvent got = storage.get(events.get(1).getID()).get();
+        assertThat("incorrect state", got.getState(), is(StatusEventProcessingState.UNPROC));
+        assertThat("incorrect update time", got.getUpdateTime(),
+                is(Optional.of(Instant.ofEpochMilli(40000))));
+        assertThat("incorrect updater", got.getUpdater(), is(Optional.of("replay")));
+        assertThat("incorrect error code", got.getErrorCode(), is(Optional.absent()));
+        assertThat("incorrect error msg", got.getErrorMessage(), is(Optional.absent()));
+        assertThat("incorrect error trace", got.getErrorStackTrace(), is(Optional.absent()));
+        assertThat("incorrect state", storage.get(events.get(2).getID()).get().getState(),
+                is(StatusEventProcessingState.UNPROC));
+        
+        assertThat("incorrect events", getFailedIDs(FailedEventQuery.getBuilder().build(), -1),
+                is(Arrays.asList(events.get(0).getID(), events.get(4).getID())));
+        assertThat("incorrect count", storage.resetFailed(FailedEventQuery.getBuilder()
+                .withErrorCode("OTHER").build(), StatusEventProcessingState.UNPROC, "replay"),
+                is(0L));
+        assertThat("incorrect count", storage.resetFailed(FailedEventQuery.getBuilder().build(),
+                StatusEventProcessingState.READY, "replay"), is(2L));
+        assertThat("incorrect events", getFailedIDs(FailedEventQuery.getBuilder().build(), -1),
+                is(Collections.emptyList()));
+    }
+    
+    @Test
+    public void deleteChildren() throws Exception {
+        final List<StoredChildStatusEvent> c = storeFailedChildren();
+        
+        assertThat("incorrect count", storage.deleteChildren(Arrays.asList(
+                c.get(0).getID(), c.get(2).getID(), NO_SUCH_ID)), is(2L));
+        assertThat("incorrect child", storage.getChild(c.get(0).getID()), is(Optional.absent()));
+        assertThat("incorrect child", storage.getChild(c.get(1).getID()),
+                is(Optional.of(c.get(1))));
+        assertThat("incorrect child", storage.getChild(c.get(2).getID()), is(Optional.absent()));
+        assertThat("incorrect count", storage.deleteChildren(Collections.emptyList()), is(0L));
+    }
+    
+    @Test
+    public void failedEventsFail() {
+        final FailedEventQuery q = FailedEventQuery.getBuilder().build();
+        final StatusEventProcessingState u = StatusEventProcessingState.UNPROC;
+        final NullPointerException npe = new NullPointerException("query");
+        failFailedEvents(() -> storage.getFailed(null, 1), npe);
+        failFailedEvents(() -> storage.getFailedChildren(null, 1), npe);
+        failFailedEvents(() -> storage.getFailedCounts(null), npe);
+        failFailedEvents(() -> storage.getFailedChildCounts(null), npe);
+        failFailedEvents(() -> storage.resetFailed(null, u, "u"), npe);
+        failFailedEvents(() -> storage.resetFailed(q, null, "u"),
+                new NullPointerException("newState"));
+        failFailedEvents(() -> storage.resetFailed(q, u, "  \t  "),
+                new IllegalArgumentException("updater cannot be null or whitespace"));
+        failFailedEvents(() -> storage.deleteChildren(null), new NullPointerException("ids"));
+        failFailedEvents(() -> storage.deleteChildren(Arrays.asList(NO_SUCH_ID, null)),
+                new NullPointerException("null item in ids"));
+    }
+    
+    private interface FailedEventsCall {
+        void call() throws Exception;
+    }
+    
+    private void failFailedEvents(final FailedEventsCall call, final Exception expected) {
+        try {
+            call.call();
+            fail("expected exception");
+        } catch (Exception got) {
+            TestCommon.assertExceptionCorrect(got, expected);
+        }
+    }
+    
+    @Test
+    public void getByState() throws Exception {
+        when(clock.instant()).thenReturn(Instant.now());
+        store(10100, StatusEventProcessingState.UNPROC);
+        store(10, StatusEventProcessingState.UNINDX);
+        store(10, StatusEventProcessingState.FAIL);
+        
+        //basic checks
+        assertReturnedInOrder(StatusEventProcessingState.UNPROC, 15, 15, Range.closed(1, 15));
+        assertReturnedInOrder(StatusEventProcessingState.UNINDX, 15, 10, Range.closed(1, 10));
+        assertReturnedInOrder(StatusEventProcessingState.FAIL, 15, 10, Range.closed(1, 10));
+        // ensures no events are found for INDX
+        assertReturnedInOrder(StatusEventProcessingState.INDX, 15, 0, Range.closed(-1, -1));
+        
+        // check limit works as expected
+        assertReturnedInOrder(StatusEventProcessingState.UNPROC, 0, 10000, Range.closed(1, 10000));
+        assertReturnedInOrder(StatusEventProcessingState.UNPROC, 1, 1, Range.closed(1, 1));
+        assertReturnedInOrder(StatusEventProcessingState.UNPROC, 9999, 9999,
+                Range.closed(1, 9999));
+        assertReturnedInOrder(StatusEventProcessingState.UNPROC, 10000, 10000,
+                Range.closed(1, 10000));
+        assertReturnedInOrder(StatusEventProcessingState.UNPROC, 10001, 10000,
+                Range.closed(1, 10000));
+        
+        // check changing state moves limits around
+        setState(StatusEventProcessingState.UNPROC, StatusEventProcessingState.INDX,
+                Range.closed(100, 150));
+        
+        assertReturnedInOrder(StatusEventProcessingState.INDX, 25, 25, Range.closed(100, 124));
+        assertReturnedInOrder(StatusEventProcessingState.INDX, 51, 51, Range.closed(100, 150));
+        assertReturnedInOrder(StatusEventProcessingState.INDX, 52, 51, Range.closed(100, 150));
+        assertReturnedInOrder(StatusEventProcessingState.INDX, -1, 51, Range.closed(100, 150));
+        assertReturnedInOrder(StatusEventProcessingState.UNPROC, -1, 10000,
+                Range.closed(1, 99), Range.closed(151, 10051));
+    }
+
+    private void setState(
+            final StatusEventProcessingState oldState,
+            final StatusEventProcessingState newState,
+            final Range<Integer> timesToModifyInSec)
+            throws Exception {
+        when(clock.instant()).thenReturn(Instant.now());
+        for (final StoredStatusEvent event: storage.get(oldState, -1)) {
+            final int t = (int) event.getEvent().getTimestamp().toEpochMilli();
+            if (timesToModifyInSec.contains(t / 1000)) {
+                storage.setProcessingState(event.getID(), oldState, newState);
+            }
+        }
+    }
+
+    @SafeVarargs
+    private final void assertReturnedInOrder(
+            final StatusEventProcessingState state,
+            final int limit,
+            final int expected,
+            final Range<Integer>... ranges)
+            throws Exception {
+        Instant last = null;
+        final List<Range<Integer>> rangeList = new ArrayList<>();
+        for (final Range<Integer> r: ranges) {
+            rangeList.add(r);
+        }
+        final List<StoredStatusEvent> events = storage.get(state, limit);
+        assertThat("incorrect number of events", events.size(), is(expected));
+        for (final StoredStatusEvent event: events) {
+            if (last != null) {
+                assertThat("expected correct ordering",
+                        last.isBefore(event.getEvent().getTimestamp()), is(true));
+            }
+            last = event.getEvent().getTimestamp();
+            assertInRange(event.getEvent().getTimestamp(), rangeList);
+        }
+    }
+
+    private void assertInRange(final Instant timestamp, final List<Range<Integer>> ranges) {
+        final int t = (int) timestamp.toEpochMilli();
+        for (final Range<Integer> range: ranges) {
+            if (range.contains(t / 1000)) {
+                return;
+            }
+        }
+        fail(String.format("Time %s not in any ranges %s", t / 1000, ranges));
+    }
+
+    private void store(final int count, final StatusEventProcessingState state)
+            throws RetriableIndexingException {
+        store(1, count, state, null);
+    }
+    
+    protected void store(
+            final int start,
+            final int count,
+            final StatusEventProcessingState state,
+            final Set<String> workerCodes,
+            final StatusEventPriority priority)
+            throws RetriableIndexingException {
+        for (int time = start; time <= count; time++) {
+            storage.store(StatusEvent.getBuilder(
+                    "foo", Instant.ofEpochMilli(time * 1000), StatusEventType.NEW_VERSION).build(),
+                    state, workerCodes, "WSEG", priority);
+        }
+    }
+    
+    private void store(
+            final int start,
+            final int count,
+            final StatusEventProcessingState state,
+            final Set<String> workerCodes)
+            throws RetriableIndexingException {
+        final List<Integer> times = new ArrayList<>();
+        for (int i = start; i <= count; i++) {
+            times.add(i);
+        }
+        Collections.shuffle(times);
+        for (final int time: times) {
+            storage.store(StatusEvent.getBuilder(
+                    "foo", Instant.ofEpochMilli(time * 1000), StatusEventType.NEW_VERSION).build(),
+                    state, workerCodes, "WSEG");
+        }
+    }
+    
+    @Test
+    public void storeFail() {
+        failStore(null, StatusEventProcessingState.UNINDX, null, "s",
+                new NullPointerException("newEvent"));
+        final StatusEvent event = StatusEvent.getBuilder(
+                "Ws", Instant.ofEpochMilli(10000), StatusEventType.NEW_ALL_VERSIONS).build();
+        failStore(event, null, null, "s", new NullPointerException("state"));
+        failStore(event, StatusEventProcessingState.UNINDX, set("foo", null), "s",
+                new IllegalArgumentException("null or whitespace only item in workerCodes"));
+        failStore(event, StatusEventProcessingState.UNINDX, set("foo", "   \t   \n  "), "s",
+                new IllegalArgumentException("null or whitespace only item in workerCodes"));
+        failStore(event, StatusEventProcessingState.UNINDX, set(), null,
+                new IllegalArgumentException("storedBy cannot be null or whitespace only"));
+        failStore(event, StatusEventProcessingState.UNINDX, set(), "   \t   \n  ",
+                new IllegalArgumentException("storedBy cannot be null or whitespace only"));
+        try {
+            storage.store(event, StatusEventProcessingState.UNINDX, null, "s", null);
+            fail("expected exception");
+        } catch (Exception got) {
+            TestCommon.assertExceptionCorrect(got, new NullPointerException("priority"));
+        }
+    }
+    
+    private void failStore(
+            final StatusEvent event,
+            final StatusEventProcessingState state,
+            final Set<String> workerCodes,
+            final String storedBy,
+            final Exception expected) {
+        try {
+            storage.store(event, state, workerCodes, storedBy);
+            fail("expected exception");
+        } catch (Exception got) {
+            TestCommon.assertExceptionCorrect(got, expected);
+        }
+    }
+    
+    @Test
+    public void storeChildFail() {
+        final ChildStatusEvent c = new ChildStatusEvent(StatusEvent.getBuilder(
+                "WS", Instant.ofEpochMilli(20000), StatusEventType.DELETE_ALL_VERSIONS).build(),
+                new StatusEventID("parent id"));
+        final Throwable e = new RuntimeException("foo");
+        
+        when(clock.instant()).thenReturn(Instant.ofEpochMilli(10000L));
+        
+        failStoreChild(null, "c", e, new NullPointerException("newEvent"));
+        
+        failStoreChild(c, null, e, new IllegalArgumentException(
+                "errorCode cannot be null or whitespace only"));
+        failStoreChild(c, "   \t   \n   ", e, new IllegalArgumentException(
+                "errorCode cannot be null or whitespace only"));
+        failStoreChild(c, "01234567890123456789a", e, new IllegalArgumentException(
+                "errorCode exceeds max length of 20"));
+        
+        failStoreChild(c, "c", null, new NullPointerException("error"));
+    }
+    
+    private void failStoreChild(
+            final ChildStatusEvent event,
+            final String errorCode,
+            final Throwable error,
+            final Exception expected) {
+        try {
+            storage.store(event, errorCode, error);
+            fail("expected exception");
+        } catch (Exception got) {
+            TestCommon.assertExceptionCorrect(got, expected);
+        }
+    }
+    
+    @Test
+    public void storeAllFail() {
+        final StatusEvent event = StatusEvent.getBuilder(
+                "Ws", Instant.ofEpochMilli(10000), StatusEventType.NEW_ALL_VERSIONS).build();
+        final List<StatusEvent> events = Arrays.asList(event);
+        final StatusEventProcessingState s = StatusEventProcessingState.UNINDX;
+        failStoreAll(null, s, null, "s", new NullPointerException("newEvents"));
+        failStoreAll(Arrays.asList(event, null), s, null, "s",
+                new NullPointerException("null item in newEvents"));
+        failStoreAll(events, null, null, "s", new NullPointerException("state"));
+        failStoreAll(events, s, set("foo", null), "s",
+                new IllegalArgumentException("null or whitespace only item in workerCodes"));
+        failStoreAll(events, s, set("foo", "   \t   \n  "), "s",
+                new IllegalArgumentException("null or whitespace only item in workerCodes"));
+        failStoreAll(events, s, set(), null,
+                new IllegalArgumentException("storedBy cannot be null or whitespace only"));
+        failStoreAll(events, s, set(), "   \t   \n  ",
+                new IllegalArgumentException("storedBy cannot be null or whitespace only"));
+        try {
+            storage.storeAll(events, s, null, "s", null);
+            fail("expected exception");
+        } catch (Exception got) {
+            TestCommon.assertExceptionCorrect(got, new NullPointerException("priority"));
+        }
+    }
+    
+    private void failStoreAll(
+            final List<StatusEvent> events,
+            final StatusEventProcessingState state,
+            final Set<String> workerCodes,
+            final String storedBy,
+            final Exception expected) {
+        try {
+            storage.storeAll(events, state, workerCodes, storedBy);
+            fail("expected exception");
+        } catch (Exception got) {
+            TestCommon.assertExceptionCorrect(got, expected);
+        }
+    }
+    
+    @Test
+    public void storeAllChildrenFail() {
+        final FailedChildStatusEvent c = new FailedChildStatusEvent(new ChildStatusEvent(
+                StatusEvent.getBuilder(
+                        "WS", Instant.ofEpochMilli(20000), StatusEventType.DELETE_ALL_VERSIONS)
+                        .build(),
+                new StatusEventID("parent id")),
+                "01234567890123456789a", new RuntimeException("foo"));
+        when(clock.instant()).thenReturn(Instant.ofEpochMilli(10000L));
+        
+        failStoreAllChildren(null, new NullPointerException("newEvents"));
+        failStoreAllChildren(Arrays.asList((FailedChildStatusEvent) null),
+                new NullPointerException("null item in newEvents"));
+        failStoreAllChildren(Arrays.asList(c), new IllegalArgumentException(
+                "errorCode exceeds max length of 20"));
+    }
+    
+    private void failStoreAllChildren(
+            final List<FailedChildStatusEvent> events,
+            final Exception expected) {
+        try {
+            storage.storeAllChildren(events);
+            fail("expected exception");
+        } catch (Exception got) {
+            TestCommon.assertExceptionCorrect(got, expected);
+        }
+    }
+    
+    @Test
+    public void getFail() {
+        try {
+            storage.get(null);
+            fail("expected exception");
+        } catch (Exception got) {
+            TestCommon.assertExceptionCorrect(got, new NullPointerException("id"));
+        }
+    }
+    
+    @Test
+    public void getChildFail() {
+        try {
+            storage.getChild(null);
+            fail("expected exception");
+        } catch (Exception got) {
+            TestCommon.assertExceptionCorrect(got, new NullPointerException("id"));
+        }
+    }
+    
+    @Test
+    public void getByStateFail() {
+        try {
+            storage.get(null, -1);
+            fail("expected exception");
+        } catch (Exception got) {
+            TestCommon.assertExceptionCorrect(got, new NullPointerException("state"));
+        }
+        try {
+            storage.getByPriority(null, -1);
+            fail("expected exception");
+        } catch (Exception got) {
+            TestCommon.assertExceptionCorrect(got, new NullPointerException("state"));
+        }
+    }
+    
+    @Test
+    public void setProcessingStateFail() {
+        failSetProcessingState(
+                null, StatusEventProcessingState.INDX, new NullPointerException("id"));
+        failSetProcessingState(
+                new StatusEventID("foo"), null, new NullPointerException("newState"));
+    }
+    
+    private void failSetProcessingState(
+            final StatusEventID id,
+            final StatusEventProcessingState state,
+            final Exception expected) {
+        try {
+            storage.setProcessingState(id, null, state);
+            fail("expected exception");
+        } catch (Exception got) {
+            TestCommon.assertExceptionCorrect(got, expected);
+        }
+    }
+    
+    @Test
+    public void setProcessingStateWithErrorFail() {
+        when(clock.instant()).thenReturn(Instant.ofEpochMilli(100000));
+        
+        final StatusEventID i = new StatusEventID("foo");
+        failSetProcessingState(null, "c", LONG_TRACE_EXCEPTION, new NullPointerException("id"));
+        failSetProcessingState(i, null, LONG_TRACE_EXCEPTION,
+                new IllegalArgumentException("errorCode cannot be null or whitespace only"));
+        failSetProcessingState(i, "   \t \n  ", LONG_TRACE_EXCEPTION,
+                new IllegalArgumentException("errorCode cannot be null or whitespace only"));
+        failSetProcessingState(i, "01234567890123456789a", LONG_TRACE_EXCEPTION,
+                new IllegalArgumentException("errorCode exceeds max length of 20"));
+        failSetProcessingState(i, "c", null, new NullPointerException("error"));
+    }
+    
+    private void failSetProcessingState(
+            final StatusEventID id,
+            final String errorCode,
+            final Throwable error,
+            final Exception expected) {
+        try {
+            storage.setProcessingState(id, null, errorCode, error);
+            fail("expected exception");
+        } catch (Exception got) {
+            TestCommon.assertExceptionCorrect(got, expected);
+        }
+    }
+}
@@ -0,0 +1,402 @@
+package kbasesearchengine.test.main;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.mockito.Mockito.when;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableMap;
+
+import kbasesearchengine.common.GUID;
+import kbasesearchengine.events.ChildStatusEvent;
+import kbasesearchengine.events.StatusEvent;
+import kbasesearchengine.events.StatusEventID;
+import kbasesearchengine.events.StatusEventProcessingState;
+import kbasesearchengine.events.StatusEventType;
+import kbasesearchengine.events.StoredStatusEvent;
+import kbasesearchengine.events.exceptions.ErrorType;
+import kbasesearchengine.events.exceptions.FatalIndexingException;
+import kbasesearchengine.events.exceptions.IndexingException;
+import kbasesearchengine.events.exceptions.IndexingExceptionUncheckedWrapper;
+import kbasesearchengine.events.exceptions.RetriableIndexingException;
+import kbasesearchengine.events.exceptions.RetriableIndexingExceptionUncheckedWrapper;
+import kbasesearchengine.events.exceptions.Retrier;
+import kbasesearchengine.events.exceptions.UnprocessableEventIndexingException;
+import kbasesearchengine.events.handler.EventHandler;
+import kbasesearchengine.events.handler.SourceData;
+import kbasesearchengine.main.ChildEventPrefetcher;
+import kbasesearchengine.main.LineLogger;
+import kbasesearchengine.search.IndexingStorage;
+import kbasesearchengine.system.ObjectTypeParsingRules;
+import kbasesearchengine.system.SearchObjectType;
+import kbasesearchengine.system.StorageObjectType;
+import kbasesearchengine.system.TypeStorage;
+import kbasesearchengine.test.common.TestCommon;
+import us.kbase.common.service.UObject;
+
+public class ChildEventPrefetcherTest {
+
+    private static final StorageObjectType GENOME = new StorageObjectType("WS", "Genome");
+    private static final StorageObjectType READS = new StorageObjectType("WS", "Reads");
+    private static final Path FILE = Paths.get("/tmp/foo");
+
+    private static final StoredStatusEvent PARENT = StoredStatusEvent.getBuilder(
+            StatusEvent.getBuilder("WS", Instant.ofEpochMilli(10000),
+                    StatusEventType.NEW_ALL_VERSIONS)
+                    .withNullableAccessGroupID(1)
+                    .withNullableObjectID("2")
+                    .build(),
+            new StatusEventID("parent"),
+            StatusEventProcessingState.UNPROC)
+            .build();
+
+    private class TestMocks {
+        private final EventHandler handler = mock(EventHandler.class);
+        private final IndexingStorage indexingStorage = mock(IndexingStorage.class);
+        private final TypeStorage typeStorage = mock(TypeStorage.class);
+        private final LineLogger logger = mock(LineLogger.class);
+        private final ChildEventPrefetcher prefetcher;
+
+        private TestMocks() {
+            when(handler.getStorageCode()).thenReturn("WS");
+            when(typeStorage.listObjectTypeParsingRules(GENOME)).thenReturn(Collections.singleton(
+                    ObjectTypeParsingRules.getBuilder(new SearchObjectType("Genome", 1), GENOME)
+                            .build()));
+            when(typeStorage.listObjectTypeParsingRules(READS))
+                    .thenReturn(Collections.emptySet());
+            prefetcher = new ChildEventPrefetcher(Arrays.asList(handler), indexingStorage,
+                    typeStorage, new Retrier(2, 1, Arrays.asList(1), (c, e, ex) -> {}), logger);
+        }
+    }
+
+    private static ChildStatusEvent child(
+            final StorageObjectType type,
+            final StatusEventType eventType,
+            final int objectID) {
+        return new ChildStatusEvent(StatusEvent.getBuilder(
+                type, Instant.ofEpochMilli(10000), eventType)
+                .withNullableAccessGroupID(1)
+                .withNullableObjectID("" + objectID)
+                .withNullableVersion(1)
+                .build(),
+                new StatusEventID("parent"));
+    }
+
+    private static ChildStatusEvent child(final int objectID) {
+        return child(GENOME, StatusEventType.NEW_VERSION, objectID);
+    }
+
+    private static SourceData data(final String name) {
+        return SourceData.getBuilder(new UObject(ImmutableMap.of("foo", name)), name, "creator")
+                .build();
+    }
+
+    /* Returns the items in order, throwing any item that is an exception rather than
+     * returning it.
+     */
+    private static Iterator<ChildStatusEvent> iter(final Object... items) {
+        final LinkedList<Object> queue = new LinkedList<>(Arrays.asList(items));
+        return new Iterator<ChildStatusEvent>() {
+
+            @Override
+            public boolean hasNext() {
+                return !queue.isEmpty();
+            }
+
+            @Override
+            public ChildStatusEvent next() {
+                final Object o = queue.removeFirst();
+                if (o instanceof RuntimeException) {
+                    throw (RuntimeException) o;
+                }
+                return (ChildStatusEvent) o;
+            }
+        };
+    }
+
+    @Test
+    public void constructFail() {
+        final TestMocks m = new TestMocks();
+        final List<EventHandler> eh = Arrays.asList(m.handler);
+        final IndexingStorage is = m.indexingStorage;
+        final TypeStorage ts = m.typeStorage;
+        final Retrier r = new Retrier(2, 1, Arrays.asList(1), (c, e, ex) -> {});
+        final LineLogger l = m.logger;
+
+        failConstruct(null, is, ts, r, l, new NullPointerException("eventHandlers"));
+        failConstruct(Arrays.asList(m.handler, null), is, ts, r, l,
+                new NullPointerException("null item in eventHandlers"));
+        failConstruct(eh, null, ts, r, l, new NullPointerException("indexingStorage"));
+        failConstruct(eh, is, null, r, l, new NullPointerException("typeStorage"));
+        failConstruct(eh, is, ts, null, l, new NullPointerException("retrier"));
+        failConstruct(eh, is, ts, r, null, new NullPointerException("logger"));
+    }
+
+    private void failConstruct(
+            final List<EventHandler> eventHandlers,
+            final IndexingStorage indexingStorage,
+            final TypeStorage typeStorage,
+            final Retrier retrier,
+            final LineLogger logger,
+            final Exception expected) {
+        try {
+            new ChildEventPrefetcher(eventHandlers, indexingStorage, typeStorage, retrier, logger);
+            fail("expected exception");
+        } catch (Exception got) {
+            TestCommon.assertExceptionCorrect(got, expected);
+        }
+    }
+
+    @Test
+    public void nextChunk() throws Exception {
+        final TestMocks m = new TestMocks();
+        final Object[] children = new Object[250];
+        for (int i = 0; i < children.length; i++) {
+            children[i] = child(i + 1);
+        }
+        final Iterator<ChildStatusEvent> iter = iter(children);
+        final List<IndexingException> errors = new LinkedList<>();
+
+        final List<ChildStatusEvent> c1 = m.prefetcher.nextChunk(iter, PARENT, errors);
+        final List<ChildStatusEvent> c2 = m.prefetcher.nextChunk(iter, PARENT, errors);
+        final List<ChildStatusEvent> c3 = m.prefetcher.nextChunk(iter, PARENT, errors);
+
+        assertThat("incorrect chunk size", c1.size(), is(100));
+        assertThat("incorrect chunk size", c2.size(), is(100));
+        assertThat("incorrect chunk size", c3.size(), is(50));
+        assertThat("incorrect first", c1.get(0), is(child(1)));
+        assertThat("incorrect first", c2.get(0), is(child(101)));
+        assertThat("incorrect last", c3.get(49), is(child(250)));
+        assertThat("incorrect errors", errors, is(Collections.emptyList()));
+        assertThat("incorrect hasNext", iter.hasNext(), is(false));
+    }
+
+    @Test
+    public void nextChunkErrors() throws Exception {
+        final TestMocks m = new TestMocks();
+        final UnprocessableEventIndexingException err = new UnprocessableEventIndexingException(
+                ErrorType.OTHER, "bad object");
+        final Iterator<ChildStatusEvent> iter = iter(
+                child(1),
+                new RetriableIndexingExceptionUncheckedWrapper(
+                        new RetriableIndexingException(ErrorType.OTHER, "try again")),
+                child(2),
+                new IndexingExceptionUncheckedWrapper(err),
+                child(3));
+        final List<IndexingException> errors = new LinkedList<>();
+
+        final List<ChildStatusEvent> chunk = m.prefetcher.nextChunk(iter, PARENT, errors);
+
+        assertThat("incorrect chunk", chunk, is(Arrays.asList(child(1), child(2), child(3))));
+        assertThat("incorrect errors", errors, is(Arrays.asList(err)));
+    }
+
+    @Test
+    public void nextChunkFatal() throws Exception {
+        final TestMocks m = new TestMocks();
+        final FatalIndexingException err = new FatalIndexingException(ErrorType.OTHER, "dead");
+        final Iterator<ChildStatusEvent> iter = iter(
+                child(1), new IndexingExceptionUncheckedWrapper(err), child(2));
+        final List<IndexingException> errors = new LinkedList<>();
+
+        final List<ChildStatusEvent> chunk = m.prefetcher.nextChunk(iter, PARENT, errors);
+
+        assertThat("incorrect chunk", chunk, is(Arrays.asList(child(1))));
+        assertThat("incorrect errors", errors, is(Arrays.asList(err)));
+        assertThat("incorrect hasNext", iter.hasNext(), is(true));
+    }
+
+    @Test
+    public void nextChunkFail() throws Exception {
+        final ChildEventPrefetcher p = new TestMocks().prefetcher;
+        final Iterator<ChildStatusEvent> i = iter();
+        final List<IndexingException> e = new LinkedList<>();
+
+        failNextChunk(p, null, PARENT, e, new NullPointerException("children"));
+        failNextChunk(p, i, null, e, new NullPointerException("parentEvent"));
+        failNextChunk(p, i, PARENT, null, new NullPointerException("errors"));
+    }
+
+    private void failNextChunk(
+            final ChildEventPrefetcher prefetcher,
+            final Iterator<ChildStatusEvent> children,
+            final StoredStatusEvent parent,
+            final List<IndexingException> errors,
+            final Exception expected) {
+        try {
+            prefetcher.nextChunk(children, parent, errors);
+            fail("expected exception");
+        } catch (Exception got) {
+            TestCommon.assertExceptionCorrect(got, expected);
+        }
+    }
+
+    @Test
+    public void prefetchAndLoad() throws Exception {
+        final TestMocks m = new TestMocks();
+        final GUID g1 = new GUID("WS:1/1/1");
+        final GUID g2 = new GUID("WS:1/2/1");
+        final GUID g3 = new GUID("WS:1/3/1");
+        when(m.indexingStorage.checkParentGuidsExist(TestCommon.set(g1, g2, g3)))
+                .thenReturn(ImmutableMap.of(g1, false, g2, true, g3, false));
+        when(m.handler.loadBatch(Arrays.asList(Arrays.asList(g1), Arrays.asList(g3))))
+                .thenReturn(ImmutableMap.of(g1, data("obj1"), g3, data("obj3")));
+        when(m.handler.load(Arrays.asList(g1), FILE)).thenReturn(data("loaded1"));
+        when(m.handler.load(Arrays.asList(g2), FILE)).thenReturn(data("loaded2"));
+
+        m.prefetcher.prefetch(Arrays.asList(
+                child(1),
+                child(2), // already indexed
+                child(3),
+                child(GENOME, StatusEventType.DELETE_ALL_VERSIONS, 4),
+                child(READS, StatusEventType.NEW_VERSION, 5))); // unsupported type
+
+        assertThat("incorrect prefetched", m.prefetcher.getPrefetched(),
+                is(TestCommon.set(g1, g3)));
+        assertThat("incorrect data", m.prefetcher.load(m.handler, Arrays.asList(g1), FILE)
+                .getName(), is("obj1"));
+        // prefetched objects are only used once
+        assertThat("incorrect data", m.prefetcher.load(m.handler, Arrays.asList(g1), FILE)
+                .getName(), is("loaded1"));
+        assertThat("incorrect data", m.prefetcher.load(m.handler, Arrays.asList(g2), FILE)
+                .getName(), is("loaded2"));
+        assertThat("incorrect prefetched", m.prefetcher.getPrefetched(),
+                is(TestCommon.set(g3)));
+
+        m.prefetcher.clear();
+        assertThat("incorrect prefetched", m.prefetcher.getPrefetched(),
+                is(Collections.emptySet()));
+    }
+
+    @Test
+    public void loadWithRefPath() throws Exception {
+        final TestMocks m = new TestMocks();
+        final GUID g1 = new GUID("WS:1/1/1");
+        final GUID g2 = new GUID("WS:1/2/1");
+        final GUID ref = new GUID("WS:2/1/1");
+        when(m.indexingStorage.checkParentGuidsExist(TestCommon.set(g1, g2)))
+                .thenReturn(ImmutableMap.of(g1, false, g2, false));
+        when(m.handler.loadBatch(Arrays.asList(Arrays.asList(g1), Arrays.asList(g2))))
+                .thenReturn(ImmutableMap.of(g1, data("obj1"), g2, data("obj2")));
+        when(m.handler.load(Arrays.asList(ref, g1), FILE)).thenReturn(data("loaded1"));
+
+        m.prefetcher.prefetch(Arrays.asList(child(1), child(2)));
+
+        // an object accessed via a reference path isn't necessarily accessible directly
+        assertThat("incorrect data", m.prefetcher.load(m.handler, Arrays.asList(ref, g1), FILE)
+                .getName(), is("loaded1"));
+        assertThat("incorrect prefetched", m.prefetcher.getPrefetched(),
+                is(TestCommon.set(g1, g2)));
+    }
+
+    @Test
+    public void prefetchSingleObject() throws Exception {
+        final TestMocks m = new TestMocks();
+
+        m.prefetcher.prefetch(Arrays.asList(
+                child(1), child(GENOME, StatusEventType.DELETE_ALL_VERSIONS, 2)));
+
+        assertThat("incorrect prefetched", m.prefetcher.getPrefetched(),
+                is(Collections.emptySet()));
+        verifyZeroInteractions(m.indexingStorage);
+        verify(m.handler, never()).loadBatch(any());
+    }
+
+    @Test
+    public void prefetchFailFallsBack() throws Exception {
+        final TestMocks m = new TestMocks();
+        final GUID g1 = new GUID("WS:1/1/1");
+        final GUID g2 = new GUID("WS:1/2/1");
+        when(m.indexingStorage.checkParentGuidsExist(TestCommon.set(g1, g2)))
+                .thenReturn(ImmutableMap.of(g1, false, g2, false));
+        when(m.handler.loadBatch(Arrays.asList(Arrays.asList(g1), Arrays.asList(g2))))
+                .thenThrow(new UnprocessableEventIndexingException(
+                        ErrorType.OTHER, "short result"));
+        when(m.handler.load(Arrays.asList(g1), FILE)).thenReturn(data("loaded1"));
+
+        m.prefetcher.prefetch(Arrays.asList(child(1), child(2)));
+
+        assertThat("incorrect prefetched", m.prefetcher.getPrefetched(),
+                is(Collections.emptySet()));
+        verify(m.logger).logError("[Indexer] Batch loading objects failed, loading objects " +
+                "individually: short result");
+        assertThat("incorrect data", m.prefetcher.load(m.handler, Arrays.asList(g1), FILE)
+                .getName(), is("loaded1"));
+    }
+
+    @Test
+    public void prefetchReplacesPreviousChunk() throws Exception {
+        final TestMocks m = new TestMocks();
+        final GUID g1 = new GUID("WS:1/1/1");
+        final GUID g2 = new GUID("WS:1/2/1");
+        when(m.indexingStorage.checkParentGuidsExist(TestCommon.set(g1, g2)))
+                .thenReturn(ImmutableMap.of(g1, false, g2, false));
+        when(m.handler.loadBatch(Arrays.asList(Arrays.asList(g1), Arrays.asList(g2))))
+                .thenReturn(ImmutableMap.of(g1, data("obj1"), g2, data("obj2")));
+
+        m.prefetcher.prefetch(Arrays.asList(child(1), child(2)));
+        m.prefetcher.prefetch(Arrays.asList(child(3)));
+
+        assertThat("incorrect prefetched", m.prefetcher.getPrefetched(),
+                is(Collections.emptySet()));
+    }
+
+    @Test
+    public void prefetchFail() throws Exception {
+        final ChildEventPrefetcher p = new TestMocks().prefetcher;
+        try {
+            p.prefetch(null);
+            fail("expected exception");
+        } catch (Exception got) {
+            TestCommon.assertExceptionCorrect(got, new NullPointerException("chunk"));
+        }
+        try {
+            p.prefetch(Arrays.asList(child(1), null));
+            fail("expected exception");
+        } catch (Exception got) {
+            TestCommon.assertExceptionCorrect(got, new NullPointerException("null item in chunk"));
+        }
+    }
+
+    @Test
+    public void loadFail() throws Exception {
+        final TestMocks m = new TestMocks();
+        final List<GUID> g = Arrays.asList(new GUID("WS:1/1/1"));
+
+        failLoad(m.prefetcher, null, g, new NullPointerException("handler"));
+        failLoad(m.prefetcher, m.handler, null, new NullPointerException("refPath"));
+        failLoad(m.prefetcher, m.handler, Arrays.asList(new GUID("WS:1/1/1"), null),
+                new NullPointerException("null item in refPath"));
+        failLoad(m.prefetcher, m.handler, Collections.emptyList(),
+                new IllegalArgumentException("refPath cannot be empty"));
+    }
+
+    private void failLoad(
+            final ChildEventPrefetcher prefetcher,
+            final EventHandler handler,
+            final List<GUID> refPath,
+            final Exception expected) {
+        try {
+            prefetcher.load(handler, refPath, FILE);
+            fail("expected exception");
+        } catch (Exception got) {
+            TestCommon.assertExceptionCorrect(got, expected);
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package kbasesearchengine.test.main;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+import static org.mockito.Mockito.when;
+import static kbasesearchengine.test.common.TestCommon.set;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import kbasesearchengine.events.StatusEventProcessingState;
+import kbasesearchengine.events.exceptions.ErrorType;
+import kbasesearchengine.events.exceptions.FatalRetriableIndexingException;
+import kbasesearchengine.events.storage.StatusEventStorage;
+import kbasesearchengine.main.EventArchiver;
+import kbasesearchengine.main.LineLogger;
+import kbasesearchengine.test.common.TestCommon;
+
+public class EventArchiverTest {
+
+    @Test
+    public void archivedStates() {
+        assertThat("incorrect states", EventArchiver.ARCHIVED_STATES, is(set(
+                StatusEventProcessingState.INDX, StatusEventProcessingState.UNINDX,
+                StatusEventProcessingState.COALESCED)));
+    }
+
+    @Test
+    public void constructFail() {
+        final StatusEventStorage s = mock(StatusEventStorage.class);
+        final Duration d = Duration.ofSeconds(1);
+        final LineLogger l = mock(LineLogger.class);
+        final ScheduledExecutorService e = mock(ScheduledExecutorService.class);
+        final Clock c = mock(Clock.class);
+        failConstruct(null, d, d, l, e, c, new NullPointerException("storage"));
+        failConstruct(s, null, d, l, e, c, new NullPointerException("interval"));
+        failConstruct(s, Duration.ZERO, d, l, e, c, new IllegalArgumentException(
+                "interval must be positive"));
+        failConstruct(s, Duration.ofMillis(-1), d, l, e, c, new IllegalArgumentException(
+                "interval must be positive"));
+        failConstruct(s, d, null, l, e, c, new NullPointerException("retention"));
+        failConstruct(s, d, Duration.ofMillis(-1), l, e, c, new IllegalArgumentException(
+                "retention cannot be negative"));
+        failConstruct(s, d, d, null, e, c, new NullPointerException("logger"));
+        failConstruct(s, d, d, l, null, c, new NullPointerException("testExecutor"));
+        failConstruct(s, d, d, l, e, null, new NullPointerException("clock"));
+    }
+
+    private void failConstruct(
+            final StatusEventStorage storage,
+            final Duration interval,
+            final Duration retention,
+            final LineLogger logger,
+            final ScheduledExecutorService executor,
+            final Clock clock,
+            final Exception expected) {
+        try {
+            new EventArchiver(storage, interval, retention, logger, executor, clock);
+            fail("expected exception");
+        } catch (Exception got) {
+            TestCommon.assertExceptionCorrect(got, expected);
+        }
+    }
+
+    @Test
+    public void start() {
+        final ScheduledExecutorService ex = mock(ScheduledExecutorService.class);
+        final EventArchiver a = new EventArchiver(mock(StatusEventStorage.class),
+                Duration.ofSeconds(30), Duration.ofDays(1), mock(LineLogger.class), ex,
+                mock(Clock.class));
+
+        a.start();
+
+        verify(ex).scheduleAtFixedRate(
+                any(Runnable.class), eq(0L), eq(30000L), eq(TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void archive() throws Exception {
+        final StatusEventStorage storage = mock(StatusEventStorage.class);
+        final LineLogger logger = mock(LineLogger.class);
+        final Clock clock = mock(Clock.class);
+        final EventArchiver a = new EventArchiver(storage, Duration.ofSeconds(30),
+                Duration.ofSeconds(10), logger, mock(ScheduledExecutorService.class), clock);
+
+        assertThat("incorrect archived", a.getArchivedCount(), is(0L));
+        assertThat("incorrect runs", a.getRunCount(), is(0L));
+
+        when(clock.instant()).thenReturn(Instant.ofEpochMilli(100000),
+                Instant.ofEpochMilli(200000));
+        when(storage.archiveEvents(EventArchiver.ARCHIVED_STATES, Instant.ofEpochMilli(90000),
+                1000)).thenReturn(1000L, 1000L, 5L);
+        when(storage.archiveEvents(EventArchiver.ARCHIVED_STATES, Instant.ofEpochMilli(190000),
+                1000)).thenReturn(0L);
+
+        // archives in batches until a batch isn't full
+        assertThat("incorrect count", a.archive(), is(2005L));
+        assertThat("incorrect count", a.archive(), is(0L));
+
+        assertThat("incorrect archived", a.getArchivedCount(), is(2005L));
+        assertThat("incorrect runs", a.getRunCount(), is(2L));
+        verify(logger).logInfo("Archived 2005 events last updated before 1970-01-01T00:01:30Z");
+        verifyNoMoreInteractions(logger);
+    }
+
+    @Test
+    public void archiveFail() throws Exception {
+        final StatusEventStorage storage = mock(StatusEventStorage.class);
+        final Clock clock = mock(Clock.class);
+        final EventArchiver a = new EventArchiver(storage, Duration.ofSeconds(30),
+                Duration.ofSeconds(10), mock(LineLogger.class),
+                mock(ScheduledExecutorService.class), clock);
+
+        when(clock.instant()).thenReturn(Instant.ofEpochMilli(100000));
+        when(storage.archiveEvents(EventArchiver.ARCHIVED_STATES, Instant.ofEpochMilli(90000),
+                1000)).thenReturn(1000L).thenThrow(
+                        new FatalRetriableIndexingException(ErrorType.OTHER, "mongo down"));
+
+        try {
+            a.archive();
+            fail("expected exception");
+        } catch (Exception got) {
+            TestCommon.assertExceptionCorrect(got,
+                    new FatalRetriableIndexingException(ErrorType.OTHER, "mongo down"));
+        }
+        // the first batch was archived
+        assertThat("incorrect archived", a.getArchivedCount(), is(1000L));
+        assertThat("incorrect runs", a.getRunCount(), is(0L));
+    }
+
+    @Test
+    public void stop() throws Exception {
+        final ScheduledExecutorService ex = mock(ScheduledExecutorService.class);
+        final EventArchiver a = new EventArchiver(mock(StatusEventStorage.class),
+                Duration.ofSeconds(30), Duration.ofDays(1), mock(LineLogger.class), ex,
+                mock(Clock.class));
+
+        a.stop(5000);
+        a.awaitShutdown();
+
+        verify(ex).shutdown();
+        verify(ex).awaitTermination(5000L, TimeUnit.MILLISECONDS);
+    }
+}
@@ -0,0 +1,172 @@
+package kbasesearchengine.test.main;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+import static org.mockito.Mockito.when;
+import static kbasesearchengine.test.common.TestCommon.set;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import kbasesearchengine.events.StatusEventID;
+import kbasesearchengine.events.exceptions.ErrorType;
+import kbasesearchengine.events.exceptions.FatalRetriableIndexingException;
+import kbasesearchengine.events.storage.StatusEventStorage;
+import kbasesearchengine.main.EventLeaseHeartbeat;
+import kbasesearchengine.main.LineLogger;
+import kbasesearchengine.test.common.TestCommon;
+
+public class EventLeaseHeartbeatTest {
+
+    @Test
+    public void construct() {
+        final EventLeaseHeartbeat hb = new EventLeaseHeartbeat(mock(StatusEventStorage.class),
+                "worker1", Duration.ofSeconds(30), mock(LineLogger.class),
+                mock(ScheduledExecutorService.class));
+
+        assertThat("incorrect owner", hb.getLeaseOwner(), is("worker1"));
+        assertThat("incorrect duration", hb.getLeaseDuration(), is(Duration.ofSeconds(30)));
+        assertThat("incorrect held", hb.getHeldEvents(), is(Collections.emptySet()));
+        assertThat("incorrect renewed", hb.getRenewedCount(), is(0L));
+        assertThat("incorrect lost", hb.getLostCount(), is(0L));
+        assertThat("incorrect failed", hb.getFailedCount(), is(0L));
+    }
+
+    @Test
+    public void constructFail() {
+        final StatusEventStorage s = mock(StatusEventStorage.class);
+        final Duration d = Duration.ofSeconds(1);
+        final LineLogger l = mock(LineLogger.class);
+        final ScheduledExecutorService e = mock(ScheduledExecutorService.class);
+        failConstruct(null, "w", d, l, e, new NullPointerException("storage"));
+        failConstruct(s, null, d, l, e, new IllegalArgumentException(
+                "leaseOwner cannot be null or whitespace only"));
+        failConstruct(s, "  \t  ", d, l, e, new IllegalArgumentException(
+                "leaseOwner cannot be null or whitespace only"));
+        failConstruct(s, "w", null, l, e, new NullPointerException("leaseDuration"));
+        failConstruct(s, "w", Duration.ZERO, l, e, new IllegalArgumentException(
+                "leaseDuration must be positive"));
+        failConstruct(s, "w", d, null, e, new NullPointerException("logger"));
+        failConstruct(s, "w", d, l, null, new NullPointerException("testExecutor"));
+    }
+
+    private void failConstruct(
+            final StatusEventStorage storage,
+            final String owner,
+            final Duration duration,
+            final LineLogger logger,
+            final ScheduledExecutorService executor,
+            final Exception expected) {
+        try {
+            new EventLeaseHeartbeat(storage, owner, duration, logger, executor);
+            fail("expected exception");
+        } catch (Exception got) {
+            TestCommon.assertExceptionCorrect(got, expected);
+        }
+    }
+
+    @Test
+    public void start() {
+        final ScheduledExecutorService ex = mock(ScheduledExecutorService.class);
+        final EventLeaseHeartbeat hb = new EventLeaseHeartbeat(mock(StatusEventStorage.class),
+                "worker1", Duration.ofSeconds(30), mock(LineLogger.class), ex);
+
+        hb.start();
+
+        verify(ex).scheduleAtFixedRate(
+                any(Runnable.class), eq(10000L), eq(10000L), eq(TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void holdAndRelease() {
+        final EventLeaseHeartbeat hb = new EventLeaseHeartbeat(mock(StatusEventStorage.class),
+                "worker1", Duration.ofSeconds(30), mock(LineLogger.class),
+                mock(ScheduledExecutorService.class));
+
+        hb.hold(new StatusEventID("foo"));
+        hb.hold(new StatusEventID("bar"));
+        hb.hold(new StatusEventID("foo"));
+        assertThat("incorrect held", hb.getHeldEvents(),
+                is(set(new StatusEventID("foo"), new StatusEventID("bar"))));
+
+        hb.release(new StatusEventID("foo"));
+        hb.release(new StatusEventID("baz"));
+        assertThat("incorrect held", hb.getHeldEvents(), is(set(new StatusEventID("bar"))));
+
+        try {
+            hb.hold(null);
+            fail("expected exception");
+        } catch (Exception got) {
+            TestCommon.assertExceptionCorrect(got, new NullPointerException("id"));
+        }
+        try {
+            hb.release(null);
+            fail("expected exception");
+        } catch (Exception got) {
+            TestCommon.assertExceptionCorrect(got, new NullPointerException("id"));
+        }
+    }
+
+    @Test
+    public void renewLeases() throws Exception {
+        final StatusEventStorage storage = mock(StatusEventStorage.class);
+        final LineLogger logger = mock(LineLogger.class);
+        final Duration d = Duration.ofSeconds(30);
+        final EventLeaseHeartbeat hb = new EventLeaseHeartbeat(storage, "worker1", d, logger,
+                mock(ScheduledExecutorService.class));
+
+        final StatusEventID ok = new StatusEventID("ok");
+        final StatusEventID lost = new StatusEventID("lost");
+        final StatusEventID err = new StatusEventID("err");
+        hb.hold(ok);
+        hb.hold(lost);
+        hb.hold(err);
+
+        when(storage.renewLease(ok, "worker1", d)).thenReturn(true);
+        when(storage.renewLease(lost, "worker1", d)).thenReturn(false);
+        when(storage.renewLease(err, "worker1", d)).thenThrow(
+                new FatalRetriableIndexingException(ErrorType.OTHER, "mongo down"));
+
+        hb.renewLeases();
+
+        assertThat("incorrect held", hb.getHeldEvents(), is(set(ok, err)));
+        assertThat("incorrect renewed", hb.getRenewedCount(), is(1L));
+        assertThat("incorrect lost", hb.getLostCount(), is(1L));
+        assertThat("incorrect failed", hb.getFailedCount(), is(1L));
+        verify(logger).logError("Lost lease on event lost for owner worker1");
+        verify(logger).logError("Failed renewing lease on event err: mongo down");
+        verifyNoMoreInteractions(logger);
+
+        doReturn(true).when(storage).renewLease(err, "worker1", d);
+        hb.renewLeases();
+
+        assertThat("incorrect held", hb.getHeldEvents(), is(set(ok, err)));
+        assertThat("incorrect renewed", hb.getRenewedCount(), is(3L));
+        assertThat("incorrect lost", hb.getLostCount(), is(1L));
+        assertThat("incorrect failed", hb.getFailedCount(), is(1L));
+    }
+
+    @Test
+    public void stop() throws Exception {
+        final ScheduledExecutorService ex = mock(ScheduledExecutorService.class);
+        final EventLeaseHeartbeat hb = new EventLeaseHeartbeat(mock(StatusEventStorage.class),
+                "worker1", Duration.ofSeconds(30), mock(LineLogger.class), ex);
+
+        hb.stop(-1);
+        hb.awaitShutdown();
+
+        verify(ex).shutdown();
+        verify(ex).awaitTermination(0L, TimeUnit.MILLISECONDS);
+    }
+}
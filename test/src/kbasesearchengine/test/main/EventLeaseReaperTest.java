@@ -0,0 +1,128 @@
+package kbasesearchengine.test.main;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+import static org.mockito.Mockito.when;
+
+import java.time.Duration;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import kbasesearchengine.events.StatusEventProcessingState;
+import kbasesearchengine.events.exceptions.ErrorType;
+import kbasesearchengine.events.exceptions.FatalRetriableIndexingException;
+import kbasesearchengine.events.storage.StatusEventStorage;
+import kbasesearchengine.main.EventLeaseReaper;
+import kbasesearchengine.main.LineLogger;
+import kbasesearchengine.test.common.TestCommon;
+
+public class EventLeaseReaperTest {
+
+    @Test
+    public void constructFail() {
+        final StatusEventStorage s = mock(StatusEventStorage.class);
+        final Duration d = Duration.ofSeconds(1);
+        final LineLogger l = mock(LineLogger.class);
+        final ScheduledExecutorService e = mock(ScheduledExecutorService.class);
+        failConstruct(null, d, l, e, new NullPointerException("storage"));
+        failConstruct(s, null, l, e, new NullPointerException("interval"));
+        failConstruct(s, Duration.ZERO, l, e, new IllegalArgumentException(
+                "interval must be positive"));
+        failConstruct(s, Duration.ofMillis(-1), l, e, new IllegalArgumentException(
+                "interval must be positive"));
+        failConstruct(s, d, null, e, new NullPointerException("logger"));
+        failConstruct(s, d, l, null, new NullPointerException("testExecutor"));
+    }
+
+    private void failConstruct(
+            final StatusEventStorage storage,
+            final Duration interval,
+            final LineLogger logger,
+            final ScheduledExecutorService executor,
+            final Exception expected) {
+        try {
+            new EventLeaseReaper(storage, interval, logger, executor);
+            fail("expected exception");
+        } catch (Exception got) {
+            TestCommon.assertExceptionCorrect(got, expected);
+        }
+    }
+
+    @Test
+    public void start() {
+        final ScheduledExecutorService ex = mock(ScheduledExecutorService.class);
+        final EventLeaseReaper r = new EventLeaseReaper(mock(StatusEventStorage.class),
+                Duration.ofSeconds(30), mock(LineLogger.class), ex);
+
+        r.start();
+
+        verify(ex).scheduleAtFixedRate(
+                any(Runnable.class), eq(0L), eq(30000L), eq(TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void reap() throws Exception {
+        final StatusEventStorage storage = mock(StatusEventStorage.class);
+        final LineLogger logger = mock(LineLogger.class);
+        final EventLeaseReaper r = new EventLeaseReaper(storage, Duration.ofSeconds(30), logger,
+                mock(ScheduledExecutorService.class));
+
+        assertThat("incorrect reclaimed", r.getReclaimedCount(), is(0L));
+        assertThat("incorrect runs", r.getRunCount(), is(0L));
+
+        when(storage.reclaimExpiredLeases(StatusEventProcessingState.PROC,
+                StatusEventProcessingState.READY, "LeaseReaper")).thenReturn(0L, 3L, 2L);
+
+        assertThat("incorrect count", r.reap(), is(0L));
+        assertThat("incorrect count", r.reap(), is(3L));
+        assertThat("incorrect count", r.reap(), is(2L));
+
+        assertThat("incorrect reclaimed", r.getReclaimedCount(), is(5L));
+        assertThat("incorrect runs", r.getRunCount(), is(3L));
+        verify(logger).logInfo("Returned 3 events with expired leases from PROC to READY");
+        verify(logger).logInfo("Returned 2 events with expired leases from PROC to READY");
+        verifyNoMoreInteractions(logger);
+    }
+
+    @Test
+    public void reapFail() throws Exception {
+        final StatusEventStorage storage = mock(StatusEventStorage.class);
+        final EventLeaseReaper r = new EventLeaseReaper(storage, Duration.ofSeconds(30),
+                mock(LineLogger.class), mock(ScheduledExecutorService.class));
+
+        when(storage.reclaimExpiredLeases(StatusEventProcessingState.PROC,
+                StatusEventProcessingState.READY, "LeaseReaper")).thenThrow(
+                        new FatalRetriableIndexingException(ErrorType.OTHER, "mongo down"));
+
+        try {
+            r.reap();
+            fail("expected exception");
+        } catch (Exception got) {
+            TestCommon.assertExceptionCorrect(got,
+                    new FatalRetriableIndexingException(ErrorType.OTHER, "mongo down"));
+        }
+        assertThat("incorrect reclaimed", r.getReclaimedCount(), is(0L));
+        assertThat("incorrect runs", r.getRunCount(), is(0L));
+    }
+
+    @Test
+    public void stop() throws Exception {
+        final ScheduledExecutorService ex = mock(ScheduledExecutorService.class);
+        final EventLeaseReaper r = new EventLeaseReaper(mock(StatusEventStorage.class),
+                Duration.ofSeconds(30), mock(LineLogger.class), ex);
+
+        r.stop(5000);
+        r.awaitShutdown();
+
+        verify(ex).shutdown();
+        verify(ex).awaitTermination(5000L, TimeUnit.MILLISECONDS);
+    }
+}
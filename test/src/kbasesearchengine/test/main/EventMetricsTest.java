@@ -0,0 +1,415 @@
+package kbasesearchengine.test.main;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static kbasesearchengine.test.common.TestCommon.set;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+
+import org.junit.Test;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableMap;
+
+import kbasesearchengine.common.GUID;
+import kbasesearchengine.events.StatusEvent;
+import kbasesearchengine.events.StatusEventID;
+import kbasesearchengine.events.StatusEventPriority;
+import kbasesearchengine.events.StatusEventProcessingState;
+import kbasesearchengine.events.StatusEventType;
+import kbasesearchengine.events.StoredStatusEvent;
+import kbasesearchengine.events.exceptions.Downstream;
+import kbasesearchengine.events.exceptions.DownstreamCircuitBreakers;
+import kbasesearchengine.events.exceptions.ErrorType;
+import kbasesearchengine.events.exceptions.RetriableIndexingException;
+import kbasesearchengine.events.storage.InMemoryStatusEventStorage;
+import kbasesearchengine.events.storage.StatusEventStorage;
+import kbasesearchengine.main.EventLeaseHeartbeat;
+import kbasesearchengine.main.EventLeaseReaper;
+import kbasesearchengine.main.EventMetrics;
+import kbasesearchengine.main.LineLogger;
+import kbasesearchengine.test.common.TestCommon;
+
+public class EventMetricsTest {
+
+    @Test
+    public void constructFail() {
+        final StatusEventStorage s = mock(StatusEventStorage.class);
+        final Duration d = Duration.ofSeconds(1);
+        final Clock c = mock(Clock.class);
+        failConstruct(null, d, c, new NullPointerException("storage"));
+        failConstruct(s, null, c, new NullPointerException("rateWindow"));
+        failConstruct(s, Duration.ofMillis(999), c, new IllegalArgumentException(
+                "rateWindow must be at least 1 second"));
+        failConstruct(s, d, null, new NullPointerException("clock"));
+        try {
+            new EventMetrics(s, d, c, null);
+            fail("expected exception");
+        } catch (Exception got) {
+            TestCommon.assertExceptionCorrect(got, new NullPointerException("circuitBreakers"));
+        }
+        try {
+            new EventMetrics(s, (DownstreamCircuitBreakers) null);
+            fail("expected exception");
+        } catch (Exception got) {
+            TestCommon.assertExceptionCorrect(got, new NullPointerException("circuitBreakers"));
+        }
+        try {
+            new EventMetrics(s, (Duration) null);
+            fail("expected exception");
+        } catch (Exception got) {
+            TestCommon.assertExceptionCorrect(got, new NullPointerException("cacheTime"));
+        }
+        try {
+            new EventMetrics(s, Duration.ofMillis(-1));
+            fail("expected exception");
+        } catch (Exception got) {
+            TestCommon.assertExceptionCorrect(got, new IllegalArgumentException(
+                    "cacheTime cannot be negative"));
+        }
+    }
+
+    private void failConstruct(
+            final StatusEventStorage storage,
+            final Duration rateWindow,
+            final Clock clock,
+            final Exception expected) {
+        try {
+            new EventMetrics(storage, rateWindow, clock);
+            fail("expected exception");
+        } catch (Exception got) {
+            TestCommon.assertExceptionCorrect(got, expected);
+        }
+    }
+
+    @Test
+    public void empty() throws Exception {
+        final Clock clock = mock(Clock.class);
+        when(clock.instant()).thenReturn(Instant.ofEpochMilli(100000));
+        final EventMetrics m = new EventMetrics(
+                new InMemoryStatusEventStorage(clock), Duration.ofSeconds(10), clock);
+
+        final Map<String, Object> expected = new LinkedHashMap<>();
+        expected.put("queued", Collections.emptyMap());
+        expected.put("ready", Collections.emptyMap());
+        expected.put("processing", Collections.emptyMap());
+        expected.put("failed", Collections.emptyMap());
+        expected.put("oldest_unprocessed_age_ms", null);
+        expected.put("lanes", ImmutableMap.of(
+                "queued", lanes(0, null, 0, null), "ready", lanes(0, null, 0, null)));
+        expected.put("rate_window_sec", 10L);
+        expected.put("events_per_sec", Collections.emptyMap());
+        expected.put("timing", ImmutableMap.of("loads", 0L, "indexes", 0L, "load_ms", 0L,
+                "parse_ms", 0L, "index_ms", 0L));
+        expected.put("skip", ImmutableMap.of("checks", 0L, "skips", 0L));
+        assertThat("incorrect status", m.getStatus(), is(expected));
+
+        assertThat("incorrect text", m.getText(), is(
+                "# TYPE search_events gauge\n" +
+                "# TYPE search_oldest_unprocessed_event_age_seconds gauge\n" +
+                "search_oldest_unprocessed_event_age_seconds 0.0\n" +
+                "# TYPE search_event_lane_depth gauge\n" +
+                "search_event_lane_depth{state=\"queued\",lane=\"INTERACTIVE\"} 0\n" +
+                "search_event_lane_depth{state=\"queued\",lane=\"BULK\"} 0\n" +
+                "search_event_lane_depth{state=\"ready\",lane=\"INTERACTIVE\"} 0\n" +
+                "search_event_lane_depth{state=\"ready\",lane=\"BULK\"} 0\n" +
+                "# TYPE search_event_lane_oldest_age_seconds gauge\n" +
+                "search_event_lane_oldest_age_seconds{state=\"queued\",lane=\"INTERACTIVE\"} " +
+                "0.0\n" +
+                "search_event_lane_oldest_age_seconds{state=\"queued\",lane=\"BULK\"} 0.0\n" +
+                "search_event_lane_oldest_age_seconds{state=\"ready\",lane=\"INTERACTIVE\"} " +
+                "0.0\n" +
+                "search_event_lane_oldest_age_seconds{state=\"ready\",lane=\"BULK\"} 0.0\n" +
+                "# TYPE search_events_per_second gauge\n" +
+                "# TYPE search_objects_loaded_total counter\n" +
+                "search_objects_loaded_total 0\n" +
+                "# TYPE search_objects_indexed_total counter\n" +
+                "search_objects_indexed_total 0\n" +
+                "# TYPE search_objects_checked_total counter\n" +
+                "search_objects_checked_total 0\n" +
+                "# TYPE search_objects_skipped_total counter\n" +
+                "search_objects_skipped_total 0\n" +
+                "# TYPE search_indexer_time_seconds_total counter\n" +
+                "search_indexer_time_seconds_total{step=\"load\"} 0.0\n" +
+                "search_indexer_time_seconds_total{step=\"parse\"} 0.0\n" +
+                "search_indexer_time_seconds_total{step=\"index\"} 0.0\n"));
+    }
+
+    private static Map<String, Object> lanes(
+            final long interactiveDepth,
+            final Long interactiveAge,
+            final long bulkDepth,
+            final Long bulkAge) {
+        final Map<String, Object> interactive = new LinkedHashMap<>();
+        interactive.put("depth", interactiveDepth);
+        interactive.put("oldest_age_ms", interactiveAge);
+        final Map<String, Object> bulk = new LinkedHashMap<>();
+        bulk.put("depth", bulkDepth);
+        bulk.put("oldest_age_ms", bulkAge);
+        return ImmutableMap.of("INTERACTIVE", interactive, "BULK", bulk);
+    }
+
+    @Test
+    public void circuitBreakers() throws Exception {
+        final Clock clock = mock(Clock.class);
+        when(clock.instant()).thenReturn(Instant.ofEpochMilli(100000));
+        final DownstreamCircuitBreakers cbs = new DownstreamCircuitBreakers(
+                1, 2, Duration.ofSeconds(10), clock);
+        final EventMetrics m = new EventMetrics(new InMemoryStatusEventStorage(clock),
+                Duration.ofSeconds(10), clock, Optional.of(cbs));
+        cbs.recordFailure(new RetriableIndexingException(
+                ErrorType.OTHER, Downstream.WORKSPACE, "foo", new Exception()));
+        cbs.recordFailure(new RetriableIndexingException(
+                ErrorType.OTHER, Downstream.WORKSPACE, "foo", new Exception()));
+        cbs.recordFailure(new RetriableIndexingException(
+                ErrorType.OTHER, Downstream.MONGO, "foo", new Exception()));
+
+        assertThat("incorrect status", m.getStatus().get("circuit_breakers"), is(ImmutableMap.of(
+                "mongo/OTHER", ImmutableMap.of(
+                        "state", "CLOSED", "failure_rate", 1.0, "opened", 0L),
+                "workspace/OTHER", ImmutableMap.of(
+                        "state", "OPEN", "failure_rate", 0.0, "opened", 1L))));
+        assertThat("incorrect text", m.getText().endsWith(
+                "# TYPE search_circuit_breaker_open gauge\n" +
+                "search_circuit_breaker_open{breaker=\"mongo/OTHER\"} 0\n" +
+                "search_circuit_breaker_open{breaker=\"workspace/OTHER\"} 1\n" +
+                "# TYPE search_circuit_breaker_failure_rate gauge\n" +
+                "search_circuit_breaker_failure_rate{breaker=\"mongo/OTHER\"} 1.0\n" +
+                "search_circuit_breaker_failure_rate{breaker=\"workspace/OTHER\"} 0.0\n"),
+                is(true));
+    }
+
+    @Test
+    public void metrics() throws Exception {
+        final Clock clock = mock(Clock.class);
+        final StatusEventStorage storage = new InMemoryStatusEventStorage(clock);
+        final EventMetrics m = new EventMetrics(storage, Duration.ofSeconds(10), clock);
+        final StatusEventProcessingState r = StatusEventProcessingState.READY;
+        when(clock.instant()).thenReturn(Instant.ofEpochMilli(1000));
+
+        store(storage, 40000, StatusEventType.NEW_VERSION, StatusEventProcessingState.UNPROC,
+                null);
+        store(storage, 30000, StatusEventType.NEW_VERSION, r, set("foo"));
+        store(storage, 35000, StatusEventType.NEW_VERSION, r, set("foo", "default"),
+                StatusEventPriority.BULK);
+        final StoredStatusEvent e1 = store(
+                storage, 10000, StatusEventType.NEW_VERSION, r, null);
+        final StoredStatusEvent e2 = store(
+                storage, 11000, StatusEventType.DELETE_ALL_VERSIONS, r, null);
+        final StoredStatusEvent e3 = store(
+                storage, 12000, StatusEventType.NEW_VERSION, r, null);
+        final StoredStatusEvent e4 = store(
+                storage, 13000, StatusEventType.NEW_VERSION, r, set("foo"));
+
+        // e1 is processed outside the rate window
+        when(clock.instant()).thenReturn(Instant.ofEpochMilli(44000));
+        storage.setProcessingState(e1.getID(), r, StatusEventProcessingState.INDX);
+        when(clock.instant()).thenReturn(Instant.ofEpochMilli(50000));
+        storage.setProcessingState(e2.getID(), r, StatusEventProcessingState.UNINDX);
+        storage.setProcessingState(e3.getID(), r, "code", new Exception("foo"));
+        storage.setProcessingState(e4.getID(), r, StatusEventProcessingState.PROC);
+
+        m.timeStat(new GUID("WS:1/2/3"), 100, 0, 0);
+        m.timeStat(new GUID("WS:1/2/3"), 200, 0, 0);
+        m.timeStat(new GUID("WS:1/2/3"), 0, 1500, 2500);
+        m.skipStat(new GUID("WS:1/2/3"), true);
+        m.skipStat(new GUID("WS:1/2/3"), false);
+        m.skipStat(new GUID("WS:1/2/3"), true);
+
+        when(clock.instant()).thenReturn(Instant.ofEpochMilli(55000));
+
+        final Map<String, Object> expected = new LinkedHashMap<>();
+        expected.put("queued", ImmutableMap.of("default", 1L));
+        expected.put("ready", ImmutableMap.of("default", 1L, "foo", 2L));
+        expected.put("processing", ImmutableMap.of("foo", 1L));
+        expected.put("failed", ImmutableMap.of("default", 1L));
+        expected.put("oldest_unprocessed_age_ms", 25000L);
+        expected.put("lanes", ImmutableMap.of(
+                "queued", lanes(1, 15000L, 0, null), "ready", lanes(1, 25000L, 1, 20000L)));
+        expected.put("rate_window_sec", 10L);
+        expected.put("events_per_sec", ImmutableMap.of(
+                "DELETE_ALL_VERSIONS", 0.1, "NEW_VERSION", 0.1));
+        expected.put("timing", ImmutableMap.of("loads", 2L, "indexes", 1L, "load_ms", 300L,
+                "parse_ms", 1500L, "index_ms", 2500L));
+        expected.put("skip", ImmutableMap.of("checks", 3L, "skips", 2L));
+        assertThat("incorrect status", m.getStatus(), is(expected));
+
+        assertThat("incorrect text", m.getText(), is(
+                "# TYPE search_events gauge\n" +
+                "search_events{state=\"queued\",worker_code=\"default\"} 1\n" +
+                "search_events{state=\"ready\",worker_code=\"default\"} 1\n" +
+                "search_events{state=\"ready\",worker_code=\"foo\"} 2\n" +
+                "search_events{state=\"processing\",worker_code=\"foo\"} 1\n" +
+                "search_events{state=\"failed\",worker_code=\"default\"} 1\n" +
+                "# TYPE search_oldest_unprocessed_event_age_seconds gauge\n" +
+                "search_oldest_unprocessed_event_age_seconds 25.0\n" +
+                "# TYPE search_event_lane_depth gauge\n" +
+                "search_event_lane_depth{state=\"queued\",lane=\"INTERACTIVE\"} 1\n" +
+                "search_event_lane_depth{state=\"queued\",lane=\"BULK\"} 0\n" +
+                "search_event_lane_depth{state=\"ready\",lane=\"INTERACTIVE\"} 1\n" +
+                "search_event_lane_depth{state=\"ready\",lane=\"BULK\"} 1\n" +
+                "# TYPE search_event_lane_oldest_age_seconds gauge\n" +
+                "search_event_lane_oldest_age_seconds{state=\"queued\",lane=\"INTERACTIVE\"} " +
+                "15.0\n" +
+                "search_event_lane_oldest_age_seconds{state=\"queued\",lane=\"BULK\"} 0.0\n" +
+                "search_event_lane_oldest_age_seconds{state=\"ready\",lane=\"INTERACTIVE\"} " +
+                "25.0\n" +
+                "search_event_lane_oldest_age_seconds{state=\"ready\",lane=\"BULK\"} 20.0\n" +
+                "# TYPE search_events_per_second gauge\n" +
+                "search_events_per_second{type=\"NEW_VERSION\"} 0.1\n" +
+                "search_events_per_second{type=\"DELETE_ALL_VERSIONS\"} 0.1\n" +
+                "# TYPE search_objects_loaded_total counter\n" +
+                "search_objects_loaded_total 2\n" +
+                "# TYPE search_objects_indexed_total counter\n" +
+                "search_objects_indexed_total 1\n" +
+                "# TYPE search_objects_checked_total counter\n" +
+                "search_objects_checked_total 3\n" +
+                "# TYPE search_objects_skipped_total counter\n" +
+                "search_objects_skipped_total 2\n" +
+                "# TYPE search_indexer_time_seconds_total counter\n" +
+                "search_indexer_time_seconds_total{step=\"load\"} 0.3\n" +
+                "search_indexer_time_seconds_total{step=\"parse\"} 1.5\n" +
+                "search_indexer_time_seconds_total{step=\"index\"} 2.5\n"));
+    }
+
+    @Test
+    public void cache() throws Exception {
+        final Clock clock = mock(Clock.class);
+        final StatusEventStorage storage = new InMemoryStatusEventStorage(clock);
+        final EventMetrics m = new EventMetrics(storage, Duration.ofSeconds(10),
+                Duration.ofSeconds(5), clock, Optional.absent());
+        final StatusEventProcessingState r = StatusEventProcessingState.READY;
+        when(clock.instant()).thenReturn(Instant.ofEpochMilli(1000));
+        store(storage, 1000, StatusEventType.NEW_VERSION, r, null);
+
+        assertThat("incorrect counts", m.getStatus().get("ready"),
+                is(ImmutableMap.of("default", 1L)));
+
+        // the storage system isn't queried again until the cache time passes
+        store(storage, 1000, StatusEventType.NEW_VERSION, r, null);
+        when(clock.instant()).thenReturn(Instant.ofEpochMilli(5999));
+        assertThat("incorrect counts", m.getStatus().get("ready"),
+                is(ImmutableMap.of("default", 1L)));
+        assertThat("incorrect text", m.getText().contains(
+                "search_events{state=\"ready\",worker_code=\"default\"} 1\n"), is(true));
+        // in process counters are not cached
+        m.skipStat(new GUID("WS:1/2/3"), true);
+        assertThat("incorrect skip", m.getStatus().get("skip"),
+                is(ImmutableMap.of("checks", 1L, "skips", 1L)));
+
+        when(clock.instant()).thenReturn(Instant.ofEpochMilli(6000));
+        assertThat("incorrect counts", m.getStatus().get("ready"),
+                is(ImmutableMap.of("default", 2L)));
+    }
+
+    @Test
+    public void oldestAgeWithFutureTimestamp() throws Exception {
+        final Clock clock = mock(Clock.class);
+        final StatusEventStorage storage = new InMemoryStatusEventStorage(clock);
+        final EventMetrics m = new EventMetrics(storage, Duration.ofSeconds(10), clock);
+        when(clock.instant()).thenReturn(Instant.ofEpochMilli(1000));
+
+        store(storage, 2000, StatusEventType.NEW_VERSION, StatusEventProcessingState.READY,
+                null);
+
+        assertThat("incorrect age", m.getStatus().get("oldest_unprocessed_age_ms"), is(0L));
+    }
+
+    @Test
+    public void leases() throws Exception {
+        final Clock clock = mock(Clock.class);
+        when(clock.instant()).thenReturn(Instant.ofEpochMilli(1000));
+        final StatusEventStorage storage = new InMemoryStatusEventStorage(clock);
+        final EventMetrics m = new EventMetrics(storage, Duration.ofSeconds(10), clock);
+        final StatusEventProcessingState r = StatusEventProcessingState.READY;
+        final StatusEventProcessingState p = StatusEventProcessingState.PROC;
+        final Duration d = Duration.ofSeconds(30);
+        final ScheduledExecutorService ex = mock(ScheduledExecutorService.class);
+        final EventLeaseHeartbeat hb = new EventLeaseHeartbeat(
+                storage, "worker1", d, mock(LineLogger.class), ex);
+        final EventLeaseReaper reaper = new EventLeaseReaper(
+                storage, Duration.ofSeconds(10), mock(LineLogger.class), ex);
+
+        store(storage, 500, StatusEventType.NEW_VERSION, r, null);
+        store(storage, 600, StatusEventType.NEW_VERSION, r, null);
+        final List<StoredStatusEvent> claimed = storage.claimEvents(
+                r, null, p, "worker1", 2, d);
+        hb.hold(claimed.get(0).getID());
+        hb.hold(new StatusEventID("nope"));
+        hb.renewLeases();
+        when(clock.instant()).thenReturn(Instant.ofEpochMilli(100000));
+        reaper.reap();
+
+        assertThat("incorrect status", m.getStatus().containsKey("leases"), is(false));
+        assertThat("incorrect text", m.getText().contains("lease"), is(false));
+
+        m.setLeaseHeartbeat(hb);
+        assertThat("incorrect status", m.getStatus().get("leases"), is(ImmutableMap.of(
+                "renewed", 1L, "lost", 1L, "renew_failed", 0L)));
+
+        m.setLeaseReaper(reaper);
+        assertThat("incorrect status", m.getStatus().get("leases"), is(ImmutableMap.of(
+                "renewed", 1L, "lost", 1L, "renew_failed", 0L, "reclaimed", 2L,
+                "reaper_runs", 1L)));
+        assertThat("incorrect text", m.getText().endsWith(
+                "# TYPE search_event_lease_renewals_total counter\n" +
+                "search_event_lease_renewals_total{result=\"renewed\"} 1\n" +
+                "search_event_lease_renewals_total{result=\"lost\"} 1\n" +
+                "search_event_lease_renewals_total{result=\"failed\"} 0\n" +
+                "# TYPE search_event_leases_reclaimed_total counter\n" +
+                "search_event_leases_reclaimed_total 2\n"),
+                is(true));
+    }
+
+    @Test
+    public void setLeasesFail() throws Exception {
+        final EventMetrics m = new EventMetrics(mock(StatusEventStorage.class));
+        try {
+            m.setLeaseHeartbeat(null);
+            fail("expected exception");
+        } catch (Exception got) {
+            TestCommon.assertExceptionCorrect(got, new NullPointerException("heartbeat"));
+        }
+        try {
+            m.setLeaseReaper(null);
+            fail("expected exception");
+        } catch (Exception got) {
+            TestCommon.assertExceptionCorrect(got, new NullPointerException("reaper"));
+        }
+    }
+
+    private StoredStatusEvent store(
+            final StatusEventStorage storage,
+            final long timestamp,
+            final StatusEventType type,
+            final StatusEventProcessingState state,
+            final Set<String> workerCodes)
+            throws Exception {
+        return store(storage, timestamp, type, state, workerCodes,
+                StatusEventPriority.INTERACTIVE);
+    }
+
+    private StoredStatusEvent store(
+            final StatusEventStorage storage,
+            final long timestamp,
+            final StatusEventType type,
+            final StatusEventProcessingState state,
+            final Set<String> workerCodes,
+            final StatusEventPriority priority)
+            throws Exception {
+        return storage.store(StatusEvent.getBuilder(
+                "WS", Instant.ofEpochMilli(timestamp), type).build(),
+                state, workerCodes, "WSEG", priority);
+    }
+}
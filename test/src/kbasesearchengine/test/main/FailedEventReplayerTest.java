@@ -0,0 +1,552 @@
+package kbasesearchengine.test.main;
+
+import static kbasesearchengine.test.common.TestCommon.set;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableMap;
+
+import kbasesearchengine.common.GUID;
+import kbasesearchengine.events.AccessGroupEventQueue;
+import kbasesearchengine.events.ChildStatusEvent;
+import kbasesearchengine.events.FailedChildStatusEvent;
+import kbasesearchengine.events.ObjectIDRange;
+import kbasesearchengine.events.StatusEvent;
+import kbasesearchengine.events.StatusEventID;
+import kbasesearchengine.events.StatusEventPriority;
+import kbasesearchengine.events.StatusEventProcessingState;
+import kbasesearchengine.events.StatusEventType;
+import kbasesearchengine.events.StoredChildStatusEvent;
+import kbasesearchengine.events.StoredStatusEvent;
+import kbasesearchengine.events.exceptions.ErrorType;
+import kbasesearchengine.events.exceptions.FatalIndexingException;
+import kbasesearchengine.events.exceptions.FatalRetriableIndexingException;
+import kbasesearchengine.events.storage.FailedEventQuery;
+import kbasesearchengine.events.storage.InMemoryStatusEventStorage;
+import kbasesearchengine.events.storage.StatusEventStorage;
+import kbasesearchengine.main.FailedEventReplayer;
+import kbasesearchengine.main.FailedEventReplayer.Report;
+import kbasesearchengine.main.FailedEventReplayer.Reprocessor;
+import kbasesearchengine.main.FailedEventReplayer.Summary;
+import kbasesearchengine.main.LineLogger;
+import kbasesearchengine.test.common.TestCommon;
+
+public class FailedEventReplayerTest {
+
+    private static final StatusEventProcessingState FAIL = StatusEventProcessingState.FAIL;
+    private static final StatusEventProcessingState INDX = StatusEventProcessingState.INDX;
+    private static final StatusEventProcessingState UNPROC = StatusEventProcessingState.UNPROC;
+
+    private static final LineLogger LOGGER = new LineLogger() {
+
+        @Override
+        public void logInfo(final String line) {}
+
+        @Override
+        public void logError(final Throwable error) {}
+
+        @Override
+        public void logError(final String line) {}
+
+        @Override
+        public void timeStat(
+                final GUID guid,
+                final long loadMs,
+                final long parseMs,
+                final long indexMs) {}
+
+        @Override
+        public void skipStat(final GUID guid, final boolean skipped) {}
+    };
+
+    private Clock storageClock;
+    private Clock clock;
+    private StatusEventStorage storage;
+    private FailedEventReplayer replayer;
+
+    // events with an object ID of "fail" fail again when reprocessed
+    private static class TestReprocessor implements Reprocessor {
+
+        private final StatusEventStorage storage;
+        private final Set<StatusEvent> processed;
+        private final boolean fatal;
+
+        private TestReprocessor(
+                final StatusEventStorage storage,
+                final Set<StatusEvent> processed,
+                final boolean fatal) {
+            this.storage = storage;
+            this.processed = processed;
+            this.fatal = fatal;
+        }
+
+        private boolean fails(final StatusEvent event) throws FatalIndexingException {
+            if (fatal) {
+                throw new FatalIndexingException(ErrorType.OTHER, "fatal");
+            }
+            processed.add(event);
+            return Optional.of("fail").equals(event.getAccessGroupObjectId());
+        }
+
+        @Override
+        public StatusEventProcessingState reprocess(final StoredStatusEvent event)
+                throws FatalIndexingException {
+            try {
+                if (fails(event.getEvent())) {
+                    storage.setProcessingState(event.getID(), StatusEventProcessingState.PROC,
+                            "OTHER", new Exception("again"));
+                    return FAIL;
+                }
+                storage.setProcessingState(event.getID(), StatusEventProcessingState.PROC, INDX);
+                return INDX;
+            } catch (FatalRetriableIndexingException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        @Override
+        public StatusEventProcessingState reprocess(final ChildStatusEvent event)
+                throws FatalIndexingException {
+            try {
+                if (fails(event.getEvent())) {
+                    storage.store(event, "OTHER", new Exception("again"));
+                    return FAIL;
+                }
+                return INDX;
+            } catch (FatalRetriableIndexingException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    private static StatusEvent event(final int time, final String objectID) {
+        return StatusEvent.getBuilder("WS", Instant.ofEpochMilli(time),
+                StatusEventType.NEW_VERSION)
+                .withNullableAccessGroupID(1)
+                .withNullableObjectID(objectID)
+                .build();
+    }
+
+    private List<StoredStatusEvent> events;
+    private List<StoredChildStatusEvent> children;
+
+    @Before
+    public void init() throws Exception {
+        storageClock = mock(Clock.class);
+        clock = mock(Clock.class);
+        storage = new InMemoryStatusEventStorage(storageClock);
+        replayer = new FailedEventReplayer(storage, LOGGER, clock);
+
+        when(storageClock.instant()).thenReturn(Instant.ofEpochMilli(10000));
+        events = storage.storeAll(Arrays.asList(
+                event(1000, "1"), event(2000, "fail"), event(3000, "3"), event(4000, "4")),
+                StatusEventProcessingState.PROC, set("foo"), "WSEG");
+        for (int i = 0; i < 3; i++) {
+            storage.setProcessingState(events.get(i).getID(), null, i == 0 ? "DELETED" : "OTHER",
+                    new Exception("err"));
+        }
+        children = storage.storeAllChildren(Arrays.asList(
+                new FailedChildStatusEvent(
+                        new ChildStatusEvent(event(1500, "5"), events.get(3).getID()),
+                        "OTHER", new Exception("err")),
+                new FailedChildStatusEvent(
+                        new ChildStatusEvent(event(2500, "fail"), events.get(3).getID()),
+                        "OTHER", new Exception("err")),
+                new FailedChildStatusEvent(
+                        new ChildStatusEvent(event(3500, "7"), new StatusEventID(
+                                "5a0f1b2c3d4e5f6a7b8c9d0e")),
+                        "DELETED", new Exception("err"))));
+        when(storageClock.instant()).thenReturn(Instant.ofEpochMilli(40000));
+        when(clock.instant()).thenReturn(Instant.ofEpochMilli(30000),
+                Instant.ofEpochMilli(32000));
+    }
+
+    @Test
+    public void constructFail() {
+        final Clock c = Clock.systemDefaultZone();
+        failConstruct(null, LOGGER, c, new NullPointerException("storage"));
+        failConstruct(storage, null, c, new NullPointerException("logger"));
+        failConstruct(storage, LOGGER, null, new NullPointerException("clock"));
+    }
+
+    private void failConstruct(
+            final StatusEventStorage storage,
+            final LineLogger logger,
+            final Clock clock,
+            final Exception expected) {
+        try {
+            new FailedEventReplayer(storage, logger, clock);
+            fail("expected exception");
+        } catch (Exception got) {
+            TestCommon.assertExceptionCorrect(got, expected);
+        }
+    }
+
+    @Test
+    public void summary() throws Exception {
+        final Summary s = replayer.getSummary(FailedEventQuery.getBuilder().build());
+
+        assertThat("incorrect counts", s.getEventCounts(), is(ImmutableMap.of(
+                "DELETED", ImmutableMap.of(StatusEventType.NEW_VERSION, 1L),
+                "OTHER", ImmutableMap.of(StatusEventType.NEW_VERSION, 2L))));
+        assertThat("incorrect counts", s.getChildCounts(), is(ImmutableMap.of(
+                "DELETED", ImmutableMap.of(StatusEventType.NEW_VERSION, 1L),
+                "OTHER", ImmutableMap.of(StatusEventType.NEW_VERSION, 2L))));
+        assertThat("incorrect total", s.getEventTotal(), is(3L));
+        assertThat("incorrect total", s.getChildTotal(), is(3L));
+
+        final Summary s2 = replayer.getSummary(FailedEventQuery.getBuilder()
+                .withErrorCode("DELETED").build());
+        assertThat("incorrect total", s2.getEventTotal(), is(1L));
+        assertThat("incorrect total", s2.getChildTotal(), is(1L));
+
+        // nothing was changed
+        assertThat("incorrect state", storage.get(events.get(0).getID()).get().getState(),
+                is(FAIL));
+    }
+
+    @Test
+    public void reset() throws Exception {
+        final Report r = replayer.reset(FailedEventQuery.getBuilder().build());
+
+        assertThat("incorrect events", r.getEventStates(), is(ImmutableMap.of(UNPROC, 3L)));
+        assertThat("incorrect children", r.getChildStates(), is(ImmutableMap.of(UNPROC, 3L)));
+        assertThat("incorrect skipped", r.getSkipped(), is(0L));
+        assertThat("incorrect total", r.getTotal(), is(6L));
+        assertThat("incorrect elapsed", r.getElapsed(), is(Duration.ofSeconds(2)));
+        assertThat("incorrect rate", r.getEventsPerSecond(), is(3.0));
+
+        for (int i = 0; i < 3; i++) {
+            final StoredStatusEvent e = storage.get(events.get(i).getID()).get();
+            assertThat("incorrect state", e.getState(), is(UNPROC));
+            assertThat("incorrect updater", e.getUpdater(), is(Optional.of("replay")));
+        }
+        for (final StoredChildStatusEvent c: children) {
+            assertThat("child not deleted", storage.getChild(c.getID()), is(Optional.absent()));
+        }
+        // children are stored as new events with the worker codes of the parent
+        final List<StoredStatusEvent> unproc = storage.get(UNPROC, -1).stream()
+                .filter(e -> !e.getUpdateTime().isPresent())
+                .collect(Collectors.toList());
+        assertThat("incorrect events", unproc.stream().map(e -> e.getEvent())
+                .collect(Collectors.toList()),
+                is(Arrays.asList(event(1500, "5"), event(2500, "fail"), event(3500, "7"))));
+        assertThat("incorrect codes", unproc.get(0).getWorkerCodes(), is(set("foo")));
+        assertThat("incorrect codes", unproc.get(1).getWorkerCodes(), is(set("foo")));
+        assertThat("incorrect codes", unproc.get(2).getWorkerCodes(), is(set("default")));
+        for (final StoredStatusEvent e: unproc) {
+            assertThat("incorrect priority", e.getPriority(), is(StatusEventPriority.BULK));
+            assertThat("incorrect stored by", e.getStoredBy(), is(Optional.of("replay")));
+        }
+        assertThat("incorrect summary", replayer.getSummary(FailedEventQuery.getBuilder()
+                .build()).getEventTotal(), is(0L));
+    }
+
+    @Test
+    public void resetRerunAfterDeleteFailure() throws Exception {
+        final AtomicBoolean failDelete = new AtomicBoolean(true);
+        final StatusEventStorage failing = new InMemoryStatusEventStorage(storageClock) {
+
+            @Override
+            public long deleteChildren(final Collection<StatusEventID> ids) {
+                if (failDelete.getAndSet(false)) {
+                    throw new IllegalStateException("delete failed");
+                }
+                return super.deleteChildren(ids);
+            }
+        };
+        when(storageClock.instant()).thenReturn(Instant.ofEpochMilli(10000));
+        final StoredStatusEvent parent = failing.store(event(4000, "4"), INDX, set("foo"),
+                "WSEG");
+        failing.storeAllChildren(Arrays.asList(
+                new FailedChildStatusEvent(
+                        new ChildStatusEvent(event(1500, "5"), parent.getID()),
+                        "OTHER", new Exception("err")),
+                new FailedChildStatusEvent(
+                        new ChildStatusEvent(event(2500, "6"), parent.getID()),
+                        "OTHER", new Exception("err"))));
+        when(storageClock.instant()).thenReturn(Instant.ofEpochMilli(40000));
+        when(clock.instant()).thenReturn(Instant.ofEpochMilli(30000));
+        final FailedEventReplayer rp = new FailedEventReplayer(failing, LOGGER, clock);
+
+        try {
+            rp.reset(FailedEventQuery.getBuilder().build());
+            fail("expected exception");
+        } catch (Exception got) {
+            TestCommon.assertExceptionCorrect(got, new IllegalStateException("delete failed"));
+        }
+        // the child events were stored but not deleted
+        assertThat("incorrect summary", rp.getSummary(FailedEventQuery.getBuilder().build())
+                .getChildTotal(), is(2L));
+
+        final Report r = rp.reset(FailedEventQuery.getBuilder().build());
+
+        assertThat("incorrect children", r.getChildStates(), is(ImmutableMap.of(UNPROC, 2L)));
+        assertThat("incorrect summary", rp.getSummary(FailedEventQuery.getBuilder().build())
+                .getChildTotal(), is(0L));
+        // the child events are only stored once
+        assertThat("incorrect events", failing.get(UNPROC, -1).stream().map(e -> e.getEvent())
+                .collect(Collectors.toList()),
+                is(Arrays.asList(event(1500, "5"), event(2500, "6"))));
+    }
+
+    @Test
+    public void resetRangedChild() throws Exception {
+        // child events for a range of objects have no object ID, and must be loadable into an
+        // access group queue after the reset
+        final StatusEvent ranged = StatusEvent.getBuilder("WS", Instant.ofEpochMilli(5000),
+                StatusEventType.DELETE_ALL_VERSIONS)
+                .withNullableAccessGroupID(2)
+                .withNullableObjectIDRange(new ObjectIDRange(1, 1000))
+                .build();
+        when(storageClock.instant()).thenReturn(Instant.ofEpochMilli(10000));
+        storage.storeAllChildren(Arrays.asList(new FailedChildStatusEvent(
+                new ChildStatusEvent(ranged, events.get(3).getID()), "OTHER",
+                new Exception("err"))));
+        final StoredStatusEvent obj = storage.store(StatusEvent.getBuilder(
+                "WS", Instant.ofEpochMilli(6000), StatusEventType.NEW_VERSION)
+                .withNullableAccessGroupID(2)
+                .withNullableObjectID("3")
+                .build(), UNPROC, null, "WSEG");
+
+        final Report r = replayer.reset(FailedEventQuery.getBuilder().build());
+
+        assertThat("incorrect children", r.getChildStates(), is(ImmutableMap.of(UNPROC, 4L)));
+        final List<StoredStatusEvent> reset = storage.get(UNPROC, -1).stream()
+                .filter(e -> e.getEvent().equals(ranged))
+                .collect(Collectors.toList());
+        assertThat("incorrect reset", reset.size(), is(1));
+
+        final AccessGroupEventQueue q = new AccessGroupEventQueue();
+        assertThat("incorrect load", q.load(obj), is(true));
+        assertThat("incorrect load", q.load(reset.get(0)), is(true));
+        // the ranged event blocks the access group, as it may apply to any object
+        assertThat("incorrect ready", q.moveToReady(), is(set(reset.get(0))));
+        assertThat("incorrect processing", q.moveReadyToProcessing(), is(set(reset.get(0))));
+        assertThat("incorrect ready", q.moveToReady(), is(set()));
+        q.setProcessingComplete(reset.get(0));
+        assertThat("incorrect ready", q.getReadyForProcessing(), is(set(obj)));
+    }
+
+    @Test
+    public void resetWithQuery() throws Exception {
+        final Report r = replayer.reset(FailedEventQuery.getBuilder()
+                .withErrorCode("DELETED").build());
+
+        assertThat("incorrect events", r.getEventStates(), is(ImmutableMap.of(UNPROC, 1L)));
+        assertThat("incorrect children", r.getChildStates(), is(ImmutableMap.of(UNPROC, 1L)));
+        assertThat("incorrect state", storage.get(events.get(1).getID()).get().getState(),
+                is(FAIL));
+        assertThat("incorrect child", storage.getChild(children.get(0).getID()).isPresent(),
+                is(true));
+        assertThat("incorrect child", storage.getChild(children.get(2).getID()),
+                is(Optional.absent()));
+    }
+
+    @Test
+    public void reprocess() throws Exception {
+        final Set<StatusEvent> processed = Collections.synchronizedSet(new HashSet<>());
+        final Report r = replayer.reprocess(FailedEventQuery.getBuilder().build(), Arrays.asList(
+                new TestReprocessor(storage, processed, false),
+                new TestReprocessor(storage, processed, false)), 0);
+
+        assertThat("incorrect events", r.getEventStates(),
+                is(ImmutableMap.of(INDX, 2L, FAIL, 1L)));
+        assertThat("incorrect children", r.getChildStates(),
+                is(ImmutableMap.of(INDX, 2L, FAIL, 1L)));
+        assertThat("incorrect total", r.getTotal(), is(6L));
+        assertThat("incorrect rate", r.getEventsPerSecond(), is(3.0));
+        assertThat("incorrect toString", r.toString(), is(
+                "3 events {FAIL=1, INDX=2}, 3 child events {FAIL=1, INDX=2}, 0 skipped in " +
+                "2000 ms (3.0 events/s)"));
+        // each event is processed once, even if it fails again
+        assertThat("incorrect processed", processed, is(set(event(1000, "1"),
+                event(2000, "fail"), event(3000, "3"), event(1500, "5"), event(2500, "fail"),
+                event(3500, "7"))));
+
+        assertThat("incorrect state", storage.get(events.get(0).getID()).get().getState(),
+                is(INDX));
+        assertThat("incorrect state", storage.get(events.get(1).getID()).get().getState(),
+                is(FAIL));
+        for (final StoredChildStatusEvent c: children) {
+            assertThat("child not deleted", storage.getChild(c.getID()), is(Optional.absent()));
+        }
+        // the failures from the replay are all that remain
+        final FailedEventQuery all = FailedEventQuery.getBuilder().build();
+        assertThat("incorrect failed", storage.getFailed(all, -1).stream().map(e -> e.getID())
+                .collect(Collectors.toList()), is(Arrays.asList(events.get(1).getID())));
+        assertThat("incorrect failed", storage.getFailedChildren(all, -1).stream()
+                .map(c -> c.getChildEvent().getEvent()).collect(Collectors.toList()),
+                is(Arrays.asList(event(2500, "fail"))));
+    }
+
+    // records the processing order, and fails if events in an access group overlap
+    private static class OrderReprocessor implements Reprocessor {
+
+        private final List<StatusEvent> processed;
+        private final Set<Integer> active;
+
+        private OrderReprocessor(final List<StatusEvent> processed, final Set<Integer> active) {
+            this.processed = processed;
+            this.active = active;
+        }
+
+        private StatusEventProcessingState process(final StatusEvent event)
+                throws InterruptedException {
+            final int accessGroupID = event.getAccessGroupId().get();
+            if (!active.add(accessGroupID)) {
+                throw new IllegalStateException("concurrent access group " + accessGroupID);
+            }
+            try {
+                processed.add(event);
+                Thread.sleep(20);
+                return INDX;
+            } finally {
+                active.remove(accessGroupID);
+            }
+        }
+
+        @Override
+        public StatusEventProcessingState reprocess(final StoredStatusEvent event)
+                throws InterruptedException {
+            return process(event.getEvent());
+        }
+
+        @Override
+        public StatusEventProcessingState reprocess(final ChildStatusEvent event)
+                throws InterruptedException {
+            return process(event.getEvent());
+        }
+    }
+
+    private static StatusEvent event(final int time, final int accessGroupID) {
+        return StatusEvent.getBuilder("WS", Instant.ofEpochMilli(time),
+                StatusEventType.NEW_VERSION)
+                .withNullableAccessGroupID(accessGroupID)
+                .withNullableObjectID("1")
+                .build();
+    }
+
+    @Test
+    public void reprocessAccessGroupsSequentially() throws Exception {
+        when(storageClock.instant()).thenReturn(Instant.ofEpochMilli(10000));
+        final List<StoredStatusEvent> evs = storage.storeAll(Arrays.asList(
+                event(1700, 2), event(1100, 2), event(1300, 3), event(1200, 2), event(1400, 3)),
+                StatusEventProcessingState.PROC, null, "WSEG");
+        for (final StoredStatusEvent e: evs) {
+            storage.setProcessingState(e.getID(), null, "OTHER", new Exception("err"));
+        }
+        final List<StatusEvent> processed = Collections.synchronizedList(new LinkedList<>());
+        final Set<Integer> active = Collections.synchronizedSet(new HashSet<>());
+
+        final Report r = replayer.reprocess(FailedEventQuery.getBuilder().build(), Arrays.asList(
+                new OrderReprocessor(processed, active),
+                new OrderReprocessor(processed, active),
+                new OrderReprocessor(processed, active)), 0);
+
+        assertThat("incorrect events", r.getEventStates(), is(ImmutableMap.of(INDX, 8L)));
+        assertThat("incorrect children", r.getChildStates(), is(ImmutableMap.of(INDX, 3L)));
+        // events in an access group are processed in timestamp order
+        assertThat("incorrect order", processed.stream()
+                .filter(e -> e.getAccessGroupId().get() == 2)
+                .collect(Collectors.toList()),
+                is(Arrays.asList(event(1100, 2), event(1200, 2), event(1700, 2))));
+        assertThat("incorrect order", processed.stream()
+                .filter(e -> e.getAccessGroupId().get() == 3)
+                .collect(Collectors.toList()),
+                is(Arrays.asList(event(1300, 3), event(1400, 3))));
+        assertThat("incorrect order", processed.stream()
+                .filter(e -> e.getAccessGroupId().get() == 1)
+                .collect(Collectors.toList()),
+                is(Arrays.asList(event(1000, "1"), event(2000, "fail"), event(3000, "3"),
+                        event(1500, "5"), event(2500, "fail"), event(3500, "7"))));
+    }
+
+    @Test
+    public void reprocessWithLimit() throws Exception {
+        final Set<StatusEvent> processed = Collections.synchronizedSet(new HashSet<>());
+        final Report r = replayer.reprocess(FailedEventQuery.getBuilder().build(),
+                Arrays.asList(new TestReprocessor(storage, processed, false)), 4);
+
+        assertThat("incorrect events", r.getEventStates(),
+                is(ImmutableMap.of(INDX, 2L, FAIL, 1L)));
+        assertThat("incorrect children", r.getChildStates(), is(ImmutableMap.of(INDX, 1L)));
+        assertThat("incorrect processed", processed, is(set(event(1000, "1"),
+                event(2000, "fail"), event(3000, "3"), event(1500, "5"))));
+        assertThat("incorrect child", storage.getChild(children.get(1).getID()).isPresent(),
+                is(true));
+    }
+
+    @Test
+    public void reprocessFatal() throws Exception {
+        final Set<StatusEvent> processed = Collections.synchronizedSet(new HashSet<>());
+        try {
+            replayer.reprocess(FailedEventQuery.getBuilder().build(),
+                    Arrays.asList(new TestReprocessor(storage, processed, true)), 0);
+            fail("expected exception");
+        } catch (Exception got) {
+            TestCommon.assertExceptionCorrect(got,
+                    new FatalIndexingException(ErrorType.OTHER, "fatal"));
+        }
+        // the child events were not touched
+        assertThat("incorrect child", storage.getChild(children.get(0).getID()).isPresent(),
+                is(true));
+    }
+
+    @Test
+    public void reprocessFail() throws Exception {
+        final FailedEventQuery q = FailedEventQuery.getBuilder().build();
+        final Reprocessor rp = new TestReprocessor(storage, new HashSet<>(), false);
+        failReprocess(null, Arrays.asList(rp), new NullPointerException("query"));
+        failReprocess(q, null, new NullPointerException("reprocessors"));
+        failReprocess(q, Arrays.asList(rp, null),
+                new NullPointerException("null item in reprocessors"));
+        failReprocess(q, Collections.emptyList(),
+                new IllegalArgumentException("At least one reprocessor is required"));
+
+        try {
+            replayer.reset(null);
+            fail("expected exception");
+        } catch (Exception got) {
+            TestCommon.assertExceptionCorrect(got, new NullPointerException("query"));
+        }
+        try {
+            replayer.getSummary(null);
+            fail("expected exception");
+        } catch (Exception got) {
+            TestCommon.assertExceptionCorrect(got, new NullPointerException("query"));
+        }
+    }
+
+    private void failReprocess(
+            final FailedEventQuery query,
+            final List<Reprocessor> reprocessors,
+            final Exception expected) {
+        try {
+            replayer.reprocess(query, reprocessors, 0);
+            fail("expected exception");
+        } catch (Exception got) {
+            TestCommon.assertExceptionCorrect(got, expected);
+        }
+    }
+}
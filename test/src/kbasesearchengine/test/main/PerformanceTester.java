@@ -162,6 +162,9 @@ public class PerformanceTester {
             public void timeStat(GUID guid, long loadMs, long parseMs, long indexMs) {
                 timeStats.add(new long[] {loadMs, parseMs, indexMs});
             }
+            @Override
+            public void skipStat(GUID guid, boolean skipped) {
+            }
         };
         final Map<String, TypeMappingParser> parsers = ImmutableMap.of(
                 "yaml", new YAMLTypeMappingParser());
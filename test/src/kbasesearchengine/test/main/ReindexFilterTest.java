@@ -0,0 +1,156 @@
+package kbasesearchengine.test.main;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import kbasesearchengine.common.GUID;
+import kbasesearchengine.common.ObjectJsonPath;
+import kbasesearchengine.main.LineLogger;
+import kbasesearchengine.main.ReindexFilter;
+import kbasesearchengine.search.ObjectData;
+import kbasesearchengine.system.ObjectTypeParsingRules;
+import kbasesearchengine.system.SearchObjectType;
+import kbasesearchengine.system.StorageObjectType;
+import kbasesearchengine.test.common.TestCommon;
+
+public class ReindexFilterTest {
+
+    private static final GUID GUID1 = new GUID("WS:1/2/3");
+    private static final StorageObjectType STYPE = new StorageObjectType("WS", "Genome");
+    private static final SearchObjectType GENOME = new SearchObjectType("Genome", 2);
+    private static final SearchObjectType GENOME_OLD = new SearchObjectType("Genome", 1);
+    private static final SearchObjectType SUMMARY = new SearchObjectType("GenomeSummary", 1);
+
+    private static ObjectTypeParsingRules rule(final SearchObjectType type) {
+        return ObjectTypeParsingRules.getBuilder(type, STYPE).build();
+    }
+
+    private static ObjectTypeParsingRules subRule(final SearchObjectType type) throws Exception {
+        return ObjectTypeParsingRules.getBuilder(type, STYPE)
+                .toSubObjectRule("Feature", new ObjectJsonPath("/features/[*]"),
+                        new ObjectJsonPath("/id"))
+                .build();
+    }
+
+    private static ObjectData doc(final SearchObjectType type, final String md5) {
+        return ObjectData.getBuilder(GUID1)
+                .withNullableType(type)
+                .withNullableMD5(md5)
+                .build();
+    }
+
+    private static void assertUnchanged(
+            final Collection<ObjectTypeParsingRules> rules,
+            final Collection<ObjectData> indexed,
+            final String sourceMD5,
+            final boolean expected) {
+        final LineLogger logger = mock(LineLogger.class);
+        assertThat("incorrect unchanged", new ReindexFilter(logger).isUnchanged(
+                GUID1, rules, indexed, sourceMD5), is(expected));
+        verify(logger).skipStat(GUID1, expected);
+        verifyNoMoreInteractions(logger);
+    }
+
+    @Test
+    public void constructFail() {
+        try {
+            new ReindexFilter(null);
+            fail("expected exception");
+        } catch (Exception got) {
+            TestCommon.assertExceptionCorrect(got, new NullPointerException("logger"));
+        }
+    }
+
+    @Test
+    public void unchanged() {
+        assertUnchanged(Arrays.asList(rule(GENOME), rule(SUMMARY)),
+                Arrays.asList(doc(GENOME, "abc"), doc(SUMMARY, "abc")), "abc", true);
+    }
+
+    @Test
+    public void unchangedWithOldTypeVersionDocs() {
+        // documents for old type versions aren't removed on reindexing
+        assertUnchanged(Arrays.asList(rule(GENOME)),
+                Arrays.asList(doc(GENOME_OLD, "def"), doc(GENOME, "abc")), "abc", true);
+    }
+
+    @Test
+    public void unchangedOnlySubObjectTypes() throws Exception {
+        assertUnchanged(Arrays.asList(subRule(SUMMARY)), Collections.emptyList(), "abc", true);
+    }
+
+    @Test
+    public void md5Mismatch() {
+        assertUnchanged(Arrays.asList(rule(GENOME)), Arrays.asList(doc(GENOME, "abc")), "abd",
+                false);
+        assertUnchanged(Arrays.asList(rule(GENOME)), Arrays.asList(doc(GENOME, "abc")), null,
+                false);
+    }
+
+    @Test
+    public void indexedMD5sDiffer() {
+        assertUnchanged(Arrays.asList(rule(GENOME), rule(SUMMARY)),
+                Arrays.asList(doc(GENOME, "abc"), doc(SUMMARY, "abd")), "abc", false);
+    }
+
+    @Test
+    public void indexedMD5Missing() {
+        assertUnchanged(Arrays.asList(rule(GENOME)), Arrays.asList(doc(GENOME, null)), "abc",
+                false);
+    }
+
+    @Test
+    public void typeVersionMismatch() {
+        // the type spec was updated since the object was indexed
+        assertUnchanged(Arrays.asList(rule(GENOME)), Arrays.asList(doc(GENOME_OLD, "abc")),
+                "abc", false);
+    }
+
+    @Test
+    public void typeMissing() {
+        // partially indexed
+        assertUnchanged(Arrays.asList(rule(GENOME), rule(SUMMARY)),
+                Arrays.asList(doc(GENOME, "abc")), "abc", false);
+        assertUnchanged(Arrays.asList(rule(GENOME)), Collections.emptyList(), "abc", false);
+    }
+
+    @Test
+    public void isUnchangedFail() {
+        final ReindexFilter rf = new ReindexFilter(mock(LineLogger.class));
+        final List<ObjectTypeParsingRules> r = Arrays.asList(rule(GENOME));
+        final List<ObjectData> d = Arrays.asList(doc(GENOME, "abc"));
+
+        failIsUnchanged(rf, null, r, d, new NullPointerException("guid"));
+        failIsUnchanged(rf, GUID1, null, d, new NullPointerException("rules"));
+        failIsUnchanged(rf, GUID1, Arrays.asList(rule(GENOME), null), d,
+                new NullPointerException("null item in rules"));
+        failIsUnchanged(rf, GUID1, r, null, new NullPointerException("indexed"));
+        failIsUnchanged(rf, GUID1, r, Arrays.asList(doc(GENOME, "abc"), null),
+                new NullPointerException("null item in indexed"));
+    }
+
+    private void failIsUnchanged(
+            final ReindexFilter rf,
+            final GUID guid,
+            final Collection<ObjectTypeParsingRules> rules,
+            final Collection<ObjectData> indexed,
+            final Exception expected) {
+        try {
+            rf.isUnchanged(guid, rules, indexed, "abc");
+            fail("expected exception");
+        } catch (Exception got) {
+            TestCommon.assertExceptionCorrect(got, expected);
+        }
+    }
+}
@@ -14,14 +14,17 @@ import kbasesearchengine.common.GUID;
 import kbasesearchengine.main.SearchInterface;
 import kbasesearchengine.main.SearchMethods;
 import kbasesearchengine.search.FoundHits;
+import kbasesearchengine.search.FoundTypes;
 import kbasesearchengine.search.IndexingStorage;
 import kbasesearchengine.search.ObjectData;
 import kbasesearchengine.search.PostProcessing;
+import kbasesearchengine.search.QueryProfile;
 import kbasesearchengine.system.SearchObjectType;
 import kbasesearchengine.system.TypeStorage;
 import kbasesearchengine.test.common.TestCommon;
 import org.junit.Test;
 import us.kbase.common.service.UObject;
+import us.kbase.common.service.UnauthorizedException;
 
 import java.time.Instant;
 import java.util.ArrayList;
@@ -705,5 +708,123 @@ public class SearchMethodsTest {
         assertThat("incorrect is object property", got.getIsObjectProperty(),
                 is(expected.getIsObjectProperty() == null ? 1L : expected.getIsObjectProperty()));
     }
+    
+    @Test
+    public void searchObjectsProfile() throws Exception {
+        final AccessGroupProvider agp = mock(AccessGroupProvider.class);
+        final IndexingStorage is = mock(IndexingStorage.class);
+        final TypeStorage ts = mock(TypeStorage.class);
+
+        final SearchInterface sm = new SearchMethods(agp, is, ts, set("admin"));
+        
+        final FoundHits fh = new FoundHits();
+        fh.sortingRules = Collections.emptyList();
+        fh.total = 0;
+        fh.guids = set();
+        fh.objects = Collections.emptyList();
+        fh.profile = QueryProfile.fromResponse("/foo/data/_search",
+                ImmutableMap.of("query", "q"), ImmutableMap.of("profile", ImmutableMap.of(
+                        "shards", Collections.emptyList())));
+        
+        when(is.searchObjects(
+                Arrays.asList("Genome"),
+                kbasesearchengine.search.MatchFilter.getBuilder().build(),
+                null, // sort
+                new kbasesearchengine.search.AccessFilter().withAccessGroups(set())
+                        .withAdmin(true),
+                null, // pagination
+                PP_DEFAULT,
+                true))
+                .thenReturn(fh);
+        
+        final SearchObjectsOutput res = sm.searchObjects(new SearchObjectsInput()
+                .withObjectTypes(Arrays.asList("Genome"))
+                .withMatchFilter(new MatchFilter())
+                .withAccessFilter(new AccessFilter())
+                .withProfile(1L),
+                "admin");
+        
+        assertThat("incorrect profile", res.getProfile().asClassInstance(Map.class),
+                is(ImmutableMap.of(
+                        "path", "/foo/data/_search",
+                        "query", ImmutableMap.of("query", "q"),
+                        "total_time_nanos", 0,
+                        "shards", Collections.emptyList())));
+    }
+    
+    @Test
+    public void searchObjectsProfileNotAdmin() throws Exception {
+        final AccessGroupProvider agp = mock(AccessGroupProvider.class);
+        final IndexingStorage is = mock(IndexingStorage.class);
+        final TypeStorage ts = mock(TypeStorage.class);
+
+        final SearchInterface sm = new SearchMethods(agp, is, ts, set("admin"));
+        
+        try {
+            sm.searchObjects(new SearchObjectsInput()
+                    .withMatchFilter(new MatchFilter())
+                    .withAccessFilter(new AccessFilter())
+                    .withProfile(1L),
+                    "auser");
+            fail("expected exception");
+        } catch (Exception got) {
+            TestCommon.assertExceptionCorrect(got, new UnauthorizedException(
+                    "Only search administrators may profile queries"));
+        }
+    }
+    
+    @Test
+    public void searchTypesProfile() throws Exception {
+        final AccessGroupProvider agp = mock(AccessGroupProvider.class);
+        final IndexingStorage is = mock(IndexingStorage.class);
+        final TypeStorage ts = mock(TypeStorage.class);
+
+        final SearchInterface sm = new SearchMethods(agp, is, ts, set("admin"));
+        
+        final FoundTypes ft = new FoundTypes();
+        ft.typeToCount = ImmutableMap.of("Genome", 3);
+        ft.profile = QueryProfile.fromResponse("/foo/data/_search",
+                ImmutableMap.of("query", "q"), ImmutableMap.of("profile", ImmutableMap.of(
+                        "shards", Collections.emptyList())));
+        
+        when(is.searchTypes(
+                kbasesearchengine.search.MatchFilter.getBuilder().build(),
+                new kbasesearchengine.search.AccessFilter().withAccessGroups(set())
+                        .withAdmin(true),
+                true))
+                .thenReturn(ft);
+        
+        final SearchTypesOutput res = sm.searchTypes(new SearchTypesInput()
+                .withMatchFilter(new MatchFilter())
+                .withAccessFilter(new AccessFilter())
+                .withProfile(1L),
+                "admin");
+        
+        assertThat("incorrect counts", res.getTypeToCount(), is(ImmutableMap.of("Genome", 3L)));
+        assertThat("incorrect profile path",
+                res.getProfile().asClassInstance(Map.class).get("path"),
+                is("/foo/data/_search"));
+    }
+    
+    @Test
+    public void searchTypesProfileNotAdmin() throws Exception {
+        final AccessGroupProvider agp = mock(AccessGroupProvider.class);
+        final IndexingStorage is = mock(IndexingStorage.class);
+        final TypeStorage ts = mock(TypeStorage.class);
+
+        final SearchInterface sm = new SearchMethods(agp, is, ts, Collections.emptySet());
+        
+        try {
+            sm.searchTypes(new SearchTypesInput()
+                    .withMatchFilter(new MatchFilter())
+                    .withAccessFilter(new AccessFilter())
+                    .withProfile(1L),
+                    "auser");
+            fail("expected exception");
+        } catch (Exception got) {
+            TestCommon.assertExceptionCorrect(got, new UnauthorizedException(
+                    "Only search administrators may profile queries"));
+        }
+    }
 
 }
@@ -20,6 +20,10 @@ import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 
@@ -39,6 +43,7 @@ import com.google.common.collect.ImmutableMap;
 import junit.framework.Assert;
 import kbasesearchengine.common.GUID;
 import kbasesearchengine.common.ObjectJsonPath;
+import kbasesearchengine.events.ObjectIDRange;
 import kbasesearchengine.events.exceptions.ErrorType;
 import kbasesearchengine.events.exceptions.FatalIndexingException;
 import kbasesearchengine.events.exceptions.IndexingException;
@@ -54,6 +59,7 @@ import kbasesearchengine.parse.SubObjectConsumer;
 import kbasesearchengine.parse.KeywordParser.ObjectLookupProvider;
 import kbasesearchengine.search.AccessFilter;
 import kbasesearchengine.search.ElasticIndexingStorage;
+import kbasesearchengine.search.ElasticIndexingStorage.WarmUpQuery;
 import kbasesearchengine.search.MatchFilter;
 import kbasesearchengine.search.MatchFilter.Builder;
 import kbasesearchengine.search.MatchValue;
@@ -923,6 +929,79 @@ public class ElasticIndexingStorageTest {
                 filterPublic), is(set()));
     }
     
+    @Test
+    public void testDeleteAllVersionsInRange() throws Exception {
+        SearchObjectType objType = new SearchObjectType("DelRange", 1);
+        List<String> type = ImmutableList.of(objType.getType());
+        IndexingRules ir = IndexingRules.fromPath(new ObjectJsonPath("myprop"))
+                .withFullText().build();
+        final ObjectTypeParsingRules rule = ObjectTypeParsingRules.getBuilder(
+                objType, new StorageObjectType("foo", "bar"))
+                .withIndexingRule(ir).build();
+        GUID id1 = new GUID("WS:110/1/1");
+        GUID id2 = new GUID("WS:110/2/1");
+        GUID id3 = new GUID("WS:110/3/1");
+        indexObject(id1, rule, "{\"myprop\": \"some stuff\"}", "myobj", Instant.now(), null,
+                false);
+        indexObject(id2, rule, "{\"myprop\": \"some other stuff\"}", "myobj", Instant.now(),
+                null, false);
+        indexObject(id3, rule, "{\"myprop\": \"some more stuff\"}", "myobj", Instant.now(),
+                null, false);
+        
+        final AccessFilter filter = AccessFilter.create().withAccessGroups(110);
+
+        assertThat("incorrect ids returned", lookupIdsByKey(type, "myprop", "some",
+                filter), is(set(id1, id2, id3)));
+
+        // object 4 doesn't exist and should be ignored
+        indexStorage.deleteAllVersions("WS", 110, new ObjectIDRange(2, 4));
+        indexStorage.refreshIndexByType(rule);
+        assertThat("incorrect ids returned", lookupIdsByKey(type, "myprop", "some",
+                filter), is(set(id1)));
+        
+        // check the range delete is compatible with the single object undelete
+        indexStorage.undeleteAllVersions(id2);
+        indexStorage.refreshIndexByType(rule);
+        assertThat("incorrect ids returned", lookupIdsByKey(type, "myprop", "some",
+                filter), is(set(id1, id2)));
+    }
+    
+    @Test
+    public void testPublishAllVersionsInRange() throws Exception {
+        SearchObjectType objType = new SearchObjectType("PublishRange", 1);
+        List<String> type = ImmutableList.of(objType.getType());
+        IndexingRules ir = IndexingRules.fromPath(new ObjectJsonPath("myprop"))
+                .withFullText().build();
+        final ObjectTypeParsingRules rule = ObjectTypeParsingRules.getBuilder(
+                objType, new StorageObjectType("foo", "bar"))
+                .withIndexingRule(ir).build();
+        GUID id1 = new GUID("WS:210/1/1");
+        GUID id2 = new GUID("WS:210/2/1");
+        GUID id3 = new GUID("WS:210/3/1");
+        indexObject(id1, rule, "{\"myprop\": \"some stuff\"}", "myobj", Instant.now(), null,
+                false);
+        indexObject(id2, rule, "{\"myprop\": \"some other stuff\"}", "myobj", Instant.now(),
+                null, false);
+        indexObject(id3, rule, "{\"myprop\": \"some more stuff\"}", "myobj", Instant.now(),
+                null, false);
+        
+        final AccessFilter filterPublic = AccessFilter.create()
+                .withAllHistory(true).withPublic(true);
+
+        assertThat("incorrect ids returned", lookupIdsByKey(type, "myprop", "some",
+                filterPublic), is(set()));
+
+        indexStorage.publishAllVersions("WS", 210, new ObjectIDRange(1, 2));
+        indexStorage.refreshIndexByType(rule);
+        assertThat("incorrect ids returned", lookupIdsByKey(type, "myprop", "some",
+                filterPublic), is(set(id1, id2)));
+
+        indexStorage.unpublishAllVersions("WS", 210, new ObjectIDRange(2, 3));
+        indexStorage.refreshIndexByType(rule);
+        assertThat("incorrect ids returned", lookupIdsByKey(type, "myprop", "some",
+                filterPublic), is(set(id1)));
+    }
+    
     @Test
     public void testTypeVersions() throws Exception {
         /* test that types with incompatible fields but different versions index successfully. */
@@ -1502,4 +1581,163 @@ public class ElasticIndexingStorageTest {
             assertThat("Incorrect highlighting", res, is(result2));
         }
     }
+    
+    @Test
+    public void concurrentIndexAndSearch() throws Exception {
+        /* many threads index into and search a type whose index doesn't exist yet. The index
+         * must be created exactly once and no thread should see a partially created index.
+         */
+        final int threads = 16;
+        final int objectsPerThread = 5;
+        final ObjectTypeParsingRules rule = ObjectTypeParsingRules.getBuilder(
+                new SearchObjectType("ConcurrentType", 1),
+                new StorageObjectType("foo", "bar"))
+                .withIndexingRule(IndexingRules.fromPath(new ObjectJsonPath("whee")).build())
+                .build();
+        final ExecutorService exe = Executors.newFixedThreadPool(threads);
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<Future<Void>> futures = new ArrayList<>();
+        try {
+            for (int t = 0; t < threads; t++) {
+                final int thread = t;
+                futures.add(exe.submit(() -> {
+                    start.await();
+                    for (int i = 0; i < objectsPerThread; i++) {
+                        final GUID guid = new GUID("WS:3000/" + (thread * objectsPerThread + i + 1)
+                                + "/1");
+                        indexStorage.indexObjects(
+                                rule,
+                                SourceData.getBuilder(new UObject(new HashMap<>()), "objname",
+                                        "creator").build(),
+                                Instant.ofEpochMilli(10000),
+                                null,
+                                guid,
+                                ImmutableMap.of(guid, new ParsedObject(
+                                        "{\"whee\": \"concurrentpony\"}",
+                                        ImmutableMap.of("whee", Arrays.asList("concurrentpony")))),
+                                false);
+                        indexStorage.searchIds(
+                                Arrays.asList("ConcurrentType"),
+                                MatchFilter.getBuilder().withNullableFullTextInAll("concurrentpony")
+                                        .build(),
+                                null,
+                                AccessFilter.create().withAccessGroups(3000));
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (final Future<Void> f: futures) {
+                f.get(); // rethrows any exception from the indexing or search threads
+            }
+        } finally {
+            exe.shutdownNow();
+        }
+        
+        final Set<GUID> res = indexStorage.searchIds(
+                Arrays.asList("ConcurrentType"),
+                MatchFilter.getBuilder().withNullableFullTextInAll("concurrentpony").build(),
+                null,
+                AccessFilter.create().withAccessGroups(3000));
+        assertThat("incorrect hit count", res.size(), is(threads * objectsPerThread));
+    }
+    
+    @Test
+    public void warmUp() throws Exception {
+        final ObjectTypeParsingRules rule = ObjectTypeParsingRules.getBuilder(
+                new SearchObjectType("WarmUpType", 1),
+                new StorageObjectType("foo", "bar"))
+                .withIndexingRule(IndexingRules.fromPath(new ObjectJsonPath("whee")).build())
+                .build();
+        indexStorage.indexObjects(
+                rule,
+                SourceData.getBuilder(new UObject(new HashMap<>()), "objname", "creator").build(),
+                Instant.ofEpochMilli(10000),
+                null,
+                new GUID("WS:4000/1/1"),
+                ImmutableMap.of(new GUID("WS:4000/1/1"), new ParsedObject(
+                        "{\"whee\": \"warmpony\"}",
+                        ImmutableMap.of("whee", Arrays.asList("warmpony")))),
+                true);
+        
+        final ElasticIndexingStorage storage = new ElasticIndexingStorage(
+                indexStorage.getEsHost(), indexStorage.getTempDir());
+        storage.setIndexNamePrefix(indexStorage.getIndexNamePrefix());
+        assertThat("incorrect ready", storage.isReady(), is(false));
+        
+        storage.warmUp(Arrays.asList(rule), Arrays.asList(WarmUpQuery.values()));
+        
+        assertThat("incorrect ready", storage.isReady(), is(true));
+        final Map<String, Object> status = storage.getWarmUpStatus();
+        assertThat("incorrect indexes", status.get("indexes_resolved"), is(1));
+        assertThat("incorrect queries", status.get("queries_run"), is(2));
+        assertThat("incorrect error", status.get("error"), is((Object) null));
+        
+        assertThat("incorrect search", storage.searchIds(
+                Arrays.asList("WarmUpType"),
+                MatchFilter.getBuilder().withNullableFullTextInAll("warmpony").build(),
+                null,
+                AccessFilter.create().withAccessGroups(4000)),
+                is(set(new GUID("WS:4000/1/1"))));
+        storage.close();
+    }
+    
+    @Test
+    public void warmUpMissingIndex() throws Exception {
+        // the name of an index that doesn't exist should not be cached, or the index would never
+        // be created with the correct mappings
+        final ObjectTypeParsingRules rule = ObjectTypeParsingRules.getBuilder(
+                new SearchObjectType("WarmUpMissing", 1),
+                new StorageObjectType("foo", "bar"))
+                .withIndexingRule(IndexingRules.fromPath(new ObjectJsonPath("whee")).build())
+                .build();
+        final String indexName = (indexStorage.getIndexNamePrefix() + "warmupmissing_1")
+                .toLowerCase();
+        
+        final ElasticIndexingStorage storage = new ElasticIndexingStorage(
+                indexStorage.getEsHost(), indexStorage.getTempDir());
+        storage.setIndexNamePrefix(indexStorage.getIndexNamePrefix());
+        
+        storage.warmUp(Arrays.asList(rule), Collections.emptyList());
+        
+        assertThat("incorrect ready", storage.isReady(), is(true));
+        assertThat("incorrect indexes", storage.getWarmUpStatus().get("indexes_resolved"),
+                is(0));
+        assertThat("index created", storage.listIndeces().contains(indexName), is(false));
+        
+        storage.indexObjects(
+                rule,
+                SourceData.getBuilder(new UObject(new HashMap<>()), "objname", "creator").build(),
+                Instant.ofEpochMilli(10000),
+                null,
+                new GUID("WS:4001/1/1"),
+                ImmutableMap.of(new GUID("WS:4001/1/1"), new ParsedObject(
+                        "{\"whee\": \"missingpony\"}",
+                        ImmutableMap.of("whee", Arrays.asList("missingpony")))),
+                true);
+        
+        assertThat("index not created", storage.listIndeces().contains(indexName), is(true));
+        assertThat("incorrect search", storage.searchIds(
+                Arrays.asList("WarmUpMissing"),
+                MatchFilter.getBuilder().withNullableFullTextInAll("missingpony").build(),
+                null,
+                AccessFilter.create().withAccessGroups(4001)),
+                is(set(new GUID("WS:4001/1/1"))));
+        storage.close();
+    }
+    
+    @Test
+    public void warmUpQueryFromName() {
+        assertThat("incorrect query", WarmUpQuery.fromName("search_types"),
+                is(WarmUpQuery.SEARCH_TYPES));
+        assertThat("incorrect query", WarmUpQuery.fromName("public_timestamp_sorted"),
+                is(WarmUpQuery.PUBLIC_TIMESTAMP_SORTED));
+        try {
+            WarmUpQuery.fromName("foo");
+            fail("expected exception");
+        } catch (Exception got) {
+            TestCommon.assertExceptionCorrect(got, new IllegalArgumentException(
+                    "Invalid warm up query: foo"));
+        }
+    }
 }
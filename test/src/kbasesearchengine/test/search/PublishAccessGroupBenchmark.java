@@ -0,0 +1,121 @@
+package kbasesearchengine.test.search;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.Arrays;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.http.HttpHost;
+
+import com.google.common.collect.ImmutableMap;
+
+import kbasesearchengine.common.GUID;
+import kbasesearchengine.common.ObjectJsonPath;
+import kbasesearchengine.events.ObjectIDRange;
+import kbasesearchengine.events.handler.SourceData;
+import kbasesearchengine.events.handler.WorkspaceEventHandler;
+import kbasesearchengine.parse.ParsedObject;
+import kbasesearchengine.search.ElasticIndexingStorage;
+import kbasesearchengine.system.IndexingRules;
+import kbasesearchengine.system.ObjectTypeParsingRules;
+import kbasesearchengine.system.SearchObjectType;
+import kbasesearchengine.system.StorageObjectType;
+import kbasesearchengine.test.common.TestCommon;
+import kbasesearchengine.test.controllers.elasticsearch.ElasticSearchController;
+import us.kbase.common.service.UObject;
+
+/** Measures the time taken to publish every object in a large workspace, first with one
+ * update per object as the indexer did when a publish access group event was expanded into
+ * per object events, and then with one update per object ID range as the indexer does now.
+ *
+ * The number of objects defaults to 20K and may be set with the first argument.
+ *
+ * Starts a local ElasticSearch with the test configuration (see {@link TestCommon}), so run
+ * with -Dtest.cfg=path/to/test.cfg. Not run as part of the test suite.
+ */
+public class PublishAccessGroupBenchmark {
+
+    private static final int DEFAULT_OBJECTS = 20_000;
+    private static final int WORKSPACE = 1;
+
+    public static void main(final String[] args) throws Exception {
+        final int objects = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_OBJECTS;
+        TestCommon.stfuLoggers();
+        final Path tdir = Paths.get(TestCommon.getTempDir());
+        final File tempDir = tdir.resolve("PublishAccessGroupBenchmark").toFile();
+        FileUtils.deleteQuietly(tempDir);
+        tempDir.mkdirs();
+        final ElasticSearchController es = new ElasticSearchController(
+                TestCommon.getElasticSearchExe(), tdir);
+        try {
+            final ElasticIndexingStorage storage = new ElasticIndexingStorage(
+                    new HttpHost("localhost", es.getServerPort()), tempDir);
+            storage.setIndexNamePrefix("bench_" + System.currentTimeMillis() + ".");
+            final ObjectTypeParsingRules rule = ObjectTypeParsingRules.getBuilder(
+                    new SearchObjectType("Bench", 1), new StorageObjectType("WS", "Bench"))
+                    .withIndexingRule(IndexingRules.fromPath(new ObjectJsonPath("myprop"))
+                            .withFullText().build())
+                    .build();
+
+            long start = System.nanoTime();
+            for (int i = 1; i <= objects; i++) {
+                final String json = "{\"myprop\": \"object " + i + "\"}";
+                storage.indexObject(rule,
+                        SourceData.getBuilder(new UObject(json), "obj" + i, "creator").build(),
+                        Instant.now(), null, new GUID("WS", WORKSPACE, i + "", 1, null, null),
+                        new ParsedObject(json, ImmutableMap.of(
+                                "myprop", Arrays.asList("object " + i))),
+                        false);
+            }
+            System.out.println(String.format("Indexed %,d objects in %.0f s",
+                    objects, (System.nanoTime() - start) / 1e9));
+
+            System.out.println(String.format("%-12s %10s %12s %12s", "method", "requests",
+                    "total s", "objects/s"));
+            start = System.nanoTime();
+            for (int i = 1; i <= objects; i++) {
+                storage.publishAllVersions(new GUID("WS", WORKSPACE, i + "", null, null, null));
+            }
+            report("per object", objects, objects, start);
+
+            unpublish(storage, objects);
+            start = System.nanoTime();
+            int requests = 0;
+            for (long first = 1; first <= objects;
+                    first += WorkspaceEventHandler.OBJECT_ID_RANGE_SIZE) {
+                final long last = Math.min(
+                        objects, first + WorkspaceEventHandler.OBJECT_ID_RANGE_SIZE - 1);
+                storage.publishAllVersions("WS", WORKSPACE, new ObjectIDRange(first, last));
+                requests++;
+            }
+            report("ranged", objects, requests, start);
+        } finally {
+            es.destroy(TestCommon.getDeleteTempFiles());
+            if (TestCommon.getDeleteTempFiles()) {
+                FileUtils.deleteQuietly(tempDir);
+            }
+        }
+    }
+
+    private static void unpublish(final ElasticIndexingStorage storage, final int objects)
+            throws Exception {
+        for (long first = 1; first <= objects;
+                first += WorkspaceEventHandler.OBJECT_ID_RANGE_SIZE) {
+            final long last = Math.min(
+                    objects, first + WorkspaceEventHandler.OBJECT_ID_RANGE_SIZE - 1);
+            storage.unpublishAllVersions("WS", WORKSPACE, new ObjectIDRange(first, last));
+        }
+    }
+
+    private static void report(
+            final String method,
+            final int objects,
+            final int requests,
+            final long start) {
+        final double sec = (System.nanoTime() - start) / 1e9;
+        System.out.println(String.format("%-12s %10d %12.2f %12.0f",
+                method, requests, sec, objects / sec));
+    }
+}
@@ -0,0 +1,178 @@
+package kbasesearchengine.test.search;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableMap;
+
+import kbasesearchengine.search.QueryProfile;
+import kbasesearchengine.search.QueryProfile.ClauseTiming;
+import kbasesearchengine.search.QueryProfile.ShardProfile;
+import kbasesearchengine.test.common.TestCommon;
+
+public class QueryProfileTest {
+
+    private static final Map<String, Object> QUERY = ImmutableMap.of(
+            "query", ImmutableMap.of("match_all", Collections.emptyMap()),
+            "profile", true);
+
+    private static Map<String, Object> node(
+            final String type,
+            final String description,
+            final long time,
+            final List<Object> children) {
+        return ImmutableMap.of(
+                "type", type,
+                "description", description,
+                "time_in_nanos", time,
+                "children", children);
+    }
+
+    @Test
+    public void fromResponse() {
+        final Map<String, Object> resp = ImmutableMap.of(
+                "took", 5,
+                "profile", ImmutableMap.of("shards", Arrays.asList(ImmutableMap.of(
+                        "id", "[node][idx][0]",
+                        "searches", Arrays.asList(ImmutableMap.of(
+                                "query", Arrays.asList(node("BooleanQuery", "+a +b", 1000,
+                                        Arrays.asList(
+                                                node("TermQuery", "a", 400,
+                                                        Collections.emptyList()),
+                                                node("ParentQuery", "b", 500,
+                                                        Collections.emptyList())))),
+                                "rewrite_time", 30,
+                                "collector", Arrays.asList(ImmutableMap.of(
+                                        "name", "SimpleTopScoreDocCollector",
+                                        "time_in_nanos", 200)))),
+                        "aggregations", Arrays.asList(node("TermsAggregator", "types", 70,
+                                Collections.emptyList()))))));
+
+        final QueryProfile qp = QueryProfile.fromResponse("/idx/data/_search", QUERY, resp);
+
+        assertThat("incorrect path", qp.getURLPath(), is("/idx/data/_search"));
+        assertThat("incorrect query", qp.getQuery(), is(QUERY));
+        assertThat("incorrect total", qp.getTotalTimeNanos(), is(1300L));
+        assertThat("incorrect shard count", qp.getShards().size(), is(1));
+
+        final ShardProfile sp = qp.getShards().get(0);
+        assertThat("incorrect id", sp.getShardID(), is("[node][idx][0]"));
+        assertThat("incorrect query time", sp.getQueryTimeNanos(), is(1000L));
+        assertThat("incorrect rewrite time", sp.getRewriteTimeNanos(), is(30L));
+        assertThat("incorrect collector time", sp.getCollectorTimeNanos(), is(200L));
+        assertThat("incorrect agg time", sp.getAggregationTimeNanos(), is(70L));
+        assertThat("incorrect clause count", sp.getClauses().size(), is(3));
+        assertClause(sp.getClauses().get(0), 0, "BooleanQuery", "+a +b", 1000);
+        assertClause(sp.getClauses().get(1), 1, "TermQuery", "a", 400);
+        assertClause(sp.getClauses().get(2), 1, "ParentQuery", "b", 500);
+        assertThat("incorrect agg count", sp.getAggregations().size(), is(1));
+        assertClause(sp.getAggregations().get(0), 0, "TermsAggregator", "types", 70);
+    }
+
+    @Test
+    public void fromResponseTruncateDescription() {
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 30; i++) {
+            sb.append("0123456789");
+        }
+        final Map<String, Object> resp = ImmutableMap.of(
+                "profile", ImmutableMap.of("shards", Arrays.asList(ImmutableMap.of(
+                        "id", "[node][idx][0]",
+                        "searches", Arrays.asList(ImmutableMap.of(
+                                "query", Arrays.asList(node("TermQuery", sb.toString(), 1,
+                                        Collections.emptyList()))))))));
+
+        final ClauseTiming ct = QueryProfile.fromResponse("/idx/data/_search", QUERY, resp)
+                .getShards().get(0).getClauses().get(0);
+
+        assertThat("incorrect description length", ct.getDescription().length(), is(200));
+        assertThat("incorrect description", ct.getDescription(),
+                is(sb.substring(0, 197) + "..."));
+    }
+
+    @Test
+    public void fromResponseNoProfile() {
+        final QueryProfile qp = QueryProfile.fromResponse(
+                "/idx/data/_search", QUERY, ImmutableMap.of("took", 5));
+
+        assertThat("incorrect shards", qp.getShards(), is(Collections.emptyList()));
+        assertThat("incorrect total", qp.getTotalTimeNanos(), is(0L));
+    }
+
+    @Test
+    public void toMap() {
+        final Map<String, Object> resp = ImmutableMap.of(
+                "profile", ImmutableMap.of("shards", Arrays.asList(ImmutableMap.of(
+                        "id", "[node][idx][0]",
+                        "searches", Arrays.asList(ImmutableMap.of(
+                                "query", Arrays.asList(node("TermQuery", "a", 10,
+                                        Collections.emptyList())),
+                                "rewrite_time", 2,
+                                "collector", Collections.emptyList()))))));
+
+        final Map<String, Object> m = QueryProfile.fromResponse(
+                "/idx/data/_search", QUERY, resp).toMap();
+
+        assertThat("incorrect map", m, is(ImmutableMap.of(
+                "path", "/idx/data/_search",
+                "query", QUERY,
+                "total_time_nanos", 12L,
+                "shards", Arrays.asList(ImmutableMap.builder()
+                        .put("id", "[node][idx][0]")
+                        .put("query_time_nanos", 10L)
+                        .put("rewrite_time_nanos", 2L)
+                        .put("collector_time_nanos", 0L)
+                        .put("aggregation_time_nanos", 0L)
+                        .put("clauses", Arrays.asList(ImmutableMap.of(
+                                "depth", 0,
+                                "type", "TermQuery",
+                                "description", "a",
+                                "time_nanos", 10L)))
+                        .put("aggregations", Collections.emptyList())
+                        .build()))));
+    }
+
+    @Test
+    public void fromResponseFail() {
+        failFromResponse(null, QUERY, Collections.emptyMap(), new IllegalArgumentException(
+                "urlPath cannot be null or whitespace only"));
+        failFromResponse("  \t  ", QUERY, Collections.emptyMap(), new IllegalArgumentException(
+                "urlPath cannot be null or whitespace only"));
+        failFromResponse("/p", null, Collections.emptyMap(), new NullPointerException(
+                "query"));
+        failFromResponse("/p", QUERY, null, new NullPointerException("searchResponse"));
+    }
+
+    private void failFromResponse(
+            final String path,
+            final Map<String, Object> query,
+            final Map<String, Object> response,
+            final Exception expected) {
+        try {
+            QueryProfile.fromResponse(path, query, response);
+            fail("expected exception");
+        } catch (Exception got) {
+            TestCommon.assertExceptionCorrect(got, expected);
+        }
+    }
+
+    private void assertClause(
+            final ClauseTiming ct,
+            final int depth,
+            final String type,
+            final String description,
+            final long time) {
+        assertThat("incorrect depth", ct.getDepth(), is(depth));
+        assertThat("incorrect type", ct.getType(), is(type));
+        assertThat("incorrect description", ct.getDescription(), is(description));
+        assertThat("incorrect time", ct.getTimeNanos(), is(time));
+    }
+}
@@ -0,0 +1,443 @@
+package kbasesearchengine.test.tools;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static kbasesearchengine.test.common.TestCommon.set;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.bson.Document;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.mongodb.MongoClient;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.UpdateOptions;
+
+import kbasesearchengine.events.StatusEvent;
+import kbasesearchengine.events.StatusEventPriority;
+import kbasesearchengine.events.StatusEventProcessingState;
+import kbasesearchengine.events.StoredStatusEvent;
+import kbasesearchengine.events.exceptions.ErrorType;
+import kbasesearchengine.events.exceptions.FatalRetriableIndexingException;
+import kbasesearchengine.events.storage.MongoDBStatusEventStorage;
+import kbasesearchengine.events.storage.StatusEventStorage;
+import kbasesearchengine.events.storage.StorageInitException;
+import kbasesearchengine.test.common.TestCommon;
+import kbasesearchengine.tools.WorkspaceEventGenerator;
+import kbasesearchengine.tools.WorkspaceEventGenerator.EventGeneratorException;
+import us.kbase.common.test.controllers.mongo.MongoController;
+
+public class WorkspaceEventGeneratorTest {
+
+    private static final String CHECKPOINT_COL = "wsEventGenCheckpoint";
+    private static final String CHECKPOINT_ID = "WSEG";
+    private static final String WATERMARK_ID = "WSEG_incremental";
+
+    private static MongoController mongo;
+    private static MongoClient mc;
+    private static MongoDatabase wsdb;
+    private static MongoDatabase db;
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        TestCommon.stfuLoggers();
+        mongo = new MongoController(
+                TestCommon.getMongoExe(),
+                Paths.get(TestCommon.getTempDir()),
+                TestCommon.useWiredTigerEngine());
+        mc = new MongoClient("localhost:" + mongo.getServerPort());
+        wsdb = mc.getDatabase("test_wseventgen_ws");
+        db = mc.getDatabase("test_wseventgen_search");
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws Exception {
+        if (mc != null) {
+            mc.close();
+        }
+        if (mongo != null) {
+            mongo.destroy(TestCommon.getDeleteTempFiles());
+        }
+    }
+
+    @Before
+    public void clean() {
+        TestCommon.destroyDB(wsdb);
+        TestCommon.destroyDB(db);
+        wsdb.getCollection("config").insertOne(
+                new Document("schemaver", 1).append("inupdate", false));
+    }
+
+    /* Fails all stores once set to fail after a number of successful stores. */
+    private static class FailingStorage extends MongoDBStatusEventStorage {
+
+        private int storesUntilFailure = -1;
+
+        private FailingStorage(final MongoDatabase db) throws StorageInitException {
+            super(db);
+        }
+
+        @Override
+        public List<StoredStatusEvent> storeAllUnique(
+                final Map<String, StatusEvent> newEvents,
+                final StatusEventProcessingState state,
+                final Set<String> workerCodes,
+                final String storedBy,
+                final StatusEventPriority priority)
+                throws FatalRetriableIndexingException {
+            if (storesUntilFailure == 0) {
+                throw new FatalRetriableIndexingException(ErrorType.OTHER, "well poop");
+            }
+            if (storesUntilFailure > 0) {
+                storesUntilFailure--;
+            }
+            return super.storeAllUnique(newEvents, state, workerCodes, storedBy, priority);
+        }
+    }
+
+    private static PrintStream devNull() {
+        return new PrintStream(new ByteArrayOutputStream());
+    }
+
+    private static void addWorkspace(final long wsid, final Instant moddate) {
+        wsdb.getCollection("workspaces").insertOne(new Document("ws", wsid)
+                .append("name", "ws" + wsid)
+                .append("meta", Collections.emptyList())
+                .append("del", false)
+                .append("moddate", Date.from(moddate)));
+    }
+
+    private static void addVersion(
+            final long wsid,
+            final long objid,
+            final int ver,
+            final Instant savedate) {
+        wsdb.getCollection("workspaceObjects").updateOne(
+                new Document("ws", wsid).append("id", objid),
+                new Document("$set", new Document("del", false)),
+                new UpdateOptions().upsert(true));
+        wsdb.getCollection("workspaceObjVersions").insertOne(new Document("ws", wsid)
+                .append("id", objid)
+                .append("ver", ver)
+                .append("type", "Foo.Bar-1.0")
+                .append("savedate", Date.from(savedate))
+                .append("meta", Collections.emptyList()));
+    }
+
+    /* Returns the stored events as ws/obj/ver strings. Duplicates are retained. */
+    private static List<String> getEvents(final StatusEventStorage storage) throws Exception {
+        final List<String> ret = new ArrayList<>();
+        for (final StoredStatusEvent e: storage.get(StatusEventProcessingState.UNPROC, -1)) {
+            ret.add(e.getEvent().getAccessGroupId().get() + "/" +
+                    e.getEvent().getAccessGroupObjectId().get() + "/" +
+                    e.getEvent().getVersion().get());
+        }
+        Collections.sort(ret);
+        return ret;
+    }
+
+    private static Document getCheckpoint() {
+        return db.getCollection(CHECKPOINT_COL).find(new Document("_id", CHECKPOINT_ID))
+                .first();
+    }
+
+    private static Instant getWatermark() {
+        return db.getCollection(CHECKPOINT_COL).find(new Document("_id", WATERMARK_ID))
+                .first().getDate("watermark").toInstant();
+    }
+
+    private static void setModDate(final long wsid, final Instant moddate) {
+        wsdb.getCollection("workspaces").updateOne(new Document("ws", wsid),
+                new Document("$set", new Document("moddate", Date.from(moddate))));
+    }
+
+    private static void createTestData() {
+        final Instant t = Instant.ofEpochMilli(10000);
+        addWorkspace(1, t);
+        addWorkspace(2, t);
+        addWorkspace(3, t);
+        addVersion(1, 1, 1, t);
+        addVersion(1, 1, 2, t);
+        addVersion(2, 1, 1, t);
+        addVersion(3, 1, 1, t);
+        addVersion(3, 2, 1, t);
+    }
+
+    private static final List<String> ALL_EVENTS = Arrays.asList(
+            "1/1/1", "1/1/2", "2/1/1", "3/1/1", "3/2/1");
+
+    @Test
+    public void generateWithCheckpoint() throws Exception {
+        createTestData();
+        final StatusEventStorage storage = new MongoDBStatusEventStorage(db);
+
+        new WorkspaceEventGenerator.Builder(storage, wsdb, devNull())
+                .withCheckpointDatabase(db)
+                .build()
+                .generateEvents();
+
+        assertThat("incorrect events", getEvents(storage), is(ALL_EVENTS));
+        final Document cp = getCheckpoint();
+        assertThat("incorrect complete", cp.getBoolean("complete"), is(true));
+        assertThat("incorrect watermark", cp.getInteger("ws"), is(4));
+    }
+
+    @Test
+    public void resumeCompleteRun() throws Exception {
+        createTestData();
+        final StatusEventStorage storage = new MongoDBStatusEventStorage(db);
+
+        new WorkspaceEventGenerator.Builder(storage, wsdb, devNull())
+                .withCheckpointDatabase(db)
+                .build()
+                .generateEvents();
+        final Document cp = getCheckpoint();
+
+        new WorkspaceEventGenerator.Builder(storage, wsdb, devNull())
+                .withCheckpointDatabase(db)
+                .withResume(true)
+                .build()
+                .generateEvents();
+
+        assertThat("incorrect events", getEvents(storage), is(ALL_EVENTS));
+        assertThat("incorrect run", getCheckpoint().getString("run"), is(cp.getString("run")));
+    }
+
+    @Test
+    public void resumeWithoutCheckpoint() throws Exception {
+        createTestData();
+        final StatusEventStorage storage = new MongoDBStatusEventStorage(db);
+
+        new WorkspaceEventGenerator.Builder(storage, wsdb, devNull())
+                .withCheckpointDatabase(db)
+                .withResume(true)
+                .build()
+                .generateEvents();
+
+        assertThat("incorrect events", getEvents(storage), is(ALL_EVENTS));
+        assertThat("incorrect complete", getCheckpoint().getBoolean("complete"), is(true));
+    }
+
+    @Test
+    public void resumeAfterFailedStore() throws Exception {
+        createTestData();
+        final FailingStorage storage = new FailingStorage(db);
+        storage.storesUntilFailure = 2;
+
+        try {
+            new WorkspaceEventGenerator.Builder(storage, wsdb, devNull())
+                    .withCheckpointDatabase(db)
+                    .withStoreBatchSize(1)
+                    .withParallelism(1)
+                    .build()
+                    .generateEvents();
+            fail("expected exception");
+        } catch (EventGeneratorException got) {
+            TestCommon.assertExceptionCorrect(got, new EventGeneratorException("well poop"));
+        }
+        assertThat("incorrect events", getEvents(storage), is(Arrays.asList("1/1/1", "1/1/2")));
+        // the failed batch was lost, so the checkpoint must not have moved
+        final Document cp = getCheckpoint();
+        assertThat("incorrect complete", cp.getBoolean("complete"), is(false));
+        assertThat("incorrect watermark", cp.getInteger("ws"), is(1));
+
+        storage.storesUntilFailure = -1;
+        new WorkspaceEventGenerator.Builder(storage, wsdb, devNull())
+                .withCheckpointDatabase(db)
+                .withStoreBatchSize(1)
+                .withParallelism(1)
+                .withResume(true)
+                .build()
+                .generateEvents();
+
+        // the events stored by the failed run are skipped rather than duplicated
+        assertThat("incorrect events", getEvents(storage), is(ALL_EVENTS));
+        final Document cp2 = getCheckpoint();
+        assertThat("incorrect run", cp2.getString("run"), is(cp.getString("run")));
+        assertThat("incorrect complete", cp2.getBoolean("complete"), is(true));
+    }
+
+    @Test
+    public void newRunAfterResumableRun() throws Exception {
+        // a new run doesn't skip the events of a previous run
+        createTestData();
+        final StatusEventStorage storage = new MongoDBStatusEventStorage(db);
+
+        new WorkspaceEventGenerator.Builder(storage, wsdb, devNull())
+                .withCheckpointDatabase(db)
+                .withNullableRef("1")
+                .build()
+                .generateEvents();
+        final String run = getCheckpoint().getString("run");
+        new WorkspaceEventGenerator.Builder(storage, wsdb, devNull())
+                .withCheckpointDatabase(db)
+                .withNullableRef("1")
+                .build()
+                .generateEvents();
+
+        assertThat("incorrect events", getEvents(storage),
+                is(Arrays.asList("1/1/1", "1/1/1", "1/1/2", "1/1/2")));
+        assertThat("run not changed", getCheckpoint().getString("run").equals(run), is(false));
+    }
+
+    @Test
+    public void resumeFailParamsMismatch() throws Exception {
+        createTestData();
+        final StatusEventStorage storage = new MongoDBStatusEventStorage(db);
+
+        new WorkspaceEventGenerator.Builder(storage, wsdb, devNull())
+                .withCheckpointDatabase(db)
+                .withNullableRef("1")
+                .build()
+                .generateEvents();
+        try {
+            new WorkspaceEventGenerator.Builder(storage, wsdb, devNull())
+                    .withCheckpointDatabase(db)
+                    .withNullableRef("2")
+                    .withResume(true)
+                    .build()
+                    .generateEvents();
+            fail("expected exception");
+        } catch (EventGeneratorException got) {
+            assertThat("incorrect exception message", got.getMessage().startsWith(
+                    "The parameters of the checkpointed run"), is(true));
+        }
+        assertThat("incorrect events", new HashSet<>(getEvents(storage)),
+                is(set("1/1/1", "1/1/2")));
+    }
+
+    @Test
+    public void buildFailResumeWithoutCheckpointDB() throws Exception {
+        try {
+            new WorkspaceEventGenerator.Builder(
+                    new MongoDBStatusEventStorage(db), wsdb, devNull())
+                    .withResume(true)
+                    .build();
+            fail("expected exception");
+        } catch (Exception got) {
+            TestCommon.assertExceptionCorrect(got, new EventGeneratorException(
+                    "A checkpoint database is required to resume a run"));
+        }
+    }
+
+    private static void generateIncremental(
+            final StatusEventStorage storage,
+            final Instant since,
+            final PrintStream log)
+            throws Exception {
+        new WorkspaceEventGenerator.Builder(storage, wsdb, log)
+                .withCheckpointDatabase(db)
+                .withIncremental(true)
+                .withNullableSince(since)
+                .build()
+                .generateEvents();
+    }
+
+    @Test
+    public void incrementalFirstRun() throws Exception {
+        // with no watermark all versions are processed
+        createTestData();
+        final StatusEventStorage storage = new MongoDBStatusEventStorage(db);
+
+        final Instant start = Instant.now();
+        generateIncremental(storage, null, devNull());
+        final Instant end = Instant.now();
+
+        assertThat("incorrect events", getEvents(storage), is(ALL_EVENTS));
+        final Instant wm = getWatermark();
+        assertThat("watermark before run start", wm.toEpochMilli() >= start.toEpochMilli(),
+                is(true));
+        assertThat("watermark after run end", wm.toEpochMilli() <= end.toEpochMilli(),
+                is(true));
+    }
+
+    @Test
+    public void incrementalSecondRun() throws Exception {
+        // only versions saved since the watermark are processed
+        createTestData();
+        final StatusEventStorage storage = new MongoDBStatusEventStorage(db);
+        generateIncremental(storage, null, devNull());
+        final Instant wm = getWatermark();
+
+        final Instant now = Instant.now();
+        addVersion(2, 1, 2, now);
+        setModDate(2, now);
+        addWorkspace(4, now);
+        addVersion(4, 1, 1, now);
+        generateIncremental(storage, null, devNull());
+
+        assertThat("incorrect events", getEvents(storage), is(Arrays.asList(
+                "1/1/1", "1/1/2", "2/1/1", "2/1/2", "3/1/1", "3/2/1", "4/1/1")));
+        assertThat("watermark not advanced", getWatermark().isAfter(wm), is(true));
+    }
+
+    @Test
+    public void incrementalOverlapNoDuplicates() throws Exception {
+        // versions saved just before the watermark are processed again but not stored twice
+        final Instant recent = Instant.now().minus(Duration.ofMinutes(1));
+        addWorkspace(1, recent);
+        addVersion(1, 1, 1, recent);
+        final StatusEventStorage storage = new MongoDBStatusEventStorage(db);
+        generateIncremental(storage, null, devNull());
+
+        final ByteArrayOutputStream log = new ByteArrayOutputStream();
+        generateIncremental(storage, null, new PrintStream(log));
+
+        assertThat("incorrect events", getEvents(storage), is(Arrays.asList("1/1/1")));
+        assertThat("version in overlap not processed", log.toString().contains(
+                "Stored 0 events, skipped 1 previously stored events"), is(true));
+    }
+
+    @Test
+    public void incrementalSinceOverridesWatermark() throws Exception {
+        createTestData();
+        final StatusEventStorage storage = new MongoDBStatusEventStorage(db);
+        db.getCollection(CHECKPOINT_COL).insertOne(new Document("_id", WATERMARK_ID)
+                .append("watermark", Date.from(Instant.now())));
+
+        generateIncremental(storage, null, devNull());
+        assertThat("incorrect events", getEvents(storage), is(Collections.emptyList()));
+
+        generateIncremental(storage, Instant.ofEpochMilli(5000), devNull());
+        assertThat("incorrect events", getEvents(storage), is(ALL_EVENTS));
+    }
+
+    @Test
+    public void sinceFilters() throws Exception {
+        final Instant old = Instant.ofEpochMilli(10000);
+        final Instant since = Instant.ofEpochMilli(20000);
+        final Instant recent = Instant.ofEpochMilli(30000);
+        // the workspace modification date is checked before the version save dates
+        addWorkspace(1, old);
+        addVersion(1, 1, 1, recent);
+        addWorkspace(2, recent);
+        addVersion(2, 1, 1, old);
+        addVersion(2, 1, 2, since);
+        addVersion(2, 2, 1, recent);
+        final StatusEventStorage storage = new MongoDBStatusEventStorage(db);
+
+        new WorkspaceEventGenerator.Builder(storage, wsdb, devNull())
+                .withNullableSince(since)
+                .build()
+                .generateEvents();
+
+        assertThat("incorrect events", getEvents(storage), is(Arrays.asList("2/1/2", "2/2/1")));
+    }
+
+}